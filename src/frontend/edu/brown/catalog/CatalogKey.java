@@ -2,6 +2,7 @@ package edu.brown.catalog;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -52,9 +53,9 @@ public abstract class CatalogKey {
     private static final String MULTIATTRIBUTE_DELIMITER = "#";
     private static final Pattern MULTIATTRIBUTE_DELIMITER_REGEX = Pattern.compile(Pattern.quote(MULTIATTRIBUTE_DELIMITER));
 
-    private static final Map<CatalogType, String> CACHE_CREATEKEY = new HashMap<CatalogType, String>();
-    private static final Map<Database, Map<String, CatalogType>> CACHE_GETFROMKEY = new HashMap<Database, Map<String, CatalogType>>();
-    private static final Map<String, String> CACHE_NAMEFROMKEY = new HashMap<String, String>();
+    private static final Map<CatalogType, String> CACHE_CREATEKEY = Collections.synchronizedMap(new HashMap<CatalogType, String>());
+    private static final Map<Database, Map<String, CatalogType>> CACHE_GETFROMKEY = Collections.synchronizedMap(new HashMap<Database, Map<String, CatalogType>>());
+    private static final Map<String, String> CACHE_NAMEFROMKEY = Collections.synchronizedMap(new HashMap<String, String>());
 
     public static class InvalidCatalogKey extends RuntimeException {
         private static final long serialVersionUID = 1L;
@@ -205,7 +206,7 @@ public abstract class CatalogKey {
             if (cache.containsKey(key))
                 return (T) cache.get(key);
         } else {
-            cache = new HashMap<String, CatalogType>();
+            cache = Collections.synchronizedMap(new HashMap<String, CatalogType>());
             CatalogKey.CACHE_GETFROMKEY.put(catalog_db, cache);
         }
 
@@ -14,6 +14,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.collections15.CollectionUtils;
 import org.apache.commons.collections15.map.ListOrderedMap;
@@ -245,11 +246,12 @@ public abstract class CatalogUtil extends org.voltdb.utils.CatalogUtil {
 
     }
 
-    private static final Map<Database, CatalogUtil.Cache> CACHE = new HashMap<Database, CatalogUtil.Cache>();
+    private static final ConcurrentHashMap<Database, CatalogUtil.Cache> CACHE = new ConcurrentHashMap<Database, CatalogUtil.Cache>();
 
     /**
      * Get the Cache handle for the Database catalog object If one doesn't exist
-     * yet, it will be created
+     * yet, it will be created. If two threads race to create it, then only one
+     * of them will win and everybody gets back the same handle.
      * 
      * @param catalog_item
      * @return
@@ -258,8 +260,9 @@ public abstract class CatalogUtil extends org.voltdb.utils.CatalogUtil {
         final Database catalog_db = (catalog_item instanceof Database ? (Database) catalog_item : CatalogUtil.getDatabase(catalog_item));
         CatalogUtil.Cache ret = CACHE.get(catalog_db);
         if (ret == null) {
-            ret = new CatalogUtil.Cache();
-            CACHE.put(catalog_db, ret);
+            CatalogUtil.Cache new_cache = new CatalogUtil.Cache();
+            ret = CACHE.putIfAbsent(catalog_db, new_cache);
+            if (ret == null) ret = new_cache;
         }
         assert (ret != null) : "Failed to cache for " + catalog_item.fullName();
         return (ret);
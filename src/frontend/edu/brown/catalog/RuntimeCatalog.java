@@ -0,0 +1,520 @@
+/***************************************************************************
+ *   Copyright (C) 2012 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+package edu.brown.catalog;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.voltdb.catalog.Catalog;
+import org.voltdb.catalog.CatalogType;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Partition;
+import org.voltdb.catalog.PlanFragment;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.Table;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * An immutable, array-indexed view of a Database catalog that is meant for
+ * lookups on the txn hot path. The CatalogMaps are TreeMaps keyed by name, so
+ * resolving an object by its id means walking the entire map. This is built once
+ * for a particular version of the catalog and should be thrown away (not modified)
+ * whenever the catalog changes.
+ * <B>Ids:</B>
+ * <UL>
+ *  <LI>Procedures and Statements are indexed by their catalog id
+ *  <LI>PlanFragments are indexed by their catalog id without the flag bits
+ *      set by {@link PlanFragmentIdGenerator}
+ *  <LI>Tables are indexed by their relative index (i.e., the EE's table id)
+ *  <LI>Columns are indexed by their table id and then their column index
+ * </UL>
+ * If a catalog does not have unique ids (e.g., older catalogs), then the lookups
+ * for that catalog type will fall back to a HashMap.
+ */
+public class RuntimeCatalog {
+    private static final Logger LOG = Logger.getLogger(RuntimeCatalog.class);
+    private final static LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private final static LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * The flag bits in PlanFragment ids start at this offset
+     * @see PlanFragmentIdGenerator
+     */
+    private static final int FRAGMENT_ID_MASK = (1 << 16) - 1;
+
+    /**
+     * If the largest id for a catalog type is more than this many times larger
+     * than the number of items, then we'll use a HashMap instead of an array
+     */
+    private static final int MAX_SPARSITY = 4;
+
+    /**
+     * Maps catalog ids to CatalogType objects. This is an array if
+     * the ids are unique and dense, otherwise it is a HashMap.
+     */
+    private static final class IdIndex<T extends CatalogType> {
+        private final int mask;
+        private final int ids[];
+        private final T items[];
+        private final Map<Integer, T> map;
+
+        @SuppressWarnings("unchecked")
+        IdIndex(Class<T> clazz, List<T> all, int all_ids[], int mask) {
+            this.mask = mask;
+            int max_idx = -1;
+            boolean valid = true;
+            for (int i = 0; i < all_ids.length; i++) {
+                if (all_ids[i] < 0) {
+                    valid = false;
+                    break;
+                }
+                max_idx = Math.max(max_idx, all_ids[i] & mask);
+            } // FOR
+            if (valid && max_idx > MAX_SPARSITY * all_ids.length + 16) valid = false;
+
+            int t_ids[] = null;
+            T t_items[] = null;
+            if (valid) {
+                t_ids = new int[max_idx + 1];
+                t_items = (T[])Array.newInstance(clazz, max_idx + 1);
+                for (int i = 0; i < all_ids.length; i++) {
+                    int idx = all_ids[i] & mask;
+                    if (t_items[idx] != null) {
+                        LOG.warn(String.format("Duplicate %s id #%d for %s and %s. Lookups will use a HashMap",
+                                               clazz.getSimpleName(), all_ids[i], t_items[idx], all.get(i)));
+                        valid = false;
+                        break;
+                    }
+                    t_ids[idx] = all_ids[i];
+                    t_items[idx] = all.get(i);
+                } // FOR
+            }
+
+            if (valid) {
+                this.ids = t_ids;
+                this.items = t_items;
+                this.map = null;
+            } else {
+                this.ids = null;
+                this.items = null;
+                this.map = new HashMap<Integer, T>();
+                for (int i = 0; i < all_ids.length; i++) {
+                    this.map.put(all_ids[i], all.get(i));
+                } // FOR
+            }
+        }
+
+        T get(int id) {
+            if (this.items != null) {
+                int idx = id & this.mask;
+                if (id >= 0 && idx < this.items.length && this.ids[idx] == id) {
+                    return (this.items[idx]);
+                }
+                return (null);
+            }
+            return (this.map.get(id));
+        }
+        boolean isArray() {
+            return (this.items != null);
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // DATA MEMBERS
+    // ----------------------------------------------------------------------------
+
+    private final Database catalog_db;
+    private final int version;
+
+    private final Procedure procedures[];
+    private final IdIndex<Procedure> procedureIds;
+    private final Map<String, Procedure> procedureNames = new HashMap<String, Procedure>();
+    
+    /**
+     * The number of times that a procedure id did not match the name that came with it
+     */
+    private final AtomicLong procedureIdMismatches = new AtomicLong(0);
+
+    private final Statement statements[];
+    private final IdIndex<Statement> statementIds;
+
+    private final PlanFragment fragments[];
+    private final IdIndex<PlanFragment> fragmentIds;
+
+    /**
+     * TableId -> Table
+     */
+    private final Table tables[];
+    private final Map<String, Table> tableNames = new HashMap<String, Table>();
+
+    /**
+     * TableId -> ColumnIndex -> Column
+     */
+    private final Column columns[][];
+
+    /**
+     * TableId -> Partitioning Column (null if the table is replicated)
+     */
+    private final Column tablePartitionColumns[];
+
+    /**
+     * PartitionId -> Partition
+     */
+    private final Partition partitions[];
+
+    /**
+     * PartitionId -> SiteId
+     */
+    private final int partitionSites[];
+
+    // ----------------------------------------------------------------------------
+    // INITIALIZATION
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Compile a new RuntimeCatalog for the current version of the given Database
+     * @param catalog_db
+     */
+    public RuntimeCatalog(Database catalog_db) {
+        this.catalog_db = catalog_db;
+        this.version = RuntimeCatalog.getVersion(catalog_db);
+
+        // PROCEDURES + STATEMENTS + FRAGMENTS
+        List<Procedure> all_procs = new ArrayList<Procedure>();
+        List<Statement> all_stmts = new ArrayList<Statement>();
+        List<PlanFragment> all_frags = new ArrayList<PlanFragment>();
+        for (Procedure catalog_proc : catalog_db.getProcedures()) {
+            all_procs.add(catalog_proc);
+            this.procedureNames.put(catalog_proc.getName(), catalog_proc);
+            this.procedureNames.put(catalog_proc.getName().toLowerCase(), catalog_proc);
+            for (Statement catalog_stmt : catalog_proc.getStatements()) {
+                all_stmts.add(catalog_stmt);
+                for (PlanFragment catalog_frag : catalog_stmt.getFragments()) {
+                    all_frags.add(catalog_frag);
+                } // FOR
+                for (PlanFragment catalog_frag : catalog_stmt.getMs_fragments()) {
+                    all_frags.add(catalog_frag);
+                } // FOR
+            } // FOR (stmt)
+        } // FOR (proc)
+        this.procedures = all_procs.toArray(new Procedure[all_procs.size()]);
+        this.statements = all_stmts.toArray(new Statement[all_stmts.size()]);
+        this.fragments = all_frags.toArray(new PlanFragment[all_frags.size()]);
+
+        int ids[] = new int[this.procedures.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = this.procedures[i].getId();
+        } // FOR
+        this.procedureIds = new IdIndex<Procedure>(Procedure.class, all_procs, ids, -1);
+
+        ids = new int[this.statements.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = this.statements[i].getId();
+        } // FOR
+        this.statementIds = new IdIndex<Statement>(Statement.class, all_stmts, ids, -1);
+
+        ids = new int[this.fragments.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = this.fragments[i].getId();
+        } // FOR
+        this.fragmentIds = new IdIndex<PlanFragment>(PlanFragment.class, all_frags, ids, FRAGMENT_ID_MASK);
+
+        // TABLES + COLUMNS
+        int max_table_id = 0;
+        for (Table catalog_tbl : catalog_db.getTables()) {
+            max_table_id = Math.max(max_table_id, catalog_tbl.getRelativeIndex());
+        } // FOR
+        this.tables = new Table[max_table_id + 1];
+        this.columns = new Column[max_table_id + 1][];
+        this.tablePartitionColumns = new Column[max_table_id + 1];
+        for (Table catalog_tbl : catalog_db.getTables()) {
+            int table_id = catalog_tbl.getRelativeIndex();
+            this.tables[table_id] = catalog_tbl;
+            this.tableNames.put(catalog_tbl.getName().toUpperCase(), catalog_tbl);
+
+            int max_col_idx = -1;
+            for (Column catalog_col : catalog_tbl.getColumns()) {
+                max_col_idx = Math.max(max_col_idx, catalog_col.getIndex());
+            } // FOR
+            this.columns[table_id] = new Column[max_col_idx + 1];
+            for (Column catalog_col : catalog_tbl.getColumns()) {
+                this.columns[table_id][catalog_col.getIndex()] = catalog_col;
+            } // FOR
+
+            if (catalog_tbl.getIsreplicated() == false) {
+                this.tablePartitionColumns[table_id] = catalog_tbl.getPartitioncolumn();
+            }
+        } // FOR
+
+        // PARTITIONS
+        int max_partition_id = -1;
+        for (Partition catalog_part : CatalogUtil.getAllPartitions(catalog_db)) {
+            max_partition_id = Math.max(max_partition_id, catalog_part.getId());
+        } // FOR
+        this.partitions = new Partition[max_partition_id + 1];
+        this.partitionSites = new int[max_partition_id + 1];
+        for (Partition catalog_part : CatalogUtil.getAllPartitions(catalog_db)) {
+            this.partitions[catalog_part.getId()] = catalog_part;
+            this.partitionSites[catalog_part.getId()] = ((Site)catalog_part.getParent()).getId();
+        } // FOR
+
+        if (debug.get())
+            LOG.debug(String.format("Compiled RuntimeCatalog for %s [version=%d, procs=%d, stmts=%d, frags=%d, tables=%d, partitions=%d]",
+                                    catalog_db.getName(), this.version,
+                                    this.procedures.length, this.statements.length, this.fragments.length,
+                                    catalog_db.getTables().size(), this.partitions.length));
+    }
+
+    /**
+     * Return the version of the catalog that the given Database belongs to.
+     * This changes whenever a catalog update modifies anything in the tree
+     * @param catalog_db
+     * @return
+     */
+    public static int getVersion(Database catalog_db) {
+        Catalog catalog = catalog_db.getCatalog();
+        return (catalog.getSubTreeVersion());
+    }
+
+    /**
+     * Returns true if the underlying catalog has changed since this
+     * RuntimeCatalog was compiled
+     */
+    public boolean isStale() {
+        return (this.version != RuntimeCatalog.getVersion(this.catalog_db));
+    }
+
+    public Database getDatabase() {
+        return (this.catalog_db);
+    }
+    public int getVersion() {
+        return (this.version);
+    }
+
+    // ----------------------------------------------------------------------------
+    // PROCEDURES
+    // ----------------------------------------------------------------------------
+
+    public Procedure[] getProcedures() {
+        return (this.procedures);
+    }
+
+    /**
+     * Return the Procedure for the given catalog id
+     * Returns null if the Procedure does not exist
+     * @param proc_id
+     * @return
+     */
+    public Procedure getProcedure(int proc_id) {
+        return (this.procedureIds.get(proc_id));
+    }
+
+    /**
+     * Return the Procedure for the given name (ignoring case)
+     * Returns null if the Procedure does not exist
+     * @param proc_name
+     * @return
+     */
+    public Procedure getProcedure(String proc_name) {
+        Procedure catalog_proc = this.procedureNames.get(proc_name);
+        if (catalog_proc == null) {
+            catalog_proc = this.procedureNames.get(proc_name.toLowerCase());
+        }
+        return (catalog_proc);
+    }
+
+    /**
+     * Return the Procedure handle for the given catalog id. The id comes from the client,
+     * so if it is invalid or the Procedure's name does not match the given name (ignoring case),
+     * then we will fall back to looking it up by its name.
+     * Returns null if the Procedure does not exist.
+     * @param proc_id
+     * @param proc_name
+     * @return
+     */
+    public Procedure getProcedure(int proc_id, String proc_name) {
+        Procedure catalog_proc = this.procedureIds.get(proc_id);
+        if (proc_name == null) return (catalog_proc);
+        
+        if (catalog_proc != null && catalog_proc.getName().equalsIgnoreCase(proc_name) == false) {
+            long ctr = this.procedureIdMismatches.incrementAndGet();
+            if (ctr == 1) {
+                LOG.warn(String.format("Procedure id #%d is for %s but the request was for '%s'. " +
+                                       "Falling back to procedure name lookups for mismatched ids",
+                                       proc_id, catalog_proc.getName(), proc_name));
+            } else if (debug.get()) {
+                LOG.debug(String.format("Procedure id #%d is for %s but the request was for '%s' [mismatches=%d]",
+                                        proc_id, catalog_proc.getName(), proc_name, ctr));
+            }
+            catalog_proc = null;
+        }
+        if (catalog_proc == null) {
+            catalog_proc = this.getProcedure(proc_name);
+        }
+        return (catalog_proc);
+    }
+    
+    /**
+     * Return the number of times that getProcedure() was given a procedure id
+     * that did not match the procedure name that came with it
+     */
+    public long getProcedureIdMismatches() {
+        return (this.procedureIdMismatches.get());
+    }
+
+    // ----------------------------------------------------------------------------
+    // STATEMENTS + FRAGMENTS
+    // ----------------------------------------------------------------------------
+
+    public Statement[] getStatements() {
+        return (this.statements);
+    }
+
+    /**
+     * Return the Statement for the given catalog id
+     * Returns null if the Statement does not exist
+     * @param stmt_id
+     * @return
+     */
+    public Statement getStatement(int stmt_id) {
+        return (this.statementIds.get(stmt_id));
+    }
+
+    public PlanFragment[] getPlanFragments() {
+        return (this.fragments);
+    }
+
+    /**
+     * Return the PlanFragment for the given catalog id
+     * Returns null if the PlanFragment does not exist
+     * @param frag_id
+     * @return
+     */
+    public PlanFragment getPlanFragment(int frag_id) {
+        return (this.fragmentIds.get(frag_id));
+    }
+
+    // ----------------------------------------------------------------------------
+    // TABLES + COLUMNS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Return the Table for the given table id (i.e., its relative index)
+     * Returns null if the Table does not exist
+     * @param table_id
+     * @return
+     */
+    public Table getTable(int table_id) {
+        return (table_id >= 0 && table_id < this.tables.length ? this.tables[table_id] : null);
+    }
+
+    /**
+     * Return the Table for the given name (ignoring case)
+     * Returns null if the Table does not exist
+     * @param table_name
+     * @return
+     */
+    public Table getTable(String table_name) {
+        return (this.tableNames.get(table_name.toUpperCase()));
+    }
+
+    /**
+     * Return the Column at the given offset in the Table with the given id
+     * Returns null if the Column does not exist
+     * @param table_id
+     * @param col_index
+     * @return
+     */
+    public Column getColumn(int table_id, int col_index) {
+        if (table_id < 0 || table_id >= this.columns.length || this.columns[table_id] == null) return (null);
+        Column cols[] = this.columns[table_id];
+        return (col_index >= 0 && col_index < cols.length ? cols[col_index] : null);
+    }
+
+    // ----------------------------------------------------------------------------
+    // PARTITIONING
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns true if the Table with the given id is replicated
+     * @param table_id
+     * @return
+     */
+    public boolean isReplicated(int table_id) {
+        return (this.tables[table_id] != null && this.tablePartitionColumns[table_id] == null);
+    }
+
+    /**
+     * Return the partitioning Column for the Table with the given id
+     * Returns null if the table is replicated
+     * @param table_id
+     * @return
+     */
+    public Column getPartitionColumn(int table_id) {
+        return (this.tablePartitionColumns[table_id]);
+    }
+
+    public int getNumberOfPartitions() {
+        return (this.partitions.length);
+    }
+
+    public Partition getPartition(int partition_id) {
+        return (this.partitions[partition_id]);
+    }
+
+    public int getSiteIdForPartitionId(int partition_id) {
+        return (this.partitionSites[partition_id]);
+    }
+
+    /**
+     * Returns true if all of the catalog types can be looked up by their
+     * ids without using a HashMap
+     */
+    protected boolean isDense() {
+        return (this.procedureIds.isArray() &&
+                this.statementIds.isArray() &&
+                this.fragmentIds.isArray());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s, version=%d]", this.getClass().getSimpleName(),
+                             this.catalog_db.getName(), this.version);
+    }
+}
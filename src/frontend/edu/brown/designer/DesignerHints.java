@@ -222,6 +222,18 @@ public class DesignerHints implements Cloneable, JSONSerializable {
     public double relaxation_factor_max = 0.5;
     public int relaxation_min_size = 5;
 
+    /**
+     * The number of relaxation neighborhoods that the LNSPartitioner will
+     * search concurrently at each restart
+     */
+    public int relaxation_neighborhoods = 1;
+
+    /**
+     * The number of threads that the BranchAndBoundPartitioner will use to
+     * search the different subtrees of the search space concurrently
+     */
+    public int search_threads = 1;
+
     /**
      * If we were given a target PartitionPlan, then we will check whether every
      * new solution equals this plan. If it does, then we will halt. This is
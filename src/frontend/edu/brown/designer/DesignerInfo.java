@@ -4,6 +4,8 @@ import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.voltdb.catalog.Database;
 
 import edu.brown.catalog.CatalogUtil;
@@ -131,6 +133,50 @@ public class DesignerInfo {
         this.dgraph = src.dgraph;
     }
 
+    /**
+     * Copy Constructor for a different Database catalog object (e.g., a clone
+     * of the source's catalog). Everything that is bound to the catalog is
+     * regenerated for the new catalog_db. The cost model is not copied and
+     * must be set by the caller.
+     *
+     * @param src
+     * @param catalog_db
+     */
+    public DesignerInfo(DesignerInfo src, Database catalog_db) {
+        this.args = src.args;
+        this.catalog_db = catalog_db;
+        this.workload = src.workload;
+        this.stats = src.stats;
+        this.partitioner_class = src.partitioner_class;
+        this.mapper_class = src.mapper_class;
+        this.indexer_class = src.indexer_class;
+        this.num_threads = src.num_threads;
+        this.num_intervals = src.num_intervals;
+        this.num_partitions = src.num_partitions;
+        this.dependencies = DependencyUtil.singleton(catalog_db);
+        this.costmodel_class = src.costmodel_class;
+        this.checkpoint = src.checkpoint;
+        this.m_estimator = new MemoryEstimator(this.stats, new DefaultHasher(catalog_db, this.num_partitions));
+        this.correlations_file = src.correlations_file;
+        if (src.mappings != null) {
+            this.mappings = new ParameterMappingsSet();
+            try {
+                this.mappings.fromJSON(new JSONObject(src.mappings.toJSONString()), catalog_db);
+            } catch (JSONException ex) {
+                throw new RuntimeException("Failed to copy ParameterMappingsSet to " + catalog_db, ex);
+            }
+        }
+
+        // We don't want to cache this one because the catalog is probably
+        // going to get thrown away when the caller is finished with it
+        this.dgraph = new DependencyGraph(this.catalog_db);
+        try {
+            new DependencyGraphGenerator(this).generate(this.dgraph);
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed to generate DependencyGraph for " + catalog_db, ex);
+        }
+    }
+
     /**
      * @param catalog_db
      * @param workload
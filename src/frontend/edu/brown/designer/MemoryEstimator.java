@@ -1,6 +1,7 @@
 package edu.brown.designer;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -40,12 +41,12 @@ public class MemoryEstimator {
         LoggerUtil.attachObserver(LOG, debug, trace);
     }
 
-    private static final Map<String, Long> CACHE_TABLE_ESTIMATE = new HashMap<String, Long>();
+    private static final Map<String, Long> CACHE_TABLE_ESTIMATE = Collections.synchronizedMap(new HashMap<String, Long>());
 
     /**
      * Table -> Tuple Size (bytes)
      */
-    public static final Map<Table, Long> TABLE_TUPLE_SIZE = new HashMap<Table, Long>();
+    public static final Map<Table, Long> TABLE_TUPLE_SIZE = Collections.synchronizedMap(new HashMap<Table, Long>());
 
     private final WorkloadStatistics stats;
     private final AbstractHasher hasher;
@@ -7,10 +7,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections15.CollectionUtils;
 import org.apache.commons.collections15.map.ListOrderedMap;
@@ -244,12 +246,23 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
     // DATA MEMBERS
     // --------------------------------------------------------------------------------------------
 
-    protected StateVertex best_vertex = null;
+    /**
+     * The best solution found so far. This is shared by all of the
+     * TraverseThreads when we are searching in parallel, so it can only be
+     * changed while holding this partitioner's lock
+     */
+    protected volatile StateVertex best_vertex = null;
     protected StateVertex upper_bounds_vertex = null;
     protected PartitionPlan upper_bounds_pplan = null;
     protected final Map<CatalogType, WorkloadFilter> traversal_filters = new HashMap<CatalogType, WorkloadFilter>();
     protected TraverseThread thread = null;
 
+    /**
+     * Parallel Search
+     */
+    protected ParallelSearch search = null;
+    protected List<SearchContext> search_contexts = null;
+
     protected List<Table> table_visit_order = new ArrayList<Table>();
     protected List<Procedure> proc_visit_order = new ArrayList<Procedure>();
     protected AccessGraph agraph = null;
@@ -299,6 +312,17 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
         return (this.upper_bounds_vertex);
     }
 
+    /**
+     * Use the given SearchContexts for the threads of a parallel search
+     * instead of creating new ones. This allows the caller to reuse the same
+     * catalog clones across multiple searches.
+     * 
+     * @param contexts
+     */
+    public void setSearchContexts(List<SearchContext> contexts) {
+        this.search_contexts = contexts;
+    }
+
     // public void setTraversalAttributes(Map<String, List<String>> attributes,
     // int num_tables) {
     // this.base_traversal_attributes.clear();
@@ -314,7 +338,9 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
      * @return
      */
     public Boolean wasHalted() {
-        if (this.thread != null) {
+        if (this.search != null) {
+            return (this.search.halt_reason != null);
+        } else if (this.thread != null) {
             return (this.thread.halt_search);
         }
         return (null);
@@ -326,17 +352,37 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
      * @return
      */
     public HaltReason getLastHaltReason() {
+        if (this.search != null)
+            return (this.search.halt_reason != null ? this.search.halt_reason : HaltReason.EXHAUSTED_SEARCH);
         if (this.thread != null)
             return (this.thread.halt_reason);
         return (null);
     }
 
     public Long getLastBackTrackCount() {
+        if (this.search != null)
+            return (this.search.backtrack_ctr.get());
         if (this.thread != null)
             return (this.thread.backtrack_ctr);
         return (null);
     }
 
+    /**
+     * Returns the number of subtrees that each thread searched in the last
+     * parallel search. If the last search only used one thread, returns null
+     * 
+     * @return
+     */
+    protected List<Long> getLastSubtreeCounts() {
+        if (this.search == null)
+            return (null);
+        List<Long> counts = new ArrayList<Long>();
+        for (TraverseThread t : this.search.threads) {
+            counts.add(t.subtree_ctr);
+        } // FOR
+        return (counts);
+    }
+
     /**
      * Return the best StateVertex selected during the search process
      * 
@@ -457,24 +503,8 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
         // tables for our level in the search tree.
         if (debug.get())
             LOG.debug("Creating table specific data structures for the " + table_visit_order.size() + " traversal levels");
-        List<Table> filter_tables = new ArrayList<Table>();
-
-        // IMPORTANT: Add in any table that is not in the attributes list
-        for (Table catalog_tbl : info.catalog_db.getTables()) {
-            if (catalog_tbl.getSystable())
-                continue;
-            if (!table_visit_order.contains(catalog_tbl)) {
-                filter_tables.add(catalog_tbl);
-            }
-        } // FOR
-        if (debug.get())
-            LOG.debug("Tables to never filter: " + CatalogUtil.debug(filter_tables));
-        // Now construct all of the workload filters for this level of the
-        // traversal
-        for (Table catalog_tbl : table_visit_order) {
-            filter_tables.add(catalog_tbl);
-            this.traversal_filters.put(catalog_tbl, new WorkloadFilter(info.catalog_db, filter_tables));
-        } // FOR
+        this.traversal_filters.clear();
+        this.traversal_filters.putAll(this.createTraversalFilters(info.catalog_db, table_visit_order));
 
         // (4) Lastly, we need to add the list Procedures that we are going to
         // need to select
@@ -537,6 +567,38 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
         this.best_vertex = StateVertex.getStartVertex(this.upper_bounds_vertex.getCost(), this.upper_bounds_vertex.getMemory());
     }
 
+    /**
+     * Construct all of the workload filters for each table level of the
+     * traversal
+     * 
+     * @param catalog_db
+     * @param table_visit_order
+     * @return
+     * @throws Exception
+     */
+    protected Map<CatalogType, WorkloadFilter> createTraversalFilters(Database catalog_db, List<Table> table_visit_order) throws Exception {
+        Map<CatalogType, WorkloadFilter> filters = new HashMap<CatalogType, WorkloadFilter>();
+        List<Table> filter_tables = new ArrayList<Table>();
+
+        // IMPORTANT: Add in any table that is not in the attributes list
+        for (Table catalog_tbl : catalog_db.getTables()) {
+            if (catalog_tbl.getSystable())
+                continue;
+            if (!table_visit_order.contains(catalog_tbl)) {
+                filter_tables.add(catalog_tbl);
+            }
+        } // FOR
+        if (debug.get())
+            LOG.debug("Tables to never filter: " + CatalogUtil.debug(filter_tables));
+        // Now construct all of the workload filters for this level of the
+        // traversal
+        for (Table catalog_tbl : table_visit_order) {
+            filter_tables.add(catalog_tbl);
+            filters.put(catalog_tbl, new WorkloadFilter(catalog_db, filter_tables));
+        } // FOR
+        return (filters);
+    }
+
     // --------------------------------------------------------------------------------------------
     // SEARCH
     // --------------------------------------------------------------------------------------------
@@ -569,9 +631,21 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
             LOG.debug("Branch-and-Bound Status:\n" + StringUtil.formatMaps(m));
         }
 
-        this.thread = new TraverseThread(info, hints, this.best_vertex, this.agraph, this.table_visit_order, this.proc_visit_order);
-        thread.run(); // BLOCK
-        this.halt_reason = this.thread.halt_reason;
+        boolean completed_search = false;
+        int num_threads = this.getSearchThreadCount(hints);
+        if (num_threads > 1) {
+            this.thread = null;
+            this.search = new ParallelSearch(hints, num_threads);
+            this.search.run(); // BLOCK
+            this.halt_reason = this.getLastHaltReason();
+            completed_search = this.search.completed_search;
+        } else {
+            this.search = null;
+            this.thread = new TraverseThread(info, hints, this.best_vertex, this.agraph, this.table_visit_order, this.proc_visit_order);
+            thread.run(); // BLOCK
+            this.halt_reason = this.thread.halt_reason;
+            completed_search = this.thread.completed_search;
+        }
 
         PartitionPlan pplan = null;
 
@@ -593,7 +667,7 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
             this.setProcedureSinglePartitionFlags(pplan, hints);
         }
         // Make sure that we actually completed the search and didn't just abort
-        if (!thread.completed_search) {
+        if (!completed_search) {
             LOG.error("Failed to complete search successfully:\n" + pplan);
             assert (false);
         }
@@ -601,6 +675,200 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
         return (pplan);
     }
 
+    /**
+     * Returns the number of threads that we can use to search in parallel
+     * 
+     * @param hints
+     * @return
+     */
+    protected int getSearchThreadCount(final DesignerHints hints) {
+        int num_threads = hints.search_threads;
+        if (num_threads <= 1) {
+            return (1);
+        }
+        // A greedy search only ever goes down one path, so there is nothing
+        // for the other threads to do
+        else if (hints.greedy_search) {
+            if (debug.get())
+                LOG.debug("Parallel search is not supported with greedy search. Using a single thread");
+            return (1);
+        }
+        // We can't rebuild a VerticalPartitionColumn's views in another
+        // thread's catalog from just its key
+        else if (hints.enable_vertical_partitioning) {
+            LOG.warn("Parallel search is not supported with vertical partitioning. Using a single thread");
+            return (1);
+        }
+        return (num_threads);
+    }
+
+    /**
+     * Coordinates a parallel branch-and-bound search. Each TraverseThread has
+     * its own SearchContext so that it can change the partitioning attributes
+     * in its own copy of the catalog. A subtree of the search is identified by
+     * a StateVertex and the index of the next search element. Whenever a
+     * thread is about to descend into a table's subtree and there are idle
+     * threads waiting, it hands that subtree off to the queue instead of
+     * searching it itself. All of the threads share the partitioner's
+     * best_vertex as the bound for pruning.
+     */
+    protected class ParallelSearch {
+        private final DesignerHints hints;
+        private final int num_threads;
+        private final List<TraverseThread> threads = new ArrayList<TraverseThread>();
+
+        /** Subtrees that are waiting for a thread */
+        private final LinkedList<Pair<StateVertex, Integer>> queue = new LinkedList<Pair<StateVertex, Integer>>();
+        /** The number of threads that are waiting for a subtree */
+        private int idle = 0;
+        /** The number of subtrees that have been submitted but not finished */
+        private int pending = 0;
+
+        private final AtomicLong backtrack_ctr = new AtomicLong(0);
+        private Long halt_time;
+        private boolean halt_time_local;
+        private volatile HaltReason halt_reason = null;
+        private Throwable error = null;
+        private boolean completed_search = false;
+
+        public ParallelSearch(DesignerHints hints, int num_threads) {
+            this.hints = hints;
+            this.num_threads = num_threads;
+        }
+
+        public void run() throws Exception {
+            // Get a SearchContext for each thread. We can reuse the ones that
+            // were given to us but we have to make sure that they have the
+            // same design as our catalog
+            List<SearchContext> contexts = new ArrayList<SearchContext>();
+            if (search_contexts != null) {
+                for (SearchContext ctx : search_contexts) {
+                    if (contexts.size() == this.num_threads)
+                        break;
+                    ctx.sync(info.catalog_db);
+                    ctx.getCostModel().applyDesignerHints(this.hints);
+                    contexts.add(ctx);
+                } // FOR
+            }
+            while (contexts.size() < this.num_threads) {
+                contexts.add(new SearchContext(contexts.size(), designer, info, this.hints));
+            } // WHILE
+
+            for (SearchContext ctx : contexts) {
+                List<Table> search_tables = ctx.translate(table_visit_order);
+                List<Procedure> search_procs = ctx.translate(proc_visit_order);
+                TraverseThread t = new TraverseThread(ctx.getInfo(), this.hints, best_vertex, ctx.getAccessGraph(), search_tables, search_procs,
+                                                      createTraversalFilters(ctx.getDatabase(), search_tables), this);
+                t.setName(String.format("%s-%02d", BranchAndBoundPartitioner.class.getSimpleName(), ctx.getId()));
+                t.setDaemon(true);
+                this.threads.add(t);
+            } // FOR
+
+            // All of the threads need to use the same stop time
+            Pair<TimestampType, Boolean> p = this.hints.getNextStopTime();
+            if (p != null) {
+                this.halt_time = p.getFirst().getMSTime();
+                this.halt_time_local = p.getSecond();
+            }
+            if (debug.get())
+                LOG.debug(String.format("Starting parallel search with %d threads", this.threads.size()));
+
+            // Wait until all of the threads are waiting for work before we hand
+            // out the root. Otherwise the first thread would not have anybody to
+            // give its subtrees to. The extra pending subtree keeps take() from
+            // thinking that the search is already over
+            ProfileMeasurement timer = new ProfileMeasurement("timer").start();
+            synchronized (this) {
+                this.pending++;
+            } // SYNCH
+            for (TraverseThread t : this.threads) {
+                t.start();
+            } // FOR
+            synchronized (this) {
+                while (this.idle < this.threads.size() && this.error == null) {
+                    this.wait();
+                } // WHILE
+            } // SYNCH
+            this.submit(best_vertex, 0);
+            this.finished();
+            for (TraverseThread t : this.threads) {
+                t.join();
+            } // FOR
+            timer.stop();
+            if (this.error != null) {
+                throw new RuntimeException("Failed to execute parallel search", this.error);
+            }
+            this.completed_search = true;
+            LOG.info(String.format("Search Halted - %s [%.2f sec, threads=%d]", (this.halt_reason != null ? this.halt_reason : HaltReason.EXHAUSTED_SEARCH),
+                                   timer.getTotalThinkTimeSeconds(), this.threads.size()));
+        }
+
+        /**
+         * Add a new subtree for the threads to search
+         * 
+         * @param parent
+         * @param idx
+         */
+        public synchronized void submit(StateVertex parent, int idx) {
+            this.pending++;
+            this.queue.addLast(Pair.of(parent, idx));
+            this.notify();
+        }
+
+        /**
+         * Returns true if there are more idle threads than subtrees waiting
+         * to be searched
+         */
+        public synchronized boolean shouldSplit() {
+            return (this.idle > this.queue.size());
+        }
+
+        /**
+         * Block until there is a subtree to search. Returns null if the
+         * search is finished. We hand out the oldest subtrees first because
+         * they are the closest to the root and therefore the largest
+         * 
+         * @return
+         * @throws InterruptedException
+         */
+        public synchronized Pair<StateVertex, Integer> take() throws InterruptedException {
+            this.idle++;
+            this.notifyAll();
+            try {
+                while (this.queue.isEmpty() && this.pending > 0 && this.halt_reason == null && this.error == null) {
+                    this.wait();
+                } // WHILE
+                if (this.queue.isEmpty() || this.halt_reason != null || this.error != null) {
+                    return (null);
+                }
+                return (this.queue.removeFirst());
+            } finally {
+                this.idle--;
+            }
+        }
+
+        /**
+         * Mark a subtree returned by take() as finished
+         */
+        public synchronized void finished() {
+            this.pending--;
+            if (this.pending == 0)
+                this.notifyAll();
+        }
+
+        public synchronized void halt(HaltReason reason) {
+            if (this.halt_reason == null)
+                this.halt_reason = reason;
+            this.notifyAll();
+        }
+
+        public synchronized void fail(Throwable ex) {
+            if (this.error == null)
+                this.error = ex;
+            this.notifyAll();
+        }
+    } // END CLASS
+
     /**
      * 
      */
@@ -631,8 +899,11 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
         private StateVertex start;
         private final MemoryEstimator memory_estimator;
         private AbstractCostModel cost_model;
+        private final Map<CatalogType, WorkloadFilter> traversal_filters;
+        private final ParallelSearch search;
         private long traverse_ctr = 0;
         private long backtrack_ctr = 0;
+        private long subtree_ctr = 0;
 
         private Long halt_time;
         private boolean halt_time_local;
@@ -648,11 +919,32 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
          * @param traversal_attributes
          * @param children
          */
-        @SuppressWarnings("unchecked")
         public TraverseThread(DesignerInfo info, DesignerHints hints, StateVertex start, AccessGraph agraph, List<Table> search_tables, List<Procedure> search_procs) {
+            this(info, hints, start, agraph, search_tables, search_procs, BranchAndBoundPartitioner.this.traversal_filters, null);
+        }
+
+        /**
+         * Constructor for a thread that is part of a ParallelSearch. The
+         * DesignerInfo, AccessGraph, search elements, and filters must all be
+         * for the thread's own copy of the catalog
+         * 
+         * @param info
+         * @param hints
+         * @param start
+         * @param agraph
+         * @param search_tables
+         * @param search_procs
+         * @param traversal_filters
+         * @param search
+         */
+        @SuppressWarnings("unchecked")
+        public TraverseThread(DesignerInfo info, DesignerHints hints, StateVertex start, AccessGraph agraph, List<Table> search_tables, List<Procedure> search_procs,
+                              Map<CatalogType, WorkloadFilter> traversal_filters, ParallelSearch search) {
             this.info = info;
             this.hints = hints;
             this.start = start;
+            this.traversal_filters = traversal_filters;
+            this.search = search;
             this.start_name = CatalogKey.getNameFromKey(start.getCatalogKey());
             this.search_tables = search_tables;
             this.search_procs = search_procs;
@@ -775,8 +1067,23 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
             this.halt_search = true;
         }
 
+        private void halt(HaltReason reason) {
+            this.halt_search = true;
+            this.halt_reason = reason;
+            if (this.search != null)
+                this.search.halt(reason);
+        }
+
+        private long getBackTrackCount() {
+            return (this.search != null ? this.search.backtrack_ctr.get() : this.backtrack_ctr);
+        }
+
         @Override
         public void run() {
+            if (this.search != null) {
+                this.runParallel();
+                return;
+            }
             Pair<TimestampType, Boolean> p = hints.getNextStopTime();
             if (p != null) {
                 this.halt_time = p.getFirst().getMSTime();
@@ -807,6 +1114,70 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
             LOG.info(String.format("Search Halted - %s [%.2f sec]", this.halt_reason, timer.getTotalThinkTimeSeconds()));
         }
 
+        /**
+         * Keep grabbing subtrees from the ParallelSearch until there are none
+         * left
+         */
+        private void runParallel() {
+            assert (this.search != null);
+            this.halt_time = this.search.halt_time;
+            this.halt_time_local = this.search.halt_time_local;
+            try {
+                Pair<StateVertex, Integer> subtree = null;
+                while ((subtree = this.search.take()) != null) {
+                    this.subtree_ctr++;
+                    try {
+                        this.traverseSubtree(subtree.getFirst(), subtree.getSecond());
+                    } finally {
+                        this.search.finished();
+                    }
+                } // WHILE
+            } catch (Throwable ex) {
+                LOG.error("Failed to execute search", ex);
+                this.search.fail(ex);
+            } finally {
+                if (this.halt_reason == null)
+                    this.halt_reason = HaltReason.EXHAUSTED_SEARCH;
+                this.completed_search = true;
+            }
+        }
+
+        /**
+         * Apply the table partitioning attributes from the given StateVertex
+         * to our catalog and then search the subtree below it
+         * 
+         * @param parent
+         * @param idx
+         * @throws Exception
+         */
+        private void traverseSubtree(final StateVertex parent, final int idx) throws Exception {
+            Map<String, String> keys = parent.getCatalogKeyMap();
+            List<Table> updated = new ArrayList<Table>();
+            for (int i = 0; i < idx; i++) {
+                assert (i < this.num_tables) : "Unexpected subtree element " + this.all_search_elements.get(i);
+                Table catalog_tbl = (Table) this.all_search_elements.get(i);
+                String column_key = keys.get(this.all_search_keys.get(i));
+                assert (column_key != null) : "Missing partitioning attribute for " + catalog_tbl + " in " + parent;
+                Column catalog_col = CatalogKey.getFromKey(info.catalog_db, column_key, Column.class);
+                if (catalog_col instanceof ReplicatedColumn) {
+                    catalog_tbl.setIsreplicated(true);
+                    catalog_col = ReplicatedColumn.get(catalog_tbl);
+                } else {
+                    catalog_tbl.setIsreplicated(false);
+                }
+                catalog_tbl.setPartitioncolumn(catalog_col);
+                this.cp.update(catalog_tbl);
+                updated.add(catalog_tbl);
+            } // FOR
+            try {
+                this.traverse(parent, idx);
+            } finally {
+                for (int i = updated.size() - 1; i >= 0; i--) {
+                    this.cp.reset(updated.get(i));
+                } // FOR
+            }
+        }
+
         /**
          * @param parent
          * @param idx
@@ -827,17 +1198,19 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
                 assert (current instanceof Table);
             final String spacer = BranchAndBoundPartitioner.TRAVERSAL_SPACERS.get(idx);
 
+            // Check whether another thread halted the search
+            if (this.search != null && this.search.halt_reason != null) {
+                this.halt_search = true;
+            }
             if (this.halt_search == false) {
                 assert (this.halt_reason == null);
-                if (hints.limit_back_tracks != null && hints.limit_back_tracks >= 0 && this.backtrack_ctr > hints.limit_back_tracks) {
-                    LOG.info("Hit back track limit. Halting search [" + this.backtrack_ctr + "]");
-                    this.halt_search = true;
-                    this.halt_reason = HaltReason.BACKTRACK_LIMIT;
+                if (hints.limit_back_tracks != null && hints.limit_back_tracks >= 0 && this.getBackTrackCount() > hints.limit_back_tracks) {
+                    LOG.info("Hit back track limit. Halting search [" + this.getBackTrackCount() + "]");
+                    this.halt(HaltReason.BACKTRACK_LIMIT);
                     return;
                 } else if (this.halt_time != null && System.currentTimeMillis() >= this.halt_time) {
-                    LOG.info("Hit time limit. Halting search [" + this.backtrack_ctr + "]");
-                    this.halt_search = true;
-                    this.halt_reason = (this.halt_time_local ? HaltReason.LOCAL_TIME_LIMIT : HaltReason.GLOBAL_TIME_LIMIT);
+                    LOG.info("Hit time limit. Halting search [" + this.getBackTrackCount() + "]");
+                    this.halt(this.halt_time_local ? HaltReason.LOCAL_TIME_LIMIT : HaltReason.GLOBAL_TIME_LIMIT);
                     return;
                 }
             } else
@@ -868,7 +1241,7 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
             VerticalPartitionColumn vp_col = null;
 
             // Get our workload filter for this level of the traversal
-            Filter filter = BranchAndBoundPartitioner.this.traversal_filters.get(current);
+            Filter filter = this.traversal_filters.get(current);
 
             // Descendant tables used for memory calculations
             // It's ok for it to be empty. That means we're searching against
@@ -1093,48 +1466,7 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
                 // best solution
                 if (complete_solution && memory_exceeded == false && cost < BranchAndBoundPartitioner.this.upper_bounds_vertex.cost
                         && (BranchAndBoundPartitioner.this.best_vertex.isStartVertex() || cost < BranchAndBoundPartitioner.this.best_vertex.cost)) {
-                    assert (best_vertex.cost > state.cost) : "Best=" + best_vertex.cost + ", Current=" + state.cost;
-                    assert (upper_bounds_vertex.cost > state.cost) : "Upper=" + upper_bounds_vertex.cost + ", Current=" + state.cost;
-
-                    if (debug.get()) {
-                        LOG.debug("Old Solution:\n" + StringUtil.box(best_vertex.toString()));
-                    }
-                    BranchAndBoundPartitioner.this.best_vertex = state;
-                    if (debug.get()) {
-                        LOG.debug("New Best Solution:\n" + StringUtil.box(best_vertex.toString()));
-                        if (this.cost_model.hasDebugMessages())
-                            LOG.debug("Last Cost Model Info:\n " + this.cost_model.getLastDebugMessage());
-                    }
-
-                    // Log new solution cost
-                    if (hints.shouldLogSolutionCosts())
-                        hints.logSolutionCost(state.cost, state.singlep_txns);
-
-                    // Check whether we found our target solution and need to
-                    // stop
-                    // Note that we only need to compare Tables, because the
-                    // Procedure's could have
-                    // different parameters for those ones where the parameter
-                    // actually doesn't make a difference
-                    if (hints.target_plan != null) {
-                        if (debug.get())
-                            LOG.info("Comparing new best solution with target PartitionPlan");
-                        PartitionPlan new_plan = createPartitionPlan(hints, best_vertex, false, false);
-                        if (hints.target_plan.getTableEntries().equals(new_plan.getTableEntries())) {
-                            this.halt_search = true;
-                            this.halt_reason = HaltReason.FOUND_TARGET;
-                        }
-                    }
-
-                    // for (int i = 0; i <
-                    // ((TimeIntervalCostModel)this.cost_model).getIntevalCount();
-                    // i++) {
-                    // System.err.println("Interval #" + i);
-                    // System.err.println(((TimeIntervalCostModel)this.cost_model).getCostModel(i).getTxnPartitionAccessHistogram());
-                    // System.err.println("================================================");
-                    // }
-                    //
-                    // System.exit(1);
+                    this.updateBestVertex(state);
                 }
 
                 // ----------------------------------------------
@@ -1186,7 +1518,13 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
 
                     // We only traverse if this is a table. The ProcParameter
                     // selection is a simple greedy algorithm
-                    if (this.hints.greedy_search == false || (this.hints.greedy_search == true && last_attribute)) {
+                    // If there are threads in our ParallelSearch that don't have
+                    // anything to do, then we'll give this subtree to them
+                    if (this.search != null && is_table && complete_solution == false && this.search.shouldSplit()) {
+                        if (trace.get())
+                            LOG.trace(String.format("Splitting subtree %s at level %d", state.getPartitionKey(), idx + 1));
+                        this.search.submit(state, idx + 1);
+                    } else if (this.hints.greedy_search == false || (this.hints.greedy_search == true && last_attribute)) {
                         if (debug.get() && this.hints.greedy_search)
                             LOG.debug(this.createLevelOutput(local_best_vertex, "GREEDY->" + local_best_vertex.getPartitionKey(), spacer, false));
                         this.cp.update(current);
@@ -1247,11 +1585,70 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
                     catalog_proc.setPartitionparameter(-1);
                 } // FOR
             }
-            if (this.halt_search == false)
+            if (this.halt_search == false) {
                 this.backtrack_ctr++;
+                if (this.search != null)
+                    this.search.backtrack_ctr.incrementAndGet();
+            }
             return;
         }
 
+        /**
+         * Make the given complete solution the new best solution if it is
+         * still better than the current one. When we are searching in parallel,
+         * another thread may have found a better solution since we checked.
+         * 
+         * @param state
+         */
+        private void updateBestVertex(StateVertex state) {
+            synchronized (BranchAndBoundPartitioner.this) {
+                if (BranchAndBoundPartitioner.this.best_vertex.isStartVertex() == false && state.cost >= BranchAndBoundPartitioner.this.best_vertex.cost) {
+                    return;
+                }
+                assert (best_vertex.cost > state.cost) : "Best=" + best_vertex.cost + ", Current=" + state.cost;
+                assert (upper_bounds_vertex.cost > state.cost) : "Upper=" + upper_bounds_vertex.cost + ", Current=" + state.cost;
+
+                if (debug.get()) {
+                    LOG.debug("Old Solution:\n" + StringUtil.box(best_vertex.toString()));
+                }
+                BranchAndBoundPartitioner.this.best_vertex = state;
+                if (debug.get()) {
+                    LOG.debug("New Best Solution:\n" + StringUtil.box(best_vertex.toString()));
+                    if (this.cost_model.hasDebugMessages())
+                        LOG.debug("Last Cost Model Info:\n " + this.cost_model.getLastDebugMessage());
+                }
+
+                // Log new solution cost
+                if (hints.shouldLogSolutionCosts())
+                    hints.logSolutionCost(state.cost, state.singlep_txns);
+
+                // Check whether we found our target solution and need to
+                // stop
+                // Note that we only need to compare Tables, because the
+                // Procedure's could have
+                // different parameters for those ones where the parameter
+                // actually doesn't make a difference
+                if (hints.target_plan != null) {
+                    if (debug.get())
+                        LOG.info("Comparing new best solution with target PartitionPlan");
+                    PartitionPlan new_plan = createPartitionPlan(hints, best_vertex, false, false);
+                    if (hints.target_plan.getTableEntries().equals(new_plan.getTableEntries())) {
+                        this.halt(HaltReason.FOUND_TARGET);
+                    }
+                }
+
+                // for (int i = 0; i <
+                // ((TimeIntervalCostModel)this.cost_model).getIntevalCount();
+                // i++) {
+                // System.err.println("Interval #" + i);
+                // System.err.println(((TimeIntervalCostModel)this.cost_model).getCostModel(i).getTxnPartitionAccessHistogram());
+                // System.err.println("================================================");
+                // }
+                //
+                // System.exit(1);
+            } // SYNCH
+        }
+
         private void revertVerticalPartitionColumn(VerticalPartitionColumn vp_col) {
             // Reset the catalog and optimized queries in the cost model
             vp_col.revertUpdate();
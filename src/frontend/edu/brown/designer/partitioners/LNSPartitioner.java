@@ -149,6 +149,13 @@ public class LNSPartitioner extends AbstractPartitioner implements JSONSerializa
     private final Set<Table> ignore_tables = new HashSet<Table>();
     private final Set<Procedure> ignore_procs = new HashSet<Procedure>();
 
+    /**
+     * The private catalogs that we use to search multiple relaxation
+     * neighborhoods at the same time. We keep these around across restarts
+     * because they are expensive to create.
+     */
+    protected final transient List<SearchContext> neighborhood_contexts = new ArrayList<SearchContext>();
+
     /**
      * @param designer
      * @param info
@@ -441,13 +448,21 @@ public class LNSPartitioner extends AbstractPartitioner implements JSONSerializa
             // at the beginning of a restart (or the start of the search). We do
             // *not* want to
             // compare swaps using the global best cost
-            if (!this.relaxCurrentSolution(hints, this.restart_ctr++, table_attributes, proc_attributes)) {
-                LOG.debug("Halting LNS!");
-                break;
-            }
+            if (hints.relaxation_neighborhoods > 1) {
+                // Relax and search multiple neighborhoods at once
+                if (!this.parallelLocalSearch(hints)) {
+                    LOG.debug("Halting LNS!");
+                    break;
+                }
+            } else {
+                if (!this.relaxCurrentSolution(hints, this.restart_ctr++, table_attributes, proc_attributes)) {
+                    LOG.debug("Halting LNS!");
+                    break;
+                }
 
-            // Local Search!
-            this.localSearch(hints, table_attributes.asList(), proc_attributes.asList());
+                // Local Search!
+                this.localSearch(hints, table_attributes.asList(), proc_attributes.asList());
+            }
 
             // Sanity Check!
             if (this.restart_ctr % 3 == 0) {
@@ -703,33 +718,115 @@ public class LNSPartitioner extends AbstractPartitioner implements JSONSerializa
         // -------------------------------
         // Apply relaxation and invalidate caches!
         // -------------------------------
+        Map<CatalogType, CatalogType> orig_solution = relaxAttributes(info.catalog_db, this.costmodel, table_attributes, proc_attributes);
+
+        // -------------------------------
+        // Calculate the number of backtracks and the local search time
+        // we want to allow in this round.
+        // -------------------------------
+        this.updateLocalSearchLimits(hints);
+
+        // -------------------------------
+        // GO GO LOCAL SEARCH!!
+        // -------------------------------
+        Pair<PartitionPlan, BranchAndBoundPartitioner.StateVertex> pair = this.executeLocalSearch(hints, this.agraph, table_attributes, proc_attributes);
+        assert (pair != null);
+        PartitionPlan result = pair.getFirst();
+        BranchAndBoundPartitioner.StateVertex state = pair.getSecond();
+
+        // -------------------------------
+        // Validation
+        // -------------------------------
+        validateRelaxation(info.catalog_db, orig_solution, result);
+
+        // -------------------------------
+        // Comparison with current best solution
+        // -------------------------------
+        if (state.getCost() < this.best_cost) {
+            LOG.info("New Best Solution Found from Local Search!");
+            this.best_solution = result;
+            this.best_cost = state.getCost();
+            this.best_memory = state.getMemory() / (double) hints.max_memory_per_partition;
+            LOG.info("Best Solution Cost: " + String.format(DEBUG_COST_FORMAT, this.best_cost));
+            LOG.info("Best Solution Memory: " + String.format(DEBUG_COST_FORMAT, this.best_memory));
+            LOG.info("Best Solution:\n" + this.best_solution);
+        }
+        this.best_solution.apply(info.catalog_db);
+        return;
+    }
+
+    /**
+     * Relax the given tables and procedures in the catalog: the procedures
+     * get the NullProcParameter and the cost model's cache is invalidated for
+     * all of them. Returns the partitioning attributes of everything that was
+     * not relaxed so that we can check that the search didn't change them.
+     * 
+     * @param catalog_db
+     * @param costmodel
+     * @param table_attributes
+     * @param proc_attributes
+     * @return
+     */
+    protected static Map<CatalogType, CatalogType> relaxAttributes(Database catalog_db, AbstractCostModel costmodel, List<Table> table_attributes, List<Procedure> proc_attributes) {
         for (Table catalog_tbl : table_attributes) {
             // catalog_tbl.setPartitioncolumn(null);
-            this.costmodel.invalidateCache(catalog_tbl);
+            costmodel.invalidateCache(catalog_tbl);
         } // FOR
         for (Procedure catalog_proc : proc_attributes) {
             catalog_proc.setPartitionparameter(NullProcParameter.PARAM_IDX);
-            this.costmodel.invalidateCache(catalog_proc);
+            costmodel.invalidateCache(catalog_proc);
         } // FOR
 
         // Sanity Check: Make sure the non-relaxed tables come back with the
         // same partitioning attribute
         Map<CatalogType, CatalogType> orig_solution = new HashMap<CatalogType, CatalogType>();
-        for (Table catalog_tbl : info.catalog_db.getTables()) {
+        for (Table catalog_tbl : catalog_db.getTables()) {
             if (!table_attributes.contains(catalog_tbl))
                 orig_solution.put(catalog_tbl, catalog_tbl.getPartitioncolumn());
         }
-        for (Procedure catalog_proc : info.catalog_db.getProcedures()) {
+        for (Procedure catalog_proc : catalog_db.getProcedures()) {
             if (!proc_attributes.contains(catalog_proc)) {
                 ProcParameter catalog_param = catalog_proc.getParameters().get(catalog_proc.getPartitionparameter());
                 orig_solution.put(catalog_proc, catalog_param);
             }
         }
+        return (orig_solution);
+    }
 
-        // -------------------------------
-        // Calculate the number of backtracks and the local search time
-        // we want to allow in this round.
-        // -------------------------------
+    /**
+     * Make sure that the partitioning attributes of the tables and procedures
+     * that were not relaxed are still the same as when we started
+     * 
+     * @param catalog_db
+     * @param orig_solution
+     * @param result
+     */
+    protected static void validateRelaxation(Database catalog_db, Map<CatalogType, CatalogType> orig_solution, PartitionPlan result) {
+        for (Table catalog_tbl : catalog_db.getTables()) {
+            if (catalog_tbl.getSystable() == false && orig_solution.containsKey(catalog_tbl)) {
+                assert (orig_solution.get(catalog_tbl).equals(catalog_tbl.getPartitioncolumn())) : String.format("%s got changed: %s => %s", catalog_tbl, orig_solution.get(catalog_tbl),
+                        catalog_tbl.getPartitioncolumn());
+            }
+        } // FOR
+        for (Procedure catalog_proc : catalog_db.getProcedures()) {
+            if (orig_solution.containsKey(catalog_proc)) {
+                ProcParameter catalog_param = catalog_proc.getParameters().get(catalog_proc.getPartitionparameter());
+                if (catalog_param == null) {
+                    assert (orig_solution.get(catalog_proc) == null) : catalog_proc + " got changed: " + orig_solution.get(catalog_proc) + " => " + catalog_param + "\n" + result;
+                } else {
+                    assert (catalog_param.equals(orig_solution.get(catalog_proc))) : catalog_proc + " got changed: " + orig_solution.get(catalog_proc) + " => " + catalog_param + "\n" + result;
+                }
+            }
+        } // FOR
+    }
+
+    /**
+     * Increase the number of backtracks or the local search time that we
+     * allow if the last local search was halted because of them
+     * 
+     * @param hints
+     */
+    protected void updateLocalSearchLimits(final DesignerHints hints) {
         if (hints.enable_local_search_increase) {
             if (this.last_halt_reason == HaltReason.BACKTRACK_LIMIT && this.last_backtrack_limit != null) {
                 // Give them more backtracks
@@ -743,41 +840,106 @@ public class LNSPartitioner extends AbstractPartitioner implements JSONSerializa
                 hints.limit_local_time = (int) Math.round(this.last_localtime_limit);
             }
         }
+    }
 
+    /**
+     * Relax the current solution multiple times and then search each of these
+     * neighborhoods at the same time. Each neighborhood is searched by its own
+     * BranchAndBoundPartitioner in a private copy of the catalog. The best
+     * solution from all of the neighborhoods becomes the new solution if it is
+     * better than the current one. Returns false if there are no more
+     * neighborhoods to search.
+     * 
+     * @param hints
+     * @return
+     * @throws Exception
+     */
+    protected boolean parallelLocalSearch(final DesignerHints hints) throws Exception {
         // -------------------------------
-        // GO GO LOCAL SEARCH!!
+        // Pick our neighborhoods
         // -------------------------------
-        Pair<PartitionPlan, BranchAndBoundPartitioner.StateVertex> pair = this.executeLocalSearch(hints, this.agraph, table_attributes, proc_attributes);
-        assert (pair != null);
-        PartitionPlan result = pair.getFirst();
-        BranchAndBoundPartitioner.StateVertex state = pair.getSecond();
+        List<List<Table>> neighborhood_tables = new ArrayList<List<Table>>();
+        List<List<Procedure>> neighborhood_procs = new ArrayList<List<Procedure>>();
+        ListOrderedSet<Table> table_attributes = new ListOrderedSet<Table>();
+        ListOrderedSet<Procedure> proc_attributes = new ListOrderedSet<Procedure>();
+        for (int i = 0; i < hints.relaxation_neighborhoods; i++) {
+            if (!this.relaxCurrentSolution(hints, this.restart_ctr++, table_attributes, proc_attributes)) {
+                break;
+            }
+            neighborhood_tables.add(new ArrayList<Table>(table_attributes.asList()));
+            neighborhood_procs.add(new ArrayList<Procedure>(proc_attributes.asList()));
+        } // FOR
+        if (neighborhood_tables.isEmpty()) {
+            return (false);
+        }
+        this.updateLocalSearchLimits(hints);
 
         // -------------------------------
-        // Validation
+        // GO GO LOCAL SEARCHES!!
         // -------------------------------
-        for (Table catalog_tbl : info.catalog_db.getTables()) {
-            if (catalog_tbl.getSystable() == false && orig_solution.containsKey(catalog_tbl)) {
-                assert (orig_solution.get(catalog_tbl).equals(catalog_tbl.getPartitioncolumn())) : String.format("%s got changed: %s => %s", catalog_tbl, orig_solution.get(catalog_tbl),
-                        catalog_tbl.getPartitioncolumn());
-            }
+        while (this.neighborhood_contexts.size() < neighborhood_tables.size()) {
+            this.neighborhood_contexts.add(new SearchContext(this.neighborhood_contexts.size(), this.designer, this.info, hints));
+        } // WHILE
+        final long best_memory = (long) (this.best_memory * hints.max_memory_per_partition);
+        List<NeighborhoodSearch> searches = new ArrayList<NeighborhoodSearch>();
+        for (int i = 0, cnt = neighborhood_tables.size(); i < cnt; i++) {
+            SearchContext ctx = this.neighborhood_contexts.get(i);
+            ctx.sync(info.catalog_db);
+            List<Table> ctx_tables = ctx.translate(neighborhood_tables.get(i));
+            List<Procedure> ctx_procs = ctx.translate(neighborhood_procs.get(i));
+            Map<CatalogType, CatalogType> orig_solution = relaxAttributes(ctx.getDatabase(), ctx.getCostModel(), ctx_tables, ctx_procs);
+
+            // Each search needs its own hints because the BranchAndBoundPartitioner
+            // will update their timers
+            DesignerHints local_hints = hints.clone();
+            local_hints.search_threads = 1;
+            local_hints.log_solutions_costs = null;
+            if (hints.target_plan != null)
+                local_hints.target_plan = convertPartitionPlan(hints.target_plan, ctx.getDatabase());
+
+            BranchAndBoundPartitioner local_search = new BranchAndBoundPartitioner(this.designer, ctx.getInfo(), ctx.getAccessGraph(), ctx_tables, ctx_procs);
+            local_search.setUpperBounds(local_hints, convertPartitionPlan(this.best_solution, ctx.getDatabase()), this.best_cost, best_memory);
+            NeighborhoodSearch search = new NeighborhoodSearch(ctx, local_search, local_hints, orig_solution);
+            search.setName(String.format("%s-%02d", this.getClass().getSimpleName(), ctx.getId()));
+            search.setDaemon(true);
+            searches.add(search);
         } // FOR
-        for (Procedure catalog_proc : info.catalog_db.getProcedures()) {
-            if (orig_solution.containsKey(catalog_proc)) {
-                ProcParameter catalog_param = catalog_proc.getParameters().get(catalog_proc.getPartitionparameter());
-                if (catalog_param == null) {
-                    assert (orig_solution.get(catalog_proc) == null) : catalog_proc + " got changed: " + orig_solution.get(catalog_proc) + " => " + catalog_param + "\n" + result;
-                } else {
-                    assert (catalog_param.equals(orig_solution.get(catalog_proc))) : catalog_proc + " got changed: " + orig_solution.get(catalog_proc) + " => " + catalog_param + "\n" + result;
-                }
+        long start = System.currentTimeMillis();
+        for (NeighborhoodSearch search : searches) {
+            search.start();
+        } // FOR
+        for (NeighborhoodSearch search : searches) {
+            search.join();
+            if (search.error != null) {
+                throw new RuntimeException("Failed to execute local search in " + search.getName(), search.error);
             }
+            validateRelaxation(search.ctx.getDatabase(), search.orig_solution, search.result);
         } // FOR
+        this.last_elapsed_time = Math.round((System.currentTimeMillis() - start) / 1000);
 
         // -------------------------------
         // Comparison with current best solution
         // -------------------------------
+        NeighborhoodSearch best = null;
+        this.last_backtrack_count = 0l;
+        for (NeighborhoodSearch search : searches) {
+            if (best == null || search.partitioner.getBestVertex().getCost() < best.partitioner.getBestVertex().getCost()) {
+                best = search;
+            }
+            this.last_backtrack_count = Math.max(this.last_backtrack_count, search.partitioner.getLastBackTrackCount());
+        } // FOR
+        assert (best != null);
+        this.last_halt_reason = best.partitioner.halt_reason;
+        for (NeighborhoodSearch search : searches) {
+            if (search.partitioner.halt_reason == HaltReason.FOUND_TARGET) {
+                this.last_halt_reason = HaltReason.FOUND_TARGET;
+            }
+        } // FOR
+
+        BranchAndBoundPartitioner.StateVertex state = best.partitioner.getBestVertex();
         if (state.getCost() < this.best_cost) {
-            LOG.info("New Best Solution Found from Local Search!");
-            this.best_solution = result;
+            LOG.info("New Best Solution Found from Local Search in " + best.getName() + "!");
+            this.best_solution = convertPartitionPlan(best.result, info.catalog_db);
             this.best_cost = state.getCost();
             this.best_memory = state.getMemory() / (double) hints.max_memory_per_partition;
             LOG.info("Best Solution Cost: " + String.format(DEBUG_COST_FORMAT, this.best_cost));
@@ -785,9 +947,53 @@ public class LNSPartitioner extends AbstractPartitioner implements JSONSerializa
             LOG.info("Best Solution:\n" + this.best_solution);
         }
         this.best_solution.apply(info.catalog_db);
-        return;
+        return (true);
+    }
+
+    /**
+     * Convert a PartitionPlan into a PartitionPlan for a different copy of the
+     * catalog
+     * 
+     * @param pplan
+     * @param catalog_db
+     * @return
+     * @throws JSONException
+     */
+    protected static PartitionPlan convertPartitionPlan(PartitionPlan pplan, Database catalog_db) throws JSONException {
+        PartitionPlan clone = new PartitionPlan();
+        clone.fromJSON(new JSONObject(pplan.toJSONString()), catalog_db);
+        return (clone);
     }
 
+    /**
+     * Executes the local search for a single relaxation neighborhood
+     */
+    protected static class NeighborhoodSearch extends Thread {
+        private final SearchContext ctx;
+        private final BranchAndBoundPartitioner partitioner;
+        private final DesignerHints hints;
+        private final Map<CatalogType, CatalogType> orig_solution;
+        private PartitionPlan result;
+        private Throwable error;
+
+        public NeighborhoodSearch(SearchContext ctx, BranchAndBoundPartitioner partitioner, DesignerHints hints, Map<CatalogType, CatalogType> orig_solution) {
+            this.ctx = ctx;
+            this.partitioner = partitioner;
+            this.hints = hints;
+            this.orig_solution = orig_solution;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.result = this.partitioner.generate(this.hints);
+            } catch (Throwable ex) {
+                LOG.error("Failed to execute local search", ex);
+                this.error = ex;
+            }
+        }
+    } // END CLASS
+
     /**
      * @param hints
      * @param table_attributes
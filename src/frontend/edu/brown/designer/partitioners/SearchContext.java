@@ -0,0 +1,192 @@
+package edu.brown.designer.partitioners;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.voltdb.catalog.CatalogType;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.ProcParameter;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Table;
+
+import edu.brown.catalog.CatalogCloner;
+import edu.brown.catalog.CatalogKey;
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.catalog.special.ReplicatedColumn;
+import edu.brown.costmodel.AbstractCostModel;
+import edu.brown.costmodel.TimeIntervalCostModel;
+import edu.brown.designer.AccessGraph;
+import edu.brown.designer.Designer;
+import edu.brown.designer.DesignerHints;
+import edu.brown.designer.DesignerInfo;
+import edu.brown.designer.generators.AccessGraphGenerator;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.ClassUtil;
+
+/**
+ * A private copy of the catalog along with all of the designer components that
+ * are bound to it (cost model, memory estimator, AccessGraph). The partitioners
+ * change the partitioning attributes directly in the catalog while they search,
+ * so every thread that searches concurrently needs its own SearchContext.
+ * A SearchContext can be reused for multiple searches by calling
+ * {@link #sync(Database)} to copy over the current design of the base catalog.
+ *
+ */
+public class SearchContext {
+    private static final Logger LOG = Logger.getLogger(SearchContext.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    private final int id;
+    private final DesignerInfo info;
+    private final AccessGraph agraph;
+
+    /**
+     * Constructor
+     *
+     * @param id
+     * @param designer
+     * @param base_info
+     * @param hints
+     * @throws Exception
+     */
+    public SearchContext(int id, Designer designer, DesignerInfo base_info, DesignerHints hints) throws Exception {
+        this.id = id;
+        Database clone_db = CatalogCloner.cloneDatabase(base_info.catalog_db);
+        this.info = new DesignerInfo(base_info, clone_db);
+        this.info.setCostModel(createCostModel(base_info.getCostModel(), clone_db));
+        this.info.getCostModel().applyDesignerHints(hints);
+        this.sync(base_info.catalog_db);
+
+        // Build the AccessGraph the same way that AbstractPartitioner does,
+        // except that we don't want to add it to the Designer's graphs
+        AccessGraph agraph = new AccessGraph(clone_db);
+        for (Procedure base_proc : base_info.catalog_db.getProcedures()) {
+            if (designer.getGraphs(base_proc) == null || base_info.workload.getTraces(base_proc).isEmpty())
+                continue;
+            new AccessGraphGenerator(this.info, this.translate(base_proc)).generate(agraph);
+        } // FOR
+        this.agraph = AccessGraphGenerator.convertToSingleColumnEdges(clone_db, agraph);
+        if (debug.get())
+            LOG.debug(String.format("Created %s [vertices=%d, edges=%d]", this, this.agraph.getVertexCount(), this.agraph.getEdgeCount()));
+    }
+
+    /**
+     * Create a new instance of the given cost model for a different catalog
+     *
+     * @param base
+     * @param catalog_db
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    protected static AbstractCostModel createCostModel(AbstractCostModel base, Database catalog_db) {
+        assert (base != null) : "Missing base cost model";
+        AbstractCostModel costmodel = null;
+        if (base instanceof TimeIntervalCostModel) {
+            TimeIntervalCostModel<AbstractCostModel> tcm = (TimeIntervalCostModel<AbstractCostModel>) base;
+            costmodel = new TimeIntervalCostModel<AbstractCostModel>(catalog_db, tcm.getCostModel(0).getClass(), tcm.getIntevalCount());
+        } else {
+            costmodel = ClassUtil.newInstance(base.getClass(), new Object[] { catalog_db }, new Class<?>[] { Database.class });
+        }
+        costmodel.setCachingEnabled(base.isCachingEnabled());
+        return (costmodel);
+    }
+
+    public int getId() {
+        return (this.id);
+    }
+
+    public DesignerInfo getInfo() {
+        return (this.info);
+    }
+
+    public Database getDatabase() {
+        return (this.info.catalog_db);
+    }
+
+    public AccessGraph getAccessGraph() {
+        return (this.agraph);
+    }
+
+    public AbstractCostModel getCostModel() {
+        return (this.info.getCostModel());
+    }
+
+    /**
+     * Copy the current partitioning attributes of the tables and procedures
+     * in the base catalog into our private catalog
+     *
+     * @param base_db
+     */
+    public void sync(Database base_db) {
+        Database clone_db = this.info.catalog_db;
+        for (Table base_tbl : CatalogUtil.getDataTables(base_db)) {
+            Table clone_tbl = this.translate(base_tbl);
+            Column base_col = base_tbl.getPartitioncolumn();
+            clone_tbl.setIsreplicated(base_tbl.getIsreplicated());
+            if (base_col == null) {
+                continue;
+            } else if (base_col instanceof ReplicatedColumn) {
+                clone_tbl.setPartitioncolumn(ReplicatedColumn.get(clone_tbl));
+            } else {
+                clone_tbl.setPartitioncolumn(this.translate(base_col));
+            }
+        } // FOR
+        for (Procedure base_proc : base_db.getProcedures()) {
+            Procedure clone_proc = this.translate(base_proc);
+            ProcParameter base_param = null;
+            int idx = base_proc.getPartitionparameter();
+            if (idx >= 0)
+                base_param = base_proc.getParameters().get(idx);
+            // MultiProcParameters are created on demand, so we have to use
+            // its key to make sure that it gets created in our catalog
+            if (base_param != null) {
+                clone_proc.setPartitionparameter(this.translate(base_param).getIndex());
+            } else {
+                clone_proc.setPartitionparameter(idx);
+            }
+        } // FOR
+        this.info.getCostModel().clear(true);
+        if (trace.get())
+            LOG.trace(String.format("Synchronized %s with %s", clone_db, base_db));
+    }
+
+    /**
+     * Return the catalog object in our private catalog for the given object
+     *
+     * @param base_item
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends CatalogType> T translate(T base_item) {
+        T clone_item = (T) CatalogKey.getFromKey(this.info.catalog_db, CatalogKey.createKey(base_item), base_item.getClass());
+        assert (clone_item != null) : "Failed to find " + base_item.fullName() + " in " + this;
+        return (clone_item);
+    }
+
+    /**
+     * Return the catalog objects in our private catalog for the given objects
+     *
+     * @param base_items
+     * @return
+     */
+    public <T extends CatalogType> List<T> translate(Collection<T> base_items) {
+        List<T> clone_items = new ArrayList<T>();
+        for (T base_item : base_items) {
+            clone_items.add(this.translate(base_item));
+        } // FOR
+        return (clone_items);
+    }
+
+    @Override
+    public String toString() {
+        return (String.format("%s-%02d", this.getClass().getSimpleName(), this.id));
+    }
+}
@@ -143,7 +143,7 @@ public class HStoreCoordinator implements Shutdownable {
         @Override
         public void run() {
             if (hstore_conf.site.cpu_affinity)
-                hstore_site.getThreadManager().registerProcessingThread();
+                hstore_site.getThreadManager().registerNetworkThread();
             Throwable error = null;
             try {
                 HStoreCoordinator.this.eventLoop.run();
@@ -599,7 +599,7 @@ public class HStoreCoordinator implements Shutdownable {
             if (transactionRedirect_dispatcher != null) {
                 transactionRedirect_dispatcher.queue(Pair.of(serializedRequest, callback));
             } else {
-                hstore_site.procedureInvocation(serializedRequest, callback);
+                hstore_site.redirectedProcedureInvocation(serializedRequest, callback);
             }
         }
         
@@ -49,6 +49,7 @@ import org.voltdb.ClientResponseImpl;
 import org.voltdb.PeriodicWorkTimerThread;
 import org.voltdb.StoredProcedureInvocation;
 import org.voltdb.TransactionIdManager;
+import org.voltdb.VoltTable;
 import org.voltdb.catalog.Catalog;
 import org.voltdb.catalog.Database;
 import org.voltdb.catalog.Host;
@@ -69,6 +70,7 @@ import org.voltdb.utils.Pair;
 import com.google.protobuf.RpcCallback;
 
 import edu.brown.catalog.CatalogUtil;
+import edu.brown.catalog.RuntimeCatalog;
 import edu.brown.graphs.GraphvizExport;
 import edu.brown.hashing.AbstractHasher;
 import edu.brown.hstore.Hstoreservice.Status;
@@ -93,6 +95,7 @@ import edu.brown.hstore.interfaces.Shutdownable;
 import edu.brown.hstore.util.MapReduceHelperThread;
 import edu.brown.hstore.util.PartitionExecutorPostProcessor;
 import edu.brown.hstore.util.TxnCounter;
+import edu.brown.hstore.wal.CommandLogRecovery;
 import edu.brown.hstore.wal.CommandLogWriter;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
@@ -146,9 +149,20 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     private final DBBPool buffer_pool = new DBBPool(false, false);
     
     /**
-     * Incoming request deserializer
+     * Incoming request deserializers
+     * Each network thread gets its own so that they don't have to fight over a lock
      */
-    private final FastDeserializer incomingDeserializer = new FastDeserializer(new byte[0]);
+    private final ThreadLocal<FastDeserializer> incomingDeserializers = new ThreadLocal<FastDeserializer>() {
+        protected FastDeserializer initialValue() {
+            return (new FastDeserializer(new byte[0]));
+        };
+    };
+    
+    /**
+     * Compiled id-indexed view of the catalog used for lookups in the txn hot path.
+     * This is swapped out by refreshRuntimeCatalog() whenever the catalog is modified.
+     */
+    private volatile RuntimeCatalog runtime_catalog;
     
     private final HStoreThreadManager threadManager;
     
@@ -233,6 +247,12 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     private final MapReduceHelperThread mr_helper;
     
     private final CommandLogWriter commandLogger;
+    
+    /**
+     * Command Log Recovery
+     * This will only be non-null if we are replaying the command logs after a crash.
+     */
+    private final CommandLogRecovery commandLogRecovery;
 
     /**
      * AdHoc: This thread waits for AdHoc queries. 
@@ -450,9 +470,19 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             File logFile = new File(hstore_conf.site.exec_command_logging_directory +
                                     File.separator +
                                     this.getSiteName().toLowerCase() + ".log");
+            
+            // We have to move the logs from the last run out of the way before
+            // the CommandLogWriter truncates them. We will replay them in start()
+            if (hstore_conf.site.exec_command_logging_recovery) {
+                CommandLogRecovery.archiveLogs(logFile);
+                this.commandLogRecovery = new CommandLogRecovery(this, logFile);
+            } else {
+                this.commandLogRecovery = null;
+            }
             this.commandLogger = new CommandLogWriter(this, logFile);
         } else {
             this.commandLogger = null;
+            this.commandLogRecovery = null;
         }
 
         // AdHoc Support
@@ -485,6 +515,9 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             } // FOR
         }
         
+        // Procedure lookup tables
+        this.runtime_catalog = new RuntimeCatalog(this.catalog_db);
+        
         // Create all of our parameter manglers
         for (Procedure catalog_proc : this.catalog_db.getProcedures()) {
             if (catalog_proc.getSystemproc()) continue;
@@ -579,6 +612,21 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         return (this.hstore_coordinator);
     }
 
+    /**
+     * Return the CommandLogWriter for this HStoreSite
+     * Will be null if command logging is disabled
+     */
+    public CommandLogWriter getCommandLogWriter() {
+        return (this.commandLogger);
+    }
+
+    /**
+     * Return the CommandLogRecovery for this HStoreSite
+     * Will be null if we are not recovering from the command log
+     */
+    public CommandLogRecovery getCommandLogRecovery() {
+        return (this.commandLogRecovery);
+    }
     public HStoreConf getHStoreConf() {
         return (this.hstore_conf);
     }
@@ -586,7 +634,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         return (this.param_manglers);
     }
     public ParameterMangler getParameterMangler(String proc_name) {
-        Procedure catalog_proc = catalog_db.getProcedures().getIgnoreCase(proc_name);
+        Procedure catalog_proc = this.runtime_catalog.getProcedure(proc_name);
         assert(catalog_proc != null) : "Invalid Procedure name '" + proc_name + "'";
         return (this.param_manglers.get(catalog_proc));
     }
@@ -630,6 +678,51 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     public Database getDatabase() {
         return (this.catalog_db);
     }
+
+    /**
+     * Return the Procedure handle for the given catalog id. If the id is invalid or
+     * does not match the given name, then we will fall back to looking it up by its
+     * name (ignoring case). Returns null if the Procedure does not exist.
+     * @param proc_id
+     * @param proc_name
+     * @return
+     */
+    public Procedure getProcedure(int proc_id, String proc_name) {
+        return (this.runtime_catalog.getProcedure(proc_id, proc_name));
+    }
+    
+    /**
+     * Return the current RuntimeCatalog for this site's Database.
+     * Callers should grab this once per txn and not hold on to it.
+     */
+    public RuntimeCatalog getRuntimeCatalog() {
+        return (this.runtime_catalog);
+    }
+    
+    /**
+     * Recompile the RuntimeCatalog if the underlying catalog has been modified
+     * since the last time that it was built. Anything that changes this site's
+     * catalog while it is running must call this afterwards. The new RuntimeCatalog
+     * is only installed if it was built from a newer version of the catalog than the
+     * current one, and it is swapped in with a single write, so threads that are in the
+     * middle of a lookup still see a consistent view of the old version.
+     * Returns true if a new RuntimeCatalog was installed.
+     */
+    public synchronized boolean refreshRuntimeCatalog() {
+        RuntimeCatalog old_catalog = this.runtime_catalog;
+        if (old_catalog.isStale() == false) return (false);
+        
+        RuntimeCatalog new_catalog = new RuntimeCatalog(this.catalog_db);
+        if (new_catalog.getVersion() <= old_catalog.getVersion()) {
+            LOG.warn(String.format("Not replacing %s with %s built from an older catalog version",
+                                   old_catalog, new_catalog));
+            return (false);
+        }
+        CatalogUtil.clearCache(this.catalog_db);
+        if (d) LOG.debug(String.format("Replacing %s with %s", old_catalog, new_catalog));
+        this.runtime_catalog = new_catalog;
+        return (true);
+    }
     
     /**
      * Return the Site catalog object for this HStoreSiteNode
@@ -873,6 +966,14 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         }
         this.shutdown_state = ShutdownState.STARTED;
         
+        // Replay the command log from the last run. We can't tell anybody that
+        // we're ready until it's finished, and in the meantime procedureInvocation()
+        // will reject any new requests from clients
+        if (this.commandLogRecovery != null && this.commandLogRecovery.recover() == false) {
+            LOG.fatal("Command log recovery failed at " + this.getSiteName());
+            return (this);
+        }
+        
         String msg = String.format("%s / Site=%s / Address=%s:%d / Partitions=%s",
                                    HStoreConstants.SITE_READY_MSG,
                                    this.getSiteName(),
@@ -885,6 +986,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         this.ready = true;
         this.ready_observable.notifyObservers();
         
+
         // Start threads for processing AdHoc queries 
         if (this.periodicWorkTimer_thread != null) {
             this.periodicWorkTimer_thread.start();
@@ -1025,33 +1127,70 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     
     @Override
     public void procedureInvocation(byte[] serializedRequest, RpcCallback<byte[]> done) {
+        this.procedureInvocation(serializedRequest, done, false);
+    }
+    
+    /**
+     * Process a stored procedure invocation request that was redirected to us from another
+     * HStoreSite. If the other site is replaying it from its command log, then we have to
+     * treat it as a replayed txn too.
+     * @param serializedRequest
+     * @param done
+     */
+    public void redirectedProcedureInvocation(byte[] serializedRequest, RpcCallback<byte[]> done) {
+        boolean replay = StoredProcedureInvocation.isReplay(ByteBuffer.wrap(serializedRequest));
+        this.procedureInvocation(serializedRequest, done, replay);
+    }
+    
+    /**
+     * Process a new stored procedure invocation request
+     * @param serializedRequest
+     * @param done
+     * @param replay If true, then this request is being replayed from the command log by
+     *               the CommandLogRecovery and must not be throttled by the PartitionExecutors
+     */
+    public void procedureInvocation(byte[] serializedRequest, RpcCallback<byte[]> done, boolean replay) {
         EstTimeUpdater.update(System.currentTimeMillis());
         long timestamp = (hstore_conf.site.txn_profiling ? ProfileMeasurement.getTime() : -1);
 
         StoredProcedureInvocation request = null;
         ByteBuffer buffer = ByteBuffer.wrap(serializedRequest);
-        synchronized (this) {
-            this.incomingDeserializer.setBuffer(buffer);
-            try {
-                request = this.incomingDeserializer.readObject(StoredProcedureInvocation.class);
-            } catch (Exception ex) {
-                throw new RuntimeException(ex);
-            }
-        } // SYNCH
+        FastDeserializer incomingDeserializer = this.incomingDeserializers.get();
+        incomingDeserializer.setBuffer(buffer);
+        try {
+            request = incomingDeserializer.readObject(StoredProcedureInvocation.class);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
         
         // Extract the stuff we need to figure out whether this guy belongs at our site
-        request.buildParameterSet();
-        assert(request.getParams() != null) :
-            "The parameters object is null for new txn from client #" + request.getClientHandle();
-        final Object args[] = request.getParams().toArray(); 
-        Procedure catalog_proc = this.catalog_db.getProcedures().get(request.getProcName());
-        if (catalog_proc == null) {
-            catalog_proc = this.catalog_db.getProcedures().getIgnoreCase(request.getProcName());
-        }
+        // We don't build the ParameterSet until we know that the txn is going to run here
+        Procedure catalog_proc = this.getProcedure(request.getProcedureId(), request.getProcName());
         if (catalog_proc == null) throw new RuntimeException("Unknown procedure '" + request.getProcName() + "'");
         final boolean sysproc = request.isSysProc();
         int base_partition = request.getBasePartition();
         if (d) LOG.debug(String.format("Received new stored procedure invocation request for %s [handle=%d]", catalog_proc.getName(), request.getClientHandle()));
+        
+        // We can't let any new txns in while we are still replaying the command log,
+        // otherwise they could see the database before it has been fully recovered
+        if (replay == false && this.commandLogRecovery != null && this.commandLogRecovery.isFinished() == false &&
+            catalog_proc.getName().equalsIgnoreCase("@Shutdown") == false) {
+            if (d) LOG.debug(String.format("Rejecting %s request [handle=%d] because %s is still recovering",
+                                           catalog_proc.getName(), request.getClientHandle(), this.getSiteName()));
+            final ClientResponseImpl errorResponse =
+                new ClientResponseImpl(-1, request.getClientHandle(), -1,
+                                       Status.ABORT_REJECT,
+                                       HStoreConstants.EMPTY_RESULT,
+                                       this.getSiteName() + " is recovering from the command log");
+            FastSerializer fs = new FastSerializer();
+            try {
+                fs.writeObject(errorResponse);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            done.run(fs.getBytes());
+            return;
+        }
 
         // Profiling Updates
         if (hstore_conf.site.status_show_txn_info) TxnCounter.RECEIVED.inc(request.getProcName());
@@ -1064,13 +1203,15 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         // -------------------------------
         
         // DB2-style Transaction Redirection
-        if (base_partition != -1 && hstore_conf.site.exec_db2_redirects) {
+        // The CommandLogRecovery always embeds the base partition in the txns that it replays
+        if (base_partition != -1 && (hstore_conf.site.exec_db2_redirects || replay)) {
             if (d) LOG.debug(String.format("Using embedded base partition from %s request [basePartition=%d]",
                                            request.getProcName(), request.getBasePartition()));
             assert(base_partition == request.getBasePartition());    
         }
         // If it's a sysproc, then it doesn't need to go to a specific partition
         else if (sysproc) {
+            request.buildParameterSet();
             // If this method returns true, then we want to halt processing the
             // request any further and immediately return
             if (this.processSysProc(request, catalog_proc, done)) {
@@ -1081,7 +1222,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         else if (hstore_conf.site.exec_force_localexecution == false) {
             if (d) LOG.debug(String.format("Using PartitionEstimator for %s request", request.getProcName()));
             try {
-                Integer p = this.p_estimator.getBasePartition(catalog_proc, args, false);
+                Integer p = this.p_estimator.getBasePartition(catalog_proc, request);
                 if (p != null) base_partition = p.intValue(); 
             } catch (Exception ex) {
                 throw new RuntimeException(ex);
@@ -1111,6 +1252,11 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             return;
         }
         
+        request.buildParameterSet();
+        assert(request.getParams() != null) :
+            "The parameters object is null for new txn from client #" + request.getClientHandle();
+        final Object args[] = request.getParams().toArray();
+        
         // Grab a new LocalTransactionState object from the target base partition's PartitionExecutor object pool
         // This will be the handle that is used all throughout this txn's lifespan to keep track of what it does
         Long txn_id = this.getTransactionIdManager(base_partition).getNextUniqueTransactionId();
@@ -1287,6 +1433,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                     catalog_proc, request, done);
         }
         if (t_state != null) ts.setEstimatorState(t_state);
+        if (replay) ts.markAsReplayed();
         
         if (hstore_conf.site.txn_profiling) ts.profiler.startTransaction(timestamp);
         if (d) {
@@ -1512,7 +1659,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
      */
     public MapReduceTransaction createMapReduceTransaction(Long txn_id, StoredProcedureInvocation invocation, int base_partition) {
         String proc_name = invocation.getProcName();
-        Procedure catalog_proc = catalog_db.getProcedures().getIgnoreCase(proc_name);
+        Procedure catalog_proc = this.runtime_catalog.getProcedure(proc_name);
         if (catalog_proc == null) throw new RuntimeException("Unknown procedure '" + proc_name + "'");
         
         MapReduceTransaction ts = null;
@@ -1765,6 +1912,9 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         
         // Mark this request as having been redirected
         StoredProcedureInvocation.markRawBytesAsRedirected(base_partition, serializedRequest);
+        if (this.runtime_catalog.getProcedure(catalog_proc.getId()) == catalog_proc) {
+            StoredProcedureInvocation.markRawBytesWithProcedureId(catalog_proc.getId(), serializedRequest);
+        }
         
         this.hstore_coordinator.transactionRedirect(serializedRequest, callback, base_partition);
         if (hstore_conf.site.status_show_txn_info) TxnCounter.REDIRECTED.inc(catalog_proc);
@@ -1998,6 +2148,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                     orig_ts.getClientCallback()
         );
         new_ts.setRestartCounter(orig_ts.getRestartCounter() + 1);
+        if (orig_ts.isReplayed()) new_ts.markAsReplayed();
         
          if (d) {
             LOG.debug(String.format("Re-executing %s as new %s-partition %s on partition %d [restarts=%d, partitions=%s]",
@@ -2040,6 +2191,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         
         boolean sendResponse = true;
         if (this.commandLogger != null && status == Status.OK && ts.isSysProc() == false) {
+            this.detachResults(cresponse);
             sendResponse = this.commandLogger.appendToLog(ts, cresponse);
         }
 
@@ -2057,6 +2209,73 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         
     }
     
+    /**
+     * If the EEs are returning result tables that are views over their own buffers, 
+     * then we need to make our own copies of them for any ClientResponse that the
+     * CommandLogWriter is going to hold on to after the txn is deleted.
+     * @param cresponse
+     */
+    private void detachResults(ClientResponseImpl cresponse) {
+        if (hstore_conf.site.exec_ee_result_arena_size <= 0) return;
+        VoltTable results[] = cresponse.getResults();
+        if (results == null) return;
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != null && results[i].getDirectDataReference().isDirect()) {
+                results[i] = results[i].copy();
+            }
+        } // FOR
+    }
+    
+    /**
+     * Send back the ClientResponses for a batch of finished transactions.
+     * All of the committed transactions are handed to the command log together
+     * so that they can be written out in a single group commit.
+     * @param txns
+     * @param cresponses
+     */
+    public void sendClientResponses(List<LocalTransaction> txns, List<ClientResponseImpl> cresponses) {
+        assert(txns.size() == cresponses.size());
+        
+        // Figure out which of these txns need to be logged
+        boolean logged[] = null;
+        boolean sendLogged = true;
+        if (this.commandLogger != null) {
+            logged = new boolean[txns.size()];
+            List<LocalTransaction> log_txns = new ArrayList<LocalTransaction>();
+            List<ClientResponseImpl> log_responses = new ArrayList<ClientResponseImpl>();
+            for (int i = 0, cnt = txns.size(); i < cnt; i++) {
+                LocalTransaction ts = txns.get(i);
+                ClientResponseImpl cresponse = cresponses.get(i);
+                if (cresponse.getStatus() == Status.OK && ts.isSysProc() == false) {
+                    logged[i] = true;
+                    log_txns.add(ts);
+                    log_responses.add(cresponse);
+                }
+            } // FOR
+            if (log_txns.isEmpty() == false) {
+                for (ClientResponseImpl cresponse : log_responses) {
+                    this.detachResults(cresponse);
+                } // FOR
+                sendLogged = this.commandLogger.appendToLog(log_txns, log_responses);
+            }
+        }
+        
+        for (int i = 0, cnt = txns.size(); i < cnt; i++) {
+            LocalTransaction ts = txns.get(i);
+            ClientResponseImpl cresponse = cresponses.get(i);
+            assert(cresponse.getStatus() != Status.ABORT_MISPREDICT) :
+                "Trying to send back a client response for " + ts + " but the status is " + cresponse.getStatus();
+            if (logged != null && logged[i] && sendLogged == false) {
+                if (d) LOG.debug(String.format("%s - Holding the ClientResponse until logged to disk", ts));
+                continue;
+            }
+            this.sendClientResponse(cresponse,
+                                    ts.getClientCallback(),
+                                    ts.getInitiateTime(),
+                                    ts.getRestartCounter());
+        } // FOR
+    }
+    
     /**
      * 
      * @param ts
@@ -2151,6 +2370,13 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         assert(txn_id.equals(abstract_ts.getTransactionId())) :
             String.format("Mismatched %s - Expected[%d] != Actual[%s]", abstract_ts, txn_id, abstract_ts.getTransactionId());
 
+        // Let the EEs reuse the buffers for any result tables that this txn got back
+        if (hstore_conf.site.exec_ee_result_arena_size > 0) {
+            for (int p : this.local_partitions_arr) {
+                this.executors[p].releaseResults(txn_id.longValue());
+            } // FOR
+        }
+
         // Nothing else to do for RemoteTransactions other than to just
         // return the object back into the pool
         if (abstract_ts instanceof RemoteTransaction) {
@@ -2285,7 +2511,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                 final Thread self = Thread.currentThread();
                 self.setName(HStoreThreadManager.getThreadName(hstore_site, "listen"));
                 if (hstore_site.getHStoreConf().site.cpu_affinity)
-                    hstore_site.getThreadManager().registerProcessingThread();
+                    hstore_site.getThreadManager().registerNetworkThread();
                 
                 // Then fire off this thread to have it do some work as it comes in 
                 Throwable error = null;
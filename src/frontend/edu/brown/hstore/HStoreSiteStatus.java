@@ -18,7 +18,6 @@ import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.collections15.map.ListOrderedMap;
-import org.apache.commons.pool.impl.StackObjectPool;
 import org.apache.log4j.Logger;
 import org.voltdb.catalog.Database;
 import org.voltdb.catalog.Procedure;
@@ -34,6 +33,9 @@ import edu.brown.hstore.interfaces.Shutdownable;
 import edu.brown.hstore.util.PartitionExecutorPostProcessor;
 import edu.brown.hstore.util.ThrottlingQueue;
 import edu.brown.hstore.util.TxnCounter;
+import edu.brown.hstore.wal.AdaptiveGroupCommit;
+import edu.brown.hstore.wal.CommandLogStream;
+import edu.brown.hstore.wal.CommandLogWriter;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.logging.RingBufferAppender;
@@ -45,6 +47,7 @@ import edu.brown.utils.EventObserver;
 import edu.brown.utils.ProfileMeasurement;
 import edu.brown.utils.StringUtil;
 import edu.brown.utils.TableUtil;
+import edu.brown.utils.ThreadLocalObjectPool;
 import edu.brown.utils.TypedPoolableObjectFactory;
 
 /**
@@ -59,7 +62,7 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
         LoggerUtil.attachObserver(LOG, debug, trace);
     }
     
-    private static final String POOL_FORMAT = "Active:%-5d / Idle:%-5d / Created:%-5d / Destroyed:%-5d / Passivated:%-7d";
+    private static final String POOL_FORMAT = "Active:%-5d / Idle:%-5d / Created:%-5d / Destroyed:%-5d / Passivated:%-7d / Hits:%-7d / Misses:%-5d";
     
     
 //    private static final Pattern THREAD_REGEX = Pattern.compile("(edu\\.brown|edu\\.mit|org\\.voltdb)");
@@ -447,6 +450,13 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
                                                 pm.getAverageThinkTimeMS()));
                 invokedTxns.put(partition, (int)es.getTransactionCounter());
                 
+                if (hstore_conf.site.exec_batch_singlepartition) {
+                    long batches = es.getBatchCount();
+                    m.put("Batched Txns", String.format("%d txns / %d batches / %.2f avg",
+                                                es.getBatchTransactionCount(), batches,
+                                                (batches > 0 ? es.getBatchTransactionCount() / (double)batches : 0d)));
+                }
+                
                 pm = es.getWorkIdleTime();
                 m.put("Idle Time", String.format("%.2fms total / %.2fms avg",
                                                 pm.getTotalThinkTimeMS(),
@@ -456,6 +466,19 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
                 m.put("Utility Time", String.format("%.2fms total / %.2fms avg",
                                                 pm.getTotalThinkTimeMS(),
                                                 pm.getAverageThinkTimeMS()));
+                
+                PartitionExecutorQueue work_queue = es.getWorkQueue();
+                status = "";
+                for (PartitionExecutorQueue.Lane lane : PartitionExecutorQueue.Lane.values()) {
+                    if (work_queue.getEnqueueCount(lane) == 0) continue;
+                    status += String.format("%-16s %5d queued / %.1fus enqueue / %.2fms wait\n",
+                                            lane.name(), work_queue.size(lane),
+                                            work_queue.getAverageEnqueueLatency(lane) / 1000d,
+                                            work_queue.getAverageDequeueLatency(lane) / 1000000d);
+                } // FOR
+                status += String.format("spins=%d / parks=%d / limit=%d",
+                                        work_queue.getSpinCount(), work_queue.getParkCount(), work_queue.getSpinLimit());
+                m.put("Work Queue Lanes", status);
             }
             
             
@@ -640,6 +663,49 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
         return (TableUtil.tableMap(f, header, rows));
     }
     
+    // ----------------------------------------------------------------------------
+    // COMMAND LOG INFO
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Group commit statistics for each of the command log streams
+     * @return
+     */
+    protected Map<String, Object> commandLogInfo() {
+        CommandLogWriter logger = hstore_site.getCommandLogWriter();
+        if (logger == null || logger.hasStreams() == false) return (null);
+        
+        final Map<String, Object> m_wal = new ListOrderedMap<String, Object>();
+        for (CommandLogStream stream : logger.getStreams()) {
+            Map<String, Object> m = new ListOrderedMap<String, Object>();
+            m.put("Partitions", stream.getPartitions());
+            m.put("Queued", stream.getQueueSize());
+            m.put("Batches", String.format("%d total / %.1f avg size / %d last size",
+                                           stream.getBatchCount(),
+                                           stream.getAverageBatchSize(),
+                                           stream.getLastBatchSize()));
+            m.put("Fsync Time", String.format("%.2fms avg / %.2fms max",
+                                              stream.getAverageFsyncTimeMS(),
+                                              stream.getMaxFsyncTimeMS()));
+            m.put("Queue Delay", String.format("%.2fms avg / %.2fms max",
+                                               stream.getAverageQueueDelayMS(),
+                                               stream.getMaxQueueDelayMS()));
+            if (hstore_conf.site.exec_command_logging_compression) {
+                m.put("Compression", String.format("%.2f", stream.getCompressionRatio()));
+            }
+            AdaptiveGroupCommit policy = stream.getGroupCommitPolicy();
+            if (policy != null) {
+                m.put("Group Commit", String.format("%d target size / %.2fms max wait / %.1f txn/s",
+                                                    policy.getBatchSize(),
+                                                    policy.getMaxWait() / 1000000d,
+                                                    policy.getArrivalRate()));
+            }
+            m.put("Segment", String.format("#%d - %s", stream.getSegmentCounter(), stream.getSegmentFile().getName()));
+            m_wal.put(String.format("WAL Stream[%02d]", stream.getStreamId()), StringUtil.formatMaps(m));
+        } // FOR
+        return (m_wal);
+    }
+    
     // ----------------------------------------------------------------------------
     // THREAD INFO
     // ----------------------------------------------------------------------------
@@ -829,19 +895,20 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
     private Map<String, Object> poolInfo() {
         
         // HStoreObjectPools
-        Map<String, StackObjectPool> pools = HStoreObjectPools.getAllPools(); 
+        Map<String, ThreadLocalObjectPool<?>> pools = HStoreObjectPools.getAllPools(); 
         
         // MarkovPathEstimators
-        pools.put("Estimators", (StackObjectPool)TransactionEstimator.POOL_ESTIMATORS); 
+        pools.put("Estimators", TransactionEstimator.POOL_ESTIMATORS); 
 
         // TransactionEstimator.States
-        pools.put("EstimationStates", (StackObjectPool)TransactionEstimator.POOL_STATES);
+        pools.put("EstimationStates", TransactionEstimator.POOL_STATES);
         
         final Map<String, Object> m_pool = new ListOrderedMap<String, Object>();
         for (String key : pools.keySet()) {
-            StackObjectPool pool = pools.get(key);
-            TypedPoolableObjectFactory<?> factory = (TypedPoolableObjectFactory<?>)pool.getFactory();
-            if (factory.getCreatedCount() > 0) m_pool.put(key, this.formatPoolCounts(pool, factory));
+            ThreadLocalObjectPool<?> pool = pools.get(key);
+            if (pool == null) continue;
+            TypedPoolableObjectFactory<?> factory = pool.getFactory();
+            if (factory.getCreatedCount() > 0 || pool.getMissCount() > 0) m_pool.put(key, this.formatPoolCounts(pool, factory));
         } // FOR
 
 //        // Partition Specific
@@ -889,6 +956,11 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
         // Executor Information
         // ----------------------------------------------------------------------------
         Map<String, Object> m_exec = (show_exec ? this.executorInfo() : null);
+        
+        // ----------------------------------------------------------------------------
+        // Command Log Information
+        // ----------------------------------------------------------------------------
+        Map<String, Object> m_wal = (show_exec ? this.commandLogInfo() : null);
 
         // ----------------------------------------------------------------------------
         // Batch Planner Information
@@ -923,7 +995,7 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
         Map<String, Object> poolInfo = null;
         if (show_poolinfo) poolInfo = this.poolInfo();
         
-        String top = StringUtil.formatMaps(header, m_exec, m_txn, threadInfo, cpuThreads, txnProfiles, plannerInfo, poolInfo);
+        String top = StringUtil.formatMaps(header, m_exec, m_wal, m_txn, threadInfo, cpuThreads, txnProfiles, plannerInfo, poolInfo);
         String bot = "";
         Histogram<Integer> blockedDtxns = hstore_site.getTransactionQueueManager().getDebugContext().getBlockedDtxnHistogram(); 
         if (hstore_conf.site.status_show_txn_info && blockedDtxns != null && blockedDtxns.isEmpty() == false) {
@@ -934,11 +1006,13 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
         return (top + bot);
     }
     
-    private String formatPoolCounts(StackObjectPool pool, TypedPoolableObjectFactory<?> factory) {
+    private String formatPoolCounts(ThreadLocalObjectPool<?> pool, TypedPoolableObjectFactory<?> factory) {
         return (String.format(POOL_FORMAT, pool.getNumActive(),
                                            pool.getNumIdle(),
                                            factory.getCreatedCount(),
                                            factory.getDestroyedCount(),
-                                           factory.getPassivatedCount()));
+                                           factory.getPassivatedCount(),
+                                           pool.getHitCount(),
+                                           pool.getMissCount()));
     }
 } // END CLASS
\ No newline at end of file
@@ -5,14 +5,21 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+import org.apache.commons.collections15.map.ListOrderedMap;
 import org.apache.log4j.Logger;
 import org.voltdb.catalog.Partition;
 
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.CPUTopology;
+import edu.brown.utils.CPUTopology.CPU;
 import edu.brown.utils.StringUtil;
 import edu.brown.utils.ThreadUtil;
 
@@ -28,34 +35,161 @@ public class HStoreThreadManager {
     private boolean disable;
     private final int num_partitions;
     private final int num_cores = ThreadUtil.getMaxGlobalThreads();
-    private final boolean processing_affinity[];
+    private final CPUTopology topology;
     private final Set<Thread> all_threads = new HashSet<Thread>();
     private final Map<Integer, Set<Thread>> cpu_threads = new HashMap<Integer, Set<Thread>>(); 
     
+    // ----------------------------------------------------------------------------
+    // CPU PLACEMENT
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * PartitionId -> CPU Id
+     */
+    private final Map<Integer, Integer> partition_cpus = new TreeMap<Integer, Integer>();
+    
+    /**
+     * All of the CPUs that are used by the PartitionExecutors
+     */
+    private final boolean ee_affinity[];
+    
+    /**
+     * The CPUs that all of the other threads are allowed to use
+     */
+    private final boolean processing_affinity[];
+    
+    /**
+     * NUMA Node -> The processing CPUs on that node
+     */
+    private final Map<Integer, boolean[]> processing_node_affinity = new TreeMap<Integer, boolean[]>();
+    
+    /**
+     * The CPUs that are dedicated to the network threads
+     * If this is null, then these threads will use the processing CPUs
+     */
+    private boolean network_affinity[];
+    
+    /**
+     * NUMA Node -> The CPUs that are dedicated to the WAL threads for that node
+     */
+    private final Map<Integer, boolean[]> wal_node_affinity = new TreeMap<Integer, boolean[]>();
+    
     public HStoreThreadManager(HStoreSite hstore_site) {
         this.hstore_site = hstore_site;
         this.num_partitions = this.hstore_site.getLocalPartitionIds().size();
+        this.topology = CPUTopology.load(this.num_cores);
+        this.ee_affinity = new boolean[this.num_cores];
         this.processing_affinity = new boolean[this.num_cores];
         for (int i = 0; i < this.processing_affinity.length; i++) {
             this.processing_affinity[i] = true;
         } // FOR
         
-        this.disable = (this.num_cores <= this.num_partitions);
+        // We can only use the CPUs that are within the number of cores 
+        // that we've been told that we're allowed to use
+        List<CPU> order = new ArrayList<CPU>();
+        for (CPU cpu : this.topology.getPlacementOrder()) {
+            if (cpu.id < this.num_cores) order.add(cpu);
+        } // FOR
+        
+        this.disable = (order.size() <= this.num_partitions);
         if (hstore_site.getHStoreConf().site.cpu_affinity == false) {
             // Ignore
         }
         else if (this.disable) {
             if (debug.get())
                 LOG.warn(String.format("Unable to set CPU affinity - There are %d partitions but only %d available cores",
-                                       this.num_partitions, this.num_cores));
+                                       this.num_partitions, order.size()));
         }
         else {
-            for (int i = 0; i < this.num_partitions; i++) {
-                this.processing_affinity[i] = false;
+            this.computePlacement(order);
+            if (LOG.isInfoEnabled())
+                LOG.info("CPU Placement\n" + StringUtil.formatMaps(this.getPlacementInfo()));
+        }
+    }
+    
+    /**
+     * Figure out what CPUs each of our threads should use. The PartitionExecutors
+     * get the first CPUs in the topology's placement order so that they are spread 
+     * across the sockets and physical cores before we use any hyperthreads.
+     * If there are enough CPUs left over, then we will give the network threads and
+     * the WAL threads for each NUMA node their own CPU. Everything else shares
+     * the remaining CPUs.
+     * @param order
+     */
+    private void computePlacement(List<CPU> order) {
+        List<Integer> partitions = new ArrayList<Integer>(this.hstore_site.getLocalPartitionIds());
+        Collections.sort(partitions);
+        
+        Set<String> used_cores = new HashSet<String>();
+        Set<Integer> partition_nodes = new TreeSet<Integer>();
+        for (int i = 0; i < this.num_partitions; i++) {
+            CPU cpu = order.get(i);
+            this.partition_cpus.put(partitions.get(i), cpu.id);
+            this.ee_affinity[cpu.id] = true;
+            this.processing_affinity[cpu.id] = false;
+            used_cores.add(cpu.socket + ":" + cpu.core);
+            partition_nodes.add(cpu.node);
+        } // FOR
+        List<CPU> remaining = new ArrayList<CPU>(order.subList(this.num_partitions, order.size()));
+        
+        // Dedicated CPUs for the network and WAL threads. We always want to
+        // leave at least one CPU for the rest of the processing threads
+        if (remaining.size() >= 3) {
+            CPU cpu = this.pickCPU(remaining, used_cores, null);
+            this.network_affinity = new boolean[this.num_cores];
+            this.network_affinity[cpu.id] = true;
+            this.processing_affinity[cpu.id] = false;
+            
+            for (Integer node : partition_nodes) {
+                if (remaining.size() < 2) break;
+                cpu = this.pickCPU(remaining, used_cores, node);
+                if (cpu == null) continue;
+                boolean affinity[] = new boolean[this.num_cores];
+                affinity[cpu.id] = true;
+                this.processing_affinity[cpu.id] = false;
+                this.wal_node_affinity.put(node, affinity);
             } // FOR
         }
+        
+        for (CPU cpu : remaining) {
+            boolean affinity[] = this.processing_node_affinity.get(cpu.node);
+            if (affinity == null) {
+                affinity = new boolean[this.num_cores];
+                this.processing_node_affinity.put(cpu.node, affinity);
+            }
+            affinity[cpu.id] = true;
+        } // FOR
     }
     
+    /**
+     * Remove and return the next CPU from the list on the given NUMA node.
+     * We prefer CPUs whose physical core is not already being used.
+     * @param remaining
+     * @param used_cores
+     * @param node If null, then the CPU can be on any node
+     * @return
+     */
+    private CPU pickCPU(List<CPU> remaining, Set<String> used_cores, Integer node) {
+        CPU best = null;
+        for (CPU cpu : remaining) {
+            if (node != null && cpu.node != node.intValue()) continue;
+            if (used_cores.contains(cpu.socket + ":" + cpu.core) == false) {
+                best = cpu;
+                break;
+            }
+            if (best == null) best = cpu;
+        } // FOR
+        if (best != null) {
+            remaining.remove(best);
+            used_cores.add(best.socket + ":" + best.core);
+        }
+        return (best);
+    }
+    
+    // ----------------------------------------------------------------------------
+    // THREAD REGISTRATION
+    // ----------------------------------------------------------------------------
+    
     /**
      * Set the CPU affinity for the EE thread executing for the given partition
      * @param partition
@@ -76,13 +210,14 @@ public class HStoreThreadManager {
         } // FOR
 
         // Only allow this EE to execute on a single core
-        if (hstore_site.getHStoreConf().site.cpu_affinity_one_partition_per_core) {
-            affinity[partition.getRelativeIndex()-1 % affinity.length] = true;
+        Integer cpu = this.partition_cpus.get(partition.getId());
+        if (hstore_site.getHStoreConf().site.cpu_affinity_one_partition_per_core && cpu != null) {
+            affinity[cpu.intValue() % affinity.length] = true;
         }
-        // Allow this EE to run on any of the lower cores
+        // Allow this EE to run on any of the partitions' cores
         else {
-            for (int i = 0; i < this.num_partitions; i++) {
-                affinity[i] = true;
+            for (int i = 0; i < this.ee_affinity.length && i < affinity.length; i++) {
+                affinity[i] = this.ee_affinity[i];
             } // FOR
         }
         if (debug.get())
@@ -101,20 +236,75 @@ public class HStoreThreadManager {
      * Set the CPU affinity for a non-EE thread
      */
     public void registerProcessingThread() {
+        this.setAffinity(this.processing_affinity, "Processing");
+    }
+    
+    /**
+     * Set the CPU affinity for a thread that handles network traffic
+     * These threads get their own CPU if we have enough of them
+     */
+    public void registerNetworkThread() {
+        this.setAffinity((this.network_affinity != null ? this.network_affinity : this.processing_affinity), "Network");
+    }
+    
+    /**
+     * Set the CPU affinity for a WAL thread that writes out the log entries for the
+     * given partitions. The thread will be put on the WAL CPUs for the NUMA nodes 
+     * where those partitions execute. If partitions is null, then the thread is
+     * allowed to use the WAL CPUs on all nodes.
+     * @param partitions
+     */
+    public void registerWALThread(Collection<Integer> partitions) {
+        if (this.disable) return;
+        
+        Set<Integer> nodes = new TreeSet<Integer>();
+        if (partitions == null) {
+            nodes.addAll(this.wal_node_affinity.keySet());
+        } else {
+            for (Integer partition : partitions) {
+                Integer cpu = this.partition_cpus.get(partition);
+                if (cpu != null) nodes.add(this.topology.getNode(cpu));
+            } // FOR
+        }
+        
+        boolean affinity[] = this.mergeAffinity(this.wal_node_affinity, nodes);
+        if (affinity == null) affinity = this.mergeAffinity(this.processing_node_affinity, nodes);
+        if (affinity == null) affinity = this.processing_affinity;
+        this.setAffinity(affinity, "WAL");
+    }
+    
+    /**
+     * Combine the affinity masks for the given NUMA nodes
+     * Returns null if none of the nodes have any CPUs 
+     */
+    private boolean[] mergeAffinity(Map<Integer, boolean[]> node_affinity, Collection<Integer> nodes) {
+        boolean affinity[] = null;
+        for (Integer node : nodes) {
+            boolean a[] = node_affinity.get(node);
+            if (a == null) continue;
+            if (affinity == null) affinity = new boolean[this.num_cores];
+            for (int i = 0; i < a.length; i++) {
+                affinity[i] = affinity[i] || a[i];
+            } // FOR
+        } // FOR
+        return (affinity);
+    }
+    
+    private void setAffinity(boolean affinity[], String type) {
         if (this.disable) return;
         if (debug.get())
-            LOG.debug("Registering Processing Thread to execute on CPUs " + getCPUIds(this.processing_affinity));
+            LOG.debug("Registering " + type + " Thread to execute on CPUs " + getCPUIds(affinity));
         // This thread cannot run on the EE's cores
         // If this fails (such as on OS X for some weird reason), we'll
         // just print a warning rather than crash
         try {
-            org.voltdb.utils.ThreadUtils.setThreadAffinity(this.processing_affinity);
+            org.voltdb.utils.ThreadUtils.setThreadAffinity(affinity);
         } catch (UnsatisfiedLinkError ex) {
             LOG.warn("Unable to set thread affinity. Disabling feature", (debug.get() ? ex : null));
             this.disable = true;
             return;
         }
-        this.registerThread(this.processing_affinity);
+        this.registerThread(affinity);
     }
     
     private synchronized void registerThread(boolean affinity[]) {
@@ -163,6 +353,40 @@ public class HStoreThreadManager {
         return Collections.unmodifiableMap(this.cpu_threads);
     }
 
+    public CPUTopology getTopology() {
+        return (this.topology);
+    }
+    
+    /**
+     * Returns the CPU that the given partition's PartitionExecutor will execute on
+     * Returns null if CPU affinity is disabled
+     * @param partition
+     * @return
+     */
+    public Integer getPartitionCPU(int partition) {
+        return (this.partition_cpus.get(partition));
+    }
+    
+    /**
+     * Returns a summary of what CPUs each type of thread will execute on
+     * @return
+     */
+    public Map<String, Object> getPlacementInfo() {
+        Map<String, Object> m = new ListOrderedMap<String, Object>();
+        m.put("Topology", String.format("%d CPUs / %d Sockets / %d NUMA Nodes",
+                                        this.topology.getNumCPUs(), this.topology.getSockets().size(),
+                                        this.topology.getNodes().size()));
+        for (Entry<Integer, Integer> e : this.partition_cpus.entrySet()) {
+            m.put(String.format("Partition %02d", e.getKey()), this.topology.getCPU(e.getValue()));
+        } // FOR
+        m.put("Network", (this.network_affinity != null ? getCPUIds(this.network_affinity) : "<processing>"));
+        for (Entry<Integer, boolean[]> e : this.wal_node_affinity.entrySet()) {
+            m.put("WAL Node " + e.getKey(), getCPUIds(e.getValue()));
+        } // FOR
+        m.put("Processing", getCPUIds(this.processing_affinity));
+        return (m);
+    }
+
     // ----------------------------------------------------------------------------
     // THREAD NAME FORMATTERS
     // ----------------------------------------------------------------------------
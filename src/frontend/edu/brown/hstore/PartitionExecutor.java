@@ -111,6 +111,7 @@ import com.google.protobuf.RpcCallback;
 
 import edu.brown.catalog.CatalogUtil;
 import edu.brown.catalog.PlanFragmentIdGenerator;
+import edu.brown.catalog.RuntimeCatalog;
 import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.Hstoreservice.TransactionPrefetchResult;
 import edu.brown.hstore.Hstoreservice.TransactionWorkRequest;
@@ -351,6 +352,35 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
      * ClientResponses from speculatively executed transactions that are waiting to be committed 
      */
     private final LinkedBlockingDeque<Pair<LocalTransaction, ClientResponseImpl>> queued_responses = new LinkedBlockingDeque<Pair<LocalTransaction, ClientResponseImpl>>();
+    
+    // ----------------------------------------------------------------------------
+    // SINGLE-PARTITION BATCHING
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * If true, then we are in the middle of executing a batch of single-partition txns
+     * See ${site.exec_batch_singlepartition}
+     */
+    private boolean batchMode = false;
+    
+    /**
+     * The largest undoToken of the txns in the current batch that committed but
+     * that we have not told the EE to release yet
+     */
+    private long batchReleaseToken = HStoreConstants.NULL_UNDO_LOGGING_TOKEN;
+    
+    /**
+     * The committed/aborted txns in the current batch whose ClientResponses 
+     * need to be sent back once the batch is finished
+     */
+    private final List<LocalTransaction> batchTxns = new ArrayList<LocalTransaction>();
+    private final List<ClientResponseImpl> batchResponses = new ArrayList<ClientResponseImpl>();
+    
+    /**
+     * The number of batches and the number of txns executed in those batches 
+     */
+    private long batchCounter = 0;
+    private long batchTxnCounter = 0;
 
     /**
      * The time in ms since epoch of the last call to ExecutionEngine.tick(...)
@@ -391,9 +421,11 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
     private final ThrottlingQueue<VoltMessage> work_throttler;
     
     /**
-     * 
+     * Cached query results. This contains both the prefetched results for distributed
+     * transactions and the global results for read-only fragments that can be shared
+     * by all transactions (if enabled)
      */
-    private final QueryCache queryCache = new QueryCache(10, 10); // FIXME
+    private final QueryCache queryCache;
     
     // ----------------------------------------------------------------------------
     // TEMPORARY DATA COLLECTIONS
@@ -454,6 +486,13 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
      */
     private final IntArrayCache tmp_inputDepIds = new IntArrayCache(10);
     
+    /**
+     * Reusable arrays for the fragments in a batch that were not in the QueryCache
+     */
+    private final LongArrayCache tmp_uncachedFragmentIds = new LongArrayCache(10);
+    private final IntArrayCache tmp_uncachedOutputDepIds = new IntArrayCache(10);
+    private final IntArrayCache tmp_uncachedInputDepIds = new IntArrayCache(10);
+    
     
     /**
      * The following three arrays are used by utilityWork() to create transactions
@@ -590,6 +629,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
         this.procParameterSets = null;
         this.tmp_fragmentParams = null;
         this.tmp_transactionRequestBuilders = null;
+        this.queryCache = null;
     }
 
     /**
@@ -611,6 +651,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
                 hstore_conf.site.queue_incoming_increase,
                 hstore_conf.site.queue_incoming_increase_max
         );
+        this.work_queue.setProfiling(hstore_conf.site.exec_profiling);
         
         this.catalog = catalog;
         this.partition = CatalogUtil.getPartitionById(this.catalog, partitionId);
@@ -626,6 +667,12 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
         this.backend_target = target;
         this.cluster = CatalogUtil.getCluster(catalog);
         this.database = CatalogUtil.getDatabase(cluster);
+        
+        this.queryCache = new QueryCache(hstore_conf.site.exec_query_cache_max_size * 1048576l,
+                                         hstore_conf.site.exec_query_cache_txn_size);
+        if (hstore_conf.site.exec_query_cache) {
+            this.queryCache.registerFragments(this.database);
+        }
 
         // The PartitionEstimator is what we use to figure our where our transactions are going to go
         this.p_estimator = p_estimator; // t_estimator.getPartitionEstimator();
@@ -669,6 +716,9 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
                 org.voltdb.EELibraryLoader.loadExecutionEngineLibrary(true);
                 // set up the EE
                 eeTemp = new ExecutionEngineJNI(this, cluster.getRelativeIndex(), this.getSiteId(), this.getPartitionId(), this.getHostId(), "localhost");
+                if (hstore_conf.site.exec_ee_result_arena_size > 0) {
+                    ((ExecutionEngineJNI)eeTemp).setResultArenaSize(hstore_conf.site.exec_ee_result_arena_size);
+                }
                 eeTemp.loadCatalog(catalog.serialize());
                 lastTickTime = System.currentTimeMillis();
                 eeTemp.tick( lastTickTime, 0);
@@ -679,7 +729,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
                     public void run() {
                         PartitionExecutor.this.work_queue.add(msg);
                     }
-                });
+                }, hstore_conf.site.snapshot_rate_limit);
             }
             else {
                 // set up the EE over IPC
@@ -790,6 +840,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
         // Things that we will need in the loop below
         AbstractTransaction current_txn = null;
         VoltMessage work = null;
+        VoltMessage next_work = null;
         boolean stop = false;
         
         try {
@@ -804,7 +855,14 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
                 // -------------------------------
                 // Poll Work Queue
                 // -------------------------------
-                work = this.work_queue.poll();
+                // If we pulled something out of the queue while executing a batch of 
+                // single-partition txns that couldn't go in that batch, then we have to do it now
+                if (next_work != null) {
+                    work = next_work;
+                    next_work = null;
+                } else {
+                    work = this.work_queue.poll();
+                }
                 if (work == null) {
                     if (t) LOG.trace("Partition " + this.partitionId + " queue is empty. Checking for utility work...");
                     if (hstore_conf.site.exec_profiling) this.work_idle_time.start();
@@ -926,7 +984,11 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
                         }
     
                         try {
-                            this.processInitiateTaskMessage((LocalTransaction)current_txn, itask);
+                            if (hstore_conf.site.exec_batch_singlepartition && this.canBatch(current_txn)) {
+                                next_work = this.processInitiateTaskBatch((LocalTransaction)current_txn, itask);
+                            } else {
+                                this.processInitiateTaskMessage((LocalTransaction)current_txn, itask);
+                            }
                         } catch (Throwable ex) {
                             LOG.error(String.format("Unexpected error when executing %s\n%s", current_txn, current_txn.debug()));
                             throw ex;
@@ -946,7 +1008,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
                 // PotentialSnapshotWorkMessage
                 // -------------------------------
                 } else if (work instanceof PotentialSnapshotWorkMessage) {
-                    m_snapshotter.doSnapshotWork(ee);
+                    if (m_snapshotter != null) m_snapshotter.doSnapshotWork(ee);
                     
                 // -------------------------------
                 // BAD MOJO!
@@ -984,6 +1046,10 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
                                        txnDebug));
             }
             
+            // Throw away whatever is left in our queue. This has to happen here
+            // because we are the only thread that is allowed to remove messages
+            this.work_queue.clear();
+            
             // Release the shutdown latch in case anybody waiting for us
             this.shutdown_latch.release();
             
@@ -1001,14 +1067,23 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
      * be interesting to have the system report on this before it shuts down.
      */
     protected boolean utilityWork() {
+        // If we're in the middle of an online snapshot, then serialize the next
+        // block of tuples while nobody else needs the EE
+        boolean snapshot_work = false;
+        if (m_snapshotter != null && m_snapshotter.hasSnapshotWork()) {
+            if (hstore_conf.site.exec_profiling) this.work_utility_time.start();
+            snapshot_work = (m_snapshotter.doSnapshotWork(ee) != null);
+            if (hstore_conf.site.exec_profiling) this.work_utility_time.stop();
+        }
+        
         // TODO: Set the txnId in our handle to be what the original txn was that
         //       deferred this query.
         if (hstore_conf.site.exec_deferrable_queries==false){
-            return false; // for now, unless andy wants to free up meomory in utilityWork
+            return (snapshot_work); // for now, unless andy wants to free up meomory in utilityWork
         }
         if (d) LOG.debug("entering utilitywork");
         DeferredWork def_work = deferred_queue.poll();
-        if (def_work == null) return false;
+        if (def_work == null) return (snapshot_work);
         // we have work to do
         if (hstore_conf.site.exec_profiling) this.work_utility_time.start();
         tmp_def_stmt[0] = def_work.getStmt();
@@ -1046,7 +1121,22 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
         }
         
         // do other periodic work
-        m_snapshotter.doSnapshotWork(ee);
+        // If we have snapshot work that is being throttled, then poke our thread so
+        // that it picks it up again. We can't touch the EE from here because tick()
+        // is invoked by the PartitionExecutorHelper's thread
+        if (m_snapshotter != null && m_snapshotter.hasSnapshotWork()) {
+            this.work_queue.add(new PotentialSnapshotWorkMessage());
+        }
+    }
+    
+    /**
+     * Tell the ExecutionEngine that the given txn is gone and that it can reuse
+     * the memory for any result tables that it returned to it.
+     * This is safe to invoke from any thread.
+     * @param txnId
+     */
+    public void releaseResults(long txnId) {
+        if (this.ee != null) this.ee.releaseResults(txnId);
     }
 
     @Override
@@ -1176,9 +1266,24 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
     public int getWaitingQueueSize() {
         return (this.queued_responses.size());
     }
+    /**
+     * Returns the number of batches of single-partition txns that were executed
+     */
+    public long getBatchCount() {
+        return (this.batchCounter);
+    }
+    /**
+     * Returns the total number of txns that were executed in batches 
+     */
+    public long getBatchTransactionCount() {
+        return (this.batchTxnCounter);
+    }
     public int getWorkQueueSize() {
         return (this.work_queue.size());
     }
+    public PartitionExecutorQueue getWorkQueue() {
+        return (this.work_queue);
+    }
     public ProfileMeasurement getWorkIdleTime() {
         return (this.work_idle_time);
     }
@@ -1352,6 +1457,9 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
         final InitiateTaskMessage task = ts.getInitiateTaskMessage();
         final boolean singlePartitioned = ts.isPredictSinglePartition();
         final boolean mapreduce_part = ts.isPartOfMapreduce();
+        // Txns that are replayed from the command log can't be throttled,
+        // otherwise the CommandLogRecovery would have to send them in again out of order
+        final boolean force = (mapreduce_part || ts.isReplayed());
         boolean success = true;
         
         if (d) LOG.debug(String.format("%s - Queuing new transaction execution request on partition %d [currentDtxn=%s, mode=%s, taskHash=%d]",
@@ -1362,8 +1470,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
             if (d) LOG.debug(String.format("%s - Adding to work queue at partition %d [size=%d]", ts, this.partitionId, this.work_queue.size()));
             if (d) LOG.debug(String.format("Is part of mapreduce: " + mapreduce_part));
             
-            if (mapreduce_part) success = this.work_throttler.offer(task, true);
-            else success = this.work_throttler.offer(task, false);
+            success = this.work_throttler.offer(task, force);
             
 
         // Otherwise figure out whether this txn needs to be blocked or not
@@ -1381,8 +1488,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
                     // Only use the throttler for single-partition txns
                     if (singlePartitioned) {
                         if (d) LOG.debug(String.format("Is part of mapreduce: " + mapreduce_part));
-                        if (mapreduce_part) success = this.work_throttler.offer(task, true);
-                        else success = this.work_throttler.offer(task, false);
+                        success = this.work_throttler.offer(task, force);
                         
                     } else {
                         // this.work_queue.addFirst(task);
@@ -1532,7 +1638,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
      * Execute a new transaction based on an InitiateTaskMessage
      * @param itask
      */
-    private void processInitiateTaskMessage(LocalTransaction ts, InitiateTaskMessage itask) throws InterruptedException {
+    void processInitiateTaskMessage(LocalTransaction ts, InitiateTaskMessage itask) throws InterruptedException {
         if (hstore_conf.site.txn_profiling) ts.profiler.startExec();
         
         ExecutionMode before_mode = ExecutionMode.COMMIT_ALL;
@@ -1669,6 +1775,102 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
         volt_proc.finish();
     }
     
+    /**
+     * Returns true if the given txn can be executed as part of a batch of single-partition txns.
+     * We only do this when there is no distributed txn at this partition, since otherwise
+     * the txns have to go through speculative execution.
+     * @param ts
+     * @return
+     */
+    private boolean canBatch(AbstractTransaction ts) {
+        return (ts instanceof LocalTransaction &&
+                ts instanceof MapReduceTransaction == false &&
+                ts.isSysProc() == false &&
+                ts.isAborted() == false &&
+                ((LocalTransaction)ts).isPredictSinglePartition() &&
+                this.currentDtxn == null &&
+                this.currentExecMode == ExecutionMode.COMMIT_ALL);
+    }
+    
+    /**
+     * Execute the given single-partition txn and then keep pulling single-partition txns
+     * out of the work queue and executing them back-to-back. The undo buffers for the txns that
+     * commit are only released in the EE once at the end of the batch, and all of the 
+     * ClientResponses are sent out together.
+     * If we pull out a message that can't be part of the batch, then it is returned
+     * so that the caller can process it next.
+     * @param ts
+     * @param itask
+     * @return
+     * @throws InterruptedException
+     */
+    VoltMessage processInitiateTaskBatch(LocalTransaction ts, InitiateTaskMessage itask) throws InterruptedException {
+        assert(this.batchMode == false);
+        VoltMessage next = null;
+        int ctr = 0;
+        
+        this.batchMode = true;
+        try {
+            while (true) {
+                this.processInitiateTaskMessage(ts, itask);
+                if (++ctr >= hstore_conf.site.exec_batch_singlepartition_size || this.isShuttingDown()) break;
+                
+                // Check whether the next message in the queue can go in this batch
+                next = this.work_queue.poll();
+                if ((next instanceof InitiateTaskMessage) == false) break;
+                AbstractTransaction next_ts = hstore_site.getTransaction(((InitiateTaskMessage)next).getTxnId());
+                if (next_ts == null || this.canBatch(next_ts) == false) break;
+                
+                this.currentTxnId = next_ts.getTransactionId();
+                ts = (LocalTransaction)next_ts;
+                itask = (InitiateTaskMessage)next;
+                next = null;
+            } // WHILE
+        } finally {
+            this.batchMode = false;
+            this.finishBatch();
+        }
+        this.batchCounter++;
+        this.batchTxnCounter += ctr;
+        if (d) LOG.debug(String.format("Executed batch of %d single-partition txns at partition %d [nextWork=%s]",
+                                       ctr, this.partitionId, (next != null ? next.getClass().getSimpleName() : null)));
+        return (next);
+    }
+    
+    /**
+     * Release the undo buffers for the committed txns in the current batch
+     * and then send out their ClientResponses.
+     */
+    private void finishBatch() {
+        if (this.batchReleaseToken != HStoreConstants.NULL_UNDO_LOGGING_TOKEN) {
+            if (d) LOG.debug(String.format("Releasing undoToken %d for %d batched txns at partition %d",
+                                           this.batchReleaseToken, this.batchTxns.size(), this.partitionId));
+            this.ee.releaseUndoToken(this.batchReleaseToken);
+            this.batchReleaseToken = HStoreConstants.NULL_UNDO_LOGGING_TOKEN;
+        }
+        if (this.batchTxns.isEmpty()) return;
+        
+        if (hstore_conf.site.exec_postprocessing_thread) {
+            for (int i = 0, cnt = this.batchTxns.size(); i < cnt; i++) {
+                this.hstore_site.queueClientResponse(this.batchTxns.get(i), this.batchResponses.get(i));
+            } // FOR
+        } else {
+            if (hstore_conf.site.exec_command_logging) {
+                for (LocalTransaction ts : this.batchTxns) {
+                    ts.markLogEnabled();
+                } // FOR
+            }
+            this.hstore_site.sendClientResponses(this.batchTxns, this.batchResponses);
+            for (int i = 0, cnt = this.batchTxns.size(); i < cnt; i++) {
+                LocalTransaction ts = this.batchTxns.get(i);
+                ts.markAsDeletable();
+                this.hstore_site.deleteTransaction(ts.getTransactionId(), this.batchResponses.get(i).getStatus());
+            } // FOR
+        }
+        this.batchTxns.clear();
+        this.batchResponses.clear();
+    }
+    
     /**
      * Determines whether a finished transaction that executed locally can have their ClientResponse processed immediately
      * or if it needs to wait for the response from the outstanding multi-partition transaction for this partition 
@@ -1965,6 +2167,10 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
             // HACK: We have to set the TransactionState for sysprocs manually
             volt_proc.setTransactionState(ts);
             ts.markExecNotReadOnly(this.partitionId);
+            
+            // We have no idea what the sysproc is going to do, so we'll
+            // just throw out everything in the query cache
+            if (hstore_conf.site.exec_query_cache) this.queryCache.invalidateAll();
             try {
                 result = volt_proc.executePlanFragment(ts.getTransactionId(),
                                                        this.tmp_EEdependencies,
@@ -2144,6 +2350,65 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
             ts.setSubmittedEE(this.partitionId);
         }
         
+        // -------------------------------
+        // GLOBAL QUERY CACHE
+        // -------------------------------
+        // If this batch modifies any tables, then we have to invalidate all of the cached results
+        // that read from them and we won't use the cache for anything in this batch.
+        // Otherwise, check whether we can skip the EE for any of these fragments. We only cache
+        // read-only fragments that don't have any input dependencies.
+        boolean use_cache = false;
+        VoltTable cachedResults[] = null;
+        int num_cached = 0;
+        long exec_fragmentIds[] = fragmentIds;
+        ParameterSet exec_parameterSets[] = parameterSets;
+        int exec_outputDepIds[] = output_depIds;
+        int exec_inputDepIds[] = input_depIds;
+        int exec_batchSize = batchSize;
+        if (hstore_conf.site.exec_query_cache && ts.isSysProc() == false) {
+            use_cache = true;
+            for (int i = 0; i < batchSize; i++) {
+                if (PlanFragmentIdGenerator.isPlanFragmentReadOnly(fragmentIds[i]) == false) {
+                    this.queryCache.invalidateFragment(fragmentIds[i]);
+                    use_cache = false;
+                }
+            } // FOR
+            
+            for (int i = 0; use_cache && i < batchSize; i++) {
+                if (input_depIds[i] != HStoreConstants.NULL_DEPENDENCY_ID ||
+                    this.queryCache.isCacheable(fragmentIds[i]) == false) continue;
+                VoltTable vt = this.queryCache.getGlobalCachedResult((int)fragmentIds[i], this.partitionId, parameterSets[i]);
+                if (vt != null) {
+                    if (cachedResults == null) cachedResults = new VoltTable[batchSize];
+                    cachedResults[i] = vt;
+                    num_cached++;
+                }
+            } // FOR
+            if (num_cached == batchSize) {
+                if (d) LOG.debug(String.format("%s - Using cached results for all %d fragments at partition %d",
+                                               ts, batchSize, this.partitionId));
+                return (new DependencySet(Arrays.copyOf(output_depIds, batchSize), cachedResults));
+            }
+            // Only send the fragments that we don't have cached results for to the EE
+            else if (num_cached > 0) {
+                if (d) LOG.debug(String.format("%s - Using cached results for %d out of %d fragments at partition %d",
+                                               ts, num_cached, batchSize, this.partitionId));
+                exec_batchSize = batchSize - num_cached;
+                exec_fragmentIds = this.tmp_uncachedFragmentIds.getArray(exec_batchSize);
+                exec_outputDepIds = this.tmp_uncachedOutputDepIds.getArray(exec_batchSize);
+                exec_inputDepIds = this.tmp_uncachedInputDepIds.getArray(exec_batchSize);
+                exec_parameterSets = new ParameterSet[exec_batchSize];
+                for (int i = 0, j = 0; i < batchSize; i++) {
+                    if (cachedResults[i] != null) continue;
+                    exec_fragmentIds[j] = fragmentIds[i];
+                    exec_outputDepIds[j] = output_depIds[i];
+                    exec_inputDepIds[j] = input_depIds[i];
+                    exec_parameterSets[j] = parameterSets[i];
+                    j++;
+                } // FOR
+            }
+        }
+        
         DependencySet result = null;
         boolean needs_profiling = (hstore_conf.site.txn_profiling && ts.isExecLocal(this.partitionId));
         if (needs_profiling) ((LocalTransaction)ts).profiler.startExecEE();
@@ -2153,12 +2418,12 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
                                            ts, Arrays.toString(fragmentIds), this.partitionId));
             
             result = this.ee.executeQueryPlanFragmentsAndGetDependencySet(
-                            fragmentIds,
-                            batchSize,
-                            input_depIds,
-                            output_depIds,
-                            parameterSets,
-                            batchSize,
+                            exec_fragmentIds,
+                            exec_batchSize,
+                            exec_inputDepIds,
+                            exec_outputDepIds,
+                            exec_parameterSets,
+                            exec_batchSize,
                             txn_id.longValue(),
                             this.lastCommittedTxnId,
                             undoToken);
@@ -2179,6 +2444,22 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
             }
         }
         
+        // Merge the cached results back in with the results from the EE and
+        // then store anything new that can be used by other transactions
+        if (use_cache && result != null) {
+            if (num_cached > 0) {
+                for (int i = 0, j = 0; i < batchSize; i++) {
+                    if (cachedResults[i] == null) cachedResults[i] = result.dependencies[j++];
+                } // FOR
+                result = new DependencySet(Arrays.copyOf(output_depIds, batchSize), cachedResults);
+            }
+            for (int i = 0; i < batchSize; i++) {
+                if (input_depIds[i] != HStoreConstants.NULL_DEPENDENCY_ID ||
+                    this.queryCache.isCacheable(fragmentIds[i]) == false) continue;
+                this.queryCache.addGlobalQueryResult((int)fragmentIds[i], this.partitionId, parameterSets[i], result.dependencies[i]);
+            } // FOR
+        }
+        
         // *********************************** DEBUG ***********************************
         if (d) {
             if (result != null) {
@@ -2209,12 +2490,13 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
         if (this.database.getName().equalsIgnoreCase(databaseName) == false) {
             throw new VoltAbortException("database '" + databaseName + "' does not exist in cluster " + clusterName);
         }
-        Table table = this.database.getTables().getIgnoreCase(tableName);
+        Table table = hstore_site.getRuntimeCatalog().getTable(tableName);
         if (table == null) {
             throw new VoltAbortException("table '" + tableName + "' does not exist in database " + clusterName + "." + databaseName);
         }
 
         ts.setSubmittedEE(this.partitionId);
+        if (hstore_conf.site.exec_query_cache) this.queryCache.invalidateTable(table.getRelativeIndex());
         ee.loadTable(table.getRelativeIndex(), data,
                      ts.getTransactionId(),
                      lastCommittedTxnId,
@@ -2554,12 +2836,13 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
         if (hstore_conf.site.exec_validate_work && ts.isSysProc() == false) {
             LOG.warn(String.format("%s - Checking whether all of the WorkFragments are valid", ts));
             boolean has_remote = false; 
+            RuntimeCatalog runtime_catalog = hstore_site.getRuntimeCatalog();
             for (WorkFragment frag : fragments) {
                 if (frag.getPartitionId() != this.partitionId) {
                     has_remote = true;
                 }
                 for (int frag_id : frag.getFragmentIdList()) {
-                    PlanFragment catalog_frag = CatalogUtil.getPlanFragment(database, frag_id);
+                    PlanFragment catalog_frag = runtime_catalog.getPlanFragment(frag_id);
                     Statement catalog_stmt = catalog_frag.getParent();
                     assert(catalog_stmt != null);
                     Procedure catalog_proc = catalog_stmt.getParent();
@@ -2966,6 +3249,14 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
                 // us will need to know what partitions that the transaction touched when it executed before
                 this.hstore_site.transactionRequeue(ts, status);
             }
+            // If we're executing a batch of single-partition txns, then we'll
+            // send back this result with everyone else at the end of the batch
+            else if (this.batchMode) {
+                if (t) LOG.trace(String.format("%s - Holding ClientResponse until the end of the batch [status=%s]",
+                                               ts, cresponse.getStatus()));
+                this.batchTxns.add(ts);
+                this.batchResponses.add(cresponse);
+            }
             // Use the separate post-processor thread to send back the result
             else if (hstore_conf.site.exec_postprocessing_thread) {
                 if (t) LOG.trace(String.format("%s - Sending ClientResponse to post-processing thread [status=%s]",
@@ -3061,7 +3352,15 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
                 if (commit) {
                     if (d) LOG.debug(String.format("%s - Committing on partition=%d [lastTxnId=%d, undoToken=%d, submittedEE=%s]",
                                                    ts, this.partitionId, this.lastCommittedTxnId, undoToken, ts.hasSubmittedEE(this.partitionId)));
-                    this.ee.releaseUndoToken(undoToken);
+                    // If we're in the middle of a batch of single-partition txns, then we can wait
+                    // until the end of the batch to release everybody's undo buffers at once. 
+                    // This is safe because the EE only ever rolls back undo buffers that are
+                    // newer than the token that it is told to undo
+                    if (this.batchMode) {
+                        this.batchReleaseToken = Math.max(this.batchReleaseToken, undoToken);
+                    } else {
+                        this.ee.releaseUndoToken(undoToken);
+                    }
     
                 // Evan says that txns will be aborted LIFO. This means the first txn that
                 // we get in abortWork() will have a the greatest undoToken, which means that 
@@ -3072,6 +3371,10 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
                     if (d) LOG.debug(String.format("%s - Aborting on partition=%d [lastTxnId=%d, undoToken=%d, submittedEE=%s]",
                                                    ts, this.partitionId, this.lastCommittedTxnId, undoToken, ts.hasSubmittedEE(this.partitionId)));
                     this.ee.undoUndoToken(undoToken);
+                    
+                    // Other transactions may have read this txn's changes before it was rolled
+                    // back, so we can't trust anything that was cached since it started
+                    if (hstore_conf.site.exec_query_cache) this.queryCache.invalidateAll();
                 }
                 if (needs_profiling) ((LocalTransaction)ts).profiler.stopPostEE();
             }
@@ -3300,9 +3603,6 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
         
         if (d) LOG.debug(String.format("Shutting down PartitionExecutor for Partition #%d", this.partitionId));
         
-        // Clear the queue
-        this.work_queue.clear();
-        
         // Knock out this ma
         if (this.m_snapshotter != null) this.m_snapshotter.shutdown();
         
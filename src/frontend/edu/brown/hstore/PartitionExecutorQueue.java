@@ -1,10 +1,13 @@
 package edu.brown.hstore;
 
-import java.util.ArrayList;
+import java.util.AbstractQueue;
 import java.util.Collection;
-import java.util.Comparator;
-import java.util.List;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import org.voltdb.messaging.FinishTaskMessage;
 import org.voltdb.messaging.FragmentTaskMessage;
@@ -12,79 +15,432 @@ import org.voltdb.messaging.InitiateTaskMessage;
 import org.voltdb.messaging.TransactionInfoBaseMessage;
 import org.voltdb.messaging.VoltMessage;
 
-public class PartitionExecutorQueue extends PriorityBlockingQueue<VoltMessage> {
-    
-    private static final long serialVersionUID = 1L;
-    private final List<VoltMessage> swap = new ArrayList<VoltMessage>();
-    
+/**
+ * Multi-producer/single-consumer work queue for a PartitionExecutor.
+ * Every message type gets its own lock-free lane and the consumer always polls
+ * the lanes in priority order, so we get the same ordering as the old priority comparator
+ * without having all of the producer threads fight over a single lock:
+ * <OL>
+ *  <LI>Non-transactional messages
+ *  <LI>FinishTaskMessages
+ *  <LI>SysProc FragmentTaskMessages
+ *  <LI>SysProc InitiateTaskMessages
+ *  <LI>FragmentTaskMessages (and any other transactional message)
+ *  <LI>InitiateTaskMessages
+ * </OL>
+ * Messages within the same lane are processed in the order that they arrived.
+ * <B>NOTE:</B> Any method that removes messages (poll, take, drainTo, remove, clear) must only be
+ * called by the PartitionExecutor's thread. Anybody can add messages.
+ * @author pavlo
+ */
+public class PartitionExecutorQueue extends AbstractQueue<VoltMessage> {
+
+    public enum Lane {
+        UTILITY,
+        FINISH,
+        SYSPROC_WORK,
+        SYSPROC_INITIATE,
+        WORK,
+        INITIATE;
+
+        private static final Lane values[] = Lane.values();
+    }
+
+    /**
+     * The consumer will always spin for at least this many attempts before it parks
+     */
+    private static final int MIN_SPINS = 16;
+
+    /**
+     * The consumer will never spin more than this many attempts before it parks
+     */
+    private static final int MAX_SPINS = 4096;
+
+    // ----------------------------------------------------------------------------
+    // LANE
+    // ----------------------------------------------------------------------------
+
+    private static final class Node {
+        volatile Node next;
+        VoltMessage msg;
+        long timestamp;
+
+        Node(VoltMessage msg) {
+            this.msg = msg;
+        }
+    } // CLASS
+
+    /**
+     * An unbounded MPSC linked queue. Producers swing the tail with a single atomic swap
+     * and then link in their node, so offer() never blocks or retries. Only the consumer
+     * ever touches the head.
+     */
+    private static final class LaneQueue {
+        private final AtomicReference<Node> tail;
+        private Node head;
+        private final AtomicInteger size = new AtomicInteger(0);
+
+        // Profiling
+        private final AtomicLong enqueueCount = new AtomicLong(0);
+        private final AtomicLong enqueueTime = new AtomicLong(0);
+        private volatile long dequeueCount = 0;
+        private volatile long dequeueTime = 0;
+
+        LaneQueue() {
+            Node stub = new Node(null);
+            this.head = stub;
+            this.tail = new AtomicReference<Node>(stub);
+        }
+
+        void offer(Node node) {
+            Node prev = this.tail.getAndSet(node);
+            prev.next = node;
+            this.size.incrementAndGet();
+        }
+
+        /**
+         * Returns the next live node without removing it
+         */
+        Node first() {
+            Node next = this.head.next;
+            while (next != null && next.msg == null) {
+                next = next.next;
+            } // WHILE
+            return (next);
+        }
+
+        Node poll() {
+            Node next = this.head.next;
+            while (next != null) {
+                this.head = next;
+                if (next.msg != null) {
+                    this.size.decrementAndGet();
+                    return (next);
+                }
+                // Skip over anything that was removed
+                next = next.next;
+            } // WHILE
+            return (null);
+        }
+
+        boolean remove(Object o) {
+            for (Node n = this.head.next; n != null; n = n.next) {
+                if (n.msg != null && n.msg.equals(o)) {
+                    n.msg = null;
+                    this.size.decrementAndGet();
+                    return (true);
+                }
+            } // FOR
+            return (false);
+        }
+    } // CLASS
+
+    // ----------------------------------------------------------------------------
+    // INSTANCE MEMBERS
+    // ----------------------------------------------------------------------------
+
+    private final LaneQueue lanes[];
+
+    /**
+     * The consumer thread that is currently parked waiting for work
+     */
+    private volatile Thread waiter = null;
+
+    /**
+     * How many times the consumer will poll before it parks. This is adjusted
+     * based on whether spinning actually paid off the last time we had to wait.
+     * Only the consumer thread updates this and the counters below, but they are volatile
+     * so that the stats threads always see the latest values.
+     */
+    private volatile int spinLimit = MIN_SPINS;
+
+    private volatile boolean profiling = false;
+    private volatile long spinCount = 0;
+    private volatile long parkCount = 0;
+
     public PartitionExecutorQueue() {
-        super(10000, WORK_COMPARATOR); // FIXME
+        this.lanes = new LaneQueue[Lane.values.length];
+        for (int i = 0; i < this.lanes.length; i++) {
+            this.lanes[i] = new LaneQueue();
+        } // FOR
+    }
+
+    /**
+     * Enable tracking how long it takes to add messages and how long they wait in each lane
+     * @param profiling
+     */
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+
+    /**
+     * Returns the lane that the given message will be placed in
+     * @param msg
+     */
+    public static Lane getLane(VoltMessage msg) {
+        if ((msg instanceof TransactionInfoBaseMessage) == false) {
+            return (Lane.UTILITY);
+        } else if (msg instanceof FinishTaskMessage) {
+            return (Lane.FINISH);
+        }
+        boolean sysproc = ((TransactionInfoBaseMessage)msg).isSysProc();
+        if (msg instanceof InitiateTaskMessage) {
+            return (sysproc ? Lane.SYSPROC_INITIATE : Lane.INITIATE);
+        }
+        return (sysproc && msg instanceof FragmentTaskMessage ? Lane.SYSPROC_WORK : Lane.WORK);
     }
-    
+
+    // ----------------------------------------------------------------------------
+    // PRODUCER METHODS
+    // ----------------------------------------------------------------------------
+
     @Override
+    public boolean offer(VoltMessage msg) {
+        assert(msg != null);
+        LaneQueue lane = this.lanes[getLane(msg).ordinal()];
+        Node node = new Node(msg);
+        if (this.profiling) {
+            long start = System.nanoTime();
+            node.timestamp = start;
+            lane.offer(node);
+            lane.enqueueTime.addAndGet(System.nanoTime() - start);
+            lane.enqueueCount.incrementAndGet();
+        } else {
+            lane.offer(node);
+        }
+
+        // Wake up the consumer if it went to sleep
+        Thread t = this.waiter;
+        if (t != null) LockSupport.unpark(t);
+        return (true);
+    }
+
+    // ----------------------------------------------------------------------------
+    // CONSUMER METHODS
+    // ----------------------------------------------------------------------------
+
+    private VoltMessage dequeue(LaneQueue lane, Node node) {
+        VoltMessage msg = node.msg;
+        node.msg = null;
+        if (this.profiling && node.timestamp > 0) {
+            lane.dequeueTime += (System.nanoTime() - node.timestamp);
+            lane.dequeueCount++;
+        }
+        return (msg);
+    }
+
+    @Override
+    public VoltMessage poll() {
+        for (LaneQueue lane : this.lanes) {
+            Node node = lane.poll();
+            if (node != null) return (this.dequeue(lane, node));
+        } // FOR
+        return (null);
+    }
+
+    /**
+     * Retrieve and remove the next message, waiting if necessary until one becomes available.
+     * We will first spin for a bit before we park the thread. If the last wait ended while we
+     * were still spinning, then we are willing to spin a bit longer next time. If we had to
+     * park, then we will give up on spinning sooner.
+     * @return
+     * @throws InterruptedException
+     */
+    public VoltMessage take() throws InterruptedException {
+        VoltMessage msg = this.poll();
+        if (msg != null) return (msg);
+
+        // Read the volatile spinLimit once so that we don't pay for it on every spin 
+        final int limit = this.spinLimit;
+        int spins = 0;
+        while (spins < limit) {
+            if ((msg = this.poll()) != null) {
+                this.spinLimit = Math.min(MAX_SPINS, limit << 1);
+                this.spinCount++;
+                return (msg);
+            }
+            if (++spins > (limit >> 1)) Thread.yield();
+        } // WHILE
+        this.spinLimit = Math.max(MIN_SPINS, limit >> 1);
+
+        this.parkCount++;
+        Thread self = Thread.currentThread();
+        try {
+            while (true) {
+                // We have to publish ourselves before we check the lanes one more time,
+                // otherwise we could miss a wake-up from a producer
+                this.waiter = self;
+                if ((msg = this.poll()) != null) break;
+                LockSupport.park(this);
+                if (Thread.interrupted()) throw new InterruptedException();
+            } // WHILE
+        } finally {
+            this.waiter = null;
+        }
+        return (msg);
+    }
+
+    /**
+     * Move all of the InitiateTaskMessages into the given collection.
+     * Everything else stays in the queue.
+     */
     public int drainTo(Collection<? super VoltMessage> c) {
         assert(c != null);
-        VoltMessage msg = null;
         int ctr = 0;
-        this.swap.clear();
-        while ((msg = this.poll()) != null) {
-            // All new transaction requests must be put in the new collection
-            if (msg instanceof InitiateTaskMessage) {
-                c.add(msg);
+        for (Lane l : new Lane[]{ Lane.SYSPROC_INITIATE, Lane.INITIATE }) {
+            LaneQueue lane = this.lanes[l.ordinal()];
+            Node node = null;
+            while ((node = lane.poll()) != null) {
+                c.add(this.dequeue(lane, node));
                 ctr++;
-            // Everything else will get added back in afterwards 
-            } else {
-                this.swap.add(msg);
+            } // WHILE
+        } // FOR
+        return (ctr);
+    }
+
+    @Override
+    public VoltMessage peek() {
+        for (LaneQueue lane : this.lanes) {
+            Node node = lane.first();
+            if (node != null) {
+                VoltMessage msg = node.msg;
+                if (msg != null) return (msg);
             }
+        } // FOR
+        return (null);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if ((o instanceof VoltMessage) == false) return (false);
+        return (this.lanes[getLane((VoltMessage)o).ordinal()].remove(o));
+    }
+
+    @Override
+    public void clear() {
+        while (this.poll() != null) {
+            // Nothing
         } // WHILE
-        if (this.swap.isEmpty() == false) this.addAll(this.swap);
-        return (ctr);
     }
-    
-    private static final Comparator<VoltMessage> WORK_COMPARATOR = new Comparator<VoltMessage>() {
-        @Override
-        public int compare(VoltMessage msg0, VoltMessage msg1) {
-            assert(msg0 != null);
-            assert(msg1 != null);
-
-            // Non-Transactional Messages go first
-            boolean isTxn0 = (msg0 instanceof TransactionInfoBaseMessage);
-            boolean isTxn1 = (msg1 instanceof TransactionInfoBaseMessage);
-            if (!isTxn0 && isTxn1) return (-1);
-            else if (isTxn0 && isTxn1) return (1);
-
-            Class<? extends VoltMessage> class0 = msg0.getClass();
-            Class<? extends VoltMessage> class1 = msg1.getClass();
-            
-            // (3) Otherwise, always let the FinishTaskMessage go first
-            boolean isFinish0 = class0.equals(FinishTaskMessage.class);
-            boolean isFinish1 = class1.equals(FinishTaskMessage.class);
-            if (isFinish0 && !isFinish1) return (-1);
-            else if (!isFinish0 && isFinish1) return (1);
-            
-            TransactionInfoBaseMessage txn0 = (TransactionInfoBaseMessage)msg0;
-            TransactionInfoBaseMessage txn1 = (TransactionInfoBaseMessage)msg1;
-            
-            // (1) SysProcs always go first
-            if (txn0.isSysProc() != txn1.isSysProc()) {
-                if (txn0.isSysProc()) return (-1);
-                else return (1);
+
+    // ----------------------------------------------------------------------------
+    // UTILITY METHODS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (LaneQueue lane : this.lanes) {
+            size += lane.size.get();
+        } // FOR
+        return (size);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (LaneQueue lane : this.lanes) {
+            if (lane.size.get() > 0) return (false);
+        } // FOR
+        return (true);
+    }
+
+    /**
+     * Weakly consistent iterator over all of the messages in priority order.
+     * It does not support removing messages.
+     */
+    @Override
+    public Iterator<VoltMessage> iterator() {
+        return new Iterator<VoltMessage>() {
+            int laneIdx = 0;
+            Node node = lanes[0].head;
+            VoltMessage next = this.advance();
+
+            private VoltMessage advance() {
+                while (this.laneIdx < lanes.length) {
+                    this.node = (this.node != null ? this.node.next : null);
+                    while (this.node != null) {
+                        VoltMessage msg = this.node.msg;
+                        if (msg != null) return (msg);
+                        this.node = this.node.next;
+                    } // WHILE
+                    if (++this.laneIdx < lanes.length) this.node = lanes[this.laneIdx].head;
+                } // WHILE
+                return (null);
             }
-            
-            // (2) If they're the same message type, go by their txnIds
-            if (class0.equals(class1)) return (txn0.getTxnId().compareTo(txn1.getTxnId()));
-            
-            // (4) Then let a FragmentTaskMessage go before anything else
-            boolean isWork0 = class0.equals(FragmentTaskMessage.class);
-            boolean isWork1 = class1.equals(FragmentTaskMessage.class);
-            if (isWork0 && !isWork1) return (-1);
-            else if (!isWork0 && isWork1) return (1);
-            
-            // (5) They must be the same!
-            assert(false) : String.format("%s <-> %s", class0, class1);
-            return 0;
-        }
-    };
+            @Override
+            public boolean hasNext() {
+                return (this.next != null);
+            }
+            @Override
+            public VoltMessage next() {
+                if (this.next == null) throw new NoSuchElementException();
+                VoltMessage ret = this.next;
+                this.next = this.advance();
+                return (ret);
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    // ----------------------------------------------------------------------------
+    // STATISTICS
+    // ----------------------------------------------------------------------------
 
+    public int size(Lane lane) {
+        return (this.lanes[lane.ordinal()].size.get());
+    }
+
+    /**
+     * Total number of messages added to the lane. Only tracked when profiling is enabled.
+     */
+    public long getEnqueueCount(Lane lane) {
+        return (this.lanes[lane.ordinal()].enqueueCount.get());
+    }
 
+    /**
+     * Average time (in nanoseconds) that it took a producer to add a message to the lane
+     */
+    public double getAverageEnqueueLatency(Lane lane) {
+        LaneQueue q = this.lanes[lane.ordinal()];
+        long cnt = q.enqueueCount.get();
+        return (cnt > 0 ? q.enqueueTime.get() / (double)cnt : 0d);
+    }
+
+    /**
+     * Total number of messages that the consumer has removed from the lane
+     */
+    public long getDequeueCount(Lane lane) {
+        return (this.lanes[lane.ordinal()].dequeueCount);
+    }
+
+    /**
+     * Average time (in nanoseconds) that a message waited in the lane before
+     * the consumer removed it.
+     */
+    public double getAverageDequeueLatency(Lane lane) {
+        LaneQueue q = this.lanes[lane.ordinal()];
+        long cnt = q.dequeueCount;
+        return (cnt > 0 ? q.dequeueTime / (double)cnt : 0d);
+    }
+
+    /**
+     * Number of times that the consumer got a message while it was spinning
+     */
+    public long getSpinCount() {
+        return (this.spinCount);
+    }
+
+    /**
+     * Number of times that the consumer had to park because no message arrived while it was spinning
+     */
+    public long getParkCount() {
+        return (this.parkCount);
+    }
+
+    public int getSpinLimit() {
+        return (this.spinLimit);
+    }
 }
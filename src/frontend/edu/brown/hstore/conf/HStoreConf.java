@@ -115,9 +115,12 @@ public final class HStoreConf {
         public boolean preload;
 
         @ConfigProperty(
-            description="When enabled, the PartitionExecutor threads will be pinned to the first n CPU cores (where " +
-                        "n is the total number of partitions hosted by the local HStoreSite). All other threads " +
-                        "(e.g., for network handling) will be pinned to the remaining CPU cores. If there are fewer " +
+            description="When enabled, the PartitionExecutor threads will be pinned to n CPU cores (where " +
+                        "n is the total number of partitions hosted by the local HStoreSite). The cores are chosen " +
+                        "from the machine's CPU topology so that the partitions are spread across sockets and " +
+                        "physical cores before hyperthreads are used. If there are enough cores left over, the " +
+                        "network threads and the WAL threads for each NUMA node will get their own core. All other " +
+                        "threads will be pinned to the remaining CPU cores. If there are fewer " +
                         "CPU cores than partitions, then this option will be disabled. ",
             defaultBoolean=true,
             experimental=false
@@ -278,6 +281,35 @@ public final class HStoreConf {
         )
         public boolean exec_queued_response_ee_bypass;
         
+        @ConfigProperty(
+            description="If this enabled, then when a PartitionExecutor starts a single-partition transaction it will " +
+                        "keep pulling single-partition transactions off of its queue and execute them back-to-back. " +
+                        "The EE is only told to release the undo buffers for the committed transactions once at the " +
+                        "end of the batch, and all of the batch's ClientResponses are handed to the command log " +
+                        "and sent back to the clients together.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean exec_batch_singlepartition;
+        
+        @ConfigProperty(
+            description="The max number of single-partition transactions that a PartitionExecutor will execute " +
+                        "in a single batch. The ${site.exec_batch_singlepartition} parameter must be set to true.",
+            defaultInt=32,
+            experimental=true
+        )
+        public int exec_batch_singlepartition_size;
+
+        @ConfigProperty(
+            description="The number of 10MB direct buffers that each PartitionExecutor's ExecutionEngine can " +
+                        "write query results into (0 = disabled). The VoltTables returned to the transaction " +
+                        "are views over these buffers instead of copies, and the buffers are reused once the " +
+                        "transaction is deleted. If all of the buffers are in use, then the results are copied.",
+            defaultInt=0,
+            experimental=true
+        )
+        public int exec_ee_result_arena_size;
+        
         @ConfigProperty(
             description="The maximum amount of time that the PartitionExecutor will wait for the results of a distributed  " +
                         "query to return to the transaction's base partition. Usually if this limit is reached, then there " +
@@ -322,7 +354,94 @@ public final class HStoreConf {
             experimental=true
         )
         public int exec_command_logging_group_commit_timeout;
-        
+
+        @ConfigProperty(
+            description="If enabled, then each block of entries in a group commit batch is compressed " +
+                        "with Snappy before it is written to the command log. Disabling this trades disk " +
+                        "bandwidth for less CPU work on the commit path.",
+            defaultBoolean=true,
+            experimental=true
+        )
+        public boolean exec_command_logging_compression;
+
+        @ConfigProperty(
+            description="The target commit latency in milliseconds for the command log (0 = disabled). If this is " +
+                        "greater than zero, then each command log stream will size its group commit batches based on " +
+                        "the observed arrival rate of transactions and the measured fsync time of the disk, instead of " +
+                        "waiting for exactly ${site.exec_command_logging_group_commit} transactions. In that case the " +
+                        "group commit size is only used as an upper bound. If no streams are configured with " +
+                        "${site.exec_command_logging_partitions_per_stream}, then all of the partitions share one stream.",
+            defaultInt=0,
+            experimental=true
+        )
+        public int exec_command_logging_latency_target;
+
+        @ConfigProperty(
+            description="The number of local partitions that share a single command log stream. Each stream " +
+                        "has its own log file and its own writer thread, so that fsyncs for different " +
+                        "partitions can overlap. If this is set to zero, then all of the partitions at the " +
+                        "HStoreSite will write to a single log file.",
+            defaultInt=0,
+            experimental=true
+        )
+        public int exec_command_logging_partitions_per_stream;
+
+        @ConfigProperty(
+            description="The maximum size of a command log stream segment file (in MB). When a segment " +
+                        "grows beyond this size, the stream will rotate to a new file (0 = no size limit). " +
+                        "Only used when ${site.exec_command_logging_partitions_per_stream} is greater than zero.",
+            defaultInt=256,
+            experimental=true
+        )
+        public int exec_command_logging_segment_size;
+
+        @ConfigProperty(
+            description="The maximum amount of time in milliseconds that a command log stream will write " +
+                        "to the same segment file before rotating to a new file (0 = no time limit). " +
+                        "Only used when ${site.exec_command_logging_partitions_per_stream} is greater than zero.",
+            defaultInt=0,
+            experimental=true
+        )
+        public int exec_command_logging_segment_time;
+
+        @ConfigProperty(
+            description="If enabled, then the HStoreSite will recover from a crash when it starts up. The command " +
+                        "logs from the previous run are moved to a 'recovery' directory under " +
+                        "${site.exec_command_logging_directory}. The HStoreSite with the lowest site id will then " +
+                        "load the latest snapshot, and then every HStoreSite will replay all of the transactions from " +
+                        "its own log that were executed after that snapshot was taken. An HStoreSite will not " +
+                        "accept any new transactions from clients until it has finished replaying its log.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean exec_command_logging_recovery;
+
+        @ConfigProperty(
+            description="The directory where the latest snapshot to load during recovery is stored. " +
+                        "If this is empty, then the entire command log will be replayed on an empty database.",
+            defaultString="",
+            experimental=true
+        )
+        public String exec_command_logging_recovery_snapshot_dir;
+
+        @ConfigProperty(
+            description="The maximum number of megabytes per second that each PartitionExecutor will serialize " +
+                        "for an online copy-on-write snapshot (0 = unlimited). The PartitionExecutor only " +
+                        "serializes snapshot data when it is idle in between transactions.",
+            defaultInt=0,
+            experimental=true
+        )
+        public int snapshot_rate_limit;
+
+        @ConfigProperty(
+            description="The number of threads that @SnapshotRestore will use to validate the checksums " +
+                        "of the chunks read from a snapshot and to split them up by partition. The sites " +
+                        "load the rows for one chunk while these threads decode the next ones.",
+            defaultInt=4,
+            experimental=true
+        )
+        public int snapshot_restore_threads;
+
         @ConfigProperty(
             description="If enabled, then the CommandLogWriter will keep track of various internal " +
             		    "profile statistics.",
@@ -341,6 +460,16 @@ public final class HStoreConf {
         )
         public boolean exec_adhoc_sql;
         
+        @ConfigProperty(
+            description="The maximum number of @AdHoc query plans that each HStoreSite will cache. " +
+                        "The literal values in an ad hoc query are replaced with parameters so that " +
+                        "queries that only differ in their literals will use the same plan. " +
+                        "Set this to zero to disable the cache.",
+            defaultInt=100,
+            experimental=false
+        )
+        public int exec_adhoc_sql_plan_cache;
+        
         @ConfigProperty(
             description="If this parameter is enabled, then the DBMS will attempt to prefetch commutative " +
             		    "queries on remote partitions for distributed transactions.",
@@ -362,6 +491,36 @@ public final class HStoreConf {
             experimental=true
         )
         public boolean exec_deferrable_queries;
+
+        @ConfigProperty(
+            description="If this parameter is enabled, then each PartitionExecutor will cache the results of " +
+                        "read-only PlanFragments that do not have any input dependencies, so that other " +
+                        "transactions that execute the same fragment with the same parameters can skip the " +
+                        "ExecutionEngine. A cached result is invalidated as soon as any fragment modifies " +
+                        "one of the tables that it reads.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean exec_query_cache;
+
+        @ConfigProperty(
+            description="The maximum amount of memory (in MB) that each PartitionExecutor will use to cache " +
+                        "query results when ${site.exec_query_cache} is enabled. The least recently used " +
+                        "results are evicted first.",
+            defaultInt=16,
+            experimental=true
+        )
+        public int exec_query_cache_max_size;
+        
+        @ConfigProperty(
+            description="The number of prefetched query results that each PartitionExecutor will keep for the " +
+                        "distributed transactions that it is executing when ${site.exec_prefetch_queries} is enabled. " +
+                        "These entries are reused in a round-robin fashion, so if a result is overwritten before " +
+                        "the transaction asks for it, then the query will just be executed again.",
+            defaultInt=10,
+            experimental=true
+        )
+        public int exec_query_cache_txn_size;
         
         // ----------------------------------------------------------------------------
         // MapReduce Options
@@ -811,6 +970,15 @@ public final class HStoreConf {
         )
         public boolean pool_profiling;
         
+        @ConfigProperty(
+            description="The number of idle objects that each thread will cache locally for an object pool. " +
+                        "When a thread's cache is full or empty, it will exchange the whole batch of objects " +
+                        "with the pool's shared depot.",
+            defaultInt=32,
+            experimental=true
+        )
+        public int pool_threadlocal_size;
+        
         @ConfigProperty(
             description="The max number of LocalTransactionStates to keep in the pool",
             defaultInt=5000,
@@ -1100,6 +1268,19 @@ public final class HStoreConf {
         )
         public int throttle_backoff;
         
+        @ConfigProperty(
+            description="The number of selector threads that the client's network layer will use. " +
+                        "If this is greater than one, then each connection to an HStoreSite is assigned " +
+                        "to the least loaded selector and its reads are handled inline on that " +
+                        "selector's thread instead of being handed off to a pool of network threads. " +
+                        "Note that this only affects the client side. The HStoreSite accepts client " +
+                        "connections through its VoltProcedureListener, which does not use VoltNetwork, " +
+                        "so the site's intake path is still handled by a single event loop.",
+            defaultInt=1,
+            experimental=true
+        )
+        public int network_selector_threads;
+        
         @ConfigProperty(
             description="If this enabled, then each DBMS will dump their entire database contents into " +
                         "CSV files after executing a benchmark run.",
@@ -1144,7 +1325,26 @@ public final class HStoreConf {
             experimental=false
         )
         public boolean txn_hints;
-        
+
+        @ConfigProperty(
+            description="If ${client.txn_hints} is enabled but the client was not given a catalog, then the client " +
+                        "will invoke @GetCatalog when it makes its first connection and use the catalog's " +
+                        "partitioning information to send requests directly to the HStoreSite that has the " +
+                        "transaction's base partition.",
+            defaultBoolean=false,
+            experimental=false
+        )
+        public boolean txn_hints_fetch_catalog;
+
+        @ConfigProperty(
+            description="How long in milliseconds the client will wait for the response to @GetCatalog when " +
+                        "${client.txn_hints_fetch_catalog} is enabled. If the cluster does not send back the " +
+                        "catalog in time, then the client will send requests without any routing information.",
+            defaultInt=10000,
+            experimental=false
+        )
+        public int txn_hints_fetch_catalog_timeout;
+
         @ConfigProperty(
             description="If a node is executing multiple client processes, then the node may become overloaded if " +
                         "all the clients are started at the same time. This parameter defines the threshold for when " +
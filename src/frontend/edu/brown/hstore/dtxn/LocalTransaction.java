@@ -147,6 +147,13 @@ public class LocalTransaction extends AbstractTransaction {
     private Collection<Integer> predict_touchedPartitions;
     
     private boolean part_of_mapreduce = false;
+    
+    /**
+     * If true, then this txn is being replayed from the command log during recovery.
+     * These txns are not allowed to be throttled by the PartitionExecutors because
+     * that would let them execute out of order.
+     */
+    private boolean replayed = false;
   
     /**
      * TransctionEstimator State Handle
@@ -360,6 +367,7 @@ public class LocalTransaction extends AbstractTransaction {
         
         this.executed = false;
         this.exec_speculative = false;
+        this.replayed = false;
         this.exec_touchedPartitions.clear();
         this.predict_touchedPartitions = null;
         this.done_partitions.clear();
@@ -788,6 +796,12 @@ public class LocalTransaction extends AbstractTransaction {
     public void setPartOfMapreduce(boolean part_of_mapreduce) {
         this.part_of_mapreduce = part_of_mapreduce;
     }
+    public boolean isReplayed() {
+        return (this.replayed);
+    }
+    public void markAsReplayed() {
+        this.replayed = true;
+    }
     public String getProcedureName() {
         return (this.catalog_proc != null ? this.catalog_proc.getName() : null);
     }
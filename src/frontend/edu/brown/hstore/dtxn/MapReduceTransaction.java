@@ -1,7 +1,9 @@
 package edu.brown.hstore.dtxn;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.voltdb.StoredProcedureInvocation;
@@ -9,6 +11,9 @@ import org.voltdb.VoltTable;
 import org.voltdb.VoltTableRow;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Table;
+import org.voltdb.types.SortDirectionType;
+import org.voltdb.utils.Pair;
+import org.voltdb.utils.VoltTableUtil;
 
 import com.google.protobuf.RpcCallback;
 
@@ -46,6 +51,12 @@ public class MapReduceTransaction extends LocalTransaction {
     private VoltTable mapOutput[];
     private VoltTable reduceInput[];
     private VoltTable reduceOutput[];
+    
+    /**
+     * The sorted runs of MapOutput data that we have received for each partition
+     * that have not been merged into the ReduceInput table yet
+     */
+    private final List<VoltTable> reduceInputRuns[];
 
     public enum State {
         MAP,
@@ -113,6 +124,7 @@ public class MapReduceTransaction extends LocalTransaction {
         this.mapOutput = new VoltTable[this.partitions_size];
         this.reduceInput = new VoltTable[this.partitions_size];
         this.reduceOutput = new VoltTable[this.partitions_size];
+        this.reduceInputRuns = this.createRunLists(this.partitions_size);
                 
         this.map_callback = new TransactionMapCallback(hstore_site);
         this.mapWrapper_callback = new TransactionMapWrapperCallback(hstore_site);
@@ -159,6 +171,7 @@ public class MapReduceTransaction extends LocalTransaction {
             assert(this.reduceEmit != null): "reduceEmit has not been initialized\n ";
             this.mapOutput[offset] = CatalogUtil.getVoltTable(this.mapEmit);
             this.reduceInput[offset] = CatalogUtil.getVoltTable(this.mapEmit);
+            this.reduceInputRuns[offset].clear();
             this.reduceOutput[offset] = CatalogUtil.getVoltTable(this.reduceEmit);
             
         } // FOR
@@ -216,30 +229,41 @@ public class MapReduceTransaction extends LocalTransaction {
         this.reduceEmit = null;
         this.mapOutput = null;
         this.reduceInput = null;
+        for (List<VoltTable> runs : this.reduceInputRuns) {
+            runs.clear();
+        } // FOR
         this.reduceOutput = null;
     }
+    
+    @SuppressWarnings("unchecked")
+    private List<VoltTable>[] createRunLists(int size) {
+        List<VoltTable> runs[] = (List<VoltTable>[])new List<?>[size];
+        for (int i = 0; i < size; i++) {
+            runs[i] = new ArrayList<VoltTable>();
+        } // FOR
+        return (runs);
+    }
     /**
      * Store Data from MapOutput table into reduceInput table
      * ReduceInput table is the result of all incoming mapOutput table from other partitions
+     * We only keep a handle to each incoming table here and then combine all of them
+     * together the first time that somebody asks for the ReduceInput table.
      * @see edu.brown.hstore.dtxn.AbstractTransaction#storeData(int, org.voltdb.VoltTable)
      */
     @Override
     public synchronized Hstoreservice.Status storeData(int partition, VoltTable vt) {
-        VoltTable input = this.getReduceInputByPartition(partition);
-        
-        assert(input != null);
+        List<VoltTable> runs = this.reduceInputRuns[hstore_site.getLocalPartitionOffset(partition)];
+        assert(runs != null);
         if (debug.get())
             LOG.debug(String.format("StoreData into Partition #%d: RowCount=%d ",
                     partition, vt.getRowCount()));
         
         if (debug.get())
             LOG.debug(String.format("<StoreData, change to ReduceInputTable> to Partition:%d>\n %s",partition,vt));
-        while (vt.advanceRow()) {
-            VoltTableRow row = vt.fetchRow(vt.getActiveRowIndex());
-            assert(row != null);
-            input.add(row);
+        if (vt.getRowCount() > 0) {
+            vt.resetRowPosition();
+            runs.add(vt);
         }
-        vt.resetRowPosition();
         
         return Hstoreservice.Status.OK;
     }
@@ -439,9 +463,44 @@ public class MapReduceTransaction extends LocalTransaction {
         return this.mapOutput[hstore_site.getLocalPartitionOffset(partition)];
     }
     
-    public VoltTable getReduceInputByPartition ( int partition ) {
+    public void setMapOutputByPartition( int partition, VoltTable vt ) {
+        this.mapOutput[hstore_site.getLocalPartitionOffset(partition)] = vt;
+    }
+    
+    /**
+     * Returns the ReduceInput table for the given partition.
+     * Any tables that were stored since the last time this was called are added in first.
+     * If sorted is true, then the incoming tables were each sorted on their key column
+     * (i.e., the procedure has a combiner), so we will merge them together and the
+     * ReduceInput table will be sorted too. Otherwise they are just appended.
+     * @param partition
+     * @param sorted
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized VoltTable getReduceInputByPartition ( int partition, boolean sorted ) {
         if (debug.get()) LOG.debug("Trying to getReduceInputByPartition: [ " + partition + " ]");
-        return this.reduceInput[hstore_site.getLocalPartitionOffset(partition)];
+        int offset = hstore_site.getLocalPartitionOffset(partition);
+        List<VoltTable> runs = this.reduceInputRuns[offset];
+        if (runs.isEmpty() == false) {
+            if (sorted) {
+                if (this.reduceInput[offset].getRowCount() > 0) runs.add(0, this.reduceInput[offset]);
+                if (debug.get()) LOG.debug(String.format("Merging %d sorted runs into ReduceInput for Partition #%d", runs.size(), partition));
+                this.reduceInput[offset] = VoltTableUtil.merge(runs, Pair.of(0, SortDirectionType.ASC));
+            } else {
+                VoltTable input = this.reduceInput[offset];
+                for (VoltTable vt : runs) {
+                    while (vt.advanceRow()) {
+                        VoltTableRow row = vt.fetchRow(vt.getActiveRowIndex());
+                        assert(row != null);
+                        input.add(row);
+                    } // WHILE
+                    vt.resetRowPosition();
+                } // FOR
+            }
+            runs.clear();
+        }
+        return this.reduceInput[offset];
         //return this.reduceInput[partition];
     }
     
@@ -235,6 +235,14 @@ public class TransactionInitPriorityQueue extends ThrottlingQueue<Long> {
         return m_state;
     }
 
+    /**
+     * Returns the time (in ms) when the next txn in this queue can be released.
+     * If the queue is not waiting for the next txn's safety delay, then this returns -1
+     */
+    public synchronized long getNextReleaseTime() {
+        return (m_state == QueueState.BLOCKED_SAFETY ? m_blockTime : -1);
+    }
+
     private QueueState checkQueueState() {
         QueueState newState = QueueState.UNBLOCKED;
         Long ts = super.peek();
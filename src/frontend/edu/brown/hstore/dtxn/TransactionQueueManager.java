@@ -4,10 +4,12 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.apache.commons.collections15.map.ListOrderedMap;
 import org.apache.log4j.Logger;
@@ -26,6 +28,8 @@ import edu.brown.hstore.interfaces.Shutdownable;
 import edu.brown.hstore.util.TxnCounter;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.protorpc.AbstractEventHandler;
+import edu.brown.protorpc.TimerWheel;
 import edu.brown.statistics.Histogram;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.StringUtil;
@@ -48,7 +52,7 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
     
     private final int localPartitionsArray[];
     
-    private boolean stop = false;
+    private volatile boolean stop = false;
     
     private final Semaphore checkFlag = new Semaphore(1);
     
@@ -74,14 +78,48 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
     
     /**
      * Indicates which partitions are currently executing a distributed transaction
+     * (1 = blocked). This is read and written by both the queue manager's thread and
+     * the threads that finish txns.
      */
-    private final boolean[] lockQueuesBlocked;
+    private final AtomicIntegerArray lockQueuesBlocked;
     
     /**
      * Maps txn IDs to their TransactionInitQueueCallbacks
      */
     private final Map<Long, TransactionInitQueueCallback> lockQueuesCallbacks = new ConcurrentHashMap<Long, TransactionInitQueueCallback>();
     
+    /**
+     * The local partitions whose queues have changed since the last time that
+     * we looked at them. Only these partitions are checked when we wake up.
+     */
+    private final ConcurrentLinkedQueue<Integer> lockQueuesReady = new ConcurrentLinkedQueue<Integer>();
+    
+    /**
+     * Set to one when a partition is in lockQueuesReady so that it only gets added once
+     */
+    private final AtomicIntegerArray lockQueuesReadyFlags;
+    
+    // ----------------------------------------------------------------------------
+    // RELEASE TIMERS
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * When the next txn in a partition's queue has to wait before it can be released,
+     * we schedule a timer for it here instead of polling the queue.
+     * <B>NOTE:</B> This can only be used from the queue manager's thread 
+     */
+    private final TimerWheel releaseTimers;
+    
+    /**
+     * The timer handler for each local partition
+     */
+    private final LockQueueReleaseHandler[] lockQueuesReleaseHandlers;
+    
+    /**
+     * The time of the pending release timer for each partition (-1 if there isn't one) 
+     */
+    private final long[] lockQueuesReleaseTime;
+    
     // ----------------------------------------------------------------------------
     // BLOCKED DISTRIBUTED TRANSACTIONS
     // ----------------------------------------------------------------------------
@@ -113,6 +151,23 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
      */
     private final ConcurrentHashMap<LocalTransaction, Long> blockedQueueTransactions = new ConcurrentHashMap<LocalTransaction, Long>();
     
+    /**
+     * Set to true when the blockedQueue needs to be checked
+     */
+    private volatile boolean blockedQueueDirty = false;
+    
+    /**
+     * Timer handler for when we think the head of the blockedQueue can be released
+     */
+    private final AbstractEventHandler blockedQueueReleaseHandler = new AbstractEventHandler() {
+        @Override
+        public void timerCallback() {
+            blockedQueueReleaseTime = -1;
+            blockedQueueDirty = true;
+        }
+    };
+    private long blockedQueueReleaseTime = -1;
+    
     /**
      * This Histogram keeps track of what sites have blocked the most transactions from us
      */
@@ -152,17 +207,22 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
         Collection<Integer> allPartitions = hstore_site.getAllPartitionIds();
         int num_ids = allPartitions.size();
         this.lockQueues = new TransactionInitPriorityQueue[num_ids];
-        this.lockQueuesBlocked = new boolean[this.lockQueues.length];
+        this.lockQueuesBlocked = new AtomicIntegerArray(this.lockQueues.length);
         this.lockQueuesLastTxn = new Long[this.lockQueues.length];
+        this.lockQueuesReadyFlags = new AtomicIntegerArray(this.lockQueues.length);
+        this.lockQueuesReleaseHandlers = new LockQueueReleaseHandler[this.lockQueues.length];
+        this.lockQueuesReleaseTime = new long[this.lockQueues.length];
         this.localPartitionsArray = CollectionUtil.toIntArray(hstore_site.getLocalPartitionIds());
         this.wait_time = hstore_conf.site.txn_incoming_delay;
+        this.releaseTimers = new TimerWheel(System.currentTimeMillis());
         
         // Allocate transaction queues
         for (int partition : allPartitions) {
             this.lockQueuesLastTxn[partition] = -1l;
+            this.lockQueuesReleaseTime[partition] = -1;
             if (this.hstore_site.isLocalPartition(partition)) {
                 this.lockQueues[partition] = new TransactionInitPriorityQueue(hstore_site, partition, this.wait_time);
-                this.lockQueuesBlocked[partition] = false;
+                this.lockQueuesReleaseHandlers[partition] = new LockQueueReleaseHandler(partition);
                 hstore_site.getStartWorkloadObservable().addObserver(this.lockQueues[partition]);
             }
         } // FOR
@@ -178,12 +238,13 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
     }
     
     /**
-     * Every time this thread gets waken up, it locks the queues, loops through the txn_queues, and looks at the lowest id in each queue.
-     * If any id is lower than the last_txn id for that partition, it gets rejected and sent back to the caller.
+     * This thread only wakes up when something changes. Inserting or releasing a lock
+     * at a partition marks that partition as ready, and then we only look at the queues
+     * of the partitions that are ready. For each of these queues, if the lowest id is lower
+     * than the last_txn id for that partition, it gets rejected and sent back to the caller.
      * Otherwise, the lowest txn_id is popped off and sent to the corresponding partition.
-     * Then the thread unlocks the queues and goes back to sleep.
-     * If all the partitions are now busy, the thread will wake up when one of them is finished.
-     * Otherwise, it will wake up when something else gets added to a queue.
+     * If the lowest txn_id has to wait before it can be released, then we schedule a timer
+     * for that partition instead of polling it. We never scan all of the partitions here.
      */
     @Override
     public void run() {
@@ -196,29 +257,76 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
         if (d) LOG.debug("Starting distributed transaction queue manager thread");
         
         while (this.stop == false) {
-            try {
-                this.checkFlag.tryAcquire(this.wait_time*2, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                // Nothing...
-            }
+            // Fire any release timers that have expired. This will mark
+            // their partitions as ready
+            this.releaseTimers.expire(System.currentTimeMillis());
             
-            if (t) LOG.trace("Checking partition queues for dtxns to release!");
-            while (this.checkLockQueues()) {
-                // Keep checking the queue as long as they have more stuff in there
-                // for us to process
-            }
+            if (t) LOG.trace("Checking ready partition queues for dtxns to release!");
+            this.checkReadyLockQueues();
             
             // Release transactions for initialization to the HStoreCoordinator
             this.checkInitQueue();
             
             // Release blocked distributed transactions
-            this.checkBlockedQueue();
+            if (this.blockedQueueDirty) {
+                this.blockedQueueDirty = false;
+                this.checkBlockedQueue();
+            }
             
             // Requeue mispredicted local transactions
             this.checkRestartQueue();
+            
+            // Sleep until somebody tells us that something has changed or
+            // until our next release timer expires. If there are no timers, then
+            // there is nothing for us to do until somebody signals us
+            long timeout = this.releaseTimers.getTimeout(System.currentTimeMillis());
+            try {
+                if (timeout > 0) {
+                    this.checkFlag.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+                } else {
+                    this.checkFlag.acquire();
+                }
+            } catch (InterruptedException e) {
+                // Nothing...
+            }
         } // WHILE
     }
     
+    /**
+     * Wake up the queue manager's thread
+     */
+    private void signal() {
+        if (this.checkFlag.availablePermits() == 0)
+            this.checkFlag.release();
+    }
+    
+    /**
+     * Mark the given local partition's queue as needing to be checked.
+     * The caller is responsible for calling signal()
+     * @param partition
+     */
+    private void markLockQueueReady(int partition) {
+        if (this.lockQueuesReadyFlags.compareAndSet(partition, 0, 1)) {
+            this.lockQueuesReady.offer(partition);
+        }
+    }
+    
+    /**
+     * Timer callback for when the next txn at a partition is ready to be released
+     */
+    private class LockQueueReleaseHandler extends AbstractEventHandler {
+        private final int partition;
+        
+        public LockQueueReleaseHandler(int partition) {
+            this.partition = partition;
+        }
+        @Override
+        public void timerCallback() {
+            lockQueuesReleaseTime[this.partition] = -1;
+            markLockQueueReady(this.partition);
+        }
+    } // END CLASS
+    
     // ----------------------------------------------------------------------------
     // INIT QUEUES
     // ----------------------------------------------------------------------------
@@ -233,79 +341,127 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
         
         boolean txn_released = false;
         for (int partition : this.localPartitionsArray) {
-            TransactionInitQueueCallback callback = null;
-            Long next_id = null;
-            int counter = -1;
-            
-            if (this.lockQueuesBlocked[partition]) {
-                if (t) LOG.trace(String.format("Partition #%d is already executing a transaction. Skipping...", partition));
-                continue;
-            }
+            txn_released = this.checkLockQueue(partition) || txn_released;
+        } // FOR
+        return (txn_released);
+    }
+    
+    /**
+     * Check the queues of the partitions that have been marked as ready
+     */
+    protected void checkReadyLockQueues() {
+        Integer partition = null;
+        while ((partition = this.lockQueuesReady.poll()) != null) {
+            // Clear the flag first so that anybody that changes this partition
+            // from now on will add it back into the ready queue
+            this.lockQueuesReadyFlags.set(partition, 0);
+            while (this.checkLockQueue(partition)) {
+                // Keep checking the queue as long as it has more stuff in there
+                // for us to process
+            } // WHILE
+        } // WHILE
+    }
+    
+    /**
+     * Check whether there is a transaction that needs to be released for execution
+     * at the given partition. Returns true if we released a transaction or if
+     * the partition's queue changed and should be checked again
+     * @param partition
+     * @return
+     */
+    protected boolean checkLockQueue(int partition) {
+        TransactionInitQueueCallback callback = null;
+        Long next_id = null;
+        int counter = -1;
+        boolean txn_released = false;
+        
+        if (this.lockQueuesBlocked.get(partition) == 1) {
+            if (t) LOG.trace(String.format("Partition #%d is already executing a transaction. Skipping...", partition));
+            return (false);
+        }
 
-            // Poll the queue and get the next value. We need
-            // a lock in case somebody is looking for this txnId to remove
-            synchronized (this.lockQueues[partition]) {
-                next_id = this.lockQueues[partition].poll();    
-            } // SYNCH
-            
-            // If null, then there is nothing that is ready to run at this partition,
-            // so we'll just skip to the next one
-            if (next_id == null) {
-                if (t) LOG.trace(String.format("Partition #%d initQueue does not have a transaction ready to run. Skipping... [queueSize=%d]",
-                                               partition, this.lockQueues[partition].size()));
-                continue;
-            }
-            
-            callback = this.lockQueuesCallbacks.get(next_id);
-            assert(callback != null) : "Unexpected null callback for txn #" + next_id;
-            
-            // If this callback has already been aborted, then there is nothing we need to
-            // do. Somebody else will make sure that this txn is removed from the queue
-            // We will always want to return true to keep trying to get the next transaction
-            if (callback.isAborted()) {
-                if (d) LOG.debug(String.format("The next id for partition #%d is txn #%d but its callback is marked as aborted. [queueSize=%d]",
-                                               partition, next_id, this.lockQueuesLastTxn[partition], lockQueues[partition].size()));
-                this.lockQueues[partition].remove(next_id);
-                txn_released = true;
-                continue;
-            }
-            // We don't need to acquire lock here because we know that our partition isn't doing
-            // anything at this moment. 
-            else if (this.lockQueuesLastTxn[partition].compareTo(next_id) > 0) {
-                if (d) LOG.debug(String.format("The next id for partition #%d is txn #%d but this is less than the previous txn #%d. Rejecting... [queueSize=%d]",
-                                               partition, next_id, this.lockQueuesLastTxn[partition], lockQueues[partition].size()));
-                this.rejectTransaction(next_id, callback, Status.ABORT_RESTART, partition, this.lockQueuesLastTxn[partition]);
-                continue;
-            }
+        // Poll the queue and get the next value. We need
+        // a lock in case somebody is looking for this txnId to remove
+        synchronized (this.lockQueues[partition]) {
+            next_id = this.lockQueues[partition].poll();    
+        } // SYNCH
+        
+        // If null, then there is nothing that is ready to run at this partition.
+        // If the next txn is just waiting for its safety delay, then we'll set a timer
+        // to come back when it can be released
+        if (next_id == null) {
+            if (t) LOG.trace(String.format("Partition #%d initQueue does not have a transaction ready to run. Skipping... [queueSize=%d]",
+                                           partition, this.lockQueues[partition].size()));
+            this.scheduleLockQueueRelease(partition);
+            return (false);
+        }
+        
+        callback = this.lockQueuesCallbacks.get(next_id);
+        assert(callback != null) : "Unexpected null callback for txn #" + next_id;
+        
+        // If this callback has already been aborted, then there is nothing we need to
+        // do. Somebody else will make sure that this txn is removed from the queue
+        // We will always want to return true to keep trying to get the next transaction
+        if (callback.isAborted()) {
+            if (d) LOG.debug(String.format("The next id for partition #%d is txn #%d but its callback is marked as aborted. [queueSize=%d]",
+                                           partition, next_id, this.lockQueuesLastTxn[partition], lockQueues[partition].size()));
+            this.lockQueues[partition].remove(next_id);
+            return (true);
+        }
+        // We don't need to acquire lock here because we know that our partition isn't doing
+        // anything at this moment. 
+        else if (this.lockQueuesLastTxn[partition].compareTo(next_id) > 0) {
+            if (d) LOG.debug(String.format("The next id for partition #%d is txn #%d but this is less than the previous txn #%d. Rejecting... [queueSize=%d]",
+                                           partition, next_id, this.lockQueuesLastTxn[partition], lockQueues[partition].size()));
+            this.rejectTransaction(next_id, callback, Status.ABORT_RESTART, partition, this.lockQueuesLastTxn[partition]);
+            return (true);
+        }
 
-            if (d) LOG.debug(String.format("Good news! Partition #%d is ready to execute txn #%d! Invoking initQueue callback!",
-                                           partition, next_id));
-            this.lockQueuesLastTxn[partition] = next_id;
-            this.lockQueuesBlocked[partition] = true;
+        if (d) LOG.debug(String.format("Good news! Partition #%d is ready to execute txn #%d! Invoking initQueue callback!",
+                                       partition, next_id));
+        this.lockQueuesLastTxn[partition] = next_id;
+        this.lockQueuesBlocked.set(partition, 1);
+        
+        // Send the init request for the specified partition
+        try {
+            callback.run(partition);
+            counter = callback.getCounter();
+        } catch (NullPointerException ex) {
+            // HACK: Ignore...
+            if (d) LOG.warn(String.format("Unexpected error when invoking %s for txn #%d at partition %d",
+                                          callback.getClass().getSimpleName(), next_id, partition), ex);
+        } catch (Throwable ex) {
+            throw new RuntimeException(String.format("Failed to invoke %s for txn #%d at partition %d",
+                                                     callback.getClass().getSimpleName(), next_id, partition), ex);
+        }
+        txn_released = true;
             
-            // Send the init request for the specified partition
-            try {
-                callback.run(partition);
-                counter = callback.getCounter();
-            } catch (NullPointerException ex) {
-                // HACK: Ignore...
-                if (d) LOG.warn(String.format("Unexpected error when invoking %s for txn #%d at partition %d",
-                                              callback.getClass().getSimpleName(), next_id, partition), ex);
-            } catch (Throwable ex) {
-                throw new RuntimeException(String.format("Failed to invoke %s for txn #%d at partition %d",
-                                                         callback.getClass().getSimpleName(), next_id, partition), ex);
-            }
-            txn_released = true;
-                
-            // remove the callback when this partition is the last one to start the job
-            if (counter == 0) {
-                if (d) LOG.debug(String.format("All local partitions needed by txn #%d are ready. Removing callback", next_id));
-                this.cleanupTransaction(next_id);
-            }
-        } // FOR
+        // remove the callback when this partition is the last one to start the job
+        if (counter == 0) {
+            if (d) LOG.debug(String.format("All local partitions needed by txn #%d are ready. Removing callback", next_id));
+            this.cleanupTransaction(next_id);
+        }
         return (txn_released);
     }
     
+    /**
+     * Schedule a release timer for the given partition if the next txn in its
+     * queue is waiting for its safety delay to pass
+     * @param partition
+     */
+    private void scheduleLockQueueRelease(int partition) {
+        long release_time = this.lockQueues[partition].getNextReleaseTime();
+        if (release_time < 0 || this.lockQueuesReleaseTime[partition] == release_time) return;
+        
+        if (this.lockQueuesReleaseTime[partition] >= 0) {
+            this.releaseTimers.cancel(this.lockQueuesReleaseHandlers[partition]);
+        }
+        if (t) LOG.trace(String.format("Scheduling release timer for partition #%d in %d ms",
+                                       partition, release_time - System.currentTimeMillis()));
+        this.lockQueuesReleaseTime[partition] = release_time;
+        this.releaseTimers.schedule(release_time, this.lockQueuesReleaseHandlers[partition]);
+    }
+    
     /**
      * Add a new transaction to this queue manager.
      * Returns true if the transaction was successfully inserted at all partitions
@@ -364,16 +520,16 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
                 break;
             }
             // If our queue is currently idle, poke the thread so that it wakes up and tries to
-            // schedule our boys!
-            else if (this.lockQueuesBlocked[partition] == false) {
+            // schedule our boys! We only need it to look at this partition
+            else if (this.lockQueuesBlocked.get(partition) == 0) {
+                this.markLockQueueReady(partition);
                 should_notify = true;
             }
             
             if (d) LOG.debug(String.format("Added txn #%d to initQueue for partition %d [locked=%s, queueSize=%d]",
-                                           txn_id, partition, this.lockQueuesBlocked[partition], this.lockQueues[partition].size()));
+                                           txn_id, partition, (this.lockQueuesBlocked.get(partition) == 1), this.lockQueues[partition].size()));
         } // FOR
-        if (should_notify && this.checkFlag.availablePermits() == 0)
-            this.checkFlag.release();
+        if (should_notify) this.signal();
         return (ret);
     }
     
@@ -394,14 +550,14 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
         // If the given txnId is the current transaction at this partition and still holds
         // the lock on the partition, then we will want to release it
         boolean poke = false;
-        if (this.lockQueuesBlocked[partition] && this.lockQueuesLastTxn[partition].equals(txn_id)) {
+        if (this.lockQueuesBlocked.get(partition) == 1 && this.lockQueuesLastTxn[partition].equals(txn_id)) {
             if (d) LOG.debug(String.format("Unlocking partition %d because txn #%d is finished [status=%s]",
                                            partition, txn_id, status));
-            this.lockQueuesBlocked[partition] = false;
+            this.lockQueuesBlocked.set(partition, 0);
             poke = true;
         } else if (d) {
             LOG.debug(String.format("Not unlocking partition %d for txn #%d [current=%d, locked=%s, status=%s]",
-                                    partition, txn_id, this.lockQueuesLastTxn[partition], this.lockQueuesBlocked[partition], status));
+                                    partition, txn_id, this.lockQueuesLastTxn[partition], (this.lockQueuesBlocked.get(partition) == 1), status));
         }
         
         // Always attempt to remove it from this partition's queue
@@ -432,8 +588,12 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
                 this.cleanupTransaction(txn_id);
             }
         }
-        if (poke && this.checkFlag.availablePermits() == 0)
-            this.checkFlag.release();
+        // The head of this partition's queue may have changed, so we
+        // need to look at it again even if we didn't unlock it
+        if (poke || removed) {
+            this.markLockQueueReady(partition);
+            this.signal();
+        }
     }
     
 
@@ -517,13 +677,16 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
             
             // We don't need to acquire a lock here because we know that
             // nobody else can update us unless the lock flag is false
-            if (removed == false && this.lockQueuesBlocked[partition] && this.lockQueuesLastTxn[partition].equals(txn_id)) {
-                this.lockQueuesBlocked[partition] = false;
+            if (removed == false && this.lockQueuesBlocked.get(partition) == 1 && this.lockQueuesLastTxn[partition].equals(txn_id)) {
+                this.lockQueuesBlocked.set(partition, 0);
+                removed = true;
+            }
+            if (removed) {
+                this.markLockQueueReady(partition);
                 poke = true;
             }
         } // FOR
-        if (poke && this.checkFlag.availablePermits() == 0)
-            this.checkFlag.release();
+        if (poke) this.signal();
         this.cleanupTransaction(txn_id);
     }
 
@@ -533,8 +696,7 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
     
     public void initTransaction(LocalTransaction ts) {
         this.initQueue.add(ts);
-        if (this.checkFlag.availablePermits() == 0)
-            this.checkFlag.release();
+        this.signal();
     }
     
     private void checkInitQueue() {
@@ -600,8 +762,8 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
             int id = (int)TransactionIdManager.getInitiatorIdFromTransactionId(last_txn_id.longValue());
             this.blockedQueueHistogram.put(id);
         }
-        if (this.checkFlag.availablePermits() == 0)
-            this.checkFlag.release();
+        this.blockedQueueDirty = true;
+        this.signal();
     }
     
     /**
@@ -641,10 +803,32 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
                 }
             // For now we can break, but I think that we may need separate
             // queues for the different partitions...
-            } else break;
+            } else {
+                this.scheduleBlockedQueueRelease(releaseTxnId);
+                break;
+            }
         } // WHILE
     }
     
+    /**
+     * Schedule a timer to check the blockedQueue again. The txnIds embed the time
+     * that they were created at, so we first try to come back right after the 
+     * release txnId's timestamp. If that has already passed, then we back off
+     * and wait until more txnIds have been generated.
+     * @param releaseTxnId
+     */
+    private void scheduleBlockedQueueRelease(Long releaseTxnId) {
+        long now = System.currentTimeMillis();
+        long release_time = TransactionIdManager.getTimestampFromTransactionId(releaseTxnId.longValue()) + 1;
+        if (release_time <= now) release_time = now + Math.max(1, this.wait_time);
+        if (this.blockedQueueReleaseTime >= 0) {
+            if (this.blockedQueueReleaseTime <= release_time) return;
+            this.releaseTimers.cancel(this.blockedQueueReleaseHandler);
+        }
+        this.blockedQueueReleaseTime = release_time;
+        this.releaseTimers.schedule(release_time, this.blockedQueueReleaseHandler);
+    }
+    
     // ----------------------------------------------------------------------------
     // RESTART QUEUE MANAGEMENT
     // ----------------------------------------------------------------------------
@@ -664,8 +848,7 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
             ts.markAsDeletable();
             this.hstore_site.deleteTransaction(ts.getTransactionId(), Status.ABORT_REJECT);
         }
-        if (this.checkFlag.availablePermits() == 0)
-            this.checkFlag.release();
+        this.signal();
     }
     
     private void checkRestartQueue() {
@@ -691,7 +874,7 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
      * @return
      */
     public Long getCurrentTransaction(int partition) {
-        if (this.lockQueuesBlocked[partition]) {
+        if (this.lockQueuesBlocked.get(partition) == 1) {
             return (this.lockQueuesLastTxn[partition]);
         }
         return (null);
@@ -706,6 +889,7 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
     @Override
     public void shutdown() {
         this.stop = true;
+        this.signal();
     }
 
     @Override
@@ -766,7 +950,7 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
             Map<String, Object> inner = new ListOrderedMap<String, Object>();
             inner.put("Current Txn", this.lockQueuesLastTxn[p]);
             if (hstore_site.isLocalPartition(p)) {
-                inner.put("Locked?", this.lockQueuesBlocked[p]);
+                inner.put("Locked?", this.lockQueuesBlocked.get(p) == 1);
                 inner.put("Queue Size", this.lockQueues[p].size());
             }
             m[idx].put(String.format("Partition #%02d", p), inner);
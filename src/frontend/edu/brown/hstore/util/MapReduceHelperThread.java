@@ -1,8 +1,11 @@
 package edu.brown.hstore.util;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.LinkedBlockingDeque;
 
 import org.apache.log4j.Logger;
@@ -11,6 +14,9 @@ import org.voltdb.VoltMapReduceProcedure;
 import org.voltdb.VoltProcedure;
 import org.voltdb.VoltTable;
 import org.voltdb.VoltTableRow;
+import org.voltdb.types.SortDirectionType;
+import org.voltdb.utils.Pair;
+import org.voltdb.utils.VoltTableUtil;
 
 import com.google.protobuf.RpcCallback;
 
@@ -159,6 +165,13 @@ public class MapReduceHelperThread implements Runnable, Shutdownable {
          *      partitioned table data to each of the partitions. Once that is
          *      all done, clean things up and invoke the network-outbound
          *      callback stored in the TransactionMapWrapperCallback
+         *
+         * NOTE: This is not a streaming shuffle. It only runs once every local
+         * partition has finished its MAP phase, and it ships one whole table
+         * per destination partition in a single SendDataRequest per site,
+         * because SendDataCallback expects exactly one response from each site.
+         * The destination partitions merge the sorted runs from each site
+         * when the REDUCE phase asks for its input.
          */
 
         // create a table for each partition
@@ -169,6 +182,21 @@ public class MapReduceHelperThread implements Runnable, Shutdownable {
         if (debug.get())
             LOG.debug(String.format("Created %d VoltTables for SHUFFLE phase of %s", partitionedTables.size(), ts));
 
+        // If the procedure has a combiner, then each partition's MapOutput table is already
+        // sorted on its key. We will keep the rows from each local partition in their own
+        // run and then merge them together so that the destination partitions only have to
+        // merge the runs that they get from each site. Without a combiner nobody sorts
+        // anything until the REDUCE phase.
+        VoltMapReduceProcedure<?> volt_proc = (VoltMapReduceProcedure<?>)this.executor.getVoltProcedure(ts.getInvocation().getProcName());
+        final boolean sorted = volt_proc.hasCombiner();
+        Map<Integer, List<VoltTable>> partitionedRuns = null;
+        if (sorted) {
+            partitionedRuns = new HashMap<Integer, List<VoltTable>>();
+            for (int partition : hstore_site.getAllPartitionIds()) {
+                partitionedRuns.put(partition, new ArrayList<VoltTable>());
+            } // FOR
+        }
+
         VoltTable table = null;
         int rp = -1;
         for (int partition : this.hstore_site.getLocalPartitionIds()) {
@@ -176,6 +204,12 @@ public class MapReduceHelperThread implements Runnable, Shutdownable {
             table = ts.getMapOutputByPartition(partition);
 
             assert (table != null) : String.format("Missing MapOutput table for txn #%d", ts.getTransactionId());
+            
+            if (sorted) {
+                for (List<VoltTable> runs : partitionedRuns.values()) {
+                    runs.add(CatalogUtil.getVoltTable(ts.getMapEmit()));
+                } // FOR
+            }
 
             while (table.advanceRow()) {
                 int rowPartition = -1;
@@ -189,13 +223,25 @@ public class MapReduceHelperThread implements Runnable, Shutdownable {
                     LOG.trace(Arrays.toString(table.getRowArray()) + " => " + rowPartition);
                 assert (rowPartition >= 0);
                 // this adds the active row from table
-                partitionedTables.get(rowPartition).add(table);
+                if (sorted) {
+                    List<VoltTable> runs = partitionedRuns.get(rowPartition);
+                    runs.get(runs.size() - 1).add(table);
+                } else {
+                    partitionedTables.get(rowPartition).add(table);
+                }
                 rp = rowPartition;
             } // WHILE
             if (debug.get())
                 LOG.debug(String.format("<SendTable to Dest Partition>:%d\n %s", rp, partitionedTables.get(rp)));
 
         } // FOR
+        
+        if (sorted) {
+            for (Entry<Integer, List<VoltTable>> e : partitionedRuns.entrySet()) {
+                VoltTable merged = VoltTableUtil.merge(e.getValue(), Pair.of(0, SortDirectionType.ASC));
+                if (merged != null) partitionedTables.put(e.getKey(), merged);
+            } // FOR
+        }
 
         // The SendDataCallback should invoke the TransactionMapCallback to tell
         // it that
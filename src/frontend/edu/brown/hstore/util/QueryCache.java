@@ -1,8 +1,15 @@
 package edu.brown.hstore.util;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -13,7 +20,18 @@ import org.apache.commons.pool.impl.StackObjectPool;
 import org.apache.log4j.Logger;
 import org.voltdb.ParameterSet;
 import org.voltdb.VoltTable;
-import org.voltdb.utils.EstTime;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.PlanFragment;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.Table;
+import org.voltdb.plannodes.AbstractOperationPlanNode;
+import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.plannodes.ReceivePlanNode;
+
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.catalog.PlanFragmentIdGenerator;
+import edu.brown.plannodes.PlanNodeUtil;
 
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
@@ -39,6 +57,12 @@ public class QueryCache {
      */
     private static final int TXNCACHE_POOL_MAXIDLE = 200;
     
+    /**
+     * Rough estimate of the number of bytes used by each GlobalEntry and its key,
+     * not including the actual result data. This is only used for the memory budget.
+     */
+    private static final int GLOBALCACHE_ENTRY_OVERHEAD = 128;
+    
     // ----------------------------------------------------------------------------
     // INTERNAL CACHE MEMBERS
     // ----------------------------------------------------------------------------
@@ -50,8 +74,6 @@ public class QueryCache {
         int partitionId;
         int paramsHash;
         VoltTable result;
-        int accessCounter = 0;
-        long accessTimestamp = 0;
         
         public CacheEntry(int idx) {
             this.idx = Integer.valueOf(idx);
@@ -106,7 +128,6 @@ public class QueryCache {
             }
             CacheEntry next = this.buffer[this.current++];
             next.txnId = txnId;
-            next.accessCounter = 0;
             return (next);
         }
         
@@ -115,6 +136,64 @@ public class QueryCache {
         }
     } // CLASS
     
+    /**
+     * Key for the global cache. We have to make our own copy of the ParameterSet values
+     * because the PartitionExecutor reuses its ParameterSets for each batch.
+     */
+    private static class GlobalKey {
+        final int fragmentId;
+        final int partitionId;
+        final Object params[];
+        final int hash;
+        
+        public GlobalKey(int fragmentId, int partitionId, Object params[]) {
+            this.fragmentId = fragmentId;
+            this.partitionId = partitionId;
+            this.params = params;
+            this.hash = (31 * (31 * fragmentId + partitionId)) + Arrays.deepHashCode(params);
+        }
+        @Override
+        public int hashCode() {
+            return (this.hash);
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return (true);
+            if ((obj instanceof GlobalKey) == false) return (false);
+            GlobalKey other = (GlobalKey)obj;
+            return (this.hash == other.hash &&
+                    this.fragmentId == other.fragmentId &&
+                    this.partitionId == other.partitionId &&
+                    Arrays.deepEquals(this.params, other.params));
+        }
+    } // CLASS
+    
+    /**
+     * A cached result for a read-only PlanFragment that can be used by any transaction.
+     * We keep a copy of the version of each table that the fragment reads when the result
+     * was stored. If any of those tables have been modified since then, the entry is stale.
+     * The accessCounter is the number of hits since the last time that the entry was
+     * looked at for eviction.
+     */
+    private static class GlobalEntry {
+        final GlobalKey key;
+        final ByteBuffer data;
+        final int size;
+        final int tableIds[];
+        final long tableVersions[];
+        final long epoch;
+        int accessCounter = 0;
+        
+        public GlobalEntry(GlobalKey key, ByteBuffer data, int tableIds[], long tableVersions[], long epoch) {
+            this.key = key;
+            this.data = data;
+            this.size = data.remaining() + GLOBALCACHE_ENTRY_OVERHEAD;
+            this.tableIds = tableIds;
+            this.tableVersions = tableVersions;
+            this.epoch = epoch;
+        }
+    } // CLASS
+    
     /**
      * List<Integer> pool used by txnCache
      */
@@ -135,28 +214,327 @@ public class QueryCache {
     // INITIALIZATION
     // ----------------------------------------------------------------------------
 
-    private final Cache globalCache;
     private final Cache txnCache;
     private final IdentityHashMap<Long, List<Integer>> txnCacheXref = new IdentityHashMap<Long, List<Integer>>();
     
+    /**
+     * The global cache is an LRU map of (FragmentId, PartitionId, Params) -> GlobalEntry.
+     * Entries that were hit since the last eviction get a second chance before they are evicted.
+     * This is not thread-safe! It should only be accessed by the PartitionExecutor's thread.
+     */
+    private final LinkedHashMap<GlobalKey, GlobalEntry> globalCache = new LinkedHashMap<GlobalKey, GlobalEntry>(16, 0.75f, true);
+    private final long globalMaxSize;
+    private long globalSize = 0;
+    
+    /**
+     * FragmentId -> The TableIds that the fragment reads (if it is read-only)
+     * or the TableIds that it writes (if it is not)
+     */
+    private final Map<Integer, int[]> fragmentTables = new HashMap<Integer, int[]>();
+    
+    /**
+     * TableId -> Version Counter
+     * We increment a table's version every time a fragment writes to it.
+     * The epoch is incremented whenever we need to invalidate everything.
+     */
+    private long tableVersions[] = new long[0];
+    private long epoch = 0;
+    
+    private long globalHits = 0;
+    private long globalMisses = 0;
+    private long globalEvictions = 0;
+    private long globalInvalidations = 0;
+    
     /**
      * Constructor
+     * @param globalMaxSize The maximum number of bytes of results to keep in the global cache
+     * @param txnBufferSize The number of entries in the per-transaction cache
      */
-    public QueryCache(int globalBufferSize, int txnBufferSize) {
-        this.globalCache = new Cache(globalBufferSize);
+    public QueryCache(long globalMaxSize, int txnBufferSize) {
+        this.globalMaxSize = globalMaxSize;
         this.txnCache = new Cache(txnBufferSize);
     }
     
+    /**
+     * Figure out what tables each PlanFragment in the catalog touches.
+     * The global cache will only store results for fragments that are registered here.
+     * PlanFragments that are not registered (e.g., ad-hoc queries) and that write
+     * to the database will cause the entire global cache to be invalidated.
+     * @param catalog_db
+     */
+    public void registerFragments(Database catalog_db) {
+        for (Procedure catalog_proc : catalog_db.getProcedures()) {
+            if (catalog_proc.getSystemproc()) continue;
+            for (Statement catalog_stmt : catalog_proc.getStatements()) {
+                for (PlanFragment catalog_frag : catalog_stmt.getFragments()) {
+                    this.registerFragment(catalog_db, catalog_frag);
+                } // FOR
+                for (PlanFragment catalog_frag : catalog_stmt.getMs_fragments()) {
+                    this.registerFragment(catalog_db, catalog_frag);
+                } // FOR
+            } // FOR (stmt)
+        } // FOR (proc)
+        if (debug.get()) LOG.debug(String.format("Registered %d PlanFragments for the global query cache",
+                                                 this.fragmentTables.size()));
+    }
+    
+    /**
+     * Register the tables for a single PlanFragment. A read-only fragment is registered
+     * with the tables that it reads. Any other fragment is registered with the tables that
+     * it modifies, since those are the only ones whose cached results it can make stale.
+     * Read-only fragments that get their input from other fragments are not registered,
+     * because their results depend on more than the tables at this partition.
+     * @param catalog_db
+     * @param catalog_frag
+     */
+    private void registerFragment(Database catalog_db, PlanFragment catalog_frag) {
+        boolean readOnly = PlanFragmentIdGenerator.isPlanFragmentReadOnly(catalog_frag.getId());
+        Collection<Table> tables = null;
+        try {
+            AbstractPlanNode root = PlanNodeUtil.getPlanNodeTreeForPlanFragment(catalog_frag);
+            if (readOnly) {
+                if (PlanNodeUtil.getPlanNodes(root, ReceivePlanNode.class).isEmpty() == false) return;
+                tables = CatalogUtil.getReferencedTablesForTree(catalog_db, root);
+            } else {
+                tables = new HashSet<Table>();
+                for (AbstractOperationPlanNode node : PlanNodeUtil.getPlanNodes(root, AbstractOperationPlanNode.class)) {
+                    Table catalog_tbl = catalog_db.getTables().getIgnoreCase(node.getTargetTableName());
+                    if (catalog_tbl == null) {
+                        throw new Exception("Unknown target table '" + node.getTargetTableName() + "'");
+                    }
+                    tables.add(catalog_tbl);
+                } // FOR
+            }
+        } catch (Exception ex) {
+            LOG.warn("Failed to get the tables referenced by " + catalog_frag.fullName(), ex);
+            return;
+        }
+        int tableIds[] = new int[tables.size()];
+        int i = 0;
+        for (Table catalog_tbl : tables) {
+            tableIds[i++] = catalog_tbl.getRelativeIndex();
+        } // FOR
+        this.fragmentTables.put(catalog_frag.getId(), tableIds);
+    }
+    
     
     // ----------------------------------------------------------------------------
-    // API
+    // GLOBAL CACHE API
     // ----------------------------------------------------------------------------
-
     
-    public void addGlobalQueryResult(int fragmentId, ParameterSet params, VoltTable result) {
+    /**
+     * Returns true if the results of the given PlanFragment can be stored
+     * in the global cache. It must be read-only and it must have been registered.
+     * @param fragmentId
+     * @return
+     */
+    public boolean isCacheable(long fragmentId) {
+        return (PlanFragmentIdGenerator.isPlanFragmentReadOnly(fragmentId) &&
+                this.fragmentTables.containsKey((int)fragmentId));
+    }
+    
+    /**
+     * Return true if the version of each of the given tables is the same
+     * as when the entry was created.
+     */
+    private boolean isValid(GlobalEntry entry) {
+        if (entry.epoch != this.epoch) return (false);
+        for (int i = 0; i < entry.tableIds.length; i++) {
+            if (this.tableVersions[entry.tableIds[i]] != entry.tableVersions[i]) return (false);
+        } // FOR
+        return (true);
+    }
+    
+    private void removeGlobalEntry(Iterator<GlobalEntry> it, GlobalEntry entry) {
+        it.remove();
+        this.globalSize -= entry.size;
+    }
+    
+    /**
+     * Make a copy of the ParameterSet's values. Any arrays are copied too.
+     */
+    private static Object[] copyParams(ParameterSet params) {
+        Object values[] = params.toArray();
+        if (values == null) return (new Object[0]);
+        Object copy[] = values.clone();
+        for (int i = 0; i < copy.length; i++) {
+            if (copy[i] != null && copy[i].getClass().isArray()) {
+                int length = Array.getLength(copy[i]);
+                Object inner = Array.newInstance(copy[i].getClass().getComponentType(), length);
+                System.arraycopy(copy[i], 0, inner, 0, length);
+                copy[i] = inner;
+            }
+        } // FOR
+        return (copy);
+    }
+    
+    /**
+     * Store the result of a read-only PlanFragment that can be used by any transaction.
+     * The result will be thrown away as soon as one of the tables that the fragment reads
+     * is modified, or if we need to make room for other results.
+     * @param fragmentId
+     * @param partitionId
+     * @param params
+     * @param result
+     */
+    public void addGlobalQueryResult(int fragmentId, int partitionId, ParameterSet params, VoltTable result) {
+        int tableIds[] = this.fragmentTables.get(fragmentId);
+        if (tableIds == null) return;
+        
+        ByteBuffer data = result.getTableDataReference();
+        data.limit(result.getUnderlyingBufferSize());
+        if (data.remaining() + GLOBALCACHE_ENTRY_OVERHEAD > this.globalMaxSize) return;
+        
+        // If the result is a view over one of the EE's buffers, then we need our own
+        // copy because the EE will reuse that memory once the txn is finished
+        if (data.isDirect()) {
+            ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+            copy.put(data);
+            copy.flip();
+            data = copy;
+        }
+        
+        long versions[] = new long[tableIds.length];
+        for (int i = 0; i < tableIds.length; i++) {
+            if (tableIds[i] >= this.tableVersions.length) {
+                this.tableVersions = Arrays.copyOf(this.tableVersions, tableIds[i] + 1);
+            }
+            versions[i] = this.tableVersions[tableIds[i]];
+        } // FOR
+        GlobalKey key = new GlobalKey(fragmentId, partitionId, copyParams(params));
+        GlobalEntry entry = new GlobalEntry(key, data.slice(), tableIds, versions, this.epoch);
+        GlobalEntry old = this.globalCache.put(key, entry);
+        if (old != null) this.globalSize -= old.size;
+        this.globalSize += entry.size;
+        if (debug.get()) LOG.debug(String.format("Storing global query result for FragmentId %d - %s [size=%d]",
+                                                 fragmentId, params, entry.size));
         
+        // Evict the least recently used entries until we are under our budget.
+        // Any entry that was hit since the last time that we looked at it gets a second
+        // chance and is moved to the back of the line instead. We reset their counters,
+        // so the second pass will always be able to evict something.
+        // Throw away anything that is stale along the way.
+        for (int pass = 0; pass < 2 && this.globalSize > this.globalMaxSize; pass++) {
+            List<GlobalEntry> reprieved = null;
+            Iterator<GlobalEntry> it = this.globalCache.values().iterator();
+            while (this.globalSize > this.globalMaxSize && it.hasNext()) {
+                GlobalEntry next = it.next();
+                if (next == entry) continue;
+                boolean valid = this.isValid(next);
+                if (valid && next.accessCounter > 0) {
+                    next.accessCounter = 0;
+                    it.remove();
+                    if (reprieved == null) reprieved = new ArrayList<GlobalEntry>();
+                    reprieved.add(next);
+                    continue;
+                }
+                this.removeGlobalEntry(it, next);
+                if (valid) {
+                    this.globalEvictions++;
+                } else {
+                    this.globalInvalidations++;
+                }
+            } // WHILE
+            if (reprieved != null) {
+                for (GlobalEntry e : reprieved) {
+                    this.globalCache.put(e.key, e);
+                } // FOR
+            }
+        } // FOR
     }
     
+    /**
+     * Return the cached result for the given read-only PlanFragment.
+     * Returns null if there is no cached result or if one of the tables that
+     * the fragment reads has been modified since the result was stored.
+     * @param fragmentId
+     * @param partitionId
+     * @param params
+     * @return
+     */
+    public VoltTable getGlobalCachedResult(int fragmentId, int partitionId, ParameterSet params) {
+        Object values[] = params.toArray();
+        GlobalKey key = new GlobalKey(fragmentId, partitionId, (values != null ? values : new Object[0]));
+        GlobalEntry entry = this.globalCache.get(key);
+        if (entry == null) {
+            this.globalMisses++;
+            return (null);
+        }
+        if (this.isValid(entry) == false) {
+            this.globalCache.remove(key);
+            this.globalSize -= entry.size;
+            this.globalInvalidations++;
+            this.globalMisses++;
+            return (null);
+        }
+        entry.accessCounter++;
+        this.globalHits++;
+        
+        // Every transaction needs its own VoltTable because they have their own row cursors.
+        // The tables are read-only, so they can all share the same buffer
+        return (new VoltTable(entry.data.duplicate(), true));
+    }
+    
+    /**
+     * Invalidate all of the cached results that read from the tables
+     * that are modified by the given PlanFragment.
+     * @param fragmentId
+     */
+    public void invalidateFragment(long fragmentId) {
+        int tableIds[] = this.fragmentTables.get((int)fragmentId);
+        if (tableIds == null) {
+            this.invalidateAll();
+            return;
+        }
+        for (int tableId : tableIds) {
+            this.invalidateTable(tableId);
+        } // FOR
+    }
+    
+    /**
+     * Invalidate all of the cached results that read from the given table
+     * @param tableId The table's relative index
+     */
+    public void invalidateTable(int tableId) {
+        if (tableId >= this.tableVersions.length) {
+            this.tableVersions = Arrays.copyOf(this.tableVersions, tableId + 1);
+        }
+        this.tableVersions[tableId]++;
+    }
+    
+    /**
+     * Invalidate every result in the global cache
+     */
+    public void invalidateAll() {
+        this.epoch++;
+        this.globalInvalidations += this.globalCache.size();
+        this.globalCache.clear();
+        this.globalSize = 0;
+    }
+    
+    public long getGlobalHits() {
+        return (this.globalHits);
+    }
+    public long getGlobalMisses() {
+        return (this.globalMisses);
+    }
+    public long getGlobalEvictions() {
+        return (this.globalEvictions);
+    }
+    public long getGlobalInvalidations() {
+        return (this.globalInvalidations);
+    }
+    /**
+     * Return the estimated number of bytes used by the global cache
+     */
+    public long getGlobalSize() {
+        return (this.globalSize);
+    }
+    
+    // ----------------------------------------------------------------------------
+    // TRANSACTION CACHE API
+    // ----------------------------------------------------------------------------
+    
     /**
      * Store a new cache entry for a query that is specific to a transaction
      * This cached result is not be available to other transactions
@@ -227,8 +605,6 @@ public class QueryCache {
                 }
                 
                 // Bingo!
-                entry.accessCounter++;
-                entry.accessTimestamp = EstTime.currentTimeMillis();
                 return (entry.result);
             } // FOR
         }
@@ -263,7 +639,12 @@ public class QueryCache {
         
         // Global Cache
         m[idx] = new LinkedHashMap<String, Object>();
-        m[idx].put("Global Cache", null);
+        m[idx].put(String.format("GlobalCache[%d]", this.globalCache.size()),
+                   String.format("%d bytes / %d max", this.globalSize, this.globalMaxSize));
+        m[idx].put("Hits", this.globalHits);
+        m[idx].put("Misses", this.globalMisses);
+        m[idx].put("Evictions", this.globalEvictions);
+        m[idx].put("Invalidations", this.globalInvalidations);
         
         // TxnCache
         m[++idx] = new LinkedHashMap<String, Object>();
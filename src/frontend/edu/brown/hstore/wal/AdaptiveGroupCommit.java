@@ -0,0 +1,127 @@
+/***************************************************************************
+ *   Copyright (C) 2012 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+package edu.brown.hstore.wal;
+
+/**
+ * Adaptive group commit policy for a CommandLogStream.
+ * We keep a moving average of how fast entries are arriving and how long it takes
+ * to fsync a batch. The time that the first entry in a batch is allowed to wait is
+ * whatever is left of the commit latency target after a pessimistic (mean + 3 stddev)
+ * estimate of the fsync time. The batch size is the number of entries that we expect
+ * to arrive during one wait + fsync cycle. If that is only one entry (i.e., there is
+ * a lone client), then we flush right away.
+ * <B>NOTE:</B> This class is not thread-safe. It should only be used by the stream's writer thread.
+ */
+public class AdaptiveGroupCommit {
+
+    /**
+     * Weight of the newest observation in the moving averages
+     */
+    private static final double ALPHA = 0.2;
+
+    private final long target;
+    private final int maxBatchSize;
+
+    private double fsyncAvg = 0;
+    private double fsyncVar = 0;
+    private double arrivalRate = 0; // entries per nanosecond
+    private long lastBatchTime = -1;
+    private boolean first = true;
+
+    /**
+     * Constructor
+     * @param target The commit latency target (in nanoseconds)
+     * @param maxBatchSize The largest batch that we will ever wait for
+     */
+    public AdaptiveGroupCommit(long target, int maxBatchSize) {
+        assert(target > 0);
+        assert(maxBatchSize > 0);
+        this.target = target;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Pessimistic estimate of how long the next fsync will take (in nanoseconds)
+     */
+    public long getFsyncEstimate() {
+        return (long)(this.fsyncAvg + 3 * Math.sqrt(this.fsyncVar));
+    }
+
+    /**
+     * The maximum amount of time (in nanoseconds) that the first entry in the next
+     * batch can wait before we have to start writing the batch out to disk.
+     */
+    public long getMaxWait() {
+        return Math.max(0, this.target - this.getFsyncEstimate());
+    }
+
+    /**
+     * The number of entries that we should wait for before we flush the next batch
+     */
+    public int getBatchSize() {
+        double cycle = this.getMaxWait() + this.fsyncAvg;
+        long size = (long)Math.ceil(this.arrivalRate * cycle);
+        return (int)Math.max(1, Math.min(this.maxBatchSize, size));
+    }
+
+    /**
+     * Estimated number of entries arriving per second
+     */
+    public double getArrivalRate() {
+        return (this.arrivalRate * 1000000000d);
+    }
+
+    /**
+     * Update the policy after a batch has been flushed to disk
+     * @param batchSize The number of entries in the batch
+     * @param fsyncTime How long it took to write and fsync the batch (in nanoseconds)
+     * @param timestamp The System.nanoTime() when the batch was started
+     */
+    public void update(int batchSize, long fsyncTime, long timestamp) {
+        if (this.first) {
+            this.fsyncAvg = fsyncTime;
+            this.fsyncVar = 0;
+            this.first = false;
+        } else {
+            double diff = fsyncTime - this.fsyncAvg;
+            this.fsyncAvg += ALPHA * diff;
+            this.fsyncVar = (1 - ALPHA) * (this.fsyncVar + ALPHA * diff * diff);
+        }
+
+        if (this.lastBatchTime > 0 && timestamp > this.lastBatchTime) {
+            double rate = batchSize / (double)(timestamp - this.lastBatchTime);
+            this.arrivalRate += ALPHA * (rate - this.arrivalRate);
+        }
+        this.lastBatchTime = timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AdaptiveGroupCommit[target=%.2fms, fsync=%.2fms, arrivals=%.1f/s, batch=%d]",
+                             this.target / 1000000d, this.getFsyncEstimate() / 1000000d,
+                             this.getArrivalRate(), this.getBatchSize());
+    }
+}
@@ -32,13 +32,18 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.BufferUnderflowException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
-import org.jfree.util.Log;
 import org.voltdb.messaging.FastDeserializer;
 import org.voltdb.utils.CompressionService;
 import org.voltdb.utils.DBBPool;
@@ -52,11 +57,45 @@ import org.voltdb.utils.DBBPool.BBContainer;
  */
 public class CommandLogReader implements Iterable<LogEntry> {
     
+    private static final Comparator<LogEntry> TXNID_COMPARATOR = new Comparator<LogEntry>() {
+        @Override
+        public int compare(LogEntry o1, LogEntry o2) {
+            return o1.txnId.compareTo(o2.txnId);
+        }
+    };
+    
     final FastDeserializer fd;
     final Map<Integer, String> procedures;
+    int version;
     boolean groupCommit;
+    boolean compressed;
+    
+    /**
+     * If we are reading from multiple log streams, then this will contain
+     * one reader per segment file that we will merge together.
+     */
+    final List<CommandLogReader> segments;
+    
+    /**
+     * Read in all of the segment files for the given streams and merge them back
+     * together in transaction id order. Unlike reading a single file, the merged
+     * entries are guaranteed to be in txn id order even if they were written out
+     * of order across group commit batches.
+     * @param files
+     */
+    public CommandLogReader(Collection<File> files) {
+        this.fd = null;
+        this.procedures = new HashMap<Integer, String>();
+        this.segments = new ArrayList<CommandLogReader>();
+        for (File f : files) {
+            CommandLogReader reader = new CommandLogReader(f.getAbsolutePath());
+            this.procedures.putAll(reader.procedures);
+            this.segments.add(reader);
+        } // FOR
+    }
     
     public CommandLogReader(String path) {
+        this.segments = null;
         FileChannel roChannel = null;
         ByteBuffer readonlybuffer = null;
         
@@ -73,14 +112,232 @@ public class CommandLogReader implements Iterable<LogEntry> {
         this.procedures = this.readHeader();
     }
     
+    /**
+     * Return all of the segment files written by the CommandLogStreams
+     * for the given WAL file, sorted in the order that they were written.
+     * @param outputFile
+     * @return
+     */
+    public static List<File> getStreamFiles(File outputFile) {
+        final String prefix = CommandLogWriter.getStreamPrefix(outputFile) + "-s";
+        List<File> files = new ArrayList<File>();
+        File dir = outputFile.getAbsoluteFile().getParentFile();
+        File contents[] = dir.listFiles();
+        if (contents != null) {
+            for (File f : contents) {
+                if (f.getName().startsWith(prefix) && f.getName().endsWith(".log")) {
+                    files.add(f);
+                }
+            } // FOR
+        }
+        Collections.sort(files);
+        return (files);
+    }
+    
+    /**
+     * A single group commit batch in one of our segments. The CommandLogStreams
+     * write out their entries in the order that the txns finished and not the order
+     * that they were started in, so a txn that shows up in a later batch may still
+     * have a smaller txn id than one in an earlier batch (e.g., a distributed txn that
+     * took longer to finish). We therefore merge the batches and not the segments.
+     * Each batch is only read in and sorted once the merge reaches its smallest txn id,
+     * and it is thrown away as soon as all of its entries have been returned. That
+     * means that we only hold on to the batches whose txn id ranges overlap.
+     */
+    private static class BatchCursor {
+        final CommandLogReader reader;
+        final int offset;
+        final long minTxnId;
+        List<LogEntry> entries;
+        int pos;
+        
+        BatchCursor(CommandLogReader reader, int offset, long minTxnId) {
+            this.reader = reader;
+            this.offset = offset;
+            this.minTxnId = minTxnId;
+        }
+        long getHeadTxnId() {
+            return (this.entries == null ? this.minTxnId : this.entries.get(this.pos).txnId.longValue());
+        }
+    }
+    
+    private static final Comparator<BatchCursor> BATCH_COMPARATOR = new Comparator<BatchCursor>() {
+        @Override
+        public int compare(BatchCursor o1, BatchCursor o2) {
+            long id0 = o1.getHeadTxnId();
+            long id1 = o2.getHeadTxnId();
+            return (id0 < id1 ? -1 : (id0 > id1 ? 1 : 0));
+        }
+    };
+    
+    /**
+     * Read the group commit batch that starts at the current position of the given
+     * FastDeserializer into the given list. The entries in each batch are grouped
+     * by partition, so they will not be in transaction id order.
+     * Returns false if there are no more batches in the file.
+     */
+    private boolean readBatch(FastDeserializer in, FastDeserializer blockFd, List<LogEntry> batch) {
+        ByteBuffer buffer = in.buffer();
+        if (buffer.remaining() < 4) return (false);
+        try {
+            // The old format didn't have a block count. Each batch was
+            // just a single compressed block
+            int numBlocks = (this.version == 0 ? 1 : in.readInt());
+            // Skip the batch's smallest txn id
+            if (this.version >= 2) in.readLong();
+            for (int i = 0; i < numBlocks; i++) {
+                int size = in.readInt();
+                if (this.compressed) {
+                    byte[] b = new byte[size];
+                    in.readFully(b);
+                    blockFd.setBuffer(ByteBuffer.wrap(CompressionService.decompressBytes(b)));
+                } else {
+                    ByteBuffer block = buffer.slice();
+                    block.limit(size);
+                    buffer.position(buffer.position() + size);
+                    blockFd.setBuffer(block);
+                }
+                while (blockFd.buffer().hasRemaining()) {
+                    batch.add(blockFd.readObject(LogEntry.class));
+                } // WHILE
+            } // FOR
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to read group commit batch from the WAL file!", ex);
+        } catch (BufferUnderflowException ex) {
+            // The last batch was only partially written out
+            return (batch.isEmpty() == false);
+        } catch (IllegalArgumentException ex) {
+            return (batch.isEmpty() == false);
+        }
+        return (true);
+    }
+    
+    /**
+     * Find all of the group commit batches in this segment without reading in their entries.
+     * Logs written before LOG_FORMAT_VERSION 2 don't store the smallest txn id for each batch,
+     * so for those we have to read in each batch once here to figure it out.
+     * @param cursors
+     */
+    private void scanBatches(Collection<BatchCursor> cursors) {
+        if (this.groupCommit == false) {
+            throw new RuntimeException("Unable to merge WAL segments that were not written with group commit");
+        }
+        FastDeserializer in = new FastDeserializer(this.fd.buffer().duplicate());
+        FastDeserializer blockFd = new FastDeserializer(ByteBuffer.allocate(0));
+        List<LogEntry> batch = new ArrayList<LogEntry>();
+        ByteBuffer buffer = in.buffer();
+        boolean partial = false;
+        while (partial == false && buffer.remaining() >= 4) {
+            int offset = buffer.position();
+            Long minTxnId = null;
+            if (this.version >= 2) {
+                try {
+                    int numBlocks = in.readInt();
+                    long batchMin = in.readLong();
+                    for (int i = 0; i < numBlocks; i++) {
+                        int size = in.readInt();
+                        if (size > buffer.remaining()) throw new BufferUnderflowException();
+                        buffer.position(buffer.position() + size);
+                    } // FOR
+                    minTxnId = batchMin;
+                } catch (IOException ex) {
+                    throw new RuntimeException("Failed to scan group commit batches in the WAL file!", ex);
+                } catch (BufferUnderflowException ex) {
+                    // The last batch was only partially written out, so we'll
+                    // have to read in whatever entries made it out to disk
+                    buffer.position(offset);
+                    partial = true;
+                }
+            }
+            if (minTxnId == null) {
+                batch.clear();
+                if (this.readBatch(in, blockFd, batch) == false) break;
+                for (LogEntry entry : batch) {
+                    if (minTxnId == null || entry.txnId.longValue() < minTxnId.longValue()) {
+                        minTxnId = entry.txnId;
+                    }
+                } // FOR
+                if (minTxnId == null) continue;
+            }
+            cursors.add(new BatchCursor(this, offset, minTxnId.longValue()));
+        } // WHILE
+    }
+    
+    /**
+     * Read in the entries for the given batch and sort them in transaction id order
+     */
+    private List<LogEntry> loadBatch(BatchCursor cursor) {
+        ByteBuffer buffer = this.fd.buffer().duplicate();
+        buffer.position(cursor.offset);
+        List<LogEntry> batch = new ArrayList<LogEntry>();
+        this.readBatch(new FastDeserializer(buffer), new FastDeserializer(ByteBuffer.allocate(0)), batch);
+        Collections.sort(batch, TXNID_COMPARATOR);
+        return (batch);
+    }
+    
+    /**
+     * Merge the LogEntries from all of the batches in our segments in transaction id order.
+     */
+    private Iterator<LogEntry> mergeIterator() {
+        final PriorityQueue<BatchCursor> heads = new PriorityQueue<BatchCursor>(16, BATCH_COMPARATOR);
+        for (CommandLogReader reader : this.segments) {
+            reader.scanBatches(heads);
+        } // FOR
+        
+        return new Iterator<LogEntry>() {
+            private LogEntry _next = this.advance();
+            
+            /**
+             * Return the next entry from the batch with the smallest head. If that batch
+             * hasn't been read in yet, then its smallest txn id is the smallest one left,
+             * so we have to read it in before we can return anything.
+             */
+            private LogEntry advance() {
+                BatchCursor head = null;
+                while ((head = heads.poll()) != null) {
+                    if (head.entries == null) {
+                        head.entries = head.reader.loadBatch(head);
+                        head.pos = 0;
+                        if (head.entries.isEmpty() == false) heads.add(head);
+                        continue;
+                    }
+                    LogEntry entry = head.entries.get(head.pos++);
+                    if (head.pos < head.entries.size()) {
+                        heads.add(head);
+                    } else {
+                        head.entries = null;
+                    }
+                    return (entry);
+                } // WHILE
+                return (null);
+            }
+            @Override
+            public boolean hasNext() {
+                return (_next != null);
+            }
+            @Override
+            public LogEntry next() {
+                LogEntry ret = _next;
+                _next = this.advance();
+                return (ret);
+            }
+            @Override
+            public void remove() {
+                throw new NotImplementedException("Can't call remove! You crazy!");
+            }
+        };
+    }
+    
     @Override
     public Iterator<LogEntry> iterator() {
+        if (this.segments != null) return (this.mergeIterator());
+        
         Iterator<LogEntry> it = new Iterator<LogEntry>() {
-            FastDeserializer decompressedFd;
+            final FastDeserializer blockFd = new FastDeserializer(ByteBuffer.allocate(0));
+            final List<LogEntry> batch = new ArrayList<LogEntry>();
+            int batchPos = 0;
             private LogEntry _next;
             {
-                decompressedFd = new FastDeserializer(ByteBuffer.allocate(0));
-                
                 this.next();
             }
             @Override
@@ -89,39 +346,38 @@ public class CommandLogReader implements Iterable<LogEntry> {
                 //return fd.buffer().hasRemaining();
             }
 
+            /**
+             * Read in the next group commit batch. The entries in each batch are grouped
+             * by partition, so we will sort them back into transaction id order.
+             * Returns false if there are no more batches in the file.
+             */
+            private boolean readBatch() {
+                this.batch.clear();
+                this.batchPos = 0;
+                if (CommandLogReader.this.readBatch(fd, this.blockFd, this.batch) == false) return (false);
+                Collections.sort(this.batch, TXNID_COMPARATOR);
+                return (true);
+            }
+
             @Override
             public LogEntry next() {
                 LogEntry ret = _next;
                 _next = null;
                 
-                //Fill the decompressed buffer if it is empty
-                if (groupCommit && !decompressedFd.buffer().hasRemaining()) {
-                    Log.info("filling the decompressed buffer");
-                    int sizeCompressed = 0;
+                if (groupCommit) {
+                    while (this.batchPos >= this.batch.size()) {
+                        if (this.readBatch() == false) return (ret);
+                    } // WHILE
+                    _next = this.batch.get(this.batchPos++);
+                } else {
                     try {
-                        sizeCompressed = fd.readInt();
-                        byte[] b = new byte[sizeCompressed];
-                        fd.readFully(b);
-                        byte[] decompressed = CompressionService.decompressBytes(b);
-                        this.decompressedFd.setBuffer(ByteBuffer.wrap(decompressed));
+                        _next = fd.readObject(LogEntry.class);
                     } catch (IOException ex) {
-                        throw new RuntimeException("Failed to decompress data from the WAL file!", ex);
+                        throw new RuntimeException("Failed to deserialize LogEntry!", ex);
                     } catch (BufferUnderflowException ex) {
-                        this.decompressedFd.setBuffer(ByteBuffer.allocate(0));
+                        _next = null;
                     }
                 }
-                
-                try {
-                    if (groupCommit)
-                        _next = decompressedFd.readObject(LogEntry.class);
-                    else
-                        _next = fd.readObject(LogEntry.class);
-                } catch (IOException ex) {
-                    throw new RuntimeException("Failed to deserialize LogEntry!", ex);
-                } catch (BufferUnderflowException ex) {
-                    
-                    _next = null;
-                }
                 return (ret);
             }
 
@@ -142,14 +398,35 @@ public class CommandLogReader implements Iterable<LogEntry> {
     }
     
     /**
-     * 
+     * Read in the WAL header and return the mapping from ProcedureIds to names.
+     * Logs that were written before the header had a version number are still
+     * read using the old layout (see CommandLogWriter.LOG_FORMAT_VERSION)
      * @return
      */
     protected Map<Integer, String> readHeader() {
         Map<Integer, String> procedures = new HashMap<Integer, String>();
         
         try {
-            this.groupCommit = fd.readBoolean();
+            ByteBuffer buffer = fd.buffer();
+            byte first = (buffer.hasRemaining() ? buffer.get(buffer.position()) : 0);
+            if (first == 0 || first == 1) {
+                // Old log without a magic number. Group commit batches were always compressed
+                this.version = 0;
+                this.groupCommit = fd.readBoolean();
+                this.compressed = this.groupCommit;
+            } else {
+                int magic = fd.readInt();
+                if (magic != CommandLogWriter.LOG_MAGIC) {
+                    throw new RuntimeException(String.format("Invalid WAL log header: unexpected magic number 0x%08X", magic));
+                }
+                this.version = fd.readInt();
+                if (this.version < 1 || this.version > CommandLogWriter.LOG_FORMAT_VERSION) {
+                    throw new RuntimeException(String.format("Unsupported WAL log format version %d [supported=0-%d]",
+                                                             this.version, CommandLogWriter.LOG_FORMAT_VERSION));
+                }
+                this.groupCommit = fd.readBoolean();
+                this.compressed = (this.groupCommit && fd.readBoolean());
+            }
             int num_procs = fd.readInt();
             for (int i = 0; i < num_procs; i++)
                 procedures.put(new Integer(fd.readInt()), fd.readString());
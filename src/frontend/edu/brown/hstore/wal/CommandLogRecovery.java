@@ -0,0 +1,888 @@
+/***************************************************************************
+ *   Copyright (C) 2012 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+package edu.brown.hstore.wal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.TransactionIdManager;
+import org.voltdb.VoltTable;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.sysprocs.ReplayCommandLog;
+import org.voltdb.sysprocs.saverestore.SnapshotUtil;
+
+import com.google.protobuf.RpcCallback;
+
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.HStoreThreadManager;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.PartitionEstimator;
+import edu.brown.utils.ThreadUtil;
+
+/**
+ * Crash recovery from the command log.
+ * Every HStoreSite replays the archived command log that it wrote out in the last run.
+ * The HStoreSite with the lowest site id first loads the latest snapshot with @SnapshotRestore
+ * and then uses @ReplayCommandLog to tell all of the sites to start replaying the transactions
+ * from their logs that came after the txn that took that snapshot. Each site does not accept
+ * any new requests from clients until its replay is finished.
+ * <P>
+ * Each local partition has its own replay thread that sends in the single-partition txns for
+ * that partition, so the partitions replay in parallel. A multi-partition txn waits until all
+ * of the outstanding txns at this site are finished, and then nobody else can go until it is
+ * finished.
+ * <P>
+ * A multi-partition txn is only in the log of the site that it started at, but it also has to be
+ * ordered against the txns in every other site's log. So the coordinator keeps calling
+ * @ReplayCommandLog to move a cluster-wide replay limit forward. It backs off while none
+ * of the sites have made any progress so that the cluster is not flooded with requests. A site only sends in the txns
+ * from its log whose id is less than the limit, and it waits at the first one that is not until
+ * the limit moves past it. The coordinator only moves the limit past the next multi-partition
+ * txn once every site has finished all of the txns that came before it, and then only moves it
+ * further once that txn is finished.
+ * The replayed transactions are sent in strict txn id order for each partition and are never
+ * throttled by the PartitionExecutors. If the HStoreSite still sends one back, then we block
+ * until everything else at that partition is finished and send it in again before moving on.
+ */
+public class CommandLogRecovery implements Runnable {
+    private static final Logger LOG = Logger.getLogger(CommandLogRecovery.class);
+    private final static LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private final static LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * The name of the directory under the command log directory where
+     * the logs from the previous run are moved to before we start up.
+     */
+    public static final String RECOVERY_DIRECTORY = "recovery";
+
+    /**
+     * The prefix of the directory under the command log directory where
+     * a site's archived logs are moved to once they have been replayed.
+     */
+    public static final String REPLAYED_DIRECTORY_PREFIX = "replayed-";
+
+    /**
+     * The number of times that we will send in a replayed txn that was rejected
+     * by the HStoreSite before we give up on the recovery
+     */
+    protected static final int MAX_REJECT_RETRIES = 10;
+
+    /**
+     * How long the coordinator waits before it asks the sites again whether
+     * they have reached the current replay limit (ms). Every time that it asks and
+     * nothing has changed, it doubles the wait up to the max interval.
+     */
+    protected static final int REPLAY_LIMIT_POLL_MIN_INTERVAL = 5;
+    protected static final int REPLAY_LIMIT_POLL_MAX_INTERVAL = 100;
+
+    /**
+     * How long a site waits for the replay limit to move before it checks
+     * whether the replay has failed somewhere else (ms)
+     */
+    private static final int REPLAY_LIMIT_WAIT_INTERVAL = 500;
+
+    /**
+     * Tells a PartitionReplayer that there is nothing left in the log
+     */
+    private static final Object STOP = new Object();
+
+    private final HStoreSite hstore_site;
+    private final HStoreConf hstore_conf;
+    private final PartitionEstimator p_estimator;
+    private final File logFile;
+    private final File recoveryDir;
+
+    /**
+     * One replayer for each of our local partitions
+     */
+    private final Map<Integer, PartitionReplayer> replayers = new HashMap<Integer, PartitionReplayer>();
+
+    /**
+     * The replayer that we use for txns that don't have a local base partition
+     */
+    private final PartitionReplayer defaultReplayer;
+
+    /**
+     * If a replayed txn gets throttled or rejected after we have already sent in
+     * the txns that come after it in the log, then we can't send it in again without
+     * breaking the log order. This is the first error that any of the replayers hit.
+     */
+    private final AtomicReference<RuntimeException> error = new AtomicReference<RuntimeException>();
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean success = false;
+    private long snapshotTxnId = -1;
+
+    /**
+     * We will only send in the txns from our log whose id is less than this.
+     * Until @ReplayCommandLog starts our replay, replay() does not wait for anybody.
+     */
+    private volatile long replayLimit = Long.MAX_VALUE;
+    private final Object replayLimitLock = new Object();
+
+    /**
+     * All of the txns in our log with an id less than this are finished
+     * and we are waiting for the replay limit to move past it
+     */
+    private volatile long replayedTo = Long.MIN_VALUE;
+
+    /**
+     * The sorted ids of the multi-partition txns in our log that we will replay.
+     * This is null until we have scanned our log.
+     */
+    private volatile long multiPartitionTxnIds[] = null;
+
+    private final AtomicInteger replayed = new AtomicInteger(0);
+    private final AtomicInteger aborted = new AtomicInteger(0);
+    private int singlePartitioned = 0;
+    private int multiPartitioned = 0;
+    private long clientHandle = 0;
+
+    /**
+     * Callback for a replayed transaction
+     */
+    private class ReplayCallback implements RpcCallback<byte[]> {
+        private final StoredProcedureInvocation invocation;
+        private final Semaphore outstanding;
+        private final boolean logged;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private ClientResponseImpl response = null;
+        private boolean released = false;
+
+        /**
+         * @param invocation
+         * @param outstanding
+         * @param logged If true, then this txn came from the command log and should be
+         *               included in the replay stats
+         */
+        public ReplayCallback(StoredProcedureInvocation invocation, Semaphore outstanding, boolean logged) {
+            this.invocation = invocation;
+            this.outstanding = outstanding;
+            this.logged = logged;
+        }
+
+        @Override
+        public void run(byte[] parameter) {
+            ClientResponseImpl cresponse = null;
+            try {
+                cresponse = new FastDeserializer(parameter).readObject(ClientResponseImpl.class);
+            } catch (IOException ex) {
+                throw new RuntimeException("Failed to deserialize ClientResponse for replayed " + this.invocation.getProcName(), ex);
+            }
+            Status status = cresponse.getStatus();
+            boolean admitted = (status != Status.ABORT_THROTTLED && status != Status.ABORT_REJECT);
+            if (admitted && this.logged) {
+                if (status != Status.OK) {
+                    // This is not necessarily a problem, since the txn may have
+                    // been aborted by the user the first time around too
+                    if (debug.get()) LOG.debug(String.format("Replayed %s finished with status %s: %s",
+                                                             this.invocation.getProcName(), status, cresponse.getStatusString()));
+                    aborted.incrementAndGet();
+                }
+                replayed.incrementAndGet();
+            }
+            synchronized (this) {
+                this.response = cresponse;
+                if (admitted == false && this.released) {
+                    error.compareAndSet(null, new RuntimeException(
+                                                  String.format("Replayed %s [handle=%d] was %s after the txns that come after it " +
+                                                                "in the command log were already sent in",
+                                                                this.invocation.getProcName(), this.invocation.getClientHandle(), status)));
+                }
+            } // SYNCH
+            this.outstanding.release();
+            this.latch.countDown();
+        }
+
+        /**
+         * Mark that the recovery thread is moving on to the next entry in the log.
+         * Returns the response for this txn if it has already come back.
+         */
+        private synchronized ClientResponseImpl release() {
+            this.released = true;
+            return (this.response);
+        }
+    } // CLASS
+
+    /**
+     * Sends in the replayed single-partition txns for one partition in the order
+     * that they are added to its queue. The queue can also contain a CountDownLatch,
+     * which the replayer counts down once all of the txns that came before it are finished.
+     */
+    private class PartitionReplayer implements Runnable {
+        private final int partition;
+        private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+
+        /**
+         * Outstanding replayed transactions
+         */
+        private final Semaphore outstanding;
+        private final int window;
+
+        public PartitionReplayer(int partition) {
+            this.partition = partition;
+            // Don't let more txns be outstanding than the partition would be willing to queue
+            this.window = Math.max(1, hstore_conf.site.queue_incoming_max_per_partition);
+            this.outstanding = new Semaphore(this.window);
+        }
+
+        @Override
+        public void run() {
+            Thread self = Thread.currentThread();
+            self.setName(HStoreThreadManager.getThreadName(hstore_site, this.partition, "recovery"));
+
+            while (true) {
+                Object next = null;
+                try {
+                    next = this.queue.take();
+                } catch (InterruptedException ex) {
+                    fail(ex);
+                    continue;
+                }
+                if (next == STOP) break;
+
+                // Wait for everything that we have sent in so far to finish
+                if (next instanceof CountDownLatch) {
+                    try {
+                        this.drain();
+                    } catch (Throwable ex) {
+                        fail(ex);
+                    }
+                    ((CountDownLatch)next).countDown();
+                }
+                // Once somebody has failed we just throw away the rest of our queue
+                else if (error.get() == null) {
+                    try {
+                        this.replayTxn((StoredProcedureInvocation)next, false, true);
+                    } catch (Throwable ex) {
+                        fail(ex);
+                    }
+                }
+            } // WHILE
+        }
+
+        /**
+         * Send the given invocation to the HStoreSite and make sure that it was admitted
+         * before we move on to the next entry in the log. If blocking is true, then we will
+         * also wait until the txn finishes. If the txn is throttled or rejected, then we wait
+         * for all of the outstanding txns to finish and send it in again. A txn that keeps
+         * getting rejected is a fatal recovery error.
+         * @param invocation
+         * @param blocking
+         * @param logged
+         * @return The response for the txn if it is already finished, otherwise null
+         */
+        private ClientResponseImpl replayTxn(StoredProcedureInvocation invocation, boolean blocking, boolean logged) {
+            int rejects = 0;
+            while (true) {
+                checkError();
+                ReplayCallback callback = this.invoke(invocation, logged);
+                if (blocking) await(callback.latch);
+                ClientResponseImpl cresponse = callback.release();
+                Status status = (cresponse != null ? cresponse.getStatus() : null);
+                if (status != Status.ABORT_THROTTLED && status != Status.ABORT_REJECT) return (cresponse);
+
+                if (status == Status.ABORT_REJECT && ++rejects > MAX_REJECT_RETRIES) {
+                    throw new RuntimeException(String.format("Replayed %s [handle=%d] was rejected %d times",
+                                                             invocation.getProcName(), invocation.getClientHandle(), rejects));
+                }
+                if (debug.get()) LOG.debug(String.format("Replayed %s was %s at partition %d. Waiting for outstanding txns " +
+                                                         "before sending it again [rejects=%d]",
+                                                         invocation.getProcName(), status, this.partition, rejects));
+                this.drain();
+                ThreadUtil.sleep(1);
+            } // WHILE
+        }
+
+        /**
+         * Send the given invocation to the HStoreSite as if it came from a client.
+         * Blocks if there are already too many outstanding replayed txns at this partition.
+         */
+        private ReplayCallback invoke(StoredProcedureInvocation invocation, boolean logged) {
+            try {
+                this.outstanding.acquire();
+            } catch (InterruptedException ex) {
+                throw new RuntimeException("Interrupted while waiting to replay " + invocation.getProcName(), ex);
+            }
+            if (trace.get()) LOG.trace(String.format("Replaying %s at partition %d [handle=%d]",
+                                                     invocation.getProcName(), this.partition, invocation.getClientHandle()));
+
+            FastSerializer fs = new FastSerializer();
+            try {
+                fs.writeObject(invocation);
+            } catch (IOException ex) {
+                throw new RuntimeException("Failed to serialize replayed " + invocation.getProcName(), ex);
+            }
+            ReplayCallback callback = new ReplayCallback(invocation, this.outstanding, logged);
+            hstore_site.procedureInvocation(fs.getBytes(), callback, true);
+            return (callback);
+        }
+
+        /**
+         * Block until all of the outstanding replayed txns at this partition are finished
+         */
+        private void drain() {
+            try {
+                this.outstanding.acquire(this.window);
+            } catch (InterruptedException ex) {
+                throw new RuntimeException("Interrupted while waiting for replayed txns to finish", ex);
+            }
+            this.outstanding.release(this.window);
+            checkError();
+        }
+    } // CLASS
+
+    /**
+     * Constructor
+     * @param hstore_site
+     * @param logFile The WAL file that this site writes its command log to
+     */
+    public CommandLogRecovery(HStoreSite hstore_site, File logFile) {
+        this.hstore_site = hstore_site;
+        this.hstore_conf = hstore_site.getHStoreConf();
+        this.p_estimator = hstore_site.getPartitionEstimator();
+        this.logFile = logFile.getAbsoluteFile();
+        this.recoveryDir = new File(this.logFile.getParentFile(), RECOVERY_DIRECTORY);
+
+        for (Integer partition : hstore_site.getLocalPartitionIds()) {
+            this.replayers.put(partition, new PartitionReplayer(partition.intValue()));
+        } // FOR
+        this.defaultReplayer = this.replayers.get(CollectionUtil.first(hstore_site.getLocalPartitionIds()));
+    }
+
+    // ----------------------------------------------------------------------------
+    // LOG ARCHIVING
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Move the command log files of the given WAL file (including the segments
+     * written by any of its CommandLogStreams) into the recovery directory before
+     * the CommandLogWriter overwrites them. If the recovery directory already contains
+     * the logs for this site, then the last recovery attempt never finished and the
+     * current logs only contain the transactions that were replayed. In that case
+     * we will just delete them.
+     * @param outputFile
+     * @return The number of log files that were archived
+     */
+    public static int archiveLogs(File outputFile) {
+        File recoveryDir = new File(outputFile.getAbsoluteFile().getParentFile(), RECOVERY_DIRECTORY);
+        List<File> files = getLogFiles(outputFile);
+        if (files.isEmpty()) return (0);
+
+        boolean incomplete = (getLogFiles(new File(recoveryDir, outputFile.getName())).isEmpty() == false);
+        recoveryDir.mkdirs();
+        int ctr = 0;
+        for (File f : files) {
+            if (incomplete) {
+                LOG.warn(String.format("Deleting command log %s from incomplete recovery", f));
+                f.delete();
+            } else if (f.renameTo(new File(recoveryDir, f.getName())) == false) {
+                throw new RuntimeException(String.format("Failed to move command log %s to %s", f, recoveryDir));
+            } else {
+                ctr++;
+            }
+        } // FOR
+        if (ctr > 0) LOG.info(String.format("Archived %d command log files to %s", ctr, recoveryDir));
+        return (ctr);
+    }
+
+    /**
+     * Return the given WAL file and all of the segments written by its CommandLogStreams
+     */
+    private static List<File> getLogFiles(File outputFile) {
+        List<File> files = new ArrayList<File>();
+        if (outputFile.exists()) files.add(outputFile);
+        files.addAll(CommandLogReader.getStreamFiles(outputFile));
+        return (files);
+    }
+
+    /**
+     * Return all of the archived command log files for this site that need to be replayed
+     */
+    protected List<File> getArchivedLogs() {
+        List<File> files = new ArrayList<File>();
+        for (File f : getLogFiles(new File(this.recoveryDir, this.logFile.getName()))) {
+            // Skip any log that crashed before it could even write out its header
+            if (f.length() > 0) files.add(f);
+        } // FOR
+        Collections.sort(files);
+        return (files);
+    }
+
+    // ----------------------------------------------------------------------------
+    // RECOVERY
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns true if this is the HStoreSite that restores the snapshot and
+     * then tells everybody else to start replaying their logs
+     */
+    public boolean isCoordinator() {
+        int first_site = Integer.MAX_VALUE;
+        for (Site s : CatalogUtil.getAllSites(hstore_site.getSite())) {
+            first_site = Math.min(first_site, s.getId());
+        } // FOR
+        return (hstore_site.getSiteId() == first_site);
+    }
+
+    /**
+     * Recover this HStoreSite from the command log. This blocks until we have replayed
+     * our entire log. If this is the coordinator, then we will first restore the snapshot
+     * and then use @ReplayCommandLog to start the replay at all of the sites.
+     * Otherwise we just wait for that to show up.
+     * @return True if the recovery was successful
+     */
+    public boolean recover() {
+        try {
+            if (this.isCoordinator()) {
+                long snapshotTxnId = -1;
+                if (hstore_conf.site.exec_command_logging_recovery_snapshot_dir.isEmpty() == false) {
+                    snapshotTxnId = this.restoreSnapshot(new File(hstore_conf.site.exec_command_logging_recovery_snapshot_dir));
+                }
+                this.coordinateReplay(snapshotTxnId);
+            }
+            await(this.finished);
+        } catch (RuntimeException ex) {
+            // We can't let the site keep going if it only has part of the database
+            LOG.fatal("Failed to recover " + hstore_site.getSiteName() + " from the command log", ex);
+            hstore_site.getHStoreCoordinator().shutdownCluster(ex);
+            return (false);
+        }
+        return (this.success);
+    }
+
+    /**
+     * Use @ReplayCommandLog to start the replay at all of the sites and then keep moving
+     * the replay limit forward until every site has replayed its entire log. The limit stops
+     * at each multi-partition txn until all of the sites have finished the txns that came
+     * before it, and then at the next id until the multi-partition txn itself is finished.
+     * @param snapshotTxnId
+     */
+    protected void coordinateReplay(long snapshotTxnId) {
+        long limit = Long.MIN_VALUE;
+        int interval = REPLAY_LIMIT_POLL_MIN_INTERVAL;
+        int lastScanning = -1;
+        long lastReplayedTo = Long.MIN_VALUE;
+        while (true) {
+            if (hstore_site.isShuttingDown()) {
+                throw new RuntimeException("The cluster shut down before the command log replay finished");
+            }
+            StoredProcedureInvocation invocation = new StoredProcedureInvocation(this.clientHandle++, "@ReplayCommandLog",
+                                                                                 snapshotTxnId, limit);
+            ClientResponseImpl cresponse = this.defaultReplayer.replayTxn(invocation, true, false);
+            if (cresponse.getStatus() != Status.OK) {
+                throw new RuntimeException("Failed to update the command log replay at all of the sites " +
+                                           "[status=" + cresponse.getStatus() + ", limit=" + limit + "]");
+            }
+
+            int scanning = 0;
+            long replayedTo = Long.MAX_VALUE;
+            long nextMultiPartition = Long.MAX_VALUE;
+            VoltTable vt = cresponse.getResults()[0];
+            while (vt.advanceRow()) {
+                if (vt.getString("STATUS").equals(ReplayCommandLog.STATUS_SCANNING)) scanning++;
+                replayedTo = Math.min(replayedTo, vt.getLong("REPLAYED_TO"));
+                nextMultiPartition = Math.min(nextMultiPartition, vt.getLong("NEXT_MULTIPARTITION"));
+            } // WHILE
+
+            // Somebody is still working on the txns before the current limit
+            if (scanning > 0 || replayedTo < limit) {
+                // Back off if nobody has made any progress since the last time that we asked
+                if (scanning == lastScanning && replayedTo == lastReplayedTo) {
+                    interval = Math.min(interval * 2, REPLAY_LIMIT_POLL_MAX_INTERVAL);
+                } else {
+                    interval = REPLAY_LIMIT_POLL_MIN_INTERVAL;
+                }
+                lastScanning = scanning;
+                lastReplayedTo = replayedTo;
+                ThreadUtil.sleep(interval);
+                continue;
+            }
+            interval = REPLAY_LIMIT_POLL_MIN_INTERVAL;
+            lastScanning = -1;
+            // Everybody has replayed their entire log
+            if (limit == Long.MAX_VALUE) break;
+
+            // If the limit is sitting on a multi-partition txn, then everything before it is done
+            // and we can let just that txn go. Otherwise we let everybody go up to the next one
+            limit = (nextMultiPartition == limit ? limit + 1 : nextMultiPartition);
+            if (debug.get()) LOG.debug(String.format("Moving the command log replay limit to %d", limit));
+        } // WHILE
+    }
+
+    /**
+     * Start replaying this site's command log in a separate thread.
+     * This is called by @ReplayCommandLog.
+     * @param snapshotTxnId Only txns with a larger id will be replayed
+     * @param replayLimit Only txns with a smaller id will be replayed until the limit is moved
+     */
+    public void startReplay(long snapshotTxnId, long replayLimit) {
+        if (this.started.compareAndSet(false, true) == false) {
+            LOG.warn("The command log replay was already started at " + hstore_site.getSiteName());
+            return;
+        }
+        this.snapshotTxnId = snapshotTxnId;
+        this.replayLimit = replayLimit;
+        Thread t = new Thread(this);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Returns true if the replay was already started at this site
+     */
+    public boolean isStarted() {
+        return (this.started.get());
+    }
+
+    /**
+     * Let this site send in the txns from its log whose id is less than the given limit.
+     * The limit never moves backwards.
+     * This is called by @ReplayCommandLog.
+     * @param replayLimit
+     */
+    public void setReplayLimit(long replayLimit) {
+        synchronized (this.replayLimitLock) {
+            if (replayLimit > this.replayLimit) {
+                this.replayLimit = replayLimit;
+                this.replayLimitLock.notifyAll();
+            }
+        } // SYNCH
+    }
+
+    /**
+     * All of the txns in this site's log with an id less than the returned value
+     * are finished. This is Long.MAX_VALUE once the entire log has been replayed.
+     */
+    public long getReplayedTo() {
+        return (this.replayedTo);
+    }
+
+    /**
+     * Return the id of the first multi-partition txn in this site's log that is at or after
+     * the given txn id, or Long.MAX_VALUE if there isn't one. Returns null if we haven't
+     * scanned the log yet.
+     * @param txnId
+     */
+    public Long getNextMultiPartitionTxnId(long txnId) {
+        long txnIds[] = this.multiPartitionTxnIds;
+        if (txnIds == null) return (null);
+        int idx = Arrays.binarySearch(txnIds, txnId);
+        if (idx < 0) idx = -(idx + 1);
+        return (idx < txnIds.length ? txnIds[idx] : Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns true if this site has finished replaying its command log
+     */
+    public boolean isFinished() {
+        return (this.finished.getCount() == 0);
+    }
+
+    @Override
+    public void run() {
+        Thread self = Thread.currentThread();
+        self.setName(HStoreThreadManager.getThreadName(hstore_site, "recovery"));
+
+        try {
+            List<File> files = this.getArchivedLogs();
+            if (files.isEmpty()) {
+                LOG.info("No command logs for " + hstore_site.getSiteName() + " were found in " + this.recoveryDir + ". Skipping replay");
+                this.multiPartitionTxnIds = new long[0];
+                this.replayedTo = Long.MAX_VALUE;
+            } else {
+                this.multiPartitionTxnIds = this.scanMultiPartitionTxnIds(files, this.snapshotTxnId);
+                this.replay(files, this.snapshotTxnId);
+            }
+
+            // Mark the recovery as complete by moving our archived logs out of the way
+            File done = new File(this.recoveryDir.getParentFile(), REPLAYED_DIRECTORY_PREFIX + System.currentTimeMillis());
+            done.mkdirs();
+            for (File f : getLogFiles(new File(this.recoveryDir, this.logFile.getName()))) {
+                if (f.renameTo(new File(done, f.getName())) == false) {
+                    LOG.warn("Failed to move replayed command log " + f + " to " + done);
+                }
+            } // FOR
+            this.success = true;
+        } catch (RuntimeException ex) {
+            // We can't let the site keep going if it only has part of the database
+            LOG.fatal("Failed to replay the command logs from " + this.recoveryDir, ex);
+            hstore_site.getHStoreCoordinator().shutdownCluster(ex);
+        } finally {
+            this.finished.countDown();
+        }
+    }
+
+    /**
+     * Find the latest snapshot in the given directory and load it with @SnapshotRestore
+     * @param snapshotDir
+     * @return The id of the txn that took the snapshot, or -1 if there was no snapshot
+     */
+    protected long restoreSnapshot(File snapshotDir) {
+        Map<Long, SnapshotUtil.Snapshot> snapshots = new HashMap<Long, SnapshotUtil.Snapshot>();
+        if (snapshotDir.exists()) {
+            SnapshotUtil.retrieveSnapshotFiles(snapshotDir, snapshots, new SnapshotUtil.SnapshotFilter(), 0, false);
+        }
+        Long snapshotTime = null;
+        for (Long time : snapshots.keySet()) {
+            if (snapshots.get(time).m_digests.isEmpty()) continue;
+            if (snapshotTime == null || time.compareTo(snapshotTime) > 0) snapshotTime = time;
+        } // FOR
+        if (snapshotTime == null) {
+            LOG.warn("No snapshots were found in " + snapshotDir + ". Replaying the entire command log");
+            return (-1);
+        }
+
+        SnapshotUtil.Snapshot snapshot = snapshots.get(snapshotTime);
+        File digest = snapshot.m_digests.get(0);
+        String nonce = digest.getName().substring(0, digest.getName().length() - ".digest".length());
+        long snapshotTxnId = snapshot.m_txnId;
+        if (snapshotTxnId < 0) {
+            // The digest was written before we started recording the snapshot's txn id, so
+            // the best that we can do is to start with the txns that began after it was taken
+            LOG.warn(String.format("Snapshot '%s' does not have a txn id. Replaying all txns that started after %d",
+                                   nonce, snapshotTime));
+            snapshotTxnId = TransactionIdManager.makeIdFromComponents(snapshotTime.longValue(), 0, 0);
+        }
+        LOG.info(String.format("Restoring snapshot '%s' from %s [snapshotTime=%d, snapshotTxnId=%d]",
+                               nonce, digest.getParent(), snapshotTime, snapshotTxnId));
+
+        long start = System.currentTimeMillis();
+        StoredProcedureInvocation invocation = new StoredProcedureInvocation(this.clientHandle++, "@SnapshotRestore",
+                                                                             digest.getParent(), nonce, 0l);
+        Status status = this.defaultReplayer.replayTxn(invocation, true, false).getStatus();
+        if (status != Status.OK) {
+            // Everything before the snapshot is missing from the command log, so we can't keep going
+            throw new RuntimeException(String.format("Failed to restore snapshot '%s' [status=%s]", nonce, status));
+        }
+        LOG.info(String.format("Restored snapshot '%s' in %.2f sec", nonce, (System.currentTimeMillis() - start) / 1000d));
+        return (snapshotTxnId);
+    }
+
+    /**
+     * Return the sorted ids of the multi-partition txns in the given command log files
+     * that came after the given snapshot txn
+     * @param files
+     * @param snapshotTxnId
+     */
+    protected long[] scanMultiPartitionTxnIds(List<File> files, long snapshotTxnId) {
+        List<Long> txnIds = new ArrayList<Long>();
+        CommandLogReader reader = new CommandLogReader(files);
+        for (LogEntry entry : reader) {
+            if (entry.txnId.longValue() <= snapshotTxnId) continue;
+            String procName = reader.procedures.get(entry.procId);
+            Procedure catalog_proc = (procName != null ? hstore_site.getDatabase().getProcedures().get(procName) : null);
+            if (catalog_proc != null && catalog_proc.getSinglepartition() == false) {
+                txnIds.add(entry.txnId);
+            }
+        } // FOR
+        long result[] = new long[txnIds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = txnIds.get(i).longValue();
+        } // FOR
+        Arrays.sort(result);
+        if (debug.get()) LOG.debug(String.format("Found %d multi-partition txns in the command logs for %s",
+                                                 result.length, hstore_site.getSiteName()));
+        return (result);
+    }
+
+    /**
+     * Replay all of the transactions in the given command log files that came after
+     * the given snapshot txn. Each single-partition txn is handed off to the replayer for its
+     * base partition. Multi-partition txns wait for all of the replayers to drain.
+     * @param files
+     * @param snapshotTxnId
+     */
+    protected void replay(List<File> files, long snapshotTxnId) {
+        LOG.info(String.format("Replaying %d command log files from %s [partitions=%d, snapshotTxnId=%d]",
+                               files.size(), this.recoveryDir, this.replayers.size(), snapshotTxnId));
+        CommandLogReader reader = new CommandLogReader(files);
+        long start = System.currentTimeMillis();
+        int skipped = 0;
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (PartitionReplayer replayer : this.replayers.values()) {
+            Thread t = new Thread(replayer);
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        } // FOR
+
+        try {
+            for (LogEntry entry : reader) {
+                this.checkError();
+
+                // The txn was already included in the snapshot
+                if (entry.txnId.longValue() <= snapshotTxnId) {
+                    skipped++;
+                    continue;
+                }
+                this.waitForReplayLimit(entry.txnId.longValue());
+
+                String procName = reader.procedures.get(entry.procId);
+                Procedure catalog_proc = (procName != null ? hstore_site.getDatabase().getProcedures().get(procName) : null);
+                if (catalog_proc == null) {
+                    LOG.warn(String.format("Unable to replay %s from the command log: Unknown procedure '%s'", entry, procName));
+                    continue;
+                }
+                StoredProcedureInvocation invocation = new StoredProcedureInvocation(this.clientHandle++,
+                                                                                     catalog_proc.getName(),
+                                                                                     entry.procParams.toArray());
+                // The txn keeps its original id even if it gets redirected to another site
+                invocation.setReplayTxnId(entry.txnId.longValue());
+                PartitionReplayer replayer = this.getReplayer(catalog_proc, invocation);
+                if (catalog_proc.getSinglepartition()) {
+                    this.singlePartitioned++;
+                    replayer.queue.add(invocation);
+                }
+                // Multi-partition txns have to wait until everything else is done before
+                // they can go, and then nobody else can go until they're finished
+                else {
+                    this.multiPartitioned++;
+                    this.barrier();
+                    replayer.replayTxn(invocation, true, true);
+                }
+            } // FOR
+            this.barrier();
+            this.replayedTo = Long.MAX_VALUE;
+        } finally {
+            for (PartitionReplayer replayer : this.replayers.values()) {
+                replayer.queue.add(STOP);
+            } // FOR
+            for (Thread t : threads) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException("Interrupted while waiting for the replay threads to stop", ex);
+                }
+            } // FOR
+        }
+
+        double elapsed = (System.currentTimeMillis() - start) / 1000d;
+        int total = this.replayed.get();
+        LOG.info(String.format("Replayed %d txns from the command log in %.2f sec [%.1f txn/s, singleP=%d, multiP=%d, aborted=%d, skipped=%d]",
+                               total, elapsed, (elapsed > 0 ? total / elapsed : 0d),
+                               this.singlePartitioned, this.multiPartitioned, this.aborted.get(), skipped));
+    }
+
+    /**
+     * Return the replayer for the given txn's base partition and embed that partition
+     * in the invocation so that the HStoreSite doesn't have to figure it out again.
+     * If the base partition is not at this site, then we let the HStoreSite redirect it.
+     */
+    private PartitionReplayer getReplayer(Procedure catalog_proc, StoredProcedureInvocation invocation) {
+        Integer base_partition = null;
+        try {
+            base_partition = this.p_estimator.getBasePartition(catalog_proc, invocation);
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed to calculate the base partition for replayed " + catalog_proc.getName(), ex);
+        }
+        PartitionReplayer replayer = (base_partition != null ? this.replayers.get(base_partition) : null);
+        if (replayer == null) return (this.defaultReplayer);
+        invocation.setBasePartition(base_partition.intValue());
+        return (replayer);
+    }
+
+    /**
+     * If the given txn is not below the replay limit, then wait for all of the txns that came
+     * before it to finish and then block until the coordinator moves the limit past it
+     * @param txnId
+     */
+    private void waitForReplayLimit(long txnId) {
+        if (txnId < this.replayLimit) return;
+        this.barrier();
+        this.replayedTo = txnId;
+        if (trace.get()) LOG.trace(String.format("Waiting for the replay limit to move past txn #%d", txnId));
+        synchronized (this.replayLimitLock) {
+            while (txnId >= this.replayLimit) {
+                this.checkError();
+                try {
+                    this.replayLimitLock.wait(REPLAY_LIMIT_WAIT_INTERVAL);
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException("Interrupted while waiting for the command log replay limit", ex);
+                }
+            } // WHILE
+        } // SYNCH
+    }
+
+    /**
+     * Block until all of the replayers have finished everything that was
+     * added to their queues so far
+     */
+    private void barrier() {
+        CountDownLatch latch = new CountDownLatch(this.replayers.size());
+        for (PartitionReplayer replayer : this.replayers.values()) {
+            replayer.queue.add(latch);
+        } // FOR
+        await(latch);
+        this.checkError();
+    }
+
+    private void fail(Throwable ex) {
+        RuntimeException rex = (ex instanceof RuntimeException ? (RuntimeException)ex : new RuntimeException(ex));
+        this.error.compareAndSet(null, rex);
+    }
+
+    private void checkError() {
+        RuntimeException ex = this.error.get();
+        if (ex != null) throw ex;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException("Interrupted while waiting for replayed txns to finish", ex);
+        }
+    }
+}
@@ -0,0 +1,648 @@
+/***************************************************************************
+ *   Copyright (C) 2012 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+package edu.brown.hstore.wal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.exceptions.ServerFaultException;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.utils.DBBPool.BBContainer;
+
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.HStoreThreadManager;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.dtxn.LocalTransaction;
+import edu.brown.hstore.interfaces.Shutdownable;
+import edu.brown.hstore.wal.CommandLogWriter.WriterLogEntry;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.ProfileMeasurement;
+
+/**
+ * A single command log stream for a group of local partitions.
+ * Each stream has its own writer thread and its own set of segment files
+ * so that multiple streams at the same HStoreSite can fsync in parallel.
+ * Every segment file is a self-contained group commit log that can be read
+ * back in with the CommandLogReader.
+ */
+public class CommandLogStream implements Shutdownable {
+    private static final Logger LOG = Logger.getLogger(CommandLogStream.class);
+    private final static LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private final static LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * The serialized entries for a single partition in this stream.
+     * The partition's execution thread serializes each LogEntry into the active buffer
+     * as soon as it is appended. The writer thread swaps the active and flushing buffers
+     * when it's ready to write out the next batch, so the entries are only serialized once.
+     * The WriterLogEntries are reused once their responses have been sent back.
+     */
+    private class PartitionBuffer {
+        private FastSerializer active;
+        private FastSerializer flushing;
+        private List<WriterLogEntry> activeEntries = new ArrayList<WriterLogEntry>();
+        private List<WriterLogEntry> flushingEntries = new ArrayList<WriterLogEntry>();
+        private final List<WriterLogEntry> freeEntries = new ArrayList<WriterLogEntry>();
+
+        /**
+         * When the oldest entry in the active buffer was appended (System.nanoTime())
+         */
+        private long firstAppendTime;
+
+        private PartitionBuffer() {
+            this.active = new FastSerializer(hstore_site.getBufferPool());
+            this.flushing = new FastSerializer(hstore_site.getBufferPool());
+        }
+
+        /**
+         * Return a WriterLogEntry for a new txn in the active buffer.
+         * The caller must hold this buffer's lock.
+         */
+        private WriterLogEntry nextEntry(long appendTime) {
+            if (this.activeEntries.isEmpty()) this.firstAppendTime = appendTime;
+            int size = this.freeEntries.size();
+            return (size > 0 ? this.freeEntries.remove(size - 1) : new WriterLogEntry());
+        }
+
+        /**
+         * Swap the active and flushing buffers.
+         * Returns the number of entries that are now in the flushing buffer
+         */
+        private int swap() {
+            FastSerializer fs = this.flushing;
+            this.flushing = this.active;
+            this.active = fs;
+            List<WriterLogEntry> entries = this.flushingEntries;
+            this.flushingEntries = this.activeEntries;
+            this.activeEntries = entries;
+            this.firstAppendTime = 0;
+            return (this.flushingEntries.size());
+        }
+    } // CLASS
+
+    /**
+     * Separate thread for writing out entries to this stream's log
+     */
+    protected class StreamWriterThread extends Thread {
+        {
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            Thread self = Thread.currentThread();
+            self.setName(HStoreThreadManager.getThreadName(hstore_site, "wal", Integer.toString(stream_id)));
+            if (hstore_conf.site.cpu_affinity)
+                hstore_site.getThreadManager().registerWALThread(partitions);
+
+            List<WriterLogEntry> batch = new ArrayList<WriterLogEntry>();
+            while (true) {
+                try {
+                    synchronized (signal) {
+                        waitingFor = 1;
+                        while (pending.get() == 0 && stop == false) {
+                            signal.wait(hstore_conf.site.exec_command_logging_group_commit_timeout);
+                        } // WHILE
+                    } // SYNCH
+                    if (pending.get() == 0) {
+                        if (stop) break;
+                        continue;
+                    }
+
+                    // If we have a commit latency target, then the AdaptiveGroupCommit
+                    // policy tells us how many entries to wait for and how long the
+                    // first entry in the batch is allowed to wait for them.
+                    // If group commit is enabled, then we will wait until either we
+                    // have enough entries in our batch or our timeout expires.
+                    // Otherwise we will just write out whatever is in the buffers right now
+                    int target = 1;
+                    long deadline = 0;
+                    if (policy != null) {
+                        target = policy.getBatchSize();
+                        deadline = getFirstAppendTime() + policy.getMaxWait();
+                    } else if (group_commit_size > 1) {
+                        target = group_commit_size;
+                        deadline = System.nanoTime() + hstore_conf.site.exec_command_logging_group_commit_timeout * 1000000l;
+                    }
+                    synchronized (signal) {
+                        waitingFor = target;
+                        while (pending.get() < target && stop == false) {
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0) break;
+                            signal.wait(remaining / 1000000, (int)(remaining % 1000000));
+                        } // WHILE
+                        waitingFor = Integer.MAX_VALUE;
+                    } // SYNCH
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException("WAL stream writer thread interrupted while waiting for new entries", ex);
+                }
+
+                groupCommit(batch);
+                batch.clear();
+                if (stop && pending.get() == 0) break;
+            } // WHILE
+        }
+    }
+
+    private final HStoreSite hstore_site;
+    private final HStoreConf hstore_conf;
+    private final int stream_id;
+    private final Collection<Integer> partitions;
+    private final File directory;
+    private final String prefix;
+    private final int group_commit_size;
+    private final long segment_size;
+    private final long segment_time;
+    private final FastSerializer serializer;
+    private final PartitionBuffer buffers[];
+    private final PartitionBuffer partitionBuffers[];
+    private final ByteBuffer blocks[];
+    private final LogBlockWriter blockWriter;
+    private final StreamWriterThread writerThread;
+    private final AdaptiveGroupCommit policy;
+    private volatile boolean stop = false;
+
+    /**
+     * The number of entries in all of the active partition buffers.
+     * The writer thread waits on the signal object until there is something to write.
+     * The appending threads will only poke it when the first entry shows up or
+     * when there are as many entries as the writer is waiting for.
+     */
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private final Object signal = new Object();
+    private volatile int waitingFor = Integer.MAX_VALUE;
+
+    /**
+     * The current segment that we are writing to
+     */
+    private FileChannel fstream;
+    private File segmentFile;
+    private int segmentCounter = -1;
+    private long segmentBytes = 0;
+    private long segmentStart = 0;
+
+    private int commitBatchCounter = 0;
+    
+    /**
+     * Group commit statistics (all times are in nanoseconds)
+     */
+    private long statsEntries = 0;
+    private int statsLastBatchSize = 0;
+    private long statsFsyncTime = 0;
+    private long statsFsyncMax = 0;
+    private long statsQueueDelay = 0;
+    private long statsQueueDelayMax = 0;
+    
+    private final ProfileMeasurement writingTime;
+    private final ProfileMeasurement networkTime;
+
+    /**
+     * Constructor
+     * @param hstore_site
+     * @param stream_id
+     * @param partitions The local partitions that will write to this stream
+     * @param directory The directory where the segment files will be written
+     * @param prefix The file name prefix for all of the segment files in this stream
+     */
+    public CommandLogStream(HStoreSite hstore_site, int stream_id, Collection<Integer> partitions, File directory, String prefix) {
+        this.hstore_site = hstore_site;
+        this.hstore_conf = hstore_site.getHStoreConf();
+        this.stream_id = stream_id;
+        this.partitions = partitions;
+        this.directory = directory;
+        this.prefix = prefix;
+        this.group_commit_size = Math.max(1, hstore_conf.site.exec_command_logging_group_commit);
+        this.segment_size = hstore_conf.site.exec_command_logging_segment_size * 1048576l;
+        this.segment_time = hstore_conf.site.exec_command_logging_segment_time;
+        this.serializer = new FastSerializer(true, true);
+        this.blockWriter = new LogBlockWriter(hstore_conf.site.exec_command_logging_compression);
+
+        this.buffers = new PartitionBuffer[partitions.size()];
+        this.blocks = new ByteBuffer[partitions.size()];
+        this.partitionBuffers = new PartitionBuffer[hstore_site.getLocalPartitionIds().size()];
+        int i = 0;
+        for (Integer partition : partitions) {
+            this.buffers[i] = new PartitionBuffer();
+            this.partitionBuffers[hstore_site.getLocalPartitionOffset(partition.intValue())] = this.buffers[i];
+            i++;
+        } // FOR
+        
+        if (hstore_conf.site.exec_command_logging_latency_target > 0) {
+            int max_size = (hstore_conf.site.exec_command_logging_group_commit > 0 ?
+                                hstore_conf.site.exec_command_logging_group_commit : Integer.MAX_VALUE);
+            this.policy = new AdaptiveGroupCommit(hstore_conf.site.exec_command_logging_latency_target * 1000000l, max_size);
+        } else {
+            this.policy = null;
+        }
+
+        if (hstore_conf.site.exec_command_logging_profile) {
+            this.writingTime = new ProfileMeasurement("WRITING");
+            this.networkTime = new ProfileMeasurement("NETWORK");
+        } else {
+            this.writingTime = null;
+            this.networkTime = null;
+        }
+
+        this.directory.mkdirs();
+        this.rotate();
+
+        this.writerThread = new StreamWriterThread();
+        this.writerThread.start();
+    }
+
+    /**
+     * Return the name of the segment file for the given stream + segment counter.
+     * The names are constructed such that sorting them lexicographically will
+     * return them in the order that they were written.
+     * @param prefix
+     * @param stream_id
+     * @param segment
+     * @return
+     */
+    public static String getSegmentFileName(String prefix, int stream_id, int segment) {
+        return String.format("%s-s%03d.%06d.log", prefix, stream_id, segment);
+    }
+
+    // ----------------------------------------------------------------------------
+    // SHUTDOWN METHODS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public void prepareShutdown(boolean error) {
+        // We don't want to interrupt the writer thread here because that will
+        // close the FileChannel if it is in the middle of writing. The thread
+        // will notice that we've stopped once it wakes up.
+        this.stop = true;
+        synchronized (this.signal) {
+            this.signal.notify();
+        } // SYNCH
+    }
+
+    /**
+     * Wait until all of the entries queued in this stream have been
+     * written out to disk and the writer thread has stopped.
+     */
+    public void finishAndPrepareShutdown() {
+        this.prepareShutdown(false);
+        try {
+            this.writerThread.join();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException("Interrupted while waiting for WAL stream #" + this.stream_id + " to finish", ex);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (debug.get()) LOG.debug(String.format("Closing WAL stream #%d", this.stream_id));
+        this.finishAndPrepareShutdown();
+        try {
+            this.fstream.close();
+        } catch (IOException ex) {
+            String message = "Failed to close WAL stream #" + this.stream_id;
+            throw new ServerFaultException(message, ex);
+        }
+    }
+
+    @Override
+    public boolean isShuttingDown() {
+        return (this.stop);
+    }
+
+    // ----------------------------------------------------------------------------
+    // UTILITY METHODS
+    // ----------------------------------------------------------------------------
+
+    public int getStreamId() {
+        return (this.stream_id);
+    }
+    public Collection<Integer> getPartitions() {
+        return (this.partitions);
+    }
+    public File getSegmentFile() {
+        return (this.segmentFile);
+    }
+    public int getSegmentCounter() {
+        return (this.segmentCounter);
+    }
+    public int getQueueSize() {
+        return (this.pending.get());
+    }
+    public AdaptiveGroupCommit getGroupCommitPolicy() {
+        return (this.policy);
+    }
+    /**
+     * Return the number of batches that have been written to disk
+     */
+    public synchronized int getBatchCount() {
+        return (this.commitBatchCounter);
+    }
+    /**
+     * Return the average number of entries in each batch
+     */
+    public synchronized double getAverageBatchSize() {
+        return (this.commitBatchCounter > 0 ? this.statsEntries / (double)this.commitBatchCounter : 0d);
+    }
+    public synchronized int getLastBatchSize() {
+        return (this.statsLastBatchSize);
+    }
+    /**
+     * Return the average time to write and fsync a batch (in milliseconds)
+     */
+    public synchronized double getAverageFsyncTimeMS() {
+        return (this.commitBatchCounter > 0 ? this.statsFsyncTime / (double)this.commitBatchCounter / 1000000d : 0d);
+    }
+    public synchronized double getMaxFsyncTimeMS() {
+        return (this.statsFsyncMax / 1000000d);
+    }
+    /**
+     * Return the average time that an entry waited in the queue before
+     * its batch was written out (in milliseconds)
+     */
+    public synchronized double getAverageQueueDelayMS() {
+        return (this.statsEntries > 0 ? this.statsQueueDelay / (double)this.statsEntries / 1000000d : 0d);
+    }
+    public synchronized double getMaxQueueDelayMS() {
+        return (this.statsQueueDelayMax / 1000000d);
+    }
+    /**
+     * Return the ratio of the bytes written to disk to the serialized size of the entries
+     */
+    public double getCompressionRatio() {
+        return (this.blockWriter.getCompressionRatio());
+    }
+    public ProfileMeasurement getWritingTime() {
+        return (this.writingTime);
+    }
+    public ProfileMeasurement getNetworkTime() {
+        return (this.networkTime);
+    }
+
+    // ----------------------------------------------------------------------------
+    // WRITING METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Queue a completed transaction to be written out to this stream.
+     * The ClientResponse will be sent back to the client once the entry
+     * has been flushed to disk.
+     * @param ts
+     * @param cresponse
+     */
+    public void append(LocalTransaction ts, ClientResponseImpl cresponse) {
+        assert(this.partitions.contains(ts.getBasePartition())) :
+            String.format("Trying to write %s to WAL stream #%d but its base partition %d is not in %s",
+                          ts, this.stream_id, ts.getBasePartition(), this.partitions);
+        PartitionBuffer buffer = this.partitionBuffers[hstore_site.getLocalPartitionOffset(ts.getBasePartition())];
+        long appendTime = System.nanoTime();
+
+        // Only the partition's thread ever appends to its buffer, so the only
+        // time that we will block here is when the writer thread is swapping it
+        int count;
+        synchronized (buffer) {
+            WriterLogEntry entry = buffer.nextEntry(appendTime);
+            entry.init(ts, cresponse);
+            entry.appendTime = appendTime;
+            try {
+                buffer.active.writeObject(entry);
+            } catch (IOException ex) {
+                String message = "Failed to serialize WAL entry for " + ts;
+                throw new ServerFaultException(message, ex, ts.getTransactionId());
+            }
+            buffer.activeEntries.add(entry);
+            count = this.pending.incrementAndGet();
+        } // SYNCH
+        if (count == 1 || count >= this.waitingFor) {
+            synchronized (this.signal) {
+                this.signal.notify();
+            } // SYNCH
+        }
+    }
+
+    /**
+     * Append a batch of finished transactions that all have the same base partition.
+     * The partition's buffer is only locked once and the writer thread is signaled
+     * at most once for the entire batch.
+     * @param txns
+     * @param cresponses
+     */
+    public void append(List<LocalTransaction> txns, List<ClientResponseImpl> cresponses) {
+        assert(txns.size() == cresponses.size());
+        if (txns.isEmpty()) return;
+        int basePartition = txns.get(0).getBasePartition();
+        assert(this.partitions.contains(basePartition)) :
+            String.format("Trying to write %s to WAL stream #%d but its base partition %d is not in %s",
+                          txns.get(0), this.stream_id, basePartition, this.partitions);
+        PartitionBuffer buffer = this.partitionBuffers[hstore_site.getLocalPartitionOffset(basePartition)];
+        long appendTime = System.nanoTime();
+        
+        int count = 0;
+        boolean first = false;
+        synchronized (buffer) {
+            for (int i = 0, cnt = txns.size(); i < cnt; i++) {
+                LocalTransaction ts = txns.get(i);
+                assert(ts.getBasePartition() == basePartition);
+                WriterLogEntry entry = buffer.nextEntry(appendTime);
+                entry.init(ts, cresponses.get(i));
+                entry.appendTime = appendTime;
+                try {
+                    buffer.active.writeObject(entry);
+                } catch (IOException ex) {
+                    String message = "Failed to serialize WAL entry for " + ts;
+                    throw new ServerFaultException(message, ex, ts.getTransactionId());
+                }
+                buffer.activeEntries.add(entry);
+                count = this.pending.incrementAndGet();
+                if (count == 1) first = true;
+            } // FOR
+        } // SYNCH
+        if (first || count >= this.waitingFor) {
+            synchronized (this.signal) {
+                this.signal.notify();
+            } // SYNCH
+        }
+    }
+
+    /**
+     * Return when the oldest entry that is still waiting in any of the active
+     * partition buffers was appended (System.nanoTime())
+     */
+    private long getFirstAppendTime() {
+        long now = System.nanoTime();
+        long oldest = now;
+        for (PartitionBuffer buffer : this.buffers) {
+            synchronized (buffer) {
+                if (buffer.activeEntries.isEmpty() == false && buffer.firstAppendTime - oldest < 0) {
+                    oldest = buffer.firstAppendTime;
+                }
+            } // SYNCH
+        } // FOR
+        return (oldest);
+    }
+
+    /**
+     * Close the current segment file and open up a new one.
+     * Each segment gets its own header so that it can be read independently.
+     */
+    private void rotate() {
+        if (this.fstream != null) {
+            try {
+                this.fstream.close();
+            } catch (IOException ex) {
+                String message = "Failed to close WAL segment " + this.segmentFile;
+                throw new ServerFaultException(message, ex);
+            }
+        }
+
+        this.segmentCounter++;
+        this.segmentFile = new File(this.directory, getSegmentFileName(this.prefix, this.stream_id, this.segmentCounter));
+        if (debug.get()) LOG.debug(String.format("Opening WAL stream #%d segment %s [partitions=%s]",
+                                                 this.stream_id, this.segmentFile, this.partitions));
+        FileOutputStream f = null;
+        try {
+            f = new FileOutputStream(this.segmentFile, false);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        this.fstream = f.getChannel();
+        this.segmentBytes = 0;
+        this.segmentStart = System.currentTimeMillis();
+
+        try {
+            this.serializer.clear();
+            CommandLogWriter.serializeHeader(this.serializer, this.hstore_site, true, this.blockWriter.isCompressed());
+            BBContainer b = this.serializer.getBBContainer();
+            this.segmentBytes += this.fstream.write(b.b.asReadOnlyBuffer());
+            this.fstream.force(true);
+        } catch (Exception ex) {
+            String message = "Failed to write log header for WAL segment " + this.segmentFile;
+            throw new ServerFaultException(message, ex);
+        }
+    }
+
+    /**
+     * Swap out all of the partition buffers and write their entries out to disk
+     * all at once. We then send back the ClientResponses for each of them.
+     * @param batch Scratch list that will be filled with the entries in this batch
+     */
+    private void groupCommit(List<WriterLogEntry> batch) {
+        int numBlocks = 0;
+        for (PartitionBuffer buffer : this.buffers) {
+            synchronized (buffer) {
+                if (buffer.activeEntries.isEmpty()) continue;
+                this.pending.addAndGet(-buffer.swap());
+            } // SYNCH
+            this.blocks[numBlocks++] = buffer.flushing.getBBContainer().b;
+            batch.addAll(buffer.flushingEntries);
+        } // FOR
+        if (numBlocks == 0) return;
+
+        if (this.writingTime != null) this.writingTime.start();
+        long batchStart = System.nanoTime();
+        long queueDelay = 0;
+        long queueDelayMax = 0;
+        long minTxnId = Long.MAX_VALUE;
+        for (WriterLogEntry entry : batch) {
+            long delay = batchStart - entry.appendTime;
+            queueDelay += delay;
+            if (delay > queueDelayMax) queueDelayMax = delay;
+            if (entry.txnId.longValue() < minTxnId) minTxnId = entry.txnId.longValue();
+        } // FOR
+
+        if (debug.get()) LOG.debug(String.format("Writing out %d blocks for %d txns to WAL stream #%d [batchCtr=%d]",
+                                                 numBlocks, batch.size(), this.stream_id, this.commitBatchCounter));
+        try {
+            this.segmentBytes += this.blockWriter.write(this.fstream, this.blocks, numBlocks, minTxnId);
+            this.fstream.force(true);
+        } catch (IOException ex) {
+            String message = "Failed to group commit for WAL stream #" + this.stream_id;
+            throw new ServerFaultException(message, ex);
+        } finally {
+            if (this.writingTime != null) this.writingTime.stop();
+        }
+        for (PartitionBuffer buffer : this.buffers) {
+            if (buffer.flushingEntries.isEmpty()) continue;
+            buffer.flushing.clear();
+        } // FOR
+        for (int i = 0; i < numBlocks; i++) {
+            this.blocks[i] = null;
+        } // FOR
+        long fsyncTime = System.nanoTime() - batchStart;
+        if (this.policy != null) this.policy.update(batch.size(), fsyncTime, batchStart);
+        synchronized (this) {
+            this.commitBatchCounter++;
+            this.statsEntries += batch.size();
+            this.statsLastBatchSize = batch.size();
+            this.statsFsyncTime += fsyncTime;
+            if (fsyncTime > this.statsFsyncMax) this.statsFsyncMax = fsyncTime;
+            this.statsQueueDelay += queueDelay;
+            if (queueDelayMax > this.statsQueueDelayMax) this.statsQueueDelayMax = queueDelayMax;
+        } // SYNCH
+
+        // Send responses
+        if (this.networkTime != null) this.networkTime.start();
+        for (WriterLogEntry entry : batch) {
+            hstore_site.sendClientResponse(entry.cresponse,
+                                           entry.clientCallback,
+                                           entry.initiateTime,
+                                           entry.restartCounter);
+            entry.finish();
+        } // FOR
+        if (this.networkTime != null) this.networkTime.stop();
+
+        // Now that nobody needs these entries anymore, we can give them back to their partitions
+        for (PartitionBuffer buffer : this.buffers) {
+            if (buffer.flushingEntries.isEmpty()) continue;
+            synchronized (buffer) {
+                buffer.freeEntries.addAll(buffer.flushingEntries);
+            } // SYNCH
+            buffer.flushingEntries.clear();
+        } // FOR
+
+        // Check whether it's time to move on to the next segment
+        if ((this.segment_size > 0 && this.segmentBytes >= this.segment_size) ||
+            (this.segment_time > 0 && System.currentTimeMillis() - this.segmentStart >= this.segment_time)) {
+            this.rotate();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WAL Stream #%d %s", this.stream_id, this.partitions);
+    }
+}
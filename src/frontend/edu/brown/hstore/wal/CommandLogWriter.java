@@ -30,6 +30,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Exchanger;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -42,7 +44,6 @@ import org.voltdb.ClientResponseImpl;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.exceptions.ServerFaultException;
 import org.voltdb.messaging.FastSerializer;
-import org.voltdb.utils.CompressionService;
 import org.voltdb.utils.DBBPool.BBContainer;
 
 import com.google.protobuf.RpcCallback;
@@ -69,16 +70,32 @@ public class CommandLogWriter implements Shutdownable {
         LoggerUtil.attachObserver(LOG, debug, trace);
     }
     
+    /**
+     * Every WAL file starts with this magic number followed by the format version.
+     * Logs written before the header was versioned start with the group commit
+     * flag instead (i.e., 0 or 1), so the first byte tells them apart.
+     */
+    public static final int LOG_MAGIC = 0x4853574C; // "HSWL"
+    
+    /**
+     * The current layout of the WAL files
+     *  0: No magic/version. Each group commit batch is a single compressed block
+     *  1: Compression flag in the header. Each group commit batch has a block count
+     *     followed by the length-prefixed blocks for each partition
+     *  2: Each group commit batch has the smallest txn id in the batch after its block count
+     */
+    public static final int LOG_FORMAT_VERSION = 2;
     
     /**
      * Special LogEntry that holds additional data that we
      * need in order to send back a ClientResponse
      */
-    protected class WriterLogEntry extends LogEntry {
+    protected static class WriterLogEntry extends LogEntry {
         protected ClientResponseImpl cresponse;
         protected RpcCallback<byte[]> clientCallback;
         protected long initiateTime;
         protected int restartCounter;
+        protected long appendTime;
         
         public LogEntry init(LocalTransaction ts, ClientResponseImpl cresponse) {
             this.cresponse = cresponse;
@@ -95,6 +112,7 @@ public class CommandLogWriter implements Shutdownable {
             this.clientCallback = null;
             this.initiateTime = -1;
             this.restartCounter = -1;
+            this.appendTime = -1;
         }
     }
     
@@ -120,7 +138,7 @@ public class CommandLogWriter implements Shutdownable {
         public FastSerializer getSerializer() {
             return this.fs;
         }
-        public LogEntry next(LocalTransaction ts, ClientResponseImpl cresponse) {
+        public LogEntry next(LocalTransaction ts, ClientResponseImpl cresponse) throws IOException {
             // TODO: The internal pointer to the next element does not need to be atomic
             // But we need to think about what happens if we are about to wrap around and we
             // haven't been flushed to disk yet.
@@ -130,12 +148,16 @@ public class CommandLogWriter implements Shutdownable {
             // I'm not sure it's possible though.
             LogEntry ret = this.buffer[nextPos].init(ts, cresponse); 
             nextPos = (nextPos + 1) % this.buffer.length;;
+            // Serialize the entry right away so that the writer thread can
+            // write out our buffer without having to copy it again
+            this.fs.writeObject(ret);
             return ret;
         }
         public void flushCleanup() {
             //for (int i = 0; i < this.getSize(); i++)
                 //this.buffer[(this.startPos + i) % this.buffer.length].finish();
             this.startPos = this.nextPos;
+            this.fs.clear();
         }
         public int getStart() {
             return startPos;
@@ -157,6 +179,8 @@ public class CommandLogWriter implements Shutdownable {
         public void run() {
             Thread self = Thread.currentThread();
             self.setName(HStoreThreadManager.getThreadName(hstore_site, "wal"));
+            if (hstore_conf.site.cpu_affinity)
+                hstore_site.getThreadManager().registerWALThread(null);
             
             while (!stop) {
                 try {
@@ -177,6 +201,7 @@ public class CommandLogWriter implements Shutdownable {
                     int permsFree = swapInProgress.drainPermits(); //Locks out other threads from starting the process
                     if (permsFree == group_commit_size) {
                         swapInProgress.release(group_commit_size);
+                        flushInProgress.set(false);
                         continue;
                     }
                     while (flushReady.get() < (group_commit_size - permsFree)) {} //Wait for the in progress slots to fill
@@ -197,6 +222,8 @@ public class CommandLogWriter implements Shutdownable {
     private final FileChannel fstream;
     private final int group_commit_size;
     private final FastSerializer singletonSerializer;
+    private final LogBlockWriter blockWriter;
+    private final ByteBuffer blocks[];
     private final LogEntry singletonLogEntry;
     private final AtomicBoolean flushInProgress = new AtomicBoolean(false);
     private final Semaphore swapInProgress;
@@ -204,7 +231,7 @@ public class CommandLogWriter implements Shutdownable {
     private final WriterThread flushThread;
     private final Exchanger<EntryBuffer[]> bufferExchange;
     private int commitBatchCounter = 0;
-    private boolean stop = false;
+    private volatile boolean stop = false;
     
     /**
      * The log entry buffers (one per partition) 
@@ -212,6 +239,13 @@ public class CommandLogWriter implements Shutdownable {
     private EntryBuffer entries[];
     private EntryBuffer entriesFlushing[];
     
+    /**
+     * The parallel log streams (only used if partitions_per_stream is greater than zero)
+     * The second array maps local partition offsets to their stream
+     */
+    private final CommandLogStream streams[];
+    private final CommandLogStream partitionStreams[];
+    
     private final ProfileMeasurement blockedTime;
     private final ProfileMeasurement writingTime;
     private final ProfileMeasurement networkTime;
@@ -228,6 +262,50 @@ public class CommandLogWriter implements Shutdownable {
         this.singletonSerializer = new FastSerializer(true, true);
         this.group_commit_size = Math.max(1, hstore_conf.site.exec_command_logging_group_commit); //Group commit threshold, or 1 if group commit is turned off
         
+        // PARALLEL LOG STREAMS
+        // Each group of partitions gets its own CommandLogStream with its own files and
+        // writer thread. We don't need any of the shared buffers below.
+        // If there is a commit latency target but no streams, then all of the
+        // partitions will share a single stream so that we can use the adaptive policy
+        if (hstore_conf.site.exec_command_logging_partitions_per_stream > 0 ||
+            hstore_conf.site.exec_command_logging_latency_target > 0) {
+            int num_partitions = hstore_site.getLocalPartitionIds().size();
+            int per_stream = hstore_conf.site.exec_command_logging_partitions_per_stream;
+            if (per_stream <= 0) per_stream = num_partitions;
+            int num_streams = (int)Math.ceil(num_partitions / (double)per_stream);
+            String prefix = getStreamPrefix(outputFile);
+            
+            this.streams = new CommandLogStream[num_streams];
+            this.partitionStreams = new CommandLogStream[num_partitions];
+            for (int stream_id = 0; stream_id < num_streams; stream_id++) {
+                List<Integer> partitions = new ArrayList<Integer>();
+                for (int offset = stream_id * per_stream; offset < Math.min(num_partitions, (stream_id+1) * per_stream); offset++) {
+                    partitions.add(hstore_site.getLocalPartitionFromOffset(offset));
+                } // FOR
+                this.streams[stream_id] = new CommandLogStream(hstore_site, stream_id, partitions,
+                                                               this.outputFile.getParentFile(), prefix);
+                for (int offset = stream_id * per_stream; offset < Math.min(num_partitions, (stream_id+1) * per_stream); offset++) {
+                    this.partitionStreams[offset] = this.streams[stream_id];
+                } // FOR
+            } // FOR
+            LOG.info(String.format("Command Log Directory: %s [streams=%d, partitionsPerStream=%d]",
+                                   this.outputFile.getParentFile(), num_streams, per_stream));
+            
+            this.swapInProgress = null;
+            this.flushReady = null;
+            this.bufferExchange = null;
+            this.flushThread = null;
+            this.singletonLogEntry = null;
+            this.blockWriter = null;
+            this.blocks = null;
+            this.fstream = null;
+            this.writingTime = null;
+            this.blockedTime = null;
+            this.networkTime = null;
+            return;
+        }
+        this.streams = null;
+        this.partitionStreams = null;
         
         if (hstore_conf.site.exec_command_logging_group_commit > 0) {
             this.swapInProgress = new Semaphore(group_commit_size, false); //False = not fair
@@ -245,12 +323,16 @@ public class CommandLogWriter implements Shutdownable {
             } // FOR
             this.flushThread = new WriterThread();
             this.singletonLogEntry = null;
+            this.blockWriter = new LogBlockWriter(hstore_conf.site.exec_command_logging_compression);
+            this.blocks = new ByteBuffer[num_partitions];
         } else {
             this.swapInProgress = null;
             this.flushReady = null;
             this.bufferExchange = null;
             this.flushThread = null;
             this.singletonLogEntry = new LogEntry();
+            this.blockWriter = null;
+            this.blocks = null;
         }
         
         
@@ -285,20 +367,85 @@ public class CommandLogWriter implements Shutdownable {
     }
     
 
+    /**
+     * Returns the file name prefix used for the segment files of each
+     * CommandLogStream, based on the name of the single WAL file.
+     * @param outputFile
+     * @return
+     */
+    public static String getStreamPrefix(File outputFile) {
+        String name = outputFile.getName();
+        int idx = name.lastIndexOf('.');
+        return (idx > 0 ? name.substring(0, idx) : name);
+    }
+    
+    /**
+     * Returns true if this writer is using parallel log streams
+     */
+    public boolean hasStreams() {
+        return (this.streams != null);
+    }
+    
+    /**
+     * Return the parallel log streams used by this writer
+     * Will be null if the writer is writing to a single log file
+     */
+    public CommandLogStream[] getStreams() {
+        return (this.streams);
+    }
+
     @Override
     public void prepareShutdown(boolean error) {
         this.stop = true;
-        this.flushThread.interrupt();
+        if (this.streams != null) {
+            for (CommandLogStream stream : this.streams) {
+                stream.prepareShutdown(error);
+            } // FOR
+        } else if (this.flushThread != null) {
+            this.flushThread.interrupt();
+        }
     }
     
-    //For use in test cases to make sure everything flushes
+    /**
+     * Wait until all of the entries that were appended to the log have been
+     * written out to disk. This includes the entries in a group commit batch
+     * that has not been filled yet.
+     */
     public void finishAndPrepareShutdown() {
         this.stop = true;
-        while(this.flushInProgress.get()) {} //wait until it's done running
+        if (this.streams != null) {
+            for (CommandLogStream stream : this.streams) {
+                stream.finishAndPrepareShutdown();
+            } // FOR
+            return;
+        }
+        if (this.flushThread == null) return;
+        
+        // Let the writer thread finish whatever batch it is working on. It won't
+        // pick up a new one once it sees that we've stopped
+        try {
+            this.flushThread.join();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException("Interrupted while waiting for the WAL writer thread to finish", ex);
+        }
+        
+        // Then commit the partially filled batch ourselves
+        int permsFree = this.swapInProgress.drainPermits();
+        while (this.flushReady.get() < (group_commit_size - permsFree)) {} //Wait for the in progress slots to fill
+        this.groupCommit(this.entries);
+        this.flushReady.set(0);
+        this.swapInProgress.release(group_commit_size);
+        this.flushInProgress.set(false);
     }
     
     @Override
     public void shutdown() {
+        if (this.streams != null) {
+            for (CommandLogStream stream : this.streams) {
+                stream.shutdown();
+            } // FOR
+            return;
+        }
         if (debug.get()) LOG.debug("Closing WAL file");
         try {
             this.fstream.close();
@@ -319,15 +466,8 @@ public class CommandLogWriter implements Shutdownable {
         assert(this.singletonSerializer != null);
         try {
             this.singletonSerializer.clear();
-            this.singletonSerializer.writeBoolean(hstore_conf.site.exec_command_logging_group_commit > 0);//Using group commit
-            this.singletonSerializer.writeInt(hstore_site.getDatabase().getProcedures().size());
-            
-            for (Procedure catalog_proc : hstore_site.getDatabase().getProcedures()) {
-                int procId = catalog_proc.getId();
-                this.singletonSerializer.writeInt(procId);
-                this.singletonSerializer.writeString(catalog_proc.getName());
-            } // FOR
-            
+            serializeHeader(this.singletonSerializer, hstore_site,
+                            this.blockWriter != null, this.blockWriter != null && this.blockWriter.isCompressed());
             BBContainer b = this.singletonSerializer.getBBContainer();
             this.fstream.write(b.b.asReadOnlyBuffer());
             this.fstream.force(true);
@@ -339,6 +479,27 @@ public class CommandLogWriter implements Shutdownable {
         return (true);
     }
     
+    /**
+     * Serialize the WAL header into the given FastSerializer
+     * @param fs
+     * @param hstore_site
+     * @param groupCommit Whether the entries that follow the header are written in group commit batches
+     * @param compressed Whether each block in a group commit batch is compressed
+     * @throws IOException
+     */
+    protected static void serializeHeader(FastSerializer fs, HStoreSite hstore_site, boolean groupCommit, boolean compressed) throws IOException {
+        fs.writeInt(LOG_MAGIC);
+        fs.writeInt(LOG_FORMAT_VERSION);
+        fs.writeBoolean(groupCommit);
+        if (groupCommit) fs.writeBoolean(compressed);
+        fs.writeInt(hstore_site.getDatabase().getProcedures().size());
+        for (Procedure catalog_proc : hstore_site.getDatabase().getProcedures()) {
+            int procId = catalog_proc.getId();
+            fs.writeInt(procId);
+            fs.writeString(catalog_proc.getName());
+        } // FOR
+    }
+    
     /**
      * GroupCommits the given buffer set all at once
      * @param eb
@@ -347,44 +508,39 @@ public class CommandLogWriter implements Shutdownable {
         if (hstore_conf.site.exec_command_logging_profile) this.writingTime.start();
         this.commitBatchCounter++;
         
-        //Write all to a single FastSerializer buffer
-        this.singletonSerializer.clear();
+        // The entries were already serialized into each partition's buffer
+        // when they were added, so we just need to write those out
+        int numBlocks = 0;
         int txnCounter = 0;
+        long minTxnId = Long.MAX_VALUE;
         for (int i = 0; i < eb.length; i++) {
             EntryBuffer buffer = eb[i];
-            try {
-                assert(this.singletonSerializer != null);
-                int start = buffer.getStart();
-                for (int j = 0, size = buffer.getSize(); j < size; j++) {
-                    WriterLogEntry entry = buffer.buffer[(start + j) % buffer.buffer.length];
-                    this.singletonSerializer.writeObject(entry);
-                    txnCounter++;
-                } // FOR
-                
-            } catch (Exception e) {
-                String message = "Failed to serialize buffer during group commit";
-                throw new ServerFaultException(message, e);
-            }
+            if (buffer.getSize() == 0) continue;
+            this.blocks[numBlocks++] = buffer.getSerializer().getBBContainer().b;
+            txnCounter += buffer.getSize();
+            int start = buffer.getStart();
+            for (int j = 0, size = buffer.getSize(); j < size; j++) {
+                long txnId = buffer.buffer[(start + j) % buffer.buffer.length].txnId.longValue();
+                if (txnId < minTxnId) minTxnId = txnId;
+            } // FOR
         } // FOR
-        
-        //Compress and force out to disk
-        //this.singletonSerializer.getBBContainer().b.flip();
-        ByteBuffer compressed;
-        try {
-            compressed = CompressionService.compressBufferForMessaging(this.singletonSerializer.getBBContainer().b);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to compress WAL buffer");
+        if (numBlocks == 0) {
+            if (hstore_conf.site.exec_command_logging_profile) this.writingTime.stop();
+            return;
         }
         
-        if (debug.get()) LOG.info(String.format("Writing out %d bytes for %d txns [batchCtr=%d]",
-                                                compressed.limit(), txnCounter, this.commitBatchCounter)); 
+        if (debug.get()) LOG.debug(String.format("Writing out %d blocks for %d txns [batchCtr=%d]",
+                                                 numBlocks, txnCounter, this.commitBatchCounter)); 
         try {
-            this.fstream.write(compressed);
+            this.blockWriter.write(this.fstream, this.blocks, numBlocks, minTxnId);
             this.fstream.force(true);
         } catch (IOException ex) {
             String message = "Failed to group commit for buffer";
             throw new ServerFaultException(message, ex);
         } finally {
+            for (int i = 0; i < numBlocks; i++) {
+                this.blocks[i] = null;
+            } // FOR
             if (hstore_conf.site.exec_command_logging_profile) this.writingTime.stop();
         }
         
@@ -418,7 +574,12 @@ public class CommandLogWriter implements Shutdownable {
 
         boolean sendResponse = true;
         
-        if (hstore_conf.site.exec_command_logging_group_commit > 0) { //GROUP COMMIT
+        if (this.streams != null) { //PARALLEL STREAMS
+            int offset = hstore_site.getLocalPartitionOffset(ts.getBasePartition());
+            this.partitionStreams[offset].append(ts, cresponse);
+            // The stream's writer thread will send out the response once it's on disk
+            sendResponse = false;
+        } else if (hstore_conf.site.exec_command_logging_group_commit > 0) { //GROUP COMMIT
             int basePartition = ts.getBasePartition();
             assert(hstore_site.isLocalPartition(basePartition));
             basePartition = hstore_site.getLocalPartitionOffset(basePartition);
@@ -434,7 +595,13 @@ public class CommandLogWriter implements Shutdownable {
             }
             
             //This is guaranteed to be thread-safe because there is only one thread per partition
-            LogEntry entry = buffer.next(ts, cresponse);
+            LogEntry entry = null;
+            try {
+                entry = buffer.next(ts, cresponse);
+            } catch (IOException ex) {
+                String message = "Failed to serialize log entry for " + ts.toString();
+                throw new ServerFaultException(message, ex, ts.getTransactionId());
+            }
             assert(entry != null);
             
             int place = 1 + flushReady.getAndIncrement(); //See how quick we were to finish
@@ -483,4 +650,64 @@ public class CommandLogWriter implements Shutdownable {
         return (sendResponse);
     }
     
+    /**
+     * Write a batch of completed transaction handles out to the WAL file.
+     * Returns true if all of the entries have been successfully written to disk
+     * and the HStoreSite needs to send out their ClientResponses. Without group
+     * commit the whole batch only needs a single fsync.
+     * @param txns
+     * @param cresponses
+     * @return
+     */
+    public boolean appendToLog(final List<LocalTransaction> txns, final List<ClientResponseImpl> cresponses) {
+        assert(txns.size() == cresponses.size());
+        if (debug.get()) LOG.debug(String.format("Writing out %d WAL entries for committed transactions", txns.size()));
+        
+        if (this.streams != null) { //PARALLEL STREAMS
+            int basePartition = txns.get(0).getBasePartition();
+            boolean samePartition = true;
+            for (LocalTransaction ts : txns) {
+                if (ts.getBasePartition() != basePartition) {
+                    samePartition = false;
+                    break;
+                }
+            } // FOR
+            if (samePartition) {
+                int offset = hstore_site.getLocalPartitionOffset(basePartition);
+                this.partitionStreams[offset].append(txns, cresponses);
+            } else {
+                for (int i = 0, cnt = txns.size(); i < cnt; i++) {
+                    this.appendToLog(txns.get(i), cresponses.get(i));
+                } // FOR
+            }
+            return (false);
+        } else if (hstore_conf.site.exec_command_logging_group_commit > 0) { //GROUP COMMIT
+            for (int i = 0, cnt = txns.size(); i < cnt; i++) {
+                this.appendToLog(txns.get(i), cresponses.get(i));
+            } // FOR
+            return (false);
+        }
+        
+        // NO GROUP COMMIT -- WRITE EVERYTHING AND THEN FSYNC ONCE
+        LocalTransaction ts = null;
+        try {
+            FastSerializer fs = this.singletonSerializer;
+            assert(fs != null);
+            for (int i = 0, cnt = txns.size(); i < cnt; i++) {
+                ts = txns.get(i);
+                fs.clear();
+                this.singletonLogEntry.init(ts);
+                fs.writeObject(this.singletonLogEntry);
+                BBContainer b = fs.getBBContainer();
+                this.fstream.write(b.b.asReadOnlyBuffer());
+                this.singletonLogEntry.finish();
+            } // FOR
+            this.fstream.force(true);
+        } catch (Exception e) {
+            String message = "Failed to write batched log entries for " + ts;
+            throw new ServerFaultException(message, e, (ts != null ? ts.getTransactionId() : null));
+        }
+        return (true);
+    }
+    
 }    
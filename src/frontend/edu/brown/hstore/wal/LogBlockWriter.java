@@ -0,0 +1,190 @@
+/***************************************************************************
+ *   Copyright (C) 2012 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+package edu.brown.hstore.wal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.voltdb.utils.CompressionService;
+
+/**
+ * Writes out a group commit batch of LogEntries that have already been serialized
+ * into one buffer per partition. Each buffer is written as a separate block that is
+ * prefixed by its length, and the batch itself is prefixed by the number of blocks
+ * and the smallest txn id in the batch.
+ * If compression is enabled, then each block is compressed on its own into a single
+ * reusable direct buffer. All of the blocks are then written out to the FileChannel with
+ * one gathering write, so we never copy the serialized entries into a combined buffer.
+ * <B>NOTE:</B> This class is not thread-safe. It should only be used by a single writer thread.
+ */
+public class LogBlockWriter {
+
+    private final boolean compress;
+
+    /**
+     * Length prefixes for the batch and each of its blocks.
+     * These are reused for every batch.
+     */
+    private final ByteBuffer batchHeader = ByteBuffer.allocateDirect(12);
+    private ByteBuffer blockHeaders[] = new ByteBuffer[0];
+
+    /**
+     * The array of buffers that we hand to the FileChannel
+     */
+    private ByteBuffer gather[] = new ByteBuffer[0];
+
+    /**
+     * The output buffer for the compressed blocks
+     */
+    private ByteBuffer compressed;
+
+    /**
+     * Pooled buffers are not always direct (e.g., if a partition's buffer grows beyond
+     * the largest DBBPool arena). Snappy can only compress direct buffers, so we
+     * have to copy those blocks in here first.
+     */
+    private ByteBuffer staging;
+
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+
+    public LogBlockWriter(boolean compress) {
+        this.compress = compress;
+        this.compressed = ByteBuffer.allocateDirect(1024 * 64);
+        this.staging = (compress ? ByteBuffer.allocateDirect(1024 * 64) : null);
+    }
+
+    public boolean isCompressed() {
+        return (this.compress);
+    }
+
+    /**
+     * Return the ratio of bytes written to disk to serialized bytes
+     */
+    public double getCompressionRatio() {
+        return (this.bytesIn > 0 ? this.bytesOut / (double)this.bytesIn : 1d);
+    }
+
+    private void ensureCapacity(int numBlocks) {
+        if (this.blockHeaders.length < numBlocks) {
+            ByteBuffer headers[] = new ByteBuffer[numBlocks];
+            System.arraycopy(this.blockHeaders, 0, headers, 0, this.blockHeaders.length);
+            for (int i = this.blockHeaders.length; i < numBlocks; i++) {
+                headers[i] = ByteBuffer.allocateDirect(4);
+            } // FOR
+            this.blockHeaders = headers;
+            this.gather = new ByteBuffer[1 + 2 * numBlocks];
+        }
+    }
+
+    /**
+     * Compress the given block into the next free region of our compressed output buffer
+     * and return a buffer for just that region.
+     */
+    private ByteBuffer compressBlock(ByteBuffer block, int offset) throws IOException {
+        ByteBuffer input = block;
+        if (input.isDirect() == false) {
+            if (this.staging.capacity() < block.remaining()) {
+                this.staging = ByteBuffer.allocateDirect(Math.max(this.staging.capacity() * 2, block.remaining()));
+            }
+            this.staging.clear();
+            this.staging.put(block.duplicate());
+            this.staging.flip();
+            input = this.staging;
+        }
+        this.compressed.limit(this.compressed.capacity());
+        this.compressed.position(offset);
+        ByteBuffer output = this.compressed.slice();
+        int size = CompressionService.compressBuffer(input, output);
+        output.position(0);
+        output.limit(size);
+        return (output);
+    }
+
+    /**
+     * Write out the given blocks as a single batch. Each block should be flipped so
+     * that its remaining bytes are the serialized entries. The contents of the blocks
+     * are never modified, so the caller can clear and reuse them once this returns.
+     * The caller is responsible for forcing the FileChannel out to disk.
+     * @param channel
+     * @param blocks
+     * @param numBlocks The number of blocks at the front of the array to write out
+     * @param minTxnId The smallest txn id of all the entries in the blocks
+     * @return The number of bytes written to the channel
+     * @throws IOException
+     */
+    public long write(FileChannel channel, ByteBuffer blocks[], int numBlocks, long minTxnId) throws IOException {
+        assert(numBlocks > 0);
+        this.ensureCapacity(numBlocks);
+
+        if (this.compress) {
+            int maxSize = 0;
+            for (int i = 0; i < numBlocks; i++) {
+                maxSize += CompressionService.maxCompressedLength(blocks[i].remaining());
+            } // FOR
+            if (this.compressed.capacity() < maxSize) {
+                this.compressed = ByteBuffer.allocateDirect(Math.max(this.compressed.capacity() * 2, maxSize));
+            }
+        }
+
+        this.batchHeader.clear();
+        this.batchHeader.putInt(numBlocks);
+        this.batchHeader.putLong(minTxnId);
+        this.batchHeader.flip();
+        this.gather[0] = this.batchHeader;
+        long total = this.batchHeader.remaining();
+
+        int offset = 0;
+        for (int i = 0; i < numBlocks; i++) {
+            ByteBuffer data = blocks[i];
+            this.bytesIn += data.remaining();
+            if (this.compress) {
+                data = this.compressBlock(data, offset);
+                offset += data.remaining();
+            }
+            this.bytesOut += data.remaining();
+
+            ByteBuffer header = this.blockHeaders[i];
+            header.clear();
+            header.putInt(data.remaining());
+            header.flip();
+            this.gather[1 + 2*i] = header;
+            this.gather[2 + 2*i] = data;
+            total += header.remaining() + data.remaining();
+        } // FOR
+
+        int length = 1 + 2 * numBlocks;
+        long written = 0;
+        while (written < total) {
+            written += channel.write(this.gather, 0, length);
+        } // WHILE
+        for (int i = 0; i < length; i++) {
+            this.gather[i] = null;
+        } // FOR
+        return (written);
+    }
+}
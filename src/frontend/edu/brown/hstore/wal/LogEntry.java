@@ -29,6 +29,7 @@ package edu.brown.hstore.wal;
 import java.io.IOException;
 
 import org.voltdb.ParameterSet;
+import org.voltdb.StoredProcedureInvocation;
 import org.voltdb.messaging.FastDeserializer;
 import org.voltdb.messaging.FastSerializable;
 import org.voltdb.messaging.FastSerializer;
@@ -50,7 +51,14 @@ public class LogEntry implements FastSerializable, Poolable {
     protected ParameterSet procParams;
     
     public LogEntry init(LocalTransaction ts) {
-        this.txnId = ts.getTransactionId();
+        // A txn that is being replayed from the command log keeps its original id
+        // so that it is not replayed twice if we crash again
+        StoredProcedureInvocation invocation = ts.getInvocation();
+        if (ts.isReplayed() && invocation != null && invocation.isReplay()) {
+            this.txnId = Long.valueOf(invocation.getReplayTxnId());
+        } else {
+            this.txnId = ts.getTransactionId();
+        }
         assert(this.txnId != null);
         this.procId = ts.getProcedure().getId();
         this.procParams = ts.getProcedureParameters();
@@ -0,0 +1,272 @@
+package edu.brown.markov;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.voltdb.catalog.Statement;
+import org.voltdb.types.QueryType;
+
+/**
+ * A read-only snapshot of a MarkovGraph that is laid out in dense arrays so that
+ * it can be searched by multiple MarkovPathEstimators at the same time without
+ * holding any locks. Every vertex is assigned an offset, and each vertex's outgoing
+ * edges are stored contiguously (sorted by their probability) in the edge arrays.
+ * The probabilities are copied when the snapshot is created, so any changes to the
+ * original graph will not be visible until it is compiled again.
+ */
+public class CompiledMarkovGraph {
+
+    private final MarkovGraph markov;
+    private final int num_vertices;
+    private final int num_edges;
+    private final int recompute_count;
+    private final long create_time;
+
+    // ----------------------------------------------------------------------------
+    // VERTEX ARRAYS
+    // ----------------------------------------------------------------------------
+
+    private final MarkovVertex vertices[];
+    private final IdentityHashMap<MarkovVertex, Integer> vertex_offsets;
+    private final int vertex_partitions[][];
+    private final boolean vertex_readonly[];
+    private final boolean vertex_terminal[];
+    private final float vertex_abort[];
+
+    /**
+     * Vertex Offset -> First Edge Offset
+     * The last entry is the total number of edges
+     */
+    private final int successor_offsets[];
+
+    // ----------------------------------------------------------------------------
+    // EDGE ARRAYS
+    // ----------------------------------------------------------------------------
+
+    private final MarkovEdge edges[];
+    private final int edge_targets[];
+    private final float edge_probabilities[];
+
+    // ----------------------------------------------------------------------------
+    // START VERTEX TABLES
+    // ----------------------------------------------------------------------------
+
+    private final int start_offset;
+    private final long start_total_hits;
+    private final float start_readonly[];
+    private final float start_write[];
+    private final float start_done[];
+
+    /**
+     * Create a new snapshot of the given graph
+     * The caller must hold the graph's lock so that nobody can add vertices/edges while this is running
+     * @param markov
+     */
+    public CompiledMarkovGraph(MarkovGraph markov) {
+        this.markov = markov;
+        this.recompute_count = markov.getRecomputeCount();
+        this.create_time = System.currentTimeMillis();
+
+        List<MarkovVertex> all_vertices = new ArrayList<MarkovVertex>(markov.getVertices());
+        this.num_vertices = all_vertices.size();
+        this.vertices = all_vertices.toArray(new MarkovVertex[this.num_vertices]);
+        this.vertex_offsets = new IdentityHashMap<MarkovVertex, Integer>(this.num_vertices);
+        this.vertex_partitions = new int[this.num_vertices][];
+        this.vertex_readonly = new boolean[this.num_vertices];
+        this.vertex_terminal = new boolean[this.num_vertices];
+        this.vertex_abort = new float[this.num_vertices];
+        this.successor_offsets = new int[this.num_vertices + 1];
+
+        for (int i = 0; i < this.num_vertices; i++) {
+            MarkovVertex v = this.vertices[i];
+            this.vertex_offsets.put(v, i);
+
+            Set<Integer> partitions = v.getPartitions();
+            int arr[] = new int[partitions.size()];
+            int j = 0;
+            for (Integer p : partitions) arr[j++] = p.intValue();
+            Arrays.sort(arr);
+            this.vertex_partitions[i] = arr;
+
+            this.vertex_terminal[i] = (v.isCommitVertex() || v.isAbortVertex());
+            Statement catalog_stmt = v.getCatalogItem();
+            this.vertex_readonly[i] = (catalog_stmt.getQuerytype() == QueryType.SELECT.getValue());
+            this.vertex_abort[i] = (v.isQueryVertex() ? v.getAbortProbability() : MarkovUtil.NULL_MARKER);
+        } // FOR
+
+        // Sort the outgoing edges for each vertex by their probabilities so that the
+        // first matching candidate will always be the most likely one
+        List<MarkovEdge> sorted = new ArrayList<MarkovEdge>();
+        List<MarkovEdge> all_edges = new ArrayList<MarkovEdge>();
+        Comparator<MarkovEdge> comparator = new Comparator<MarkovEdge>() {
+            @Override
+            public int compare(MarkovEdge e0, MarkovEdge e1) {
+                int cmp = Float.compare(e1.getProbability(), e0.getProbability());
+                if (cmp != 0) return (cmp);
+                // Don't subtract the hash codes, that can overflow
+                int h0 = e0.hashCode();
+                int h1 = e1.hashCode();
+                return (h0 < h1 ? -1 : (h0 > h1 ? 1 : 0));
+            }
+        };
+        for (int i = 0; i < this.num_vertices; i++) {
+            this.successor_offsets[i] = all_edges.size();
+            Collection<MarkovEdge> out_edges = markov.getOutEdges(this.vertices[i]);
+            if (out_edges == null || out_edges.isEmpty()) continue;
+            sorted.clear();
+            sorted.addAll(out_edges);
+            Collections.sort(sorted, comparator);
+            all_edges.addAll(sorted);
+        } // FOR
+        this.successor_offsets[this.num_vertices] = all_edges.size();
+
+        this.num_edges = all_edges.size();
+        this.edges = all_edges.toArray(new MarkovEdge[this.num_edges]);
+        this.edge_targets = new int[this.num_edges];
+        this.edge_probabilities = new float[this.num_edges];
+        for (int i = 0; i < this.num_edges; i++) {
+            MarkovEdge e = this.edges[i];
+            this.edge_targets[i] = this.vertex_offsets.get(markov.getDest(e));
+            this.edge_probabilities[i] = e.getProbability();
+        } // FOR
+
+        MarkovVertex start = markov.getStartVertex();
+        this.start_offset = this.vertex_offsets.get(start);
+        this.start_total_hits = start.getTotalHits();
+        int num_partitions = start.probabilities[MarkovVertex.Probability.READ_ONLY.ordinal()].length;
+        this.start_readonly = new float[num_partitions];
+        this.start_write = new float[num_partitions];
+        this.start_done = new float[num_partitions];
+        for (int p = 0; p < num_partitions; p++) {
+            this.start_readonly[p] = start.getReadOnlyProbability(p);
+            this.start_write[p] = start.getWriteProbability(p);
+            this.start_done[p] = start.getDoneProbability(p);
+        } // FOR
+    }
+
+    /**
+     * Returns true if the original graph has been changed since this snapshot was created
+     */
+    public boolean isStale() {
+        return (this.recompute_count != this.markov.getRecomputeCount() ||
+                this.num_vertices != this.markov.getVertexCount() ||
+                this.num_edges != this.markov.getEdgeCount());
+    }
+
+    /**
+     * Returns true if the original graph's probabilities have been recomputed since this snapshot was created
+     */
+    public boolean isRecomputed() {
+        return (this.recompute_count != this.markov.getRecomputeCount());
+    }
+
+    /**
+     * Returns the time (in milliseconds) when this snapshot was created
+     */
+    public long getCreateTime() {
+        return (this.create_time);
+    }
+
+    public MarkovGraph getMarkovGraph() {
+        return (this.markov);
+    }
+
+    // ----------------------------------------------------------------------------
+    // VERTEX METHODS
+    // ----------------------------------------------------------------------------
+
+    public int getVertexCount() {
+        return (this.num_vertices);
+    }
+
+    /**
+     * Returns the offset of the given vertex in this snapshot, or -1 if it does not exist
+     */
+    public int getVertexOffset(MarkovVertex v) {
+        Integer offset = this.vertex_offsets.get(v);
+        return (offset != null ? offset.intValue() : -1);
+    }
+    public MarkovVertex getVertex(int offset) {
+        return (this.vertices[offset]);
+    }
+    public int getStartOffset() {
+        return (this.start_offset);
+    }
+    /**
+     * Returns the sorted partition ids for the vertex at the given offset
+     * This array must not be modified
+     */
+    public int[] getPartitions(int offset) {
+        return (this.vertex_partitions[offset]);
+    }
+    public boolean isReadOnly(int offset) {
+        return (this.vertex_readonly[offset]);
+    }
+    /**
+     * Returns true if the vertex at the given offset is a COMMIT or ABORT vertex
+     */
+    public boolean isTerminal(int offset) {
+        return (this.vertex_terminal[offset]);
+    }
+    public float getAbortProbability(int offset) {
+        return (this.vertex_abort[offset]);
+    }
+
+    // ----------------------------------------------------------------------------
+    // EDGE METHODS
+    // ----------------------------------------------------------------------------
+
+    public int getEdgeCount() {
+        return (this.num_edges);
+    }
+
+    /**
+     * Returns the offset of the first outgoing edge for the vertex at the given offset
+     */
+    public int getFirstEdge(int offset) {
+        return (this.successor_offsets[offset]);
+    }
+    /**
+     * Returns the offset after the last outgoing edge for the vertex at the given offset
+     */
+    public int getLastEdge(int offset) {
+        return (this.successor_offsets[offset + 1]);
+    }
+    public MarkovEdge getEdge(int edge_offset) {
+        return (this.edges[edge_offset]);
+    }
+    public int getEdgeTarget(int edge_offset) {
+        return (this.edge_targets[edge_offset]);
+    }
+    public float getEdgeProbability(int edge_offset) {
+        return (this.edge_probabilities[edge_offset]);
+    }
+
+    // ----------------------------------------------------------------------------
+    // START VERTEX TABLES
+    // ----------------------------------------------------------------------------
+
+    public long getStartTotalHits() {
+        return (this.start_total_hits);
+    }
+    public float getStartReadOnlyProbability(int partition) {
+        return (this.start_readonly[partition]);
+    }
+    public float getStartWriteProbability(int partition) {
+        return (this.start_write[partition]);
+    }
+    public float getStartDoneProbability(int partition) {
+        return (this.start_done[partition]);
+    }
+
+    @Override
+    public String toString() {
+        return (String.format("%s{vertices=%d, edges=%d}", this.getClass().getSimpleName(), this.num_vertices, this.num_edges));
+    }
+}
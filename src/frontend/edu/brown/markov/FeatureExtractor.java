@@ -110,7 +110,7 @@ public class FeatureExtractor {
     public Map<Procedure, FeatureSet> calculate(Workload workload) throws Exception {
         Map<Procedure, FeatureSet> fsets = new HashMap<Procedure, FeatureSet>();
         
-        for (TransactionTrace txn_trace : workload.getTransactions()) {
+        for (TransactionTrace txn_trace : workload) {
             final boolean trace = LOG.isTraceEnabled();
             if (trace) LOG.trace("Processing " + txn_trace);
             
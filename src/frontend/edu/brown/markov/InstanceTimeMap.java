@@ -0,0 +1,193 @@
+package edu.brown.markov;
+
+/**
+ * Striped map from txn ids to timestamps that stores everything in primitive arrays.
+ * This is used by the online Markov models to record when each transaction reached a vertex
+ * without having to box every entry or lock the whole map.
+ */
+public class InstanceTimeMap {
+
+    /**
+     * The value returned by get() and remove() when a txn id does not have an entry
+     */
+    public static final long NULL_TIME = Long.MIN_VALUE;
+
+    private static final int NUM_STRIPES = 16;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+
+    /**
+     * Linear probing hash table with backward-shift deletion
+     */
+    private static final class Stripe {
+        private long keys[] = newKeys(INITIAL_CAPACITY);
+        private long values[] = new long[INITIAL_CAPACITY];
+        private int size = 0;
+
+        private static long[] newKeys(int capacity) {
+            long arr[] = new long[capacity];
+            for (int i = 0; i < capacity; i++) arr[i] = EMPTY_KEY;
+            return (arr);
+        }
+
+        private int indexOf(long key) {
+            int mask = this.keys.length - 1;
+            int idx = hash(key) & mask;
+            while (this.keys[idx] != EMPTY_KEY) {
+                if (this.keys[idx] == key) return (idx);
+                idx = (idx + 1) & mask;
+            } // WHILE
+            return (-1);
+        }
+
+        synchronized void put(long key, long value) {
+            if ((this.size + 1) * 2 > this.keys.length) this.resize(this.keys.length * 2);
+            int mask = this.keys.length - 1;
+            int idx = hash(key) & mask;
+            while (this.keys[idx] != EMPTY_KEY) {
+                if (this.keys[idx] == key) {
+                    this.values[idx] = value;
+                    return;
+                }
+                idx = (idx + 1) & mask;
+            } // WHILE
+            this.keys[idx] = key;
+            this.values[idx] = value;
+            this.size++;
+        }
+
+        synchronized long get(long key) {
+            int idx = this.indexOf(key);
+            return (idx == -1 ? NULL_TIME : this.values[idx]);
+        }
+
+        synchronized long remove(long key) {
+            int idx = this.indexOf(key);
+            if (idx == -1) return (NULL_TIME);
+            long value = this.values[idx];
+
+            // Shift back any entries that probed past the slot that we just freed
+            int mask = this.keys.length - 1;
+            int free = idx;
+            int next = (idx + 1) & mask;
+            while (this.keys[next] != EMPTY_KEY) {
+                int home = hash(this.keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - free) & mask)) {
+                    this.keys[free] = this.keys[next];
+                    this.values[free] = this.values[next];
+                    free = next;
+                }
+                next = (next + 1) & mask;
+            } // WHILE
+            this.keys[free] = EMPTY_KEY;
+            this.size--;
+            return (value);
+        }
+
+        synchronized int copyKeys(long dest[], int offset) {
+            for (int i = 0; i < this.keys.length; i++) {
+                if (this.keys[i] != EMPTY_KEY && offset < dest.length) dest[offset++] = this.keys[i];
+            } // FOR
+            return (offset);
+        }
+
+        synchronized void clear() {
+            this.keys = newKeys(INITIAL_CAPACITY);
+            this.values = new long[INITIAL_CAPACITY];
+            this.size = 0;
+        }
+
+        private void resize(int capacity) {
+            long old_keys[] = this.keys;
+            long old_values[] = this.values;
+            this.keys = newKeys(capacity);
+            this.values = new long[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < old_keys.length; i++) {
+                if (old_keys[i] == EMPTY_KEY) continue;
+                int idx = hash(old_keys[i]) & mask;
+                while (this.keys[idx] != EMPTY_KEY) idx = (idx + 1) & mask;
+                this.keys[idx] = old_keys[i];
+                this.values[idx] = old_values[i];
+            } // FOR
+        }
+    } // CLASS
+
+    private final Stripe stripes[] = new Stripe[NUM_STRIPES];
+
+    public InstanceTimeMap() {
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            this.stripes[i] = new Stripe();
+        } // FOR
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15l;
+        return ((int)(h ^ (h >>> 32)));
+    }
+
+    private Stripe getStripe(long txn_id) {
+        return (this.stripes[(hash(txn_id) >>> 28) & (NUM_STRIPES - 1)]);
+    }
+
+    public void put(long txn_id, long time) {
+        assert(txn_id != EMPTY_KEY);
+        this.getStripe(txn_id).put(txn_id, time);
+    }
+
+    /**
+     * Returns the time recorded for the given txn id, or NULL_TIME if there is none
+     */
+    public long get(long txn_id) {
+        return (this.getStripe(txn_id).get(txn_id));
+    }
+
+    /**
+     * Removes the entry for the given txn id and returns its time, or NULL_TIME if there was none
+     */
+    public long remove(long txn_id) {
+        return (this.getStripe(txn_id).remove(txn_id));
+    }
+
+    public boolean containsKey(long txn_id) {
+        return (this.get(txn_id) != NULL_TIME);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe s : this.stripes) {
+            synchronized (s) {
+                size += s.size;
+            } // SYNCH
+        } // FOR
+        return (size);
+    }
+
+    public boolean isEmpty() {
+        return (this.size() == 0);
+    }
+
+    public void clear() {
+        for (Stripe s : this.stripes) {
+            s.clear();
+        } // FOR
+    }
+
+    /**
+     * Returns a point-in-time copy of the txn ids in this map. Entries that are
+     * added while this method is running may or may not be included.
+     */
+    public long[] getTransactionIds() {
+        long ids[] = new long[this.size()];
+        int offset = 0;
+        for (Stripe s : this.stripes) {
+            offset = s.copyKeys(ids, offset);
+        } // FOR
+        if (offset < ids.length) {
+            long copy[] = new long[offset];
+            System.arraycopy(ids, 0, copy, 0, offset);
+            ids = copy;
+        }
+        return (ids);
+    }
+}
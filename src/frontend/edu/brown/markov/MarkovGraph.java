@@ -71,6 +71,12 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
      */
     public static final int MIN_HITS_FOR_NO_ABORT = 5;
     
+    /**
+     * The minimum amount of time (in milliseconds) between rebuilding the CompiledMarkovGraph
+     * when vertices/edges have been added but the probabilities have not been recomputed
+     */
+    public static final long COMPILE_INTERVAL = 1000;
+    
     // ----------------------------------------------------------------------------
     // INSTANCE DATA MEMBERS
     // ----------------------------------------------------------------------------
@@ -85,6 +91,8 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
     private transient double xact_accuracy = 1.0;
     /** How many times have we recomputed the probabilities for this graph */
     private transient int recompute_count = 0;
+    /** Read-only snapshot of this graph that is used by the MarkovPathEstimators */
+    private transient volatile CompiledMarkovGraph compiled = null;
 
     // ----------------------------------------------------------------------------
     // CONSTRUCTORS
@@ -241,6 +249,8 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
      * Increases the weight between two vertices. Creates an edge if one does
      * not exist, then increments the source vertex's count and the edge's count
      * 
+     * This only takes the graph's lock. Callers that also need a vertex's lock must
+     * acquire it before calling this method, never while already holding the graph's lock.
      * @param source the source vertex
      * @param dest the destination vertex
      */
@@ -249,7 +259,9 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         assert(dest != null);
         
         MarkovEdge e = null;
-        synchronized (source) {
+        // Changing the topology needs the graph's lock so that we don't
+        // modify it while getCompiledGraph() is walking over it
+        synchronized (this) {
             e = this.findEdge(source, dest);
             if (e == null) {
                 e = new MarkovEdge(this);
@@ -260,12 +272,13 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
     }
     
     /**
-     * 
+     * Add a new vertex to the graph. This takes the graph's lock so that
+     * we don't modify it while getCompiledGraph() is walking over it.
      */
     @Override
     public boolean addVertex(MarkovVertex v) {
         boolean ret;
-        synchronized (v) {
+        synchronized (this) {
             ret = super.addVertex(v);
             if (ret) {
                 if (v.isQueryVertex()) {
@@ -446,7 +459,7 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
      * TODO (svelagap): What about aborted transactions? Should they be counted in the normalization?
      */
     protected void normalizeTimes() {
-        Map<Long, Long> stoptimes = this.getCommitVertex().getInstanceTimes();
+        InstanceTimeMap stoptimes = this.getCommitVertex().getInstanceTimes();
         List<Long> to_remove = new ArrayList<Long>();
         for (MarkovVertex v : this.getVertices()) {
             v.normalizeInstanceTimes(stoptimes, to_remove);
@@ -595,12 +608,12 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
     
     /**
      * For a given TransactionTrace object, process its contents and update our
-     * graph
+     * graph. This holds the graph's lock for the whole txn and never locks any of its vertices.
      * 
      * @param txn_trace - The TransactionTrace to process and update the graph with
      * @param pest - The PartitionEstimator to use for estimating where things go
      */
-    public List<MarkovVertex> processTransaction(TransactionTrace txn_trace, PartitionEstimator pest) throws Exception {
+    public synchronized List<MarkovVertex> processTransaction(TransactionTrace txn_trace, PartitionEstimator pest) throws Exception {
         Procedure catalog_proc = txn_trace.getCatalogItem(this.getDatabase());
         MarkovVertex previous = this.getStartVertex();
         previous.addExecutionTime(txn_trace.getStopTimestamp() - txn_trace.getStartTimestamp());
@@ -630,37 +643,33 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
 
             int queryInstanceIndex = query_instance_counters.get(catalog_stmnt).getAndIncrement(); 
             MarkovVertex v = null;
-            synchronized (previous) {
-                v = this.getVertex(catalog_stmnt, partitions, past_partitions, queryInstanceIndex);
-                if (v == null) {
-                    // If no such vertex exists we simply create one
-                    v = new MarkovVertex(catalog_stmnt, MarkovVertex.Type.QUERY, queryInstanceIndex, partitions, new HashSet<Integer>(past_partitions));
-                    this.addVertex(v);
-                }
-                assert(v.isQueryVertex());
-                // Add to the edge between the previous vertex and the current one
-                MarkovEdge e = this.addToEdge(previous, v);
-                assert(e != null);
-                v.incrementTotalHits();
-                e.incrementTotalHits();
-    
-                // Annotate the vertex with remaining execution time
-                v.addExecutionTime(txn_trace.getStopTimestamp() - query_trace.getStartTimestamp());
-            } // SYNCH
+            v = this.getVertex(catalog_stmnt, partitions, past_partitions, queryInstanceIndex);
+            if (v == null) {
+                // If no such vertex exists we simply create one
+                v = new MarkovVertex(catalog_stmnt, MarkovVertex.Type.QUERY, queryInstanceIndex, partitions, new HashSet<Integer>(past_partitions));
+                this.addVertex(v);
+            }
+            assert(v.isQueryVertex());
+            // Add to the edge between the previous vertex and the current one
+            MarkovEdge e = this.addToEdge(previous, v);
+            assert(e != null);
+            v.incrementTotalHits();
+            e.incrementTotalHits();
+
+            // Annotate the vertex with remaining execution time
+            v.addExecutionTime(txn_trace.getStopTimestamp() - query_trace.getStartTimestamp());
             previous = v;
             path.add(v);
             past_partitions.addAll(partitions);
         } // FOR
         
-        synchronized (previous) {
-            MarkovVertex v = (txn_trace.isAborted() ? this.getAbortVertex() : this.getCommitVertex());
-            assert(v != null);
-            MarkovEdge e = this.addToEdge(previous, v);
-            assert(e != null);
-            path.add(v);
-            v.incrementTotalHits();
-            e.incrementTotalHits();
-        } // SYNCH
+        MarkovVertex v = (txn_trace.isAborted() ? this.getAbortVertex() : this.getCommitVertex());
+        assert(v != null);
+        MarkovEdge e = this.addToEdge(previous, v);
+        assert(e != null);
+        path.add(v);
+        v.incrementTotalHits();
+        e.incrementTotalHits();
         // -----------END QUERY TRACE-VERTEX CREATION--------------
         this.xact_count++;
         return (path);
@@ -714,6 +723,32 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         return (this.recompute_count);
     }
     
+    /**
+     * Return a read-only snapshot of this graph that can be traversed without holding any locks.
+     * The snapshot is rebuilt the next time this method is called after the probabilities have been
+     * recomputed. New vertices/edges don't have any probabilities until then, so if that is the only
+     * change then we will rebuild it at most once every COMPILE_INTERVAL milliseconds.
+     * @return
+     */
+    public CompiledMarkovGraph getCompiledGraph() {
+        CompiledMarkovGraph c = this.compiled;
+        if (c == null || this.needsCompile(c)) {
+            synchronized (this) {
+                c = this.compiled;
+                if (c == null || this.needsCompile(c)) {
+                    c = new CompiledMarkovGraph(this);
+                    this.compiled = c;
+                }
+            } // SYNCH
+        }
+        return (c);
+    }
+    
+    private boolean needsCompile(CompiledMarkovGraph c) {
+        if (c.isRecomputed()) return (true);
+        return (c.isStale() && (System.currentTimeMillis() - c.getCreateTime()) >= COMPILE_INTERVAL);
+    }
+    
     // ----------------------------------------------------------------------------
     // SERIALIZATION METHODS
     // ----------------------------------------------------------------------------
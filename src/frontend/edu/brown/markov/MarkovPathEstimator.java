@@ -12,7 +12,6 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
@@ -20,7 +19,6 @@ import org.voltdb.catalog.ProcParameter;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Statement;
 import org.voltdb.catalog.StmtParameter;
-import org.voltdb.types.QueryType;
 import org.voltdb.utils.Pair;
 
 import edu.brown.catalog.CatalogUtil;
@@ -33,7 +31,6 @@ import edu.brown.mappings.ParameterMapping;
 import edu.brown.mappings.ParameterMappingsSet;
 import edu.brown.markov.containers.MarkovGraphsContainer;
 import edu.brown.utils.ArgumentsParser;
-import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.StringUtil;
 import edu.brown.utils.TypedPoolableObjectFactory;
@@ -123,9 +120,16 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
     
     private final transient Set<Integer> past_partitions = new HashSet<Integer>();
     
-    private final transient SortedSet<MarkovEdge> candidates = new TreeSet<MarkovEdge>();
+    /**
+     * The read-only snapshot of the MarkovGraph that we are traversing
+     */
+    private transient CompiledMarkovGraph compiled = null;
     
-    private transient MarkovEdge candidate_edge = null;
+    /**
+     * The offsets of the candidate edges in the CompiledMarkovGraph
+     */
+    private transient int candidates[] = new int[16];
+    private transient int num_candidates = 0;
     
     private final transient Set<Pair<Statement, Integer>> next_statements = new HashSet<Pair<Statement, Integer>>();
     
@@ -179,6 +183,7 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
      */
     public MarkovPathEstimator init(MarkovGraph markov, TransactionEstimator t_estimator, int base_partition, Object args[]) {
         this.init(markov, TraverseOrder.DEPTH, Direction.FORWARD);
+        this.compiled = markov.getCompiledGraph();
         this.estimate.init(markov.getStartVertex(), MarkovEstimate.INITIAL_ESTIMATE_BATCH);
         this.confidence = 1.0f;
         this.t_estimator = t_estimator;
@@ -215,6 +220,7 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         this.t_estimator = null;
         this.p_estimator = null;
         this.correlations = null;
+        this.compiled = null;
         
         this.estimate.finish();
         this.touched_partitions.clear();
@@ -299,6 +305,13 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
 //        return (arr);
 //    }
     
+    private void addCandidate(int edge_offset) {
+        if (this.num_candidates == this.candidates.length) {
+            this.candidates = Arrays.copyOf(this.candidates, this.candidates.length * 2);
+        }
+        this.candidates[this.num_candidates++] = edge_offset;
+    }
+    
     /**
      * This is the main part of where we figure out the path that this transaction will take
      */
@@ -307,30 +320,37 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
 //            return;
 //        }
         
-        // Initialize temporary data
-        this.candidates.clear();
-        this.next_statements.clear();
-        this.past_partitions.addAll(element.getPartitions());
-        
-        if (t) LOG.trace("Current Vertex: " + element);
-        Statement cur_catalog_stmt = element.getCatalogItem();
-        int cur_catalog_stmt_index = element.getQueryInstanceIndex();
-        MarkovGraph markov = (MarkovGraph)this.getGraph();
+        final CompiledMarkovGraph compiled = this.compiled;
+        assert(compiled != null);
         
         // At our current vertex we need to gather all of our neighbors
         // and get unique Statements that we could be executing next
-        Collection<MarkovVertex> next_vertices = markov.getSuccessors(element);
-        if (t) LOG.trace("Successors: " + next_vertices);
-        if (next_vertices == null) {
+        // The outgoing edges in the CompiledMarkovGraph are already sorted by their probabilities
+        int offset = compiled.getVertexOffset(element);
+        if (offset == -1) {
             this.stop();
             return;
         }
+        final int first_edge = compiled.getFirstEdge(offset);
+        final int last_edge = compiled.getLastEdge(offset);
+        
+        // Initialize temporary data
+        this.num_candidates = 0;
+        this.next_statements.clear();
+        for (int p : compiled.getPartitions(offset)) {
+            this.past_partitions.add(p);
+        } // FOR
+        
+        if (t) LOG.trace("Current Vertex: " + element);
+        Statement cur_catalog_stmt = element.getCatalogItem();
+        int cur_catalog_stmt_index = element.getQueryInstanceIndex();
 
         // Step #1
         // Get all of the unique Statement+StatementInstanceIndex pairs for the vertices
         // that are adjacent to our current vertex
         // XXX: Why do we use the pairs rather than just look at the vertices?
-        for (MarkovVertex next : next_vertices) {
+        for (int e = first_edge; e < last_edge; e++) {
+            MarkovVertex next = compiled.getVertex(compiled.getEdgeTarget(e));
             Statement next_catalog_stmt = next.getCatalogItem();
             int next_catalog_stmt_index = next.getQueryInstanceIndex();
             
@@ -348,10 +368,8 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
             }
             
             // Check whether it's COMMIT/ABORT
-            if (next.isCommitVertex() || next.isAbortVertex()) {
-                MarkovEdge candidate = markov.findEdge(element, next);
-                assert(candidate != null);
-                this.candidates.add(candidate);
+            if (compiled.isTerminal(compiled.getEdgeTarget(e))) {
+                this.addCandidate(e);
             } else {
                 this.next_statements.add(Pair.of(next_catalog_stmt, next_catalog_stmt_index));
             }
@@ -456,24 +474,18 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
                 // Now for this given list of partitions, find a Vertex in our next set
                 // that has the same partitions
                 if (this.stmt_partitions != null && !this.stmt_partitions.isEmpty()) {
-                    this.candidate_edge = null;
-                    for (MarkovVertex next : next_vertices) {
+                    int candidate_edge = -1;
+                    for (int e = first_edge; e < last_edge; e++) {
+                        MarkovVertex next = compiled.getVertex(compiled.getEdgeTarget(e));
                         if (next.isEqual(catalog_stmt, this.stmt_partitions, this.past_partitions, catalog_stmt_index)) {
                             // BINGO!!!
-                            assert(this.candidate_edge == null);
-                            try {
-                                this.candidate_edge = markov.findEdge(element, next);
-                            } catch (NullPointerException ex) {
-                                continue;
-                            }
-                            assert(this.candidate_edge != null);
-
-                            this.candidates.add(this.candidate_edge);
-                            if (t) LOG.trace("Found candidate edge to " + next + " [" + this.candidate_edge + "]");
+                            candidate_edge = e;
+                            this.addCandidate(candidate_edge);
+                            if (t) LOG.trace("Found candidate edge to " + next + " [" + compiled.getEdge(candidate_edge) + "]");
                             break; // ???
                         }
-                    } // FOR (Vertex
-                    if (candidate_edge == null && t) LOG.trace("Failed to find candidate edge from " + element + " to " + pair);
+                    } // FOR (Edge)
+                    if (candidate_edge == -1 && t) LOG.trace("Failed to find candidate edge from " + element + " to " + pair);
                 }
             // Without any stmt_args, there's nothing we can do here...
             } else {
@@ -483,9 +495,8 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         
         // If we don't have any candidate edges and the FORCE TRAVERSAL flag is set, then we'll just
         // grab all of the edges from our currect vertex
-        int num_candidates = this.candidates.size();
         boolean was_forced = false;
-        if (num_candidates == 0 && this.force_traversal) {
+        if (this.num_candidates == 0 && this.force_traversal) {
             if (t) LOG.trace("No candidate edges were found. Force travesal flag is set, so taking all");
 //            if (this.next_statements.size() == 1) {
 //                Pair<Statement, Integer> p = CollectionUtil.getFirst(this.next_statements);
@@ -496,19 +507,22 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
 //                this.candidates.add(candidate_edge);
 //                LOG.info("Created a new vertex " + v);
 //            } else {
-            Collection<MarkovEdge> out_edges = markov.getOutEdges(element);
-            if (out_edges != null) this.candidates.addAll(out_edges);
+            for (int e = first_edge; e < last_edge; e++) {
+                this.addCandidate(e);
+            } // FOR
 //            }
-            num_candidates = this.candidates.size();
             was_forced = true;
         }
         
-        // So now we have our list of candidate edges. We can pick the first one
-        // since they will be sorted by their probability
-        if (t) LOG.trace("Candidate Edges: " + this.candidates);
-        if (num_candidates > 0) {
-            MarkovEdge next_edge = CollectionUtil.first(this.candidates);
-            MarkovVertex next_vertex = markov.getOpposite(element, next_edge);
+        // So now we have our list of candidate edges. We can pick the one with the lowest
+        // offset since the outgoing edges are sorted by their probability
+        if (this.num_candidates > 0) {
+            int next_edge = this.candidates[0];
+            for (int i = 1; i < this.num_candidates; i++) {
+                if (this.candidates[i] < next_edge) next_edge = this.candidates[i];
+            } // FOR
+            int next_offset = compiled.getEdgeTarget(next_edge);
+            MarkovVertex next_vertex = compiled.getVertex(next_offset);
             children.addAfter(next_vertex);
             if (was_forced) this.forced_vertices.add(next_vertex);
             
@@ -516,60 +530,53 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
             // edges that we could have taken in comparison to the one that we did take
             double total_probability = 0.0;
             if (d) LOG.debug("CANDIDATES:");
-            int i = 0;
-            for (MarkovEdge e : this.candidates) {
-                MarkovVertex v = markov.getOpposite(element, e);
-                total_probability += e.getProbability();
+            for (int i = 0; i < this.num_candidates; i++) {
+                int e = this.candidates[i];
+                total_probability += compiled.getEdgeProbability(e);
                 if (d) {
+                    MarkovVertex v = compiled.getVertex(compiled.getEdgeTarget(e));
                     LOG.debug(String.format("  [%d] %s  --[%s]--> %s%s",
-                                            i++, element, e, v, (next_vertex.equals(v) ? " <== SELECTED" : "")));
-                    if (this.candidates.size() > 1) LOG.debug(StringUtil.addSpacers(v.debug()));
+                                            i, element, compiled.getEdge(e), v, (e == next_edge ? " <== SELECTED" : "")));
+                    if (this.num_candidates > 1) LOG.debug(StringUtil.addSpacers(v.debug()));
                 }
             } // FOR
-            this.confidence *= next_edge.getProbability() / total_probability;
+            this.confidence *= compiled.getEdgeProbability(next_edge) / total_probability;
             
             // Update our list of partitions touched by this transaction
-            Set<Integer> next_partitions = next_vertex.getPartitions();
-            String orig = next_partitions.toString();
+            int next_partitions[] = compiled.getPartitions(next_offset);
             float inverse_prob = 1.0f - this.confidence;
-            Statement catalog_stmt = next_vertex.getCatalogItem();
             
             // READ
-            if (catalog_stmt.getQuerytype() == QueryType.SELECT.getValue()) {
-                for (Integer p : next_partitions) {
+            if (compiled.isReadOnly(next_offset)) {
+                for (int p : next_partitions) {
                     if (this.read_partitions.contains(p) == false) {
                         if (t) LOG.trace(String.format("First time partition %d is read from! Setting read-only probability to %.03f", p, this.confidence));
-                        try {
-                            this.estimate.setReadOnlyProbability(p.intValue(), this.confidence);
-                        } catch (AssertionError ex) {
-                            System.err.println("BUSTED: " + next_vertex);
-                            System.err.println("NEXT PARTITIONS: " + next_partitions);
-                            System.err.println("ORIG PARTITIONS: " + orig);
-                            throw ex;
-                        }
+                        this.estimate.setReadOnlyProbability(p, this.confidence);
                         if (this.touched_partitions.contains(p) == false) {
-                            this.estimate.setDoneProbability(p.intValue(), inverse_prob);
+                            this.estimate.setDoneProbability(p, inverse_prob);
                         }
                         this.read_partitions.add(p);
                     }
-                    this.estimate.incrementTouchedCounter(p.intValue());
+                    this.estimate.incrementTouchedCounter(p);
                 } // FOR
             // WRITE
             } else {
-                for (Integer p : next_partitions) {
+                for (int p : next_partitions) {
                     if (this.write_partitions.contains(p) == false) {
                         if (t) LOG.trace(String.format("First time partition %d is written to! Setting write probability to %.03f", p, this.confidence));
-                        this.estimate.setReadOnlyProbability(p.intValue(), inverse_prob);
-                        this.estimate.setWriteProbability(p.intValue(), this.confidence);
+                        this.estimate.setReadOnlyProbability(p, inverse_prob);
+                        this.estimate.setWriteProbability(p, this.confidence);
                         if (this.touched_partitions.contains(p) == false) {
-                            this.estimate.setDoneProbability(p.intValue(), inverse_prob);
+                            this.estimate.setDoneProbability(p, inverse_prob);
                         }
                         this.write_partitions.add(p);
                     }
-                    this.estimate.incrementTouchedCounter(p.intValue());
+                    this.estimate.incrementTouchedCounter(p);
                 } // FOR
             }
-            this.touched_partitions.addAll(next_partitions);
+            for (int p : next_partitions) {
+                this.touched_partitions.add(p);
+            } // FOR
             
             // If this is the first time that the path touched more than one partition, then we need to set the single-partition
             // probability to be the confidence coefficient thus far
@@ -579,8 +586,9 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
             }
             
             // Keep track of the highest abort probability that we've seen thus far
-            if (next_vertex.isQueryVertex() && next_vertex.getAbortProbability() > this.greatest_abort) {
-                this.greatest_abort = next_vertex.getAbortProbability();
+            // This will be NULL_MARKER for the COMMIT/ABORT vertices
+            if (compiled.getAbortProbability(next_offset) > this.greatest_abort) {
+                this.greatest_abort = compiled.getAbortProbability(next_offset);
             }
             
             if (d) {
@@ -610,8 +618,7 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
     protected void callback_stop() {
         MarkovVertex last_v = this.getVisitPath().get(this.getVisitPath().size()-1);
         if (d) LOG.debug("Callback Stop! Last Element = " + last_v);
-        MarkovGraph markov = (MarkovGraph)this.getGraph();
-        MarkovVertex first_v = markov.getStartVertex();
+        final CompiledMarkovGraph compiled = this.compiled;
         
         // Confidence
         this.estimate.setConfidenceProbability(this.confidence);
@@ -622,10 +629,10 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         float untouched_finish = 1.0f;
         for (int p : this.all_partitions) {
             if (this.touched_partitions.contains(p) == false) {
-                this.estimate.setReadOnlyProbability(p, first_v.getReadOnlyProbability(p));
-                this.estimate.setWriteProbability(p, first_v.getWriteProbability(p));
+                this.estimate.setReadOnlyProbability(p, compiled.getStartReadOnlyProbability(p));
+                this.estimate.setWriteProbability(p, compiled.getStartWriteProbability(p));
                 
-                float finished_prob = first_v.getDoneProbability(p);
+                float finished_prob = compiled.getStartDoneProbability(p);
                 this.estimate.setDoneProbability(p, finished_prob);
                 if (is_singlepartition) untouched_finish = Math.min(untouched_finish, finished_prob);
             } else if (this.estimate.isWriteProbabilitySet(p) == false) {
@@ -641,7 +648,7 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         
         // Abort Probability
         // Only use the abort probability if we have seen at least ABORT_MIN_TXNS
-        if (markov.getStartVertex().getTotalHits() >= MarkovGraph.MIN_HITS_FOR_NO_ABORT) {
+        if (compiled.getStartTotalHits() >= MarkovGraph.MIN_HITS_FOR_NO_ABORT) {
             this.estimate.setAbortProbability(this.greatest_abort);
         } else {
             this.estimate.setAbortProbability(1.0f);
@@ -12,7 +12,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.collections15.map.ListOrderedMap;
@@ -170,7 +169,7 @@ public class MarkovVertex extends AbstractVertex implements MarkovHitTrackable,
      * The execution times of the transactions in the on-line run
      * A map of the xact_id to the time it took to get to this vertex
      */
-    private transient final Map<Long, Long> instancetimes = new ConcurrentHashMap<Long, Long>();
+    private transient final InstanceTimeMap instancetimes = new InstanceTimeMap();
     
     /**
      * The count, used to figure out the average execution time above
@@ -714,7 +713,7 @@ public class MarkovVertex extends AbstractVertex implements MarkovHitTrackable,
     /**
      * @return a map of xact_ids to times
      */
-    public Map<Long,Long> getInstanceTimes() {
+    public InstanceTimeMap getInstanceTimes() {
         return instancetimes;
     }
     
@@ -733,12 +732,12 @@ public class MarkovVertex extends AbstractVertex implements MarkovHitTrackable,
      * get how long the xact actually lasted
      * @param end_times
      */
-    protected void normalizeInstanceTimes(Map<Long, Long> end_times, List<Long> to_remove) {
-        for (Long txn_id : this.instancetimes.keySet()) {
-            Long start = this.instancetimes.get(txn_id);
-            Long stop = end_times.get(txn_id);
-            if (start != null && stop != null) {
-                long time = end_times.get(txn_id) - this.instancetimes.get(txn_id);
+    protected void normalizeInstanceTimes(InstanceTimeMap end_times, List<Long> to_remove) {
+        for (long txn_id : this.instancetimes.getTransactionIds()) {
+            long start = this.instancetimes.get(txn_id);
+            long stop = end_times.get(txn_id);
+            if (start != InstanceTimeMap.NULL_TIME && stop != InstanceTimeMap.NULL_TIME) {
+                long time = stop - start;
                 this.addExecutionTime(time);
                 to_remove.add(txn_id);
                 if (t) LOG.trace(String.format("Updating %s with %d time units from txn #%d", this, time, txn_id)); 
@@ -746,6 +745,8 @@ public class MarkovVertex extends AbstractVertex implements MarkovHitTrackable,
         } // FOR
         for (Long txn_id : to_remove) {
             end_times.remove(txn_id);
+            // Don't let the map keep growing with txns that we've already counted
+            this.instancetimes.remove(txn_id);
         } // FOR
     }
 
@@ -35,7 +35,7 @@ import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.Poolable;
 import edu.brown.utils.StringUtil;
 import edu.brown.utils.TypedPoolableObjectFactory;
-import edu.brown.utils.TypedStackObjectPool;
+import edu.brown.utils.ThreadLocalObjectPool;
 import edu.brown.workload.QueryTrace;
 import edu.brown.workload.TransactionTrace;
 
@@ -63,9 +63,9 @@ public class TransactionEstimator implements Loggable {
      */
     private static final double RECOMPUTE_TOLERANCE = (double) 0.5;
 
-    public static TypedStackObjectPool<MarkovPathEstimator> POOL_ESTIMATORS;
+    public static ThreadLocalObjectPool<MarkovPathEstimator> POOL_ESTIMATORS;
     
-    public static TypedStackObjectPool<TransactionEstimator.State> POOL_STATES;
+    public static ThreadLocalObjectPool<TransactionEstimator.State> POOL_STATES;
     
     
     // ----------------------------------------------------------------------------
@@ -343,13 +343,15 @@ public class TransactionEstimator implements Loggable {
             if (POOL_STATES == null) {
                 if (d) LOG.debug("Creating TransactionEstimator.State Object Pool");
                 TypedPoolableObjectFactory<TransactionEstimator.State> s_factory = new State.Factory(this.num_partitions); 
-                POOL_STATES = new TypedStackObjectPool<TransactionEstimator.State>(s_factory,
-                        HStoreConf.singleton().site.pool_estimatorstates_idle);
+                POOL_STATES = new ThreadLocalObjectPool<TransactionEstimator.State>(s_factory,
+                        HStoreConf.singleton().site.pool_estimatorstates_idle,
+                        HStoreConf.singleton().site.pool_threadlocal_size);
                 
                 if (d) LOG.debug("Creating MarkovPathEstimator Object Pool");
                 TypedPoolableObjectFactory<MarkovPathEstimator> m_factory = new MarkovPathEstimator.Factory(this.num_partitions);
-                POOL_ESTIMATORS = new TypedStackObjectPool<MarkovPathEstimator>(m_factory,
-                        HStoreConf.singleton().site.pool_pathestimators_idle);
+                POOL_ESTIMATORS = new ThreadLocalObjectPool<MarkovPathEstimator>(m_factory,
+                        HStoreConf.singleton().site.pool_pathestimators_idle,
+                        HStoreConf.singleton().site.pool_threadlocal_size);
             }
         } // SYNC
     }
@@ -501,20 +503,19 @@ public class TransactionEstimator implements Loggable {
             // Calculate initial path estimate
             if (t) LOG.trace("Estimating initial execution path for " + AbstractTransaction.formatTxnName(catalog_proc, txn_id));
             start.addInstanceTime(txn_id, start_time);
-            synchronized (markov) {
+            // The estimator walks the graph's CompiledMarkovGraph, so we don't need to lock the graph here
+            try {
+                estimator.traverse(start);
+                // if (catalog_proc.getName().equalsIgnoreCase("NewBid")) throw new Exception ("Fake!");
+            } catch (Throwable e) {
                 try {
-                    estimator.traverse(start);
-                    // if (catalog_proc.getName().equalsIgnoreCase("NewBid")) throw new Exception ("Fake!");
-                } catch (Throwable e) {
-                    try {
-                        GraphvizExport<MarkovVertex, MarkovEdge> gv = MarkovUtil.exportGraphviz(markov, true, markov.getPath(estimator.getVisitPath()));
-                        LOG.error("GRAPH #" + markov.getGraphId() + " DUMP: " + gv.writeToTempFile(catalog_proc));
-                    } catch (Exception ex) {
-                        throw new RuntimeException(ex);
-                    }
-                    throw new RuntimeException("Failed to estimate path for " + AbstractTransaction.formatTxnName(catalog_proc, txn_id), e);
+                    GraphvizExport<MarkovVertex, MarkovEdge> gv = MarkovUtil.exportGraphviz(markov, true, markov.getPath(estimator.getVisitPath()));
+                    LOG.error("GRAPH #" + markov.getGraphId() + " DUMP: " + gv.writeToTempFile(catalog_proc));
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
                 }
-            } // SYNCH
+                throw new RuntimeException("Failed to estimate path for " + AbstractTransaction.formatTxnName(catalog_proc, txn_id), e);
+            }
         } else {
             if (d) LOG.info(String.format("Using cached MarkovPathEstimator for %s [hashCode=%d, ratio=%.02f]",
                                           AbstractTransaction.formatTxnName(catalog_proc, txn_id), estimator.getEstimate().hashCode(), markov.getAccuracyRatio()));
@@ -700,19 +701,22 @@ public class TransactionEstimator implements Loggable {
         assert(next_v != null) : "Missing " + vtype;
         
         // If no edge exists to the next vertex, then we need to create one
-        synchronized (g) {
-            MarkovEdge next_e = g.findEdge(current, next_v);
-            if (next_e == null) next_e = g.addToEdge(current, next_v);
-            s.setCurrent(next_v, next_e); // For post-txn processing...
-
-            // Update counters
-            // We want to update the counters for the entire path right here so that
-            // nobody gets incomplete numbers if they recompute probabilities
-            for (MarkovVertex v : s.actual_path) v.incrementInstanceHits();
-            for (MarkovEdge e : s.actual_path_edges) e.incrementInstanceHits();
-            next_v.addInstanceTime(txn_id, s.getExecutionTimeOffset(timestamp));
+        // We always lock the vertex before the graph, just like consume()
+        synchronized (current) {
+            synchronized (g) {
+                MarkovEdge next_e = g.findEdge(current, next_v);
+                if (next_e == null) next_e = g.addToEdge(current, next_v);
+                s.setCurrent(next_v, next_e); // For post-txn processing...
+
+                // Update counters
+                // We want to update the counters for the entire path right here so that
+                // nobody gets incomplete numbers if they recompute probabilities
+                for (MarkovVertex v : s.actual_path) v.incrementInstanceHits();
+                for (MarkovEdge e : s.actual_path_edges) e.incrementInstanceHits();
+                next_v.addInstanceTime(txn_id, s.getExecutionTimeOffset(timestamp));
+            } // SYNCH
         } // SYNCH
-        
+
         // Store this as the last accurate MarkovPathEstimator for this graph
         if (hstore_conf.site.markov_path_caching && this.cached_estimators.containsKey(s.markov) == false && s.initial_estimate.isValid()) {
             synchronized (this.cached_estimators) {
@@ -778,8 +782,12 @@ public class TransactionEstimator implements Loggable {
                                     queryInstanceIndex,
                                     partitions,
                                     state.touched_partitions);
-                markov.addVertex(next_v);
-                next_e = markov.addToEdge(current, next_v);
+                // Add both of them while holding the graph's lock so that getCompiledGraph()
+                // never sees the new vertex without its edge
+                synchronized (markov) {
+                    markov.addVertex(next_v);
+                    next_e = markov.addToEdge(current, next_v);
+                } // SYNCH
                 if (t) LOG.trace("Created new edge/vertex from " + state.getCurrent() + " for Txn #" + state.txn_id);
             }
         } // SYNCH
@@ -816,9 +824,7 @@ public class TransactionEstimator implements Loggable {
             Set<Integer> partitions[] = (Set<Integer>[])new Set<?>[batch_size];
             this.populateQueryBatch(e.getValue(), s.getBasePartition(), catalog_stmts, partitions);
         
-            synchronized (s.getMarkovGraph()) {
-                this.executeQueries(s, catalog_stmts, partitions, false);
-            } // SYNCH
+            this.executeQueries(s, catalog_stmts, partitions, false);
         } // FOR (batches)
         if (txn_trace.isAborted()) this.abort(txn_id);
         else this.commit(txn_id);
@@ -88,8 +88,14 @@ public abstract class MarkovGraphContainersUtil {
         runnables.add(new Runnable() {
             @Override
             public void run() {
-                List<TransactionTrace> all_txns = new ArrayList<TransactionTrace>(workload.getTransactions());
-                Collections.shuffle(all_txns);
+                // If the workload is being streamed from a binary trace, then we can't shuffle
+                // the txns without loading all of them into memory first
+                Iterable<TransactionTrace> all_txns = workload;
+                if (workload.isStreaming() == false) {
+                    List<TransactionTrace> shuffled = new ArrayList<TransactionTrace>(workload.getTransactions());
+                    Collections.shuffle(shuffled);
+                    all_txns = shuffled;
+                }
                 int ctr = 0;
                 for (TransactionTrace txn_trace : all_txns) {
                     // Make sure it goes to the right base partition
@@ -164,9 +170,7 @@ public abstract class MarkovGraphContainersUtil {
                             }
                             
                             MarkovGraph markov = markovs.getFromParams(txn_id, map_id, params, catalog_proc);
-                            synchronized (markov) {
-                                markov.processTransaction(txn_trace, p_estimator);
-                            } // SYNCH
+                            markov.processTransaction(txn_trace, p_estimator);
                         } catch (Exception ex) {
                             LOG.fatal("Failed to process " + txn_trace, ex);
                             throw new RuntimeException(ex);
@@ -89,26 +89,26 @@ public abstract class PlanNodeUtil {
     /**
      * PlanFragmentId -> AbstractPlanNode
      */
-    private static final Map<String, AbstractPlanNode> CACHE_DESERIALIZE_FRAGMENT = new HashMap<String, AbstractPlanNode>();
+    private static final Map<String, AbstractPlanNode> CACHE_DESERIALIZE_FRAGMENT = Collections.synchronizedMap(new HashMap<String, AbstractPlanNode>());
 
     /**
      * Procedure.Statement -> AbstractPlanNode
      */
-    private static final Map<String, AbstractPlanNode> CACHE_DESERIALIZE_SP_STATEMENT = new HashMap<String, AbstractPlanNode>();
-    private static final Map<String, AbstractPlanNode> CACHE_DESERIALIZE_MP_STATEMENT = new HashMap<String, AbstractPlanNode>();
+    private static final Map<String, AbstractPlanNode> CACHE_DESERIALIZE_SP_STATEMENT = Collections.synchronizedMap(new HashMap<String, AbstractPlanNode>());
+    private static final Map<String, AbstractPlanNode> CACHE_DESERIALIZE_MP_STATEMENT = Collections.synchronizedMap(new HashMap<String, AbstractPlanNode>());
 
     /**
      * Statement -> Sorted List of PlanFragments
      */
-    private static final Map<Statement, List<PlanFragment>> CACHE_SORTED_SP_FRAGMENTS = new HashMap<Statement, List<PlanFragment>>();
-    private static final Map<Statement, List<PlanFragment>> CACHE_SORTED_MP_FRAGMENTS = new HashMap<Statement, List<PlanFragment>>();
+    private static final Map<Statement, List<PlanFragment>> CACHE_SORTED_SP_FRAGMENTS = Collections.synchronizedMap(new HashMap<Statement, List<PlanFragment>>());
+    private static final Map<Statement, List<PlanFragment>> CACHE_SORTED_MP_FRAGMENTS = Collections.synchronizedMap(new HashMap<Statement, List<PlanFragment>>());
 
-    private static final Map<Statement, Collection<Column>> CACHE_OUTPUT_COLUMNS = new HashMap<Statement, Collection<Column>>();
+    private static final Map<Statement, Collection<Column>> CACHE_OUTPUT_COLUMNS = Collections.synchronizedMap(new HashMap<Statement, Collection<Column>>());
 
     /**
      * 
      */
-    private static final Map<String, String> CACHE_STMTPARAMETER_COLUMN = new HashMap<String, String>();
+    private static final Map<String, String> CACHE_STMTPARAMETER_COLUMN = Collections.synchronizedMap(new HashMap<String, String>());
 
     // ------------------------------------------------------------
     // UTILITY METHODS
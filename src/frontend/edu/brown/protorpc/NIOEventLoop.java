@@ -7,7 +7,6 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Iterator;
-import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -102,20 +101,14 @@ public class NIOEventLoop implements EventLoop {
         assert timerMilliseconds >= 0;
         assert handler != null;
         long expirationMs = System.currentTimeMillis() + timerMilliseconds;
-        timers.add(new Timer(expirationMs, handler));
+        timers.schedule(expirationMs, handler);
     }
 
     @Override
     public void cancelTimer(Handler handler) {
-        Iterator<Timer> timerIterator = timers.iterator();
-        while (timerIterator.hasNext()) {
-            Timer timer = timerIterator.next();
-            if (timer.handler == handler) {
-                timerIterator.remove();
-                return;
-            }
+        if (!timers.cancel(handler)) {
+            throw new IllegalArgumentException("Timer handler not found");
         }
-        throw new IllegalArgumentException("Timer handler not found");
     }
 
     private void register(SelectableChannel channel, int ops, Handler callback) {
@@ -178,22 +171,9 @@ public class NIOEventLoop implements EventLoop {
 
     /** @return milliseconds until the next timer, or 0 if there are none. */
     private long triggerExpiredTimers(long now) {
-        while (!timers.isEmpty()) {
-            // hope that using an iterator to fetch and remove the least element is efficient?
-            Timer least = timers.peek();
-            if (least.expirationMs <= now) {
-                timers.poll();
-
-                least.handler.timerCallback();
-            } else {
-                // this timer has not expired yet: return its time
-                long timeoutMs = least.expirationMs - now;
-                assert timeoutMs > 0;
-                return timeoutMs;
-            }
-        }
-
-        return 0;
+        // All timers that expired since the last wakeup are handled in one pass
+        timers.expire(now);
+        return timers.getTimeout(now);
     }
 
 //    public void close() {
@@ -273,31 +253,5 @@ public class NIOEventLoop implements EventLoop {
     private final ConcurrentLinkedQueue<Runnable> threadEvents =
             new ConcurrentLinkedQueue<Runnable>();
 
-    private static final class Timer implements Comparable<Timer> {
-        public final long expirationMs;
-        public final Handler handler;
-
-        public Timer(long expirationMs, Handler handler) {
-            this.expirationMs = expirationMs;
-            this.handler = handler;
-        }
-
-        @Override
-        public int compareTo(Timer other) {
-            if (this.expirationMs < other.expirationMs) return -1;
-            if (this.expirationMs > other.expirationMs) return 1;
-            return 0;
-        }
-
-        @Override
-        public boolean equals(Object other) {
-            throw new RuntimeException("TODO: implement");
-        }
-
-        @Override
-        public int hashCode() {
-            throw new RuntimeException("TODO: implement");
-        }
-    }
-    private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+    private final TimerWheel timers = new TimerWheel(System.currentTimeMillis());
 }
@@ -0,0 +1,206 @@
+package edu.brown.protorpc;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Hashed timing wheel with one millisecond ticks. Scheduling and cancelling a timer are both
+ * O(1). Timers that are further away than one rotation of the wheel share a slot with the
+ * nearer timers and are skipped until their round comes up. This is not thread-safe: it must
+ * only be used from the event loop thread.
+ */
+public class TimerWheel {
+    public static final int DEFAULT_NUM_SLOTS = 1024;
+
+    public TimerWheel(long nowMs) {
+        this(DEFAULT_NUM_SLOTS, nowMs);
+    }
+
+    public TimerWheel(int numSlots, long nowMs) {
+        if (numSlots <= 0 || Integer.bitCount(numSlots) != 1) {
+            throw new IllegalArgumentException("numSlots must be a power of two: " + numSlots);
+        }
+        slots = new Timer[numSlots];
+        mask = numSlots - 1;
+        nextMs = nowMs;
+    }
+
+    /** Schedules handler.timerCallback() to be called once expirationMs has passed. */
+    public void schedule(long expirationMs, EventLoop.Handler handler) {
+        assert handler != null;
+        Timer timer = new Timer(expirationMs, handler);
+
+        // Timers that are already expired go into the next slot that we will look at
+        long slotMs = Math.max(expirationMs, nextMs);
+        link(timer, (int) (slotMs & mask));
+
+        // Add it to the front of this handler's timers
+        Timer first = handlerTimers.put(handler, timer);
+        if (first != null) {
+            timer.nextForHandler = first;
+            first.prevForHandler = timer;
+        }
+
+        size += 1;
+        if (nextExpirationValid && expirationMs < nextExpirationMs) {
+            nextExpirationMs = expirationMs;
+        }
+    }
+
+    /**
+     * Cancels one timer that is registered for handler.
+     * @return false if handler does not have any pending timers.
+     */
+    public boolean cancel(EventLoop.Handler handler) {
+        Timer timer = handlerTimers.get(handler);
+        if (timer == null) return false;
+        if (timer.expirationMs == nextExpirationMs) nextExpirationValid = false;
+        remove(timer);
+        return true;
+    }
+
+    /**
+     * Calls all timers that expired at or before nowMs. All expired timers are collected
+     * before any of them are called, so timers registered by a callback will not be
+     * triggered until the next call. Timers cancelled by a callback are never triggered.
+     * @return the number of timers that were triggered.
+     */
+    public int expire(long nowMs) {
+        if (nowMs < nextMs || size == 0) {
+            if (nowMs >= nextMs) nextMs = nowMs + 1;
+            return 0;
+        }
+
+        // Visit each slot that we have passed since the last call, but each one only once
+        long lastMs = Math.min(nowMs, nextMs + mask);
+        for (long ms = nextMs; ms <= lastMs; ms++) {
+            int slot = (int) (ms & mask);
+            Timer timer = slots[slot];
+            while (timer != null) {
+                Timer next = timer.next;
+                if (timer.expirationMs <= nowMs) {
+                    unlink(timer);
+                    link(timer, FIRING);
+                }
+                timer = next;
+            }
+        }
+        nextMs = nowMs + 1;
+        nextExpirationValid = false;
+
+        int count = 0;
+        Timer timer;
+        while ((timer = firing) != null) {
+            remove(timer);
+            timer.handler.timerCallback();
+            count += 1;
+        }
+        return count;
+    }
+
+    /**
+     * @return milliseconds until the next timer expires, at most one rotation of the wheel. If
+     * a timer has already expired this returns 1. If there are no timers this returns 0.
+     */
+    public long getTimeout(long nowMs) {
+        if (size == 0) return 0;
+        if (!nextExpirationValid) {
+            nextExpirationMs = findNextExpiration();
+            nextExpirationValid = true;
+        }
+        return Math.max(1, nextExpirationMs - nowMs);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Scans at most one rotation of the wheel for the earliest timer. */
+    private long findNextExpiration() {
+        long lastMs = nextMs + mask;
+        for (long ms = nextMs; ms <= lastMs; ms++) {
+            for (Timer timer = slots[(int) (ms & mask)]; timer != null; timer = timer.next) {
+                // Expired timers are placed in later slots; later rounds have a larger value
+                if (timer.expirationMs <= ms) return timer.expirationMs;
+            }
+        }
+        // Everything is at least one rotation away: wake up once the wheel has gone around
+        return lastMs;
+    }
+
+    private void link(Timer timer, int slot) {
+        Timer head = (slot == FIRING ? firing : slots[slot]);
+        timer.slot = slot;
+        timer.prev = null;
+        timer.next = head;
+        if (head != null) head.prev = timer;
+        if (slot == FIRING) {
+            firing = timer;
+        } else {
+            slots[slot] = timer;
+        }
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else if (timer.slot == FIRING) {
+            firing = timer.next;
+        } else {
+            slots[timer.slot] = timer.next;
+        }
+        if (timer.next != null) timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+    }
+
+    /** Removes timer from its slot and from its handler's list. */
+    private void remove(Timer timer) {
+        unlink(timer);
+        if (timer.prevForHandler != null) {
+            timer.prevForHandler.nextForHandler = timer.nextForHandler;
+        } else if (timer.nextForHandler != null) {
+            handlerTimers.put(timer.handler, timer.nextForHandler);
+        } else {
+            handlerTimers.remove(timer.handler);
+        }
+        if (timer.nextForHandler != null) timer.nextForHandler.prevForHandler = timer.prevForHandler;
+        size -= 1;
+    }
+
+    private static final int FIRING = -1;
+
+    private static final class Timer {
+        public final long expirationMs;
+        public final EventLoop.Handler handler;
+
+        // Doubly linked list of the timers in the same slot
+        private int slot;
+        private Timer prev;
+        private Timer next;
+
+        // Doubly linked list of the timers for the same handler
+        private Timer prevForHandler;
+        private Timer nextForHandler;
+
+        public Timer(long expirationMs, EventLoop.Handler handler) {
+            this.expirationMs = expirationMs;
+            this.handler = handler;
+        }
+    }
+
+    private final Timer[] slots;
+    private final int mask;
+    /** Timers that have expired and are waiting for their callback. */
+    private Timer firing;
+    private final IdentityHashMap<EventLoop.Handler, Timer> handlerTimers =
+            new IdentityHashMap<EventLoop.Handler, Timer>();
+    /** The first millisecond that has not yet been processed by expire(). */
+    private long nextMs;
+    private int size = 0;
+    private long nextExpirationMs = Long.MAX_VALUE;
+    private boolean nextExpirationValid = true;
+}
@@ -0,0 +1,317 @@
+/***************************************************************************
+ *  Copyright (C) 2012 by H-Store Project                                  *
+ *  Brown University                                                       *
+ *  Massachusetts Institute of Technology                                  *
+ *  Yale University                                                        *
+ *                                                                         *
+ *  http://hstore.cs.brown.edu/                                            *
+ *                                                                         *
+ *  Permission is hereby granted, free of charge, to any person obtaining  *
+ *  a copy of this software and associated documentation files (the        *
+ *  "Software"), to deal in the Software without restriction, including    *
+ *  without limitation the rights to use, copy, modify, merge, publish,    *
+ *  distribute, sublicense, and/or sell copies of the Software, and to     *
+ *  permit persons to whom the Software is furnished to do so, subject to  *
+ *  the following conditions:                                              *
+ *                                                                         *
+ *  The above copyright notice and this permission notice shall be         *
+ *  included in all copies or substantial portions of the Software.        *
+ *                                                                         *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,        *
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF     *
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. *
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR      *
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,  *
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR  *
+ *  OTHER DEALINGS IN THE SOFTWARE.                                        *
+ ***************************************************************************/
+package edu.brown.statistics;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+import org.voltdb.catalog.Database;
+
+import edu.brown.utils.JSONSerializable;
+import edu.brown.utils.JSONUtil;
+
+/**
+ * Log-linear latency histogram in the style of HdrHistogram.
+ * Values are bucketed by their most significant bit and then split into
+ * SUB_BUCKET_HALF linear sub-buckets, so every recorded value is kept
+ * to within ~1.5% of its real value no matter how large it is.
+ * Recording a value is lock-free and can be done from any thread.
+ * All values are expected to be in microseconds.
+ */
+public class LatencyHistogram implements JSONSerializable {
+
+    public enum Members {
+        COUNTS,
+        SUM,
+        MIN,
+        MAX,
+    }
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = (1 << SUB_BUCKET_BITS);
+    private static final int SUB_BUCKET_HALF = (SUB_BUCKET_COUNT >> 1);
+
+    /**
+     * Anything larger than this gets clamped into the last bucket
+     */
+    public static final long MAX_TRACKABLE_VALUE = TimeUnit.HOURS.toMicros(1);
+
+    private static final int NUM_COUNTS = getIndex(MAX_TRACKABLE_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_COUNTS);
+    private final AtomicLong sum = new AtomicLong(0);
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * The bucket counts from the last time getIntervalHistogram() was called
+     */
+    private long lastCounts[];
+    private long lastSum = 0;
+
+    public LatencyHistogram() {
+        // Nothing...
+    }
+
+    // ----------------------------------------------------------------------------
+    // INDEX CALCULATIONS
+    // ----------------------------------------------------------------------------
+
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) return ((int)value);
+        int shift = (64 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return ((shift * SUB_BUCKET_HALF) + (int)(value >>> shift));
+    }
+
+    private static int getShift(int idx) {
+        return (Math.max(0, (idx / SUB_BUCKET_HALF) - 1));
+    }
+
+    private static long lowestEquivalentValue(int idx) {
+        int shift = getShift(idx);
+        return ((long)(idx - (shift * SUB_BUCKET_HALF)) << shift);
+    }
+
+    private static long highestEquivalentValue(int idx) {
+        return (lowestEquivalentValue(idx) + (1l << getShift(idx)) - 1);
+    }
+
+    // ----------------------------------------------------------------------------
+    // RECORDING
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Record a single latency measurement (in microseconds)
+     * Negative values are treated as zero.
+     * @param value
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        this.counts.incrementAndGet(getIndex(Math.min(value, MAX_TRACKABLE_VALUE)));
+        this.sum.addAndGet(value);
+
+        long cur;
+        while (value < (cur = this.min.get())) {
+            if (this.min.compareAndSet(cur, value)) break;
+        } // WHILE
+        while (value > (cur = this.max.get())) {
+            if (this.max.compareAndSet(cur, value)) break;
+        } // WHILE
+    }
+
+    /**
+     * Add all of the measurements from the other histogram into this one
+     * @param other
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < NUM_COUNTS; i++) {
+            long cnt = other.counts.get(i);
+            if (cnt != 0) this.counts.addAndGet(i, cnt);
+        } // FOR
+        this.sum.addAndGet(other.sum.get());
+
+        long value, cur;
+        value = other.min.get();
+        while (value < (cur = this.min.get())) {
+            if (this.min.compareAndSet(cur, value)) break;
+        } // WHILE
+        value = other.max.get();
+        while (value > (cur = this.max.get())) {
+            if (this.max.compareAndSet(cur, value)) break;
+        } // WHILE
+    }
+
+    /**
+     * Remove all measurements from this histogram
+     * This is not atomic with respect to concurrent calls to record()
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < NUM_COUNTS; i++) {
+            this.counts.set(i, 0);
+        } // FOR
+        this.sum.set(0);
+        this.min.set(Long.MAX_VALUE);
+        this.max.set(Long.MIN_VALUE);
+        this.lastCounts = null;
+        this.lastSum = 0;
+    }
+
+    /**
+     * Return a new LatencyHistogram that only contains the measurements
+     * that were recorded since the last time this method was invoked
+     * The min/max of the interval are only as precise as its buckets.
+     * @return
+     */
+    public synchronized LatencyHistogram getIntervalHistogram() {
+        LatencyHistogram interval = new LatencyHistogram();
+        long current[] = new long[NUM_COUNTS];
+        int lowest = -1;
+        int highest = -1;
+        for (int i = 0; i < NUM_COUNTS; i++) {
+            current[i] = this.counts.get(i);
+            long delta = current[i] - (this.lastCounts != null ? this.lastCounts[i] : 0);
+            if (delta != 0) {
+                interval.counts.set(i, delta);
+                if (lowest == -1) lowest = i;
+                highest = i;
+            }
+        } // FOR
+        long current_sum = this.sum.get();
+        interval.sum.set(current_sum - this.lastSum);
+        if (lowest != -1) {
+            interval.min.set(Math.max(lowestEquivalentValue(lowest), this.min.get()));
+            interval.max.set(Math.min(highestEquivalentValue(highest), this.max.get()));
+        }
+        this.lastCounts = current;
+        this.lastSum = current_sum;
+        return (interval);
+    }
+
+    /**
+     * Return a point-in-time copy of this histogram
+     * @return
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.add(this);
+        return (copy);
+    }
+
+    // ----------------------------------------------------------------------------
+    // ACCESS METHODS
+    // ----------------------------------------------------------------------------
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < NUM_COUNTS; i++) {
+            total += this.counts.get(i);
+        } // FOR
+        return (total);
+    }
+    public boolean isEmpty() {
+        return (this.max.get() == Long.MIN_VALUE);
+    }
+    public long getSum() {
+        return (this.sum.get());
+    }
+    public long getMin() {
+        return (this.isEmpty() ? 0 : this.min.get());
+    }
+    public long getMax() {
+        return (this.isEmpty() ? 0 : this.max.get());
+    }
+    public double getMean() {
+        long total = this.getCount();
+        return (total == 0 ? 0d : this.sum.get() / (double)total);
+    }
+
+    /**
+     * Return the value at the given percentile (0.0 - 100.0)
+     * The returned value is the largest value that shares the same bucket
+     * as the real measurement at that percentile, but it will never be
+     * larger than the max value recorded.
+     * @param percentile
+     * @return
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = this.getCount();
+        if (total == 0) return (0);
+        if (percentile >= 100d) return (this.getMax());
+
+        long target = Math.max(1, (long)Math.ceil((percentile / 100d) * total));
+        long seen = 0;
+        for (int i = 0; i < NUM_COUNTS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= target) {
+                return (Math.max(this.getMin(), Math.min(highestEquivalentValue(i), this.getMax())));
+            }
+        } // FOR
+        return (this.getMax());
+    }
+
+    @Override
+    public String toString() {
+        return (String.format("count=%d, p50=%d, p95=%d, p99=%d, p99.9=%d, max=%d",
+                              this.getCount(),
+                              this.getValueAtPercentile(50),
+                              this.getValueAtPercentile(95),
+                              this.getValueAtPercentile(99),
+                              this.getValueAtPercentile(99.9),
+                              this.getMax()));
+    }
+
+    // ----------------------------------------------------------------------------
+    // SERIALIZATION METHODS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public void load(String input_path, Database catalog_db) throws IOException {
+        JSONUtil.load(this, catalog_db, input_path);
+    }
+    @Override
+    public void save(String output_path) throws IOException {
+        JSONUtil.save(this, output_path);
+    }
+    @Override
+    public String toJSONString() {
+        return (JSONUtil.toJSONString(this));
+    }
+    @Override
+    public void toJSON(JSONStringer stringer) throws JSONException {
+        // Only write out the non-empty buckets
+        stringer.key(Members.COUNTS.name()).object();
+        for (int i = 0; i < NUM_COUNTS; i++) {
+            long cnt = this.counts.get(i);
+            if (cnt != 0) stringer.key(Integer.toString(i)).value(cnt);
+        } // FOR
+        stringer.endObject();
+        stringer.key(Members.SUM.name()).value(this.sum.get());
+        stringer.key(Members.MIN.name()).value(this.min.get());
+        stringer.key(Members.MAX.name()).value(this.max.get());
+    }
+    @SuppressWarnings("unchecked")
+    @Override
+    public void fromJSON(JSONObject json_object, Database catalog_db) throws JSONException {
+        this.clear();
+        JSONObject json_counts = json_object.getJSONObject(Members.COUNTS.name());
+        Iterator<String> keys = json_counts.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            this.counts.set(Integer.parseInt(key), json_counts.getLong(key));
+        } // WHILE
+        this.sum.set(json_object.getLong(Members.SUM.name()));
+        this.min.set(json_object.getLong(Members.MIN.name()));
+        this.max.set(json_object.getLong(Members.MAX.name()));
+    }
+}
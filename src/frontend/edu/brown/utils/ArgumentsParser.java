@@ -668,7 +668,12 @@ public class ArgumentsParser {
             if (this.workload_filter != null && debug)
                 LOG.debug("Workload Filters: " + this.workload_filter.toString());
             this.workload = new Workload(this.catalog);
-            this.workload.load(path, this.catalog_db, this.workload_filter);
+            // Binary traces are streamed from the file instead of being loaded into memory
+            if (BinaryWorkloadFormat.isBinaryTrace(new File(path))) {
+                this.workload.stream(path, this.catalog_db, this.workload_filter);
+            } else {
+                this.workload.load(path, this.catalog_db, this.workload_filter);
+            }
             this.workload_path = new File(path).getAbsolutePath();
             if (this.workload_filter != null)
                 this.workload_filter.reset();
@@ -0,0 +1,325 @@
+/***************************************************************************
+ *  Copyright (C) 2012 by H-Store Project                                  *
+ *  Brown University                                                       *
+ *  Massachusetts Institute of Technology                                  *
+ *  Yale University                                                        *
+ *                                                                         *
+ *  http://hstore.cs.brown.edu/                                            *
+ *                                                                         *
+ *  Permission is hereby granted, free of charge, to any person obtaining  *
+ *  a copy of this software and associated documentation files (the        *
+ *  "Software"), to deal in the Software without restriction, including    *
+ *  without limitation the rights to use, copy, modify, merge, publish,    *
+ *  distribute, sublicense, and/or sell copies of the Software, and to     *
+ *  permit persons to whom the Software is furnished to do so, subject to  *
+ *  the following conditions:                                              *
+ *                                                                         *
+ *  The above copyright notice and this permission notice shall be         *
+ *  included in all copies or substantial portions of the Software.        *
+ *                                                                         *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,        *
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF     *
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. *
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR      *
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,  *
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR  *
+ *  OTHER DEALINGS IN THE SOFTWARE.                                        *
+ ***************************************************************************/
+package edu.brown.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * The layout of the CPUs on this machine (sockets, physical cores, hyperthreads,
+ * and NUMA nodes) as reported by Linux in /sys/devices/system/cpu.
+ * If that information is not available, then we assume that every CPU is
+ * its own physical core on a single socket.
+ */
+public class CPUTopology {
+    private static final Logger LOG = Logger.getLogger(CPUTopology.class);
+    private final static LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private final static LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+    
+    public static final String SYSFS_CPU_DIR = "/sys/devices/system/cpu";
+    
+    private static final Pattern CPU_DIR_REGEX = Pattern.compile("cpu([\\d]+)");
+    private static final Pattern NODE_DIR_REGEX = Pattern.compile("node([\\d]+)");
+
+    /**
+     * A single logical CPU
+     */
+    public static class CPU {
+        public final int id;
+        public final int socket;
+        public final int core;
+        public final int node;
+        
+        public CPU(int id, int socket, int core, int node) {
+            this.id = id;
+            this.socket = socket;
+            this.core = core;
+            this.node = node;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("CPU[%02d]{socket=%d, core=%d, node=%d}",
+                                 this.id, this.socket, this.core, this.node);
+        }
+    } // END CLASS
+    
+    private final Map<Integer, CPU> cpus = new TreeMap<Integer, CPU>();
+    
+    // ----------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Create a flat topology where each CPU is its own core on a single socket
+     * @param num_cpus
+     */
+    public CPUTopology(int num_cpus) {
+        for (int i = 0; i < num_cpus; i++) {
+            this.cpus.put(i, new CPU(i, 0, i, 0));
+        } // FOR
+    }
+    
+    /**
+     * Create a topology for the given CPUs
+     * @param cpus
+     */
+    public CPUTopology(Collection<CPU> cpus) {
+        for (CPU cpu : cpus) {
+            this.cpus.put(cpu.id, cpu);
+        } // FOR
+    }
+    
+    /**
+     * Read the CPU topology of this machine. If it is not available,
+     * then we will return a flat topology for the given number of CPUs
+     * @param num_cpus
+     * @return
+     */
+    public static CPUTopology load(int num_cpus) {
+        CPUTopology topology = null;
+        try {
+            topology = load(new File(SYSFS_CPU_DIR));
+        } catch (Exception ex) {
+            if (debug.get()) LOG.warn("Failed to read CPU topology from " + SYSFS_CPU_DIR, ex);
+        }
+        if (topology == null || topology.getNumCPUs() == 0) {
+            if (debug.get()) LOG.debug("Using flat CPU topology for " + num_cpus + " CPUs");
+            topology = new CPUTopology(num_cpus);
+        }
+        return (topology);
+    }
+    
+    /**
+     * Read the CPU topology from the given sysfs directory
+     * Offline CPUs are ignored.
+     * @param dir
+     * @return
+     * @throws IOException
+     */
+    public static CPUTopology load(File dir) throws IOException {
+        if (dir.isDirectory() == false) {
+            throw new IOException("Invalid CPU topology directory " + dir);
+        }
+        List<CPU> cpus = new ArrayList<CPU>();
+        for (File cpu_dir : dir.listFiles()) {
+            Matcher m = CPU_DIR_REGEX.matcher(cpu_dir.getName());
+            if (m.matches() == false || cpu_dir.isDirectory() == false) continue;
+            int id = Integer.parseInt(m.group(1));
+            
+            File online = new File(cpu_dir, "online");
+            if (online.exists() && readInt(online, 1) == 0) {
+                if (debug.get()) LOG.debug(String.format("Skipping offline CPU #%d", id));
+                continue;
+            }
+            
+            File topology_dir = new File(cpu_dir, "topology");
+            int socket = readInt(new File(topology_dir, "physical_package_id"), 0);
+            int core = readInt(new File(topology_dir, "core_id"), id);
+            int node = -1;
+            for (File f : cpu_dir.listFiles()) {
+                Matcher n = NODE_DIR_REGEX.matcher(f.getName());
+                if (n.matches()) {
+                    node = Integer.parseInt(n.group(1));
+                    break;
+                }
+            } // FOR
+            if (node < 0) node = socket;
+            
+            CPU cpu = new CPU(id, socket, core, node);
+            if (trace.get()) LOG.trace("Found " + cpu);
+            cpus.add(cpu);
+        } // FOR
+        return (new CPUTopology(cpus));
+    }
+    
+    /**
+     * Read a single integer from a sysfs file. Note that we can't use
+     * FileUtil.readFile() here because these files don't report their size
+     */
+    private static int readInt(File f, int defaultValue) throws IOException {
+        if (f.exists() == false) return (defaultValue);
+        String line = null;
+        BufferedReader in = new BufferedReader(new FileReader(f));
+        try {
+            line = in.readLine();
+        } finally {
+            in.close();
+        }
+        if (line == null) return (defaultValue);
+        try {
+            return (Integer.parseInt(line.trim()));
+        } catch (NumberFormatException ex) {
+            return (defaultValue);
+        }
+    }
+    
+    // ----------------------------------------------------------------------------
+    // METHODS
+    // ----------------------------------------------------------------------------
+    
+    public int getNumCPUs() {
+        return (this.cpus.size());
+    }
+    
+    public CPU getCPU(int id) {
+        return (this.cpus.get(id));
+    }
+    
+    public Collection<CPU> getCPUs() {
+        return (Collections.unmodifiableCollection(this.cpus.values()));
+    }
+    
+    /**
+     * Return the NUMA node of the given CPU
+     * @param id
+     * @return
+     */
+    public int getNode(int id) {
+        CPU cpu = this.cpus.get(id);
+        return (cpu != null ? cpu.node : 0);
+    }
+    
+    public Set<Integer> getNodes() {
+        Set<Integer> nodes = new HashSet<Integer>();
+        for (CPU cpu : this.cpus.values()) {
+            nodes.add(cpu.node);
+        } // FOR
+        return (nodes);
+    }
+    
+    public Set<Integer> getSockets() {
+        Set<Integer> sockets = new HashSet<Integer>();
+        for (CPU cpu : this.cpus.values()) {
+            sockets.add(cpu.socket);
+        } // FOR
+        return (sockets);
+    }
+    
+    /**
+     * Returns true if the two CPUs are hyperthreads of the same physical core 
+     * @param id0
+     * @param id1
+     * @return
+     */
+    public boolean isSameCore(int id0, int id1) {
+        CPU cpu0 = this.cpus.get(id0);
+        CPU cpu1 = this.cpus.get(id1);
+        if (cpu0 == null || cpu1 == null) return (id0 == id1);
+        return (cpu0.socket == cpu1.socket && cpu0.core == cpu1.core);
+    }
+    
+    /**
+     * Returns the order that CPUs should be handed out to threads so that they are
+     * spread out as much as possible. We go round-robin across the sockets and 
+     * use up all of the physical cores before we start using their hyperthreads.
+     * @return
+     */
+    public List<CPU> getPlacementOrder() {
+        // For each CPU, figure out which hyperthread it is for its physical core
+        // The first CPU that we see for a core is its first thread
+        final Map<CPU, Integer> thread_idx = new TreeMap<CPU, Integer>(new Comparator<CPU>() {
+            @Override
+            public int compare(CPU o1, CPU o2) {
+                return (o1.id - o2.id);
+            }
+        });
+        Map<String, Integer> core_ctr = new TreeMap<String, Integer>();
+        for (CPU cpu : this.cpus.values()) {
+            String key = cpu.socket + ":" + cpu.core;
+            Integer ctr = core_ctr.get(key);
+            if (ctr == null) ctr = 0;
+            thread_idx.put(cpu, ctr);
+            core_ctr.put(key, ctr + 1);
+        } // FOR
+        
+        // Then sort the CPUs on each socket by hyperthread and then core
+        Map<Integer, List<CPU>> sockets = new TreeMap<Integer, List<CPU>>();
+        for (CPU cpu : this.cpus.values()) {
+            List<CPU> l = sockets.get(cpu.socket);
+            if (l == null) {
+                l = new ArrayList<CPU>();
+                sockets.put(cpu.socket, l);
+            }
+            l.add(cpu);
+        } // FOR
+        Comparator<CPU> comparator = new Comparator<CPU>() {
+            @Override
+            public int compare(CPU o1, CPU o2) {
+                int diff = thread_idx.get(o1) - thread_idx.get(o2);
+                if (diff == 0) diff = o1.core - o2.core;
+                if (diff == 0) diff = o1.id - o2.id;
+                return (diff);
+            }
+        };
+        for (List<CPU> l : sockets.values()) {
+            Collections.sort(l, comparator);
+        } // FOR
+        
+        // Finally go round-robin across the sockets
+        List<CPU> order = new ArrayList<CPU>();
+        int offset = 0;
+        while (order.size() < this.cpus.size()) {
+            for (List<CPU> l : sockets.values()) {
+                if (offset < l.size()) order.add(l.get(offset));
+            } // FOR
+            offset++;
+        } // WHILE
+        return (order);
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (CPU cpu : this.cpus.values()) {
+            sb.append(cpu).append("\n");
+        } // FOR
+        return (sb.toString());
+    }
+}
@@ -821,6 +821,30 @@ public class PartitionEstimator {
         }
         assert(catalog_proc != null) :
             "Invalid procedure name '" + invocation.getProcName() + "'";
+        return (this.getBasePartition(catalog_proc, invocation));
+    }
+
+    /**
+     * Returns the target partition for a StoredProcedureInvocation instance.
+     * If the invocation's ParameterSet has not been built yet, then we will read the
+     * partitioning parameter directly out of the serialized parameters.
+     * 
+     * @param catalog_proc
+     * @param invocation
+     * @return
+     * @throws Exception
+     */
+    public Integer getBasePartition(final Procedure catalog_proc, StoredProcedureInvocation invocation) throws Exception {
+        assert (catalog_proc != null);
+        ProcParameter catalog_param = this.cache_procPartitionParameters.get(catalog_proc);
+        if (invocation.getParams() == null &&
+            catalog_param != null &&
+            catalog_param.getIndex() >= 0 &&
+            (catalog_param instanceof MultiProcParameter) == false) {
+            Object value = invocation.getParameterAtIndex(catalog_param.getIndex());
+            return (this.calculatePartition(catalog_proc, value, catalog_param.getIsarray()));
+        }
+        invocation.buildParameterSet();
         return (this.getBasePartition(catalog_proc, invocation.getParams().toArray(), false));
     }
 
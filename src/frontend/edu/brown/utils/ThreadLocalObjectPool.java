@@ -0,0 +1,303 @@
+/***************************************************************************
+ *  Copyright (C) 2012 by H-Store Project                                  *
+ *  Brown University                                                       *
+ *  Massachusetts Institute of Technology                                  *
+ *  Yale University                                                        *
+ *                                                                         *
+ *  http://hstore.cs.brown.edu/                                            *
+ *                                                                         *
+ *  Permission is hereby granted, free of charge, to any person obtaining  *
+ *  a copy of this software and associated documentation files (the        *
+ *  "Software"), to deal in the Software without restriction, including    *
+ *  without limitation the rights to use, copy, modify, merge, publish,    *
+ *  distribute, sublicense, and/or sell copies of the Software, and to     *
+ *  permit persons to whom the Software is furnished to do so, subject to  *
+ *  the following conditions:                                              *
+ *                                                                         *
+ *  The above copyright notice and this permission notice shall be         *
+ *  included in all copies or substantial portions of the Software.        *
+ *                                                                         *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,        *
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF     *
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. *
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR      *
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,  *
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR  *
+ *  OTHER DEALINGS IN THE SOFTWARE.                                        *
+ ***************************************************************************/
+package edu.brown.utils;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.pool.BaseObjectPool;
+import org.apache.log4j.Logger;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * An object pool where each thread keeps its own cache of idle objects so that
+ * borrowing and returning objects does not need to acquire a lock.
+ * When a thread's cache is empty, it grabs a full batch of objects from a shared
+ * lock-free depot. When its cache is full, it hands the whole batch over to the depot.
+ * This means that objects that are borrowed on one thread and returned on another
+ * will eventually make their way back to the borrowing thread.
+ * The pool also keeps track of the number of borrows that were served from
+ * idle objects (hits) versus those that had to create a new object (misses).
+ * @param <T>
+ */
+public class ThreadLocalObjectPool<T extends Poolable> extends BaseObjectPool {
+    private static final Logger LOG = Logger.getLogger(ThreadLocalObjectPool.class);
+    private final static LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private final static LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+    
+    /**
+     * The default max number of idle objects to keep in the depot
+     * This is the same as StackObjectPool's default
+     */
+    public static final int DEFAULT_MAX_IDLE = 8;
+    
+    /**
+     * The default number of objects that each thread will cache locally
+     */
+    public static final int DEFAULT_CACHE_SIZE = 32;
+
+    /**
+     * Per-thread cache of idle objects. Only the owning thread is allowed
+     * to modify these fields. The counters are volatile because the stats
+     * methods read them from other threads. Since there is only a single
+     * writer, we don't need an AtomicLong to keep the increments from being lost.
+     */
+    private final class ThreadCache {
+        private Object batch[] = new Object[cacheSize];
+        private int size = 0;
+        private volatile long hits = 0;
+        private volatile long misses = 0;
+        private volatile long borrowed = 0;
+        private volatile long returned = 0;
+    } // END CLASS
+    
+    private final TypedPoolableObjectFactory<T> factory;
+    private final int cacheSize;
+    private final int maxDepotSize;
+    
+    /**
+     * Full batches of idle objects that any thread can take
+     */
+    private final ConcurrentLinkedQueue<Object[]> depot = new ConcurrentLinkedQueue<Object[]>();
+    private final AtomicInteger depotSize = new AtomicInteger(0);
+    
+    private final AtomicLong created = new AtomicLong(0);
+    private final AtomicLong destroyed = new AtomicLong(0);
+    
+    /**
+     * All of the ThreadCaches that we have ever created
+     * This is only used for computing the pool's stats
+     */
+    private final Collection<ThreadCache> caches = new ConcurrentLinkedQueue<ThreadCache>();
+    
+    private final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<ThreadCache>() {
+        @Override
+        protected ThreadCache initialValue() {
+            ThreadCache cache = new ThreadCache();
+            caches.add(cache);
+            return (cache);
+        }
+    };
+
+    // ----------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // ----------------------------------------------------------------------------
+    
+    public ThreadLocalObjectPool(TypedPoolableObjectFactory<T> factory) {
+        this(factory, DEFAULT_MAX_IDLE, DEFAULT_CACHE_SIZE);
+    }
+
+    public ThreadLocalObjectPool(TypedPoolableObjectFactory<T> factory, int idle) {
+        this(factory, idle, DEFAULT_CACHE_SIZE);
+    }
+    
+    /**
+     * Constructor
+     * @param factory
+     * @param idle The max number of idle objects to keep in the shared depot
+     * @param cache_size The max number of idle objects that each thread will keep locally
+     */
+    public ThreadLocalObjectPool(TypedPoolableObjectFactory<T> factory, int idle, int cache_size) {
+        assert(factory != null);
+        this.factory = factory;
+        this.cacheSize = Math.max(1, Math.min(cache_size, idle));
+        this.maxDepotSize = Math.max(1, (int)Math.ceil(idle / (double)this.cacheSize));
+    }
+    
+    // ----------------------------------------------------------------------------
+    // POOL METHODS
+    // ----------------------------------------------------------------------------
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public T borrowObject() throws Exception {
+        ThreadCache cache = this.threadCache.get();
+        
+        // If our local cache is empty, then try to grab a full batch from the depot
+        if (cache.size == 0) {
+            Object batch[] = this.depot.poll();
+            if (batch != null) {
+                this.depotSize.decrementAndGet();
+                cache.batch = batch;
+                cache.size = batch.length;
+            }
+        }
+        
+        Object obj = null;
+        if (cache.size > 0) {
+            obj = cache.batch[--cache.size];
+            cache.batch[cache.size] = null;
+            cache.hits++;
+        } else {
+            obj = this.factory.makeObject();
+            this.created.incrementAndGet();
+            cache.misses++;
+        }
+        this.factory.activateObject(obj);
+        cache.borrowed++;
+        
+        T t = (T)obj;
+        assert (t.isInitialized() == false) : String.format("Trying to reuse %s<%s> before it is finished!", this.getClass().getSimpleName(), t);
+        return (t);
+    }
+    
+    public void returnObject(T t) {
+        if (debug.get())
+            LOG.debug(String.format("Returning %s back to ObjectPool [hashCode=%d]", t.getClass().getSimpleName(), t.hashCode()));
+        try {
+            this.factory.passivateObject(t);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+        
+        ThreadCache cache = this.threadCache.get();
+        cache.returned++;
+        
+        // If our local cache is full, then give the whole batch to the depot
+        // If the depot is full too, then we'll just let this object go
+        if (cache.size == this.cacheSize) {
+            if (this.depotSize.incrementAndGet() > this.maxDepotSize) {
+                this.depotSize.decrementAndGet();
+                this.destroy(t);
+                return;
+            }
+            this.depot.offer(cache.batch);
+            cache.batch = new Object[this.cacheSize];
+            cache.size = 0;
+        }
+        cache.batch[cache.size++] = t;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public void returnObject(Object obj) throws Exception {
+        this.returnObject((T)obj);
+    }
+
+    @Override
+    public void invalidateObject(Object obj) throws Exception {
+        this.threadCache.get().returned++;
+        this.destroy(obj);
+    }
+    
+    /**
+     * Destroy all of the idle objects in the depot.
+     * Objects cached by other threads are not affected.
+     */
+    @Override
+    public void clear() throws Exception {
+        Object batch[] = null;
+        while ((batch = this.depot.poll()) != null) {
+            this.depotSize.decrementAndGet();
+            for (Object obj : batch) {
+                this.destroy(obj);
+            } // FOR
+        } // WHILE
+    }
+    
+    @Override
+    public void close() throws Exception {
+        super.close();
+        this.clear();
+    }
+    
+    private void destroy(Object obj) {
+        try {
+            this.factory.destroyObject(obj);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+        this.destroyed.incrementAndGet();
+    }
+    
+    // ----------------------------------------------------------------------------
+    // STATS
+    // ----------------------------------------------------------------------------
+    
+    public TypedPoolableObjectFactory<T> getFactory() {
+        return (this.factory);
+    }
+    
+    @Override
+    public int getNumActive() {
+        long active = 0;
+        for (ThreadCache cache : this.caches) {
+            active += (cache.borrowed - cache.returned);
+        } // FOR
+        return ((int)Math.max(0, active));
+    }
+    
+    @Override
+    public int getNumIdle() {
+        long idle = this.created.get() - this.destroyed.get() - this.getNumActive();
+        return ((int)Math.max(0, idle));
+    }
+    
+    /**
+     * Returns the number of borrows that were able to reuse an idle object
+     */
+    public long getHitCount() {
+        long hits = 0;
+        for (ThreadCache cache : this.caches) {
+            hits += cache.hits;
+        } // FOR
+        return (hits);
+    }
+    
+    /**
+     * Returns the number of borrows that had to create a new object
+     */
+    public long getMissCount() {
+        long misses = 0;
+        for (ThreadCache cache : this.caches) {
+            misses += cache.misses;
+        } // FOR
+        return (misses);
+    }
+
+    /**
+     * @param <X>
+     * @param clazz
+     * @param idle
+     * @param cache_size
+     * @param enable_tracking
+     * @param args
+     * @return
+     */
+    public static <X extends Poolable> ThreadLocalObjectPool<X> factory(final Class<X> clazz, final int idle, final int cache_size, final boolean enable_tracking, final Object... args) {
+        TypedPoolableObjectFactory<X> factory = TypedPoolableObjectFactory.makeFactory(clazz, enable_tracking, args);
+        return new ThreadLocalObjectPool<X>(factory, idle, cache_size);
+    }
+}
@@ -0,0 +1,275 @@
+package edu.brown.workload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+
+import org.voltdb.VoltType;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.types.TimestampType;
+import org.voltdb.types.VoltDecimalHelper;
+
+/**
+ * Constants and value encoding for binary workload trace files.
+ * <pre>
+ * FILE    := HEADER BLOCK* INDEX TRAILER
+ * HEADER  := [int MAGIC][int VERSION]
+ * BLOCK   := RECORD*
+ * RECORD  := [int length][short proc_name_id][TXN]
+ *          | [int length][short NAME_RECORD][string name]
+ * INDEX   := [int num_names][string name]* [int num_blocks][BLOCK_ENTRY]*
+ * ENTRY   := [long offset][int length][int num_txns][int num_queries]
+ *            [long min_start][long max_start][short num_procs]([short proc_name_id][int count])*
+ * TRAILER := [long index_offset][int MAGIC]
+ * </pre>
+ * All of the catalog names (procedure names and statement keys) are stored once in the
+ * index's name dictionary and are referenced by their id in the records. The record length
+ * only covers the TXN part so that readers can skip over transactions for procedures that
+ * they do not care about without deserializing them. Each name is also defined inline with
+ * a NAME record right before the first record that uses it (the ids are assigned in the
+ * order that the NAME records appear). That way if the writer crashes before it writes out
+ * the index, the reader can still rebuild it by scanning the records.
+ */
+public abstract class BinaryWorkloadFormat {
+
+    /** The default file extension for binary workload traces */
+    public static final String FILE_EXTENSION = ".bintrace";
+
+    static final int MAGIC = 0x48535754; // "HSWT"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int TRAILER_SIZE = 12;
+    static final int RECORD_HEADER_SIZE = 6;
+    /** The proc_name_id for a record that defines a new catalog name */
+    static final short NAME_RECORD = -1;
+
+    /** Target number of bytes per block */
+    static final int BLOCK_SIZE = 1048576; // 1MB
+
+    private static final byte ARRAY = -99;
+    private static final long NULL_TIMESTAMP = Long.MIN_VALUE;
+
+    /**
+     * Returns true if the given file is a binary workload trace
+     * @param path
+     * @return
+     */
+    public static boolean isBinaryTrace(File path) {
+        if (path.isFile() == false || path.length() < HEADER_SIZE + TRAILER_SIZE) return (false);
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(path, "r");
+            return (file.readInt() == MAGIC);
+        } catch (IOException ex) {
+            return (false);
+        } finally {
+            try {
+                if (file != null) file.close();
+            } catch (IOException ex) {
+                // IGNORE
+            }
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // TIMESTAMPS
+    // ----------------------------------------------------------------------------
+
+    static void writeTimestamp(FastSerializer fs, Long timestamp) throws IOException {
+        fs.writeLong(timestamp != null ? timestamp.longValue() : NULL_TIMESTAMP);
+    }
+
+    static Long readTimestamp(FastDeserializer fds) throws IOException {
+        long timestamp = fds.readLong();
+        return (timestamp != NULL_TIMESTAMP ? timestamp : null);
+    }
+
+    // ----------------------------------------------------------------------------
+    // VALUES
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Serialize a trace parameter or output value. Arrays (including primitive arrays)
+     * are always read back as Object[] so that they look the same as the ones that
+     * are loaded from JSON traces.
+     * @param fs
+     * @param value
+     * @throws IOException
+     */
+    static void writeValue(FastSerializer fs, Object value) throws IOException {
+        if (value == null) {
+            fs.writeByte(VoltType.NULL.getValue());
+            return;
+        }
+        Class<?> cls = value.getClass();
+        if (cls.isArray()) {
+            int length = Array.getLength(value);
+            fs.writeByte(ARRAY);
+            fs.writeInt(length);
+            for (int i = 0; i < length; i++) {
+                writeValue(fs, Array.get(value, i));
+            } // FOR
+            return;
+        }
+
+        VoltType type = null;
+        try {
+            type = VoltType.typeFromClass(cls);
+        } catch (Exception ex) {
+            // Anything that we don't know about gets stored as a string just like
+            // what would happen if it was written out as JSON
+            type = VoltType.STRING;
+            value = value.toString();
+        }
+        switch (type) {
+            case TINYINT:
+                fs.writeByte(type.getValue());
+                fs.writeByte(((Number)value).byteValue());
+                break;
+            case SMALLINT:
+                fs.writeByte(type.getValue());
+                fs.writeShort(((Number)value).shortValue());
+                break;
+            case INTEGER:
+                fs.writeByte(type.getValue());
+                fs.writeInt(((Number)value).intValue());
+                break;
+            case BIGINT:
+                fs.writeByte(type.getValue());
+                fs.writeLong(((Number)value).longValue());
+                break;
+            case FLOAT:
+                fs.writeByte(type.getValue());
+                fs.writeDouble(((Number)value).doubleValue());
+                break;
+            case STRING:
+                fs.writeByte(type.getValue());
+                fs.writeString(value.toString());
+                break;
+            case TIMESTAMP:
+                fs.writeByte(type.getValue());
+                fs.writeTimestamp((TimestampType)value);
+                break;
+            case DECIMAL:
+                fs.writeByte(type.getValue());
+                VoltDecimalHelper.serializeBigDecimal((BigDecimal)value, fs);
+                break;
+            case BOOLEAN:
+                fs.writeByte(type.getValue());
+                fs.writeBoolean((Boolean)value);
+                break;
+            default:
+                fs.writeByte(VoltType.STRING.getValue());
+                fs.writeString(value.toString());
+        } // SWITCH
+    }
+
+    static Object readValue(FastDeserializer fds) throws IOException {
+        byte tag = fds.readByte();
+        if (tag == ARRAY) {
+            Object inner[] = new Object[fds.readInt()];
+            for (int i = 0; i < inner.length; i++) {
+                inner[i] = readValue(fds);
+            } // FOR
+            return (inner);
+        }
+        VoltType type = VoltType.get(tag);
+        switch (type) {
+            case NULL:
+                return (null);
+            case TINYINT:
+                return (fds.readByte());
+            case SMALLINT:
+                return (fds.readShort());
+            case INTEGER:
+                return (fds.readInt());
+            case BIGINT:
+                return (fds.readLong());
+            case FLOAT:
+                return (fds.readDouble());
+            case STRING:
+                return (fds.readString());
+            case TIMESTAMP:
+                return (fds.readTimestamp());
+            case DECIMAL:
+                return (fds.readBigDecimal());
+            case BOOLEAN:
+                return (fds.readBoolean());
+            default:
+                throw new IOException("Unexpected value type " + type + " in binary workload trace");
+        } // SWITCH
+    }
+
+    // ----------------------------------------------------------------------------
+    // OUTPUT TABLES
+    // ----------------------------------------------------------------------------
+
+    static void writeOutput(FastSerializer fs, AbstractTraceElement<?> element) throws IOException {
+        Object output[][][] = element.output;
+        if (output == null) {
+            fs.writeInt(-1);
+            return;
+        }
+        fs.writeInt(output.length);
+        for (int i = 0; i < output.length; i++) {
+            VoltType types[] = (element.output_types != null ? element.output_types[i] : null);
+            if (types == null) {
+                fs.writeInt(-1);
+            } else {
+                fs.writeInt(types.length);
+                for (VoltType type : types) {
+                    fs.writeByte((type == null ? VoltType.NULL : type).getValue());
+                } // FOR
+            }
+
+            Object data[][] = output[i];
+            if (data == null) {
+                fs.writeInt(-1);
+                continue;
+            }
+            fs.writeInt(data.length);
+            for (Object row[] : data) {
+                if (row == null) {
+                    fs.writeInt(-1);
+                    continue;
+                }
+                fs.writeInt(row.length);
+                for (Object value : row) {
+                    writeValue(fs, value);
+                } // FOR
+            } // FOR (rows)
+        } // FOR (tables)
+    }
+
+    static void readOutput(FastDeserializer fds, AbstractTraceElement<?> element) throws IOException {
+        int num_tables = fds.readInt();
+        if (num_tables < 0) return;
+        element.output = new Object[num_tables][][];
+        element.output_types = new VoltType[num_tables][];
+        for (int i = 0; i < num_tables; i++) {
+            int num_types = fds.readInt();
+            if (num_types >= 0) {
+                element.output_types[i] = new VoltType[num_types];
+                for (int j = 0; j < num_types; j++) {
+                    element.output_types[i][j] = VoltType.get(fds.readByte());
+                } // FOR
+            }
+
+            int num_rows = fds.readInt();
+            if (num_rows < 0) continue;
+            element.output[i] = new Object[num_rows][];
+            for (int j = 0; j < num_rows; j++) {
+                int num_cols = fds.readInt();
+                if (num_cols < 0) continue;
+                Object row[] = new Object[num_cols];
+                for (int k = 0; k < num_cols; k++) {
+                    row[k] = readValue(fds);
+                } // FOR
+                element.output[i][j] = row;
+            } // FOR (rows)
+        } // FOR (tables)
+    }
+}
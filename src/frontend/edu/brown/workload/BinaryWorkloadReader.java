@@ -0,0 +1,461 @@
+package edu.brown.workload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.statistics.Histogram;
+import edu.brown.workload.filters.Filter;
+import edu.brown.workload.filters.ProcedureNameFilter;
+
+/**
+ * Streams TransactionTraces out of a binary workload trace file (see {@link BinaryWorkloadFormat}).
+ * Only the block index is kept in memory. Each block is memory-mapped when the iterator
+ * gets to it, and the traces are deserialized one at a time as they are requested.
+ * If the Filter given to {@link #iterator(Filter)} has any {@link ProcedureNameFilter} whitelists,
+ * then the iterator will skip entire blocks (and individual records) for the other procedures
+ * without deserializing them.
+ * If the trace was never closed properly (e.g., the writer crashed), then we will rebuild
+ * the block index by scanning through all of the records in the file.
+ */
+public class BinaryWorkloadReader implements Iterable<TransactionTrace> {
+    private static final Logger LOG = Logger.getLogger(BinaryWorkloadReader.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * Index entry for a single block of transaction records
+     */
+    static class Block {
+        long offset;
+        int length;
+        int num_txns;
+        int num_queries;
+        long min_start;
+        long max_start;
+        short proc_ids[];
+        int proc_counts[];
+
+        void writeExternal(FastSerializer fs) throws IOException {
+            fs.writeLong(this.offset);
+            fs.writeInt(this.length);
+            fs.writeInt(this.num_txns);
+            fs.writeInt(this.num_queries);
+            fs.writeLong(this.min_start);
+            fs.writeLong(this.max_start);
+            fs.writeShort(this.proc_ids.length);
+            for (int i = 0; i < this.proc_ids.length; i++) {
+                fs.writeShort(this.proc_ids[i]);
+                fs.writeInt(this.proc_counts[i]);
+            } // FOR
+        }
+
+        void readExternal(FastDeserializer fds) throws IOException {
+            this.offset = fds.readLong();
+            this.length = fds.readInt();
+            this.num_txns = fds.readInt();
+            this.num_queries = fds.readInt();
+            this.min_start = fds.readLong();
+            this.max_start = fds.readLong();
+            int num_procs = fds.readShort();
+            this.proc_ids = new short[num_procs];
+            this.proc_counts = new int[num_procs];
+            for (int i = 0; i < num_procs; i++) {
+                this.proc_ids[i] = fds.readShort();
+                this.proc_counts[i] = fds.readInt();
+            } // FOR
+        }
+
+        boolean hasAny(boolean allowed[]) {
+            for (short proc_id : this.proc_ids) {
+                if (allowed[proc_id]) return (true);
+            } // FOR
+            return (false);
+        }
+    } // CLASS
+
+    private final File input_path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final String names[];
+    private final Block blocks[];
+    private final int num_txns;
+    private final int num_queries;
+    private Long min_start_timestamp;
+    private Long max_start_timestamp;
+
+    /**
+     * Open the given binary workload trace and read in its block index
+     * @param input_path
+     * @throws IOException
+     */
+    public BinaryWorkloadReader(File input_path) throws IOException {
+        this.input_path = input_path;
+        this.file = new RandomAccessFile(input_path, "r");
+        this.channel = this.file.getChannel();
+
+        long size = this.channel.size();
+        if (size < BinaryWorkloadFormat.HEADER_SIZE) {
+            throw new IOException("Invalid binary workload trace '" + input_path + "'");
+        }
+        ByteBuffer header = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, BinaryWorkloadFormat.HEADER_SIZE);
+        if (header.getInt() != BinaryWorkloadFormat.MAGIC) {
+            throw new IOException("'" + input_path + "' is not a binary workload trace");
+        }
+        if (header.getInt() != BinaryWorkloadFormat.VERSION) {
+            throw new IOException("Unsupported binary workload trace version in '" + input_path + "'");
+        }
+        long index_offset = -1;
+        if (size >= BinaryWorkloadFormat.HEADER_SIZE + BinaryWorkloadFormat.TRAILER_SIZE) {
+            ByteBuffer trailer = this.channel.map(FileChannel.MapMode.READ_ONLY,
+                                                  size - BinaryWorkloadFormat.TRAILER_SIZE,
+                                                  BinaryWorkloadFormat.TRAILER_SIZE);
+            index_offset = trailer.getLong();
+            if (trailer.getInt() != BinaryWorkloadFormat.MAGIC) index_offset = -1;
+        }
+
+        List<String> names = new ArrayList<String>();
+        List<Block> blocks = new ArrayList<Block>();
+        if (index_offset >= 0) {
+            this.readIndex(index_offset, size, names, blocks);
+        }
+        // The writer never got to write out the index, so we'll have to rebuild it ourselves
+        else {
+            LOG.warn(String.format("Binary workload trace '%s' was not closed properly. Rebuilding its index...", input_path));
+            this.recoverIndex(size, names, blocks);
+        }
+        this.names = names.toArray(new String[names.size()]);
+        this.blocks = blocks.toArray(new Block[blocks.size()]);
+        
+        int txn_ctr = 0;
+        int query_ctr = 0;
+        for (Block block : this.blocks) {
+            txn_ctr += block.num_txns;
+            query_ctr += block.num_queries;
+            if (this.min_start_timestamp == null || block.min_start < this.min_start_timestamp) {
+                this.min_start_timestamp = block.min_start;
+            }
+            if (this.max_start_timestamp == null || block.max_start > this.max_start_timestamp) {
+                this.max_start_timestamp = block.max_start;
+            }
+        } // FOR
+        this.num_txns = txn_ctr;
+        this.num_queries = query_ctr;
+        if (debug.get()) LOG.debug(String.format("Opened binary workload trace '%s' [txns=%d, blocks=%d]",
+                                                 input_path.getName(), this.num_txns, this.blocks.length));
+    }
+
+    /**
+     * Read in the name dictionary and block index that was written out
+     * at the given offset when the trace was closed.
+     */
+    private void readIndex(long index_offset, long size, List<String> names, List<Block> blocks) throws IOException {
+        FastDeserializer fds = new FastDeserializer(this.channel.map(FileChannel.MapMode.READ_ONLY,
+                                                                     index_offset,
+                                                                     size - BinaryWorkloadFormat.TRAILER_SIZE - index_offset));
+        int num_names = fds.readInt();
+        for (int i = 0; i < num_names; i++) {
+            names.add(fds.readString());
+        } // FOR
+        int num_blocks = fds.readInt();
+        for (int i = 0; i < num_blocks; i++) {
+            Block block = new Block();
+            block.readExternal(fds);
+            blocks.add(block);
+        } // FOR
+    }
+    
+    /**
+     * Rebuild the name dictionary and the block index by scanning through all of the
+     * length-prefixed records after the header. We stop at the first record that was not
+     * completely written out (or that doesn't make sense), since that's where the writer died.
+     */
+    private void recoverIndex(long size, List<String> names, List<Block> blocks) throws IOException {
+        ByteBuffer record_header = ByteBuffer.allocate(BinaryWorkloadFormat.RECORD_HEADER_SIZE);
+        Map<Integer, Integer> block_procs = new HashMap<Integer, Integer>();
+        Block block = null;
+        long position = BinaryWorkloadFormat.HEADER_SIZE;
+        int txn_ctr = 0;
+        
+        while (position + BinaryWorkloadFormat.RECORD_HEADER_SIZE <= size) {
+            record_header.clear();
+            this.channel.read(record_header, position);
+            record_header.flip();
+            int length = record_header.getInt();
+            int proc_id = record_header.getShort();
+            long next = position + BinaryWorkloadFormat.RECORD_HEADER_SIZE + length;
+            if (length < 0 || next > size || proc_id < BinaryWorkloadFormat.NAME_RECORD || proc_id >= names.size()) break;
+            
+            ByteBuffer record = ByteBuffer.allocate(length);
+            this.channel.read(record, position + BinaryWorkloadFormat.RECORD_HEADER_SIZE);
+            record.flip();
+            FastDeserializer fds = new FastDeserializer(record);
+            String name = null;
+            TransactionTrace txn_trace = null;
+            int num_queries = 0;
+            try {
+                if (proc_id == BinaryWorkloadFormat.NAME_RECORD) {
+                    name = fds.readString();
+                } else {
+                    txn_trace = new TransactionTrace();
+                    txn_trace.txn_id = fds.readLong();
+                    readElement(fds, txn_trace);
+                    num_queries = fds.readInt();
+                }
+            } catch (Exception ex) {
+                if (debug.get()) LOG.debug("Invalid record at offset " + position + " in '" + this.input_path + "'", ex);
+                break;
+            }
+            
+            if (block == null) {
+                block = new Block();
+                block.offset = position;
+            }
+            if (name != null) {
+                names.add(name);
+            } else {
+                long start = (txn_trace.start_timestamp != null ? txn_trace.start_timestamp : 0l);
+                if (block.num_txns == 0 || start < block.min_start) block.min_start = start;
+                if (block.num_txns == 0 || start > block.max_start) block.max_start = start;
+                block.num_txns++;
+                block.num_queries += num_queries;
+                Integer cnt = block_procs.get(proc_id);
+                block_procs.put(proc_id, (cnt != null ? cnt + 1 : 1));
+                txn_ctr++;
+            }
+            position = next;
+            if (position - block.offset >= BinaryWorkloadFormat.BLOCK_SIZE) {
+                blocks.add(this.finishRecoveredBlock(block, position, block_procs));
+                block = null;
+            }
+        } // WHILE
+        if (block != null) blocks.add(this.finishRecoveredBlock(block, position, block_procs));
+        
+        LOG.warn(String.format("Recovered %d txns in %d blocks from '%s' [ignoredBytes=%d]",
+                               txn_ctr, blocks.size(), this.input_path, size - position));
+    }
+    
+    private Block finishRecoveredBlock(Block block, long end, Map<Integer, Integer> block_procs) {
+        block.length = (int)(end - block.offset);
+        block.proc_ids = new short[block_procs.size()];
+        block.proc_counts = new int[block.proc_ids.length];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> e : block_procs.entrySet()) {
+            block.proc_ids[i] = e.getKey().shortValue();
+            block.proc_counts[i] = e.getValue().intValue();
+            i++;
+        } // FOR
+        block_procs.clear();
+        return (block);
+    }
+
+    public void close() throws IOException {
+        this.file.close();
+    }
+
+    public File getInputPath() {
+        return (this.input_path);
+    }
+
+    public int getTransactionCount() {
+        return (this.num_txns);
+    }
+    public int getQueryCount() {
+        return (this.num_queries);
+    }
+    public int getBlockCount() {
+        return (this.blocks.length);
+    }
+    public Long getMinStartTimestamp() {
+        return (this.min_start_timestamp);
+    }
+    public Long getMaxStartTimestamp() {
+        return (this.max_start_timestamp);
+    }
+
+    /**
+     * Returns the number of transactions for each procedure name in this trace.
+     * This only needs to look at the block index.
+     * @return
+     */
+    public Histogram<String> getProcedureHistogram() {
+        Histogram<String> h = new Histogram<String>();
+        for (Block block : this.blocks) {
+            for (int i = 0; i < block.proc_ids.length; i++) {
+                h.put(this.names[block.proc_ids[i]], block.proc_counts[i]);
+            } // FOR
+        } // FOR
+        return (h);
+    }
+
+    /**
+     * Returns a mask of the procedure name ids that could pass the given filter,
+     * or null if all of them might be allowed
+     * @param filter
+     * @return
+     */
+    private boolean[] getAllowedProcedures(Filter filter) {
+        if (filter == null) return (null);
+        List<ProcedureNameFilter> procname_filters = filter.getFilters(ProcedureNameFilter.class);
+        if (procname_filters.isEmpty()) return (null);
+
+        Set<String> include = new HashSet<String>();
+        for (ProcedureNameFilter f : procname_filters) {
+            include.addAll(f.getProcedureNames());
+        } // FOR
+        if (include.isEmpty() || include.contains(ProcedureNameFilter.INCLUDE_ALL)) return (null);
+
+        boolean allowed[] = new boolean[this.names.length];
+        for (int i = 0; i < this.names.length; i++) {
+            allowed[i] = include.contains(this.names[i]);
+        } // FOR
+        return (allowed);
+    }
+
+    // ----------------------------------------------------------------------------
+    // ITERATORS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public Iterator<TransactionTrace> iterator() {
+        return (new BinaryWorkloadIterator(null));
+    }
+
+    public Iterator<TransactionTrace> iterator(Filter filter) {
+        return (new BinaryWorkloadIterator(filter));
+    }
+
+    private class BinaryWorkloadIterator implements Iterator<TransactionTrace> {
+        private final Filter filter;
+        private final boolean allowed[];
+        private int block_idx = -1;
+        private FastDeserializer fds = null;
+        private TransactionTrace peek = null;
+        private boolean halted = false;
+
+        public BinaryWorkloadIterator(Filter filter) {
+            this.filter = filter;
+            this.allowed = getAllowedProcedures(filter);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.peek == null && this.halted == false) {
+                try {
+                    this.peek = this.findNext();
+                } catch (IOException ex) {
+                    throw new RuntimeException("Failed to read binary workload trace '" + input_path + "'", ex);
+                }
+            }
+            return (this.peek != null);
+        }
+
+        @Override
+        public TransactionTrace next() {
+            if (this.hasNext() == false) throw new NoSuchElementException();
+            TransactionTrace current = this.peek;
+            this.peek = null;
+            return (current);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private boolean nextBlock() throws IOException {
+            while (++this.block_idx < blocks.length) {
+                Block block = blocks[this.block_idx];
+                if (this.allowed != null && block.hasAny(this.allowed) == false) {
+                    if (trace.get()) LOG.trace("Skipping block #" + this.block_idx);
+                    continue;
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, block.offset, block.length);
+                this.fds = new FastDeserializer(buffer);
+                return (true);
+            } // WHILE
+            this.fds = null;
+            return (false);
+        }
+
+        private TransactionTrace findNext() throws IOException {
+            while (true) {
+                if (this.fds == null || this.fds.buffer().hasRemaining() == false) {
+                    if (this.nextBlock() == false) return (null);
+                }
+                ByteBuffer buffer = this.fds.buffer();
+                int length = buffer.getInt();
+                int proc_id = buffer.getShort();
+                // We already loaded all of the names when we opened the trace
+                if (proc_id == BinaryWorkloadFormat.NAME_RECORD ||
+                    (this.allowed != null && this.allowed[proc_id] == false)) {
+                    buffer.position(buffer.position() + length);
+                    continue;
+                }
+                TransactionTrace txn_trace = this.readTransaction(proc_id);
+                if (this.filter != null) {
+                    Filter.FilterResult result = this.filter.apply(txn_trace);
+                    if (result == Filter.FilterResult.HALT) {
+                        this.halted = true;
+                        return (null);
+                    } else if (result == Filter.FilterResult.SKIP) {
+                        continue;
+                    }
+                }
+                return (txn_trace);
+            } // WHILE
+        }
+
+        private TransactionTrace readTransaction(int proc_id) throws IOException {
+            TransactionTrace txn_trace = new TransactionTrace();
+            txn_trace.catalog_item_name = names[proc_id];
+            txn_trace.txn_id = this.fds.readLong();
+            readElement(this.fds, txn_trace);
+            int num_queries = this.fds.readInt();
+            for (int i = 0; i < num_queries; i++) {
+                String stmt_key = names[this.fds.readShort()];
+                int batch_id = this.fds.readInt();
+                QueryTrace query_trace = new QueryTrace(stmt_key, null, batch_id);
+                readElement(this.fds, query_trace);
+                txn_trace.addQuery(query_trace);
+            } // FOR
+            return (txn_trace);
+        }
+
+    } // CLASS
+    
+    private static void readElement(FastDeserializer fds, AbstractTraceElement<?> element) throws IOException {
+        element.start_timestamp = BinaryWorkloadFormat.readTimestamp(fds);
+        element.stop_timestamp = BinaryWorkloadFormat.readTimestamp(fds);
+        element.aborted = fds.readBoolean();
+        element.weight = fds.readShort();
+        int num_params = fds.readInt();
+        if (num_params >= 0) {
+            element.params = new Object[num_params];
+            for (int i = 0; i < num_params; i++) {
+                element.params[i] = BinaryWorkloadFormat.readValue(fds);
+            } // FOR
+        }
+        BinaryWorkloadFormat.readOutput(fds, element);
+    }
+}
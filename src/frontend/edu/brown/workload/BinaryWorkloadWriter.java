@@ -0,0 +1,286 @@
+package edu.brown.workload;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.log4j.Logger;
+import org.voltdb.messaging.FastSerializer;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * Writes TransactionTraces out to a binary workload trace file (see {@link BinaryWorkloadFormat}).
+ * The traces are serialized by a separate thread so the callers never have to
+ * grab a global lock. The queue in front of that thread is bounded, which means
+ * that write() will block if the callers get too far ahead of the disk.
+ */
+public class BinaryWorkloadWriter {
+    private static final Logger LOG = Logger.getLogger(BinaryWorkloadWriter.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    /** Special marker that tells the writer thread to stop */
+    private static final TransactionTrace STOP = new TransactionTrace();
+
+    private final File output_path;
+    private final FileOutputStream output;
+    private final FileChannel channel;
+    private final BlockingQueue<TransactionTrace> queue;
+    private final Thread thread;
+    private boolean closed = false;
+    private IOException error = null;
+
+    // ----------------------------------------------------------------------------
+    // WRITER THREAD STATE
+    // ----------------------------------------------------------------------------
+
+    private final Map<String, Integer> name_ids = new HashMap<String, Integer>();
+    private final List<String> names = new ArrayList<String>();
+    private final List<BinaryWorkloadReader.Block> blocks = new ArrayList<BinaryWorkloadReader.Block>();
+    private final FastSerializer block_fs = new FastSerializer();
+    private final FastSerializer record_fs = new FastSerializer();
+    private final FastSerializer name_fs = new FastSerializer();
+    private long position = 0;
+    private long txn_ctr = 0;
+
+    private BinaryWorkloadReader.Block current = null;
+    private final Map<Integer, Integer> current_procs = new HashMap<Integer, Integer>();
+
+    /**
+     * Constructor
+     * @param output_path
+     * @param queue_size The max number of traces that can be waiting to be written
+     * @throws IOException
+     */
+    public BinaryWorkloadWriter(File output_path, int queue_size) throws IOException {
+        this.output_path = output_path;
+        this.output = new FileOutputStream(output_path);
+        this.channel = this.output.getChannel();
+        this.queue = new ArrayBlockingQueue<TransactionTrace>(queue_size);
+
+        ByteBuffer header = ByteBuffer.allocate(BinaryWorkloadFormat.HEADER_SIZE);
+        header.putInt(BinaryWorkloadFormat.MAGIC);
+        header.putInt(BinaryWorkloadFormat.VERSION);
+        header.flip();
+        this.writeFully(header);
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                BinaryWorkloadWriter.this.process();
+            }
+        });
+        this.thread.setName(this.getClass().getSimpleName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+        if (debug.get()) LOG.debug("Opened binary workload trace '" + output_path + "'");
+    }
+
+    public BinaryWorkloadWriter(File output_path) throws IOException {
+        this(output_path, DEFAULT_QUEUE_SIZE);
+    }
+
+    public File getOutputPath() {
+        return (this.output_path);
+    }
+
+    /**
+     * Queue the given TransactionTrace to be written out to the file.
+     * This will block if the writer thread is too far behind.
+     * The trace must not be modified after it is passed in here.
+     * @param txn_trace
+     */
+    public void write(TransactionTrace txn_trace) {
+        assert(txn_trace != null);
+        if (this.closed) {
+            throw new IllegalStateException("Binary workload trace '" + this.output_path + "' is closed");
+        } else if (this.error != null) {
+            throw new RuntimeException("Failed to write binary workload trace '" + this.output_path + "'", this.error);
+        }
+        try {
+            this.queue.put(txn_trace);
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Write out all of the queued traces and the block index, and then close the file
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if (this.closed) return;
+        this.closed = true;
+        try {
+            this.queue.put(STOP);
+            this.thread.join();
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+        if (this.error != null) throw this.error;
+
+        this.finishBlock();
+        long index_offset = this.position;
+        FastSerializer fs = new FastSerializer();
+        fs.writeInt(this.names.size());
+        for (String name : this.names) {
+            fs.writeString(name);
+        } // FOR
+        fs.writeInt(this.blocks.size());
+        for (BinaryWorkloadReader.Block block : this.blocks) {
+            block.writeExternal(fs);
+        } // FOR
+        fs.writeLong(index_offset);
+        fs.writeInt(BinaryWorkloadFormat.MAGIC);
+        this.writeFully(fs.getBuffer());
+        this.channel.force(false);
+        this.output.close();
+        LOG.info(String.format("Wrote %d txns in %d blocks to '%s'", this.txn_ctr, this.blocks.size(), this.output_path));
+    }
+
+    // ----------------------------------------------------------------------------
+    // WRITER THREAD
+    // ----------------------------------------------------------------------------
+
+    private void process() {
+        TransactionTrace txn_trace = null;
+        while (true) {
+            try {
+                txn_trace = this.queue.take();
+            } catch (InterruptedException ex) {
+                break;
+            }
+            if (txn_trace == STOP) break;
+            try {
+                this.append(txn_trace);
+            } catch (IOException ex) {
+                LOG.fatal("Failed to write " + txn_trace + " to '" + this.output_path + "'", ex);
+                this.error = ex;
+                this.queue.clear();
+                break;
+            }
+        } // WHILE
+    }
+
+    /**
+     * Return the id for the given catalog name. If this is the first time that we have
+     * seen it, then we will also write out a NAME record for it into the current block.
+     * This has to be called before the record that uses the name is added to the block.
+     * @param name
+     * @return
+     * @throws IOException
+     */
+    private int getNameId(String name) throws IOException {
+        Integer id = this.name_ids.get(name);
+        if (id == null) {
+            id = this.names.size();
+            assert(id < Short.MAX_VALUE) : "Too many catalog names in binary workload trace";
+            this.names.add(name);
+            this.name_ids.put(name, id);
+            
+            this.name_fs.clear();
+            this.name_fs.writeString(name);
+            this.block_fs.writeInt(this.name_fs.size());
+            this.block_fs.writeShort(BinaryWorkloadFormat.NAME_RECORD);
+            this.block_fs.write(this.name_fs.getBuffer());
+        }
+        return (id.intValue());
+    }
+
+    private void append(TransactionTrace txn_trace) throws IOException {
+        if (this.current == null) {
+            this.current = new BinaryWorkloadReader.Block();
+            this.current.offset = this.position;
+        }
+
+        int proc_id = this.getNameId(txn_trace.catalog_item_name);
+        this.record_fs.clear();
+        this.record_fs.writeLong(txn_trace.txn_id);
+        this.writeElement(this.record_fs, txn_trace);
+        this.record_fs.writeInt(txn_trace.getQueryCount());
+        for (QueryTrace query_trace : txn_trace.getQueries()) {
+            this.record_fs.writeShort(this.getNameId(query_trace.catalog_item_name));
+            this.record_fs.writeInt(query_trace.getBatchId());
+            this.writeElement(this.record_fs, query_trace);
+        } // FOR
+
+        this.block_fs.writeInt(this.record_fs.size());
+        this.block_fs.writeShort(proc_id);
+        this.block_fs.write(this.record_fs.getBuffer());
+
+        // Update the block's index entry
+        BinaryWorkloadReader.Block block = this.current;
+        long start = (txn_trace.start_timestamp != null ? txn_trace.start_timestamp : 0l);
+        if (block.num_txns == 0 || start < block.min_start) block.min_start = start;
+        if (block.num_txns == 0 || start > block.max_start) block.max_start = start;
+        block.num_txns++;
+        block.num_queries += txn_trace.getQueryCount();
+        Integer cnt = this.current_procs.get(proc_id);
+        this.current_procs.put(proc_id, (cnt != null ? cnt + 1 : 1));
+        this.txn_ctr++;
+        if (trace.get()) LOG.trace("Wrote " + txn_trace + " to block #" + this.blocks.size());
+
+        if (this.block_fs.size() >= BinaryWorkloadFormat.BLOCK_SIZE) {
+            this.finishBlock();
+        }
+    }
+
+    private void writeElement(FastSerializer fs, AbstractTraceElement<?> element) throws IOException {
+        BinaryWorkloadFormat.writeTimestamp(fs, element.start_timestamp);
+        BinaryWorkloadFormat.writeTimestamp(fs, element.stop_timestamp);
+        fs.writeBoolean(element.aborted);
+        fs.writeShort(element.weight);
+        if (element.params == null) {
+            fs.writeInt(-1);
+        } else {
+            fs.writeInt(element.params.length);
+            for (Object param : element.params) {
+                BinaryWorkloadFormat.writeValue(fs, param);
+            } // FOR
+        }
+        BinaryWorkloadFormat.writeOutput(fs, element);
+    }
+
+    private void finishBlock() throws IOException {
+        if (this.current == null) return;
+        BinaryWorkloadReader.Block block = this.current;
+        ByteBuffer buffer = this.block_fs.getBuffer();
+        block.length = buffer.remaining();
+        block.proc_ids = new short[this.current_procs.size()];
+        block.proc_counts = new int[block.proc_ids.length];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> e : this.current_procs.entrySet()) {
+            block.proc_ids[i] = e.getKey().shortValue();
+            block.proc_counts[i] = e.getValue().intValue();
+            i++;
+        } // FOR
+        this.writeFully(buffer);
+        this.block_fs.clear();
+        this.blocks.add(block);
+        this.current = null;
+        this.current_procs.clear();
+        if (debug.get()) LOG.debug(String.format("Wrote block #%d [txns=%d, bytes=%d]",
+                                                 this.blocks.size()-1, block.num_txns, block.length));
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            this.position += this.channel.write(buffer);
+        } // WHILE
+    }
+}
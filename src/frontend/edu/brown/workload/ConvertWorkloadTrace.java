@@ -0,0 +1,70 @@
+package edu.brown.workload;
+
+import java.io.BufferedReader;
+import java.io.File;
+
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.voltdb.catalog.Database;
+
+import edu.brown.utils.ArgumentsParser;
+import edu.brown.utils.FileUtil;
+
+/**
+ * Convert a JSON workload trace into a binary workload trace.
+ * The JSON file is read one line at a time, so the whole workload never has to fit in memory.
+ */
+public class ConvertWorkloadTrace {
+    private static final Logger LOG = Logger.getLogger(ConvertWorkloadTrace.class);
+
+    /**
+     * Convert the JSON workload trace in input_path into a binary workload trace in output_path
+     * @param catalog_db
+     * @param input_path
+     * @param output_path
+     * @return The number of transactions that were converted
+     * @throws Exception
+     */
+    public static int convert(Database catalog_db, File input_path, File output_path) throws Exception {
+        BufferedReader in = FileUtil.getReader(input_path);
+        BinaryWorkloadWriter writer = new BinaryWorkloadWriter(output_path);
+        int line_ctr = 0;
+        int txn_ctr = 0;
+        try {
+            while (in.ready()) {
+                String line = in.readLine();
+                line_ctr++;
+                if (line == null) break;
+                line = line.trim();
+                if (line.isEmpty()) continue;
+
+                JSONObject jsonObject = null;
+                try {
+                    jsonObject = new JSONObject(line);
+                } catch (JSONException ex) {
+                    LOG.warn(String.format("Ignoring invalid TransactionTrace on line %d of '%s'", line_ctr, input_path));
+                    continue;
+                }
+                writer.write(TransactionTrace.loadFromJSONObject(jsonObject, catalog_db));
+                if (++txn_ctr % 100000 == 0) LOG.info(String.format("Converted %d transactions...", txn_ctr));
+            } // WHILE
+        } finally {
+            in.close();
+            writer.close();
+        }
+        LOG.info(String.format("Converted %d transactions from '%s' to '%s'", txn_ctr, input_path, output_path));
+        return (txn_ctr);
+    }
+
+    public static void main(String[] vargs) throws Exception {
+        ArgumentsParser args = ArgumentsParser.load(vargs);
+        args.require(ArgumentsParser.PARAM_CATALOG, ArgumentsParser.PARAM_WORKLOAD_OUTPUT);
+        assert(args.getOptParamCount() > 0) : "Missing input JSON workload trace path";
+
+        File input_path = new File(args.getOptParam(0));
+        File output_path = new File(args.getParam(ArgumentsParser.PARAM_WORKLOAD_OUTPUT));
+        FileUtil.makeDirIfNotExists(output_path.getAbsoluteFile().getParent());
+        convert(args.catalog_db, input_path, output_path);
+    }
+}
@@ -29,12 +29,14 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -83,6 +85,23 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
     
     /** The output stream that we're going to write our traces to **/
     private FileOutputStream out;
+    
+    /** The binary trace file that we're going to write our traces to (instead of out) **/
+    private BinaryWorkloadWriter binary_out;
+    
+    /**
+     * If this is set, then this workload is streamed from a binary trace file
+     * instead of having all of its transactions in memory
+     */
+    private BinaryWorkloadReader stream_reader;
+    private Database stream_catalog_db;
+    
+    /**
+     * If the streamed trace was filtered, then this marks the positions in the
+     * trace of the transactions that passed the filter (null = all of them)
+     */
+    private BitSet stream_allowed;
+    private int stream_txn_ctr;
 
     /** The last file that we loaded from **/
     private File input_path;
@@ -292,6 +311,11 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
             this.out.flush();
             this.out.close();
         }
+        if (this.binary_out != null) {
+            LOG.info("Flushing binary workload trace output and closing files...");
+            if (this.stats != null) this.saveStats();
+            this.binary_out.close();
+        }
         super.finalize();
     }
 
@@ -302,6 +326,11 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
     public void setOutputPath(String path) {
         this.output_path = new File(path);
         try {
+            if (path.endsWith(BinaryWorkloadFormat.FILE_EXTENSION)) {
+                this.binary_out = new BinaryWorkloadWriter(this.output_path);
+                if (debug.get()) LOG.debug("Opened binary file '" + path + "' for logging workload trace");
+                return;
+            }
             this.out = new FileOutputStream(path);
             if (debug.get()) LOG.debug("Opened file '" + path + "' for logging workload trace");
         } catch (Exception ex) {
@@ -350,6 +379,27 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
         this.input_path = new File(input_path);
         long start = System.currentTimeMillis();
         
+        // Binary traces are cheap enough to deserialize that we don't need any helper threads
+        if (BinaryWorkloadFormat.isBinaryTrace(this.input_path)) {
+            BinaryWorkloadReader reader = new BinaryWorkloadReader(this.input_path);
+            int txn_ctr = 0;
+            try {
+                Iterator<TransactionTrace> it = reader.iterator(filter);
+                while (it.hasNext()) {
+                    TransactionTrace txn_trace = it.next();
+                    this.addTransaction(txn_trace.getCatalogItem(catalog_db), txn_trace, true);
+                    txn_ctr++;
+                } // WHILE
+            } finally {
+                reader.close();
+            }
+            VerifyWorkload.verify(catalog_db, this);
+            long stop = System.currentTimeMillis();
+            LOG.info(String.format("Loaded %d txns / %d queries from binary trace '%s' in %.1f seconds",
+                                   txn_ctr, this.query_ctr, this.input_path.getName(), (stop - start) / 1000d));
+            return;
+        }
+        
         // HACK: Throw out traces unless they have the procedures that we're looking for
         Pattern temp_pattern = null;
         if (filter != null) {
@@ -426,13 +476,169 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
      */
     @Override
     public Iterator<TransactionTrace> iterator() {
-        return (new Workload.WorkloadIterator());
+        return (this.iterator(null));
     }
 
     public Iterator<TransactionTrace> iterator(Filter filter) {
+        if (this.stream_reader != null) {
+            if (this.stream_allowed != null) return (new Workload.StreamIterator(filter));
+            return (this.stream_reader.iterator(filter));
+        }
         return (new Workload.WorkloadIterator(filter));
     }
     
+    /**
+     * Iterates over the transactions in a streamed binary trace that passed the filter
+     * that it was streamed with, and then applies the given filter on top of that
+     */
+    private class StreamIterator implements Iterator<TransactionTrace> {
+        private final Iterator<TransactionTrace> it = Workload.this.stream_reader.iterator();
+        private final BitSet allowed = Workload.this.stream_allowed;
+        private final Filter filter;
+        private int position = 0;
+        private TransactionTrace peek;
+        
+        public StreamIterator(Filter filter) {
+            this.filter = filter;
+        }
+        @Override
+        public boolean hasNext() {
+            while (this.peek == null && this.it.hasNext()) {
+                TransactionTrace txn_trace = this.it.next();
+                if (this.allowed.get(this.position++) == false) continue;
+                if (this.filter == null || this.filter.apply(txn_trace) == Filter.FilterResult.ALLOW) {
+                    this.peek = txn_trace;
+                }
+            } // WHILE
+            return (this.peek != null);
+        }
+        @Override
+        public TransactionTrace next() {
+            if (this.hasNext() == false) throw new NoSuchElementException();
+            TransactionTrace next = this.peek;
+            this.peek = null;
+            return (next);
+        }
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    } // CLASS
+    
+    // ----------------------------------------------------------
+    // STREAMING METHODS
+    // ----------------------------------------------------------
+    
+    /**
+     * Use the given binary workload trace as the source of this Workload's transactions
+     * without loading them into memory. The iterators will deserialize the transactions
+     * directly from the file each time. The transaction/query counts, procedure histogram,
+     * and timestamp ranges all come from the trace's block index.
+     * If something asks for the full collection of transactions, then the trace will get
+     * loaded into memory and this Workload will stop streaming.
+     * @param input_path
+     * @param catalog_db
+     * @throws Exception
+     */
+    public void stream(String input_path, Database catalog_db) throws Exception {
+        this.stream(input_path, catalog_db, null);
+    }
+    
+    /**
+     * Stream the given binary workload trace but only include the transactions that pass
+     * the given filter. We make one pass over the trace to apply the filter and compute the
+     * counts, but we only remember which positions in the trace were allowed.
+     * The iterators will then skip over everything else.
+     * @param input_path
+     * @param catalog_db
+     * @param filter
+     * @throws Exception
+     */
+    public void stream(String input_path, Database catalog_db, Filter filter) throws Exception {
+        File path = new File(input_path);
+        if (BinaryWorkloadFormat.isBinaryTrace(path) == false) {
+            throw new IllegalArgumentException("'" + input_path + "' is not a binary workload trace");
+        }
+        assert(this.xact_trace.isEmpty()) : "Trying to stream a binary trace into a Workload that is not empty";
+        this.input_path = path;
+        this.stream_reader = new BinaryWorkloadReader(path);
+        this.stream_catalog_db = catalog_db;
+        this.stream_allowed = null;
+        
+        if (filter != null) {
+            this.stream_allowed = new BitSet();
+            this.stream_txn_ctr = 0;
+            int position = 0;
+            for (TransactionTrace txn_trace : this.stream_reader) {
+                Filter.FilterResult result = filter.apply(txn_trace);
+                if (result == Filter.FilterResult.HALT) break;
+                if (result == Filter.FilterResult.ALLOW) {
+                    this.stream_allowed.set(position);
+                    this.stream_txn_ctr++;
+                    this.proc_histogram.put(CatalogKey.createKey(txn_trace.getCatalogItem(catalog_db)));
+                    if (this.min_start_timestamp == null || this.min_start_timestamp > txn_trace.getStartTimestamp()) {
+                        this.min_start_timestamp = txn_trace.getStartTimestamp();
+                    }
+                    if (this.max_start_timestamp == null || this.max_start_timestamp < txn_trace.getStartTimestamp()) {
+                        this.max_start_timestamp = txn_trace.getStartTimestamp();
+                    }
+                    this.query_ctr += txn_trace.getQueryCount();
+                }
+                position++;
+            } // FOR
+            LOG.info(String.format("Streaming %d/%d txns / %d queries from binary trace '%s'",
+                                   this.stream_txn_ctr, position, this.query_ctr, path.getName()));
+            return;
+        }
+        
+        this.stream_txn_ctr = this.stream_reader.getTransactionCount();
+        this.query_ctr = this.stream_reader.getQueryCount();
+        this.min_start_timestamp = this.stream_reader.getMinStartTimestamp();
+        this.max_start_timestamp = this.stream_reader.getMaxStartTimestamp();
+        Histogram<String> h = this.stream_reader.getProcedureHistogram();
+        for (String proc_name : h.values()) {
+            Procedure catalog_proc = catalog_db.getProcedures().get(proc_name);
+            assert(catalog_proc != null) : "Unexpected procedure '" + proc_name + "'";
+            this.proc_histogram.put(CatalogKey.createKey(catalog_proc), h.get(proc_name));
+        } // FOR
+        LOG.info(String.format("Streaming %d txns / %d queries from binary trace '%s'",
+                               this.stream_reader.getTransactionCount(), this.query_ctr, path.getName()));
+    }
+    
+    /**
+     * Returns true if this Workload's transactions are being streamed from a binary trace file
+     * @return
+     */
+    public boolean isStreaming() {
+        return (this.stream_reader != null);
+    }
+    
+    /**
+     * If this Workload is streaming its transactions, load them all into memory
+     */
+    private synchronized void materialize() {
+        if (this.stream_reader == null) return;
+        LOG.warn(String.format("Loading all %d txns from binary trace '%s' into memory",
+                               this.stream_txn_ctr, this.input_path.getName()));
+        BinaryWorkloadReader reader = this.stream_reader;
+        Iterator<TransactionTrace> it = this.iterator();
+        this.stream_reader = null;
+        this.stream_allowed = null;
+        this.proc_histogram.clear();
+        this.query_ctr = 0;
+        this.min_start_timestamp = null;
+        this.max_start_timestamp = null;
+        while (it.hasNext()) {
+            TransactionTrace txn_trace = it.next();
+            this.addTransaction(txn_trace.getCatalogItem(this.stream_catalog_db), txn_trace, true);
+        } // WHILE
+        try {
+            reader.close();
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
     // ----------------------------------------------------------
     // BASIC METHODS
     // ----------------------------------------------------------
@@ -484,6 +690,7 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
      * @return
      */
     public int getTransactionCount() {
+        if (this.stream_reader != null) return (this.stream_txn_ctr);
         return (this.xact_trace.size());
     }
     
@@ -646,6 +853,7 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
      * @return
      */
     public Collection<TransactionTrace> getTransactions() {
+        this.materialize();
         return (this.xact_trace.values());
     }
     
@@ -655,6 +863,7 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
      * @return
      */
     public TransactionTrace getTransaction(long txn_id) { 
+        this.materialize();
         return this.xact_trace.get(txn_id);
     }
     
@@ -664,6 +873,7 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
      * @return
      */
     public List<TransactionTrace> getTraces(Procedure catalog_proc) {
+        this.materialize();
         String proc_key = CatalogKey.createKey(catalog_proc);
         if (this.proc_xact_xref.containsKey(proc_key)) {
             return (this.proc_xact_xref.get(proc_key));
@@ -861,7 +1071,9 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
             if (this.catalog_db == null) {
                 LOG.warn("The database catalog handle is null: " + xact);
             } else {
-                if (this.out == null) {
+                if (this.binary_out != null) {
+                    this.binary_out.write(xact);
+                } else if (this.out == null) {
                     if (debug.get()) LOG.warn("No output path is set. Unable to log trace information to file");
                 } else {
                     writeTransactionToStream(this.catalog_db, xact, this.out);
@@ -890,7 +1102,9 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
             if (this.catalog_db == null) {
                 LOG.warn("The database catalog handle is null: " + txn_trace);
             } else {
-                if (this.out == null) {
+                if (this.binary_out != null) {
+                    this.binary_out.write(txn_trace);
+                } else if (this.out == null) {
                     if (debug.get()) LOG.warn("No output path is set. Unable to log trace information to file");
                 } else {
                     writeTransactionToStream(this.catalog_db, txn_trace, this.out);
@@ -46,6 +46,7 @@ public class ClientResponseImpl implements FastSerializable, ClientResponse {
 
     private int clusterRoundTripTime = -1;
     private int clientRoundTripTime = -1;
+    private long clientRoundTripMicros = -1;
     private SerializableException m_exception = null;
     
     // PAVLO
@@ -376,6 +377,15 @@ public class ClientResponseImpl implements FastSerializable, ClientResponse {
         clientRoundTripTime = time;
     }
 
+    @Override
+    public long getClientRoundtripMicros() {
+        return clientRoundTripMicros;
+    }
+
+    public void setClientRoundtripMicros(long time) {
+        clientRoundTripMicros = time;
+    }
+
     @Override
     public byte getAppStatus() {
         return appStatus;
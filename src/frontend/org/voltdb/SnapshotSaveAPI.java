@@ -52,12 +52,13 @@ public class SnapshotSaveAPI
      * @param file_nonce
      * @param block
      * @param startTime
+     * @param txnId The id of the txn that is taking the snapshot
      * @param context
      * @param hostname
      * @return VoltTable describing the results of the snapshot attempt
      */
     public VoltTable startSnapshotting(String file_path, String file_nonce, byte block,
-            long startTime, SystemProcedureExecutionContext context, String hostname)
+            long startTime, long txnId, SystemProcedureExecutionContext context, String hostname)
     {
         LOG.trace("Creating snapshot target and handing to EEs");
         final VoltTable result = SnapshotSave.constructNodeResultsTable();
@@ -66,7 +67,7 @@ public class SnapshotSaveAPI
         // m_taskListsForSites for the other sites and creating an appropriate
         // number of snapshot permits
         if (SnapshotSiteProcessor.m_snapshotCreateSetupPermit.tryAcquire()) {
-            createSetup(file_path, file_nonce, startTime, context, hostname, result);
+            createSetup(file_path, file_nonce, startTime, txnId, context, hostname, result);
         }
 
         // All sites wait for a permit to start their individual snapshot tasks
@@ -128,7 +129,7 @@ public class SnapshotSaveAPI
 
 
     private void createSetup(String file_path, String file_nonce,
-            long startTime, SystemProcedureExecutionContext context,
+            long startTime, long txnId, SystemProcedureExecutionContext context,
             String hostname, final VoltTable result) {
         {
             final int numLocalSites = VoltDB.instance().getLocalSites().values().size();
@@ -148,6 +149,7 @@ public class SnapshotSaveAPI
 
                 SnapshotUtil.recordSnapshotTableList(
                         startTime,
+                        txnId,
                         file_path,
                         file_nonce,
                         tables);
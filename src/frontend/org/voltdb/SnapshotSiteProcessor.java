@@ -89,7 +89,7 @@ public class SnapshotSiteProcessor {
      * Queue of tasks for tables that still need to be snapshotted.
      * This is polled from until there are no more tasks.
      */
-    private ArrayDeque<SnapshotTableTask> m_snapshotTableTasks;
+    private volatile ArrayDeque<SnapshotTableTask> m_snapshotTableTasks;
 
 
     /**
@@ -104,6 +104,19 @@ public class SnapshotSiteProcessor {
      */
     private final Runnable m_onPotentialSnapshotWork;
 
+    /**
+     * The maximum number of bytes per second that this site will serialize for
+     * an online snapshot (0 = unlimited). The budget is refilled as time passes
+     * and it may go negative by at most one buffer, which will then be paid back
+     * before the next buffer is serialized.
+     */
+    private final long m_bytesPerSecond;
+    private double m_bytesAvailable = 0;
+    private long m_lastRefillTime = -1;
+
+    /** Number of bytes serialized for the current snapshot */
+    private long m_bytesSerialized = 0;
+
     /**
      * A class identifying a table that should be snapshotted as well as the destination
      * for the resulting tuple blocks
@@ -132,10 +145,55 @@ public class SnapshotSiteProcessor {
     }
 
     public SnapshotSiteProcessor(Runnable onPotentialSnapshotWork) {
+        this(onPotentialSnapshotWork, 0);
+    }
+
+    /**
+     * @param onPotentialSnapshotWork
+     * @param rateLimitMB The max number of megabytes per second to serialize (0 = unlimited)
+     */
+    public SnapshotSiteProcessor(Runnable onPotentialSnapshotWork, int rateLimitMB) {
         m_onPotentialSnapshotWork = onPotentialSnapshotWork;
+        m_bytesPerSecond = Math.max(0, rateLimitMB) * 1024l * 1024l;
         initializeBufferPool();
     }
 
+    /**
+     * Returns true if this site is in the middle of a snapshot and still
+     * has tables that it needs to serialize.
+     */
+    public boolean hasSnapshotWork() {
+        return (m_snapshotTableTasks != null);
+    }
+
+    /**
+     * Returns the number of bytes serialized so far for the current snapshot
+     */
+    public long getBytesSerialized() {
+        return (m_bytesSerialized);
+    }
+
+    /**
+     * Refill the rate limit budget based on how much time has passed since the
+     * last time that we were invoked. Returns true if we are allowed to serialize
+     * another buffer.
+     */
+    private boolean checkRateLimit() {
+        if (m_bytesPerSecond <= 0) return (true);
+        final long now = System.nanoTime();
+        if (m_lastRefillTime < 0) {
+            m_bytesAvailable = m_snapshotBufferLength;
+        } else {
+            // Never let the budget grow beyond one second's worth of data
+            // so that an idle period doesn't turn into a huge burst
+            m_bytesAvailable += (m_bytesPerSecond * ((now - m_lastRefillTime) / 1000000000d));
+            m_bytesAvailable = Math.min(m_bytesAvailable,
+                                        Math.max(m_bytesPerSecond, m_snapshotBufferLength));
+        }
+        m_lastRefillTime = now;
+        return (m_bytesAvailable > 0);
+    }
+
     public void shutdown() {
         for (BBContainer c : m_snapshotBufferOrigins ) {
             c.discard();
@@ -171,17 +229,27 @@ public class SnapshotSiteProcessor {
                 assert(m_snapshotTargets != null);
                 m_snapshotTargets.add(task.m_target);
             }
-            // FIXME meng
-//            if (!ee.activateTableStream(task.m_tableId, TableStreamType.SNAPSHOT )) {
-//                LOG.error("Attempted to activate copy on write mode for table "
-//                        + task.m_name + " and failed");
-//                LOG.error(task);
-//                VoltDB.crashVoltDB();
-//            }
+            if (!ee.activateCopyOnWrite(task.m_tableId)) {
+                LOG.error("Attempted to activate copy on write mode for table "
+                        + task.m_name + " and failed");
+                LOG.error(task);
+                VoltDB.crashVoltDB();
+            }
         }
+        m_bytesSerialized = 0;
+        m_lastRefillTime = -1;
     }
 
+    /**
+     * Serialize the next block of tuples for the current snapshot if there is a buffer
+     * available and we have not exceeded our rate limit. This is meant to be invoked
+     * by the site in between transactions.
+     */
     public Future<?> doSnapshotWork(ExecutionEngine ee) {
+        return doSnapshotWork(ee, false);
+    }
+
+    private Future<?> doSnapshotWork(ExecutionEngine ee, boolean ignoreRateLimit) {
         Future<?> retval = null;
 
         /*
@@ -192,6 +260,9 @@ public class SnapshotSiteProcessor {
         if (m_snapshotTableTasks == null || m_availableSnapshotBuffers.isEmpty()) {
             return retval;
         }
+        if (!ignoreRateLimit && !checkRateLimit()) {
+            return retval;
+        }
 
         /*
          * There definitely is snapshot work to do. There should be a task
@@ -206,11 +277,10 @@ public class SnapshotSiteProcessor {
             assert(snapshotBuffer != null);
             snapshotBuffer.b.clear();
             snapshotBuffer.b.position(headerSize);
-            final int serialized = 0; // FIXME (meng)
-//                ee.tableStreamSerializeMore(
-//                    snapshotBuffer,
-//                    currentTask.m_tableId,
-//                    TableStreamType.SNAPSHOT);
+            final int serialized =
+                ee.cowSerializeMore(
+                    snapshotBuffer,
+                    currentTask.m_tableId);
 
             if (serialized < 0) {
                 LOG.error("Failure while serialize data from a table for COW snapshot");
@@ -255,6 +325,8 @@ public class SnapshotSiteProcessor {
             /**
              * The block from the EE will contain raw tuple data with no length prefix etc.
              */
+            m_bytesSerialized += serialized;
+            m_bytesAvailable -= serialized;
             snapshotBuffer.b.limit(headerSize + serialized);
             snapshotBuffer.b.position(0);
             retval = currentTask.m_target.write(snapshotBuffer);
@@ -321,7 +393,7 @@ public class SnapshotSiteProcessor {
         HashSet<Exception> retval = new HashSet<Exception>();
         m_snapshotTargetTerminators = new ArrayList<Thread>();
         while (m_snapshotTableTasks != null) {
-            Future<?> result = doSnapshotWork(ee);
+            Future<?> result = doSnapshotWork(ee, true);
             if (result != null) {
                 try {
                     result.get();
@@ -33,6 +33,18 @@ import org.voltdb.messaging.*;
  */
 public class StoredProcedureInvocation implements FastSerializable {
 
+    /**
+     * The first byte of a serialized invocation is a set of flags.
+     * Older clients only wrote the sysproc boolean there, so an invocation without
+     * the VERSION_FLAG bit does not have the procedure id in its header.
+     */
+    private static final byte VERSION_FLAG = (byte)0x80;
+    private static final byte SYSPROC_FLAG = 0x01;
+    private static final byte REPLAY_FLAG = 0x02;
+    
+    /** Offset of the procedure id in the header of the current format **/
+    private static final int PROC_ID_OFFSET = 11;
+    
     String procName = null;
     boolean sysproc = false;
     ParameterSet params = null;
@@ -45,6 +57,12 @@ public class StoredProcedureInvocation implements FastSerializable {
     /** Whether this invocation should be specifically executed at a particular partition **/
     int base_partition = -1;
     
+    /** The catalog id of the target Procedure, if the sender knows it **/
+    int proc_id = -1;
+    
+    /** The original id of the txn if it is being replayed from the command log **/
+    long replay_txn_id = -1;
+    
     /** What partitions this invocation will touch **/
     Set<Integer> partitions = null;
     
@@ -67,6 +85,8 @@ public class StoredProcedureInvocation implements FastSerializable {
         copy.clientHandle = clientHandle;
         copy.params = params;
         copy.procName = procName;
+        copy.proc_id = proc_id;
+        copy.replay_txn_id = replay_txn_id;
         if (unserializedParams != null)
         {
             copy.unserializedParams = unserializedParams.duplicate();
@@ -82,6 +102,33 @@ public class StoredProcedureInvocation implements FastSerializable {
     public void setProcName(String name) {
         procName = name;
     }
+    
+    public boolean hasProcedureId() {
+        return (this.proc_id != -1);
+    }
+    public int getProcedureId() {
+        return (this.proc_id);
+    }
+    public void setProcedureId(int id) {
+        this.proc_id = (short)id;
+    }
+
+    /**
+     * Returns true if this invocation is a txn that is being replayed from the command log
+     */
+    public boolean isReplay() {
+        return (this.replay_txn_id != -1);
+    }
+    /**
+     * Return the id that the replayed txn had when it was written to the command log.
+     * Returns -1 if this invocation is not being replayed.
+     */
+    public long getReplayTxnId() {
+        return (this.replay_txn_id);
+    }
+    public void setReplayTxnId(long txnId) {
+        this.replay_txn_id = txnId;
+    }
 
     public void setParams(Object... parameters) {
         // convert the params to the expected types
@@ -151,8 +198,14 @@ public class StoredProcedureInvocation implements FastSerializable {
         }
     }
 
-    /** Read into an unserialized parameter buffer to extract a single parameter */
-    Object getParameterAtIndex(int partitionIndex) {
+    /**
+     * Read into an unserialized parameter buffer to extract a single parameter.
+     * If the ParameterSet has already been built, then we will just grab it from there.
+     */
+    public Object getParameterAtIndex(int partitionIndex) {
+        if (params != null) {
+            return params.toArray()[partitionIndex];
+        }
         try {
             return ParameterSet.getParameterAtIndex(partitionIndex, unserializedParams);
         }
@@ -163,10 +216,12 @@ public class StoredProcedureInvocation implements FastSerializable {
 
     @Override
     public void readExternal(FastDeserializer in) throws IOException {
-//        in.readByte();//skip version
-        sysproc = in.readBoolean();
+        byte flags = in.readByte();
+        sysproc = ((flags & SYSPROC_FLAG) != 0);
         base_partition = (int)in.readShort();
         clientHandle = in.readLong();
+        proc_id = ((flags & VERSION_FLAG) != 0 ? (int)in.readShort() : -1);
+        replay_txn_id = ((flags & REPLAY_FLAG) != 0 ? in.readLong() : -1);
         procName = in.readString();
         
         int num_partitions = in.readShort();
@@ -186,10 +241,16 @@ public class StoredProcedureInvocation implements FastSerializable {
     public void writeExternal(FastSerializer out) throws IOException {
         assert(!((params == null) && (unserializedParams == null)));
         assert((params != null) || (unserializedParams != null));
-//        out.write(0);   // version (1)
-        out.writeBoolean(sysproc); // (1)
+        byte flags = VERSION_FLAG;
+        if (sysproc) flags |= SYSPROC_FLAG;
+        if (replay_txn_id != -1) flags |= REPLAY_FLAG;
+        out.writeByte(flags);           // (1)
         out.writeShort(base_partition); // (2)
         out.writeLong(clientHandle);    // (8) 
+        out.writeShort(proc_id);        // (2)
+        if (replay_txn_id != -1) {
+            out.writeLong(replay_txn_id); // (8)
+        }
         out.writeString(procName);
         
         if (this.partitions == null) {
@@ -215,7 +276,28 @@ public class StoredProcedureInvocation implements FastSerializable {
      * @return
      */
     public static boolean isSysProc(ByteBuffer buffer) {
-        return (buffer.get(0) == 1);
+        return ((buffer.get(0) & SYSPROC_FLAG) != 0);
+    }
+    
+    /**
+     * Returns true if the raw bytes for this invocation indicate that it's a txn
+     * that is being replayed from the command log
+     * @param buffer
+     * @return
+     */
+    public static boolean isReplay(ByteBuffer buffer) {
+        return ((buffer.get(0) & REPLAY_FLAG) != 0);
+    }
+    
+    /**
+     * Returns true if the raw bytes for this invocation were written in the current format
+     * and therefore have a procedure id in their header. Invocations from older clients
+     * do not have one.
+     * @param buffer
+     * @return
+     */
+    public static boolean hasProcedureIdField(ByteBuffer buffer) {
+        return ((buffer.get(0) & VERSION_FLAG) != 0);
     }
     
     /**
@@ -248,7 +330,10 @@ public class StoredProcedureInvocation implements FastSerializable {
         buffer.rewind();
         FastDeserializer in = new FastDeserializer(buffer);
         try {
-            in.skipBytes(11);
+            int offset = PROC_ID_OFFSET;
+            if (hasProcedureIdField(buffer)) offset += 2;
+            if (isReplay(buffer)) offset += 8;
+            in.skipBytes(offset);
             return (in.readString());
         } catch (IOException ex) {
             throw new RuntimeException(ex);
@@ -266,6 +351,32 @@ public class StoredProcedureInvocation implements FastSerializable {
         return (buffer.getLong(3));
     }
 
+    /**
+     * Return the catalog id of the target Procedure from the serialized StoredProcedureInvocation
+     * without having to deserialize it first
+     * If the id is not set, the return value will be -1
+     * @param buffer
+     * @return
+     */
+    public static int getProcedureId(ByteBuffer buffer) {
+        if (hasProcedureIdField(buffer) == false) return (-1);
+        return (buffer.getShort(PROC_ID_OFFSET));
+    }
+
+    /**
+     * Embed the catalog id of the target Procedure in the serialized StoredProcedureInvocation
+     * so that whomever gets this request next does not need to look up the Procedure by name
+     * Returns false if the invocation came from an older client whose header has no room for the id.
+     * @param proc_id
+     * @param serialized
+     */
+    public static boolean markRawBytesWithProcedureId(int proc_id, byte serialized[]) {
+        ByteBuffer buffer = ByteBuffer.wrap(serialized);
+        if (hasProcedureIdField(buffer) == false) return (false);
+        buffer.putShort(PROC_ID_OFFSET, (short)proc_id);
+        return (true);
+    }
+
     @Override
     public String toString() {
         String retval = "Invocation: " + procName + "(";
@@ -1,5 +1,6 @@
 package org.voltdb;
 
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
 
@@ -35,6 +36,11 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
     
     // This reduceInputQuery is prepared to executed REDUCE by internal system instead of Java code
     private SQLStmt reduceInputQuery;
+    
+    /**
+     * Whether this procedure has overridden combine()
+     */
+    private boolean has_combiner = false;
 
     // Thread-local data
     private MapReduceTransaction mr_ts;
@@ -68,6 +74,22 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
      */
     public abstract void reduce(K key, Iterator<VoltTableRow> rows);
     
+    /**
+     * Optional map-side combiner. If a procedure overrides this method, then after the
+     * MAP phase finishes at a partition its MapOutput table will be sorted and this will
+     * be invoked once per key. Implementations should use mapEmit() to output the
+     * combined rows for that key, which will replace the original MapOutput table
+     * before it is shuffled to the other partitions.
+     * @param key
+     * @param rows
+     */
+    public void combine(K key, Iterator<VoltTableRow> rows) {
+        // The default is to not have a combiner, so this is never called
+        while (rows.hasNext()) {
+            this.map_output.add(rows.next());
+        } // WHILE
+    }
+    
     // -----------------------------------------------------------------
     // INTERNAL METHODS
     // -----------------------------------------------------------------
@@ -81,6 +103,16 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
         this.mapInputQuery = this.getSQLStmt(catalogProc.getMapinputquery());
         assert (this.mapInputQuery != null) : "Missing MapInputQuery " + catalogProc.getMapinputquery();
         this.reduceInputQuery = this.getSQLStmt(catalogProc.getReduceinputquery());
+        
+        // Check whether this procedure has its own combiner
+        try {
+            Method m = this.getClass().getMethod("combine", Object.class, Iterator.class);
+            this.has_combiner = (m.getDeclaringClass().equals(VoltMapReduceProcedure.class) == false);
+        } catch (NoSuchMethodException ex) {
+            throw new RuntimeException("Unexpected error when looking for combine() in " + this.getClass().getSimpleName(), ex);
+        }
+        if (debug.get() && this.has_combiner)
+            LOG.debug(String.format("%s has a map-side combiner", catalogProc.getName()));
     }
     
     /**
@@ -144,6 +176,22 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
             if (debug.get())
                 LOG.debug(String.format("MAP: %s generated %d results on partition %d",
                           this.m_localTxnState, this.map_output.getRowCount(), this.partitionId));
+            
+            // Run the combiner on this partition's output before it gets shuffled
+            // The combined output will already be sorted on its key
+            if (this.has_combiner && this.map_output.getRowCount() > 1) {
+                VoltTable sorted = VoltTableUtil.sort(this.map_output, Pair.of(0, SortDirectionType.ASC));
+                this.map_output = new VoltTable(sorted);
+                ReduceInputIterator<K> rows = new ReduceInputIterator<K>(sorted);
+                while (rows.hasNext()) {
+                    K key = rows.getKey();
+                    this.combine(key, rows);
+                } // WHILE
+                mr_ts.setMapOutputByPartition(this.partitionId, this.map_output);
+                if (debug.get())
+                    LOG.debug(String.format("COMBINE: %s reduced %d results to %d on partition %d",
+                              this.m_localTxnState, sorted.getRowCount(), this.map_output.getRowCount(), this.partitionId));
+            }
             if (debug.get())
                 LOG.debug(String.format("<MapOutputTable> Partition:%d\n %s", this.partitionId,this.map_output));
             
@@ -166,7 +214,7 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
                 this.executor.getHStoreCoordinator().transactionReduce(mr_ts, mr_ts.getTransactionReduceCallback());
             }
             this.reduce_input = null; // 
-            this.reduce_input = mr_ts.getReduceInputByPartition(this.partitionId);
+            this.reduce_input = mr_ts.getReduceInputByPartition(this.partitionId, this.has_combiner);
             assert(this.reduce_input != null);
             if(debug.get()) 
                 LOG.debug("__FILE__:__LINE__ " + String.format("TXN: %s, [Stage] \n<VoltMapReduceProcedure.run> is executing <Reduce>..",mr_ts)); 
@@ -174,11 +222,16 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
                 LOG.debug(String.format("<ReduceInputTable> Partition:%d\n %s", this.partitionId,this.reduce_input));
             
             
-            // Sort the the MAP_OUTPUT table
+            // If we have a combiner, then the REDUCE_INPUT table is already sorted because it
+            // was merged together from the sorted runs that each partition sent us during the
+            // SHUFFLE phase. Otherwise we have to sort the MAP_OUTPUT table here
             // Build an "smart" iterator that loops through the MAP_OUTPUT table key-by-key
-            VoltTable sorted = VoltTableUtil.sort(this.reduce_input, Pair.of(0, SortDirectionType.ASC));
-            //VoltTable sorted = VoltTableUtil.sort(mr_ts.getReduceInputByPartition(this.partitionId), Pair.of(0, SortDirectionType.ASC));
+            VoltTable sorted = this.reduce_input;
+            if (this.has_combiner == false) {
+                sorted = VoltTableUtil.sort(this.reduce_input, Pair.of(0, SortDirectionType.ASC));
+            }
             assert(sorted != null);
+            sorted.resetRowPosition();
             if (debug.get())
                 LOG.debug(String.format("<Sorted_ReduceInputTable> Partition:%d\n %s", this.partitionId,sorted));
             
@@ -255,6 +308,13 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
     public final int getPartitionId() {
         return partitionId;
     }
+    /**
+     * Returns true if this procedure has overridden combine(). Only then will the
+     * MapOutput tables be sorted before the SHUFFLE phase.
+     */
+    public final boolean hasCombiner() {
+        return (this.has_combiner);
+    }
     public final void setPartitionId(int partitionId) {
         this.partitionId = partitionId;
     }
@@ -28,8 +28,10 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.voltdb.messaging.FastDeserializer;
 import org.voltdb.messaging.FastSerializable;
 import org.voltdb.messaging.FastSerializer;
+import org.voltdb.types.SortDirectionType;
 import org.voltdb.types.TimestampType;
 import org.voltdb.types.VoltDecimalHelper;
+import org.voltdb.utils.Pair;
 
 /*
  * The primary representation of a result set (of tuples) or a temporary
@@ -559,6 +561,27 @@ public final class VoltTable extends VoltTableRow implements FastSerializable {
      */
     public final void add(VoltTableRow row) {
         assert(verifyTableInvariants());
+        
+        // If the row has the same schema as this table, then we can just copy its bytes
+        if (row.m_activeRowIndex >= 0 && row.m_activeRowIndex < row.getRowCount() && this.hasSameColumnTypes(row)) {
+            if (m_readOnly) {
+                throw new IllegalStateException("Table is read-only. Make a copy before changing.");
+            }
+            assert(m_appendRowStart == -1) : "Cannot add a row while another row is being appended";
+            final int row_pos = row.m_position - ROW_HEADER_SIZE;
+            final int row_len = ROW_HEADER_SIZE + row.m_buffer.getInt(row_pos);
+            ensureAppendCapacity(row_len);
+            final ByteBuffer src = row.m_buffer.duplicate();
+            src.limit(row_pos + row_len);
+            src.position(row_pos);
+            m_buffer.put(src);
+            m_rowCount++;
+            m_buffer.putInt(m_rowStart, m_rowCount);
+            m_buffer.limit(m_buffer.position());
+            assert(verifyTableInvariants());
+            return;
+        }
+        
         final Object[] values = new Object[m_colCount];
         for (int i = 0; i < m_colCount; i++) {
             try {
@@ -580,6 +603,7 @@ public final class VoltTable extends VoltTableRow implements FastSerializable {
         if (m_readOnly) {
             throw new IllegalStateException("Table is read-only. Make a copy before changing.");
         }
+        assert(m_appendRowStart == -1) : "Cannot add a row while another row is being appended";
         assert(verifyTableInvariants());
         if (m_colCount == 0) {
             throw new IllegalStateException("table has no columns defined");
@@ -827,6 +851,503 @@ public final class VoltTable extends VoltTableRow implements FastSerializable {
         m_buffer = buf2;
     }
 
+    // ----------------------------------------------------------------------------
+    // TYPED ROW BUILDER
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Buffer position of the row that is being built with the append methods.
+     * This is -1 if there is no row in progress.
+     */
+    private int m_appendRowStart = -1;
+    /**
+     * The index of the next column that will be written by the append methods
+     */
+    private int m_appendCol = 0;
+
+    /**
+     * Make sure that there is enough room to write the next value for the row
+     * that is being built, starting a new row if necessary.
+     * @param size The number of bytes that the value will need
+     * @return The type of the column that the value will be written to
+     */
+    private final VoltType prepareAppend(int size) {
+        if (m_appendRowStart == -1) {
+            if (m_readOnly) {
+                throw new IllegalStateException("Table is read-only. Make a copy before changing.");
+            }
+            assert(verifyTableInvariants());
+            m_appendRowStart = m_buffer.position();
+            m_appendCol = 0;
+            ensureAppendCapacity(ROW_HEADER_SIZE);
+            m_buffer.position(m_appendRowStart + ROW_HEADER_SIZE);
+        }
+        if (m_appendCol >= m_colCount) {
+            this.abortRow();
+            throw new IllegalStateException("Row already has values for all " + m_colCount + " columns");
+        }
+        ensureAppendCapacity(size);
+        return VoltType.get(m_buffer.get(4 + 1 + 2 + m_appendCol));
+    }
+
+    private final boolean hasSameColumnTypes(VoltTableRow row) {
+        if (row.getColumnCount() != m_colCount) return (false);
+        for (int i = 0; i < m_colCount; i++) {
+            if (row.getColumnType(i) != this.getColumnType(i)) return (false);
+        } // FOR
+        return (true);
+    }
+
+    private final void ensureAppendCapacity(int size) {
+        m_buffer.limit(m_buffer.capacity());
+        while (m_buffer.remaining() < size) {
+            expandBuffer();
+        }
+    }
+
+    private final VoltTypeException appendTypeMismatch(String javaType, VoltType columnType) {
+        final int col = m_appendCol;
+        this.abortRow();
+        return new VoltTypeException("Value for column " + col + " (" +
+                                     getColumnName(col) + ") is type " + javaType +
+                                     " when type " + columnType + " was expected.");
+    }
+
+    private final VoltOverflowException appendOverflow(VoltType columnType) {
+        this.abortRow();
+        return new VoltOverflowException("Cast to " + columnType.toString() + " would overflow");
+    }
+
+    /**
+     * Append an integer value to the next column of the row that is being built.
+     * This works for TINYINT, SMALLINT, INTEGER, BIGINT, and TIMESTAMP (microseconds) columns.
+     * Unlike {@link #addRow(Object...)}, this does not box the value.
+     * Call {@link #commitRow()} once all of the columns have been appended.
+     * @param value
+     * @return This table
+     */
+    public final VoltTable appendLong(long value) {
+        final VoltType columnType = prepareAppend(8);
+        switch (columnType) {
+            case TINYINT:
+                if (value <= Byte.MIN_VALUE || value > Byte.MAX_VALUE) throw appendOverflow(columnType);
+                m_buffer.put((byte)value);
+                break;
+            case SMALLINT:
+                if (value <= Short.MIN_VALUE || value > Short.MAX_VALUE) throw appendOverflow(columnType);
+                m_buffer.putShort((short)value);
+                break;
+            case INTEGER:
+                if (value <= Integer.MIN_VALUE || value > Integer.MAX_VALUE) throw appendOverflow(columnType);
+                m_buffer.putInt((int)value);
+                break;
+            case BIGINT:
+                if (value == VoltType.NULL_BIGINT) throw appendOverflow(columnType);
+                m_buffer.putLong(value);
+                break;
+            case TIMESTAMP:
+                m_buffer.putLong(value);
+                break;
+            default:
+                throw appendTypeMismatch("long", columnType);
+        } // SWITCH
+        m_appendCol++;
+        return this;
+    }
+
+    /**
+     * Append a floating point value to the next column of the row that is being built.
+     * This only works for FLOAT columns.
+     * @param value
+     * @return This table
+     */
+    public final VoltTable appendDouble(double value) {
+        final VoltType columnType = prepareAppend(8);
+        if (columnType != VoltType.FLOAT) throw appendTypeMismatch("double", columnType);
+        if (value == VoltType.NULL_FLOAT) throw appendOverflow(columnType);
+        m_buffer.putDouble(value);
+        m_appendCol++;
+        return this;
+    }
+
+    /**
+     * Append a string to the next column of the row that is being built.
+     * This only works for STRING columns. A null string is stored as NULL.
+     * @param value
+     * @return This table
+     */
+    public final VoltTable appendString(String value) {
+        if (value == null) return this.appendNull();
+        byte strbytes[] = null;
+        try {
+            strbytes = value.getBytes(ROWDATA_ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        return this.appendString(strbytes);
+    }
+
+    /**
+     * Append an already UTF-8 encoded string to the next column of the row that is being built.
+     * This only works for STRING columns. A null array is stored as NULL.
+     * @param value
+     * @return This table
+     */
+    public final VoltTable appendString(byte value[]) {
+        if (value == null) return this.appendNull();
+        final VoltType columnType = prepareAppend(STRING_LEN_SIZE + value.length);
+        if (columnType != VoltType.STRING) throw appendTypeMismatch("String", columnType);
+        if (value.length > VoltType.MAX_VALUE_LENGTH) {
+            this.abortRow();
+            throw new VoltOverflowException(
+                    "Value in VoltTable.appendString(...) larger than allowed max " + VoltType.MAX_VALUE_LENGTH_STR);
+        }
+        writeStringToBuffer(value, m_buffer);
+        m_appendCol++;
+        return this;
+    }
+
+    /**
+     * Append a timestamp to the next column of the row that is being built.
+     * This only works for TIMESTAMP columns. A null timestamp is stored as NULL.
+     * @param value
+     * @return This table
+     */
+    public final VoltTable appendTimestamp(TimestampType value) {
+        if (value == null) return this.appendNull();
+        final VoltType columnType = prepareAppend(8);
+        if (columnType != VoltType.TIMESTAMP) throw appendTypeMismatch("TimestampType", columnType);
+        m_buffer.putLong(value.getTime());
+        m_appendCol++;
+        return this;
+    }
+
+    /**
+     * Append a decimal to the next column of the row that is being built.
+     * This only works for DECIMAL columns. A null decimal is stored as NULL.
+     * @param value
+     * @return This table
+     */
+    public final VoltTable appendDecimal(BigDecimal value) {
+        final VoltType columnType = prepareAppend(16);
+        if (columnType != VoltType.DECIMAL) throw appendTypeMismatch("BigDecimal", columnType);
+        try {
+            VoltDecimalHelper.serializeBigDecimal(value, m_buffer);
+        } catch (RuntimeException ex) {
+            this.abortRow();
+            throw ex;
+        }
+        m_appendCol++;
+        return this;
+    }
+
+    /**
+     * Append a NULL value to the next column of the row that is being built.
+     * @return This table
+     */
+    public final VoltTable appendNull() {
+        final VoltType columnType = prepareAppend(16);
+        switch (columnType) {
+            case BOOLEAN:
+            case TINYINT:
+                m_buffer.put(VoltType.NULL_TINYINT);
+                break;
+            case SMALLINT:
+                m_buffer.putShort(VoltType.NULL_SMALLINT);
+                break;
+            case INTEGER:
+                m_buffer.putInt(VoltType.NULL_INTEGER);
+                break;
+            case TIMESTAMP:
+            case BIGINT:
+                m_buffer.putLong(VoltType.NULL_BIGINT);
+                break;
+            case FLOAT:
+                m_buffer.putDouble(VoltType.NULL_FLOAT);
+                break;
+            case STRING:
+                m_buffer.putInt(NULL_STRING_INDICATOR);
+                break;
+            case DECIMAL:
+                VoltDecimalHelper.serializeNull(m_buffer);
+                break;
+            default:
+                this.abortRow();
+                throw new VoltTypeException("Unsupported type: " + columnType);
+        } // SWITCH
+        m_appendCol++;
+        return this;
+    }
+
+    /**
+     * Finish the row that was built with the append methods and add it to the table.
+     * Every column must have been given a value.
+     */
+    public final void commitRow() {
+        if (m_appendRowStart == -1) {
+            throw new IllegalStateException("There is no row to commit");
+        }
+        if (m_appendCol != m_colCount) {
+            final int cnt = m_appendCol;
+            this.abortRow();
+            throw new IllegalArgumentException(cnt + " values were appended but table has " + m_colCount + " columns");
+        }
+        final int rowsize = m_buffer.position() - m_appendRowStart - ROW_HEADER_SIZE;
+        if (rowsize > VoltTableRow.MAX_TUPLE_LENGTH) {
+            this.abortRow();
+            throw new VoltOverflowException(
+                    "Table row total length larger than allowed max " + VoltTableRow.MAX_TUPLE_LENGTH_STR);
+        }
+        m_buffer.putInt(m_appendRowStart, rowsize);
+        m_rowCount++;
+        m_buffer.putInt(m_rowStart, m_rowCount);
+        m_buffer.limit(m_buffer.position());
+        m_appendRowStart = -1;
+        m_appendCol = 0;
+        assert(verifyTableInvariants());
+    }
+
+    /**
+     * Throw away the values that have been appended for the current row (if any)
+     */
+    public final void abortRow() {
+        if (m_appendRowStart == -1) return;
+        m_buffer.position(m_appendRowStart);
+        m_buffer.limit(m_appendRowStart);
+        m_appendRowStart = -1;
+        m_appendCol = 0;
+    }
+
+    // ----------------------------------------------------------------------------
+    // IN-PLACE SORTING
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns a copy of this table that includes all of its rows
+     */
+    public final VoltTable copy() {
+        assert(m_appendRowStart == -1) : "Cannot copy a table with an uncommitted row";
+        assert(verifyTableInvariants());
+        final VoltTable copy = new VoltTable();
+        copy.m_colCount = m_colCount;
+        copy.m_rowCount = m_rowCount;
+        copy.m_rowStart = m_rowStart;
+
+        final ByteBuffer dup = m_buffer.duplicate();
+        dup.limit(m_buffer.position());
+        dup.position(0);
+        copy.m_buffer = ByteBuffer.allocate(dup.remaining());
+        copy.m_buffer.put(dup);
+        assert(copy.verifyTableInvariants());
+        return copy;
+    }
+
+    /**
+     * Sort the rows of this table on the given columns. This reorders the serialized
+     * rows in this table's buffer directly. The sort keys are compared in their
+     * serialized form, so no row objects are created. STRING columns are compared
+     * by their UTF-8 bytes, which is the same order as
+     * {@link org.voltdb.utils.VoltTableComparator#compareStrings(String, String)}. NULL values are treated as smaller than everything else,
+     * so they come first for ASC columns and last for DESC columns. The sort is stable.
+     * @param cols Pairs of column offsets and the direction to sort that column
+     */
+    public final void sort(Pair<Integer, SortDirectionType>... cols) {
+        if (m_readOnly) {
+            throw new IllegalStateException("Table is read-only. Make a copy before changing.");
+        }
+        assert(m_appendRowStart == -1) : "Cannot sort a table with an uncommitted row";
+        assert(verifyTableInvariants());
+        if (m_rowCount < 2 || cols.length == 0) return;
+
+        final int num_keys = cols.length;
+        final int key_cols[] = new int[num_keys];
+        final VoltType key_types[] = new VoltType[num_keys];
+        final boolean key_desc[] = new boolean[num_keys];
+        int max_col = 0;
+        for (int i = 0; i < num_keys; i++) {
+            key_cols[i] = cols[i].getFirst().intValue();
+            if (key_cols[i] < 0 || key_cols[i] >= m_colCount) {
+                throw new IndexOutOfBoundsException("Invalid sort column " + key_cols[i]);
+            }
+            key_types[i] = getColumnType(key_cols[i]);
+            key_desc[i] = (cols[i].getSecond() == SortDirectionType.DESC);
+            max_col = Math.max(max_col, key_cols[i]);
+        } // FOR
+
+        // Find where each row starts and where its sort keys are
+        final int row_offsets[] = new int[m_rowCount];
+        final int key_offsets[] = new int[m_rowCount * num_keys];
+        final int col_offsets[] = new int[max_col + 1];
+        final int data_start = m_rowStart + ROW_COUNT_SIZE;
+        final int data_end = m_buffer.position();
+        int pos = data_start;
+        for (int row = 0; row < m_rowCount; row++) {
+            row_offsets[row] = pos;
+            int col_pos = pos + ROW_HEADER_SIZE;
+            for (int col = 0; col <= max_col; col++) {
+                col_offsets[col] = col_pos;
+                col_pos += getSerializedSize(getColumnType(col), col_pos);
+            } // FOR
+            for (int i = 0; i < num_keys; i++) {
+                key_offsets[row * num_keys + i] = col_offsets[key_cols[i]];
+            } // FOR
+            pos += ROW_HEADER_SIZE + m_buffer.getInt(pos);
+        } // FOR
+        assert(pos == data_end);
+
+        // Sort the row ids and then copy the rows back into the buffer in that order
+        int order[] = new int[m_rowCount];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        mergeSort(order, new int[m_rowCount], 0, m_rowCount, key_offsets, key_types, key_desc);
+
+        final byte sorted[] = new byte[data_end - data_start];
+        final ByteBuffer src = m_buffer.duplicate();
+        int sorted_pos = 0;
+        for (int i = 0; i < order.length; i++) {
+            final int row_pos = row_offsets[order[i]];
+            final int row_len = ROW_HEADER_SIZE + m_buffer.getInt(row_pos);
+            src.limit(row_pos + row_len);
+            src.position(row_pos);
+            src.get(sorted, sorted_pos, row_len);
+            sorted_pos += row_len;
+        } // FOR
+        assert(sorted_pos == sorted.length);
+        m_buffer.position(data_start);
+        m_buffer.put(sorted);
+        assert(m_buffer.position() == data_end);
+        resetRowPosition();
+        assert(verifyTableInvariants());
+    }
+
+    private final int getSerializedSize(VoltType type, int pos) {
+        switch (type) {
+            case BOOLEAN:
+            case TINYINT:
+                return 1;
+            case SMALLINT:
+                return 2;
+            case INTEGER:
+                return 4;
+            case BIGINT:
+            case TIMESTAMP:
+            case FLOAT:
+                return 8;
+            case DECIMAL:
+                return 16;
+            case STRING: {
+                final int len = m_buffer.getInt(pos);
+                return STRING_LEN_SIZE + (len == NULL_STRING_INDICATOR ? 0 : len);
+            }
+            default:
+                throw new VoltTypeException("Unsupported type: " + type);
+        } // SWITCH
+    }
+
+    private final void mergeSort(int order[], int tmp[], int lo, int hi,
+                                 int key_offsets[], VoltType key_types[], boolean key_desc[]) {
+        if (hi - lo < 2) return;
+        // Use insertion sort for small ranges
+        if (hi - lo <= 8) {
+            for (int i = lo + 1; i < hi; i++) {
+                final int cur = order[i];
+                int j = i - 1;
+                while (j >= lo && compareRows(order[j], cur, key_offsets, key_types, key_desc) > 0) {
+                    order[j + 1] = order[j];
+                    j--;
+                } // WHILE
+                order[j + 1] = cur;
+            } // FOR
+            return;
+        }
+        final int mid = (lo + hi) >>> 1;
+        mergeSort(order, tmp, lo, mid, key_offsets, key_types, key_desc);
+        mergeSort(order, tmp, mid, hi, key_offsets, key_types, key_desc);
+        if (compareRows(order[mid - 1], order[mid], key_offsets, key_types, key_desc) <= 0) return;
+
+        System.arraycopy(order, lo, tmp, lo, hi - lo);
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi) {
+            if (compareRows(tmp[j], tmp[i], key_offsets, key_types, key_desc) < 0) {
+                order[k++] = tmp[j++];
+            } else {
+                order[k++] = tmp[i++];
+            }
+        } // WHILE
+        while (i < mid) order[k++] = tmp[i++];
+        while (j < hi) order[k++] = tmp[j++];
+    }
+
+    private final int compareRows(int row0, int row1, int key_offsets[], VoltType key_types[], boolean key_desc[]) {
+        final int num_keys = key_types.length;
+        for (int i = 0; i < num_keys; i++) {
+            final int pos0 = key_offsets[row0 * num_keys + i];
+            final int pos1 = key_offsets[row1 * num_keys + i];
+            int cmp;
+            switch (key_types[i]) {
+                case BOOLEAN:
+                case TINYINT:
+                    cmp = m_buffer.get(pos0) - m_buffer.get(pos1);
+                    break;
+                case SMALLINT:
+                    cmp = m_buffer.getShort(pos0) - m_buffer.getShort(pos1);
+                    break;
+                case INTEGER: {
+                    final int v0 = m_buffer.getInt(pos0);
+                    final int v1 = m_buffer.getInt(pos1);
+                    cmp = (v0 < v1 ? -1 : (v0 == v1 ? 0 : 1));
+                    break;
+                }
+                case BIGINT:
+                case TIMESTAMP: {
+                    final long v0 = m_buffer.getLong(pos0);
+                    final long v1 = m_buffer.getLong(pos1);
+                    cmp = (v0 < v1 ? -1 : (v0 == v1 ? 0 : 1));
+                    break;
+                }
+                case FLOAT: {
+                    final double v0 = m_buffer.getDouble(pos0);
+                    final double v1 = m_buffer.getDouble(pos1);
+                    // NULL_FLOAT is the smallest double, so it will sort first
+                    cmp = Double.compare(v0, v1);
+                    break;
+                }
+                case DECIMAL: {
+                    // 128-bit two's complement, big-endian
+                    final long hi0 = m_buffer.getLong(pos0);
+                    final long hi1 = m_buffer.getLong(pos1);
+                    if (hi0 != hi1) {
+                        cmp = (hi0 < hi1 ? -1 : 1);
+                    } else {
+                        final long lo0 = m_buffer.getLong(pos0 + 8) + Long.MIN_VALUE;
+                        final long lo1 = m_buffer.getLong(pos1 + 8) + Long.MIN_VALUE;
+                        cmp = (lo0 < lo1 ? -1 : (lo0 == lo1 ? 0 : 1));
+                    }
+                    break;
+                }
+                case STRING: {
+                    final int len0 = m_buffer.getInt(pos0);
+                    final int len1 = m_buffer.getInt(pos1);
+                    if (len0 == NULL_STRING_INDICATOR || len1 == NULL_STRING_INDICATOR) {
+                        cmp = (len0 == len1 ? 0 : (len0 == NULL_STRING_INDICATOR ? -1 : 1));
+                        break;
+                    }
+                    cmp = 0;
+                    final int len = Math.min(len0, len1);
+                    for (int b = 0; b < len && cmp == 0; b++) {
+                        cmp = (m_buffer.get(pos0 + STRING_LEN_SIZE + b) & 0xFF) -
+                              (m_buffer.get(pos1 + STRING_LEN_SIZE + b) & 0xFF);
+                    } // FOR
+                    if (cmp == 0) cmp = len0 - len1;
+                    break;
+                }
+                default:
+                    throw new VoltTypeException("Unsupported sorting column type " + key_types[i]);
+            } // SWITCH
+            if (cmp != 0) return (key_desc[i] ? -cmp : cmp);
+        } // FOR
+        return (0);
+    }
+
     /**
      * Tables containing a single row and a single integer column can be read using this convenience
      * method.
@@ -208,6 +208,14 @@ public interface Client {
      * @return Table containing procedure stats
      */
     public VoltTable getProcedureStatsInterval();
+
+    /**
+     * Get the load on each of the network selector threads: registered
+     * connections, selected keys, bytes and messages read and the number of
+     * connections with backpressure. These are running totals.
+     * @return Table containing one row per selector thread
+     */
+    public VoltTable getSelectorStats();
     
     public ProfileMeasurement getQueueTime();
 
@@ -18,15 +18,25 @@
 package org.voltdb.client;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.voltdb.StoredProcedureInvocation;
 import org.voltdb.VoltTable;
 import org.voltdb.catalog.Catalog;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
 import org.voltdb.messaging.FastSerializer;
+import org.voltdb.sysprocs.GetCatalog;
 import org.voltdb.utils.DBBPool.BBContainer;
 
 import edu.brown.catalog.CatalogUtil;
@@ -34,6 +44,7 @@ import edu.brown.hstore.Hstoreservice;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.ProfileMeasurement;
 
@@ -68,9 +79,17 @@ final class ClientImpl implements Client {
     /**
      * If we have a catalog, then we'll enable client-side hints
      */
-    private Catalog m_catalog;
+    private volatile Catalog m_catalog;
     private PartitionEstimator m_pEstimator;
     private int m_partitionSiteXref[];
+    private Map<String, Procedure> m_procedures;
+    private final AtomicBoolean m_catalogFetched = new AtomicBoolean(false);
+    /**
+     * Only send procedure ids to the cluster if our catalog came from the cluster.
+     * A catalog that was handed to us may have been compiled separately, so its ids
+     * might not match the ones at the HStoreSites.
+     */
+    private boolean m_sendProcedureIds = false;
     private final HStoreConf m_hstoreConf;
     private final ProfileMeasurement m_queueTime = new ProfileMeasurement("queue");
     
@@ -119,9 +138,7 @@ final class ClientImpl implements Client {
         m_backpressureWait = m_hstoreConf.client.throttle_backoff;
         
         if (catalog != null && m_hstoreConf.client.txn_hints) {
-            m_catalog = catalog;
-            m_pEstimator = new PartitionEstimator(CatalogUtil.getDatabase(m_catalog));
-            m_partitionSiteXref = CatalogUtil.getPartitionSiteXrefArray(m_catalog);
+            this.setCatalog(catalog, false);
         }
         
         m_distributer = new Distributer(
@@ -129,7 +146,8 @@ final class ClientImpl implements Client {
                 maxArenaSizes,
                 heavyweight,
                 statsSettings,
-                m_backpressureWait);
+                m_backpressureWait,
+                m_hstoreConf.client.network_selector_threads);
         m_distributer.addClientStatusListener(new CSL());
     }
 
@@ -149,7 +167,130 @@ final class ClientImpl implements Client {
         }
         final String subProgram = (program == null) ? "" : program;
         final String subPassword = (password == null) ? "" : password;
-        m_distributer.createConnection(site_id, host, port, subProgram, subPassword);
+        Distributer.NodeConnection cxn = m_distributer.createConnection(site_id, host, port, subProgram, subPassword);
+        
+        // If they didn't tell us what site this connection goes to, then we'll
+        // try to figure it out ourselves from the catalog
+        if (site_id == null && m_hstoreConf.client.txn_hints) {
+            if (m_catalog == null && m_hstoreConf.client.txn_hints_fetch_catalog) {
+                this.fetchCatalog();
+            }
+            if (m_catalog != null) {
+                site_id = this.getSiteId(host, port);
+                if (site_id != null) m_distributer.addSiteConnection(site_id.intValue(), cxn);
+            }
+        }
+    }
+    
+    /**
+     * Setup everything that we need to calculate the base partition of
+     * new transaction requests on the client side
+     * @param catalog
+     * @param fromCluster True if this catalog was retrieved from the cluster
+     */
+    private synchronized void setCatalog(Catalog catalog, boolean fromCluster) {
+        Database catalog_db = CatalogUtil.getDatabase(catalog);
+        Map<String, Procedure> procedures = new HashMap<String, Procedure>();
+        for (Procedure catalog_proc : catalog_db.getProcedures()) {
+            if (catalog_proc.getSystemproc()) continue;
+            procedures.put(catalog_proc.getName(), catalog_proc);
+            procedures.put(catalog_proc.getName().toLowerCase(), catalog_proc);
+        } // FOR
+        m_procedures = procedures;
+        m_pEstimator = new PartitionEstimator(catalog_db);
+        m_partitionSiteXref = CatalogUtil.getPartitionSiteXrefArray(catalog);
+        m_sendProcedureIds = fromCluster;
+        m_catalog = catalog; // This has to be last
+    }
+    
+    /**
+     * Download the catalog from the cluster using @GetCatalog
+     * This is not synchronized so that we don't hold the client's lock while
+     * we wait for the response. Only the first caller will try to fetch it.
+     */
+    private void fetchCatalog() {
+        if (m_catalog != null || m_catalogFetched.compareAndSet(false, true) == false) return;
+        try {
+            final SyncCallback cb = new SyncCallback();
+            if (this.callProcedure(cb, "@GetCatalog") == false) {
+                throw new Exception("Unable to queue @GetCatalog request");
+            }
+            int timeout = m_hstoreConf.client.txn_hints_fetch_catalog_timeout;
+            if (cb.waitForResponse(timeout) == false) {
+                throw new Exception("@GetCatalog did not return after " + timeout + " ms");
+            }
+            ClientResponse cresponse = cb.getResponse();
+            if (cresponse.getStatus() != Hstoreservice.Status.OK) {
+                throw new Exception("@GetCatalog failed: " + cresponse.getStatusString());
+            }
+            String serializedCatalog = GetCatalog.readCatalog(cresponse.getResults()[0]);
+            if (serializedCatalog == null) {
+                throw new Exception("@GetCatalog did not return anything");
+            }
+            Catalog catalog = new Catalog();
+            catalog.execute(serializedCatalog);
+            this.setCatalog(catalog, true);
+            if (debug.get()) LOG.debug("Retrieved catalog from cluster. Enabling client-side transaction routing");
+        } catch (Exception ex) {
+            LOG.warn("Failed to retrieve catalog from cluster. Client-side transaction routing is disabled", ex);
+        }
+    }
+    
+    /**
+     * Return the id of the Site that is listening for requests on the given host+port
+     * Returns null if no match is found.
+     * @param host
+     * @param port
+     * @return
+     */
+    Integer getSiteId(String host, int port) {
+        if (m_catalog == null) return (null);
+        Collection<Site> candidates = new ArrayList<Site>();
+        for (Site catalog_site : CatalogUtil.getAllSites(m_catalog)) {
+            if (catalog_site.getProc_port() == port) candidates.add(catalog_site);
+        } // FOR
+        if (candidates.size() == 1) {
+            return (CollectionUtil.first(candidates).getId());
+        }
+        
+        // More than one site is using this port, so we have to match the host too
+        try {
+            InetAddress addr = InetAddress.getByName(host);
+            for (Site catalog_site : candidates) {
+                InetAddress site_addr = InetAddress.getByName(catalog_site.getHost().getIpaddr());
+                if (addr.equals(site_addr)) return (catalog_site.getId());
+            } // FOR
+        } catch (UnknownHostException ex) {
+            if (debug.get()) LOG.debug("Unable to resolve host " + host, ex);
+        }
+        return (null);
+    }
+    
+    /**
+     * Figure out what site we should send the new request to
+     * If we know what the base partition is going to be, then we will
+     * embed it in the invocation. Returns null if it can go to any site.
+     * @param invocation
+     * @return
+     */
+    Integer getSiteId(StoredProcedureInvocation invocation) {
+        if (m_catalog == null || invocation.isSysProc()) return (null);
+        
+        String procName = invocation.getProcName();
+        Procedure catalog_proc = m_procedures.get(procName);
+        if (catalog_proc == null) catalog_proc = m_procedures.get(procName.toLowerCase());
+        if (catalog_proc == null) return (null);
+        if (m_sendProcedureIds) invocation.setProcedureId(catalog_proc.getId());
+        try {
+            Integer partition = m_pEstimator.getBasePartition(catalog_proc, invocation);
+            if (partition != null) {
+                invocation.setBasePartition(partition.intValue());
+                return (m_partitionSiteXref[partition.intValue()]);
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed to estimate base partition for new invocation of '" + procName + "'", ex);
+        }
+        return (null);
     }
     
     /**
@@ -171,18 +312,7 @@ final class ClientImpl implements Client {
         final StoredProcedureInvocation invocation =
               new StoredProcedureInvocation(m_handle.getAndIncrement(), procName, parameters);
 
-        Integer site_id = null;
-        if (m_catalog != null && procName.startsWith("@") == false) {
-            try {
-                Integer partition = m_pEstimator.getBasePartition(invocation);
-                if (partition != null) {
-                    site_id = m_partitionSiteXref[partition.intValue()];
-                    invocation.setBasePartition(partition.intValue());
-                }
-            } catch (Exception ex) {
-                throw new RuntimeException("Failed to estimate base partition for new invocation of '" + procName + "'", ex);
-            }
-        }
+        Integer site_id = this.getSiteId(invocation);
         
         long start = ProfileMeasurement.getTime();
         m_distributer.queue(
@@ -255,18 +385,7 @@ final class ClientImpl implements Client {
         StoredProcedureInvocation invocation =
             new StoredProcedureInvocation(m_handle.getAndIncrement(), procName, parameters);
 
-        Integer site_id = null;
-        if (m_catalog != null && procName.startsWith("@") == false) {
-            try {
-                Integer partition = m_pEstimator.getBasePartition(invocation);
-                if (partition != null) {
-                    site_id = m_partitionSiteXref[partition.intValue()];
-                    invocation.setBasePartition(partition.intValue());
-                }
-            } catch (Exception ex) {
-                throw new RuntimeException("Failed to estimate base partition for new invocation of '" + procName + "'", ex);
-            }
-        }
+        Integer site_id = this.getSiteId(invocation);
         
         if (m_blockingQueue) {
             long start = ProfileMeasurement.getTime();
@@ -406,6 +525,11 @@ final class ClientImpl implements Client {
         return m_distributer.getProcedureStats(false);
     }
 
+    @Override
+    public VoltTable getSelectorStats() {
+        return m_distributer.getSelectorStats();
+    }
+
     @Override
     public String getBuildString() {
         return m_distributer.getBuildString();
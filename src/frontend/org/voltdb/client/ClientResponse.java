@@ -125,6 +125,13 @@ public interface ClientResponse extends Poolable {
      * @return Time in milliseconds the procedure took to roundtrip from the client to the server
      */
     public int getClientRoundtrip();
+
+    /**
+     * Same as getClientRoundtrip() but measured with the client's high-resolution timer.
+     * This value is not sent over the wire and is only available on the client side.
+     * @return Time in microseconds the procedure took to roundtrip from the client to the server
+     */
+    public long getClientRoundtripMicros();
     
     /**
      * Get the number of times this transaction was restarted on the server side for whatever reason.
@@ -67,8 +67,28 @@ public class ClientStatsLoader {
             " ( instanceId, tsEvent, hostname, connectionId, serverHostId, serverHostname, " +
             " serverConnectionId, procedureName, roundtripAvg, roundtripMin, roundtripMax, " +
             " clusterRoundtripAvg, clusterRoundtripMin, clusterRoundtripMax, " +
-            " numInvocations, numAborts, numFailures, numRestarts) " +
-            "values ( ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ? );";
+            " numInvocations, numAborts, numFailures, numRestarts, " +
+            " roundtripP50, roundtripP95, roundtripP99, roundtripP999, roundtripMaxUs, " +
+            " clusterRoundtripP50, clusterRoundtripP95, clusterRoundtripP99, clusterRoundtripP999, clusterRoundtripMaxUs) " +
+            "values ( ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, " +
+            "?, ?, ?, ?, ?, ?, ?, ?, ?, ? );";
+
+    /**
+     * The latency percentile columns (in microseconds) from Distributer.getProcedureStats()
+     * that get appended to each row in the procedure stats table
+     */
+    private static final String procedureLatencyColumns[] = {
+        "ROUNDTRIPTIME_P50_US",
+        "ROUNDTRIPTIME_P95_US",
+        "ROUNDTRIPTIME_P99_US",
+        "ROUNDTRIPTIME_P999_US",
+        "ROUNDTRIPTIME_MAX_US",
+        "CLUSTER_ROUNDTRIPTIME_P50_US",
+        "CLUSTER_ROUNDTRIPTIME_P95_US",
+        "CLUSTER_ROUNDTRIPTIME_P99_US",
+        "CLUSTER_ROUNDTRIPTIME_P999_US",
+        "CLUSTER_ROUNDTRIPTIME_MAX_US",
+    };
 
     private PreparedStatement insertConnectionStatsStmt;
     private PreparedStatement insertProcedureStatsStmt;
@@ -291,6 +311,10 @@ public class ClientStatsLoader {
                                 insertProcedureStatsStmt.setLong(index++,
                                         procedureStats
                                                 .getLong("TIMES_RESTARTED"));
+                                for (String column : procedureLatencyColumns) {
+                                    insertProcedureStatsStmt.setLong(index++,
+                                            procedureStats.getLong(column));
+                                } // FOR
                                 insertProcedureStatsStmt.addBatch();
                             }
                             insertProcedureStatsStmt.executeBatch();
@@ -25,8 +25,9 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.collections15.map.ListOrderedMap;
@@ -41,6 +42,7 @@ import org.voltdb.messaging.FastSerializable;
 import org.voltdb.messaging.FastSerializer;
 import org.voltdb.network.Connection;
 import org.voltdb.network.QueueMonitor;
+import org.voltdb.network.SelectorStats;
 import org.voltdb.network.VoltNetwork;
 import org.voltdb.network.VoltProtocolHandler;
 import org.voltdb.utils.DBBPool;
@@ -51,6 +53,7 @@ import edu.brown.hstore.HStoreThreadManager;
 import edu.brown.hstore.Hstoreservice;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.statistics.LatencyHistogram;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.StringUtil;
 
@@ -72,13 +75,16 @@ class Distributer {
     private final ArrayList<NodeConnection> m_connections = new ArrayList<NodeConnection>();
     
     /** SiteId -> NodeConnection */
-    private final Map<Integer, Collection<NodeConnection>> m_connectionSiteXref = new HashMap<Integer, Collection<NodeConnection>>();
+    private final Map<Integer, Collection<NodeConnection>> m_connectionSiteXref = new ConcurrentHashMap<Integer, Collection<NodeConnection>>();
 
     private final ArrayList<ClientStatusListener> m_listeners = new ArrayList<ClientStatusListener>();
 
     //Selector and connection handling, does all work in blocking selection thread
     private final VoltNetwork m_network;
 
+    /** Per-selector load of m_network */
+    private final SelectorStats m_selectorStats;
+
     // Temporary until a distribution/affinity algorithm is written
     private int m_nextConnection = 0;
 
@@ -124,10 +130,10 @@ class Distributer {
         private long m_clusterRoundTripTime = 0;
         private long m_lastClusterRoundTripTime = 0;
 
-        // 10ms buckets. Last bucket is all transactions > 190ms.
-        static int m_numberOfBuckets = 20;
-        private long m_clusterRoundTripTimeBuckets[] = new long[m_numberOfBuckets];
-        private long m_roundTripTimeBuckets[] = new long[m_numberOfBuckets];
+        // Log-linear histograms of every round trip time in microseconds.
+        // These are updated without holding any locks
+        private final LatencyHistogram m_roundTripTimeHistogram = new LatencyHistogram();
+        private final LatencyHistogram m_clusterRoundTripTimeHistogram = new LatencyHistogram();
 
         private int m_maxClusterRoundTripTime = Integer.MIN_VALUE;
         private int m_lastMaxClusterRoundTripTime = Integer.MIN_VALUE;
@@ -138,7 +144,7 @@ class Distributer {
             m_name = name;
         }
 
-        public void update(int roundTripTime, int clusterRoundTripTime, boolean abort, boolean error, int restartCounter) {
+        public void update(int roundTripTime, long roundTripMicros, int clusterRoundTripTime, boolean abort, boolean error, int restartCounter) {
             m_maxRoundTripTime = Math.max(roundTripTime, m_maxRoundTripTime);
             m_lastMaxRoundTripTime = Math.max( roundTripTime, m_lastMaxRoundTripTime);
             m_minRoundTripTime = Math.min( roundTripTime, m_minRoundTripTime);
@@ -160,29 +166,21 @@ class Distributer {
             m_clusterRoundTripTime += clusterRoundTripTime;
             m_restartCounter += restartCounter;
 
-            // calculate the latency buckets to increment and increment.
-            int rttBucket = (int)(Math.floor(roundTripTime / 10));
-            if (rttBucket >= m_roundTripTimeBuckets.length) {
-                rttBucket = m_roundTripTimeBuckets.length - 1;
-            }
-            m_roundTripTimeBuckets[rttBucket] += 1;
-
-            int rttClusterBucket = (int)(Math.floor(clusterRoundTripTime / 10));
-            if (rttClusterBucket >= m_clusterRoundTripTimeBuckets.length) {
-                rttClusterBucket = m_clusterRoundTripTimeBuckets.length - 1;
-            }
-            m_clusterRoundTripTimeBuckets[rttClusterBucket] += 1;
-
+            m_roundTripTimeHistogram.record(roundTripMicros);
+            // The cluster only tells us its round trip time in milliseconds
+            m_clusterRoundTripTimeHistogram.record(clusterRoundTripTime * 1000l);
         }
     }
     
     class CallbackValues {
         final long time;
+        final long nanoTime;
         final ProcedureCallback callback;
         final String name;
         
         public CallbackValues(long time, ProcedureCallback callback, String name) {
             this.time = time;
+            this.nanoTime = System.nanoTime();
             this.callback = callback;
             this.name = name;
         }
@@ -254,6 +252,7 @@ class Distributer {
         private void updateStats(
                 String name,
                 int roundTrip,
+                long roundTripMicros,
                 int clusterRoundTrip,
                 boolean abort,
                 boolean error,
@@ -263,7 +262,7 @@ class Distributer {
                 stats = new ProcedureStats(name);
                 m_stats.put( name, stats);
             }
-            stats.update(roundTrip, clusterRoundTrip, abort, error, restartCounter);
+            stats.update(roundTrip, roundTripMicros, clusterRoundTrip, abort, error, restartCounter);
         }
 
         @Override
@@ -278,6 +277,7 @@ class Distributer {
             ProcedureCallback cb = null;
             long callTime = 0;
             int delta = 0;
+            long deltaMicros = 0;
             
             if (response == null) {
                 LOG.warn("Got back null ClientResponse. Ignoring...");
@@ -295,12 +295,14 @@ class Distributer {
             
             CallbackValues stuff = null;
             long now = System.currentTimeMillis();
+            long nanoNow = System.nanoTime();
             synchronized (this) {
                 stuff = m_callbacks.remove(clientHandle);
             
                 if (stuff != null) {
                     callTime = stuff.time;
                     delta = (int)(now - callTime);
+                    deltaMicros = (nanoNow - stuff.nanoTime) / 1000;
                     cb = stuff.callback;
                     m_invocationsCompleted++;
                     
@@ -355,13 +357,14 @@ class Distributer {
                     m_invocationErrors++;
                     error = true;
                 }
-                updateStats(stuff.name, delta, response.getClusterRoundtrip(), abort, error, restart_counter);
+                updateStats(stuff.name, delta, deltaMicros, response.getClusterRoundtrip(), abort, error, restart_counter);
             }
 
             if (cb != null) {
                 // We always need to call this so that we unblock the blocking client
                 // if (status != Hstoreservice.Status.ABORT_THROTTLED && status != Hstoreservice.Status.ABORT_REJECT) {
                     response.setClientRoundtrip(delta);
+                    response.setClientRoundtripMicros(deltaMicros);
                     cb.clientCallback(response);
                 //}
             } else if (m_isConnected) {
@@ -543,6 +546,16 @@ class Distributer {
             boolean useMultipleThreads,
             StatsUploaderSettings statsSettings,
             int backpressureWait) {
+        this(expectedOutgoingMessageSize, arenaSizes, useMultipleThreads, statsSettings, backpressureWait, 1);
+    }
+
+    Distributer(
+            int expectedOutgoingMessageSize,
+            int arenaSizes[],
+            boolean useMultipleThreads,
+            StatsUploaderSettings statsSettings,
+            int backpressureWait,
+            int selectorThreads) {
         if (statsSettings != null) {
             m_statsLoader = new ClientStatsLoader(statsSettings, this);
         } else {
@@ -550,7 +563,12 @@ class Distributer {
         }
         m_useMultipleThreads = useMultipleThreads;
         m_backpressureWait = backpressureWait;
-        m_network = new VoltNetwork( useMultipleThreads, true, 3);
+        if (selectorThreads > 1) {
+            m_network = new VoltNetwork(selectorThreads);
+        } else {
+            m_network = new VoltNetwork( useMultipleThreads, true, 3);
+        }
+        m_selectorStats = new SelectorStats("Client Selectors", m_network);
         m_expectedOutgoingMessageSize = expectedOutgoingMessageSize;
         m_network.start();
         m_pool = new DBBPool(false, arenaSizes, false);
@@ -613,7 +631,7 @@ class Distributer {
 //        createConnection(host, program, password, port);
 //    }
 
-    public synchronized void createConnection(Integer site_id, String host, int port, String program, String password) throws UnknownHostException, IOException {
+    public synchronized NodeConnection createConnection(Integer site_id, String host, int port, String program, String password) throws UnknownHostException, IOException {
         if (debug.get()) {
             LOG.debug(String.format("Creating new connection [site=%s, host=%s, port=%d]",
                                     HStoreThreadManager.formatSiteName(site_id), host, port));
@@ -656,16 +674,7 @@ class Distributer {
         NodeConnection cxn = new NodeConnection(numbers);
         m_connections.add(cxn);
         if (site_id != null) {
-            if (debug.get())
-                LOG.debug(String.format("Created connection for Site %s: %s", HStoreThreadManager.formatSiteName(site_id), cxn));
-            synchronized (m_connectionSiteXref) {
-                Collection<NodeConnection> nc = m_connectionSiteXref.get(site_id);
-                if (nc == null) {
-                    nc = new HashSet<NodeConnection>();
-                    m_connectionSiteXref.put(site_id, nc);
-                }
-                nc.add(cxn);    
-            } // SYNCH
+            this.addSiteConnection(site_id, cxn);
         }
         
         Connection c = m_network.registerChannel(aChannel, cxn);
@@ -674,6 +683,26 @@ class Distributer {
         cxn.m_connection = c;
         if (debug.get()) 
             LOG.debug("From what I can tell, we have a connection: " + cxn);
+        return (cxn);
+    }
+    
+    /**
+     * Mark the given connection as going directly to the given site. Any invocation
+     * that is queued for that site will be sent over this connection.
+     * @param site_id
+     * @param cxn
+     */
+    void addSiteConnection(int site_id, NodeConnection cxn) {
+        if (debug.get())
+            LOG.debug(String.format("Created connection for Site %s: %s", HStoreThreadManager.formatSiteName(site_id), cxn));
+        synchronized (m_connectionSiteXref) {
+            Collection<NodeConnection> nc = m_connectionSiteXref.get(site_id);
+            if (nc == null) {
+                nc = new CopyOnWriteArraySet<NodeConnection>();
+                m_connectionSiteXref.put(site_id, nc);
+            }
+            nc.add(cxn);    
+        } // SYNCH
     }
 
 //    private HashMap<String, Long> reportedSizes = new HashMap<String, Long>();
@@ -714,8 +743,9 @@ class Distributer {
         if (totalConnections == 0) {
             throw new NoConnectionsException("No connections.");
         }
-        if (site_id != null && m_connectionSiteXref.containsKey(site_id)) {
-             cxn = CollectionUtil.random(m_connectionSiteXref.get(site_id));
+        Collection<NodeConnection> siteConnections = (site_id != null ? m_connectionSiteXref.get(site_id) : null);
+        if (siteConnections != null) {
+             cxn = CollectionUtil.random(siteConnections);
 //            cxn = CollectionUtil.first(m_connectionSiteXref.get(site_id));
             if (cxn == null) {
                 LOG.warn("No direct connection to " + HStoreThreadManager.formatSiteName(site_id));
@@ -853,7 +883,17 @@ class Distributer {
             new ColumnInfo( "INVOCATIONS_COMPLETED", VoltType.BIGINT),
             new ColumnInfo( "INVOCATIONS_ABORTED", VoltType.BIGINT),
             new ColumnInfo( "INVOCATIONS_FAILED", VoltType.BIGINT),
-            new ColumnInfo( "TIMES_RESTARTED", VoltType.BIGINT)
+            new ColumnInfo( "TIMES_RESTARTED", VoltType.BIGINT),
+            new ColumnInfo( "ROUNDTRIPTIME_P50_US", VoltType.BIGINT),
+            new ColumnInfo( "ROUNDTRIPTIME_P95_US", VoltType.BIGINT),
+            new ColumnInfo( "ROUNDTRIPTIME_P99_US", VoltType.BIGINT),
+            new ColumnInfo( "ROUNDTRIPTIME_P999_US", VoltType.BIGINT),
+            new ColumnInfo( "ROUNDTRIPTIME_MAX_US", VoltType.BIGINT),
+            new ColumnInfo( "CLUSTER_ROUNDTRIPTIME_P50_US", VoltType.BIGINT),
+            new ColumnInfo( "CLUSTER_ROUNDTRIPTIME_P95_US", VoltType.BIGINT),
+            new ColumnInfo( "CLUSTER_ROUNDTRIPTIME_P99_US", VoltType.BIGINT),
+            new ColumnInfo( "CLUSTER_ROUNDTRIPTIME_P999_US", VoltType.BIGINT),
+            new ColumnInfo( "CLUSTER_ROUNDTRIPTIME_MAX_US", VoltType.BIGINT)
     };
 
     VoltTable getProcedureStats(final boolean interval) {
@@ -884,8 +924,13 @@ class Distributer {
                         int clusterMinRoundTripTime = stats.m_minClusterRoundTripTime;
                         int clusterMaxRoundTripTime = stats.m_maxClusterRoundTripTime;
                         long restartCounter = stats.m_restartCounter;
+                        LatencyHistogram rttHistogram = stats.m_roundTripTimeHistogram;
+                        LatencyHistogram clusterRttHistogram = stats.m_clusterRoundTripTimeHistogram;
 
                         if (interval) {
+                            rttHistogram = rttHistogram.getIntervalHistogram();
+                            clusterRttHistogram = clusterRttHistogram.getIntervalHistogram();
+
                             invocationsCompleted = stats.m_invocationsCompleted - stats.m_lastInvocationsCompleted;
                             if (invocationsCompleted == 0) {
                                 //No invocations since last interval
@@ -944,7 +989,17 @@ class Distributer {
                                 invocationsCompleted,
                                 invocationAborts,
                                 invocationErrors,
-                                restartCounter
+                                restartCounter,
+                                rttHistogram.getValueAtPercentile(50),
+                                rttHistogram.getValueAtPercentile(95),
+                                rttHistogram.getValueAtPercentile(99),
+                                rttHistogram.getValueAtPercentile(99.9),
+                                rttHistogram.getMax(),
+                                clusterRttHistogram.getValueAtPercentile(50),
+                                clusterRttHistogram.getValueAtPercentile(95),
+                                clusterRttHistogram.getValueAtPercentile(99),
+                                clusterRttHistogram.getValueAtPercentile(99.9),
+                                clusterRttHistogram.getMax()
                                 );
                     }
                 }
@@ -1027,6 +1082,16 @@ class Distributer {
         return retval;
     }
 
+    VoltTable getSelectorStats() {
+        final Long now = System.currentTimeMillis();
+        final VoltTable retval =
+            new VoltTable(m_selectorStats.getColumnSchema().toArray(new ColumnInfo[0]));
+        for (Object row[] : m_selectorStats.getStatsRows(false, now)) {
+            retval.addRow(row);
+        } // FOR
+        return retval;
+    }
+
     public Object[] getInstanceId() {
         return m_clusterInstanceId;
     }
@@ -17,6 +17,7 @@
 
 package org.voltdb.client;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A utility class that allows a client to queue a stored procedure invocation asynchronously and then poll
@@ -68,6 +69,21 @@ public final class SyncCallback extends AbstractProcedureArgumentCacher implemen
         m_lock.release();
     }
 
+    /**
+     * Block until a response has been received for the invocation associated with this callback
+     * or until the given amount of time has passed.
+     * @param timeout Maximum time to wait in milliseconds
+     * @return True if the response is available, false if the wait timed out
+     * @throws InterruptedException
+     */
+    public boolean waitForResponse(long timeout) throws InterruptedException {
+        if (m_lock.tryAcquire(timeout, TimeUnit.MILLISECONDS) == false) {
+            return false;
+        }
+        m_lock.release();
+        return true;
+    }
+
     /**
      * Return the arguments provided with the procedure invocation
      * @return Object array containing procedure arguments
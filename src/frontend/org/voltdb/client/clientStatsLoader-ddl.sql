@@ -50,6 +50,16 @@ CREATE TABLE clientProcedureStats (
     numInvocations              bigint NOT NULL,
     numAborts                   bigint NOT NULL,
     numFailures                 bigint NOT NULL,
-    numRestarts                 bigint NOT NULL
+    numRestarts                 bigint NOT NULL,
+    roundtripP50                bigint NOT NULL,
+    roundtripP95                bigint NOT NULL,
+    roundtripP99                bigint NOT NULL,
+    roundtripP999               bigint NOT NULL,
+    roundtripMaxUs              bigint NOT NULL,
+    clusterRoundtripP50         bigint NOT NULL,
+    clusterRoundtripP95         bigint NOT NULL,
+    clusterRoundtripP99         bigint NOT NULL,
+    clusterRoundtripP999        bigint NOT NULL,
+    clusterRoundtripMaxUs       bigint NOT NULL
 --    PRIMARY KEY(instanceId, tsEvent, hostname, connectionId)
 );
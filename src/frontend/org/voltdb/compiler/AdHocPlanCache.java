@@ -0,0 +1,568 @@
+package org.voltdb.compiler;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.voltdb.VoltType;
+import org.voltdb.expressions.AbstractExpression;
+import org.voltdb.expressions.ConstantValueExpression;
+import org.voltdb.expressions.ParameterValueExpression;
+import org.voltdb.types.ExpressionType;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * A bounded LRU cache of the plans generated for @AdHoc SQL statements.
+ * Statements are normalized by pulling out their literal values and replacing
+ * them with parameter placeholders, so that two statements that only differ in
+ * their literals share the same plan. The cached plan fragments contain
+ * ParameterValueExpressions that are replaced with the literals of each
+ * request before they are sent to the AdHoc sysproc. The cache must be
+ * invalidated whenever the catalog changes.
+ *
+ */
+public class AdHocPlanCache {
+    private static final Logger LOG = Logger.getLogger(AdHocPlanCache.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * We can't replace literals that follow these keywords with parameters
+     * because they change the shape of the plan
+     */
+    private static final Set<String> NO_PARAMETER_KEYWORDS = new HashSet<String>(Arrays.asList(
+        "LIMIT", "OFFSET", "TOP"
+    ));
+
+    /**
+     * These keywords end an ORDER BY or GROUP BY clause
+     */
+    private static final Set<String> END_BY_CLAUSE_KEYWORDS = new HashSet<String>(Arrays.asList(
+        "SELECT", "FROM", "WHERE", "HAVING", "LIMIT", "OFFSET", "UNION", "ORDER", "GROUP"
+    ));
+
+    /**
+     * Characters that can come before a negative number (as opposed to a
+     * subtraction)
+     */
+    private static final String NEGATIVE_NUMBER_PREFIXES = "=<>(,+-*/";
+
+    // ----------------------------------------------------------------------------
+    // PARAMETERIZED SQL
+    // ----------------------------------------------------------------------------
+
+    /**
+     * A SQL statement where all of the literals have been replaced with
+     * parameter placeholders
+     */
+    public static class ParameterizedSQL {
+        /** The normalized SQL with parameter placeholders */
+        public final String sql;
+        /** The literals that were pulled out of the original SQL, in order */
+        public final List<String> literals;
+
+        private ParameterizedSQL(String sql, List<String> literals) {
+            this.sql = sql;
+            this.literals = Collections.unmodifiableList(literals);
+        }
+
+        @Override
+        public String toString() {
+            return (String.format("%s %s", this.sql, this.literals));
+        }
+    } // END CLASS
+
+    /**
+     * Normalize the given SQL statement by replacing its numeric and string
+     * literals with parameter placeholders, collapsing whitespace, and
+     * upper-casing unquoted words. Returns null if the statement could not be
+     * parsed.
+     *
+     * @param sql
+     * @return
+     */
+    public static ParameterizedSQL parameterize(String sql) {
+        if (sql == null)
+            return (null);
+        StringBuilder sb = new StringBuilder();
+        List<String> literals = new ArrayList<String>();
+        String prev_word = null;
+        char prev_char = 0;
+        boolean in_by_clause = false;
+
+        final int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+
+            // Whitespace
+            if (Character.isWhitespace(c)) {
+                if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ')
+                    sb.append(' ');
+                i++;
+                continue;
+            }
+
+            // Comments
+            // These are treated like whitespace so that any literals inside of them
+            // don't get pulled out as parameters that the plan will never use
+            if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                int j = sql.indexOf('\n', i + 2);
+                i = (j == -1 ? length : j + 1);
+                if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ')
+                    sb.append(' ');
+                continue;
+            }
+            if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int j = sql.indexOf("*/", i + 2);
+                if (j == -1)
+                    return (null);
+                i = j + 2;
+                if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ')
+                    sb.append(' ');
+                continue;
+            }
+
+            // String Literal
+            if (c == '\'') {
+                int j = i + 1;
+                while (true) {
+                    if (j >= length)
+                        return (null);
+                    if (sql.charAt(j) == '\'') {
+                        if (j + 1 < length && sql.charAt(j + 1) == '\'') {
+                            j += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    j++;
+                } // WHILE
+                String literal = sql.substring(i, j + 1);
+                appendLiteral(sb, literals, literal, prev_word, in_by_clause);
+                prev_word = null;
+                prev_char = '\'';
+                i = j + 1;
+                continue;
+            }
+
+            // Numeric Literal
+            boolean negative = (c == '-' && i + 1 < length && Character.isDigit(sql.charAt(i + 1)) && NEGATIVE_NUMBER_PREFIXES.indexOf(prev_char) != -1);
+            if (Character.isDigit(c) || negative || (c == '.' && i + 1 < length && Character.isDigit(sql.charAt(i + 1)))) {
+                int j = (negative ? i + 1 : i);
+                while (j < length && (Character.isDigit(sql.charAt(j)) || sql.charAt(j) == '.'))
+                    j++;
+                if (j < length && (sql.charAt(j) == 'e' || sql.charAt(j) == 'E')) {
+                    int k = j + 1;
+                    if (k < length && (sql.charAt(k) == '+' || sql.charAt(k) == '-'))
+                        k++;
+                    if (k < length && Character.isDigit(sql.charAt(k))) {
+                        while (k < length && Character.isDigit(sql.charAt(k)))
+                            k++;
+                        j = k;
+                    }
+                }
+                // Something like '1abc' is not a number that we understand
+                if (j < length && (Character.isLetter(sql.charAt(j)) || sql.charAt(j) == '_'))
+                    return (null);
+                String literal = sql.substring(i, j);
+                appendLiteral(sb, literals, literal, prev_word, in_by_clause);
+                prev_word = null;
+                prev_char = '0';
+                i = j;
+                continue;
+            }
+
+            // Quoted Identifier
+            if (c == '"') {
+                int j = sql.indexOf('"', i + 1);
+                if (j == -1)
+                    return (null);
+                sb.append(sql, i, j + 1);
+                prev_word = null;
+                prev_char = '"';
+                i = j + 1;
+                continue;
+            }
+
+            // Keyword or Identifier
+            if (Character.isLetter(c) || c == '_') {
+                int j = i + 1;
+                while (j < length && (Character.isLetterOrDigit(sql.charAt(j)) || sql.charAt(j) == '_' || sql.charAt(j) == '$'))
+                    j++;
+                String word = sql.substring(i, j).toUpperCase();
+                if (word.equals("BY") && ("ORDER".equals(prev_word) || "GROUP".equals(prev_word))) {
+                    in_by_clause = true;
+                } else if (END_BY_CLAUSE_KEYWORDS.contains(word)) {
+                    in_by_clause = false;
+                }
+                sb.append(word);
+                prev_word = word;
+                prev_char = 'A';
+                i = j;
+                continue;
+            }
+
+            // Everything else
+            if (c == ';' && sql.substring(i + 1).trim().isEmpty())
+                break;
+            sb.append(c);
+            prev_word = null;
+            prev_char = c;
+            i++;
+        } // WHILE
+
+        String normalized = sb.toString().trim();
+        if (normalized.isEmpty())
+            return (null);
+        return (new ParameterizedSQL(normalized, literals));
+    }
+
+    private static void appendLiteral(StringBuilder sb, List<String> literals, String literal, String prev_word, boolean in_by_clause) {
+        if (in_by_clause || (prev_word != null && NO_PARAMETER_KEYWORDS.contains(prev_word))) {
+            sb.append(literal);
+        } else {
+            sb.append('?');
+            literals.add(literal);
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // PARAMETER BINDING
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Replace all of the ParameterValueExpressions in the given serialized
+     * plan fragment with ConstantValueExpressions for the given literals.
+     * Returns null if one of the literals is not compatible with the type of
+     * its parameter.
+     *
+     * @param plan
+     * @param literals
+     * @return
+     * @throws JSONException
+     */
+    public static String bind(String plan, List<String> literals) throws JSONException {
+        if (plan == null || literals.isEmpty())
+            return (plan);
+        JSONObject json = new JSONObject(plan);
+        if (bindParameters(json, literals) == false)
+            return (null);
+        return (json.toString());
+    }
+
+    /**
+     * Returns the number of parameters used by the given serialized plan
+     * fragments. Returns -1 if their ParameterValueExpressions do not use
+     * exactly the indexes 0 to n-1, which means that we can't be sure which
+     * literal goes with which parameter.
+     *
+     * @param plans
+     * @return
+     * @throws JSONException
+     */
+    public static int countParameters(String... plans) throws JSONException {
+        Set<Integer> param_idxs = new HashSet<Integer>();
+        for (String plan : plans) {
+            if (plan != null)
+                collectParameters(new JSONObject(plan), param_idxs);
+        } // FOR
+        for (int i = 0, cnt = param_idxs.size(); i < cnt; i++) {
+            if (param_idxs.contains(i) == false)
+                return (-1);
+        } // FOR
+        return (param_idxs.size());
+    }
+
+    private static void collectParameters(Object obj, Set<Integer> param_idxs) throws JSONException {
+        if (obj instanceof JSONArray) {
+            JSONArray json_arr = (JSONArray) obj;
+            for (int i = 0, cnt = json_arr.length(); i < cnt; i++) {
+                collectParameters(json_arr.get(i), param_idxs);
+            } // FOR
+        } else if (obj instanceof JSONObject) {
+            JSONObject json_obj = (JSONObject) obj;
+            String type_key = AbstractExpression.Members.TYPE.name();
+            if (json_obj.has(type_key) && ExpressionType.VALUE_PARAMETER.name().equals(json_obj.optString(type_key))) {
+                param_idxs.add(json_obj.getInt(ParameterValueExpression.Members.PARAM_IDX.name()));
+                return;
+            }
+            for (Iterator<?> it = json_obj.keys(); it.hasNext();) {
+                collectParameters(json_obj.get(it.next().toString()), param_idxs);
+            } // FOR
+        }
+    }
+
+    private static boolean bindParameters(Object obj, List<String> literals) throws JSONException {
+        if (obj instanceof JSONArray) {
+            JSONArray json_arr = (JSONArray) obj;
+            for (int i = 0, cnt = json_arr.length(); i < cnt; i++) {
+                if (bindParameters(json_arr.get(i), literals) == false)
+                    return (false);
+            } // FOR
+        } else if (obj instanceof JSONObject) {
+            JSONObject json_obj = (JSONObject) obj;
+            String type_key = AbstractExpression.Members.TYPE.name();
+            if (json_obj.has(type_key) && ExpressionType.VALUE_PARAMETER.name().equals(json_obj.optString(type_key))) {
+                return (bindParameter(json_obj, literals));
+            }
+            List<String> keys = new ArrayList<String>();
+            for (Iterator<?> it = json_obj.keys(); it.hasNext();) {
+                keys.add(it.next().toString());
+            } // FOR
+            for (String key : keys) {
+                if (bindParameters(json_obj.get(key), literals) == false)
+                    return (false);
+            } // FOR
+        }
+        return (true);
+    }
+
+    private static boolean bindParameter(JSONObject json_obj, List<String> literals) throws JSONException {
+        int param_idx = json_obj.getInt(ParameterValueExpression.Members.PARAM_IDX.name());
+        if (param_idx < 0 || param_idx >= literals.size()) {
+            if (debug.get())
+                LOG.debug(String.format("Invalid parameter index %d for %d literals", param_idx, literals.size()));
+            return (false);
+        }
+        String value_type = json_obj.optString(AbstractExpression.Members.VALUE_TYPE.name(), null);
+        if (value_type == null)
+            return (false);
+        Object value = null;
+        try {
+            value = castLiteral(literals.get(param_idx), VoltType.typeFromString(value_type));
+        } catch (RuntimeException ex) {
+            if (debug.get())
+                LOG.debug(String.format("Unable to bind '%s' as %s", literals.get(param_idx), value_type), ex);
+            return (false);
+        }
+        if (value == null)
+            return (false);
+        json_obj.put(AbstractExpression.Members.TYPE.name(), ExpressionType.VALUE_CONSTANT.name());
+        json_obj.remove(ParameterValueExpression.Members.PARAM_IDX.name());
+        json_obj.put(ConstantValueExpression.Members.VALUE.name(), value);
+        return (true);
+    }
+
+    /**
+     * Convert a literal from a SQL statement into the JSON value that a
+     * ConstantValueExpression of the given type would use. Returns null if
+     * the literal can't be used for that type.
+     *
+     * @param literal
+     * @param type
+     * @return
+     */
+    protected static Object castLiteral(String literal, VoltType type) {
+        boolean is_string = literal.startsWith("'");
+        switch (type) {
+            case STRING:
+                if (is_string == false)
+                    return (null);
+                return (literal.substring(1, literal.length() - 1).replace("''", "'"));
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+            case BIGINT:
+            case TIMESTAMP: {
+                if (is_string)
+                    return (null);
+                long value = Long.parseLong(literal);
+                if ((type == VoltType.TINYINT && (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE)) ||
+                    (type == VoltType.SMALLINT && (value < Short.MIN_VALUE || value > Short.MAX_VALUE)) ||
+                    (type == VoltType.INTEGER && (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE))) {
+                    return (null);
+                }
+                return (value);
+            }
+            case FLOAT:
+                if (is_string)
+                    return (null);
+                return (Double.valueOf(literal));
+            case DECIMAL:
+                if (is_string)
+                    return (null);
+                return (new BigDecimal(literal).toPlainString());
+            default:
+                return (null);
+        } // SWITCH
+    }
+
+    // ----------------------------------------------------------------------------
+    // CACHE
+    // ----------------------------------------------------------------------------
+
+    /**
+     * The plan fragments for a normalized SQL statement
+     */
+    public static class CachedPlan {
+        public final String aggregatorFragment;
+        public final String collectorFragment;
+        public final boolean isReplicatedTableDML;
+        /**
+         * False if we were unable to plan the normalized statement. We will
+         * have to plan the original SQL for every request
+         */
+        public final boolean isParameterized;
+        /**
+         * The number of parameters used by the fragments or -1 if they could
+         * not be counted. This must match the number of literals that we
+         * pulled out of the SQL, otherwise they can't be bound correctly.
+         */
+        public final int numParameters;
+
+        public CachedPlan(String aggregatorFragment, String collectorFragment, boolean isReplicatedTableDML) {
+            this.aggregatorFragment = aggregatorFragment;
+            this.collectorFragment = collectorFragment;
+            this.isReplicatedTableDML = isReplicatedTableDML;
+            this.isParameterized = true;
+            int num_params = -1;
+            try {
+                num_params = countParameters(aggregatorFragment, collectorFragment);
+            } catch (JSONException ex) {
+                if (debug.get())
+                    LOG.debug("Unable to count the parameters in ad hoc plan", ex);
+            }
+            this.numParameters = num_params;
+        }
+
+        private CachedPlan() {
+            this.aggregatorFragment = null;
+            this.collectorFragment = null;
+            this.isReplicatedTableDML = false;
+            this.isParameterized = false;
+            this.numParameters = -1;
+        }
+
+        /**
+         * Returns true if this plan can be bound with the given literals
+         */
+        public boolean canBind(List<String> literals) {
+            return (this.isParameterized && this.numParameters == literals.size());
+        }
+    } // END CLASS
+
+    /**
+     * Placeholder for normalized statements that the planner rejected
+     */
+    public static final CachedPlan UNPARAMETERIZABLE = new CachedPlan();
+
+    private final int max_size;
+    private final Map<String, CachedPlan> cache;
+    private int version = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Constructor
+     *
+     * @param max_size
+     *            The maximum number of plans to keep in the cache
+     */
+    public AdHocPlanCache(final int max_size) {
+        this.max_size = max_size;
+        this.cache = new LinkedHashMap<String, CachedPlan>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<String, CachedPlan> eldest) {
+                return (this.size() > max_size);
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return (this.max_size > 0);
+    }
+
+    /**
+     * Look up the plan for the given normalized SQL and record whether it was
+     * a cache hit or miss
+     *
+     * @param sql
+     * @return
+     */
+    public synchronized CachedPlan get(String sql) {
+        CachedPlan entry = this.cache.get(sql);
+        if (entry != null && entry.isParameterized) {
+            this.hits++;
+        } else {
+            this.misses++;
+        }
+        if (trace.get())
+            LOG.trace(String.format("%s '%s' [hits=%d, misses=%d]", (entry != null ? "HIT" : "MISS"), sql, this.hits, this.misses));
+        return (entry);
+    }
+
+    /**
+     * Look up the plan for the given normalized SQL without updating the hit
+     * and miss counters
+     *
+     * @param sql
+     * @return
+     */
+    public synchronized CachedPlan peek(String sql) {
+        return (this.cache.get(sql));
+    }
+
+    /**
+     * Store the plan for the given normalized SQL. The version must be the
+     * value of {@link #getVersion()} from before the statement was planned, so
+     * that we don't store plans for a catalog that has since been replaced.
+     *
+     * @param sql
+     * @param entry
+     * @param version
+     */
+    public synchronized void put(String sql, CachedPlan entry, int version) {
+        if (this.max_size <= 0 || version != this.version) {
+            if (debug.get())
+                LOG.debug(String.format("Not caching plan for '%s' [version=%d, current=%d]", sql, version, this.version));
+            return;
+        }
+        this.cache.put(sql, entry);
+    }
+
+    /**
+     * Remove all of the plans in the cache. This must be called whenever the
+     * catalog changes
+     */
+    public synchronized void invalidate() {
+        if (debug.get())
+            LOG.debug(String.format("Invalidating %d cached plans", this.cache.size()));
+        this.cache.clear();
+        this.version++;
+    }
+
+    public synchronized int getVersion() {
+        return (this.version);
+    }
+
+    public synchronized int size() {
+        return (this.cache.size());
+    }
+
+    public synchronized long getHitCount() {
+        return (this.hits);
+    }
+
+    public synchronized long getMissCount() {
+        return (this.misses);
+    }
+}
@@ -24,6 +24,7 @@ public class AdHocPlannerWork extends AsyncCompilerWork {
 
     LocalTransaction ts = null;
     String sql = null;
+    AdHocPlanCache.ParameterizedSQL parameterized = null;
 
     public AdHocPlannerWork(LocalTransaction ts) {
         this.ts = ts;
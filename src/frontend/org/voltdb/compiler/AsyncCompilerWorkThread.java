@@ -33,6 +33,7 @@ import org.voltdb.utils.DumpManager;
 import org.voltdb.utils.Encoder;
 
 import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.dtxn.LocalTransaction;
 import edu.brown.hstore.interfaces.Shutdownable;
 import edu.brown.logging.LoggerUtil;
@@ -59,6 +60,9 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
     /** If this is true, update the catalog */
     private final AtomicBoolean m_shouldUpdateCatalog = new AtomicBoolean(false);
 
+    /** Plans for previously seen ad hoc statements */
+    final AdHocPlanCache m_planCache;
+
     // store the id used by the DumpManager to identify this execution site
     final String m_dumpId;
     long m_currentDumpTimestamp = 0;
@@ -68,6 +72,7 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
         //m_hsql = null;
         m_siteId = siteId;
         m_context = context;
+        m_planCache = new AdHocPlanCache(HStoreConf.isInitialized() ? HStoreConf.singleton().site.exec_adhoc_sql_plan_cache : 0);
 
         setName("Ad Hoc Planner");
 
@@ -81,6 +86,7 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
         m_siteId = siteId;
         //m_context = context;
         m_hStoreSite = hStoreSite;
+        m_planCache = new AdHocPlanCache(hStoreSite.getHStoreConf().site.exec_adhoc_sql_plan_cache);
 
         setName("Ad Hoc Planner");
 
@@ -136,9 +142,14 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
      * catalog when it's threadsafe.
      */
     public void notifyOfCatalogUpdate() {
+        m_planCache.invalidate();
         m_shouldUpdateCatalog.set(true);
     }
 
+    public AdHocPlanCache getPlanCache() {
+        return (m_planCache);
+    }
+
     /**
      *
      * @param sql
@@ -152,9 +163,27 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
            LocalTransaction ts,
            String sql) {
 
+       // If we have already planned a statement that only differs in its
+       // literals, then we can hand back the result without going to the planner
+       AdHocPlanCache.ParameterizedSQL parameterized = null;
+       if (m_planCache.isEnabled()) {
+           parameterized = AdHocPlanCache.parameterize(sql);
+           if (parameterized != null) {
+               AdHocPlanCache.CachedPlan entry = m_planCache.get(parameterized.sql);
+               AdHocPlannedStmt plannedStmt = (entry != null ? bindCachedPlan(ts, ts.getClientHandle(), sql, parameterized, entry) : null);
+               if (plannedStmt != null) {
+                   synchronized (m_finished) {
+                       m_finished.add(plannedStmt);
+                   }
+                   return;
+               }
+           }
+       }
+
        AdHocPlannerWork work = new AdHocPlannerWork(ts);
        work.clientHandle = ts.getClientHandle();
        work.sql = sql;
+       work.parameterized = parameterized;
 //       work.connectionId = connectionId;
 //       work.hostname = hostname;
 //       work.sequenceNumber = sequenceNumber;
@@ -234,6 +263,7 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
     }
 
     public void notifyShouldUpdateCatalog() {
+        m_planCache.invalidate();
         m_shouldUpdateCatalog.set(true);
     }
 
@@ -287,6 +317,34 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
         try {
             ensureLoadedPlanner();
 
+            // Plan the normalized statement and cache it so that we can reuse it
+            // for any statement that only differs in its literals
+            if (work.parameterized != null) {
+                int version = m_planCache.getVersion();
+                AdHocPlanCache.CachedPlan entry = m_planCache.peek(work.parameterized.sql);
+                if (entry == null) {
+                    PlannerTool.Result result = m_ptool.planSql(work.parameterized.sql);
+                    if (result.errors == null) {
+                        entry = new AdHocPlanCache.CachedPlan(result.onePlan, result.allPlan, result.replicatedDML);
+                        // Don't cache anything where the literals don't line up with
+                        // the plan's parameters, since we would bind the wrong values
+                        if (entry.canBind(work.parameterized.literals) == false) {
+                            if (debug.get())
+                                LOG.debug(String.format("Normalized ad hoc plan has %d parameters but there are %d literals",
+                                                        entry.numParameters, work.parameterized.literals.size()));
+                            entry = AdHocPlanCache.UNPARAMETERIZABLE;
+                        }
+                    } else {
+                        if (debug.get())
+                            LOG.debug("Unable to plan normalized ad hoc statement: " + result.errors);
+                        entry = AdHocPlanCache.UNPARAMETERIZABLE;
+                    }
+                    m_planCache.put(work.parameterized.sql, entry, version);
+                }
+                AdHocPlannedStmt cachedStmt = bindCachedPlan(work.ts, work.clientHandle, work.sql, work.parameterized, entry);
+                if (cachedStmt != null) return cachedStmt;
+            }
+
             PlannerTool.Result result = m_ptool.planSql(work.sql);
 
             plannedStmt.aggregatorFragment = result.onePlan;
@@ -306,6 +364,35 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
         return plannedStmt;
     }
 
+    /**
+     * Create a planned statement from a cached plan for the given literals.
+     * Returns null if the plan could not be used for these literals.
+     */
+    private AdHocPlannedStmt bindCachedPlan(LocalTransaction ts, long clientHandle, String sql,
+                                            AdHocPlanCache.ParameterizedSQL parameterized,
+                                            AdHocPlanCache.CachedPlan entry) {
+        if (entry.canBind(parameterized.literals) == false)
+            return null;
+        AdHocPlannedStmt plannedStmt = new AdHocPlannedStmt(ts);
+        plannedStmt.clientHandle = clientHandle;
+        plannedStmt.sql = sql;
+        plannedStmt.isReplicatedTableDML = entry.isReplicatedTableDML;
+        try {
+            plannedStmt.aggregatorFragment = AdHocPlanCache.bind(entry.aggregatorFragment, parameterized.literals);
+            plannedStmt.collectorFragment = AdHocPlanCache.bind(entry.collectorFragment, parameterized.literals);
+        } catch (Exception e) {
+            LOG.warn("Failed to bind literals to cached ad hoc plan for '" + sql + "'", e);
+            return null;
+        }
+        if ((entry.aggregatorFragment != null && plannedStmt.aggregatorFragment == null) ||
+            (entry.collectorFragment != null && plannedStmt.collectorFragment == null)) {
+            if (debug.get())
+                LOG.debug("Unable to use cached ad hoc plan for " + parameterized.literals);
+            return null;
+        }
+        return plannedStmt;
+    }
+
     private AsyncCompilerResult prepareApplicationCatalogDiff(CatalogChangeWork work) {
         // create the change result and set up all the boiler plate
         CatalogChangeResult retval = new CatalogChangeResult();
@@ -89,6 +89,7 @@ import org.voltdb.sysprocs.GetCatalog;
 import org.voltdb.sysprocs.LoadMultipartitionTable;
 import org.voltdb.sysprocs.NoOp;
 import org.voltdb.sysprocs.RecomputeMarkovs;
+import org.voltdb.sysprocs.ReplayCommandLog;
 import org.voltdb.sysprocs.Shutdown;
 import org.voltdb.sysprocs.SnapshotDelete;
 import org.voltdb.sysprocs.SnapshotRestore;
@@ -1234,6 +1235,7 @@ public class VoltCompiler {
             {SnapshotStatus.class,                  false,      false},
             {SnapshotScan.class,                    false,      false},
             {SnapshotDelete.class,                  false,      false},
+            {ReplayCommandLog.class,                false,      true},
          
 //       {"org.voltdb.sysprocs.Quiesce",                      false,    false},
 //         {"org.voltdb.sysprocs.StartSampler",                 false,    false},
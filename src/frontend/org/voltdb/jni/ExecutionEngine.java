@@ -245,16 +245,23 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
     public byte[] nextDependencyAsBytes(final int dependencyId) {
         final VoltTable vt =  m_dependencyTracker.nextDependency(dependencyId);
         if (vt != null) {
-            ByteBuffer buffer = vt.getDirectDataReference();
+            ByteBuffer buffer = vt.getTableDataReference();
+            byte serialized_table[] = null;
+            if (buffer.hasArray() && buffer.arrayOffset() == 0) {
+                serialized_table = buffer.array();
+            } else {
+                // This dependency is a view over one of the EE's ResultBuffers
+                serialized_table = new byte[vt.getUnderlyingBufferSize()];
+                buffer.get(serialized_table);
+            }
             if (d) LOG.debug(String.format("Passing Dependency %d to EE [rows=%d, cols=%d, bytes=%d/%d]\n%s",
                                            dependencyId,
                                            vt.getRowCount(),
                                            vt.getColumnCount(),
                                            vt.getUnderlyingBufferSize(),
-                                           buffer.array().length,
+                                           serialized_table.length,
                                            vt.toString()));
-            assert(buffer.hasArray());
-            return (buffer.array());
+            return (serialized_table);
         }
         // Note that we will hit this after retrieving all the VoltTables for the given dependencyId
         // It does not mean that there were no VoltTables at all, it just means that 
@@ -405,6 +412,17 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
      */
     public abstract boolean undoUndoToken(long undoToken);
 
+    /**
+     * Tell the engine that the given txn no longer needs any of the result tables that
+     * it got back from executeQueryPlanFragmentsAndGetDependencySet(). Engines that
+     * return tables that are views over their own buffers can then reuse that memory.
+     * This is safe to invoke from any thread.
+     * @param txnId
+     */
+    public void releaseResults(long txnId) {
+        // Nothing to do by default
+    }
+
     /**
      * Execute an ELT action against the execution engine.
      * @param mAckAction true if this message instructs an ack.
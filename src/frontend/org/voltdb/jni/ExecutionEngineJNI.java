@@ -19,7 +19,16 @@ package org.voltdb.jni;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.log4j.Logger;
 import org.voltdb.DependencyPair;
@@ -80,10 +89,66 @@ public class ExecutionEngineJNI extends ExecutionEngine {
      * that rely on being able to serialize large results sets will get the same amount of storage
      * when using the IPC backend.
      **/
-    private final BBContainer deserializerBufferOrigin = org.voltdb.utils.DBBPool.allocateDirect(1024 * 1024 * 10);
+    private static final int RESULT_BUFFER_SIZE = 1024 * 1024 * 10;
+    private final BBContainer deserializerBufferOrigin = org.voltdb.utils.DBBPool.allocateDirect(RESULT_BUFFER_SIZE);
     private FastDeserializer deserializer =
         new FastDeserializer(deserializerBufferOrigin.b);
 
+    // ----------------------------------------------------------------------------
+    // RESULT ARENA
+    // ----------------------------------------------------------------------------
+
+    /**
+     * A direct buffer that the EE writes the results of query plan fragments into.
+     * The VoltTables that we hand back are read-only views over slices of this buffer,
+     * so we can't give it back to the EE until every txn that has one of these tables
+     * has released them.
+     */
+    static class ResultBuffer {
+        private final BBContainer origin;
+        private final FastDeserializer fds;
+        private final Set<Long> txnIds = new HashSet<Long>();
+
+        ResultBuffer(BBContainer origin) {
+            this.origin = origin;
+            this.fds = new FastDeserializer(origin.b);
+        }
+    }
+
+    /**
+     * The max number of ResultBuffers that we will allocate (0 = disabled)
+     * If we run out, then we fall back to copying the results out of the deserializer's buffer.
+     */
+    private int resultArenaSize = 0;
+    private int resultArenaAllocated = 0;
+
+    /**
+     * The buffers that nobody has any views over
+     */
+    private final ArrayDeque<ResultBuffer> resultFree = new ArrayDeque<ResultBuffer>();
+
+    /**
+     * The buffers that still have views over them
+     */
+    private final List<ResultBuffer> resultHeld = new ArrayList<ResultBuffer>();
+
+    /**
+     * The txns that have views over one of our ResultBuffers
+     * This is thread-safe so that releaseResults() can be invoked from anywhere
+     */
+    private final Set<Long> resultTxns = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    /**
+     * The txns that have released their views. We process these in the EE's thread
+     * the next time that we need a ResultBuffer.
+     */
+    private final ConcurrentLinkedQueue<Long> resultReleased = new ConcurrentLinkedQueue<Long>();
+
+    /**
+     * The FastDeserializer whose buffer the EE is currently writing its results into
+     */
+    private FastDeserializer eeOutput = deserializer;
+
     private final BBContainer exceptionBufferOrigin = org.voltdb.utils.DBBPool.allocateDirect(1024 * 1024 * 20);
     private ByteBuffer exceptionBuffer = exceptionBufferOrigin.b;
 
@@ -125,7 +190,7 @@ public class ExecutionEngineJNI extends ExecutionEngine {
                 final int code = nativeSetBuffers(pointer,
                         fsForParameterSet.getContainerNoFlip().b,
                         fsForParameterSet.getContainerNoFlip().b.capacity(),
-                        deserializer.buffer(), deserializer.buffer().capacity(),
+                        eeOutput.buffer(), eeOutput.buffer().capacity(),
                         exceptionBuffer, exceptionBuffer.capacity());
                 checkErrorCode(code);
             }
@@ -171,6 +236,15 @@ public class ExecutionEngineJNI extends ExecutionEngine {
         }
         deserializer = null;
         deserializerBufferOrigin.discard();
+        eeOutput = null;
+        for (ResultBuffer rb : resultFree) {
+            rb.origin.discard();
+        }
+        for (ResultBuffer rb : resultHeld) {
+            rb.origin.discard();
+        }
+        resultFree.clear();
+        resultHeld.clear();
         exceptionBuffer = null;
         exceptionBufferOrigin.discard();
         if (t) LOG.trace("Released Execution Engine.");
@@ -231,6 +305,7 @@ public class ExecutionEngineJNI extends ExecutionEngine {
         }
         // checkMaxFsSize();
         // Execute the plan, passing a raw pointer to the byte buffer.
+        this.useDeserializerBuffer();
         deserializer.clear();
         final int errorCode = nativeExecutePlanFragment(pointer, planFragmentId, outputDepId, inputDepId,
                                                         txnId, lastCommittedTxnId, undoToken);
@@ -266,6 +341,7 @@ public class ExecutionEngineJNI extends ExecutionEngine {
             final long undoQuantumToken) throws EEException
     {
         fsForParameterSet.clear();
+        this.useDeserializerBuffer();
         deserializer.clear();
         //C++ JSON deserializer is not thread safe, must synchronize
         int errorCode = 0;
@@ -371,7 +447,11 @@ public class ExecutionEngineJNI extends ExecutionEngine {
         // checkMaxFsSize();
 
         // Execute the plan, passing a raw pointer to the byte buffers for input and output
-        deserializer.clear();
+        // If we have a ResultBuffer available, then the EE will write directly into that
+        // and we can just hand back views over it
+        final ResultBuffer resultBuffer = this.getResultBuffer();
+        final FastDeserializer output = (resultBuffer != null ? resultBuffer.fds : deserializer);
+        output.clear();
         final int errorCode = nativeExecuteQueryPlanFragmentsAndGetResults(pointer,
                 planFragmentIds, numFragmentIds,
                 input_depIds,
@@ -381,7 +461,7 @@ public class ExecutionEngineJNI extends ExecutionEngine {
 
         // get a copy of the result buffers and make the tables
         // use the copy
-        ByteBuffer fullBacking = deserializer.buffer();
+        ByteBuffer fullBacking = output.buffer();
         try {
             // read the complete size of the buffer used
             fullBacking.getInt();
@@ -416,10 +496,17 @@ public class ExecutionEngineJNI extends ExecutionEngine {
                     
                     int tableSize = fullBacking.getInt();
                     assert(tableSize < 10000000);
-                    byte tableBytes[] = new byte[tableSize];
-                    fullBacking.get(tableBytes, 0, tableSize);
-                    final ByteBuffer tableBacking = ByteBuffer.wrap(tableBytes);
-//                    fullBacking.position(fullBacking.position() + tableSize);
+                    final ByteBuffer tableBacking;
+                    if (resultBuffer != null) {
+                        ByteBuffer slice = fullBacking.duplicate();
+                        slice.limit(slice.position() + tableSize);
+                        tableBacking = slice.slice();
+                        fullBacking.position(fullBacking.position() + tableSize);
+                    } else {
+                        byte tableBytes[] = new byte[tableSize];
+                        fullBacking.get(tableBytes, 0, tableSize);
+                        tableBacking = ByteBuffer.wrap(tableBytes);
+                    }
                     
                     results[dep_ctr] = PrivateVoltTableFactory.createVoltTableFromBuffer(tableBacking, true);
                     dependencies[dep_ctr] = depid;
@@ -429,6 +516,7 @@ public class ExecutionEngineJNI extends ExecutionEngine {
                 } // FOR
             } // FOR
             
+            if (resultBuffer != null) this.holdResultBuffer(resultBuffer, txnId);
             return (new DependencySet(dependencies, results));
         } catch (Throwable ex) {
             LOG.error("Failed to deserialze result table" + ex);
@@ -436,12 +524,118 @@ public class ExecutionEngineJNI extends ExecutionEngine {
         }
     }
 
+    /**
+     * Allow the EE to return up to the given number of result buffers for
+     * executeQueryPlanFragmentsAndGetDependencySet() without copying them.
+     * @param numBuffers
+     */
+    public void setResultArenaSize(int numBuffers) {
+        this.resultArenaSize = numBuffers;
+    }
+
+    @Override
+    public void releaseResults(long txnId) {
+        if (this.resultTxns.remove(txnId)) {
+            this.resultReleased.offer(txnId);
+        }
+    }
+
+    /**
+     * Returns the number of ResultBuffers that have been allocated
+     */
+    public int getResultArenaAllocated() {
+        return (this.resultArenaAllocated);
+    }
+
+    /**
+     * Returns the number of ResultBuffers that still have views over them
+     */
+    public int getResultArenaHeld() {
+        return (this.resultHeld.size());
+    }
+
+    /**
+     * Get a ResultBuffer that nobody is using and tell the EE to write into it.
+     * Returns null if the arena is disabled or all of its buffers are still being used, in
+     * which case the EE will write into the deserializer's buffer and the results get copied.
+     */
+    ResultBuffer getResultBuffer() {
+        if (this.resultArenaSize <= 0) {
+            this.useDeserializerBuffer();
+            return (null);
+        }
+
+        // Move any buffers that have been released by all of their txns back into the free list
+        Long txnId = null;
+        while ((txnId = this.resultReleased.poll()) != null) {
+            for (ResultBuffer rb : this.resultHeld) {
+                rb.txnIds.remove(txnId);
+            } // FOR
+        } // WHILE
+        Iterator<ResultBuffer> it = this.resultHeld.iterator();
+        while (it.hasNext()) {
+            ResultBuffer rb = it.next();
+            if (rb.txnIds.isEmpty()) {
+                it.remove();
+                // Put it at the front so that we try to reuse the buffer that the EE already has
+                this.resultFree.push(rb);
+            }
+        } // WHILE
+
+        ResultBuffer rb = this.resultFree.poll();
+        if (rb == null && this.resultArenaAllocated < this.resultArenaSize) {
+            rb = new ResultBuffer(org.voltdb.utils.DBBPool.allocateDirect(RESULT_BUFFER_SIZE));
+            this.resultArenaAllocated++;
+            if (d) LOG.debug(String.format("Allocated new ResultBuffer [allocated=%d, max=%d]",
+                                           this.resultArenaAllocated, this.resultArenaSize));
+        }
+        if (rb == null) {
+            if (d) LOG.debug("All ResultBuffers are in use. Copying results instead");
+            this.useDeserializerBuffer();
+            return (null);
+        }
+        // We always put the buffer in the held list. If it comes back without any 
+        // views over it, then it goes back into the free list the next time around
+        this.resultHeld.add(rb);
+        this.setOutputBuffer(rb.fds);
+        return (rb);
+    }
+
+    /**
+     * Mark the given ResultBuffer as having views over it that belong to this txn.
+     * It won't be handed back to the EE until releaseResults() is called for the txn.
+     */
+    void holdResultBuffer(ResultBuffer rb, long txnId) {
+        rb.txnIds.add(txnId);
+        this.resultTxns.add(txnId);
+    }
+
+    /**
+     * Make sure that the EE is writing into the deserializer's buffer
+     */
+    private void useDeserializerBuffer() {
+        if (this.eeOutput != this.deserializer) {
+            this.setOutputBuffer(this.deserializer);
+        }
+    }
+
+    private void setOutputBuffer(FastDeserializer output) {
+        if (this.eeOutput == output) return;
+        this.eeOutput = output;
+        final int errorCode = nativeSetBuffers(pointer, fsForParameterSet.getContainerNoFlip().b,
+                fsForParameterSet.getContainerNoFlip().b.capacity(),
+                output.buffer(), output.buffer().capacity(),
+                exceptionBuffer, exceptionBuffer.capacity());
+        checkErrorCode(errorCode);
+    }
+
     /**
      * Wrapper for {@link #nativeSerializeTable(long, int, ByteBuffer, int)}.
      */
     @Override
     public VoltTable serializeTable(final Table catalog_tbl, int offset, int limit) throws EEException {
         if (t) LOG.trace(String.format("Serializing %s [offset=%d, limit=%d]", catalog_tbl, offset, limit));
+        this.useDeserializerBuffer();
         deserializer.clear();
         final int errorCode = nativeSerializeTable(pointer, catalog_tbl.getRelativeIndex(), offset, limit, deserializer.buffer(),
                 deserializer.buffer().capacity());
@@ -463,7 +657,15 @@ public class ExecutionEngineJNI extends ExecutionEngine {
         final long txnId, final long lastCommittedTxnId,
         final long undoToken, boolean allowELT) throws EEException
     {
-        byte[] serialized_table = table.getTableDataReference().array();
+        ByteBuffer tableData = table.getTableDataReference();
+        byte[] serialized_table = null;
+        if (tableData.hasArray() && tableData.arrayOffset() == 0) {
+            serialized_table = tableData.array();
+        } else {
+            // This table is a view over one of our ResultBuffers
+            serialized_table = new byte[table.getUnderlyingBufferSize()];
+            tableData.get(serialized_table);
+        }
         if (t) LOG.trace(String.format("Passing table into EE [id=%d, bytes=%s]", tableId, serialized_table.length));
 
         final int errorCode = nativeLoadTable(pointer, tableId, serialized_table,
@@ -503,6 +705,7 @@ public class ExecutionEngineJNI extends ExecutionEngine {
             final boolean interval,
             final Long now)
     {
+        this.useDeserializerBuffer();
         deserializer.clear();
         final int numResults = nativeGetStats(pointer, selector.ordinal(), locators, interval, now);
         if (numResults == -1) {
@@ -571,6 +774,7 @@ public class ExecutionEngineJNI extends ExecutionEngine {
     public ELTProtoMessage eltAction(boolean ackAction, boolean pollAction,
             long ackTxnId, int partitionId, int tableId)
     {
+        this.useDeserializerBuffer();
         deserializer.clear();
         ELTProtoMessage result = null;
         try {
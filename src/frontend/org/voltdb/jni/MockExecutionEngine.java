@@ -17,6 +17,9 @@
 
 package org.voltdb.jni;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.voltdb.DependencyPair;
 import org.voltdb.DependencySet;
 import org.voltdb.ParameterSet;
@@ -31,6 +34,12 @@ import org.voltdb.utils.DBBPool.BBContainer;
 
 public class MockExecutionEngine extends ExecutionEngine {
 
+    /**
+     * The undoTokens that we were asked to release/undo, in the order that we got them
+     */
+    public final List<Long> releasedUndoTokens = new ArrayList<Long>();
+    public final List<Long> undoneUndoTokens = new ArrayList<Long>();
+
     public MockExecutionEngine() {
         super(null);
     }
@@ -111,7 +120,7 @@ public class MockExecutionEngine extends ExecutionEngine {
 
     @Override
     public boolean releaseUndoToken(final long undoToken) {
-        // TODO Auto-generated method stub
+        this.releasedUndoTokens.add(undoToken);
         return false;
     }
 
@@ -134,7 +143,7 @@ public class MockExecutionEngine extends ExecutionEngine {
 
     @Override
     public boolean undoUndoToken(final long undoToken) {
-        // TODO Auto-generated method stub
+        this.undoneUndoTokens.add(undoToken);
         return false;
     }
 
@@ -0,0 +1,90 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.voltdb.network;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.voltdb.StatsSource;
+import org.voltdb.VoltType;
+import org.voltdb.VoltTable.ColumnInfo;
+
+/**
+ * Reports the load on each of the selector threads of a VoltNetwork, one row
+ * per selector. The values are running totals taken from
+ * VoltNetwork.getSelectorStats(), so there is no separate interval mode.
+ */
+public class SelectorStats extends StatsSource {
+
+    private final VoltNetwork m_network;
+
+    /**
+     * Snapshot of the selector counters taken by getStatsRowKeyIterator() so
+     * that every row in a single getStatsRows() call comes from the same pass
+     */
+    private Map<Integer, long[]> m_snapshot = new TreeMap<Integer, long[]>();
+
+    public SelectorStats(String name, VoltNetwork network) {
+        super(name, false);
+        m_network = network;
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo("SELECTOR_ID", VoltType.INTEGER));
+        columns.add(new ColumnInfo("PORTS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("KEYS_SELECTED", VoltType.BIGINT));
+        columns.add(new ColumnInfo("BYTES_READ", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MESSAGES_READ", VoltType.BIGINT));
+        columns.add(new ColumnInfo("BACKPRESSURE", VoltType.BIGINT));
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object rowValues[]) {
+        final long stats[] = m_snapshot.get(rowKey);
+        rowValues[columnNameToIndex.get("SELECTOR_ID")] = (Integer)rowKey;
+        rowValues[columnNameToIndex.get("PORTS")] = stats[VoltNetwork.SELECTOR_STATS_PORTS];
+        rowValues[columnNameToIndex.get("KEYS_SELECTED")] = stats[VoltNetwork.SELECTOR_STATS_KEYS_SELECTED];
+        rowValues[columnNameToIndex.get("BYTES_READ")] = stats[VoltNetwork.SELECTOR_STATS_BYTES_READ];
+        rowValues[columnNameToIndex.get("MESSAGES_READ")] = stats[VoltNetwork.SELECTOR_STATS_MESSAGES_READ];
+        rowValues[columnNameToIndex.get("BACKPRESSURE")] = stats[VoltNetwork.SELECTOR_STATS_BACKPRESSURE];
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+        m_snapshot = new TreeMap<Integer, long[]>(m_network.getSelectorStats());
+        final Iterator<Integer> it = m_snapshot.keySet().iterator();
+        return new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            @Override
+            public Object next() {
+                return it.next();
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -73,7 +73,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.log4j.Logger;
@@ -82,43 +84,324 @@ import org.voltdb.utils.EstTimeUpdater;
 import org.voltdb.utils.Pair;
 import org.voltdb.utils.VoltLoggerFactory;
 
-/** Produces work for registered ports that are selected for read, write */
+/**
+ * Produces work for registered ports that are selected for read, write.
+ * By default there is a single selector thread that hands the ports off to a pool of
+ * network threads. If the network is created with multiple selector threads, then each
+ * selector owns a subset of the ports and handles their reads and writes inline.
+ */
  public class VoltNetwork implements Runnable
 {
-    private final Selector m_selector;
     private static final Logger m_logger =
         Logger.getLogger(VoltNetwork.class.getName(), VoltLoggerFactory.instance());
     private static final Logger networkLog =
         Logger.getLogger("NETWORK", VoltLoggerFactory.instance());
     private final ArrayDeque<Runnable> m_tasks = new ArrayDeque<Runnable>();
-    // keep two lists and swap them in and out to minimize contention
-    private final ArrayDeque<VoltPort> m_selectorUpdates_1 = new ArrayDeque<VoltPort>();//Used as the lock for swapping lists
-    private final ArrayDeque<VoltPort> m_selectorUpdates_2 = new ArrayDeque<VoltPort>();
-    private ArrayDeque<VoltPort> m_activeUpdateList = m_selectorUpdates_1;
     private volatile boolean m_shouldStop = false;//volatile boolean is sufficient
-    private final Thread m_thread;
-    private final HashSet<VoltPort> m_ports = new HashSet<VoltPort>();
+    private final SelectorThread m_selectors[];
     private final boolean m_useBlockingSelect;
     private final boolean m_useExecutorService;
     private final ArrayList<WeakReference<Thread>> m_networkThreads = new ArrayList<WeakReference<Thread>>();
     private final ArrayList<DBBPool> m_poolsToClearOnShutdown = new ArrayList<DBBPool>();
+    /**
+     * Released by shutdown() once all of the network threads have been joined.
+     * The selector threads wait for it before they unregister their ports.
+     */
+    private final CountDownLatch m_networkThreadsStopped = new CountDownLatch(1);
+
+    /**
+     * Offsets into the arrays returned by getSelectorStats()
+     */
+    public static final int SELECTOR_STATS_PORTS = 0;
+    public static final int SELECTOR_STATS_KEYS_SELECTED = 1;
+    public static final int SELECTOR_STATS_BYTES_READ = 2;
+    public static final int SELECTOR_STATS_MESSAGES_READ = 3;
+    public static final int SELECTOR_STATS_BACKPRESSURE = 4;
 
     /**
-     * Synchronizes registration and unregistration of channels
+     * A Selector and the VoltPorts that are registered with it. Each one has
+     * its own interest update lists and registration lock, so the selector
+     * threads never contend with each other.
      */
-    private final ReentrantReadWriteLock m_registrationLock = new ReentrantReadWriteLock();
+    final class SelectorThread implements Runnable {
+        private final int m_id;
+        private final Selector m_selector;
+        private final Thread m_thread;
+        // keep two lists and swap them in and out to minimize contention
+        private final ArrayDeque<VoltPort> m_selectorUpdates_1 = new ArrayDeque<VoltPort>();//Used as the lock for swapping lists
+        private final ArrayDeque<VoltPort> m_selectorUpdates_2 = new ArrayDeque<VoltPort>();
+        private ArrayDeque<VoltPort> m_activeUpdateList = m_selectorUpdates_1;
+        private final HashSet<VoltPort> m_ports = new HashSet<VoltPort>();
+        private final AtomicLong m_keysSelected = new AtomicLong(0);
+
+        /**
+         * Synchronizes registration and unregistration of channels
+         */
+        private final ReentrantReadWriteLock m_registrationLock = new ReentrantReadWriteLock();
+
+        SelectorThread(int id, Selector selector, String threadName) {
+            m_id = id;
+            m_selector = selector;
+            if (threadName != null) {
+                m_thread = new Thread(this, threadName);
+                m_thread.setDaemon(true);
+            } else {
+                m_thread = null;
+            }
+        }
+
+        /**
+         * Lock that causes the selection thread to wait for all threads that
+         * are in the process of registering or unregistering channels to finish
+         */
+        private void waitForRegistrationLock() {
+            m_registrationLock.writeLock().lock();
+            m_registrationLock.writeLock().unlock();
+        }
+
+        /**
+         * Acquire a lock that stops the selection thread while a channel is being registered/unregistered
+         */
+        private void acquireRegistrationLock() {
+            m_registrationLock.readLock().lock();
+            m_selector.wakeup();
+        }
+
+        /**
+         * Release a lock that stops the selection thread while a channel is being registered/unregistered
+         */
+        private void releaseRegistrationLock() {
+            m_registrationLock.readLock().unlock();
+        }
+
+        /**
+         * The number of ports that this selector is responsible for
+         */
+        int getNumPorts() {
+            synchronized (m_ports) {
+                return m_ports.size();
+            }
+        }
+
+        long getKeysSelected() {
+            return m_keysSelected.get();
+        }
+
+        Connection register(SocketChannel channel, VoltPort port, int interestOps) throws IOException {
+            synchronized (m_ports) {
+                m_ports.add(port);
+            }
+            port.registering();
+
+            acquireRegistrationLock();
+            try {
+                SelectionKey key = channel.register (m_selector, interestOps, port);
+
+                port.setKey (key);
+                port.registered();
+
+                return port;
+            } finally {
+                releaseRegistrationLock();
+            }
+        }
+
+        void unregister(VoltPort port) {
+            SelectionKey selectionKey = port.getKey();
+
+            acquireRegistrationLock();
+            try {
+                synchronized (m_ports) {
+                    if (!m_ports.contains(port)) {
+                        return;
+                    }
+                }
+                port.unregistering();
+                selectionKey.cancel();
+                selectionKey.attach(null);
+                synchronized (m_ports) {
+                    m_ports.remove(port);
+                }
+            } finally {
+                releaseRegistrationLock();
+            }
+            port.unregistered();
+        }
+
+        void addToChangeList(VoltPort port) {
+            synchronized (m_selectorUpdates_1) {
+                m_activeUpdateList.add(port);
+            }
+            if (m_useBlockingSelect) {
+                m_selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (m_shouldStop == false) {
+                    try {
+                        while (m_shouldStop == false) {
+                            waitForRegistrationLock();
+                            if (m_useBlockingSelect) {
+                                m_selector.select(5);
+                            } else {
+                                m_selector.selectNow();
+                            }
+                            installInterests();
+                            invokeCallbacks();
+                            if (m_id == 0) EstTimeUpdater.update(System.currentTimeMillis());
+                        }
+                    } catch (Exception ex) {
+                        m_logger.error(null, ex);
+                    }
+                }
+                // Don't pull the ports out from under the network threads
+                try {
+                    m_networkThreadsStopped.await();
+                } catch (InterruptedException e) {
+                    m_logger.error(e);
+                }
+                closeSelector();
+            } finally {
+                // Ports may have been handled inline on this thread
+                synchronized (m_poolsToClearOnShutdown) {
+                    m_poolsToClearOnShutdown.add(VoltPort.m_pool.get());
+                }
+            }
+        }
+
+        private void closeSelector() {
+            Set<SelectionKey> keys = m_selector.keys();
+
+            for (SelectionKey key : keys) {
+                VoltPort port = (VoltPort) key.attachment();
+                if (port != null) {
+                    unregisterChannel (port);
+                }
+            }
+
+            try {
+                m_selector.close();
+            } catch (IOException e) {
+                m_logger.error(null, e);
+            }
+        }
+
+        void installInterests() {
+            // swap the update lists to avoid contention while
+            // draining the requested values. also guarantees
+            // that the end of the list will be reached if code
+            // appends to the update list without bound.
+            ArrayDeque<VoltPort> oldlist;
+            synchronized(m_selectorUpdates_1) {
+                if (m_activeUpdateList == m_selectorUpdates_1) {
+                    oldlist = m_selectorUpdates_1;
+                    m_activeUpdateList = m_selectorUpdates_2;
+                }
+                else {
+                    oldlist = m_selectorUpdates_2;
+                    m_activeUpdateList = m_selectorUpdates_1;
+                }
+            }
+
+            while (!oldlist.isEmpty()) {
+                final VoltPort port = oldlist.poll();
+                if (port.isRunning()) {
+                    continue;
+                }
+                if (port.isDead()) {
+                    unregisterChannel(port);
+                    try {
+                        port.m_selectionKey.channel().close();
+                    } catch (IOException e) {}
+                } else if (port.hasQueuedRunnables()) {
+                    port.lockForHandlingWork();
+                    port.getKey().interestOps(0);
+                    m_selector.selectedKeys().remove(port.getKey());
+                    if (m_useExecutorService) {
+                        synchronized (m_tasks) {
+                            m_tasks.offer(getPortCallRunnable(port));
+                            m_tasks.notify();
+                        }
+                    } else {
+                        getPortCallRunnable(port).run();
+                    }
+                } else {
+                    resumeSelection(port);
+                }
+            }
+        }
+
+        private void resumeSelection( VoltPort port) {
+            SelectionKey key = port.getKey();
+
+            if (key.isValid()) {
+                key.interestOps (port.interestOps());
+            } else {
+                synchronized (m_ports) {
+                    m_ports.remove(port);
+                }
+            }
+        }
+
+        /** Set the selected interest set on the port and run it. */
+        void invokeCallbacks() {
+            final Set<SelectionKey> selectedKeys = m_selector.selectedKeys();
+            final ArrayList<Runnable> generatedTasks = new ArrayList<Runnable>();
+            m_keysSelected.addAndGet(selectedKeys.size());
+            for(SelectionKey key : selectedKeys) {
+                final VoltPort port = (VoltPort) key.attachment();
+                if (port == null) {
+                    continue;
+                }
+                try {
+                    port.lockForHandlingWork();
+                    key.interestOps(0);
+
+                    final Runnable runner = getPortCallRunnable(port);
+
+                    if (m_useExecutorService) {
+                        generatedTasks.add(runner);
+                    } else {
+                        runner.run();
+                    }
+                }
+                catch (CancelledKeyException e) {
+                    e.printStackTrace();
+                    // no need to do anything here until
+                    // shutdown makes more sense
+                }
+            }
+
+            if (!generatedTasks.isEmpty()) {
+                synchronized (m_tasks) {
+                    m_tasks.addAll(generatedTasks);
+                    if (m_tasks.size() > 1) {
+                        m_tasks.notifyAll();
+                    } else {
+                        m_tasks.notify();
+                    }
+                }
+            }
+
+            selectedKeys.clear();
+        }
+    }
 
     /**
-     * Start this VoltNetwork's thread;
+     * Start this VoltNetwork's threads
      */
     public void start() {
-        m_thread.start();
+        for (SelectorThread selector : m_selectors) {
+            selector.m_thread.start();
+        }
     }
 
     /** Used for test only! */
     public VoltNetwork(Selector selector) {
-        m_thread = null;
-        m_selector = selector;
+        m_selectors = new SelectorThread[] { new SelectorThread(0, selector, null) };
         m_useBlockingSelect = true;
         m_useExecutorService = false;
     }
@@ -133,18 +416,36 @@ import org.voltdb.utils.VoltLoggerFactory;
      * and runOnce should be called periodically
      **/
     public VoltNetwork(boolean useExecutorService, boolean blockingSelect, Integer threads) {
-        m_thread = new Thread(this, "Volt Network");
-        m_thread.setDaemon(true);
+        this(useExecutorService, blockingSelect, threads, 1);
+    }
+
+    /**
+     * Initialize a network with the given number of selector threads.
+     * Each port is assigned to the least loaded selector when it is registered
+     * and all of its reads and writes are handled inline on that selector's thread.
+     * @param selectorThreads
+     */
+    public VoltNetwork(int selectorThreads) {
+        this(false, true, null, selectorThreads);
+    }
 
+    private VoltNetwork(boolean useExecutorService, boolean blockingSelect, Integer threads, int selectorThreads) {
+        assert(selectorThreads > 0);
         m_useExecutorService = useExecutorService;
         m_useBlockingSelect = blockingSelect;
 
-        try {
-            m_selector = Selector.open();
-        } catch (IOException ex) {
-            m_logger.fatal(null, ex);
-            throw new RuntimeException(ex);
-        }
+        m_selectors = new SelectorThread[selectorThreads];
+        for (int i = 0; i < selectorThreads; i++) {
+            Selector selector = null;
+            try {
+                selector = Selector.open();
+            } catch (IOException ex) {
+                m_logger.fatal(null, ex);
+                throw new RuntimeException(ex);
+            }
+            String name = (selectorThreads == 1 ? "Volt Network" : "Volt Network - " + i);
+            m_selectors[i] = new SelectorThread(i, selector, name);
+        } // FOR
 
         final int availableProcessors = Runtime.getRuntime().availableProcessors();
         if (!useExecutorService) {
@@ -215,42 +516,50 @@ import org.voltdb.utils.VoltLoggerFactory;
         }
     }
 
-
-    /**
-     * Lock that causes the selection thread to wait for all threads that
-     * are in the process of registering or unregistering channels to finish
-     */
-    private void waitForRegistrationLock() {
-        m_registrationLock.writeLock().lock();
-        m_registrationLock.writeLock().unlock();
-    }
-
     /**
-     * Acquire a lock that stops the selection thread while a channel is being registered/unregistered
+     * Return the number of selector threads in this network
      */
-    private void acquireRegistrationLock() {
-        m_registrationLock.readLock().lock();
-        m_selector.wakeup();
-    }
-
-    /**
-     * Release a lock that stops the selection thread while a channel is being registered/unregistered
-     */
-    private void releaseRegistrationLock() {
-        m_registrationLock.readLock().unlock();
+    public int getSelectorCount() {
+        return m_selectors.length;
     }
 
     /** Instruct the network to stop after the current loop */
     public void shutdown() throws InterruptedException {
-        if (m_thread != null) {
-            synchronized (this) {
-                m_shouldStop = true;
-                m_selector.wakeup();
-                wait();
+        m_shouldStop = true;
+        if (m_selectors[0].m_thread == null) {
+            return;
+        }
+
+        // Let the network threads finish up whatever ports they are handling
+        // before the selectors unregister everything
+        try {
+            synchronized (m_networkThreads) {
+                synchronized (m_tasks) {
+                    m_tasks.notifyAll();
+                }
+                for (final WeakReference<Thread> r : m_networkThreads) {
+                    final Thread t = r.get();
+                    if (t != null) {
+                        t.join();
+                    }
+                }
+            }
+        } finally {
+            m_networkThreadsStopped.countDown();
+        }
+
+        for (SelectorThread selector : m_selectors) {
+            selector.m_selector.wakeup();
+        }
+        for (SelectorThread selector : m_selectors) {
+            selector.m_thread.join();
+        }
+
+        synchronized (m_poolsToClearOnShutdown) {
+            for (DBBPool p : m_poolsToClearOnShutdown) {
+                p.clear();
             }
-            m_thread.join();
-        } else {
-            m_shouldStop = true;
+            m_poolsToClearOnShutdown.clear();
         }
     }
 
@@ -278,22 +587,36 @@ import org.voltdb.utils.VoltLoggerFactory;
                     handler,
                     handler.getExpectedOutgoingMessageSize(),
                     channel.socket().getInetAddress().getHostName());
-        synchronized (m_ports) {
-            m_ports.add(port);
-        }
-        port.registering();
-
-        acquireRegistrationLock();
-        try {
-            SelectionKey key = channel.register (m_selector, interestOps, port);
-
-            port.setKey (key);
-            port.registered();
+        SelectorThread selector = getLeastLoadedSelector();
+        port.m_selectorThread = selector;
+        return selector.register(channel, port, interestOps);
+    }
 
-            return port;
-        } finally {
-            releaseRegistrationLock();
+    /**
+     * Pick the selector with the fewest ports. Ties go to the
+     * selector that has handled the fewest keys so far.
+     */
+    private SelectorThread getLeastLoadedSelector() {
+        SelectorThread best = m_selectors[0];
+        if (m_selectors.length == 1) {
+            return best;
+        }
+        int bestPorts = best.getNumPorts();
+        for (int i = 1; i < m_selectors.length; i++) {
+            final SelectorThread selector = m_selectors[i];
+            final int ports = selector.getNumPorts();
+            if (ports < bestPorts ||
+                (ports == bestPorts && selector.getKeysSelected() < best.getKeysSelected())) {
+                best = selector;
+                bestPorts = ports;
+            }
         }
+        return best;
+    }
+
+    private SelectorThread getSelector(VoltPort port) {
+        final SelectorThread selector = port.m_selectorThread;
+        return (selector != null ? selector : m_selectors[0]);
     }
 
     /**
@@ -303,157 +626,21 @@ import org.voltdb.utils.VoltLoggerFactory;
     void unregisterChannel (Connection c) {
         VoltPort port = (VoltPort)c;
         assert(c != null);
-        SelectionKey selectionKey = port.getKey();
-
-        acquireRegistrationLock();
-        try {
-            synchronized (m_ports) {
-                if (!m_ports.contains(port)) {
-                    return;
-                }
-            }
-            port.unregistering();
-            selectionKey.cancel();
-            selectionKey.attach(null);
-            synchronized (m_ports) {
-                m_ports.remove(port);
-            }
-        } finally {
-            releaseRegistrationLock();
-        }
-        port.unregistered();
+        getSelector(port).unregister(port);
     }
 
     /** Set interest registrations for a port */
     public void addToChangeList(VoltPort port) {
-        synchronized (m_selectorUpdates_1) {
-            m_activeUpdateList.add(port);
-        }
-        if (m_useBlockingSelect) {
-            m_selector.wakeup();
-        }
+        getSelector(port).addToChangeList(port);
     }
 
     @Override
     public void run() {
-        while (m_shouldStop == false) {
-            try {
-                while (m_shouldStop == false) {
-                    waitForRegistrationLock();
-                    if (m_useBlockingSelect) {
-                        m_selector.select(5);
-                    } else {
-                        m_selector.selectNow();
-                    }
-                    installInterests();
-                    invokeCallbacks();
-                    EstTimeUpdater.update(System.currentTimeMillis());
-                }
-            } catch (Exception ex) {
-                m_logger.error(null, ex);
-            }
-        }
-
-        p_shutdown();
-    }
-
-    private synchronized void p_shutdown() {
-        //Synchronized so the interruption won't interrupt the network thread
-        //while it is waiting for the executor service to shutdown
-        try {
-            try {
-                synchronized (m_networkThreads) {
-                    synchronized (m_tasks) {
-                        m_tasks.notifyAll();
-                    }
-                    for (final WeakReference<Thread> r : m_networkThreads) {
-                        final Thread t = r.get();
-                        if (t != null) {
-                            t.join();
-                        }
-                    }
-                }
-            } catch (InterruptedException e) {
-                m_logger.error(e);
-            }
-
-            Set<SelectionKey> keys = m_selector.keys();
-
-            for (SelectionKey key : keys) {
-                VoltPort port = (VoltPort) key.attachment();
-                if (port != null) {
-                    unregisterChannel (port);
-                }
-            }
-
-            synchronized (m_poolsToClearOnShutdown) {
-                for (DBBPool p : m_poolsToClearOnShutdown) {
-                    p.clear();
-                }
-                m_poolsToClearOnShutdown.clear();
-            }
-
-            try {
-                m_selector.close();
-            } catch (IOException e) {
-                m_logger.error(null, e);
-            }
-        } finally {
-            this.notifyAll();
-        }
+        m_selectors[0].run();
     }
 
     protected void installInterests() {
-        // swap the update lists to avoid contention while
-        // draining the requested values. also guarantees
-        // that the end of the list will be reached if code
-        // appends to the update list without bound.
-        ArrayDeque<VoltPort> oldlist;
-        synchronized(m_selectorUpdates_1) {
-            if (m_activeUpdateList == m_selectorUpdates_1) {
-                oldlist = m_selectorUpdates_1;
-                m_activeUpdateList = m_selectorUpdates_2;
-            }
-            else {
-                oldlist = m_selectorUpdates_2;
-                m_activeUpdateList = m_selectorUpdates_1;
-            }
-        }
-
-        while (!oldlist.isEmpty()) {
-            final VoltPort port = oldlist.poll();
-            if (port.isRunning()) {
-                continue;
-            }
-            if (port.isDead()) {
-                unregisterChannel(port);
-                try {
-                    port.m_selectionKey.channel().close();
-                } catch (IOException e) {}
-            } else if (port.hasQueuedRunnables()) {
-                port.lockForHandlingWork();
-                port.getKey().interestOps(0);
-                m_selector.selectedKeys().remove(port.getKey());
-                synchronized (m_tasks) {
-                    m_tasks.offer(getPortCallRunnable(port));
-                    m_tasks.notify();
-                }
-            } else {
-                resumeSelection(port);
-            }
-        }
-    }
-
-    private void resumeSelection( VoltPort port) {
-        SelectionKey key = port.getKey();
-
-        if (key.isValid()) {
-            key.interestOps (port.interestOps());
-        } else {
-            synchronized (m_ports) {
-                m_ports.remove(port);
-            }
-        }
+        m_selectors[0].installInterests();
     }
 
     private Runnable getPortCallRunnable(final VoltPort port) {
@@ -478,44 +665,7 @@ import org.voltdb.utils.VoltLoggerFactory;
 
     /** Set the selected interest set on the port and run it. */
     protected void invokeCallbacks() {
-        final Set<SelectionKey> selectedKeys = m_selector.selectedKeys();
-        final ArrayList<Runnable> generatedTasks = new ArrayList<Runnable>();
-        for(SelectionKey key : selectedKeys) {
-            final VoltPort port = (VoltPort) key.attachment();
-            if (port == null) {
-                continue;
-            }
-            try {
-                port.lockForHandlingWork();
-                key.interestOps(0);
-
-                final Runnable runner = getPortCallRunnable(port);
-
-                if (m_useExecutorService) {
-                    generatedTasks.add(runner);
-                } else {
-                    runner.run();
-                }
-            }
-            catch (CancelledKeyException e) {
-                e.printStackTrace();
-                // no need to do anything here until
-                // shutdown makes more sense
-            }
-        }
-
-        if (!generatedTasks.isEmpty()) {
-            synchronized (m_tasks) {
-                m_tasks.addAll(generatedTasks);
-                if (m_tasks.size() > 1) {
-                    m_tasks.notifyAll();
-                } else {
-                    m_tasks.notify();
-                }
-            }
-        }
-
-        selectedKeys.clear();
+        m_selectors[0].invokeCallbacks();
     }
 
     public Map<Long, Pair<String, long[]>> getIOStats(boolean interval) {
@@ -525,24 +675,26 @@ import org.voltdb.utils.VoltLoggerFactory;
         long totalMessagesRead = 0;
         long totalWritten = 0;
         long totalMessagesWritten = 0;
-        synchronized (m_ports) {
-            for (VoltPort p : m_ports) {
-                final long read = p.readStream().getBytesRead(interval);
-                final long writeInfo[] = p.writeStream().getBytesAndMessagesWritten(interval);
-                final long messagesRead = p.getMessagesRead(interval);
-                totalRead += read;
-                totalMessagesRead += messagesRead;
-                totalWritten += writeInfo[0];
-                totalMessagesWritten += writeInfo[1];
-                retval.put(
-                        p.connectionId(),
-                        Pair.of(
-                                p.m_remoteHost,
-                                new long[] {
-                                        read,
-                                        messagesRead,
-                                        writeInfo[0],
-                                        writeInfo[1] }));
+        for (SelectorThread selector : m_selectors) {
+            synchronized (selector.m_ports) {
+                for (VoltPort p : selector.m_ports) {
+                    final long read = p.readStream().getBytesRead(interval);
+                    final long writeInfo[] = p.writeStream().getBytesAndMessagesWritten(interval);
+                    final long messagesRead = p.getMessagesRead(interval);
+                    totalRead += read;
+                    totalMessagesRead += messagesRead;
+                    totalWritten += writeInfo[0];
+                    totalMessagesWritten += writeInfo[1];
+                    retval.put(
+                            p.connectionId(),
+                            Pair.of(
+                                    p.m_remoteHost,
+                                    new long[] {
+                                            read,
+                                            messagesRead,
+                                            writeInfo[0],
+                                            writeInfo[1] }));
+                }
             }
         }
         retval.put(
@@ -556,4 +708,33 @@ import org.voltdb.utils.VoltLoggerFactory;
                                 totalMessagesWritten }));
         return retval;
     }
+
+    /**
+     * Return the load on each selector thread. The arrays are indexed
+     * by the SELECTOR_STATS_* offsets. These are running totals, so they do
+     * not reset the interval counters used by getIOStats().
+     * @return SelectorId -> Stats
+     */
+    public Map<Integer, long[]> getSelectorStats() {
+        final HashMap<Integer, long[]> retval = new HashMap<Integer, long[]>();
+        for (SelectorThread selector : m_selectors) {
+            final long stats[] = new long[SELECTOR_STATS_BACKPRESSURE + 1];
+            stats[SELECTOR_STATS_KEYS_SELECTED] = selector.getKeysSelected();
+            synchronized (selector.m_ports) {
+                stats[SELECTOR_STATS_PORTS] = selector.m_ports.size();
+                for (VoltPort p : selector.m_ports) {
+                    if (p.getKey() == null) {
+                        continue;
+                    }
+                    stats[SELECTOR_STATS_BYTES_READ] += p.readStream().getBytesRead(false);
+                    stats[SELECTOR_STATS_MESSAGES_READ] += p.getMessagesRead(false);
+                    if (p.writeStream().hadBackPressure()) {
+                        stats[SELECTOR_STATS_BACKPRESSURE]++;
+                    }
+                }
+            }
+            retval.put(selector.m_id, stats);
+        }
+        return retval;
+    }
 }
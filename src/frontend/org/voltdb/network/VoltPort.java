@@ -60,6 +60,11 @@ public class VoltPort implements Callable<VoltPort>, Connection
     // queued to unregistered ports, this is thread safe.
     protected SelectionKey m_selectionKey;
 
+    /** The selector in VoltNetwork that owns this port. Like m_selectionKey,
+     *  this is only assigned in VoltNetwork.register() before the port is
+     *  handed out, so it does not need to be volatile. */
+    VoltNetwork.SelectorThread m_selectorThread;
+
     /** The channel this port wraps */
     private SocketChannel m_channel;
 
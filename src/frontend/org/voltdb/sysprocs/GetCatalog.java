@@ -14,12 +14,16 @@ import org.voltdb.VoltTable.ColumnInfo;
 import org.voltdb.VoltType;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.types.TimestampType;
+import org.voltdb.utils.Encoder;
 
 import edu.brown.hstore.PartitionExecutor;
 import edu.brown.utils.PartitionEstimator;
 
 /** 
- * Get a status snapshot of the PartitionExecutors in the cluster
+ * Get the serialized catalog from the cluster.
+ * The catalog is compressed and then split up over multiple rows
+ * because it can be larger than the max size of a single VoltTable value.
+ * Use {@link GetCatalog#readCatalog(VoltTable)} to put it back together.
  * @author pavlo
  */
 @ProcInfo(singlePartition = true)
@@ -30,6 +34,40 @@ public class GetCatalog extends VoltSystemProcedure {
         new ColumnInfo("CREATED",   VoltType.TIMESTAMP),
     };
     
+    /**
+     * Create the result table for the given serialized catalog
+     * @param serializedCatalog
+     * @return
+     */
+    public static VoltTable createCatalogTable(String serializedCatalog) {
+        // The encoded catalog is just base64, so each character is one byte
+        String encoded = Encoder.compressAndBase64Encode(serializedCatalog);
+        TimestampType created = new TimestampType();
+        VoltTable vt = new VoltTable(nodeResultsColumns);
+        for (int offset = 0; offset < encoded.length(); offset += VoltType.MAX_VALUE_LENGTH) {
+            int end = Math.min(encoded.length(), offset + VoltType.MAX_VALUE_LENGTH);
+            vt.addRow(encoded.substring(offset, end), created);
+        } // FOR
+        return (vt);
+    }
+    
+    /**
+     * Put the serialized catalog back together from the rows
+     * in a table created by {@link GetCatalog#createCatalogTable(String)}
+     * Returns null if the table is empty.
+     * @param vt
+     * @return
+     */
+    public static String readCatalog(VoltTable vt) {
+        StringBuilder sb = new StringBuilder();
+        vt.resetRowPosition();
+        while (vt.advanceRow()) {
+            sb.append(vt.getString(0));
+        } // WHILE
+        if (sb.length() == 0) return (null);
+        return (Encoder.decodeBase64AndDecompress(sb.toString()));
+    }
+    
     @Override
     public void globalInit(PartitionExecutor site, Procedure catalog_proc,
                             BackendTarget eeType, HsqlBackend hsql, PartitionEstimator p_estimator) {
@@ -46,9 +84,7 @@ public class GetCatalog extends VoltSystemProcedure {
         assert(fragmentId == SysProcFragmentId.PF_getCatalog);
         
         // Serialize the catalog and throw it back to the client
-        VoltTable vt = new VoltTable(nodeResultsColumns);
-        vt.addRow(database.getCatalog().serialize(),
-                  new TimestampType());
+        VoltTable vt = createCatalogTable(database.getCatalog().serialize());
         DependencySet result = new DependencySet(SysProcFragmentId.PF_getCatalog, vt);
         return (result);
     }
@@ -0,0 +1,157 @@
+package org.voltdb.sysprocs;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.voltdb.BackendTarget;
+import org.voltdb.DependencySet;
+import org.voltdb.HsqlBackend;
+import org.voltdb.ParameterSet;
+import org.voltdb.ProcInfo;
+import org.voltdb.VoltSystemProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.VoltType;
+import org.voltdb.catalog.Partition;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
+import org.voltdb.exceptions.ServerFaultException;
+import org.voltdb.utils.VoltTableUtil;
+
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.hstore.PartitionExecutor;
+import edu.brown.hstore.wal.CommandLogRecovery;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.PartitionEstimator;
+
+/**
+ * Tell the CommandLogRecovery at each HStoreSite to start replaying its command log
+ * or to move its replay limit forward. This is invoked over and over by the CommandLogRecovery
+ * at the HStoreSite with the lowest site id once it has restored the snapshot. The replay runs
+ * in the background at each site, so this txn returns right away with how far each site got.
+ */
+@ProcInfo(singlePartition = false)
+public class ReplayCommandLog extends VoltSystemProcedure {
+    private static final Logger LOG = Logger.getLogger(ReplayCommandLog.class);
+
+    public static final String STATUS_DISABLED = "DISABLED";
+    public static final String STATUS_SCANNING = "SCANNING";
+    public static final String STATUS_REPLAYING = "REPLAYING";
+    public static final String STATUS_FINISHED = "FINISHED";
+
+    public static final ColumnInfo nodeResultsColumns[] = {
+        new ColumnInfo("SITE", VoltType.STRING),
+        new ColumnInfo("STATUS", VoltType.STRING),
+        new ColumnInfo("REPLAYED_TO", VoltType.BIGINT),
+        new ColumnInfo("NEXT_MULTIPARTITION", VoltType.BIGINT),
+    };
+
+    @Override
+    public void globalInit(PartitionExecutor site, Procedure catalog_proc,
+            BackendTarget eeType, HsqlBackend hsql, PartitionEstimator p_estimator) {
+        super.globalInit(site, catalog_proc, eeType, hsql, p_estimator);
+        site.registerPlanFragment(SysProcFragmentId.PF_replayCommandLogAggregate, this);
+        site.registerPlanFragment(SysProcFragmentId.PF_replayCommandLogDistribute, this);
+    }
+
+    @Override
+    public DependencySet executePlanFragment(long txn_id,
+                                             Map<Integer, List<VoltTable>> dependencies,
+                                             int fragmentId,
+                                             ParameterSet params,
+                                             PartitionExecutor.SystemProcedureExecutionContext context) {
+        DependencySet result = null;
+        switch (fragmentId) {
+            // Start the replay at this site or move its replay limit forward.
+            // This can't block, because we are holding the lock for this partition
+            case SysProcFragmentId.PF_replayCommandLogDistribute: {
+                Object args[] = params.toArray();
+                long snapshotTxnId = (Long)args[0];
+                long replayLimit = (Long)args[1];
+                CommandLogRecovery recovery = this.executor.getHStoreSite().getCommandLogRecovery();
+                String status = STATUS_DISABLED;
+                long replayedTo = Long.MAX_VALUE;
+                Long nextMultiPartition = Long.MAX_VALUE;
+                if (recovery != null) {
+                    if (recovery.isStarted() == false) {
+                        LOG.info(String.format("Starting command log replay at %s [snapshotTxnId=%d]",
+                                               this.executor.getHStoreSite().getSiteName(), snapshotTxnId));
+                        recovery.startReplay(snapshotTxnId, replayLimit);
+                    } else {
+                        recovery.setReplayLimit(replayLimit);
+                    }
+                    replayedTo = recovery.getReplayedTo();
+                    nextMultiPartition = recovery.getNextMultiPartitionTxnId(replayLimit);
+                    if (nextMultiPartition == null) {
+                        status = STATUS_SCANNING;
+                        nextMultiPartition = Long.MAX_VALUE;
+                    } else {
+                        status = (replayedTo == Long.MAX_VALUE ? STATUS_FINISHED : STATUS_REPLAYING);
+                    }
+                }
+                VoltTable vt = new VoltTable(nodeResultsColumns);
+                vt.addRow(this.executor.getHStoreSite().getSiteName(), status, replayedTo, nextMultiPartition);
+                result = new DependencySet(SysProcFragmentId.PF_replayCommandLogDistribute, vt);
+                break;
+            }
+            // Aggregate Results
+            case SysProcFragmentId.PF_replayCommandLogAggregate:
+                List<VoltTable> siteResults = dependencies.get(SysProcFragmentId.PF_replayCommandLogDistribute);
+                if (siteResults == null || siteResults.isEmpty()) {
+                    String msg = "Missing site results";
+                    throw new ServerFaultException(msg, txn_id);
+                }
+
+                VoltTable vt = VoltTableUtil.combine(siteResults);
+                result = new DependencySet(SysProcFragmentId.PF_replayCommandLogAggregate, vt);
+                break;
+            default:
+                String msg = "Unexpected sysproc fragmentId '" + fragmentId + "'";
+                throw new ServerFaultException(msg, txn_id);
+        } // SWITCH
+        return (result);
+    }
+
+    /**
+     * @param snapshotTxnId The id of the txn that took the snapshot that was restored.
+     *                      Only txns with a larger id will be replayed (-1 = replay everything)
+     * @param replayLimit   The sites will only replay the txns with a smaller id
+     *                      until the next time that this is called
+     */
+    public VoltTable[] run(long snapshotTxnId, long replayLimit) {
+        // Send a replay request to the first partition at each HStoreSite
+        final int num_sites = CatalogUtil.getNumberOfSites(this.database);
+        final SynthesizedPlanFragment pfs[] = new SynthesizedPlanFragment[num_sites + 1];
+        final ParameterSet params = new ParameterSet();
+        params.setParameters(snapshotTxnId, replayLimit);
+
+        int i = 0;
+        for (Site catalog_site : CatalogUtil.getAllSites(this.database)) {
+            Partition catalog_part = CollectionUtil.first(catalog_site.getPartitions());
+            pfs[i] = new SynthesizedPlanFragment();
+            pfs[i].fragmentId = SysProcFragmentId.PF_replayCommandLogDistribute;
+            pfs[i].inputDependencyIds = new int[] { };
+            pfs[i].outputDependencyIds = new int[] { SysProcFragmentId.PF_replayCommandLogDistribute };
+            pfs[i].multipartition = true;
+            pfs[i].nonExecSites = false;
+            pfs[i].destPartitionId = catalog_part.getId();
+            pfs[i].parameters = params;
+            pfs[i].last_task = (catalog_site.getId() == hstore_site.getSiteId());
+            i += 1;
+        } // FOR
+
+        // a final plan fragment to aggregate the results
+        pfs[i] = new SynthesizedPlanFragment();
+        pfs[i].fragmentId = SysProcFragmentId.PF_replayCommandLogAggregate;
+        pfs[i].inputDependencyIds = new int[] { SysProcFragmentId.PF_replayCommandLogDistribute };
+        pfs[i].outputDependencyIds = new int[] { SysProcFragmentId.PF_replayCommandLogAggregate };
+        pfs[i].multipartition = false;
+        pfs[i].nonExecSites = false;
+        pfs[i].destPartitionId = CollectionUtil.first(hstore_site.getLocalPartitionIds());
+        pfs[i].parameters = new ParameterSet();
+        pfs[i].last_task = true;
+
+        return executeSysProcPlanFragments(pfs, SysProcFragmentId.PF_replayCommandLogAggregate);
+    }
+}
@@ -33,6 +33,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.voltdb.BackendTarget;
@@ -41,7 +45,6 @@ import org.voltdb.HsqlBackend;
 import org.voltdb.ParameterSet;
 import org.voltdb.PrivateVoltTableFactory;
 import org.voltdb.ProcInfo;
-import org.voltdb.TheHashinator;
 import org.voltdb.VoltDB;
 import org.voltdb.VoltSystemProcedure;
 import org.voltdb.VoltTable;
@@ -55,6 +58,7 @@ import org.voltdb.catalog.Table;
 import org.voltdb.client.ConnectionUtil;
 import org.voltdb.dtxn.DtxnConstants;
 import org.voltdb.sysprocs.saverestore.ClusterSaveFileState;
+import org.voltdb.sysprocs.saverestore.PartitionedTableDecoder;
 import org.voltdb.sysprocs.saverestore.SavedTableConverter;
 import org.voltdb.sysprocs.saverestore.SnapshotUtil;
 import org.voltdb.sysprocs.saverestore.TableSaveFile;
@@ -64,6 +68,7 @@ import org.voltdb.utils.DBBPool.BBContainer;
 import edu.brown.catalog.CatalogUtil;
 import edu.brown.hstore.PartitionExecutor;
 import edu.brown.hstore.PartitionExecutor.SystemProcedureExecutionContext;
+import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.utils.PartitionEstimator;
 
 @ProcInfo (
@@ -81,6 +86,43 @@ public class SnapshotRestore extends VoltSystemProcedure
     private static HashSet<String>  m_initializedTableSaveFiles = new HashSet<String>();
     private static ArrayDeque<TableSaveFile> m_saveFiles = new ArrayDeque<TableSaveFile>();
 
+    /**
+     * Thread pools used to restore partitioned tables. The validators compute the
+     * checksums for the chunks as they come off of the disk and the decoders
+     * deserialize the validated chunks and split them up by partition. These have
+     * to be separate pools because the decoders block waiting for validated chunks.
+     * See ${site.snapshot_restore_threads}
+     */
+    private static ExecutorService m_validatorPool = null;
+    private static ExecutorService m_decoderPool = null;
+
+    private static synchronized ExecutorService getValidatorPool() {
+        if (m_validatorPool == null) {
+            m_validatorPool = createRestorePool("SnapshotRestoreValidator");
+        }
+        return m_validatorPool;
+    }
+
+    private static synchronized ExecutorService getDecoderPool() {
+        if (m_decoderPool == null) {
+            m_decoderPool = createRestorePool("SnapshotRestoreDecoder");
+        }
+        return m_decoderPool;
+    }
+
+    private static ExecutorService createRestorePool(final String name) {
+        int num_threads = Math.max(1, HStoreConf.singleton().site.snapshot_restore_threads);
+        return Executors.newFixedThreadPool(num_threads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger(0);
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-" + counter.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
     private static synchronized void initializeTableSaveFiles(
             String filePath,
             String fileNonce,
@@ -96,7 +138,8 @@ public class SnapshotRestore extends VoltSystemProcedure
                     getTableSaveFile(
                             f,
                             org.voltdb.VoltDB.instance().getLocalSites().size() * 4,
-                            relevantPartitionIds));
+                            relevantPartitionIds,
+                            getValidatorPool()));
             assert(m_saveFiles.peekLast().getCompleted());
         }
     }
@@ -693,13 +736,24 @@ public class SnapshotRestore extends VoltSystemProcedure
             File saveFile,
             int readAheadChunks,
             int relevantPartitionIds[]) throws IOException
+    {
+        return getTableSaveFile(saveFile, readAheadChunks, relevantPartitionIds, null);
+    }
+
+    private static TableSaveFile getTableSaveFile(
+            File saveFile,
+            int readAheadChunks,
+            int relevantPartitionIds[],
+            ExecutorService validator) throws IOException
     {
         FileInputStream savefile_input = new FileInputStream(saveFile);
         TableSaveFile savefile =
             new TableSaveFile(
                     savefile_input.getChannel(),
                     readAheadChunks,
-                    relevantPartitionIds);
+                    relevantPartitionIds,
+                    false,
+                    validator);
         return savefile;
     }
 
@@ -955,139 +1009,85 @@ public class SnapshotRestore extends VoltSystemProcedure
         VoltTable[] results = new VoltTable[] { constructResultsTable() };
         results[0].addRow(m_hostId, hostname, m_siteId, tableName, 0,
                 "NO DATA TO DISTRIBUTE", "");
-        final Table new_catalog_table = getCatalogTable(tableName);
-        Boolean needsConversion = null;
-        org.voltdb.utils.DBBPool.BBContainer c = null;
-        while (hasMoreChunks())
-        {
-            VoltTable table = null;
-            try
-            {
-                c = null;
-                c = getNextChunk();
-                if (c == null) {
-                    continue;//Should be equivalent to break
-                }
 
-                if (needsConversion == null) {
-                    VoltTable old_table = PrivateVoltTableFactory.createVoltTableFromBuffer(c.b.duplicate(), true);
-                    needsConversion = SavedTableConverter.needsConversion(old_table, new_catalog_table);
-                }
-
-                final VoltTable old_table = PrivateVoltTableFactory.createVoltTableFromBuffer(c.b, true);
-                if (needsConversion) {
-                    table = SavedTableConverter.convertTable(old_table,
-                                                             new_catalog_table);
-                } else {
-                    table = old_table;
-                }
-            }
-            catch (IOException e)
-            {
-                VoltTable result = PrivateVoltTableFactory.createUninitializedVoltTable();
-                result = constructResultsTable();
-                result.addRow(m_hostId, hostname, m_siteId, tableName, relevantPartitionIds[0],
-                              "FAILURE", "Unable to load table: " + tableName +
-                              " error: " + e.getMessage());
-                return result;
+        /*
+         * The decoder threads pull validated chunks out of the save files, convert
+         * them to the current schema, and split them up by partition. We send each
+         * batch of partitioned tables out to the sites while the decoders keep
+         * working on the next chunks.
+         */
+        final PartitionedTableDecoder decoder = new PartitionedTableDecoder(
+                getCatalogTable(tableName),
+                CatalogUtil.getNumberOfPartitions(this.cluster),
+                hstore_conf.site.snapshot_restore_threads) {
+            @Override
+            protected boolean hasMoreChunks() {
+                return SnapshotRestore.hasMoreChunks();
             }
-            catch (VoltTypeException e)
-            {
-                VoltTable result = PrivateVoltTableFactory.createUninitializedVoltTable();
-                result = constructResultsTable();
-                result.addRow(m_hostId, hostname, m_siteId, tableName, relevantPartitionIds[0],
-                              "FAILURE", "Unable to load table: " + tableName +
-                              " error: " + e.getMessage());
-                return result;
-            }
-
-            VoltTable[] partitioned_tables =
-                createPartitionedTables(tableName, table);
-            if (c != null) {
-                c.discard();
+            @Override
+            protected BBContainer getNextChunk() throws IOException {
+                return SnapshotRestore.getNextChunk();
             }
+        };
+        decoder.start(getDecoderPool());
 
-            int[] dependencyIds = new int[sites_to_partitions.size()];
-            SynthesizedPlanFragment[] pfs =
-                new SynthesizedPlanFragment[sites_to_partitions.size() + 1];
-            int pfs_index = 0;
-            for (int site_id : sites_to_partitions.keySet())
+        VoltTable[] partitioned_tables = null;
+        try {
+            while ((partitioned_tables = decoder.next()) != null)
             {
-                int partition_id = sites_to_partitions.get(site_id);
-                dependencyIds[pfs_index] =
-                    TableSaveFileState.getNextDependencyId();
-                pfs[pfs_index] = new SynthesizedPlanFragment();
-                pfs[pfs_index].fragmentId =
-                    SysProcFragmentId.PF_restoreSendPartitionedTable;
-                // XXX pfs[pfs_index].siteId = site_id;
-                pfs[pfs_index].multipartition = false;
-                pfs[pfs_index].outputDependencyIds = new int[]{ dependencyIds[pfs_index] };
-                pfs[pfs_index].inputDependencyIds = new int [] {};
+                int[] dependencyIds = new int[sites_to_partitions.size()];
+                SynthesizedPlanFragment[] pfs =
+                    new SynthesizedPlanFragment[sites_to_partitions.size() + 1];
+                int pfs_index = 0;
+                for (int site_id : sites_to_partitions.keySet())
+                {
+                    int partition_id = sites_to_partitions.get(site_id);
+                    dependencyIds[pfs_index] =
+                        TableSaveFileState.getNextDependencyId();
+                    pfs[pfs_index] = new SynthesizedPlanFragment();
+                    pfs[pfs_index].fragmentId =
+                        SysProcFragmentId.PF_restoreSendPartitionedTable;
+                    // XXX pfs[pfs_index].siteId = site_id;
+                    pfs[pfs_index].multipartition = false;
+                    pfs[pfs_index].outputDependencyIds = new int[]{ dependencyIds[pfs_index] };
+                    pfs[pfs_index].inputDependencyIds = new int [] {};
+                    ParameterSet params = new ParameterSet();
+                    params.setParameters(tableName, partition_id,
+                                         dependencyIds[pfs_index],
+                                         partitioned_tables[partition_id],
+                                         allowExport);
+                    pfs[pfs_index].parameters = params;
+                    ++pfs_index;
+                }
+                int result_dependency_id = TableSaveFileState.getNextDependencyId();
+                pfs[sites_to_partitions.size()] = new SynthesizedPlanFragment();
+                pfs[sites_to_partitions.size()].fragmentId =
+                    SysProcFragmentId.PF_restoreSendPartitionedTableResults;
+                pfs[sites_to_partitions.size()].multipartition = false;
+                pfs[sites_to_partitions.size()].outputDependencyIds = new int[]{ result_dependency_id };
+                pfs[sites_to_partitions.size()].inputDependencyIds = dependencyIds;
                 ParameterSet params = new ParameterSet();
-                params.setParameters(tableName, partition_id,
-                                     dependencyIds[pfs_index],
-                                     partitioned_tables[partition_id],
-                                     allowExport);
-                pfs[pfs_index].parameters = params;
-                ++pfs_index;
+                params.setParameters(result_dependency_id);
+                pfs[sites_to_partitions.size()].parameters = params;
+                results =
+                    executeSysProcPlanFragments(pfs, result_dependency_id);
             }
-            int result_dependency_id = TableSaveFileState.getNextDependencyId();
-            pfs[sites_to_partitions.size()] = new SynthesizedPlanFragment();
-            pfs[sites_to_partitions.size()].fragmentId =
-                SysProcFragmentId.PF_restoreSendPartitionedTableResults;
-            pfs[sites_to_partitions.size()].multipartition = false;
-            pfs[sites_to_partitions.size()].outputDependencyIds = new int[]{ result_dependency_id };
-            pfs[sites_to_partitions.size()].inputDependencyIds = dependencyIds;
-            ParameterSet params = new ParameterSet();
-            params.setParameters(result_dependency_id);
-            pfs[sites_to_partitions.size()].parameters = params;
-            results =
-                executeSysProcPlanFragments(pfs, result_dependency_id);
-        }
-        return results[0];
-   }
-
-    private VoltTable[] createPartitionedTables(String tableName,
-                                                VoltTable loadedTable)
-    {
-        int number_of_partitions = CatalogUtil.getNumberOfPartitions(this.cluster);
-        Table catalog_table = this.database.getTables().getIgnoreCase(tableName);
-        assert(!catalog_table.getIsreplicated());
-        // XXX blatantly stolen from LoadMultipartitionTable
-        // find the index and type of the partitioning attribute
-        int partition_col = catalog_table.getPartitioncolumn().getIndex();
-        VoltType partition_type =
-            VoltType.get((byte) catalog_table.getPartitioncolumn().getType());
-
-        // create a table for each partition
-        VoltTable[] partitioned_tables = new VoltTable[number_of_partitions];
-        for (int i = 0; i < partitioned_tables.length; i++) {
-            partitioned_tables[i] =
-                loadedTable.clone(loadedTable.getUnderlyingBufferSize() /
-                                  number_of_partitions);
+        } catch (RuntimeException ex) {
+            // Make sure that the decoders don't stay blocked on the queue
+            decoder.close(ex);
+            throw ex;
         }
 
-        // split the input table into per-partition units
-        while (loadedTable.advanceRow())
-        {
-            int partition = 0;
-            try
-            {
-                partition =
-                    TheHashinator.hashToPartition(loadedTable.get(partition_col,
-                                                          partition_type));
-            }
-            catch (Exception e)
-            {
-                e.printStackTrace();
-                throw new RuntimeException(e.getMessage());
-            }
-            // this adds the active row of loadedTable
-            partitioned_tables[partition].add(loadedTable);
+        Exception error = decoder.getError();
+        if (error != null) {
+            VoltTable result = constructResultsTable();
+            result.addRow(m_hostId, hostname, m_siteId, tableName, relevantPartitionIds[0],
+                          "FAILURE", "Unable to load table: " + tableName +
+                          " error: " + error.getMessage());
+            return result;
         }
-
-        return partitioned_tables;
-    }
+        return results[0];
+   }
 
     private Table getCatalogTable(String tableName)
     {
@@ -116,12 +116,14 @@ public class SnapshotSave extends VoltSystemProcedure
             assert(params.toArray()[1] != null);
             assert(params.toArray()[2] != null);
             assert(params.toArray()[3] != null);
+            assert(params.toArray()[4] != null);
             final String file_path = (String) params.toArray()[0];
             final String file_nonce = (String) params.toArray()[1];
             final long startTime = (Long)params.toArray()[2];
-            byte block = (Byte)params.toArray()[3];
+            final long snapshotTxnId = (Long)params.toArray()[3];
+            byte block = (Byte)params.toArray()[4];
             SnapshotSaveAPI saveAPI = new SnapshotSaveAPI();
-            VoltTable result = saveAPI.startSnapshotting(file_path, file_nonce, block, startTime, context, hostname);
+            VoltTable result = saveAPI.startSnapshotting(file_path, file_nonce, block, startTime, snapshotTxnId, context, hostname);
             return new DependencySet(SnapshotSave.DEP_createSnapshotTargets, result);
         }
         else if (fragmentId == SysProcFragmentId.PF_createSnapshotTargetsResults)
@@ -300,7 +302,9 @@ public class SnapshotSave extends VoltSystemProcedure
             }
         }
 
-        results = performSnapshotCreationWork( path, nonce, startTime, (byte)block);
+        // Every txn with a smaller id than ours is already in the snapshot, so
+        // the command log recovery uses it to figure out where to start replaying
+        results = performSnapshotCreationWork( path, nonce, startTime, this.getTransactionId().longValue(), (byte)block);
 
         final long finishTime = System.currentTimeMillis();
         final long duration = finishTime - startTime;
@@ -340,6 +344,7 @@ public class SnapshotSave extends VoltSystemProcedure
     private final VoltTable[] performSnapshotCreationWork(String filePath,
             String fileNonce,
             long startTime,
+            long txnId,
             byte block)
     {
         SynthesizedPlanFragment[] pfs = new SynthesizedPlanFragment[2];
@@ -352,7 +357,7 @@ public class SnapshotSave extends VoltSystemProcedure
         pfs[0].inputDependencyIds = new int[] {};
         pfs[0].multipartition = true;
         ParameterSet params = new ParameterSet();
-        params.setParameters(filePath, fileNonce, startTime, block);
+        params.setParameters(filePath, fileNonce, startTime, txnId, block);
         pfs[0].parameters = params;
 
         // This fragment aggregates the save-to-disk sanity check results
@@ -138,4 +138,8 @@ public class SysProcFragmentId
     // @GetCatalog
     public static final int PF_getCatalog = 195;
     
+    // @ReplayCommandLog
+    public static final int PF_replayCommandLogDistribute = 200;
+    public static final int PF_replayCommandLogAggregate = 201;
+    
 }
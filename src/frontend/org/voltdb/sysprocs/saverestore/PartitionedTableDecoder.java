@@ -0,0 +1,242 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.sysprocs.saverestore;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+import org.voltdb.PrivateVoltTableFactory;
+import org.voltdb.TheHashinator;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.catalog.Table;
+import org.voltdb.utils.DBBPool.BBContainer;
+
+/**
+ * Runs a set of decoder threads that pull validated chunks for a partitioned table
+ * out of the save files, convert them to the current schema, and split them up
+ * into a VoltTable per partition. The caller drains the decoded batches with
+ * {@link #next()} while the decoders keep working on the next chunks. The output
+ * queue is bounded so that the decoders can't get too far ahead of the caller.
+ * <p>
+ * If the caller is interrupted, or a decoder fails, then the remaining decoders are
+ * told to stop and the caller keeps draining the queue until every decoder has
+ * finished, so that none of them are left blocked on a full queue.
+ */
+public abstract class PartitionedTableDecoder {
+    private static final Logger LOG = Logger.getLogger(PartitionedTableDecoder.class);
+
+    /**
+     * Marker that each decoder puts in the output queue when it is finished
+     */
+    private static final VoltTable[] DONE = new VoltTable[0];
+
+    private final Table catalog_tbl;
+    private final int num_partitions;
+    private final int num_decoders;
+    private final BlockingQueue<VoltTable[]> decoded;
+    private final AtomicReference<Exception> error = new AtomicReference<Exception>();
+    private int finished = 0;
+    private boolean interrupted = false;
+
+    /**
+     * Constructor
+     * @param catalog_tbl The current catalog definition of the table being restored
+     * @param num_partitions The number of partitions to split the table into
+     * @param num_decoders The number of decoder threads to run
+     */
+    public PartitionedTableDecoder(Table catalog_tbl, int num_partitions, int num_decoders) {
+        assert(catalog_tbl.getIsreplicated() == false);
+        this.catalog_tbl = catalog_tbl;
+        this.num_partitions = num_partitions;
+        this.num_decoders = Math.max(1, num_decoders);
+        this.decoded = new LinkedBlockingQueue<VoltTable[]>(this.num_decoders * 2);
+    }
+
+    /**
+     * Returns true if there may be more chunks to decode. Must be thread-safe.
+     */
+    protected abstract boolean hasMoreChunks();
+
+    /**
+     * Returns the next validated chunk or null if there are no more. Must be thread-safe.
+     */
+    protected abstract BBContainer getNextChunk() throws IOException;
+
+    /**
+     * Start the decoders in the given thread pool. The pool must have at least
+     * as many threads as there are decoders.
+     * @param pool
+     */
+    public void start(ExecutorService pool) {
+        for (int i = 0; i < this.num_decoders; i++) {
+            pool.execute(new Decoder());
+        } // FOR
+    }
+
+    /**
+     * Block until the next batch of partitioned tables is ready.
+     * Returns null once all of the decoders have finished or if the restore
+     * was cancelled. The caller should check {@link #getError()} afterwards.
+     */
+    public VoltTable[] next() {
+        while (this.finished < this.num_decoders) {
+            VoltTable[] partitioned_tables = null;
+            try {
+                partitioned_tables = this.decoded.take();
+            } catch (InterruptedException ex) {
+                // Tell the decoders to stop but keep on draining so that
+                // none of them get stuck trying to put into the queue
+                this.cancel(ex);
+                this.interrupted = true;
+                continue;
+            }
+            if (partitioned_tables == DONE) {
+                this.finished++;
+                continue;
+            }
+            // Throw away anything that was decoded after we were cancelled
+            if (this.error.get() != null) {
+                continue;
+            }
+            return (partitioned_tables);
+        } // WHILE
+        if (this.interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return (null);
+    }
+
+    /**
+     * Tell the decoders to stop and wait until all of them have finished
+     * @param cause
+     */
+    public void close(Exception cause) {
+        this.cancel(cause);
+        while (this.next() != null) {
+            // Nothing to do...
+        } // WHILE
+    }
+
+    /**
+     * Tell the decoders to stop after whatever chunk they are working on now.
+     * The first cause will be what is returned by {@link #getError()}
+     * @param cause
+     */
+    public void cancel(Exception cause) {
+        this.error.compareAndSet(null, cause);
+    }
+
+    public Exception getError() {
+        return (this.error.get());
+    }
+
+    public boolean isFinished() {
+        return (this.finished == this.num_decoders);
+    }
+
+    /**
+     * Deserialize the chunk, convert it to the current schema if needed, and
+     * split it up by partition
+     */
+    protected VoltTable[] decode(BBContainer c, boolean needsConversion) {
+        final VoltTable old_table = PrivateVoltTableFactory.createVoltTableFromBuffer(c.b, true);
+        VoltTable table = null;
+        if (needsConversion) {
+            table = SavedTableConverter.convertTable(old_table, this.catalog_tbl);
+        } else {
+            table = old_table;
+        }
+        return (this.createPartitionedTables(table));
+    }
+
+    private VoltTable[] createPartitionedTables(VoltTable loadedTable) {
+        // XXX blatantly stolen from LoadMultipartitionTable
+        // find the index and type of the partitioning attribute
+        int partition_col = this.catalog_tbl.getPartitioncolumn().getIndex();
+        VoltType partition_type = VoltType.get((byte)this.catalog_tbl.getPartitioncolumn().getType());
+
+        // create a table for each partition
+        VoltTable[] partitioned_tables = new VoltTable[this.num_partitions];
+        for (int i = 0; i < partitioned_tables.length; i++) {
+            partitioned_tables[i] = loadedTable.clone(loadedTable.getUnderlyingBufferSize() / this.num_partitions);
+        } // FOR
+
+        // split the input table into per-partition units
+        while (loadedTable.advanceRow()) {
+            int partition = TheHashinator.hashToPartition(loadedTable.get(partition_col, partition_type),
+                                                          this.num_partitions);
+            // this adds the active row of loadedTable
+            partitioned_tables[partition].add(loadedTable);
+        } // WHILE
+        return (partitioned_tables);
+    }
+
+    /**
+     * Pulls chunks out of the save files and decodes them until there are no
+     * more chunks or the restore was cancelled. Always puts the DONE marker in
+     * the output queue when it is finished.
+     */
+    private class Decoder implements Runnable {
+        @Override
+        public void run() {
+            Boolean needsConversion = null;
+            try {
+                while (error.get() == null && hasMoreChunks()) {
+                    BBContainer c = getNextChunk();
+                    if (c == null) {
+                        continue; // Should be equivalent to break
+                    }
+                    VoltTable partitioned_tables[] = null;
+                    try {
+                        if (needsConversion == null) {
+                            VoltTable old_table = PrivateVoltTableFactory.createVoltTableFromBuffer(c.b.duplicate(), true);
+                            needsConversion = SavedTableConverter.needsConversion(old_table, catalog_tbl);
+                        }
+                        partitioned_tables = decode(c, needsConversion.booleanValue());
+                    } finally {
+                        c.discard();
+                    }
+                    // Don't bother handing back anything if we were cancelled while decoding
+                    if (error.get() != null) break;
+                    decoded.put(partitioned_tables);
+                } // WHILE
+            } catch (Exception ex) {
+                LOG.error("Failed to decode chunk for table " + catalog_tbl.getName(), ex);
+                error.compareAndSet(null, ex);
+            } finally {
+                // The caller always drains until it gets every marker, so this can't block forever
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        decoded.put(DONE);
+                        break;
+                    } catch (InterruptedException ex) {
+                        error.compareAndSet(null, ex);
+                        interrupted = true;
+                    }
+                } // WHILE
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+    } // END CLASS
+}
@@ -42,6 +42,7 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.zip.CRC32;
 
+import org.apache.log4j.Logger;
 import org.voltdb.catalog.*;
 import org.voltdb.utils.Pair;
 import org.voltdb.utils.DBBPool.BBContainer;
@@ -50,11 +51,15 @@ import edu.brown.catalog.CatalogUtil;
 import edu.brown.hstore.PartitionExecutor.SystemProcedureExecutionContext;
 
 public class SnapshotUtil {
+    private static final Logger LOG = Logger.getLogger(SnapshotUtil.class);
 
     /**
      * Create a digest for a snapshot containing the time of the snapshot and the list of tables included.
      * The first item in the comma separated list is the time in milliseconds as a string.
+     * The second item is the id of the transaction that took the snapshot. Every txn with a
+     * smaller id was committed before the snapshot was taken.
      * @param snapshotTime
+     * @param txnId
      * @param path
      * @param nonce
      * @param tables
@@ -63,6 +68,7 @@ public class SnapshotUtil {
     public static void
         recordSnapshotTableList(
             long snapshotTime,
+            long txnId,
             String path,
             String nonce,
             List<Table> tables) throws IOException {
@@ -75,17 +81,13 @@ public class SnapshotUtil {
         FileOutputStream fos = new FileOutputStream(f);
         StringWriter sw = new StringWriter();
         sw.append(Long.toString(snapshotTime));
-        if (!tables.isEmpty()) {
-            sw.append(',');
-        }
+        sw.append(',');
+        sw.append(Long.toString(txnId));
         for (int ii = 0; ii < tables.size(); ii++) {
+            sw.append(',');
             sw.append(tables.get(ii).getTypeName());
-            if (!(ii == (tables.size() - 1))) {
-                sw.append(',');
-            } else {
-                sw.append('\n');
-            }
         }
+        sw.append('\n');
 
         final byte tableListBytes[] = sw.getBuffer().toString().getBytes("UTF-8");
         final CRC32 crc = new CRC32();
@@ -112,12 +114,33 @@ public class SnapshotUtil {
     public static Pair<Long, List<String>> retrieveRelevantTableNamesAndTime(File f) throws Exception {
         String tableList = CRCCheck(f);
         String tableNames[] = tableList.split(",");
-        String actualTableNames[] = new String[tableNames.length - 1];
-        System.arraycopy( tableNames, 1, actualTableNames, 0, tableNames.length - 1);
+        int offset = (hasSnapshotTxnId(tableNames) ? 2 : 1);
+        String actualTableNames[] = new String[tableNames.length - offset];
+        System.arraycopy( tableNames, offset, actualTableNames, 0, tableNames.length - offset);
         return Pair.of(Long.valueOf(tableNames[0]),
                        java.util.Arrays.asList(actualTableNames));
     }
 
+    /**
+     * Retrieve the id of the transaction that took the snapshot from a digest.
+     * Returns -1 if the digest was written before we started recording it.
+     * @param f
+     * @throws Exception
+     */
+    public static long retrieveSnapshotTxnId(File f) throws Exception {
+        String tableNames[] = CRCCheck(f).split(",");
+        return (hasSnapshotTxnId(tableNames) ? Long.parseLong(tableNames[1]) : -1);
+    }
+
+    /**
+     * Table names can't start with a digit, so if the second item in the
+     * digest is a number then it has to be the snapshot's txn id
+     */
+    private static boolean hasSnapshotTxnId(String digestItems[]) {
+        return (digestItems.length > 1 && digestItems[1].length() > 0 &&
+                Character.isDigit(digestItems[1].charAt(0)));
+    }
+
     /**
      * Check if the CRC of the snapshot file matches the digest.
      * @param f The snapshot file object
@@ -168,6 +191,8 @@ public class SnapshotUtil {
      * Storage for information about files that are part of a specific snapshot
      */
     public static class Snapshot {
+        /** The id of the txn that took the snapshot, or -1 if the digests don't have it */
+        public long m_txnId = -1;
         public final List<File> m_digests = new ArrayList<File>();
         public final List<Set<String>> m_digestTables = new ArrayList<Set<String>>();
         public final Map<String, TableFiles> m_tableFiles = new TreeMap<String, TableFiles>();
@@ -311,6 +336,11 @@ public class SnapshotUtil {
                     tableSet.addAll(result.getSecond());
                     s.m_digestTables.add(tableSet);
                     s.m_digests.add(f);
+                    try {
+                        s.m_txnId = Math.max(s.m_txnId, retrieveSnapshotTxnId(f));
+                    } catch (Exception e) {
+                        LOG.warn("Unable to read snapshot txn id from digest " + f.getPath(), e);
+                    }
                 } else {
                     HashSet<Integer> partitionIds = new HashSet<Integer>();
                     TableSaveFile saveFile = new TableSaveFile(fis.getChannel(), 1, null, true);
@@ -24,9 +24,11 @@ import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Semaphore;
 import java.util.zip.CRC32;
 
@@ -83,14 +85,29 @@ public class TableSaveFile
         this(dataIn, readAheadChunks, relevantPartitionIds, false);
     }
 
+    public TableSaveFile(
+            FileChannel dataIn,
+            int readAheadChunks,
+            int relevantPartitionIds[],
+            boolean continueOnCorruptedChunk) throws IOException {
+        this(dataIn, readAheadChunks, relevantPartitionIds, continueOnCorruptedChunk, null);
+    }
+
+    /**
+     * If a validator is given, then the thread reading the file will hand off each
+     * chunk to it to have its checksum computed. This allows the reader thread to
+     * just stream the file off of the disk. Chunks may become available out of order.
+     */
     // XXX maybe consider an IOException subclass at some point
     public TableSaveFile(
             FileChannel dataIn,
             int readAheadChunks,
             int relevantPartitionIds[],
-            boolean continueOnCorruptedChunk) throws IOException
+            boolean continueOnCorruptedChunk,
+            ExecutorService validator) throws IOException
     {
         try {
+            m_validator = validator;
             EELibraryLoader.loadExecutionEngineLibrary(true);
             if (relevantPartitionIds == null) {
                 m_relevantPartitionIds = null;
@@ -307,6 +324,14 @@ public class TableSaveFile
             }
         }
         synchronized (this) {
+            // Wait for any outstanding validations so that their buffers come back
+            while (m_pendingValidations > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
             while (!m_availableChunks.isEmpty()) {
                 m_availableChunks.poll().discard();
             }
@@ -325,7 +350,7 @@ public class TableSaveFile
     // Will get the next chunk of the table that is just over the chunk size
     public synchronized BBContainer getNextChunk() throws IOException
     {
-        if (!m_hasMoreChunks) {
+        if (!m_hasMoreChunks && m_pendingValidations == 0) {
             return m_availableChunks.poll();
         }
 
@@ -336,7 +361,7 @@ public class TableSaveFile
         }
 
         Container c = null;
-        while (c == null && (m_hasMoreChunks || !m_availableChunks.isEmpty())) {
+        while (c == null && (m_hasMoreChunks || m_pendingValidations > 0 || !m_availableChunks.isEmpty())) {
             c = m_availableChunks.poll();
             if (c == null) {
                 try {
@@ -357,7 +382,7 @@ public class TableSaveFile
 
     public synchronized boolean hasMoreChunks()
     {
-        return m_hasMoreChunks || !m_availableChunks.isEmpty();
+        return m_hasMoreChunks || m_pendingValidations > 0 || !m_availableChunks.isEmpty();
     }
 //
 //    /**
@@ -406,7 +431,7 @@ public class TableSaveFile
     private final int m_partitionIds[];
     private final int m_totalPartitions;
     private final long m_createTime;
-    private boolean m_hasMoreChunks = true;
+    private volatile boolean m_hasMoreChunks = true;
     private static ConcurrentLinkedQueue<Container> m_buffers = new ConcurrentLinkedQueue<Container>();
     private final ArrayDeque<Container> m_availableChunks = new ArrayDeque<Container>();
     private final HashSet<Integer> m_relevantPartitionIds;
@@ -415,7 +440,7 @@ public class TableSaveFile
      * Maintain a list of corrupted partitions. It is possible for uncorrupted partitions
      * to be recovered from a save file in the future
      */
-    private final HashSet<Integer> m_corruptedPartitions = new HashSet<Integer>();
+    private final Set<Integer> m_corruptedPartitions = Collections.synchronizedSet(new HashSet<Integer>());
 
     /**
      * Ignore corrupted chunks and continue validation of the rest of the chunks.
@@ -427,6 +452,17 @@ public class TableSaveFile
      */
     private final Semaphore m_chunkReads;
 
+    /**
+     * Optional thread pool used to validate chunks off of the reader thread
+     */
+    private final ExecutorService m_validator;
+
+    /**
+     * Number of chunks that were handed to the validator and haven't come back yet.
+     * Protected by the TableSaveFile's monitor.
+     */
+    private int m_pendingValidations = 0;
+
     private ChunkReader m_chunkReader = null;
     private Thread m_chunkReaderThread = null;
     private IOException m_chunkReaderException = null;
@@ -562,60 +598,44 @@ public class TableSaveFile
                         }
                     }
 
-                    /*
-                     * Validate the rest of the chunk. This can fail if the data is corrupted
-                     * or the length value was corrupted.
-                     */
-                    final int calculatedCRC = DBBPool.getBufferCRC32(c.b, c.b.position(), c.b.remaining());
-                    if (calculatedCRC != nextChunkCRC) {
-                        m_corruptedPartitions.add(nextChunkPartitionId);
-                        if (m_continueOnCorruptedChunk) {
-                            c.discard();
-                            m_chunkReads.release();
-                            continue;
-                        } else {
-                            throw new IOException("CRC mismatch in saved table chunk");
-                        }
-                    }
-
-                    /*
-                     * Skip irrelevant chunks after CRC is calculated. Always calulate the CRC
-                     * in case it is the length value that is corrupted
-                     */
-                    if (m_relevantPartitionIds != null) {
-                        if (!m_relevantPartitionIds.contains(nextChunkPartitionId)) {
-                            c.discard();
-                            m_chunkReads.release();
-                            continue;
+                    ++chunksRead;
+                    if (m_validator == null) {
+                        validateChunk(c, nextChunkPartitionId, nextChunkCRC, rowCount, checksumStartPosition);
+                    } else {
+                        final Container fc = c;
+                        final int fPartitionId = nextChunkPartitionId;
+                        final int fCRC = nextChunkCRC;
+                        final int fRowCount = rowCount;
+                        final int fChecksumStartPosition = checksumStartPosition;
+                        synchronized (TableSaveFile.this) {
+                            m_pendingValidations++;
                         }
-                    }
-
-                    /*
-                     * The row count which was stored on disk at the end (and for the CRC calc)
-                     * is now moved to the appropriate place for the table serialization format.
-                     * Update the limit to reflect that.
-                     *
-                     * Surrounded in a try finally just in case there is overflow/underflow. Shouldn't
-                     * happen but I could be wrong.
-                     */
-                    boolean success = false;
-                    try {
-                        c.b.limit(c.b.limit() - 4);
-                        c.b.position(checksumStartPosition - 4);
-                        c.b.putInt(rowCount);
-                        c.b.position(0);
-                        success = true;
-                    } finally {
-                        if (!success) {
-                            for (int partitionId : m_partitionIds) {
-                                m_corruptedPartitions.add(partitionId);
+                        m_validator.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                IOException error = null;
+                                try {
+                                    validateChunk(fc, fPartitionId, fCRC, fRowCount, fChecksumStartPosition);
+                                } catch (IOException e) {
+                                    error = e;
+                                    fc.discard();
+                                } catch (RuntimeException e) {
+                                    error = new IOException(e);
+                                    fc.discard();
+                                } finally {
+                                    synchronized (TableSaveFile.this) {
+                                        if (error != null) {
+                                            m_hasMoreChunks = false;
+                                            if (m_chunkReaderException == null) {
+                                                m_chunkReaderException = error;
+                                            }
+                                        }
+                                        m_pendingValidations--;
+                                        TableSaveFile.this.notifyAll();
+                                    }
+                                }
                             }
-                        }
-                    }
-                    ++chunksRead;
-                    synchronized (TableSaveFile.this) {
-                        m_availableChunks.offer(c);
-                        TableSaveFile.this.notifyAll();
+                        });
                     }
                 } catch (EOFException eof) {
                     synchronized (TableSaveFile.this) {
@@ -649,6 +669,72 @@ public class TableSaveFile
                 }
             }
         }
+
+        /**
+         * Check the CRC of a chunk that was read off of the disk and then make it
+         * available to the consumers of this save file
+         */
+        private void validateChunk(Container c,
+                                   int nextChunkPartitionId,
+                                   int nextChunkCRC,
+                                   int rowCount,
+                                   int checksumStartPosition) throws IOException {
+            /*
+             * Validate the rest of the chunk. This can fail if the data is corrupted
+             * or the length value was corrupted.
+             */
+            final int calculatedCRC = DBBPool.getBufferCRC32(c.b, c.b.position(), c.b.remaining());
+            if (calculatedCRC != nextChunkCRC) {
+                m_corruptedPartitions.add(nextChunkPartitionId);
+                if (m_continueOnCorruptedChunk) {
+                    c.discard();
+                    m_chunkReads.release();
+                    return;
+                } else {
+                    throw new IOException("CRC mismatch in saved table chunk");
+                }
+            }
+
+            /*
+             * Skip irrelevant chunks after CRC is calculated. Always calulate the CRC
+             * in case it is the length value that is corrupted
+             */
+            if (m_relevantPartitionIds != null) {
+                if (!m_relevantPartitionIds.contains(nextChunkPartitionId)) {
+                    c.discard();
+                    m_chunkReads.release();
+                    return;
+                }
+            }
+
+            /*
+             * The row count which was stored on disk at the end (and for the CRC calc)
+             * is now moved to the appropriate place for the table serialization format.
+             * Update the limit to reflect that.
+             *
+             * Surrounded in a try finally just in case there is overflow/underflow. Shouldn't
+             * happen but I could be wrong.
+             */
+            boolean success = false;
+            try {
+                c.b.limit(c.b.limit() - 4);
+                c.b.position(checksumStartPosition - 4);
+                c.b.putInt(rowCount);
+                c.b.position(0);
+                success = true;
+            } finally {
+                if (!success) {
+                    for (int partitionId : m_partitionIds) {
+                        m_corruptedPartitions.add(partitionId);
+                    }
+                }
+            }
+            synchronized (TableSaveFile.this) {
+                m_availableChunks.offer(c);
+                TableSaveFile.this.notifyAll();
+            }
+        }
+
         @Override
         public void run() {
             try {
@@ -1,5 +1,6 @@
 package org.voltdb.utils;
 
+import java.math.BigDecimal;
 import java.util.Comparator;
 
 import org.voltdb.VoltTable;
@@ -39,37 +40,42 @@ public class VoltTableComparator implements Comparator<Object[]> {
             SortDirectionType dir = p.getSecond();
             assert (dir != SortDirectionType.INVALID);
 
-            switch (this.types[sort_idx]) {
-                case TINYINT:
-                    cmp = ((Byte) o1[col_idx]) - ((Byte) o2[col_idx]);
-                    break;
-                case SMALLINT:
-                    cmp = ((Short) o1[col_idx]) - ((Short) o2[col_idx]);
-                    break;
-                case INTEGER:
-                    cmp = ((Integer) o1[col_idx]) - ((Integer) o2[col_idx]);
-                    break;
-                case BIGINT:
-                    cmp = (int) (((Long) o1[col_idx]) - ((Long) o2[col_idx]));
-                    break;
-                case FLOAT:
-                    cmp = (int) (((Float) o1[col_idx]) - ((Float) o2[col_idx]));
-                    break;
-                case DECIMAL:
-                    cmp = (int) (((Double) o1[col_idx]) - ((Double) o2[col_idx]));
-                    break;
-                case STRING:
-                    cmp = ((String) o1[col_idx]).compareTo((String) o2[col_idx]);
-                    break;
-                case TIMESTAMP:
-                    cmp = ((TimestampType) o1[col_idx]).compareTo((TimestampType) o2[col_idx]);
-                    break;
-                case BOOLEAN:
-                    cmp = ((Boolean) o1[col_idx]).compareTo((Boolean) o2[col_idx]);
-                    break;
-                default:
-                    assert (false) : "Unsupported sorting column type " + this.types[sort_idx];
-            } // SWITCH
+            Object v1 = o1[col_idx];
+            Object v2 = o2[col_idx];
+            if (v1 == null || v2 == null) {
+                // NULLs always come first
+                cmp = (v1 == v2 ? 0 : (v1 == null ? -1 : 1));
+            } else {
+                switch (this.types[sort_idx]) {
+                    case TINYINT:
+                    case SMALLINT:
+                    case INTEGER:
+                    case BIGINT: {
+                        long l1 = ((Number) v1).longValue();
+                        long l2 = ((Number) v2).longValue();
+                        cmp = (l1 < l2 ? -1 : (l1 == l2 ? 0 : 1));
+                        break;
+                    }
+                    case FLOAT:
+                        cmp = Double.compare(((Number) v1).doubleValue(), ((Number) v2).doubleValue());
+                        break;
+                    case DECIMAL:
+                        cmp = ((BigDecimal) v1).compareTo((BigDecimal) v2);
+                        break;
+                    case STRING:
+                        cmp = compareStrings((String) v1, (String) v2);
+                        break;
+                    case TIMESTAMP:
+                        cmp = ((TimestampType) v1).compareTo((TimestampType) v2);
+                        break;
+                    case BOOLEAN:
+                        cmp = ((Boolean) v1).compareTo((Boolean) v2);
+                        break;
+                    default:
+                        assert (false) : "Unsupported sorting column type " + this.types[sort_idx];
+                } // SWITCH
+            }
+            if (dir == SortDirectionType.DESC) cmp = -cmp;
             if (cmp != 0)
                 break;
             sort_idx++;
@@ -78,4 +84,28 @@ public class VoltTableComparator implements Comparator<Object[]> {
         // TODO: Handle duplicates!
         return (cmp);
     }
+
+    /**
+     * Compare two strings by their Unicode code points. This is the same order as
+     * comparing their UTF-8 bytes, which is what VoltTable.sort() and the EE use.
+     * String.compareTo() compares UTF-16 chars instead, which puts characters outside
+     * of the BMP before U+E000..U+FFFF.
+     * @param s0
+     * @param s1
+     * @return
+     */
+    public static int compareStrings(String s0, String s1) {
+        final int len0 = s0.length();
+        final int len1 = s1.length();
+        int i0 = 0;
+        int i1 = 0;
+        while (i0 < len0 && i1 < len1) {
+            final int c0 = s0.codePointAt(i0);
+            final int c1 = s1.codePointAt(i1);
+            if (c0 != c1) return (c0 - c1);
+            i0 += Character.charCount(c0);
+            i1 += Character.charCount(c1);
+        } // WHILE
+        return ((len0 - i0) - (len1 - i1));
+    }
 }
@@ -1,34 +1,96 @@
 package org.voltdb.utils;
 
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.PriorityQueue;
 
 import org.voltdb.VoltTable;
 import org.voltdb.types.SortDirectionType;
 
 public abstract class VoltTableUtil {
 
+    /**
+     * Returns a copy of the given VoltTable whose rows are sorted on the given columns.
+     * The rows are sorted directly in the copy's buffer (see {@link VoltTable#sort(Pair...)}),
+     * so this does not need to deserialize them.
+     * @param table
+     * @param cols
+     * @return
+     */
     public static VoltTable sort(VoltTable table, Pair<Integer, SortDirectionType>...cols) {
         if (cols.length == 0) return (table);
-        
-        Object rows[][] = new Object[table.getRowCount()][];
-        table.resetRowPosition();
-        int row_idx = -1;
-        while (table.advanceRow()) {
-            rows[++row_idx] = table.getRowArray();
-            assert(rows[row_idx] != null) : "Null row at " + row_idx;
+        VoltTable clone = table.copy();
+        clone.sort(cols);
+        return (clone);
+    }
+    
+    /**
+     * Merge multiple VoltTables that are each already sorted on the given columns
+     * into a single sorted VoltTable. This is a k-way merge, so it only needs to
+     * compare the head rows of each input table rather than re-sorting everything.
+     * Rows that are equal keep the order of the input tables.
+     * This assumes that all of the tables have the same schema
+     * @param tables
+     * @param cols
+     * @return
+     */
+    public static VoltTable merge(Collection<VoltTable> tables, Pair<Integer, SortDirectionType>...cols) {
+        VoltTable result = null;
+        PriorityQueue<MergeCursor> queue = new PriorityQueue<MergeCursor>(Math.max(1, tables.size()));
+        VoltTableComparator comparator = null;
+        int run = 0;
+        for (VoltTable vt : tables) {
+            if (vt == null) continue;
+            if (result == null) {
+                result = new VoltTable(vt);
+                comparator = new VoltTableComparator(vt, cols);
+            }
+            vt.resetRowPosition();
+            MergeCursor cursor = new MergeCursor(vt, run++, comparator, cols);
+            if (cursor.advance()) queue.add(cursor);
         } // FOR
         
-        VoltTableComparator comparator = new VoltTableComparator(table, cols);
-        Arrays.sort(rows, comparator);
+        MergeCursor cursor = null;
+        while ((cursor = queue.poll()) != null) {
+            result.add(cursor.table);
+            if (cursor.advance()) queue.add(cursor);
+        } // WHILE
+        return (result);
+    }
+    
+    /**
+     * The current position in one of the input tables for merge()
+     * We only copy out the values for the sort columns of each row
+     */
+    private static final class MergeCursor implements Comparable<MergeCursor> {
+        private final VoltTable table;
+        private final int run;
+        private final VoltTableComparator comparator;
+        private final Pair<Integer, SortDirectionType> cols[];
+        private final Object keys[];
+        
+        private MergeCursor(VoltTable table, int run, VoltTableComparator comparator, Pair<Integer, SortDirectionType> cols[]) {
+            this.table = table;
+            this.run = run;
+            this.comparator = comparator;
+            this.cols = cols;
+            this.keys = new Object[table.getColumnCount()];
+        }
         
-        VoltTable clone = new VoltTable(table);
-        for (int i = 0; i < rows.length; i++) {
-            clone.addRow(rows[i]);
-        } // FOR
+        private boolean advance() {
+            if (this.table.advanceRow() == false) return (false);
+            for (Pair<Integer, SortDirectionType> p : this.cols) {
+                int col_idx = p.getFirst().intValue();
+                this.keys[col_idx] = this.table.get(col_idx, this.table.getColumnType(col_idx));
+            } // FOR
+            return (true);
+        }
         
-        return (clone);
-    }
+        @Override
+        public int compareTo(MergeCursor other) {
+            int cmp = this.comparator.compare(this.keys, other.keys);
+            return (cmp != 0 ? cmp : this.run - other.run);
+        }
+    } // CLASS
     
     /**
      * Combine multiple VoltTables into a single object
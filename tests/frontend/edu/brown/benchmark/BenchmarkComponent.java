@@ -94,6 +94,7 @@ import edu.brown.designer.partitioners.plan.PartitionPlan;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.statistics.Histogram;
+import edu.brown.statistics.LatencyHistogram;
 import edu.brown.statistics.TableStatistics;
 import edu.brown.statistics.WorkloadStatistics;
 import edu.brown.utils.ArgumentsParser;
@@ -678,6 +679,8 @@ public abstract class BenchmarkComponent {
         if (status == Status.OK || status == Status.ABORT_USER) {
             m_txnStats.basePartitions.put(cresponse.getBasePartition());
             m_txnStats.transactions.put(m_countDisplayNames[txn_idx]);
+            LatencyHistogram latencies = m_txnStats.latencies.get(m_countDisplayNames[txn_idx]);
+            if (latencies != null) latencies.record(cresponse.getClientRoundtripMicros());
         }
     }
 
@@ -998,6 +1001,7 @@ public abstract class BenchmarkComponent {
         if (m_countDisplayNames != null) {
             for (String txnName : m_countDisplayNames) {
                 m_txnStats.transactions.put(txnName, 0);
+                m_txnStats.latencies.put(txnName, new LatencyHistogram());
             } // FOR
         }
         
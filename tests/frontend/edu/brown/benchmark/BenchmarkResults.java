@@ -38,6 +38,7 @@ import org.voltdb.utils.Pair;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.statistics.Histogram;
+import edu.brown.statistics.LatencyHistogram;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.JSONSerializable;
 import edu.brown.utils.JSONUtil;
@@ -86,6 +87,11 @@ public class BenchmarkResults {
         public long maxTxnCount;
         public double maxTxnPerSecond;
         public double stddevTxnPerSecond;
+        public double totalLatencyP50;
+        public double totalLatencyP95;
+        public double totalLatencyP99;
+        public double totalLatencyP999;
+        public double totalLatencyMax;
         public final Map<String, EntityResult> txnResults = new HashMap<String, EntityResult>();
         public final Map<String, EntityResult> clientResults = new HashMap<String, EntityResult>();
         
@@ -140,14 +146,42 @@ public class BenchmarkResults {
             this.minTxnPerSecond = this.minTxnCount / interval;
             this.maxTxnPerSecond = this.maxTxnCount / interval;
             
+            // LATENCIES
+            LatencyHistogram totalLatencies = new LatencyHistogram();
+            Map<String, LatencyHistogram> txnLatencies = new HashMap<String, LatencyHistogram>();
+            Map<String, LatencyHistogram> clientLatencies = new HashMap<String, LatencyHistogram>();
+            for (String client : results.getClientNames()) {
+                LatencyHistogram clientLatency = new LatencyHistogram();
+                clientLatencies.put(client, clientLatency);
+                for (String txn : results.getTransactionNames()) {
+                    LatencyHistogram txnLatency = txnLatencies.get(txn);
+                    if (txnLatency == null) {
+                        txnLatency = new LatencyHistogram();
+                        txnLatencies.put(txn, txnLatency);
+                    }
+                    LatencyHistogram h = results.getLatenciesForClientAndTransaction(client, txn);
+                    if (h == null) continue;
+                    txnLatency.add(h);
+                    clientLatency.add(h);
+                    totalLatencies.add(h);
+                } // FOR
+            } // FOR
+            this.totalLatencyP50 = EntityResult.toMillis(totalLatencies.getValueAtPercentile(50));
+            this.totalLatencyP95 = EntityResult.toMillis(totalLatencies.getValueAtPercentile(95));
+            this.totalLatencyP99 = EntityResult.toMillis(totalLatencies.getValueAtPercentile(99));
+            this.totalLatencyP999 = EntityResult.toMillis(totalLatencies.getValueAtPercentile(99.9));
+            this.totalLatencyMax = EntityResult.toMillis(totalLatencies.getMax());
+            
             // TRANSACTIONS
             for (String transactionName : txnCounts.values()) {
                 EntityResult er = new EntityResult(this.totalTxnCount, this.duration, txnCounts.get(transactionName));
+                if (txnLatencies.containsKey(transactionName)) er.setLatencies(txnLatencies.get(transactionName));
                 this.txnResults.put(transactionName, er);
             }
             // CLIENTS
             for (String clientName : results.getClientNames()) {
                 EntityResult er = new EntityResult(this.totalTxnCount, this.duration, clientCounts.get(clientName));
+                er.setLatencies(clientLatencies.get(clientName));
                 this.clientResults.put(clientName.replace("client-", ""), er);
             } // FOR
         }
@@ -176,6 +210,21 @@ public class BenchmarkResults {
         public double getStandardDeviationTxnPerSecond() {
             return this.stddevTxnPerSecond;
         }
+        public double getTotalLatencyP50() {
+            return this.totalLatencyP50;
+        }
+        public double getTotalLatencyP95() {
+            return this.totalLatencyP95;
+        }
+        public double getTotalLatencyP99() {
+            return this.totalLatencyP99;
+        }
+        public double getTotalLatencyP999() {
+            return this.totalLatencyP999;
+        }
+        public double getTotalLatencyMax() {
+            return this.totalLatencyMax;
+        }
         public Collection<String> getTransactionNames() {
             return this.txnResults.keySet();
         }
@@ -218,6 +267,12 @@ public class BenchmarkResults {
         public double txnPercentage;
         public double txnPerMilli;
         public double txnPerSecond;
+        // Client-side round trip latencies (milliseconds)
+        public double latencyP50;
+        public double latencyP95;
+        public double latencyP99;
+        public double latencyP999;
+        public double latencyMax;
         
         public EntityResult(long totalTxnCount, long duration, long txnCount) {
             this.txnCount = txnCount;
@@ -244,6 +299,33 @@ public class BenchmarkResults {
         public double getTxnPerSecond() {
             return this.txnPerSecond;
         }
+        public double getLatencyP50() {
+            return this.latencyP50;
+        }
+        public double getLatencyP95() {
+            return this.latencyP95;
+        }
+        public double getLatencyP99() {
+            return this.latencyP99;
+        }
+        public double getLatencyP999() {
+            return this.latencyP999;
+        }
+        public double getLatencyMax() {
+            return this.latencyMax;
+        }
+        
+        protected void setLatencies(LatencyHistogram h) {
+            this.latencyP50 = toMillis(h.getValueAtPercentile(50));
+            this.latencyP95 = toMillis(h.getValueAtPercentile(95));
+            this.latencyP99 = toMillis(h.getValueAtPercentile(99));
+            this.latencyP999 = toMillis(h.getValueAtPercentile(99.9));
+            this.latencyMax = toMillis(h.getMax());
+        }
+        
+        protected static double toMillis(long micros) {
+            return (micros / 1000d);
+        }
         
         // ----------------------------------------------------------------------------
         // SERIALIZATION METHODS
@@ -275,6 +357,11 @@ public class BenchmarkResults {
      */
     private final SortedMap<String, SortedMap<String, List<Result>>> m_data = new TreeMap<String, SortedMap<String, List<Result>>>();
     private final Set<Error> m_errors = new HashSet<Error>();
+    
+    /**
+     * ClientName -> TxnName -> Cumulative LatencyHistogram from the last poll
+     */
+    private final SortedMap<String, Map<String, LatencyHistogram>> m_latencies = new TreeMap<String, Map<String, LatencyHistogram>>();
 
     private final long m_durationInMillis;
     private final long m_pollIntervalInMillis;
@@ -366,6 +453,18 @@ public class BenchmarkResults {
         return retval;
     }
     
+    /**
+     * Return the latest client-side latencies for the given client and transaction.
+     * May be null if the client never reported any latencies
+     * @param clientName
+     * @param transactionName
+     * @return
+     */
+    public LatencyHistogram getLatenciesForClientAndTransaction(String clientName, String transactionName) {
+        Map<String, LatencyHistogram> txnLatencies = m_latencies.get(clientName);
+        return (txnLatencies != null ? txnLatencies.get(transactionName) : null);
+    }
+    
     public double[] computeIntervalTotals() {
         double results[] = new double[this.completedIntervals];
         Arrays.fill(results, 0d);
@@ -454,6 +553,13 @@ public class BenchmarkResults {
                 Result r = new Result(offsetTime, tc.transactions.get(txnName));
                 results.add(r);
             } // FOR
+            
+            // The clients send us their cumulative latencies, so we only need to keep the last one
+            // The TransactionCounter gets reused for the next poll, so we need our own copy
+            if (tc.latencies.isEmpty() == false) {
+                m_latencies.put(clientName, tc.copy().latencies);
+            }
+            
             this.clientResultCount.put(clientName);
             if (debug.get())
                 LOG.debug(String.format("New Result for '%s' => %d [minCount=%d]",
@@ -475,6 +581,13 @@ public class BenchmarkResults {
         clone.m_transactionNames.addAll(m_transactionNames);
         clone.completedIntervals = this.completedIntervals;
         clone.clientResultCount.putHistogram(this.clientResultCount);
+        for (Entry<String, Map<String, LatencyHistogram>> entry : m_latencies.entrySet()) {
+            Map<String, LatencyHistogram> txnLatencies = new HashMap<String, LatencyHistogram>();
+            for (Entry<String, LatencyHistogram> entry2 : entry.getValue().entrySet()) {
+                txnLatencies.put(entry2.getKey(), entry2.getValue().copy());
+            } // FOR
+            clone.m_latencies.put(entry.getKey(), txnLatencies);
+        } // FOR
 
         for (Entry<String, SortedMap<String, List<Result>>> entry : m_data.entrySet()) {
             SortedMap<String, List<Result>> txnsForClient = new TreeMap<String, List<Result>>();
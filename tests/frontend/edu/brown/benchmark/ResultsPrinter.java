@@ -44,8 +44,11 @@ public class ResultsPrinter implements BenchmarkController.BenchmarkInterest {
         "(%5.1f%%)",
         "%8.2f txn/s",
         "%10.2f txn/m",
+        "%s ms",
     };
     
+    private static final String LATENCY_FORMAT = "%.2f / %.2f / %.2f / %.2f / %.2f";
+    
     private static final String RESULT_FORMAT = "%.2f";
     
     protected final boolean output_clients;
@@ -78,6 +81,10 @@ public class ResultsPrinter implements BenchmarkController.BenchmarkInterest {
         m.put("Execution Time", String.format("%d ms", fr.getDuration()));
         m.put("Total Transactions", fr.getTotalTxnCount());
         m.put("Throughput", inner.toString()); 
+        m.put("Latency (p50/p95/p99/p99.9/max)",
+              String.format(LATENCY_FORMAT + " ms\n",
+                            fr.getTotalLatencyP50(), fr.getTotalLatencyP95(), fr.getTotalLatencyP99(),
+                            fr.getTotalLatencyP999(), fr.getTotalLatencyMax()));
         
         sb.append(StringUtil.formatMaps(m));
         
@@ -96,6 +103,7 @@ public class ResultsPrinter implements BenchmarkController.BenchmarkInterest {
             rows[row_idx][col_idx++] = String.format(COL_FORMATS[col_idx-1], er.getTxnPercentage());
             rows[row_idx][col_idx++] = String.format(COL_FORMATS[col_idx-1], er.getTxnPerMilli());
             rows[row_idx][col_idx++] = String.format(COL_FORMATS[col_idx-1], er.getTxnPerSecond());
+            rows[row_idx][col_idx++] = String.format(COL_FORMATS[col_idx-1], this.formatLatencies(er));
             row_idx++;
         } // FOR
 
@@ -115,6 +123,7 @@ public class ResultsPrinter implements BenchmarkController.BenchmarkInterest {
                 rows[row_idx][col_idx++] = String.format(COL_FORMATS[col_idx-1], er.getTxnPercentage());
                 rows[row_idx][col_idx++] = String.format(COL_FORMATS[col_idx-1], er.getTxnPerMilli());
                 rows[row_idx][col_idx++] = String.format(COL_FORMATS[col_idx-1], er.getTxnPerSecond());
+                rows[row_idx][col_idx++] = String.format(COL_FORMATS[col_idx-1], this.formatLatencies(er));
                 row_idx++;
             } // FOR
         }
@@ -136,6 +145,11 @@ public class ResultsPrinter implements BenchmarkController.BenchmarkInterest {
         return (sb.toString());
     }
     
+    private String formatLatencies(EntityResult er) {
+        return (String.format(LATENCY_FORMAT, er.getLatencyP50(), er.getLatencyP95(), er.getLatencyP99(),
+                                              er.getLatencyP999(), er.getLatencyMax()));
+    }
+    
     @Override
     public void benchmarkHasUpdated(BenchmarkResults results) {
         Pair<Long, Long> p = results.computeTotalAndDelta();
@@ -1,6 +1,8 @@
 package edu.brown.benchmark;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -8,6 +10,7 @@ import org.json.JSONStringer;
 import org.voltdb.catalog.Database;
 
 import edu.brown.statistics.Histogram;
+import edu.brown.statistics.LatencyHistogram;
 import edu.brown.utils.JSONSerializable;
 import edu.brown.utils.JSONUtil;
 
@@ -15,17 +18,30 @@ public class TransactionCounter implements JSONSerializable {
     
     public Histogram<Integer> basePartitions = new Histogram<Integer>(true);
     public Histogram<String> transactions = new Histogram<String>(true);
+    
+    /**
+     * TransactionName -> Client-side round trip latencies (microseconds)
+     * The entries must be added before the benchmark starts so that
+     * the map is never modified while it is being serialized
+     */
+    public Map<String, LatencyHistogram> latencies = new HashMap<String, LatencyHistogram>();
 
     public TransactionCounter copy() {
         TransactionCounter copy = new TransactionCounter();
         copy.basePartitions.putHistogram(this.basePartitions);
         copy.transactions.putHistogram(this.transactions);
+        for (Map.Entry<String, LatencyHistogram> e : this.latencies.entrySet()) {
+            copy.latencies.put(e.getKey(), e.getValue().copy());
+        } // FOR
         return (copy);
     }
     
     public void clear() {
         this.basePartitions.clearValues();
         this.transactions.clearValues();
+        for (LatencyHistogram h : this.latencies.values()) {
+            h.clear();
+        } // FOR
     }
     
     // ----------------------------------------------------------------------------
@@ -0,0 +1,156 @@
+package edu.brown.catalog;
+
+import org.voltdb.benchmark.tpcc.procedures.neworder;
+import org.voltdb.catalog.Catalog;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Partition;
+import org.voltdb.catalog.PlanFragment;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.Table;
+
+import edu.brown.BaseTestCase;
+import edu.brown.utils.ProjectType;
+
+public class TestRuntimeCatalog extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 6;
+
+    private RuntimeCatalog runtime_catalog;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TPCC);
+        this.addPartitions(NUM_PARTITIONS);
+        this.runtime_catalog = new RuntimeCatalog(catalog_db);
+    }
+
+    /**
+     * testProcedures
+     */
+    public void testProcedures() throws Exception {
+        assertTrue(this.runtime_catalog.isDense());
+        assertEquals(catalog_db.getProcedures().size(), this.runtime_catalog.getProcedures().length);
+        for (Procedure catalog_proc : catalog_db.getProcedures()) {
+            assertEquals(catalog_proc, this.runtime_catalog.getProcedure(catalog_proc.getId()));
+            assertEquals(catalog_proc, this.runtime_catalog.getProcedure(catalog_proc.getName()));
+            assertEquals(catalog_proc, this.runtime_catalog.getProcedure(catalog_proc.getName().toUpperCase()));
+            assertEquals(catalog_proc, this.runtime_catalog.getProcedure(-1, catalog_proc.getName()));
+        } // FOR
+        assertNull(this.runtime_catalog.getProcedure("XXX"));
+        assertNull(this.runtime_catalog.getProcedure(Integer.MAX_VALUE));
+        assertNull(this.runtime_catalog.getProcedure(-1));
+    }
+
+    /**
+     * testProcedureIdMismatch
+     */
+    public void testProcedureIdMismatch() throws Exception {
+        Procedure procs[] = this.runtime_catalog.getProcedures();
+        assertTrue(procs.length > 1);
+        for (int i = 0; i < procs.length; i++) {
+            // Send the id of a different procedure with a valid name
+            Procedure other = procs[(i + 1) % procs.length];
+            assertEquals(procs[i], this.runtime_catalog.getProcedure(other.getId(), procs[i].getName()));
+            assertEquals(i + 1, this.runtime_catalog.getProcedureIdMismatches());
+        } // FOR
+        
+        // Ids that match their names should not be counted
+        long mismatches = this.runtime_catalog.getProcedureIdMismatches();
+        for (Procedure catalog_proc : procs) {
+            assertEquals(catalog_proc, this.runtime_catalog.getProcedure(catalog_proc.getId(), catalog_proc.getName().toUpperCase()));
+        } // FOR
+        assertEquals(mismatches, this.runtime_catalog.getProcedureIdMismatches());
+        
+        // A wrong id with an invalid name should not match anything
+        assertNull(this.runtime_catalog.getProcedure(procs[0].getId(), "XXX"));
+    }
+
+    /**
+     * testStatementsAndFragments
+     */
+    public void testStatementsAndFragments() throws Exception {
+        int num_frags = 0;
+        for (Procedure catalog_proc : catalog_db.getProcedures()) {
+            for (Statement catalog_stmt : catalog_proc.getStatements()) {
+                assertEquals(catalog_stmt, this.runtime_catalog.getStatement(catalog_stmt.getId()));
+                for (PlanFragment catalog_frag : catalog_stmt.getFragments()) {
+                    assertEquals(catalog_frag, this.runtime_catalog.getPlanFragment(catalog_frag.getId()));
+                    num_frags++;
+                } // FOR
+                for (PlanFragment catalog_frag : catalog_stmt.getMs_fragments()) {
+                    assertEquals(catalog_frag, this.runtime_catalog.getPlanFragment(catalog_frag.getId()));
+                    num_frags++;
+                } // FOR
+            } // FOR
+        } // FOR
+        assertEquals(num_frags, this.runtime_catalog.getPlanFragments().length);
+
+        // Make sure that we don't match fragment ids that only differ by their flags
+        Procedure catalog_proc = this.getProcedure(neworder.class);
+        for (Statement catalog_stmt : catalog_proc.getStatements()) {
+            for (PlanFragment catalog_frag : catalog_stmt.getFragments()) {
+                int bad_id = catalog_frag.getId() ^ (1 << 18);
+                assertNull(this.runtime_catalog.getPlanFragment(bad_id));
+            } // FOR
+        } // FOR
+    }
+
+    /**
+     * testTablesAndColumns
+     */
+    public void testTablesAndColumns() throws Exception {
+        for (Table catalog_tbl : catalog_db.getTables()) {
+            int table_id = catalog_tbl.getRelativeIndex();
+            assertEquals(catalog_tbl, this.runtime_catalog.getTable(table_id));
+            assertEquals(catalog_tbl, this.runtime_catalog.getTable(catalog_tbl.getName().toLowerCase()));
+            for (Column catalog_col : catalog_tbl.getColumns()) {
+                assertEquals(catalog_col, this.runtime_catalog.getColumn(table_id, catalog_col.getIndex()));
+            } // FOR
+            assertNull(this.runtime_catalog.getColumn(table_id, catalog_tbl.getColumns().size()));
+
+            assertEquals(catalog_tbl.getIsreplicated(), this.runtime_catalog.isReplicated(table_id));
+            if (catalog_tbl.getIsreplicated()) {
+                assertNull(this.runtime_catalog.getPartitionColumn(table_id));
+            } else {
+                assertEquals(catalog_tbl.getPartitioncolumn(), this.runtime_catalog.getPartitionColumn(table_id));
+            }
+        } // FOR
+        assertNull(this.runtime_catalog.getTable("XXX"));
+    }
+
+    /**
+     * testPartitions
+     */
+    public void testPartitions() throws Exception {
+        assertEquals(NUM_PARTITIONS, this.runtime_catalog.getNumberOfPartitions());
+        for (Partition catalog_part : CatalogUtil.getAllPartitions(catalog_db)) {
+            assertEquals(catalog_part, this.runtime_catalog.getPartition(catalog_part.getId()));
+            Site catalog_site = catalog_part.getParent();
+            assertEquals(catalog_site.getId(), this.runtime_catalog.getSiteIdForPartitionId(catalog_part.getId()));
+        } // FOR
+    }
+
+    /**
+     * testIsStale
+     */
+    public void testIsStale() throws Exception {
+        // Load a copy of the catalog the same way that an HStoreSite would
+        Catalog clone_catalog = new Catalog();
+        clone_catalog.execute(catalog.serialize());
+        Database clone_db = CatalogUtil.getDatabase(clone_catalog);
+        RuntimeCatalog clone_runtime = new RuntimeCatalog(clone_db);
+        assertFalse(clone_runtime.isStale());
+
+        Table catalog_tbl = clone_db.getTables().get("WAREHOUSE");
+        assertNotNull(catalog_tbl);
+        clone_catalog.execute("set " + catalog_tbl.getPath() + " estimatedtuplecount 1234");
+        assertTrue(clone_runtime.isStale());
+
+        RuntimeCatalog new_runtime = new RuntimeCatalog(clone_db);
+        assertFalse(new_runtime.isStale());
+        assertTrue(clone_runtime.getVersion() < new_runtime.getVersion());
+    }
+}
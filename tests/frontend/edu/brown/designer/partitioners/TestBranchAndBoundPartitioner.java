@@ -148,4 +148,57 @@ public class TestBranchAndBoundPartitioner extends BasePartitionerTestCase {
         assert(best_vertex.getCost() > 0) : best_vertex.getCost();
         assert(best_vertex.getMemory() > 0) : best_vertex.getMemory();
     }
+    
+    /**
+     * testParallelSearch
+     */
+    public void testParallelSearch() throws Exception {
+        List<Procedure> proc_visit_order = new ArrayList<Procedure>();
+        List<Table> table_visit_order = new ArrayList<Table>();
+        
+        // Same setup as testTraverse, except that we let generate() split
+        // the search across multiple threads
+        Map<Table, Column> expected = new HashMap<Table, Column>();
+        for (String table_name : new String[]{ TM1Constants.TABLENAME_SPECIAL_FACILITY, TM1Constants.TABLENAME_CALL_FORWARDING }) {
+            Table catalog_tbl = this.getTable(table_name);
+            Column catalog_col = this.getColumn(catalog_tbl, -1);
+            catalog_tbl.setPartitioncolumn(catalog_col);
+            table_visit_order.add(catalog_tbl);
+            expected.put(catalog_tbl, this.getColumn(catalog_tbl, "S_ID"));
+        } // FOR
+        
+        PartitionPlan ub_pplan = PartitionPlan.createFromCatalog(catalog_db);
+        assertNotNull(ub_pplan);
+        this.partitioner.setUpperBounds(hints, ub_pplan, Double.MAX_VALUE, 1000l);
+        
+        hints.enable_multi_partitioning = false;
+        hints.enable_replication_readmostly = false;
+        hints.enable_replication_readonly = false;
+        hints.enable_procparameter_search = false;
+        hints.max_memory_per_partition = Long.MAX_VALUE;
+        hints.search_threads = 2;
+        this.partitioner.setParameters(agraph, table_visit_order, proc_visit_order);
+        
+        PartitionPlan pplan = this.partitioner.generate(this.hints);
+        assertNotNull(pplan);
+        
+        // The best solution should be the same one that we get with a single thread
+        StateVertex best_vertex = this.partitioner.getBestVertex();
+        assertNotNull(best_vertex);
+        Map<CatalogType, CatalogType> m = best_vertex.getCatalogMap(catalog_db);
+        for (Table t : expected.keySet()) {
+            assert(m.containsKey(t)) : "Missing " + t;
+            assertEquals(expected.get(t), m.get(t));
+            assertEquals(expected.get(t), t.getPartitioncolumn());
+        } // FOR
+        assert(best_vertex.getCost() > 0) : best_vertex.getCost();
+        
+        // And every thread should have gotten a piece of the search tree
+        List<Long> subtrees = this.partitioner.getLastSubtreeCounts();
+        assertNotNull(subtrees);
+        assertEquals(hints.search_threads, subtrees.size());
+        for (Long cnt : subtrees) {
+            assert(cnt > 0) : "Search was not split across threads: " + subtrees;
+        } // FOR
+    }
 }
\ No newline at end of file
@@ -5,11 +5,13 @@ package edu.brown.designer.partitioners;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.junit.Test;
+import org.voltdb.catalog.CatalogType;
 import org.voltdb.catalog.Column;
 import org.voltdb.catalog.Database;
 import org.voltdb.catalog.ProcParameter;
@@ -24,6 +26,7 @@ import edu.brown.catalog.CatalogKey;
 import edu.brown.catalog.CatalogUtil;
 import edu.brown.catalog.special.MultiColumn;
 import edu.brown.catalog.special.MultiProcParameter;
+import edu.brown.catalog.special.NullProcParameter;
 import edu.brown.costmodel.SingleSitedCostModel;
 import edu.brown.costmodel.TimeIntervalCostModel;
 import edu.brown.designer.Designer;
@@ -342,4 +345,107 @@ public class TestLNSPartitioner extends BasePartitionerTestCase {
 //        assertEquals(this.partitioner.initial_cost, new_cost);
         
     }
-}
\ No newline at end of file
+    
+    /**
+     * testRelaxAttributes
+     */
+    public void testRelaxAttributes() throws Exception {
+        Table relaxed_tbl = this.getTable(TM1Constants.TABLENAME_SUBSCRIBER);
+        Table fixed_tbl = this.getTable(TM1Constants.TABLENAME_SPECIAL_FACILITY);
+        Procedure relaxed_proc = this.getProcedure(UpdateSubscriberData.class);
+        Procedure fixed_proc = this.getProcedure(GetAccessData.class);
+        int orig_relaxed_param = relaxed_proc.getPartitionparameter();
+        int orig_fixed_param = fixed_proc.getPartitionparameter();
+        relaxed_proc.setPartitionparameter(0);
+        fixed_proc.setPartitionparameter(0);
+        
+        Map<CatalogType, CatalogType> orig_solution = null;
+        try {
+            orig_solution = LNSPartitioner.relaxAttributes(catalog_db, info.getCostModel(),
+                                                           Collections.singletonList(relaxed_tbl),
+                                                           Collections.singletonList(relaxed_proc));
+            // The relaxed procedures should not have a ProcParameter anymore
+            assertEquals(NullProcParameter.PARAM_IDX, relaxed_proc.getPartitionparameter());
+        } finally {
+            relaxed_proc.setPartitionparameter(orig_relaxed_param);
+        }
+        assertNotNull(orig_solution);
+        assertEquals(0, fixed_proc.getPartitionparameter());
+        
+        // And we should only remember the attributes of the things that weren't relaxed
+        assertFalse(orig_solution.containsKey(relaxed_tbl));
+        assertFalse(orig_solution.containsKey(relaxed_proc));
+        for (Table catalog_tbl : catalog_db.getTables()) {
+            if (catalog_tbl.equals(relaxed_tbl)) continue;
+            assertEquals(catalog_tbl.getPartitioncolumn(), orig_solution.get(catalog_tbl));
+        } // FOR
+        assertEquals(fixed_proc.getParameters().get(0), orig_solution.get(fixed_proc));
+        
+        // The search is allowed to change the relaxed table but nothing else
+        LNSPartitioner.validateRelaxation(catalog_db, orig_solution, null);
+        Column orig_col = fixed_tbl.getPartitioncolumn();
+        Column new_col = this.getColumn(fixed_tbl, -1);
+        assertFalse(new_col.equals(orig_col));
+        fixed_tbl.setPartitioncolumn(new_col);
+        boolean failed = false;
+        try {
+            LNSPartitioner.validateRelaxation(catalog_db, orig_solution, null);
+        } catch (AssertionError ex) {
+            failed = true;
+        } finally {
+            fixed_tbl.setPartitioncolumn(orig_col);
+            fixed_proc.setPartitionparameter(orig_fixed_param);
+        }
+        assertTrue("Failed to catch change to " + fixed_tbl, failed);
+    }
+    
+    /**
+     * testParallelLocalSearch
+     */
+    public void testParallelLocalSearch() throws Exception {
+        // Same as testLocalSearchCostCheck, except that we search multiple
+        // neighborhoods at once. There is no time to search, so every
+        // neighborhood should come back with the solution that we started with
+        hints.limit_local_time = 0;
+        hints.limit_total_time = 60;
+        hints.enable_procparameter_search = false;
+        hints.max_memory_per_partition = Long.MAX_VALUE;
+        hints.relaxation_neighborhoods = 2;
+        hints.startGlobalSearchTimer();
+        this.partitioner.init(this.hints);
+        this.partitioner.calculateInitialSolution(hints);
+        assert(this.partitioner.initial_cost > 0);
+        PartitionPlan orig_solution = new PartitionPlan(this.partitioner.initial_solution);
+        this.partitioner.best_solution = orig_solution;
+        this.partitioner.best_memory = this.partitioner.initial_memory;
+        this.partitioner.best_cost = this.partitioner.initial_cost;
+        this.partitioner.restart_ctr = 0;
+        
+        // The sanity check on the attributes that weren't relaxed happens inside
+        // of parallelLocalSearch(), so this will blow up if any of them changed
+        assertTrue(this.partitioner.parallelLocalSearch(hints));
+        int num_neighborhoods = this.partitioner.neighborhood_contexts.size();
+        assert(num_neighborhoods > 0);
+        assert(num_neighborhoods <= hints.relaxation_neighborhoods) : num_neighborhoods;
+        assertFalse(this.partitioner.last_halt_reason == AbstractPartitioner.HaltReason.NULL);
+        
+        for (Table tbl : catalog_db.getTables()) {
+            assertEquals(tbl.toString(), orig_solution.getTableEntry(tbl), this.partitioner.best_solution.getTableEntry(tbl)); 
+        } // FOR
+        
+        // Each neighborhood's catalog should have the same design that we started with
+        for (SearchContext ctx : this.partitioner.neighborhood_contexts) {
+            for (Table tbl : catalog_db.getTables()) {
+                if (tbl.getSystable()) continue;
+                Column expected = tbl.getPartitioncolumn();
+                Column actual = ctx.translate(tbl).getPartitioncolumn();
+                if (expected == null) {
+                    assertNull(ctx + " " + tbl, actual);
+                    continue;
+                }
+                assertNotNull(ctx + " " + tbl, actual);
+                assertEquals(ctx + " " + tbl, CatalogKey.createKey(expected), CatalogKey.createKey(actual));
+            } // FOR
+        } // FOR
+    }
+}
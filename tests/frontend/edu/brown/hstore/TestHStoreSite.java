@@ -4,14 +4,17 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import edu.brown.BaseTestCase;
 import edu.brown.benchmark.tm1.procedures.GetNewDestination;
 import edu.brown.catalog.CatalogUtil;
+import edu.brown.catalog.RuntimeCatalog;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.ProjectType;
@@ -29,8 +32,10 @@ import org.voltdb.ClientResponseImpl;
 import org.voltdb.StoredProcedureInvocation;
 import org.voltdb.VoltProcedure;
 import org.voltdb.VoltTable;
+import org.voltdb.catalog.Catalog;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Site;
+import org.voltdb.catalog.Table;
 import org.voltdb.client.Client;
 import org.voltdb.client.ClientFactory;
 import org.voltdb.client.ClientResponse;
@@ -93,6 +98,38 @@ public class TestHStoreSite extends BaseTestCase {
 //        hstore_site.shutdown();
     }
     
+    /**
+     * testRefreshRuntimeCatalog
+     */
+    @Test
+    public void testRefreshRuntimeCatalog() throws Exception {
+        // Use our own copy of the catalog so that we don't modify the one
+        // that is shared with the other test cases
+        Catalog clone_catalog = new Catalog();
+        clone_catalog.execute(catalog.serialize());
+        Site clone_site = CollectionUtil.first(CatalogUtil.getCluster(clone_catalog).getSites());
+        HStoreSite clone_hstore_site = new MockHStoreSite(clone_site, hstore_conf);
+        
+        RuntimeCatalog orig = clone_hstore_site.getRuntimeCatalog();
+        assertNotNull(orig);
+        assertFalse(clone_hstore_site.refreshRuntimeCatalog());
+        assertSame(orig, clone_hstore_site.getRuntimeCatalog());
+        
+        Table catalog_tbl = CollectionUtil.first(CatalogUtil.getDatabase(clone_catalog).getTables());
+        clone_catalog.execute("set " + catalog_tbl.getPath() + " estimatedtuplecount 1234");
+        assertTrue(orig.isStale());
+        assertTrue(clone_hstore_site.refreshRuntimeCatalog());
+        
+        RuntimeCatalog refreshed = clone_hstore_site.getRuntimeCatalog();
+        assertNotSame(orig, refreshed);
+        assertFalse(refreshed.isStale());
+        assertTrue(orig.getVersion() < refreshed.getVersion());
+        
+        // Nothing changed, so we should keep the new one
+        assertFalse(clone_hstore_site.refreshRuntimeCatalog());
+        assertSame(refreshed, clone_hstore_site.getRuntimeCatalog());
+    }
+    
     /**
      * testSendClientResponse
      */
@@ -118,6 +155,44 @@ public class TestHStoreSite extends BaseTestCase {
         assertEquals(cresponse.getClientHandle(), clone.getClientHandle());
     }
     
+    /**
+     * testSendClientResponses
+     */
+    @Test
+    public void testSendClientResponses() throws Exception {
+        Procedure catalog_proc = this.getProcedure(TARGET_PROCEDURE);
+        List<LocalTransaction> txns = new ArrayList<LocalTransaction>();
+        List<MockClientCallback> callbacks = new ArrayList<MockClientCallback>();
+        List<ClientResponseImpl> cresponses = new ArrayList<ClientResponseImpl>();
+        for (int i = 0; i < 3; i++) {
+            LocalTransaction next_ts = new LocalTransaction(hstore_site);
+            MockClientCallback next_callback = new MockClientCallback();
+            next_ts.init(2000l + i, CLIENT_HANDLE + i, BASE_PARTITION,
+                         Collections.singleton(BASE_PARTITION), true, true,
+                         catalog_proc, this.invocation, next_callback);
+            txns.add(next_ts);
+            callbacks.add(next_callback);
+            cresponses.add(new ClientResponseImpl(next_ts.getTransactionId(),
+                                                  next_ts.getClientHandle(),
+                                                  next_ts.getBasePartition(),
+                                                  (i == 1 ? Status.ABORT_USER : Status.OK),
+                                                  HStoreConstants.EMPTY_RESULT,
+                                                  ""));
+        } // FOR
+        hstore_site.sendClientResponses(txns, cresponses);
+        
+        // Every txn in the batch should get back its own ClientResponse
+        for (int i = 0; i < txns.size(); i++) {
+            byte serialized[] = callbacks.get(i).getResponse();
+            assertNotNull(txns.get(i).toString(), serialized);
+            ClientResponseImpl clone = FastDeserializer.deserialize(serialized, ClientResponseImpl.class);
+            assertNotNull(clone);
+            assertEquals(cresponses.get(i).getTransactionId(), clone.getTransactionId());
+            assertEquals(cresponses.get(i).getClientHandle(), clone.getClientHandle());
+            assertEquals(cresponses.get(i).getStatus(), clone.getStatus());
+        } // FOR
+    }
+    
 //    @Test
 //    public void testHStoreSite_AdHoc(){
 //    	this.hstore_site.run();
@@ -0,0 +1,239 @@
+package edu.brown.hstore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.voltdb.BackendTarget;
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.catalog.Catalog;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
+import org.voltdb.jni.MockExecutionEngine;
+import org.voltdb.messaging.InitiateTaskMessage;
+import org.voltdb.messaging.VoltMessage;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.GetSubscriberData;
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.dtxn.AbstractTransaction;
+import edu.brown.hstore.dtxn.LocalTransaction;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.PartitionEstimator;
+import edu.brown.utils.ProjectType;
+
+/**
+ * Batched execution of single-partition txns in PartitionExecutor
+ */
+public class TestPartitionExecutorBatch extends BaseTestCase {
+
+    private static final int NUM_PARTITONS = 10;
+    private static final int PARTITION_ID = 1;
+    private static final int NUM_TXNS = 5;
+
+    private static long NEXT_TXN_ID = 1000;
+
+    private BatchHStoreSite hstore_site;
+    private BatchPartitionExecutor executor;
+    private MockExecutionEngine ee;
+    private HStoreConf hstore_conf;
+    private Procedure catalog_proc;
+
+    /**
+     * Keeps track of the txns that the PartitionExecutor will look up when it
+     * pulls the next InitiateTaskMessage out of its queue, and holds on to the
+     * ClientResponses that it sends back
+     */
+    private static class BatchHStoreSite extends MockHStoreSite {
+        final Map<Long, LocalTransaction> txns = new HashMap<Long, LocalTransaction>();
+        final List<ClientResponseImpl> responses = new ArrayList<ClientResponseImpl>();
+
+        public BatchHStoreSite(Site catalog_site, HStoreConf hstore_conf) {
+            super(catalog_site, hstore_conf);
+        }
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T extends AbstractTransaction> T getTransaction(Long txn_id) {
+            return ((T)this.txns.get(txn_id));
+        }
+        @Override
+        public void queueClientResponse(LocalTransaction ts, ClientResponseImpl cr) {
+            this.responses.add(cr);
+        }
+    }
+
+    /**
+     * Instead of invoking the txn's stored procedure, we just give it an undoToken
+     * like it wrote something to the EE and then either commit or abort it
+     */
+    private static class BatchPartitionExecutor extends PartitionExecutor {
+        final Set<Long> aborts = new HashSet<Long>();
+        final List<Long> undoTokens = new ArrayList<Long>();
+        final List<Integer> releasedBefore = new ArrayList<Integer>();
+
+        public BatchPartitionExecutor(int partition_id, Catalog catalog, PartitionEstimator p_estimator) {
+            super(partition_id, catalog, BackendTarget.HSQLDB_BACKEND, p_estimator, null);
+        }
+        @Override
+        void processInitiateTaskMessage(LocalTransaction ts, InitiateTaskMessage itask) throws InterruptedException {
+            MockExecutionEngine ee = (MockExecutionEngine)this.getExecutionEngine();
+            this.releasedBefore.add(ee.releasedUndoTokens.size());
+
+            long undoToken = this.getNextUndoToken();
+            this.undoTokens.add(undoToken);
+            ts.fastInitRound(this.getPartitionId(), undoToken);
+            ts.setSubmittedEE(this.getPartitionId());
+
+            Status status = (this.aborts.contains(ts.getTransactionId()) ? Status.ABORT_USER : Status.OK);
+            ClientResponseImpl cresponse = new ClientResponseImpl(ts.getTransactionId(),
+                                                                  ts.getClientHandle(),
+                                                                  ts.getBasePartition(),
+                                                                  status,
+                                                                  HStoreConstants.EMPTY_RESULT,
+                                                                  "");
+            this.processClientResponse(ts, cresponse);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.addPartitions(NUM_PARTITONS);
+        this.catalog_proc = this.getProcedure(GetSubscriberData.class);
+
+        Site catalog_site = CollectionUtil.first(CatalogUtil.getCluster(catalog).getSites());
+        this.hstore_conf = HStoreConf.singleton();
+        this.hstore_conf.site.exec_batch_singlepartition = true;
+        this.hstore_conf.site.exec_batch_singlepartition_size = NUM_TXNS;
+        this.hstore_conf.site.exec_postprocessing_thread = true;
+
+        this.hstore_site = new BatchHStoreSite(catalog_site, this.hstore_conf);
+        this.executor = new BatchPartitionExecutor(PARTITION_ID, catalog, p_estimator);
+        this.executor.initHStoreSite(this.hstore_site);
+        this.hstore_site.addPartitionExecutor(PARTITION_ID, this.executor);
+        this.ee = (MockExecutionEngine)this.executor.getExecutionEngine();
+        assertNotNull(this.ee);
+    }
+
+    private LocalTransaction createTransaction() {
+        long txn_id = NEXT_TXN_ID++;
+        StoredProcedureInvocation invocation = new StoredProcedureInvocation(txn_id, this.catalog_proc.getName(), txn_id);
+        LocalTransaction ts = new LocalTransaction(this.hstore_site);
+        ts.init(txn_id, txn_id, PARTITION_ID,
+                Collections.singleton(PARTITION_ID), false, true,
+                this.catalog_proc, invocation, null);
+        this.hstore_site.txns.put(ts.getTransactionId(), ts);
+        return (ts);
+    }
+
+    /**
+     * Create NUM_TXNS single-partition txns and queue up all but the first one
+     * at the PartitionExecutor
+     */
+    private List<LocalTransaction> createBatch() {
+        List<LocalTransaction> txns = new ArrayList<LocalTransaction>();
+        for (int i = 0; i < NUM_TXNS; i++) {
+            LocalTransaction ts = this.createTransaction();
+            if (i > 0) assertTrue(this.executor.queueNewTransaction(ts));
+            txns.add(ts);
+        } // FOR
+        return (txns);
+    }
+
+    private VoltMessage executeBatch(List<LocalTransaction> txns) throws Exception {
+        LocalTransaction first = txns.get(0);
+        return (this.executor.processInitiateTaskBatch(first, first.getInitiateTaskMessage()));
+    }
+
+    /**
+     * testBatchReleaseUndoToken
+     */
+    public void testBatchReleaseUndoToken() throws Exception {
+        List<LocalTransaction> txns = this.createBatch();
+        assertNull(this.executeBatch(txns));
+        assertEquals(NUM_TXNS, this.executor.undoTokens.size());
+
+        // Nothing should have been released while the batch was running
+        for (Integer released : this.executor.releasedBefore) {
+            assertEquals(0, released.intValue());
+        } // FOR
+
+        // And then we only release the largest undoToken once at the end
+        assertEquals(1, this.ee.releasedUndoTokens.size());
+        assertEquals(CollectionUtil.last(this.executor.undoTokens), CollectionUtil.first(this.ee.releasedUndoTokens));
+        assertTrue(this.ee.undoneUndoTokens.isEmpty());
+
+        assertEquals(1, this.executor.getBatchCount());
+        assertEquals(NUM_TXNS, this.executor.getBatchTransactionCount());
+        assertEquals(NUM_TXNS, this.hstore_site.responses.size());
+        for (int i = 0; i < NUM_TXNS; i++) {
+            ClientResponseImpl cresponse = this.hstore_site.responses.get(i);
+            assertEquals(txns.get(i).getTransactionId().longValue(), cresponse.getTransactionId());
+            assertEquals(Status.OK, cresponse.getStatus());
+            assertTrue(txns.get(i).isFinishedEE(PARTITION_ID));
+        } // FOR
+
+        // The next batch should not release anything from the last one again
+        this.ee.releasedUndoTokens.clear();
+        this.executor.undoTokens.clear();
+        assertNull(this.executeBatch(this.createBatch()));
+        assertEquals(1, this.ee.releasedUndoTokens.size());
+        assertEquals(CollectionUtil.last(this.executor.undoTokens), CollectionUtil.first(this.ee.releasedUndoTokens));
+    }
+
+    /**
+     * testBatchAbort
+     */
+    public void testBatchAbort() throws Exception {
+        List<LocalTransaction> txns = this.createBatch();
+        int abort_idx = NUM_TXNS / 2;
+        LocalTransaction abort_ts = txns.get(abort_idx);
+        this.executor.aborts.add(abort_ts.getTransactionId());
+        assertNull(this.executeBatch(txns));
+        assertEquals(NUM_TXNS, this.executor.undoTokens.size());
+
+        // Only the aborted txn's undoToken should get rolled back. The EE only rolls back
+        // the quanta at or after the token, so the txns that came before it are still there
+        assertEquals(1, this.ee.undoneUndoTokens.size());
+        assertEquals(this.executor.undoTokens.get(abort_idx), CollectionUtil.first(this.ee.undoneUndoTokens));
+
+        // The txns that committed after it get released along with everybody else
+        assertEquals(1, this.ee.releasedUndoTokens.size());
+        assertEquals(CollectionUtil.last(this.executor.undoTokens), CollectionUtil.first(this.ee.releasedUndoTokens));
+
+        assertEquals(NUM_TXNS, this.hstore_site.responses.size());
+        for (int i = 0; i < NUM_TXNS; i++) {
+            ClientResponseImpl cresponse = this.hstore_site.responses.get(i);
+            assertEquals(txns.get(i).getTransactionId().longValue(), cresponse.getTransactionId());
+            assertEquals((i == abort_idx ? Status.ABORT_USER : Status.OK), cresponse.getStatus());
+        } // FOR
+    }
+
+    /**
+     * testBatchStopsAtNonBatchable
+     */
+    public void testBatchStopsAtNonBatchable() throws Exception {
+        List<LocalTransaction> txns = this.createBatch();
+
+        // If the PartitionExecutor doesn't know about the txn, then the batch has to end
+        // and it needs to hand the message back so that it can get processed normally
+        int stop_idx = 2;
+        this.hstore_site.txns.remove(txns.get(stop_idx).getTransactionId());
+        VoltMessage next = this.executeBatch(txns);
+        assertNotNull(next);
+        assertEquals(txns.get(stop_idx).getInitiateTaskMessage(), next);
+
+        assertEquals(stop_idx, this.executor.undoTokens.size());
+        assertEquals(stop_idx, this.hstore_site.responses.size());
+        assertEquals(1, this.ee.releasedUndoTokens.size());
+        assertEquals(CollectionUtil.last(this.executor.undoTokens), CollectionUtil.first(this.ee.releasedUndoTokens));
+        assertFalse(txns.get(stop_idx).isFinishedEE(PARTITION_ID));
+    }
+}
@@ -0,0 +1,193 @@
+package edu.brown.hstore;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.voltdb.messaging.FragmentTaskMessage;
+import org.voltdb.messaging.InitiateTaskMessage;
+import org.voltdb.messaging.PotentialSnapshotWorkMessage;
+import org.voltdb.messaging.TransactionInfoBaseMessage;
+import org.voltdb.messaging.VoltMessage;
+
+public class TestPartitionExecutorQueue extends TestCase {
+
+    private PartitionExecutorQueue queue;
+    private long nextTxnId = 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.queue = new PartitionExecutorQueue();
+        this.queue.setProfiling(true);
+    }
+
+    private <T extends TransactionInfoBaseMessage> T init(T msg, boolean sysproc) {
+        msg.setTxnId(this.nextTxnId++);
+        msg.setSysProc(sysproc);
+        return (msg);
+    }
+
+    /**
+     * testPriority
+     */
+    public void testPriority() throws Exception {
+        List<VoltMessage> expected = new ArrayList<VoltMessage>();
+        InitiateTaskMessage initiate0 = this.init(new InitiateTaskMessage(), false);
+        InitiateTaskMessage initiate1 = this.init(new InitiateTaskMessage(), false);
+        FragmentTaskMessage fragment = this.init(new FragmentTaskMessage(), false);
+        InitiateTaskMessage sysInitiate = this.init(new InitiateTaskMessage(), true);
+        FragmentTaskMessage sysFragment = this.init(new FragmentTaskMessage(), true);
+        VoltMessage utility = new PotentialSnapshotWorkMessage();
+
+        for (VoltMessage msg : new VoltMessage[]{ initiate0, fragment, initiate1, sysInitiate, utility, sysFragment }) {
+            assertTrue(this.queue.offer(msg));
+        } // FOR
+        assertEquals(6, this.queue.size());
+        assertEquals(2, this.queue.size(PartitionExecutorQueue.Lane.INITIATE));
+
+        expected.add(utility);
+        expected.add(sysFragment);
+        expected.add(sysInitiate);
+        expected.add(fragment);
+        expected.add(initiate0);
+        expected.add(initiate1);
+
+        List<VoltMessage> iterated = new ArrayList<VoltMessage>();
+        for (VoltMessage msg : this.queue) iterated.add(msg);
+        assertEquals(expected, iterated);
+
+        for (VoltMessage msg : expected) {
+            assertEquals(msg, this.queue.peek());
+            assertEquals(msg, this.queue.poll());
+        } // FOR
+        assertNull(this.queue.poll());
+        assertTrue(this.queue.isEmpty());
+
+        for (PartitionExecutorQueue.Lane lane : PartitionExecutorQueue.Lane.values()) {
+            assertEquals(lane.toString(), this.queue.getEnqueueCount(lane), this.queue.getDequeueCount(lane));
+        } // FOR
+        assertEquals(2, this.queue.getDequeueCount(PartitionExecutorQueue.Lane.INITIATE));
+    }
+
+    /**
+     * testDrainTo
+     */
+    public void testDrainTo() throws Exception {
+        FragmentTaskMessage fragment = this.init(new FragmentTaskMessage(), false);
+        this.queue.add(this.init(new InitiateTaskMessage(), false));
+        this.queue.add(fragment);
+        this.queue.add(this.init(new InitiateTaskMessage(), true));
+        this.queue.add(this.init(new InitiateTaskMessage(), false));
+
+        List<VoltMessage> blocked = new ArrayList<VoltMessage>();
+        assertEquals(3, this.queue.drainTo(blocked));
+        assertEquals(3, blocked.size());
+        for (VoltMessage msg : blocked) {
+            assertTrue(msg.toString(), msg instanceof InitiateTaskMessage);
+        } // FOR
+        assertEquals(1, this.queue.size());
+        assertEquals(fragment, this.queue.poll());
+    }
+
+    /**
+     * testRemove
+     */
+    public void testRemove() throws Exception {
+        InitiateTaskMessage initiate0 = this.init(new InitiateTaskMessage(), false);
+        InitiateTaskMessage initiate1 = this.init(new InitiateTaskMessage(), false);
+        this.queue.add(initiate0);
+        this.queue.add(initiate1);
+
+        assertTrue(this.queue.remove(initiate0));
+        assertFalse(this.queue.remove(initiate0));
+        assertEquals(1, this.queue.size());
+        assertEquals(initiate1, this.queue.poll());
+        assertNull(this.queue.poll());
+    }
+
+    /**
+     * testTake
+     */
+    public void testTake() throws Exception {
+        final InitiateTaskMessage initiate = this.init(new InitiateTaskMessage(), false);
+        Thread producer = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ex) {
+                    // Ignore
+                }
+                queue.add(initiate);
+            }
+        };
+        producer.start();
+        assertEquals(initiate, this.queue.take());
+        producer.join();
+        assertEquals(1, this.queue.getParkCount());
+
+        // Make sure that we get woken up if somebody interrupts us
+        final Thread self = Thread.currentThread();
+        Thread interrupter = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ex) {
+                    // Ignore
+                }
+                self.interrupt();
+            }
+        };
+        interrupter.start();
+        try {
+            this.queue.take();
+            fail("Expected to be interrupted");
+        } catch (InterruptedException ex) {
+            // Expected
+        }
+        interrupter.join();
+    }
+
+    /**
+     * testMultipleProducers
+     */
+    public void testMultipleProducers() throws Exception {
+        final int numProducers = 4;
+        final int numMessages = 5000;
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int i = 0; i < numProducers; i++) {
+            final long base = i * numMessages;
+            Thread t = new Thread() {
+                public void run() {
+                    for (int j = 0; j < numMessages; j++) {
+                        InitiateTaskMessage msg = new InitiateTaskMessage();
+                        msg.setTxnId(base + j);
+                        queue.add(msg);
+                    } // FOR
+                }
+            };
+            producers.add(t);
+            t.start();
+        } // FOR
+
+        Set<Long> seen = new HashSet<Long>();
+        long last[] = new long[numProducers];
+        for (int i = 0; i < last.length; i++) last[i] = -1;
+        for (int i = 0; i < numProducers * numMessages; i++) {
+            InitiateTaskMessage msg = (InitiateTaskMessage)this.queue.take();
+            long txnId = msg.getTxnId();
+            assertTrue(seen.add(txnId));
+
+            // Each producer's messages must come out in the same order that they went in
+            int producer = (int)(txnId / numMessages);
+            assertTrue(last[producer] < txnId);
+            last[producer] = txnId;
+        } // FOR
+        for (Thread t : producers) t.join();
+        assertTrue(this.queue.isEmpty());
+        assertNull(this.queue.poll());
+    }
+
+}
@@ -3,6 +3,7 @@ package edu.brown.hstore.dtxn;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 import org.voltdb.catalog.Site;
@@ -80,6 +81,69 @@ public class TestTransactionQueueManager extends BaseTestCase {
         // inner_callback.lock.acquire();
     }
     
+    /**
+     * Run the queue manager's thread and check that it releases our txns
+     * on its own without anybody polling the queues for it. We use a long safety
+     * delay so that the txns can only be released on time if the queue manager
+     * is woken up by its release timers and by lockFinished()
+     * @throws InterruptedException 
+     */
+    @Test
+    public void testEventDrivenRelease() throws Exception {
+        final long txn_id0 = 1000;
+        final long txn_id1 = 2000;
+        Collection<Integer> partitions = CatalogUtil.getAllPartitionIds(catalog_db);
+        
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        int orig_delay = hstore_conf.site.txn_incoming_delay;
+        hstore_conf.site.txn_incoming_delay = 2000;
+        try {
+            this.queue = new TransactionQueueManager(hstore_site);
+        } finally {
+            hstore_conf.site.txn_incoming_delay = orig_delay;
+        }
+        
+        MockCallback inner_callback0 = new MockCallback();
+        TransactionInitQueueCallback outer_callback0 = new TransactionInitQueueCallback(hstore_site);
+        outer_callback0.init(txn_id0, partitions, inner_callback0);
+        
+        MockCallback inner_callback1 = new MockCallback();
+        TransactionInitQueueCallback outer_callback1 = new TransactionInitQueueCallback(hstore_site);
+        outer_callback1.init(txn_id1, partitions, inner_callback1);
+        
+        Thread thread = new Thread(this.queue);
+        thread.setDaemon(true);
+        thread.setUncaughtExceptionHandler(this);
+        thread.start();
+        
+        // The first txn has to wait for the safety delay, so it will only
+        // get released when its partitions' release timers fire. If lockInsert()
+        // doesn't wake up the queue manager, then nobody will schedule those timers
+        long start = System.currentTimeMillis();
+        assertTrue(this.queue.lockInsert(txn_id0, partitions, outer_callback0));
+        assertTrue(inner_callback0.lock.tryAcquire(3000, TimeUnit.MILLISECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 2000);
+        
+        // The second txn can't be released until the first one is finished.
+        // Wait until its safety delay has passed so that lockFinished() is
+        // the only thing left that can release it
+        assertTrue(this.queue.lockInsert(txn_id1, partitions, outer_callback1));
+        ThreadUtil.sleep(2500);
+        assertFalse(inner_callback1.invoked);
+        for (int partition : partitions) {
+            this.queue.lockFinished(txn_id0, Status.OK, partition);
+        } // FOR
+        assertTrue(inner_callback1.lock.tryAcquire(500, TimeUnit.MILLISECONDS));
+        for (int partition : partitions) {
+            this.queue.lockFinished(txn_id1, Status.OK, partition);
+        } // FOR
+        assertTrue(this.queue.isLockQueuesEmpty());
+        
+        this.queue.shutdown();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+    }
+    
     /**
      * Add two, check that only one comes out
      * Mark first as done, second comes out
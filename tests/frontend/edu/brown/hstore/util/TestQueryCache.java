@@ -1,5 +1,6 @@
 package edu.brown.hstore.util;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -7,14 +8,25 @@ import java.util.List;
 import java.util.Map;
 
 import org.voltdb.ParameterSet;
+import org.voltdb.PrivateVoltTableFactory;
 import org.voltdb.VoltProcedure;
 import org.voltdb.VoltTable;
 import org.voltdb.VoltType;
+import org.voltdb.catalog.PlanFragment;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.Table;
+import org.voltdb.plannodes.AbstractOperationPlanNode;
+import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.plannodes.ReceivePlanNode;
 
 import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.TM1Constants;
 import edu.brown.benchmark.tm1.procedures.DeleteCallForwarding;
+import edu.brown.benchmark.tm1.procedures.GetNewDestination;
+import edu.brown.catalog.PlanFragmentIdGenerator;
+import edu.brown.plannodes.PlanNodeUtil;
+import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.ProjectType;
 
 /**
@@ -23,10 +35,11 @@ import edu.brown.utils.ProjectType;
  */
 public class TestQueryCache extends BaseTestCase {
 
-    private static final int globalBufferSize = 10;
+    private static final long globalMaxSize = 1024 * 1024;
     private static final int txnBufferSize = 10;
     private static Class<? extends VoltProcedure> TARGET_PROCEDURE = DeleteCallForwarding.class;
     private static String TARGET_STATEMENT = "query";
+    private static String TARGET_UPDATE = "update";
     private static VoltTable.ColumnInfo TARGET_RESULT[] = {
         new VoltTable.ColumnInfo("S_ID", VoltType.BIGINT)
     };
@@ -40,11 +53,212 @@ public class TestQueryCache extends BaseTestCase {
     protected void setUp() throws Exception {
         super.setUp(ProjectType.TM1);
         
-        this.cache = new QueryCache(globalBufferSize, txnBufferSize);
+        this.cache = new QueryCache(globalMaxSize, txnBufferSize);
+        this.cache.registerFragments(catalog_db);
         this.catalog_proc = this.getProcedure(TARGET_PROCEDURE);
         this.catalog_stmt = this.getStatement(catalog_proc, TARGET_STATEMENT);
     }
     
+    private VoltTable makeResult(long value) {
+        VoltTable result = new VoltTable(TARGET_RESULT);
+        result.addRow(value);
+        return (result);
+    }
+    
+    /**
+     * testGlobalCacheGet
+     */
+    public void testGlobalCacheGet() throws Exception {
+        PlanFragment catalog_frag = CollectionUtil.first(catalog_stmt.getFragments());
+        assertTrue(PlanFragmentIdGenerator.isPlanFragmentReadOnly(catalog_frag.getId()));
+        assertTrue(this.cache.isCacheable(catalog_frag.getId()));
+        int partitionId = 1;
+        long expected = 1981;
+        
+        ParameterSet params = new ParameterSet("Squirrels");
+        assertNull(this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, params));
+        this.cache.addGlobalQueryResult(catalog_frag.getId(), partitionId, params, this.makeResult(expected));
+        
+        // The PartitionExecutor reuses its ParameterSets, so make sure that
+        // changing it doesn't mess up what we have in the cache
+        params.setParameters("WuTang!");
+        assertNull(this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, params));
+        
+        // Every request should get back its own copy of the result
+        for (int i = 0; i < 2; i++) {
+            params = new ParameterSet("Squi" + "rrels");
+            VoltTable cacheResult = this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, params);
+            assertNotNull(cacheResult);
+            assertEquals(1, cacheResult.getRowCount());
+            assertEquals(expected, cacheResult.asScalarLong());
+        } // FOR
+        assertNull(this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId+1, params));
+        assertEquals(2, this.cache.getGlobalHits());
+    }
+    
+    /**
+     * testGlobalCacheDirectResult
+     */
+    public void testGlobalCacheDirectResult() throws Exception {
+        PlanFragment catalog_frag = CollectionUtil.first(catalog_stmt.getFragments());
+        int partitionId = 1;
+        long expected = 1981;
+        
+        // Make a result that is a view over a direct buffer like what we 
+        // get back from the EE's result arena
+        VoltTable result = this.makeResult(expected);
+        ByteBuffer data = result.getTableDataReference();
+        data.limit(result.getUnderlyingBufferSize());
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.remaining());
+        direct.put(data);
+        direct.flip();
+        VoltTable view = PrivateVoltTableFactory.createVoltTableFromBuffer(direct.duplicate(), true);
+        assertEquals(expected, view.asScalarLong());
+        
+        ParameterSet params = new ParameterSet("Squirrels");
+        this.cache.addGlobalQueryResult(catalog_frag.getId(), partitionId, params, view);
+        
+        // The EE is now going to write something else into the buffer
+        // That shouldn't change what we have in the cache
+        while (direct.hasRemaining()) direct.put((byte)0);
+        VoltTable cacheResult = this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, params);
+        assertNotNull(cacheResult);
+        assertEquals(1, cacheResult.getRowCount());
+        assertEquals(expected, cacheResult.asScalarLong());
+    }
+    
+    /**
+     * testGlobalCacheInvalidate
+     */
+    public void testGlobalCacheInvalidate() throws Exception {
+        PlanFragment catalog_frag = CollectionUtil.first(catalog_stmt.getFragments());
+        ParameterSet params = new ParameterSet("Squirrels");
+        int partitionId = 1;
+        this.cache.addGlobalQueryResult(catalog_frag.getId(), partitionId, params, this.makeResult(1234));
+        
+        // Deleting from CALL_FORWARDING should not affect a query on SUBSCRIBER
+        Statement update_stmt = this.getStatement(catalog_proc, TARGET_UPDATE);
+        PlanFragment update_frag = CollectionUtil.first(update_stmt.getFragments());
+        assertFalse(PlanFragmentIdGenerator.isPlanFragmentReadOnly(update_frag.getId()));
+        this.cache.invalidateFragment(update_frag.getId());
+        assertNotNull(this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, params));
+        
+        // But modifying SUBSCRIBER should
+        Table catalog_tbl = this.getTable(TM1Constants.TABLENAME_SUBSCRIBER);
+        this.cache.invalidateTable(catalog_tbl.getRelativeIndex());
+        assertNull(this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, params));
+        assertEquals(1, this.cache.getGlobalInvalidations());
+        assertEquals(0, this.cache.getGlobalSize());
+        
+        // Unknown fragments that write to the database should invalidate everything
+        this.cache.addGlobalQueryResult(catalog_frag.getId(), partitionId, params, this.makeResult(1234));
+        assertNotNull(this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, params));
+        this.cache.invalidateFragment(99999);
+        assertNull(this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, params));
+    }
+    
+    /**
+     * testGlobalCacheFragmentTables
+     */
+    public void testGlobalCacheFragmentTables() throws Exception {
+        // Read-only fragments that get their input from other fragments can't be cached
+        for (PlanFragment catalog_frag : catalog_stmt.getMs_fragments()) {
+            if (PlanFragmentIdGenerator.isPlanFragmentReadOnly(catalog_frag.getId()) == false) continue;
+            AbstractPlanNode root = PlanNodeUtil.getPlanNodeTreeForPlanFragment(catalog_frag);
+            boolean receives = (PlanNodeUtil.getPlanNodes(root, ReceivePlanNode.class).isEmpty() == false);
+            assertEquals(catalog_frag.fullName(), receives == false, this.cache.isCacheable(catalog_frag.getId()));
+        } // FOR
+        
+        // Cache a result for a query that reads CALL_FORWARDING
+        Procedure other_proc = this.getProcedure(GetNewDestination.class);
+        Statement other_stmt = CollectionUtil.first(other_proc.getStatements());
+        PlanFragment read_frag = CollectionUtil.first(other_stmt.getFragments());
+        assertTrue(this.cache.isCacheable(read_frag.getId()));
+        ParameterSet params = new ParameterSet(1l, 2l, 3l, 4l, 5l);
+        int partitionId = 1;
+        
+        // Only the fragments of the DELETE that actually modify CALL_FORWARDING
+        // should invalidate it. The fragment that just collects the number of
+        // modified tuples from the other partitions doesn't touch any tables
+        Statement update_stmt = this.getStatement(catalog_proc, TARGET_UPDATE);
+        int ctr = 0;
+        for (PlanFragment update_frag : CollectionUtil.addAll(new ArrayList<PlanFragment>(update_stmt.getFragments()),
+                                                              update_stmt.getMs_fragments())) {
+            if (PlanFragmentIdGenerator.isPlanFragmentReadOnly(update_frag.getId())) continue;
+            AbstractPlanNode root = PlanNodeUtil.getPlanNodeTreeForPlanFragment(update_frag);
+            boolean writes = (PlanNodeUtil.getPlanNodes(root, AbstractOperationPlanNode.class).isEmpty() == false);
+            
+            this.cache.addGlobalQueryResult(read_frag.getId(), partitionId, params, this.makeResult(1234));
+            this.cache.invalidateFragment(update_frag.getId());
+            VoltTable result = this.cache.getGlobalCachedResult(read_frag.getId(), partitionId, params);
+            assertEquals(update_frag.fullName(), writes, result == null);
+            ctr++;
+        } // FOR
+        assertTrue(ctr > 0);
+    }
+    
+    /**
+     * testGlobalCacheEviction
+     */
+    public void testGlobalCacheEviction() throws Exception {
+        PlanFragment catalog_frag = CollectionUtil.first(catalog_stmt.getFragments());
+        int partitionId = 1;
+        long entrySize = 0;
+        for (int i = 0; i < 3; i++) {
+            this.cache.addGlobalQueryResult(catalog_frag.getId(), partitionId, new ParameterSet(i), this.makeResult(i));
+            if (i == 0) entrySize = this.cache.getGlobalSize();
+        } // FOR
+        assert(entrySize > 0);
+        
+        // Only leave enough room for two entries. Touch the first entry so that
+        // the second one is the least recently used
+        this.cache = new QueryCache(entrySize * 2, txnBufferSize);
+        this.cache.registerFragments(catalog_db);
+        for (int i = 0; i < 2; i++) {
+            this.cache.addGlobalQueryResult(catalog_frag.getId(), partitionId, new ParameterSet(i), this.makeResult(i));
+        } // FOR
+        assertNotNull(this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, new ParameterSet(0)));
+        this.cache.addGlobalQueryResult(catalog_frag.getId(), partitionId, new ParameterSet(2), this.makeResult(2));
+        
+        assertEquals(1, this.cache.getGlobalEvictions());
+        assertTrue(this.cache.getGlobalSize() <= entrySize * 2);
+        assertNotNull(this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, new ParameterSet(0)));
+        assertNull(this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, new ParameterSet(1)));
+        assertNotNull(this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, new ParameterSet(2)));
+    }
+    
+    /**
+     * testGlobalCacheEvictionSecondChance
+     */
+    public void testGlobalCacheEvictionSecondChance() throws Exception {
+        PlanFragment catalog_frag = CollectionUtil.first(catalog_stmt.getFragments());
+        int partitionId = 1;
+        this.cache.addGlobalQueryResult(catalog_frag.getId(), partitionId, new ParameterSet(0), this.makeResult(0));
+        long entrySize = this.cache.getGlobalSize();
+        assert(entrySize > 0);
+        
+        // The first entry is the least recently used one when we add the third entry,
+        // but it was hit since it was added so the second one should get evicted instead
+        this.cache = new QueryCache(entrySize * 2, txnBufferSize);
+        this.cache.registerFragments(catalog_db);
+        this.cache.addGlobalQueryResult(catalog_frag.getId(), partitionId, new ParameterSet(0), this.makeResult(0));
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, new ParameterSet(0)));
+        } // FOR
+        this.cache.addGlobalQueryResult(catalog_frag.getId(), partitionId, new ParameterSet(1), this.makeResult(1));
+        this.cache.addGlobalQueryResult(catalog_frag.getId(), partitionId, new ParameterSet(2), this.makeResult(2));
+        
+        assertEquals(1, this.cache.getGlobalEvictions());
+        assertTrue(this.cache.getGlobalSize() <= entrySize * 2);
+        assertNull(this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, new ParameterSet(1)));
+        assertNotNull(this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, new ParameterSet(2)));
+        
+        // Now it has to wait its turn like everybody else
+        this.cache.addGlobalQueryResult(catalog_frag.getId(), partitionId, new ParameterSet(3), this.makeResult(3));
+        assertEquals(2, this.cache.getGlobalEvictions());
+        assertNull(this.cache.getGlobalCachedResult(catalog_frag.getId(), partitionId, new ParameterSet(0)));
+    }
+    
     /**
      * testTxnCacheGet
      */
@@ -0,0 +1,63 @@
+package edu.brown.hstore.wal;
+
+import junit.framework.TestCase;
+
+public class TestAdaptiveGroupCommit extends TestCase {
+
+    private static final long MS = 1000000l;
+    private static final long TARGET = 10 * MS;
+    private static final int MAX_SIZE = 500;
+
+    /**
+     * testLightLoad
+     */
+    public void testLightLoad() throws Exception {
+        AdaptiveGroupCommit policy = new AdaptiveGroupCommit(TARGET, MAX_SIZE);
+        assertEquals(1, policy.getBatchSize());
+
+        // A lone client only sends one txn per commit cycle, so we should
+        // never make it wait for somebody else
+        long now = 0;
+        for (int i = 0; i < 100; i++) {
+            now += 12 * MS;
+            policy.update(1, 2 * MS, now);
+        } // FOR
+        assertEquals(1, policy.getBatchSize());
+        assertEquals(TARGET - 2 * MS, policy.getMaxWait());
+    }
+
+    /**
+     * testHeavyLoad
+     */
+    public void testHeavyLoad() throws Exception {
+        AdaptiveGroupCommit policy = new AdaptiveGroupCommit(TARGET, MAX_SIZE);
+
+        // 100 txns arrive every millisecond
+        long now = 0;
+        for (int i = 0; i < 100; i++) {
+            now += 5 * MS;
+            policy.update(500, 5 * MS, now);
+        } // FOR
+        int size = policy.getBatchSize();
+        assertTrue(Integer.toString(size), size > 1);
+        assertTrue(Integer.toString(size), size <= MAX_SIZE);
+        assertEquals(100000d, policy.getArrivalRate(), 1000d);
+    }
+
+    /**
+     * testSlowDisk
+     */
+    public void testSlowDisk() throws Exception {
+        AdaptiveGroupCommit policy = new AdaptiveGroupCommit(TARGET, MAX_SIZE);
+
+        // If the disk can't even meet the target, then we should
+        // not wait at all before we start writing
+        long now = 0;
+        for (int i = 0; i < 10; i++) {
+            now += 20 * MS;
+            policy.update(10, 20 * MS, now);
+        } // FOR
+        assertEquals(0, policy.getMaxWait());
+    }
+
+}
@@ -0,0 +1,372 @@
+package edu.brown.hstore.wal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+
+import com.google.protobuf.RpcCallback;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.UpdateLocation;
+import edu.brown.benchmark.tm1.procedures.UpdateSubscriberData;
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.hstore.HStoreConstants;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.MockHStoreSite;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.dtxn.LocalTransaction;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.FileUtil;
+import edu.brown.utils.ProjectType;
+
+public class TestCommandLogRecovery extends BaseTestCase {
+
+    static final long SUBSCRIBER_ID = 12345l;
+    static final int NUM_PARTITIONS = 4;
+    
+    File logDir;
+    File logFile;
+    File recoveryDir;
+    ReplayHStoreSite hstore_site;
+    
+    /**
+     * Records the order that the replayed txns were admitted in. The first
+     * time that it sees a txn for the target procedure it will send it back
+     * with the given status.
+     */
+    private static class ReplayHStoreSite extends MockHStoreSite {
+        final List<String> admitted = new ArrayList<String>();
+        final List<String> attempted = new ArrayList<String>();
+        final List<StoredProcedureInvocation> invocations = new ArrayList<StoredProcedureInvocation>();
+        String targetProc;
+        Status targetStatus;
+        int targetCount;
+        
+        public ReplayHStoreSite(Site catalog_site, HStoreConf hstore_conf) {
+            super(catalog_site, hstore_conf);
+        }
+        
+        @Override
+        public synchronized void procedureInvocation(byte[] serializedRequest, RpcCallback<byte[]> done, boolean replay) {
+            assertTrue(replay);
+            StoredProcedureInvocation invocation = null;
+            try {
+                invocation = new FastDeserializer(serializedRequest).readObject(StoredProcedureInvocation.class);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            this.attempted.add(invocation.getProcName());
+            
+            Status status = Status.OK;
+            if (invocation.getProcName().equals(this.targetProc) && this.targetCount > 0) {
+                status = this.targetStatus;
+                this.targetCount--;
+            } else {
+                this.admitted.add(invocation.getProcName());
+                invocation.buildParameterSet();
+                this.invocations.add(invocation);
+            }
+            ClientResponseImpl cresponse = new ClientResponseImpl(-1l, invocation.getClientHandle(), 0, status,
+                                                                  HStoreConstants.EMPTY_RESULT, "");
+            FastSerializer fs = new FastSerializer();
+            try {
+                fs.writeObject(cresponse);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            done.run(fs.getBytes());
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.initializeCluster(1, 1, NUM_PARTITIONS);
+        this.logDir = FileUtil.getTempDirectory();
+        this.logFile = new File(this.logDir, "h00.log");
+        this.recoveryDir = new File(this.logDir, CommandLogRecovery.RECOVERY_DIRECTORY);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File dir : new File[]{ this.recoveryDir, this.logDir }) {
+            File contents[] = dir.listFiles();
+            if (contents == null) continue;
+            for (File f : contents) {
+                // The replayed logs get moved into their own directory
+                File children[] = f.listFiles();
+                if (children != null) for (File c : children) c.delete();
+                f.delete();
+            } // FOR
+            dir.delete();
+        } // FOR
+        HStoreConf.singleton().site.exec_command_logging_partitions_per_stream = 0;
+    }
+    
+    /**
+     * Write out a txn for the given procedure to the command log
+     */
+    private void writeTransaction(CommandLogWriter writer, long txnId, Procedure catalog_proc, Object params[]) {
+        LocalTransaction ts = new LocalTransaction(this.hstore_site);
+        ts.testInit(new Long(txnId), 0, Collections.singleton(0), catalog_proc, params);
+        ClientResponseImpl cresponse = new ClientResponseImpl(txnId, 0l, 0, Status.OK, HStoreConstants.EMPTY_RESULT, "");
+        assertFalse(writer.appendToLog(ts, cresponse));
+    }
+    
+    /**
+     * Write out a command log where the second txn depends on the first one and
+     * then return a CommandLogRecovery that will replay them.
+     */
+    private CommandLogRecovery makeRecovery() throws Exception {
+        CommandLogWriter writer = this.makeWriter();
+        this.writeTransaction(writer, 1000l, this.getProcedure(UpdateLocation.class),
+                              new Object[]{ SUBSCRIBER_ID, "ABCDEF" });
+        this.writeTransaction(writer, 1001l, this.getProcedure(UpdateSubscriberData.class),
+                              new Object[]{ SUBSCRIBER_ID, 1l, 2l, 3l });
+        return (this.finishRecovery(writer));
+    }
+    
+    private CommandLogWriter makeWriter() throws Exception {
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.exec_command_logging_partitions_per_stream = 0;
+        hstore_conf.site.exec_command_logging_group_commit = 2;
+        hstore_conf.site.exec_command_logging_group_commit_timeout = 10;
+        Site catalog_site = CollectionUtil.first(CatalogUtil.getCluster(catalog).getSites());
+        this.hstore_site = new ReplayHStoreSite(catalog_site, hstore_conf);
+        return (new CommandLogWriter(this.hstore_site, this.logFile));
+    }
+    
+    private CommandLogRecovery finishRecovery(CommandLogWriter writer) throws Exception {
+        writer.finishAndPrepareShutdown();
+        writer.shutdown();
+        
+        assertEquals(1, CommandLogRecovery.archiveLogs(this.logFile));
+        CommandLogRecovery recovery = new CommandLogRecovery(this.hstore_site, this.logFile);
+        assertEquals(1, recovery.getArchivedLogs().size());
+        return (recovery);
+    }
+    
+    /**
+     * testReplaySkipsSnapshot
+     */
+    public void testReplaySkipsSnapshot() throws Exception {
+        CommandLogRecovery recovery = this.makeRecovery();
+        
+        // The first txn was already in the snapshot, so only the second one should get replayed
+        recovery.replay(recovery.getArchivedLogs(), 1000l);
+        assertEquals(1, this.hstore_site.attempted.size());
+        assertEquals(this.getProcedure(UpdateSubscriberData.class).getName(), this.hstore_site.admitted.get(0));
+        
+        // The replayed txn has to carry its original id in case it gets redirected
+        StoredProcedureInvocation invocation = this.hstore_site.invocations.get(0);
+        assertTrue(invocation.isReplay());
+        assertEquals(1001l, invocation.getReplayTxnId());
+    }
+    
+    /**
+     * testReplayPartitions
+     */
+    public void testReplayPartitions() throws Exception {
+        CommandLogWriter writer = this.makeWriter();
+        Procedure sp_proc = this.getProcedure(UpdateSubscriberData.class);
+        Procedure mp_proc = this.getProcedure(UpdateLocation.class);
+        final int num_txns = 20;
+        long txnId = 1000l;
+        for (long s_id = 0; s_id < num_txns; s_id++) {
+            this.writeTransaction(writer, txnId++, sp_proc, new Object[]{ s_id, 1l, 2l, 3l });
+        } // FOR
+        this.writeTransaction(writer, txnId++, mp_proc, new Object[]{ SUBSCRIBER_ID, "ABCDEF" });
+        for (long s_id = num_txns; s_id < num_txns * 2; s_id++) {
+            this.writeTransaction(writer, txnId++, sp_proc, new Object[]{ s_id, 1l, 2l, 3l });
+        } // FOR
+        CommandLogRecovery recovery = this.finishRecovery(writer);
+        recovery.replay(recovery.getArchivedLogs(), -1);
+        assertEquals(num_txns * 2 + 1, this.hstore_site.invocations.size());
+        
+        // Every single-partition txn must be sent to its base partition and each
+        // partition has to replay its txns in the same order that they are in the log.
+        // Nothing after the multi-partition txn can go before it
+        Map<Integer, Long> last = new HashMap<Integer, Long>();
+        int mp_offset = -1;
+        for (int i = 0, cnt = this.hstore_site.invocations.size(); i < cnt; i++) {
+            StoredProcedureInvocation invocation = this.hstore_site.invocations.get(i);
+            if (invocation.getProcName().equals(mp_proc.getName())) {
+                mp_offset = i;
+                continue;
+            }
+            Object params[] = invocation.getParams().toArray();
+            long s_id = ((Number)params[0]).longValue();
+            assertTrue(invocation.hasBasePartition());
+            assertEquals(this.hstore_site.getPartitionEstimator().getBasePartition(sp_proc, params, false).intValue(), invocation.getBasePartition());
+            
+            Long prev = last.put(invocation.getBasePartition(), s_id);
+            if (prev != null) assertTrue(prev + " >= " + s_id, prev < s_id);
+            assertEquals(s_id < num_txns, mp_offset == -1);
+        } // FOR
+        assertEquals(num_txns, mp_offset);
+        assertTrue(last.toString(), last.size() > 1);
+    }
+    
+    /**
+     * Block until the site has replayed everything before the given txn id
+     */
+    private void waitForReplayedTo(CommandLogRecovery recovery, long txnId) throws Exception {
+        long stop = System.currentTimeMillis() + 10000;
+        while (recovery.getReplayedTo() < txnId) {
+            assertTrue("Replay never reached txn #" + txnId, System.currentTimeMillis() < stop);
+            Thread.sleep(5);
+        } // WHILE
+        assertEquals(txnId, recovery.getReplayedTo());
+    }
+    
+    /**
+     * testReplayLimit
+     */
+    public void testReplayLimit() throws Exception {
+        CommandLogWriter writer = this.makeWriter();
+        Procedure sp_proc = this.getProcedure(UpdateSubscriberData.class);
+        Procedure mp_proc = this.getProcedure(UpdateLocation.class);
+        final int num_txns = 10;
+        final long mp_txnId = 1000l + num_txns;
+        long txnId = 1000l;
+        for (long s_id = 0; s_id < num_txns; s_id++) {
+            this.writeTransaction(writer, txnId++, sp_proc, new Object[]{ s_id, 1l, 2l, 3l });
+        } // FOR
+        this.writeTransaction(writer, txnId++, mp_proc, new Object[]{ SUBSCRIBER_ID, "ABCDEF" });
+        for (long s_id = num_txns; s_id < num_txns * 2; s_id++) {
+            this.writeTransaction(writer, txnId++, sp_proc, new Object[]{ s_id, 1l, 2l, 3l });
+        } // FOR
+        CommandLogRecovery recovery = this.finishRecovery(writer);
+        
+        // Nothing can go until the coordinator gives us a limit
+        recovery.startReplay(-1, Long.MIN_VALUE);
+        this.waitForReplayedTo(recovery, 1000l);
+        assertEquals(mp_txnId, recovery.getNextMultiPartitionTxnId(Long.MIN_VALUE).longValue());
+        assertEquals(Long.MAX_VALUE, recovery.getNextMultiPartitionTxnId(mp_txnId + 1).longValue());
+        assertTrue(this.hstore_site.attempted.isEmpty());
+        
+        // Everything before the multi-partition txn
+        recovery.setReplayLimit(mp_txnId);
+        this.waitForReplayedTo(recovery, mp_txnId);
+        assertEquals(num_txns, this.hstore_site.invocations.size());
+        assertFalse(this.hstore_site.admitted.contains(mp_proc.getName()));
+        
+        // Then just the multi-partition txn
+        recovery.setReplayLimit(mp_txnId + 1);
+        this.waitForReplayedTo(recovery, mp_txnId + 1);
+        assertEquals(num_txns + 1, this.hstore_site.invocations.size());
+        assertEquals(mp_proc.getName(), CollectionUtil.last(this.hstore_site.admitted));
+        
+        // And then the rest of the log
+        recovery.setReplayLimit(Long.MAX_VALUE);
+        this.waitForReplayedTo(recovery, Long.MAX_VALUE);
+        assertEquals(num_txns * 2 + 1, this.hstore_site.invocations.size());
+    }
+    
+    /**
+     * testGetArchivedLogs
+     */
+    public void testGetArchivedLogs() throws Exception {
+        CommandLogWriter writer = this.makeWriter();
+        writer.finishAndPrepareShutdown();
+        writer.shutdown();
+        
+        // The logs for the other sites in the same directory must not be replayed by us
+        File other = new File(this.logDir, "h01.log");
+        FileUtil.writeStringToFile(other, "XXX");
+        assertEquals(1, CommandLogRecovery.archiveLogs(this.logFile));
+        assertEquals(1, CommandLogRecovery.archiveLogs(other));
+        
+        CommandLogRecovery recovery = new CommandLogRecovery(this.hstore_site, this.logFile);
+        List<File> files = recovery.getArchivedLogs();
+        assertEquals(1, files.size());
+        assertEquals(this.logFile.getName(), files.get(0).getName());
+    }
+    
+    /**
+     * testReplayThrottled
+     */
+    public void testReplayThrottled() throws Exception {
+        CommandLogRecovery recovery = this.makeRecovery();
+        String first = this.getProcedure(UpdateLocation.class).getName();
+        String second = this.getProcedure(UpdateSubscriberData.class).getName();
+        this.hstore_site.targetProc = first;
+        this.hstore_site.targetStatus = Status.ABORT_THROTTLED;
+        this.hstore_site.targetCount = 3;
+        recovery.replay(recovery.getArchivedLogs(), -1);
+        
+        // The throttled txn must get sent in again before the txn that depends on it
+        assertEquals(5, this.hstore_site.attempted.size());
+        assertEquals(2, this.hstore_site.admitted.size());
+        assertEquals(first, this.hstore_site.admitted.get(0));
+        assertEquals(second, this.hstore_site.admitted.get(1));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(first, this.hstore_site.attempted.get(i));
+        } // FOR
+    }
+    
+    /**
+     * testReplayRejected
+     */
+    public void testReplayRejected() throws Exception {
+        CommandLogRecovery recovery = this.makeRecovery();
+        String first = this.getProcedure(UpdateLocation.class).getName();
+        this.hstore_site.targetProc = first;
+        this.hstore_site.targetStatus = Status.ABORT_REJECT;
+        this.hstore_site.targetCount = Integer.MAX_VALUE;
+        try {
+            recovery.replay(recovery.getArchivedLogs(), -1);
+            fail("Expected recovery to fail for a txn that is always rejected");
+        } catch (RuntimeException ex) {
+            // Expected
+        }
+        // We should never have moved on to the second txn in the log
+        assertTrue(this.hstore_site.admitted.isEmpty());
+        assertEquals(CommandLogRecovery.MAX_REJECT_RETRIES + 1, this.hstore_site.attempted.size());
+    }
+
+    /**
+     * testArchiveLogs
+     */
+    public void testArchiveLogs() throws Exception {
+        FileUtil.writeStringToFile(this.logFile, "XXX");
+        FileUtil.writeStringToFile(new File(this.logDir, CommandLogStream.getSegmentFileName("h00", 0, 0)), "XXX");
+        FileUtil.writeStringToFile(new File(this.logDir, CommandLogStream.getSegmentFileName("h00", 1, 0)), "XXX");
+        // This belongs to another site, so it should not be moved
+        File other = new File(this.logDir, "h01.log");
+        FileUtil.writeStringToFile(other, "XXX");
+
+        assertEquals(3, CommandLogRecovery.archiveLogs(this.logFile));
+        assertFalse(this.logFile.exists());
+        assertTrue(other.exists());
+        assertTrue(new File(this.recoveryDir, this.logFile.getName()).exists());
+        assertEquals(2, CommandLogReader.getStreamFiles(new File(this.recoveryDir, this.logFile.getName())).size());
+    }
+
+    /**
+     * testArchiveLogsIncompleteRecovery
+     */
+    public void testArchiveLogsIncompleteRecovery() throws Exception {
+        FileUtil.writeStringToFile(this.logFile, "XXX");
+        assertEquals(1, CommandLogRecovery.archiveLogs(this.logFile));
+
+        // If we crash again before the recovery finished, then the new log
+        // must be thrown away and the archived one should not be touched
+        FileUtil.writeStringToFile(this.logFile, "YYYYYY");
+        assertEquals(0, CommandLogRecovery.archiveLogs(this.logFile));
+        assertFalse(this.logFile.exists());
+        assertEquals(3, new File(this.recoveryDir, this.logFile.getName()).length());
+    }
+
+}
@@ -26,14 +26,19 @@
 package edu.brown.hstore.wal;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Test;
 import org.voltdb.ClientResponseImpl;
+import org.voltdb.ParameterSet;
 import org.voltdb.VoltProcedure;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Site;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.utils.CompressionService;
 
 import edu.brown.BaseTestCase;
 import edu.brown.benchmark.tm1.procedures.UpdateLocation;
@@ -92,6 +97,235 @@ public class TestCommandLogger extends BaseTestCase {
     public void tearDown() throws Exception {
         if (outputFile != null && outputFile.exists())
             outputFile.delete();
+        if (outputFile != null) {
+            for (File f : CommandLogReader.getStreamFiles(outputFile))
+                f.delete();
+        }
+        HStoreConf.singleton().site.exec_command_logging_partitions_per_stream = 0;
+        HStoreConf.singleton().site.exec_command_logging_compression = true;
+        HStoreConf.singleton().site.exec_command_logging_segment_time = 0;
+    }
+    
+    private long writeTransaction(CommandLogWriter writer, int idx) {
+        return (this.writeTransaction(writer, idx, TXN_ID.incrementAndGet()));
+    }
+    
+    private long writeTransaction(CommandLogWriter writer, int idx, long txnId) {
+        LocalTransaction ts = new LocalTransaction(hstore_site);
+        ts.testInit(new Long(txnId),
+                    BASE_PARTITION,
+                    Collections.singleton(BASE_PARTITION),
+                    catalog_proc[idx],
+                    TARGET_PARAMS[idx]);
+        ClientResponseImpl cresponse = new ClientResponseImpl(txnId,
+                                                              0l,
+                                                              BASE_PARTITION,
+                                                              Status.OK,
+                                                              HStoreConstants.EMPTY_RESULT,
+                                                              "");
+        boolean ret = writer.appendToLog(ts, cresponse);
+        assertFalse(ret);
+        return (txnId);
+    }
+    
+    private void checkEntries(CommandLogReader reader, long txnId[]) {
+        int ctr = 0;
+        for (LogEntry entry : reader) {
+            assertNotNull(entry);
+            assertEquals(txnId[ctr], entry.txnId.longValue());
+            assertEquals(catalog_proc[ctr % 2].getId(), entry.procId);
+            
+            Object[] entryParams = entry.procParams.toArray();
+            assertEquals(TARGET_PARAMS[ctr % 2].length, entryParams.length);
+            for (int i = 0; i < TARGET_PARAMS[ctr % 2].length; i++)
+                assertEquals(TARGET_PARAMS[ctr % 2][i], entryParams[i]);
+            ctr++;
+        }
+        assertEquals(txnId.length, ctr);
+    }
+    
+    private void writeFile(File f, FastSerializer fs) throws Exception {
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(fs.getBytes());
+        } finally {
+            out.close();
+        }
+    }
+    
+    /**
+     * testReadOldFormat
+     */
+    @Test
+    public void testReadOldFormat() throws Exception {
+        // Write out a log using the layout from before the header was versioned:
+        // no magic number and each group commit batch is a single compressed block
+        FastSerializer fs = new FastSerializer();
+        fs.writeBoolean(true);
+        fs.writeInt(catalog_proc.length);
+        for (Procedure proc : catalog_proc) {
+            fs.writeInt(proc.getId());
+            fs.writeString(proc.getName());
+        } // FOR
+        
+        long txnId[] = new long[4];
+        for (int batch = 0; batch < 2; batch++) {
+            FastSerializer block = new FastSerializer();
+            for (int i = 0; i < 2; i++) {
+                int idx = (batch * 2) + i;
+                LogEntry entry = new LogEntry();
+                txnId[idx] = TXN_ID.incrementAndGet();
+                entry.txnId = txnId[idx];
+                entry.procId = catalog_proc[i].getId();
+                entry.procParams = new ParameterSet(TARGET_PARAMS[i]);
+                block.writeObject(entry);
+            } // FOR
+            byte compressed[] = CompressionService.compressBytes(block.getBytes());
+            fs.writeInt(compressed.length);
+            fs.write(compressed);
+        } // FOR
+        this.writeFile(outputFile, fs);
+        
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        assertEquals(2, reader.procedures.size());
+        this.checkEntries(reader, txnId);
+    }
+    
+    /**
+     * testRejectNewerFormat
+     */
+    @Test
+    public void testRejectNewerFormat() throws Exception {
+        FastSerializer fs = new FastSerializer();
+        fs.writeInt(CommandLogWriter.LOG_MAGIC);
+        fs.writeInt(CommandLogWriter.LOG_FORMAT_VERSION + 1);
+        fs.writeBoolean(false);
+        fs.writeInt(0);
+        this.writeFile(outputFile, fs);
+        
+        try {
+            new CommandLogReader(outputFile.getAbsolutePath());
+            fail("Read a WAL file with an unsupported format version");
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("version"));
+        }
+    }
+    
+    @Test
+    public void testWithStreams() {
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.exec_command_logging_partitions_per_stream = 1;
+        hstore_conf.site.exec_command_logging_group_commit_timeout = 10;
+        
+        // Use a separate writer that uses the parallel log streams
+        logger.finishAndPrepareShutdown();
+        logger.shutdown();
+        CommandLogWriter writer = new CommandLogWriter(hstore_site, outputFile);
+        assertTrue(writer.hasStreams());
+        assertEquals(hstore_site.getLocalPartitionIds().size(), writer.getStreams().length);
+        
+        long txnId[] = new long[6];
+        for (int i = 0; i < txnId.length; i++) {
+            txnId[i] = this.writeTransaction(writer, i % 2);
+        } // FOR
+        writer.finishAndPrepareShutdown();
+        writer.shutdown();
+        
+        List<File> files = CommandLogReader.getStreamFiles(outputFile);
+        assertFalse(files.isEmpty());
+        this.checkEntries(new CommandLogReader(files), txnId);
+    }
+    
+    @Test
+    public void testOutOfOrderBatches() throws Exception {
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.exec_command_logging_partitions_per_stream = 1;
+        hstore_conf.site.exec_command_logging_group_commit_timeout = 10;
+        
+        logger.finishAndPrepareShutdown();
+        logger.shutdown();
+        CommandLogWriter writer = new CommandLogWriter(hstore_site, outputFile);
+        
+        // Write the txns out in reverse txn id order and wait long enough between
+        // each of them so that they all end up in separate group commit batches
+        int num_txns = 6;
+        long base = TXN_ID.addAndGet(num_txns);
+        long txnId[] = new long[num_txns];
+        for (int i = num_txns - 1; i >= 0; i--) {
+            txnId[i] = this.writeTransaction(writer, i % 2, base - num_txns + i + 1);
+            Thread.sleep(hstore_conf.site.exec_command_logging_group_commit_timeout * 10);
+        } // FOR
+        writer.finishAndPrepareShutdown();
+        writer.shutdown();
+        
+        List<File> files = CommandLogReader.getStreamFiles(outputFile);
+        assertEquals(1, files.size());
+        
+        // Reading the segment by itself will give us back the txns in the order
+        // that they were written. Make sure that they really did span batches
+        CommandLogReader reader = new CommandLogReader(files.get(0).getAbsolutePath());
+        Long last = null;
+        int ctr = 0;
+        for (LogEntry entry : reader) {
+            if (last != null) assertTrue(entry.txnId.compareTo(last) < 0);
+            last = entry.txnId;
+            ctr++;
+        } // FOR
+        assertEquals(num_txns, ctr);
+        
+        // But the merged reader should put them back in txn id order
+        this.checkEntries(new CommandLogReader(files), txnId);
+    }
+    
+    @Test
+    public void testSegmentRotation() throws Exception {
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.exec_command_logging_partitions_per_stream = 1;
+        hstore_conf.site.exec_command_logging_group_commit_timeout = 10;
+        hstore_conf.site.exec_command_logging_segment_time = 1;
+        
+        logger.finishAndPrepareShutdown();
+        logger.shutdown();
+        CommandLogWriter writer = new CommandLogWriter(hstore_site, outputFile);
+        
+        // Wait long enough between each txn so that the stream has to
+        // rotate to a new segment file after every group commit
+        long txnId[] = new long[6];
+        for (int i = 0; i < txnId.length; i++) {
+            txnId[i] = this.writeTransaction(writer, i % 2);
+            Thread.sleep(hstore_conf.site.exec_command_logging_group_commit_timeout * 10);
+        } // FOR
+        writer.finishAndPrepareShutdown();
+        writer.shutdown();
+        
+        // We should have more than one segment and the reader should
+        // still get back every txn across all of them
+        List<File> files = CommandLogReader.getStreamFiles(outputFile);
+        assertTrue(files.toString(), files.size() > 1);
+        this.checkEntries(new CommandLogReader(files), txnId);
+    }
+    
+    @Test
+    public void testWithoutCompression() {
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.exec_command_logging_compression = false;
+        hstore_conf.site.exec_command_logging_partitions_per_stream = 1;
+        hstore_conf.site.exec_command_logging_group_commit_timeout = 10;
+        
+        logger.finishAndPrepareShutdown();
+        logger.shutdown();
+        CommandLogWriter writer = new CommandLogWriter(hstore_site, outputFile);
+        
+        long txnId[] = new long[10];
+        for (int i = 0; i < txnId.length; i++) {
+            txnId[i] = this.writeTransaction(writer, i % 2);
+        } // FOR
+        writer.finishAndPrepareShutdown();
+        writer.shutdown();
+        
+        List<File> files = CommandLogReader.getStreamFiles(outputFile);
+        CommandLogReader reader = new CommandLogReader(files);
+        this.checkEntries(reader, txnId);
     }
     
     @Test
@@ -0,0 +1,55 @@
+package edu.brown.markov;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestInstanceTimeMap extends TestCase {
+
+    private static final int NUM_TXNS = 5000;
+    
+    private final Random rand = new Random(0);
+    private final InstanceTimeMap map = new InstanceTimeMap();
+    
+    /**
+     * testPutGetRemove
+     */
+    public void testPutGetRemove() throws Exception {
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        for (int i = 0; i < NUM_TXNS; i++) {
+            long txn_id = rand.nextInt(NUM_TXNS * 2);
+            long time = rand.nextInt(100000);
+            map.put(txn_id, time);
+            expected.put(txn_id, time);
+        } // FOR
+        assertEquals(expected.size(), map.size());
+        
+        // Remove half of them and make sure that the rest can still be found
+        int ctr = 0;
+        for (Long txn_id : expected.keySet().toArray(new Long[0])) {
+            if (ctr++ % 2 == 0) {
+                assertEquals(expected.remove(txn_id).longValue(), map.remove(txn_id));
+                assertFalse(map.containsKey(txn_id));
+                assertEquals(InstanceTimeMap.NULL_TIME, map.remove(txn_id));
+            }
+        } // FOR
+        assertEquals(expected.size(), map.size());
+        for (Long txn_id : expected.keySet()) {
+            assertEquals(expected.get(txn_id).longValue(), map.get(txn_id));
+        } // FOR
+        
+        long ids[] = map.getTransactionIds();
+        assertEquals(expected.size(), ids.length);
+        Arrays.sort(ids);
+        for (Long txn_id : expected.keySet()) {
+            assert(Arrays.binarySearch(ids, txn_id) >= 0) : "Missing " + txn_id;
+        } // FOR
+        
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.getTransactionIds().length);
+    }
+}
@@ -7,6 +7,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.json.JSONObject;
 import org.junit.Before;
@@ -192,6 +193,151 @@ public class TestMarkovGraph extends BaseTestCase {
 
     }
 
+    /**
+     * testCompiledGraph
+     */
+    @Test
+    public void testCompiledGraph() throws Exception {
+        MarkovGraph markov = markovs.get(BASE_PARTITION, this.catalog_proc);
+        assertNotNull(markov);
+        CompiledMarkovGraph compiled = markov.getCompiledGraph();
+        assertNotNull(compiled);
+        assertFalse(compiled.isStale());
+        assertSame(compiled, markov.getCompiledGraph());
+        assertEquals(markov.getVertexCount(), compiled.getVertexCount());
+        assertEquals(markov.getEdgeCount(), compiled.getEdgeCount());
+        
+        for (MarkovVertex v : markov.getVertices()) {
+            int offset = compiled.getVertexOffset(v);
+            assert(offset >= 0) : "Missing " + v;
+            assertSame(v, compiled.getVertex(offset));
+            assertEquals(v.getPartitions().size(), compiled.getPartitions(offset).length);
+            
+            // The outgoing edges must be the same as the graph's and sorted by their probabilities
+            int first = compiled.getFirstEdge(offset);
+            int last = compiled.getLastEdge(offset);
+            assertEquals(v.toString(), markov.getSuccessorCount(v), last - first);
+            for (int e = first; e < last; e++) {
+                MarkovEdge edge = compiled.getEdge(e);
+                assertSame(markov.getDest(edge), compiled.getVertex(compiled.getEdgeTarget(e)));
+                assertEquals(edge.getProbability(), compiled.getEdgeProbability(e));
+                if (e > first) assert(compiled.getEdgeProbability(e-1) >= compiled.getEdgeProbability(e));
+            } // FOR
+        } // FOR
+        
+        MarkovVertex start = markov.getStartVertex();
+        assertEquals(compiled.getStartOffset(), compiled.getVertexOffset(start));
+        assertEquals(start.getTotalHits(), compiled.getStartTotalHits());
+        for (int p = 0; p < NUM_PARTITIONS; p++) {
+            assertEquals(start.getReadOnlyProbability(p), compiled.getStartReadOnlyProbability(p));
+            assertEquals(start.getWriteProbability(p), compiled.getStartWriteProbability(p));
+            assertEquals(start.getDoneProbability(p), compiled.getStartDoneProbability(p));
+        } // FOR
+        
+        // Recomputing the probabilities should give us a new snapshot
+        markov.calculateProbabilities();
+        assertTrue(compiled.isStale());
+        assertNotSame(compiled, markov.getCompiledGraph());
+    }
+
+    /**
+     * testCompiledGraphDebounce
+     */
+    @Test
+    public void testCompiledGraphDebounce() throws Exception {
+        MarkovGraph testGraph = new MarkovGraph(this.catalog_proc);
+        testGraph.initialize();
+        MarkovVertex start = testGraph.getStartVertex();
+        MarkovVertex stop = testGraph.getCommitVertex();
+        Statement catalog_stmt = CollectionUtil.first(this.catalog_proc.getStatements());
+        Set<Integer> partitions = new HashSet<Integer>();
+        partitions.add(BASE_PARTITION);
+
+        MarkovVertex v0 = new MarkovVertex(catalog_stmt, MarkovVertex.Type.QUERY, 0, partitions, new HashSet<Integer>());
+        testGraph.addVertex(v0);
+        testGraph.addToEdge(start, v0).incrementInstanceHits();
+        testGraph.addToEdge(v0, stop).incrementInstanceHits();
+        start.incrementInstanceHits();
+        v0.incrementInstanceHits();
+        testGraph.calculateProbabilities();
+        CompiledMarkovGraph compiled = testGraph.getCompiledGraph();
+        assertFalse(compiled.isStale());
+
+        // Adding a new vertex makes the snapshot stale, but we shouldn't rebuild
+        // it until the probabilities are recomputed
+        MarkovVertex v1 = new MarkovVertex(catalog_stmt, MarkovVertex.Type.QUERY, 1, partitions, partitions);
+        testGraph.addVertex(v1);
+        testGraph.addToEdge(v0, v1).incrementInstanceHits();
+        testGraph.addToEdge(v1, stop).incrementInstanceHits();
+        testGraph.addToEdge(start, v0).incrementInstanceHits();
+        start.incrementInstanceHits();
+        v0.incrementInstanceHits();
+        v1.incrementInstanceHits();
+        assertTrue(compiled.isStale());
+        assertFalse(compiled.isRecomputed());
+        assertSame(compiled, testGraph.getCompiledGraph());
+        assertEquals(-1, compiled.getVertexOffset(v1));
+
+        testGraph.calculateProbabilities();
+        assertTrue(compiled.isRecomputed());
+        CompiledMarkovGraph next = testGraph.getCompiledGraph();
+        assertNotSame(compiled, next);
+        assertFalse(next.isStale());
+        assert(next.getVertexOffset(v1) >= 0);
+        assertEquals(testGraph.getEdgeCount(), next.getEdgeCount());
+    }
+
+    /**
+     * testCompileWhileAdding
+     */
+    @Test
+    public void testCompileWhileAdding() throws Exception {
+        final MarkovGraph testGraph = new MarkovGraph(this.catalog_proc);
+        testGraph.initialize();
+        final MarkovVertex start = testGraph.getStartVertex();
+        final Statement catalog_stmt = CollectionUtil.first(this.catalog_proc.getStatements());
+        final int num_vertices = 500;
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        // Keep adding new vertices the same way that TransactionEstimator does
+        // while we build snapshots in this thread
+        Thread adder = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < num_vertices; i++) {
+                        Set<Integer> partitions = new HashSet<Integer>();
+                        partitions.add(i % NUM_PARTITIONS);
+                        MarkovVertex v = new MarkovVertex(catalog_stmt, MarkovVertex.Type.QUERY, i, partitions, new HashSet<Integer>());
+                        synchronized (start) {
+                            synchronized (testGraph) {
+                                testGraph.addVertex(v);
+                                testGraph.addToEdge(start, v);
+                            } // SYNCH
+                        } // SYNCH
+                    } // FOR
+                } catch (Throwable ex) {
+                    error.set(ex);
+                }
+            }
+        };
+        adder.start();
+        int last_count = 0;
+        while (adder.isAlive()) {
+            CompiledMarkovGraph compiled = null;
+            synchronized (testGraph) {
+                compiled = new CompiledMarkovGraph(testGraph);
+            } // SYNCH
+            assert(compiled.getVertexCount() >= last_count);
+            // Every new vertex must have come with its edge
+            assertEquals(compiled.getVertexCount() - 3, compiled.getLastEdge(compiled.getStartOffset()) -
+                                                        compiled.getFirstEdge(compiled.getStartOffset()));
+            last_count = compiled.getVertexCount();
+        } // WHILE
+        adder.join();
+        assertNull(error.get());
+        assertEquals(num_vertices + 3, testGraph.getVertexCount());
+    }
+
     /**
      * testAddToEdge
      */
@@ -2,6 +2,8 @@ package edu.brown.markov;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 import org.voltdb.VoltProcedure;
@@ -212,4 +214,74 @@ public class TestTransactionEstimator extends BaseTestCase {
             assertEquals(CollectionUtil.last(queries).getCatalogItem(catalog_db), last_v.getCatalogItem());
         } // FOR
     }
+    
+    /**
+     * testConcurrentConsumeAndComplete
+     */
+    @Test
+    public void testConcurrentConsumeAndComplete() throws Exception {
+        // One thread keeps adding new vertices after the start vertex while the other
+        // keeps finishing txns right at the start vertex. Both have to lock the start vertex
+        // and the graph, so if they don't take them in the same order they will deadlock
+        final int num_txns = 500;
+        final List<QueryTrace> queries = multip_trace.getBatchQueries(0);
+        final Statement catalog_stmts[] = new Statement[queries.size()];
+        for (int i = 0; i < catalog_stmts.length; i++) {
+            catalog_stmts[i] = queries.get(i).getCatalogItem(catalog_db);
+        } // FOR
+        final List<Integer> partition_ids = new ArrayList<Integer>(ALL_PARTITIONS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        
+        Thread consumer = new Thread() {
+            @SuppressWarnings("unchecked")
+            public void run() {
+                Random rand = new Random(0);
+                try {
+                    start.await();
+                    for (int i = 0; i < num_txns; i++) {
+                        long txn_id = 2 * i + 1000000;
+                        TransactionEstimator.State s = t_estimator.startTransaction(txn_id, catalog_proc, multip_trace.getParams());
+                        // Random partitions so that we keep having to create new vertices
+                        Set<Integer> partitions[] = (Set<Integer>[])new Set<?>[catalog_stmts.length];
+                        for (int j = 0; j < partitions.length; j++) {
+                            partitions[j] = new HashSet<Integer>();
+                            partitions[j].add(BASE_PARTITION);
+                            partitions[j].add(partition_ids.get(rand.nextInt(partition_ids.size())));
+                        } // FOR
+                        t_estimator.executeQueries(s, catalog_stmts, partitions, false);
+                        t_estimator.abort(txn_id);
+                    } // FOR
+                } catch (Throwable ex) {
+                    error.compareAndSet(null, ex);
+                }
+            }
+        };
+        Thread completer = new Thread() {
+            public void run() {
+                try {
+                    start.await();
+                    for (int i = 0; i < num_txns; i++) {
+                        long txn_id = 2 * i + 1000001;
+                        t_estimator.startTransaction(txn_id, catalog_proc, multip_trace.getParams());
+                        if (i % 2 == 0) t_estimator.commit(txn_id);
+                        else t_estimator.abort(txn_id);
+                    } // FOR
+                } catch (Throwable ex) {
+                    error.compareAndSet(null, ex);
+                }
+            }
+        };
+        consumer.setDaemon(true);
+        completer.setDaemon(true);
+        consumer.start();
+        completer.start();
+        start.countDown();
+        
+        consumer.join(60000);
+        completer.join(60000);
+        assertFalse("Consumer thread is stuck", consumer.isAlive());
+        assertFalse("Completer thread is stuck", completer.isAlive());
+        assertNull(error.get());
+    }
 }
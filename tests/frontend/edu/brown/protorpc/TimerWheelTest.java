@@ -0,0 +1,134 @@
+package edu.brown.protorpc;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimerWheelTest {
+    private static final int NUM_SLOTS = 16;
+    private static final long START_MS = 1000;
+
+    private TimerWheel wheel;
+    private final List<Handler> fired = new ArrayList<Handler>();
+
+    private class Handler extends AbstractEventHandler {
+        public int timerExpiredCount = 0;
+
+        @Override
+        public void timerCallback() {
+            timerExpiredCount += 1;
+            fired.add(this);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        wheel = new TimerWheel(NUM_SLOTS, START_MS);
+    }
+
+    @Test
+    public void testExpireInOrder() {
+        Handler h0 = new Handler();
+        Handler h1 = new Handler();
+        Handler h2 = new Handler();
+        wheel.schedule(START_MS + 5, h1);
+        wheel.schedule(START_MS + 2, h0);
+        wheel.schedule(START_MS + 9, h2);
+        assertEquals(3, wheel.size());
+        assertEquals(2, wheel.getTimeout(START_MS));
+
+        assertEquals(0, wheel.expire(START_MS + 1));
+        assertEquals(1, wheel.expire(START_MS + 2));
+        assertEquals(3, wheel.getTimeout(START_MS + 2));
+
+        // Coalesce everything that expired since the last call
+        assertEquals(2, wheel.expire(START_MS + 100));
+        assertEquals(3, fired.size());
+        assertSame(h0, fired.get(0));
+        assertTrue(wheel.isEmpty());
+        assertEquals(0, wheel.getTimeout(START_MS + 100));
+    }
+
+    @Test
+    public void testMultipleRotations() {
+        Handler near = new Handler();
+        Handler far = new Handler();
+        // Both of these land in the same slot
+        wheel.schedule(START_MS + 3, near);
+        wheel.schedule(START_MS + 3 + NUM_SLOTS * 4, far);
+        assertEquals(3, wheel.getTimeout(START_MS));
+
+        assertEquals(1, wheel.expire(START_MS + 3));
+        assertEquals(1, near.timerExpiredCount);
+        assertEquals(0, far.timerExpiredCount);
+
+        // The far timer is more than one rotation away
+        long timeout = wheel.getTimeout(START_MS + 3);
+        assertTrue(timeout > 0);
+        assertTrue(timeout <= NUM_SLOTS);
+
+        for (long now = START_MS + 4; now < START_MS + 3 + NUM_SLOTS * 4; now++) {
+            assertEquals(0, wheel.expire(now));
+        }
+        assertEquals(1, wheel.getTimeout(START_MS + 2 + NUM_SLOTS * 4));
+        assertEquals(1, wheel.expire(START_MS + 3 + NUM_SLOTS * 4));
+        assertEquals(1, far.timerExpiredCount);
+    }
+
+    @Test
+    public void testCancel() {
+        Handler h0 = new Handler();
+        Handler h1 = new Handler();
+        assertFalse(wheel.cancel(h0));
+
+        wheel.schedule(START_MS + 1, h0);
+        wheel.schedule(START_MS + 2, h0);
+        wheel.schedule(START_MS + 2, h1);
+        assertTrue(wheel.cancel(h0));
+        assertTrue(wheel.cancel(h0));
+        assertFalse(wheel.cancel(h0));
+        assertEquals(1, wheel.size());
+
+        assertEquals(1, wheel.expire(START_MS + 10));
+        assertEquals(0, h0.timerExpiredCount);
+        assertEquals(1, h1.timerExpiredCount);
+        assertFalse(wheel.cancel(h1));
+    }
+
+    @Test
+    public void testCallbacks() {
+        final Handler victim = new Handler();
+        final Handler rescheduled = new Handler();
+        Handler canceller = new Handler() {
+            @Override
+            public void timerCallback() {
+                super.timerCallback();
+                // Cancelling an expired timer that has not been called yet must work
+                assertTrue(wheel.cancel(victim));
+                // New timers must wait until the next call, even if they are already expired
+                wheel.schedule(START_MS, rescheduled);
+            }
+        };
+        wheel.schedule(START_MS + 1, canceller);
+        wheel.schedule(START_MS + 1, victim);
+        // victim was added last, so it is at the front of the slot
+        assertTrue(wheel.cancel(victim));
+        wheel.schedule(START_MS + 1, victim);
+        wheel.schedule(START_MS + 1, canceller);
+        assertTrue(wheel.cancel(canceller));
+
+        assertEquals(1, wheel.expire(START_MS + 1));
+        assertEquals(1, canceller.timerExpiredCount);
+        assertEquals(0, victim.timerExpiredCount);
+        assertEquals(0, rescheduled.timerExpiredCount);
+        assertEquals(1, wheel.getTimeout(START_MS + 1));
+
+        assertEquals(1, wheel.expire(START_MS + 2));
+        assertEquals(1, rescheduled.timerExpiredCount);
+        assertTrue(wheel.isEmpty());
+    }
+}
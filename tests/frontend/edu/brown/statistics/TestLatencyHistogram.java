@@ -0,0 +1,168 @@
+/***************************************************************************
+ *  Copyright (C) 2012 by H-Store Project                                  *
+ *  Brown University                                                       *
+ *  Massachusetts Institute of Technology                                  *
+ *  Yale University                                                        *
+ *                                                                         *
+ *  http://hstore.cs.brown.edu/                                            *
+ *                                                                         *
+ *  Permission is hereby granted, free of charge, to any person obtaining  *
+ *  a copy of this software and associated documentation files (the        *
+ *  "Software"), to deal in the Software without restriction, including    *
+ *  without limitation the rights to use, copy, modify, merge, publish,    *
+ *  distribute, sublicense, and/or sell copies of the Software, and to     *
+ *  permit persons to whom the Software is furnished to do so, subject to  *
+ *  the following conditions:                                              *
+ *                                                                         *
+ *  The above copyright notice and this permission notice shall be         *
+ *  included in all copies or substantial portions of the Software.        *
+ *                                                                         *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,        *
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF     *
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. *
+ *  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR      *
+ *  OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,  *
+ *  ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR  *
+ *  OTHER DEALINGS IN THE SOFTWARE.                                        *
+ ***************************************************************************/
+package edu.brown.statistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONObject;
+
+import junit.framework.TestCase;
+
+public class TestLatencyHistogram extends TestCase {
+
+    private final Random rand = new Random(0);
+    private final LatencyHistogram h = new LatencyHistogram();
+
+    private void assertWithinPrecision(long expected, long actual) {
+        double error = Math.abs(expected - actual) / (double)Math.max(1, expected);
+        assertTrue(String.format("expected=%d, actual=%d", expected, actual), error <= 0.02);
+    }
+
+    /**
+     * testPercentiles
+     */
+    public void testPercentiles() throws Exception {
+        List<Long> values = new ArrayList<Long>();
+        for (int i = 0; i < 100000; i++) {
+            // Mostly sub-millisecond with a long tail
+            long value = (rand.nextInt(100) == 0 ? 10000 + rand.nextInt(5000000) : rand.nextInt(1000));
+            values.add(value);
+            h.record(value);
+        } // FOR
+        Collections.sort(values);
+        assertEquals(values.size(), h.getCount());
+        assertEquals((long)values.get(0), h.getMin());
+        assertEquals((long)values.get(values.size()-1), h.getMax());
+
+        for (double p : new double[]{ 50, 95, 99, 99.9 }) {
+            long expected = values.get((int)Math.ceil(p / 100d * values.size()) - 1);
+            assertWithinPrecision(expected, h.getValueAtPercentile(p));
+        } // FOR
+        assertEquals(h.getMax(), h.getValueAtPercentile(100));
+    }
+
+    /**
+     * testSmallValues
+     */
+    public void testSmallValues() throws Exception {
+        // Anything below 128us should be recorded exactly
+        for (int i = 0; i < 128; i++) {
+            h.record(i);
+        } // FOR
+        assertEquals(63, h.getValueAtPercentile(50));
+        assertEquals(127, h.getMax());
+        assertEquals(0, h.getMin());
+        assertEquals(63.5d, h.getMean());
+
+        h.record(-1);
+        assertEquals(0, h.getMin());
+        h.record(Long.MAX_VALUE / 2);
+        assertEquals(Long.MAX_VALUE / 2, h.getMax());
+    }
+
+    /**
+     * testIntervalHistogram
+     */
+    public void testIntervalHistogram() throws Exception {
+        for (int i = 0; i < 100; i++) h.record(100);
+        LatencyHistogram interval = h.getIntervalHistogram();
+        assertEquals(100, interval.getCount());
+        assertEquals(100, interval.getValueAtPercentile(99));
+
+        interval = h.getIntervalHistogram();
+        assertEquals(0, interval.getCount());
+        assertTrue(interval.isEmpty());
+        assertEquals(0, interval.getValueAtPercentile(50));
+
+        for (int i = 0; i < 10; i++) h.record(5000);
+        interval = h.getIntervalHistogram();
+        assertEquals(10, interval.getCount());
+        assertEquals(5000, interval.getMax());
+        assertWithinPrecision(5000, interval.getMin());
+        assertEquals(110, h.getCount());
+    }
+
+    /**
+     * testAdd
+     */
+    public void testAdd() throws Exception {
+        LatencyHistogram other = new LatencyHistogram();
+        h.record(10);
+        other.record(1000000);
+        h.add(other);
+        assertEquals(2, h.getCount());
+        assertEquals(10, h.getMin());
+        assertEquals(1000000, h.getMax());
+        assertEquals(1000010, h.getSum());
+    }
+
+    /**
+     * testConcurrentRecord
+     */
+    public void testConcurrentRecord() throws Exception {
+        final int numThreads = 4;
+        final int numValues = 50000;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < numThreads; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    for (int j = 0; j < numValues; j++) h.record(j);
+                }
+            };
+            threads.add(t);
+            t.start();
+        } // FOR
+        for (Thread t : threads) t.join();
+        assertEquals(numThreads * numValues, h.getCount());
+        assertEquals(numValues - 1, h.getMax());
+    }
+
+    /**
+     * testSerialization
+     */
+    public void testSerialization() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            h.record(rand.nextInt(100000));
+        } // FOR
+        String json = h.toJSONString();
+        assertNotNull(json);
+
+        LatencyHistogram clone = new LatencyHistogram();
+        clone.fromJSON(new JSONObject(json), null);
+        assertEquals(h.getCount(), clone.getCount());
+        assertEquals(h.getSum(), clone.getSum());
+        assertEquals(h.getMin(), clone.getMin());
+        assertEquals(h.getMax(), clone.getMax());
+        for (double p : new double[]{ 50, 95, 99, 99.9 }) {
+            assertEquals(h.getValueAtPercentile(p), clone.getValueAtPercentile(p));
+        } // FOR
+    }
+}
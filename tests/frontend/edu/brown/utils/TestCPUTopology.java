@@ -0,0 +1,125 @@
+package edu.brown.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import edu.brown.utils.CPUTopology.CPU;
+
+public class TestCPUTopology extends TestCase {
+
+    private static final int NUM_SOCKETS = 2;
+    private static final int NUM_CORES = 4;
+    private static final int NUM_THREADS = 2;
+    
+    private File dir;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        // Fake a dual-socket machine with hyperthreads where the OS numbers
+        // the CPUs the same way that Linux does (all of the first hyperthreads first)
+        this.dir = FileUtil.getTempDirectory();
+        int id = 0;
+        for (int thread = 0; thread < NUM_THREADS; thread++) {
+            for (int socket = 0; socket < NUM_SOCKETS; socket++) {
+                for (int core = 0; core < NUM_CORES; core++) {
+                    File cpu_dir = new File(this.dir, "cpu" + id);
+                    File topology_dir = new File(cpu_dir, "topology");
+                    topology_dir.mkdirs();
+                    new File(cpu_dir, "node" + socket).mkdirs();
+                    FileUtil.writeStringToFile(new File(topology_dir, "physical_package_id"), socket + "\n");
+                    FileUtil.writeStringToFile(new File(topology_dir, "core_id"), core + "\n");
+                    id++;
+                } // FOR
+            } // FOR
+        } // FOR
+        
+        // Some other directories that we should ignore
+        new File(this.dir, "cpufreq").mkdirs();
+        new File(this.dir, "cpuidle").mkdirs();
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        this.delete(this.dir);
+        super.tearDown();
+    }
+    
+    private void delete(File f) {
+        if (f.isDirectory()) {
+            for (File child : f.listFiles()) {
+                this.delete(child);
+            } // FOR
+        }
+        f.delete();
+    }
+    
+    /**
+     * testLoad
+     */
+    public void testLoad() throws Exception {
+        CPUTopology topology = CPUTopology.load(this.dir);
+        assertEquals(NUM_SOCKETS * NUM_CORES * NUM_THREADS, topology.getNumCPUs());
+        assertEquals(NUM_SOCKETS, topology.getSockets().size());
+        assertEquals(NUM_SOCKETS, topology.getNodes().size());
+        
+        CPU cpu = topology.getCPU(NUM_CORES + 1);
+        assertEquals(1, cpu.socket);
+        assertEquals(1, cpu.core);
+        assertEquals(1, cpu.node);
+        assertTrue(topology.isSameCore(1, NUM_SOCKETS * NUM_CORES + 1));
+        assertFalse(topology.isSameCore(1, 2));
+    }
+    
+    /**
+     * testOfflineCPU
+     */
+    public void testOfflineCPU() throws Exception {
+        FileUtil.writeStringToFile(new File(new File(this.dir, "cpu3"), "online"), "0\n");
+        CPUTopology topology = CPUTopology.load(this.dir);
+        assertEquals(NUM_SOCKETS * NUM_CORES * NUM_THREADS - 1, topology.getNumCPUs());
+        assertNull(topology.getCPU(3));
+    }
+    
+    /**
+     * testPlacementOrder
+     */
+    public void testPlacementOrder() throws Exception {
+        CPUTopology topology = CPUTopology.load(this.dir);
+        List<CPU> order = topology.getPlacementOrder();
+        assertEquals(topology.getNumCPUs(), order.size());
+        
+        // We should alternate between the sockets and use all of the
+        // physical cores before we use any of the hyperthreads
+        int num_physical = NUM_SOCKETS * NUM_CORES;
+        for (int i = 0; i < order.size(); i++) {
+            CPU cpu = order.get(i);
+            assertEquals(cpu.toString(), i % NUM_SOCKETS, cpu.socket);
+            assertEquals(cpu.toString(), (i % num_physical) / NUM_SOCKETS, cpu.core);
+            assertEquals(cpu.toString(), i < num_physical, cpu.id < num_physical);
+        } // FOR
+    }
+    
+    /**
+     * testFlatTopology
+     */
+    public void testFlatTopology() throws Exception {
+        try {
+            CPUTopology.load(new File(this.dir, "does-not-exist"));
+            fail("Loaded topology from missing directory");
+        } catch (IOException ex) {
+            // Expected
+        }
+        
+        CPUTopology topology = new CPUTopology(4);
+        List<CPU> order = topology.getPlacementOrder();
+        for (int i = 0; i < order.size(); i++) {
+            assertEquals(i, order.get(i).id);
+            assertEquals(0, order.get(i).node);
+        } // FOR
+    }
+}
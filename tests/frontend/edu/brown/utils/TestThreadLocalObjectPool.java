@@ -0,0 +1,115 @@
+package edu.brown.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestThreadLocalObjectPool extends TestCase {
+
+    private static final int IDLE = 8;
+    private static final int CACHE_SIZE = 4;
+    
+    public static class MockObject implements Poolable {
+        boolean initialized = false;
+        public void init() {
+            this.initialized = true;
+        }
+        @Override
+        public void finish() {
+            this.initialized = false;
+        }
+        @Override
+        public boolean isInitialized() {
+            return (this.initialized);
+        }
+    }
+    
+    private ThreadLocalObjectPool<MockObject> pool;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.pool = ThreadLocalObjectPool.factory(MockObject.class, IDLE, CACHE_SIZE, true);
+    }
+    
+    /**
+     * testBorrowReturn
+     */
+    public void testBorrowReturn() throws Exception {
+        MockObject obj0 = this.pool.borrowObject();
+        assertNotNull(obj0);
+        obj0.init();
+        assertEquals(1, this.pool.getNumActive());
+        assertEquals(0, this.pool.getHitCount());
+        assertEquals(1, this.pool.getMissCount());
+        
+        this.pool.returnObject(obj0);
+        assertFalse(obj0.isInitialized());
+        assertEquals(0, this.pool.getNumActive());
+        assertEquals(1, this.pool.getNumIdle());
+        
+        // We should get back the same object from our thread's cache
+        MockObject obj1 = this.pool.borrowObject();
+        assertSame(obj0, obj1);
+        assertEquals(1, this.pool.getHitCount());
+        assertEquals(1, this.pool.getMissCount());
+        assertEquals(1, this.pool.getFactory().getCreatedCount());
+        assertEquals(1, this.pool.getFactory().getPassivatedCount());
+    }
+    
+    /**
+     * testMaxIdle
+     */
+    public void testMaxIdle() throws Exception {
+        int num_objects = CACHE_SIZE + IDLE + 5;
+        List<MockObject> objects = new ArrayList<MockObject>();
+        for (int i = 0; i < num_objects; i++) {
+            objects.add(this.pool.borrowObject());
+        } // FOR
+        for (MockObject obj : objects) {
+            this.pool.returnObject(obj);
+        } // FOR
+        
+        // Our thread can only hold one batch and the depot can
+        // only hold IDLE objects. Everything else is thrown away
+        assertEquals(0, this.pool.getNumActive());
+        assertEquals(CACHE_SIZE + IDLE, this.pool.getNumIdle());
+        assertEquals(num_objects - (CACHE_SIZE + IDLE), this.pool.getFactory().getDestroyedCount());
+        
+        this.pool.clear();
+        assertEquals(CACHE_SIZE, this.pool.getNumIdle());
+    }
+    
+    /**
+     * testCrossThreadReturn
+     */
+    public void testCrossThreadReturn() throws Exception {
+        // Borrow objects on this thread and return them on another one.
+        // Once the other thread's cache fills up, it will hand the objects
+        // back through the depot so that we can reuse them here
+        final List<MockObject> objects = new ArrayList<MockObject>();
+        for (int i = 0; i < CACHE_SIZE * 2; i++) {
+            objects.add(this.pool.borrowObject());
+        } // FOR
+        
+        Thread t = new Thread() {
+            public void run() {
+                for (MockObject obj : objects) {
+                    pool.returnObject(obj);
+                } // FOR
+            }
+        };
+        t.start();
+        t.join();
+        assertEquals(0, this.pool.getNumActive());
+        
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            MockObject obj = this.pool.borrowObject();
+            assertTrue(objects.contains(obj));
+        } // FOR
+        assertEquals(CACHE_SIZE, this.pool.getHitCount());
+        assertEquals(CACHE_SIZE * 2, this.pool.getMissCount());
+        assertEquals(CACHE_SIZE * 2, this.pool.getFactory().getCreatedCount());
+    }
+}
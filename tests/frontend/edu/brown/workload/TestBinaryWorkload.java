@@ -0,0 +1,307 @@
+package edu.brown.workload;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.voltdb.VoltType;
+import org.voltdb.catalog.CatalogType;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.utils.CatalogUtil;
+import org.voltdb.utils.VoltTypeUtil;
+
+import edu.brown.BaseTestCase;
+import edu.brown.utils.ProjectType;
+import edu.brown.workload.filters.ProcedureNameFilter;
+
+public class TestBinaryWorkload extends BaseTestCase {
+
+    private static final int NUM_TXNS = 500;
+    private static final String PROC_NAMES[] = { "neworder", "paymentByCustomerId", "delivery" };
+    private static final Random rand = new Random(1);
+
+    private final List<TransactionTrace> txns = new ArrayList<TransactionTrace>();
+    private File output_path;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TPCC, false);
+        for (int i = 0; i < NUM_TXNS; i++) {
+            Procedure catalog_proc = this.getProcedure(PROC_NAMES[i % PROC_NAMES.length]);
+            TransactionTrace txn_trace = new TransactionTrace(1000 + i, catalog_proc,
+                                                              this.makeParams(CatalogUtil.getSortedCatalogItems(catalog_proc.getParameters(), "index"), "type"));
+            int batch_id = 0;
+            for (Statement catalog_stmt : catalog_proc.getStatements()) {
+                QueryTrace query_trace = new QueryTrace(catalog_stmt,
+                                                        this.makeParams(CatalogUtil.getSortedCatalogItems(catalog_stmt.getParameters(), "index"), "javatype"),
+                                                        batch_id++ % 3);
+                query_trace.stop();
+                txn_trace.addQuery(query_trace);
+            } // FOR
+            if (i % 7 == 0) {
+                txn_trace.setOutput(new Object[][] { { new Long(i), "abc" }, { new Long(-i), null } });
+            }
+            if (i % 11 == 0) {
+                txn_trace.abort();
+            } else {
+                txn_trace.stop();
+            }
+            this.txns.add(txn_trace);
+        } // FOR
+
+        this.output_path = File.createTempFile("workload", BinaryWorkloadFormat.FILE_EXTENSION);
+        this.output_path.deleteOnExit();
+        BinaryWorkloadWriter writer = new BinaryWorkloadWriter(this.output_path, 10);
+        for (TransactionTrace txn_trace : this.txns) {
+            writer.write(txn_trace);
+        } // FOR
+        writer.close();
+    }
+
+    private <T extends CatalogType> Object[] makeParams(List<T> catalog_params, String type_name) {
+        Object params[] = new Object[catalog_params.size()];
+        int array_size = rand.nextInt(10);
+        for (int i = 0; i < params.length; i++) {
+            VoltType type = VoltType.get(((Integer)catalog_params.get(i).getField(type_name)).byteValue());
+            Object param_is_array = catalog_params.get(i).getField("isarray");
+            if (param_is_array != null && (Boolean)param_is_array) {
+                Object inner[] = new Object[array_size];
+                for (int j = 0; j < inner.length; j++) {
+                    inner[j] = VoltTypeUtil.getRandomValue(type);
+                } // FOR
+                params[i] = inner;
+            } else {
+                params[i] = VoltTypeUtil.getRandomValue(type);
+            }
+        } // FOR
+        return (params);
+    }
+
+    /**
+     * Make a copy of the trace that only contains the first 'length' bytes
+     */
+    private File truncate(long length) throws Exception {
+        File path = File.createTempFile("workload", BinaryWorkloadFormat.FILE_EXTENSION);
+        path.deleteOnExit();
+        RandomAccessFile in = new RandomAccessFile(this.output_path, "r");
+        byte data[] = new byte[(int)in.length()];
+        in.readFully(data);
+        in.close();
+        FileOutputStream out = new FileOutputStream(path);
+        out.write(data, 0, (int)length);
+        out.close();
+        return (path);
+    }
+    
+    private long getIndexOffset() throws Exception {
+        RandomAccessFile in = new RandomAccessFile(this.output_path, "r");
+        in.seek(in.length() - BinaryWorkloadFormat.TRAILER_SIZE);
+        long index_offset = in.readLong();
+        in.close();
+        return (index_offset);
+    }
+
+    private int countTxns(String proc_name) {
+        int ctr = 0;
+        for (TransactionTrace txn_trace : this.txns) {
+            if (txn_trace.getCatalogItemName().equals(proc_name)) ctr++;
+        } // FOR
+        return (ctr);
+    }
+
+    /**
+     * testReadWrite
+     */
+    public void testReadWrite() throws Exception {
+        assertTrue(BinaryWorkloadFormat.isBinaryTrace(this.output_path));
+        BinaryWorkloadReader reader = new BinaryWorkloadReader(this.output_path);
+        assertEquals(NUM_TXNS, reader.getTransactionCount());
+
+        int idx = 0;
+        int num_queries = 0;
+        for (TransactionTrace txn_trace : reader) {
+            TransactionTrace expected = this.txns.get(idx++);
+            assertEquals(expected.getTransactionId(), txn_trace.getTransactionId());
+            assertEquals(expected.toJSONString(catalog_db), txn_trace.toJSONString(catalog_db));
+            num_queries += txn_trace.getQueryCount();
+        } // FOR
+        assertEquals(NUM_TXNS, idx);
+        assertEquals(num_queries, reader.getQueryCount());
+        assertEquals(this.countTxns(PROC_NAMES[1]), reader.getProcedureHistogram().get(PROC_NAMES[1]).intValue());
+        reader.close();
+    }
+    
+    /**
+     * testRecoverIndex
+     */
+    public void testRecoverIndex() throws Exception {
+        // Chop off the index and trailer as if the writer had crashed
+        // right before it was closed. We should still get back everything
+        File path = this.truncate(this.getIndexOffset());
+        BinaryWorkloadReader reader = new BinaryWorkloadReader(path);
+        assertEquals(NUM_TXNS, reader.getTransactionCount());
+        int idx = 0;
+        int num_queries = 0;
+        for (TransactionTrace txn_trace : reader) {
+            TransactionTrace expected = this.txns.get(idx++);
+            assertEquals(expected.getTransactionId(), txn_trace.getTransactionId());
+            assertEquals(expected.toJSONString(catalog_db), txn_trace.toJSONString(catalog_db));
+            num_queries += txn_trace.getQueryCount();
+        } // FOR
+        assertEquals(NUM_TXNS, idx);
+        assertEquals(num_queries, reader.getQueryCount());
+        assertEquals(this.countTxns(PROC_NAMES[1]), reader.getProcedureHistogram().get(PROC_NAMES[1]).intValue());
+        reader.close();
+    }
+    
+    /**
+     * testRecoverIndexPartialRecord
+     */
+    public void testRecoverIndexPartialRecord() throws Exception {
+        // Cut the trace off in the middle of a record. We should get back
+        // every txn that was written out completely before it
+        File path = this.truncate(this.getIndexOffset() / 2 + 3);
+        BinaryWorkloadReader reader = new BinaryWorkloadReader(path);
+        int num_txns = reader.getTransactionCount();
+        assertTrue(num_txns > 0);
+        assertTrue(num_txns < NUM_TXNS);
+        int idx = 0;
+        for (TransactionTrace txn_trace : reader) {
+            TransactionTrace expected = this.txns.get(idx++);
+            assertEquals(expected.toJSONString(catalog_db), txn_trace.toJSONString(catalog_db));
+        } // FOR
+        assertEquals(num_txns, idx);
+        reader.close();
+    }
+
+    /**
+     * testProcedureFilter
+     */
+    public void testProcedureFilter() throws Exception {
+        BinaryWorkloadReader reader = new BinaryWorkloadReader(this.output_path);
+        ProcedureNameFilter filter = new ProcedureNameFilter(false);
+        filter.include(PROC_NAMES[1]);
+        Iterator<TransactionTrace> it = reader.iterator(filter);
+        int ctr = 0;
+        while (it.hasNext()) {
+            TransactionTrace txn_trace = it.next();
+            assertEquals(PROC_NAMES[1], txn_trace.getCatalogItemName());
+            ctr++;
+        } // WHILE
+        assertEquals(this.countTxns(PROC_NAMES[1]), ctr);
+
+        // Make sure that a limit will make the iterator halt
+        filter = new ProcedureNameFilter(false);
+        filter.include(PROC_NAMES[0], 10);
+        it = reader.iterator(filter);
+        ctr = 0;
+        while (it.hasNext()) {
+            assertEquals(PROC_NAMES[0], it.next().getCatalogItemName());
+            ctr++;
+        } // WHILE
+        assertEquals(10, ctr);
+        reader.close();
+    }
+
+    /**
+     * testWorkloadLoad
+     */
+    public void testWorkloadLoad() throws Exception {
+        Workload workload = new Workload(catalog);
+        workload.load(this.output_path.getAbsolutePath(), catalog_db);
+        assertFalse(workload.isStreaming());
+        assertEquals(NUM_TXNS, workload.getTransactionCount());
+        for (TransactionTrace expected : this.txns) {
+            TransactionTrace txn_trace = workload.getTransaction(expected.getTransactionId());
+            assertNotNull(txn_trace);
+            assertEquals(expected.getQueryCount(), txn_trace.getQueryCount());
+        } // FOR
+    }
+
+    /**
+     * testWorkloadStream
+     */
+    public void testWorkloadStream() throws Exception {
+        Workload workload = new Workload(catalog);
+        workload.stream(this.output_path.getAbsolutePath(), catalog_db);
+        assertTrue(workload.isStreaming());
+        assertEquals(NUM_TXNS, workload.getTransactionCount());
+        assertEquals(PROC_NAMES.length, workload.getProcedures(catalog_db).size());
+        assertEquals(this.txns.get(0).getStartTimestamp(), workload.getMinStartTimestamp());
+
+        int ctr = 0;
+        for (TransactionTrace txn_trace : workload) {
+            assertEquals(this.txns.get(ctr++).getTransactionId(), txn_trace.getTransactionId());
+        } // FOR
+        assertEquals(NUM_TXNS, ctr);
+
+        // Asking for all of the txns should load them into memory
+        assertEquals(NUM_TXNS, workload.getTransactions().size());
+        assertFalse(workload.isStreaming());
+        assertEquals(NUM_TXNS, workload.getTransactionCount());
+    }
+
+    /**
+     * testWorkloadStreamFilter
+     */
+    public void testWorkloadStreamFilter() throws Exception {
+        ProcedureNameFilter filter = new ProcedureNameFilter(false);
+        filter.include(PROC_NAMES[1]);
+        Workload workload = new Workload(catalog);
+        workload.stream(this.output_path.getAbsolutePath(), catalog_db, filter);
+        assertTrue(workload.isStreaming());
+        int expected = this.countTxns(PROC_NAMES[1]);
+        assertEquals(expected, workload.getTransactionCount());
+        assertEquals(1, workload.getProcedures(catalog_db).size());
+
+        // Only the txns that passed the filter should come back, in the same order
+        List<Long> txn_ids = new ArrayList<Long>();
+        for (TransactionTrace txn_trace : this.txns) {
+            if (txn_trace.getCatalogItemName().equals(PROC_NAMES[1])) txn_ids.add(txn_trace.getTransactionId());
+        } // FOR
+        int ctr = 0;
+        for (TransactionTrace txn_trace : workload) {
+            assertEquals(PROC_NAMES[1], txn_trace.getCatalogItemName());
+            assertEquals(txn_ids.get(ctr++).longValue(), txn_trace.getTransactionId());
+        } // FOR
+        assertEquals(expected, ctr);
+
+        // Loading them into memory should keep the same txns
+        assertEquals(expected, workload.getTransactions().size());
+        assertFalse(workload.isStreaming());
+        assertEquals(expected, workload.getTransactionCount());
+    }
+
+    /**
+     * testConvert
+     */
+    public void testConvert() throws Exception {
+        File json_path = File.createTempFile("workload", ".trace");
+        json_path.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(json_path);
+        for (TransactionTrace txn_trace : this.txns) {
+            Workload.writeTransactionToStream(catalog_db, txn_trace, out);
+        } // FOR
+        out.close();
+
+        File bin_path = File.createTempFile("workload", BinaryWorkloadFormat.FILE_EXTENSION);
+        bin_path.deleteOnExit();
+        assertEquals(NUM_TXNS, ConvertWorkloadTrace.convert(catalog_db, json_path, bin_path));
+
+        Workload json_workload = new Workload(catalog);
+        json_workload.load(json_path.getAbsolutePath(), catalog_db);
+        BinaryWorkloadReader reader = new BinaryWorkloadReader(bin_path);
+        assertEquals(NUM_TXNS, reader.getTransactionCount());
+        for (TransactionTrace txn_trace : reader) {
+            TransactionTrace expected = json_workload.getTransaction(txn_trace.getTransactionId());
+            assertNotNull(expected);
+            assertEquals(expected.toJSONString(catalog_db), txn_trace.toJSONString(catalog_db));
+        } // FOR
+        reader.close();
+    }
+}
@@ -0,0 +1,172 @@
+package org.voltdb;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import junit.framework.TestCase;
+
+import org.voltdb.SnapshotSiteProcessor.SnapshotTableTask;
+import org.voltdb.jni.MockExecutionEngine;
+import org.voltdb.utils.DBBPool.BBContainer;
+
+public class TestSnapshotSiteProcessor extends TestCase {
+
+    static final int NUM_CHUNKS = 10;
+    static final int CHUNK_SIZE = 1024 * 1024;
+    static final int TABLE_ID = 1;
+
+    /**
+     * ExecutionEngine that pretends that each table has NUM_CHUNKS worth of tuples
+     */
+    static class MockCOWExecutionEngine extends MockExecutionEngine {
+        final Map<Integer, Integer> remaining = new HashMap<Integer, Integer>();
+
+        @Override
+        public boolean activateCopyOnWrite(int tableId) {
+            remaining.put(tableId, NUM_CHUNKS);
+            return (true);
+        }
+
+        @Override
+        public int cowSerializeMore(BBContainer c, int tableId) {
+            Integer left = remaining.get(tableId);
+            if (left == null) return (-1);
+            if (left == 0) return (0);
+            assert(c.b.remaining() >= CHUNK_SIZE);
+            remaining.put(tableId, left - 1);
+            return (CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * SnapshotDataTarget that just counts what it was given
+     */
+    static class MockSnapshotDataTarget implements SnapshotDataTarget {
+        final List<Integer> blocks = new ArrayList<Integer>();
+        long bytes = 0;
+        boolean closed = false;
+
+        @Override
+        public int getHeaderSize() {
+            return (4);
+        }
+        @Override
+        public Future<?> write(BBContainer tupleData) {
+            int size = tupleData.b.remaining() - getHeaderSize();
+            blocks.add(size);
+            bytes += size;
+            tupleData.discard();
+            FutureTask<Object> f = new FutureTask<Object>(new Runnable() {
+                @Override
+                public void run() {
+                    // Nothing to do
+                }
+            }, null);
+            f.run();
+            return (f);
+        }
+        @Override
+        public synchronized void close() throws IOException, InterruptedException {
+            closed = true;
+        }
+        @Override
+        public long getBytesWritten() {
+            return (bytes);
+        }
+        @Override
+        public void setOnCloseHandler(Runnable onClose) {
+            // Ignore
+        }
+        @Override
+        public IOException getLastWriteException() {
+            return (null);
+        }
+    }
+
+    private final Runnable noop = new Runnable() {
+        @Override
+        public void run() {
+            // Nothing to do
+        }
+    };
+
+    private MockCOWExecutionEngine ee;
+    private MockSnapshotDataTarget target;
+    private Deque<SnapshotTableTask> tasks;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // We don't need the real EE library because nothing ever leaves Java
+        VoltDB.Configuration config = new VoltDB.Configuration();
+        config.m_noLoadLibVOLTDB = true;
+        VoltDB.replaceVoltDBInstanceForTest(new MockVoltDB());
+        VoltDB.initialize(config);
+
+        this.ee = new MockCOWExecutionEngine();
+        this.target = new MockSnapshotDataTarget();
+        this.tasks = new ArrayDeque<SnapshotTableTask>();
+        this.tasks.add(new SnapshotTableTask(TABLE_ID, this.target, false, "TABLEA"));
+        SnapshotSiteProcessor.ExecutionSitesCurrentlySnapshotting.set(1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SnapshotSiteProcessor.ExecutionSitesCurrentlySnapshotting.set(-1);
+        super.tearDown();
+    }
+
+    /**
+     * testOnlineSnapshot
+     */
+    public void testOnlineSnapshot() throws Exception {
+        SnapshotSiteProcessor processor = new SnapshotSiteProcessor(noop);
+        processor.initiateSnapshots(ee, tasks);
+        assertTrue(processor.hasSnapshotWork());
+        assertTrue(ee.remaining.containsKey(TABLE_ID));
+
+        // Each invocation should only serialize a single block so that the
+        // PartitionExecutor can go back to executing txns in between
+        int invocations = 0;
+        while (processor.hasSnapshotWork()) {
+            processor.doSnapshotWork(ee);
+            invocations++;
+            assertTrue(invocations <= NUM_CHUNKS + 1);
+            assertEquals(Math.min(invocations, NUM_CHUNKS), target.blocks.size());
+        } // WHILE
+        assertEquals(NUM_CHUNKS, target.blocks.size());
+        assertEquals(NUM_CHUNKS * (long)CHUNK_SIZE, target.getBytesWritten());
+        assertEquals(target.getBytesWritten(), processor.getBytesSerialized());
+        processor.shutdown();
+    }
+
+    /**
+     * testRateLimit
+     */
+    public void testRateLimit() throws Exception {
+        SnapshotSiteProcessor processor = new SnapshotSiteProcessor(noop, 1);
+        processor.initiateSnapshots(ee, tasks);
+
+        // With a budget of 1MB/sec, we should not be able to write out all
+        // of our blocks if we hammer on it right away
+        for (int i = 0; i < NUM_CHUNKS; i++) {
+            processor.doSnapshotWork(ee);
+        } // FOR
+        assertTrue(target.blocks.toString(), target.blocks.size() < NUM_CHUNKS);
+        assertTrue(processor.hasSnapshotWork());
+
+        // But a blocking snapshot ignores the limit
+        assertTrue(processor.completeSnapshotWork(ee).isEmpty());
+        assertFalse(processor.hasSnapshotWork());
+        assertEquals(NUM_CHUNKS, target.blocks.size());
+        assertTrue(target.closed);
+        processor.shutdown();
+    }
+}
@@ -6,6 +6,7 @@ import java.nio.ByteBuffer;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.voltdb.catalog.Procedure;
 import org.voltdb.messaging.FastDeserializer;
 import org.voltdb.messaging.FastSerializer;
 
@@ -103,6 +104,113 @@ public class TestStoredProcedureInvocation extends BaseTestCase {
         } // FOR
     }
     
+    /**
+     * testGetProcedureId
+     */
+    public void testGetProcedureId() throws Exception {
+        Procedure catalog_proc = this.getProcedure(TARGET_PROCEDURE);
+        StoredProcedureInvocation invocation = new StoredProcedureInvocation(CLIENT_HANDLE, TARGET_PROCEDURE, PARAMS);
+        assertFalse(invocation.hasProcedureId());
+        byte[] invocation_bytes = FastSerializer.serialize(invocation);
+        assertEquals(-1, StoredProcedureInvocation.getProcedureId(ByteBuffer.wrap(invocation_bytes)));
+        
+        assertTrue(StoredProcedureInvocation.markRawBytesWithProcedureId(catalog_proc.getId(), invocation_bytes));
+        ByteBuffer buffer = ByteBuffer.wrap(invocation_bytes);
+        assertEquals(catalog_proc.getId(), StoredProcedureInvocation.getProcedureId(buffer));
+        assertEquals(CLIENT_HANDLE, StoredProcedureInvocation.getClientHandle(buffer));
+        assertEquals(TARGET_PROCEDURE, StoredProcedureInvocation.getProcedureName(buffer));
+        
+        FastDeserializer fds = new FastDeserializer(invocation_bytes);
+        StoredProcedureInvocation clone = fds.readObject(StoredProcedureInvocation.class);
+        assert(clone.hasProcedureId());
+        assertEquals(catalog_proc.getId(), clone.getProcedureId());
+        assertEquals(TARGET_PROCEDURE, clone.getProcName());
+    }
+    
+    /**
+     * testReplayTxnId
+     */
+    public void testReplayTxnId() throws Exception {
+        final long txnId = 123456789l;
+        StoredProcedureInvocation invocation = new StoredProcedureInvocation(CLIENT_HANDLE, TARGET_PROCEDURE, PARAMS);
+        assertFalse(invocation.isReplay());
+        assertFalse(StoredProcedureInvocation.isReplay(ByteBuffer.wrap(FastSerializer.serialize(invocation))));
+        
+        invocation.setReplayTxnId(txnId);
+        byte[] invocation_bytes = FastSerializer.serialize(invocation);
+        StoredProcedureInvocation.markRawBytesAsRedirected(5, invocation_bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(invocation_bytes);
+        assertTrue(StoredProcedureInvocation.isReplay(buffer));
+        assertFalse(StoredProcedureInvocation.isSysProc(buffer));
+        assertEquals(CLIENT_HANDLE, StoredProcedureInvocation.getClientHandle(buffer));
+        assertEquals(TARGET_PROCEDURE, StoredProcedureInvocation.getProcedureName(buffer));
+        
+        FastDeserializer fds = new FastDeserializer(invocation_bytes);
+        StoredProcedureInvocation clone = fds.readObject(StoredProcedureInvocation.class);
+        assertTrue(clone.isReplay());
+        assertEquals(txnId, clone.getReplayTxnId());
+        assertEquals(5, clone.getBasePartition());
+        assertEquals(TARGET_PROCEDURE, clone.getProcName());
+        clone.buildParameterSet();
+        assertArrayEquals(PARAMS, clone.getParams().toArray());
+    }
+    
+    /**
+     * testOldFormat
+     */
+    public void testOldFormat() throws Exception {
+        // Older clients don't write out the procedure id in the header
+        ParameterSet params = new ParameterSet();
+        params.setParameters(PARAMS);
+        FastSerializer fs = new FastSerializer();
+        fs.writeBoolean(false);
+        fs.writeShort(-1);
+        fs.writeLong(CLIENT_HANDLE);
+        fs.writeString(TARGET_PROCEDURE);
+        fs.writeShort(0);
+        fs.writeObject(params);
+        byte[] invocation_bytes = fs.getBytes();
+        
+        ByteBuffer buffer = ByteBuffer.wrap(invocation_bytes);
+        assertFalse(StoredProcedureInvocation.isSysProc(buffer));
+        assertFalse(StoredProcedureInvocation.hasProcedureIdField(buffer));
+        assertEquals(-1, StoredProcedureInvocation.getProcedureId(buffer));
+        assertEquals(CLIENT_HANDLE, StoredProcedureInvocation.getClientHandle(buffer));
+        assertEquals(TARGET_PROCEDURE, StoredProcedureInvocation.getProcedureName(buffer));
+        
+        // There is no room for the procedure id, so the bytes must not change
+        Procedure catalog_proc = this.getProcedure(TARGET_PROCEDURE);
+        byte[] orig = invocation_bytes.clone();
+        assertFalse(StoredProcedureInvocation.markRawBytesWithProcedureId(catalog_proc.getId(), invocation_bytes));
+        assertArrayEquals(orig, invocation_bytes);
+        
+        FastDeserializer fds = new FastDeserializer(invocation_bytes);
+        StoredProcedureInvocation clone = fds.readObject(StoredProcedureInvocation.class);
+        assertFalse(clone.hasProcedureId());
+        assertEquals(CLIENT_HANDLE, clone.getClientHandle());
+        assertEquals(TARGET_PROCEDURE, clone.getProcName());
+        clone.buildParameterSet();
+        assertArrayEquals(PARAMS, clone.getParams().toArray());
+    }
+    
+    /**
+     * testGetParameterAtIndex
+     */
+    public void testGetParameterAtIndex() throws Exception {
+        StoredProcedureInvocation invocation = new StoredProcedureInvocation(CLIENT_HANDLE, TARGET_PROCEDURE, PARAMS);
+        byte[] invocation_bytes = FastSerializer.serialize(invocation);
+        FastDeserializer fds = new FastDeserializer(invocation_bytes);
+        StoredProcedureInvocation clone = fds.readObject(StoredProcedureInvocation.class);
+        
+        // We should be able to pull out the parameters without building the ParameterSet
+        for (int i = PARAMS.length - 1; i >= 0; i--) {
+            assertEquals(PARAMS[i], clone.getParameterAtIndex(i));
+        } // FOR
+        assertNull(clone.getParams());
+        clone.buildParameterSet();
+        assertArrayEquals(PARAMS, clone.getParams().toArray());
+    }
+    
     /**
      * testSerialization
      */
@@ -30,8 +30,11 @@ import junit.framework.TestCase;
 
 import org.voltdb.VoltTable.ColumnInfo;
 import org.voltdb.messaging.FastSerializableTestUtil;
+import org.voltdb.types.SortDirectionType;
 import org.voltdb.types.TimestampType;
 import org.voltdb.types.VoltDecimalHelper;
+import org.voltdb.utils.Pair;
+import org.voltdb.utils.VoltTableComparator;
 
 public class TestVoltTable extends TestCase {
     private VoltTable LONG_FIVE;
@@ -641,4 +644,142 @@ public class TestVoltTable extends TestCase {
         }
         assertEquals(rowcounter, content.length);
     }
+
+    public void testAppendRow() {
+        VoltTable tt = new VoltTable(new ColumnInfo("a", VoltType.TINYINT),
+                                     new ColumnInfo("b", VoltType.INTEGER),
+                                     new ColumnInfo("c", VoltType.BIGINT),
+                                     new ColumnInfo("d", VoltType.FLOAT),
+                                     new ColumnInfo("e", VoltType.STRING),
+                                     new ColumnInfo("f", VoltType.TIMESTAMP),
+                                     new ColumnInfo("g", VoltType.DECIMAL));
+        VoltTable expected = tt.clone(0);
+        BigDecimal dec = new BigDecimal(7654321).setScale(VoltDecimalHelper.kDefaultScale);
+        for (int i = 0; i < 100; i++) {
+            tt.appendLong(i % 100).appendLong(i).appendLong(i * 1000L).appendDouble(i / 2.0)
+              .appendString("row" + i).appendTimestamp(new TimestampType(i)).appendDecimal(dec);
+            tt.commitRow();
+            expected.addRow((byte)(i % 100), i, i * 1000L, i / 2.0, "row" + i, new TimestampType(i), dec);
+        }
+        tt.appendNull().appendNull().appendNull().appendNull().appendNull().appendNull().appendNull();
+        tt.commitRow();
+        expected.addRow(null, null, null, null, null, null, null);
+        assertEquals(expected.getRowCount(), tt.getRowCount());
+        assertEquals(expected, tt);
+
+        // Type mismatches and overflows throw away the partial row
+        try {
+            tt.appendLong(1).appendString("wrong");
+            fail("appendString() on INTEGER column should fail");
+        } catch (VoltTypeException e) {}
+        try {
+            tt.appendLong(1000);
+            fail("appendLong() on TINYINT column should overflow");
+        } catch (VoltOverflowException e) {}
+        try {
+            tt.appendLong(1).commitRow();
+            fail("commitRow() with missing columns should fail");
+        } catch (IllegalArgumentException e) {}
+        tt.appendLong(1).appendLong(2);
+        tt.abortRow();
+        assertEquals(expected, tt);
+    }
+
+    public void testAddVoltTableRow() {
+        VoltTable tt = new VoltTable(new ColumnInfo("a", VoltType.BIGINT),
+                                     new ColumnInfo("b", VoltType.STRING));
+        for (int i = 0; i < 50; i++) {
+            tt.addRow(i, (i % 5 == 0 ? null : "value" + i));
+        }
+        VoltTable copy = tt.clone(0);
+        while (tt.advanceRow()) {
+            copy.add(tt);
+        }
+        assertEquals(tt, copy);
+        assertEquals(tt, tt.copy());
+
+        // Different column types should still go through the slow path
+        VoltTable other = new VoltTable(new ColumnInfo("a", VoltType.INTEGER),
+                                        new ColumnInfo("b", VoltType.STRING));
+        tt.resetRowPosition();
+        while (tt.advanceRow()) {
+            other.add(tt);
+        }
+        assertEquals(tt.getRowCount(), other.getRowCount());
+        tt.resetRowPosition();
+        while (tt.advanceRow()) {
+            assertTrue(other.advanceRow());
+            assertEquals(tt.getLong(0), other.getLong(0));
+            assertEquals(tt.getString(1), other.getString(1));
+        }
+    }
+
+    public void testSort() {
+        VoltTable tt = new VoltTable(new ColumnInfo("a", VoltType.INTEGER),
+                                     new ColumnInfo("b", VoltType.STRING),
+                                     new ColumnInfo("c", VoltType.DECIMAL));
+        int num_rows = 200;
+        for (int i = 0; i < num_rows; i++) {
+            String s = (i % 17 == 0 ? null : Integer.toString(i % 13));
+            tt.addRow(i % 7, s, new BigDecimal(i % 11 - 5));
+        }
+        VoltTable sorted = tt.copy();
+        sorted.sort(Pair.of(0, SortDirectionType.DESC), Pair.of(1, SortDirectionType.ASC));
+        assertEquals(num_rows, sorted.getRowCount());
+        
+        Integer last_a = null;
+        String last_b = null;
+        while (sorted.advanceRow()) {
+            int a = (int)sorted.getLong(0);
+            String b = sorted.getString(1);
+            if (last_a != null) {
+                assertTrue(a <= last_a);
+                if (a == last_a && last_b != null) {
+                    assertNotNull(b);
+                    assertTrue(last_b + " > " + b, last_b.compareTo(b) <= 0);
+                }
+            }
+            last_a = a;
+            last_b = b;
+        }
+        
+        sorted.sort(Pair.of(2, SortDirectionType.ASC));
+        BigDecimal last = null;
+        while (sorted.advanceRow()) {
+            BigDecimal d = sorted.getDecimalAsBigDecimal(2);
+            if (last != null) assertTrue(last.compareTo(d) <= 0);
+            last = d;
+        }
+    }
+
+    public void testSortSupplementaryCharacters() {
+        // U+1F600 is encoded as the surrogate pair D83D DE00 in UTF-16, so String.compareTo()
+        // puts it before U+FF5E. Its UTF-8 bytes (F0 9F 98 80) come after those of U+FF5E (EF BD 9E)
+        final String smiley = new String(Character.toChars(0x1F600));
+        final String tilde = "\uFF5E";
+        final String expected[] = { "a", "a" + tilde, "a" + smiley, tilde, tilde + "a", smiley };
+
+        VoltTable tt = new VoltTable(new ColumnInfo("a", VoltType.INTEGER),
+                                     new ColumnInfo("b", VoltType.STRING));
+        for (int i = expected.length - 1; i >= 0; i--) {
+            tt.addRow(i, expected[i]);
+        }
+        tt.sort(Pair.of(1, SortDirectionType.ASC));
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue(tt.advanceRow());
+            assertEquals(expected[i], tt.getString(1));
+        }
+
+        // VoltTableComparator must agree with the sort order
+        @SuppressWarnings("unchecked")
+        Pair<Integer, SortDirectionType> cols[] = new Pair[]{ Pair.of(1, SortDirectionType.ASC) };
+        VoltTableComparator comparator = new VoltTableComparator(tt, cols);
+        for (int i = 1; i < expected.length; i++) {
+            Object row0[] = { i - 1, expected[i - 1] };
+            Object row1[] = { i, expected[i] };
+            assertTrue(expected[i - 1] + " >= " + expected[i], comparator.compare(row0, row1) < 0);
+            assertTrue(comparator.compare(row1, row0) > 0);
+            assertEquals(0, comparator.compare(row1, row1));
+        }
+    }
 }
@@ -230,6 +230,14 @@ public class BlockingClient extends Semaphore implements Client {
         return this.inner.getProcedureStatsInterval();
     }
 
+    /* (non-Javadoc)
+     * @see org.voltdb.client.Client#getSelectorStats()
+     */
+    @Override
+    public VoltTable getSelectorStats() {
+        return this.inner.getSelectorStats();
+    }
+
     /* (non-Javadoc)
      * @see org.voltdb.client.Client#removeClientStatusListener(org.voltdb.client.ClientStatusListener)
      */
@@ -90,6 +90,12 @@ public class MockVoltClient implements Client {
                 return 0;
             }
 
+            @Override
+            public long getClientRoundtripMicros() {
+                // TODO Auto-generated method stub
+                return 0;
+            }
+
             @Override
             public int getClusterRoundtrip() {
                 // TODO Auto-generated method stub
@@ -287,6 +293,11 @@ public class MockVoltClient implements Client {
         return null;
     }
 
+    @Override
+    public VoltTable getSelectorStats() {
+        return null;
+    }
+
     @Override
     public String getBuildString() {
         // TODO Auto-generated method stub
@@ -0,0 +1,253 @@
+package org.voltdb.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.catalog.Catalog;
+import org.voltdb.catalog.Cluster;
+import org.voltdb.catalog.Host;
+import org.voltdb.catalog.Partition;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.GetSubscriberData;
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.utils.ProjectType;
+
+/**
+ * Client-side transaction routing in ClientImpl
+ */
+public class TestClientImpl extends BaseTestCase {
+
+    private static final int NUM_SITES = 3;
+    private static final int NUM_PARTITIONS_PER_SITE = 2;
+    private static final int NUM_INVOCATIONS = 50;
+
+    private final Random rand = new Random(0);
+    private final List<TestDistributer.MockVolt> volts = new ArrayList<TestDistributer.MockVolt>();
+    private HStoreConf hstore_conf;
+    private Procedure catalog_proc;
+    private List<Site> sites;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.initializeCluster(1, NUM_SITES, NUM_PARTITIONS_PER_SITE);
+        this.catalog_proc = this.getProcedure(GetSubscriberData.class);
+        this.sites = new ArrayList<Site>(CatalogUtil.getAllSites(catalog));
+
+        this.hstore_conf = HStoreConf.singleton(true);
+        this.hstore_conf.client.txn_hints = true;
+        this.hstore_conf.client.txn_hints_fetch_catalog = false;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        this.hstore_conf.client.txn_hints_fetch_catalog = false;
+        for (TestDistributer.MockVolt volt : this.volts) {
+            volt.shutdown();
+            volt.join();
+        } // FOR
+        this.volts.clear();
+    }
+
+    private ClientImpl createClient(Catalog catalog) {
+        return ((ClientImpl)ClientFactory.createClient(128, null, false, null, catalog));
+    }
+
+    /**
+     * Start a fake HStoreSite for each Site in the catalog and connect to them
+     * without telling the client what their site ids are
+     */
+    private void connect(Client client, String catalog) throws Exception {
+        for (Site catalog_site : this.sites) {
+            TestDistributer.MockVolt volt = new TestDistributer.MockVolt(catalog_site.getProc_port(), catalog);
+            volt.start();
+            this.volts.add(volt);
+        } // FOR
+        for (Site catalog_site : this.sites) {
+            client.createConnection(null, "localhost", catalog_site.getProc_port(), "", "");
+        } // FOR
+    }
+
+    private int getExpectedSiteId(StoredProcedureInvocation invocation) throws Exception {
+        Integer partition = p_estimator.getBasePartition(this.catalog_proc, invocation.getParams().toArray());
+        assertNotNull(partition);
+        Partition catalog_part = CatalogUtil.getPartitionById(catalog_db, partition);
+        return (((Site)catalog_part.getParent()).getId());
+    }
+
+    /**
+     * testGetSiteIdFromPort
+     */
+    public void testGetSiteIdFromPort() throws Exception {
+        ClientImpl client = this.createClient(catalog);
+        try {
+            for (Site catalog_site : this.sites) {
+                assertEquals(catalog_site.getId(), client.getSiteId("localhost", catalog_site.getProc_port()).intValue());
+            } // FOR
+            assertNull(client.getSiteId("localhost", 1));
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * testGetSiteIdFromHost
+     */
+    public void testGetSiteIdFromHost() throws Exception {
+        // Put the last site on another host that uses the same port as the first site
+        Catalog clone = new Catalog();
+        clone.execute(catalog.serialize());
+        Cluster catalog_clus = CatalogUtil.getCluster(clone);
+        for (Host catalog_host : catalog_clus.getHosts()) {
+            catalog_host.setIpaddr("127.0.0.1");
+        } // FOR
+        Host other_host = catalog_clus.getHosts().add("other");
+        other_host.setId(catalog_clus.getHosts().size());
+        other_host.setIpaddr("127.0.0.2");
+        Site first = CatalogUtil.getSiteFromId(clone, this.sites.get(0).getId());
+        Site last = CatalogUtil.getSiteFromId(clone, this.sites.get(NUM_SITES - 1).getId());
+        last.setHost(other_host);
+        last.setProc_port(first.getProc_port());
+
+        ClientImpl client = this.createClient(clone);
+        try {
+            assertEquals(first.getId(), client.getSiteId("127.0.0.1", first.getProc_port()).intValue());
+            assertEquals(last.getId(), client.getSiteId("127.0.0.2", first.getProc_port()).intValue());
+            assertNull(client.getSiteId("127.0.0.3", first.getProc_port()));
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * testGetSiteIdFromInvocation
+     */
+    public void testGetSiteIdFromInvocation() throws Exception {
+        ClientImpl client = this.createClient(catalog);
+        try {
+            for (int i = 0; i < NUM_INVOCATIONS; i++) {
+                long s_id = rand.nextInt(100000);
+                StoredProcedureInvocation invocation = new StoredProcedureInvocation(i, this.catalog_proc.getName(), s_id);
+                Integer site_id = client.getSiteId(invocation);
+                assertNotNull(site_id);
+                assertEquals(this.getExpectedSiteId(invocation), site_id.intValue());
+                assertTrue(invocation.hasBasePartition());
+                assertEquals(p_estimator.getBasePartition(this.catalog_proc, new Object[]{ s_id }).intValue(),
+                             invocation.getBasePartition());
+
+                // We were given this catalog, so its procedure ids may not match the cluster's
+                assertFalse(invocation.hasProcedureId());
+
+                // Procedure names are not case-sensitive
+                StoredProcedureInvocation lower = new StoredProcedureInvocation(i, this.catalog_proc.getName().toLowerCase(), s_id);
+                assertEquals(site_id, client.getSiteId(lower));
+            } // FOR
+
+            // Sysprocs and procedures that we don't know about can go anywhere
+            StoredProcedureInvocation invocation = new StoredProcedureInvocation(0, "@Statistics", "TABLE", 0);
+            assertNull(client.getSiteId(invocation));
+            assertFalse(invocation.hasBasePartition());
+            invocation = new StoredProcedureInvocation(0, "ThisProcedureDoesNotExist", 1l);
+            assertNull(client.getSiteId(invocation));
+            assertFalse(invocation.hasBasePartition());
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * testNoCatalog
+     */
+    public void testNoCatalog() throws Exception {
+        ClientImpl client = this.createClient(null);
+        try {
+            StoredProcedureInvocation invocation = new StoredProcedureInvocation(0, this.catalog_proc.getName(), 1l);
+            assertNull(client.getSiteId(invocation));
+            assertFalse(invocation.hasBasePartition());
+            assertFalse(invocation.hasProcedureId());
+            assertNull(client.getSiteId("localhost", this.sites.get(0).getProc_port()));
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * testFetchCatalog
+     */
+    public void testFetchCatalog() throws Exception {
+        this.hstore_conf.client.txn_hints_fetch_catalog = true;
+        ClientImpl client = this.createClient(null);
+        try {
+            this.connect(client, catalog.serialize());
+
+            // Every request should go straight to the site with its base partition
+            for (int i = 0; i < NUM_INVOCATIONS; i++) {
+                long s_id = rand.nextInt(100000);
+                client.callProcedure(this.catalog_proc.getName(), s_id);
+            } // FOR
+            client.drain();
+
+            int total = 0;
+            for (int i = 0; i < NUM_SITES; i++) {
+                Site catalog_site = this.sites.get(i);
+                for (StoredProcedureInvocation invocation : this.volts.get(i).handler.invocations) {
+                    if (invocation.isSysProc()) continue;
+                    invocation.buildParameterSet();
+                    assertEquals(catalog_site.getId(), this.getExpectedSiteId(invocation));
+                    assertTrue(invocation.hasBasePartition());
+                    assertEquals(catalog_site.getId(), ((Site)CatalogUtil.getPartitionById(catalog_db, invocation.getBasePartition()).getParent()).getId());
+                    // The catalog came from the cluster, so we can send the procedure ids
+                    assertEquals(this.catalog_proc.getId(), invocation.getProcedureId());
+                    total++;
+                } // FOR
+            } // FOR
+            assertEquals(NUM_INVOCATIONS, total);
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * testFetchCatalogFailure
+     */
+    public void testFetchCatalogFailure() throws Exception {
+        // Our fake sites won't return a catalog, so the client should fall back
+        // to sending requests without any routing information
+        this.hstore_conf.client.txn_hints_fetch_catalog = true;
+        ClientImpl client = this.createClient(null);
+        try {
+            this.connect(client, null);
+            for (int i = 0; i < NUM_INVOCATIONS; i++) {
+                client.callProcedure(this.catalog_proc.getName(), (long)i);
+            } // FOR
+            client.drain();
+
+            int total = 0;
+            int num_fetches = 0;
+            for (TestDistributer.MockVolt volt : this.volts) {
+                for (StoredProcedureInvocation invocation : volt.handler.invocations) {
+                    if (invocation.getProcName().equals("@GetCatalog")) {
+                        num_fetches++;
+                        continue;
+                    }
+                    assertFalse(invocation.hasBasePartition());
+                    assertFalse(invocation.hasProcedureId());
+                    total++;
+                } // FOR
+            } // FOR
+            assertEquals(NUM_INVOCATIONS, total);
+            // We should only have tried once
+            assertEquals(1, num_fetches);
+            assertNull(client.getSiteId("localhost", this.sites.get(0).getProc_port()));
+        } finally {
+            client.close();
+        }
+    }
+}
@@ -29,6 +29,8 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Vector;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -44,12 +46,22 @@ import org.voltdb.network.Connection;
 import org.voltdb.network.QueueMonitor;
 import org.voltdb.network.VoltNetwork;
 import org.voltdb.network.VoltProtocolHandler;
+import org.voltdb.sysprocs.GetCatalog;
 
 import edu.brown.hstore.Hstoreservice.Status;
 
 public class TestDistributer extends TestCase {
 
-    class MockInputHandler extends VoltProtocolHandler {
+    static class MockInputHandler extends VoltProtocolHandler {
+
+        /** If this is set, then we'll send it back for @GetCatalog requests */
+        final String catalog;
+        /** All of the invocations that we have received */
+        final List<StoredProcedureInvocation> invocations = new Vector<StoredProcedureInvocation>();
+
+        MockInputHandler(String catalog) {
+            this.catalog = catalog;
+        }
 
         @Override
         public int getMaxRead() {
@@ -58,13 +70,19 @@ public class TestDistributer extends TestCase {
 
         @Override
         public void handleMessage(ByteBuffer message, Connection c) {
+            StoredProcedureInvocation spi = null;
             try {
                 FastDeserializer fds = new FastDeserializer(message);
-                StoredProcedureInvocation spi = fds.readObject(StoredProcedureInvocation.class);
+                spi = fds.readObject(StoredProcedureInvocation.class);
+                invocations.add(spi);
 
                 VoltTable vt[] = new VoltTable[1];
-                vt[0] = new VoltTable(new VoltTable.ColumnInfo("Foo", VoltType.BIGINT));
-                vt[0].addRow(1);
+                if (catalog != null && spi.getProcName().equals("@GetCatalog")) {
+                    vt[0] = GetCatalog.createCatalogTable(catalog);
+                } else {
+                    vt[0] = new VoltTable(new VoltTable.ColumnInfo("Foo", VoltType.BIGINT));
+                    vt[0].addRow(1);
+                }
                 ClientResponseImpl response =
                     new ClientResponseImpl(-1, spi.getClientHandle(), -1, Status.OK, vt, "Extra String");
                 c.writeStream().enqueue(response);
@@ -73,6 +91,13 @@ public class TestDistributer extends TestCase {
             }
             catch (Exception ex) {
                 ex.printStackTrace();
+                // Always send something back so that the client doesn't wait forever
+                if (spi != null) {
+                    ClientResponseImpl response =
+                        new ClientResponseImpl(-1, spi.getClientHandle(), -1, Status.ABORT_UNEXPECTED,
+                                               new VoltTable[0], ex.toString());
+                    c.writeStream().enqueue(response);
+                }
             }
         }
 
@@ -128,8 +153,13 @@ public class TestDistributer extends TestCase {
     }
 
     // A fake server.
-    class MockVolt extends Thread {
+    static class MockVolt extends Thread {
         MockVolt(int port) {
+            this(port, null);
+        }
+
+        MockVolt(int port, String catalog) {
+            this.catalog = catalog;
             try {
                 network = new VoltNetwork();
                 network.start();
@@ -193,7 +223,7 @@ public class TestDistributer extends TestCase {
                         responseBuffer.putInt(0);//instanceId pt 2
                         responseBuffer.putInt(0);
                         responseBuffer.flip();
-                        handler = new MockInputHandler();
+                        handler = new MockInputHandler(catalog);
                         client.write(responseBuffer);
 
                         client.configureBlocking(false);
@@ -220,6 +250,7 @@ public class TestDistributer extends TestCase {
             shutdown.set(true);
         }
 
+        final String catalog;
         AtomicBoolean shutdown = new AtomicBoolean(false);
         volatile ServerSocketChannel socket = null;
         volatile MockInputHandler handler = null;
@@ -354,6 +385,44 @@ public class TestDistributer extends TestCase {
         }
     }
 
+    @Test
+    public void testQueueToSite() throws Exception {
+
+        // Invocations for a particular site should always go to that site's connection
+        MockVolt volts[] = new MockVolt[3];
+        try {
+            Distributer dist = new Distributer();
+            for (int i = 0; i < volts.length; i++) {
+                volts[i] = new MockVolt(20000 + i);
+                volts[i].start();
+                dist.createConnection(i, "localhost", 20000 + i, "", "");
+            } // FOR
+            
+            int handle = 0;
+            for (int i = 0; i < 6; i++) {
+                StoredProcedureInvocation pi = new StoredProcedureInvocation(++handle, "i1", new Integer(1));
+                dist.queue(pi, new ProcCallback(), 128, true, 1);
+            } // FOR
+            // Unknown sites should still get round-robin'd
+            StoredProcedureInvocation pi = new StoredProcedureInvocation(++handle, "i1", new Integer(1));
+            dist.queue(pi, new ProcCallback(), 128, true, 99);
+            dist.drain();
+
+            int total = 0;
+            for (MockVolt volt : volts) {
+                total += volt.handler.roundTrips.get();
+            } // FOR
+            assertEquals(7, total);
+            assertTrue(volts[1].handler.roundTrips.get() >= 6);
+        } finally {
+            for (MockVolt volt : volts) {
+                if (volt == null) continue;
+                volt.shutdown();
+                volt.join();
+            } // FOR
+        }
+    }
+
     public void testClient() {
        MockVolt volt = null;
 
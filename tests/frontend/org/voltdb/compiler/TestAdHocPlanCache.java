@@ -0,0 +1,197 @@
+package org.voltdb.compiler;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.voltdb.VoltType;
+import org.voltdb.compiler.AdHocPlanCache.ParameterizedSQL;
+
+public class TestAdHocPlanCache extends TestCase {
+
+    private static final String PLAN =
+        "{\"PLAN_NODES\":[{\"ID\":1,\"PLAN_NODE_TYPE\":\"SEQSCAN\",\"PREDICATE\":" +
+        "{\"TYPE\":\"CONJUNCTION_AND\",\"VALUE_TYPE\":\"BOOLEAN\",\"VALUE_SIZE\":0," +
+        "\"LEFT\":{\"TYPE\":\"COMPARE_EQUAL\",\"VALUE_TYPE\":\"BOOLEAN\",\"VALUE_SIZE\":0," +
+        "\"RIGHT\":{\"TYPE\":\"VALUE_PARAMETER\",\"VALUE_TYPE\":\"INTEGER\",\"VALUE_SIZE\":4,\"PARAM_IDX\":0}}," +
+        "\"RIGHT\":{\"TYPE\":\"COMPARE_EQUAL\",\"VALUE_TYPE\":\"BOOLEAN\",\"VALUE_SIZE\":0," +
+        "\"RIGHT\":{\"TYPE\":\"VALUE_PARAMETER\",\"VALUE_TYPE\":\"STRING\",\"VALUE_SIZE\":32,\"PARAM_IDX\":1}}}}]}";
+
+    /**
+     * testParameterize
+     */
+    public void testParameterize() throws Exception {
+        ParameterizedSQL p0 = AdHocPlanCache.parameterize("select * from WAREHOUSE where W_ID = 5 and W_NAME = 'it''s'");
+        ParameterizedSQL p1 = AdHocPlanCache.parameterize("SELECT *  FROM warehouse\n WHERE w_id = 99 AND w_name = 'abc';");
+        assertNotNull(p0);
+        assertNotNull(p1);
+        assertEquals("SELECT * FROM WAREHOUSE WHERE W_ID = ? AND W_NAME = ?", p0.sql);
+        assertEquals(p0.sql, p1.sql);
+        assertEquals(Arrays.asList("5", "'it''s'"), p0.literals);
+        assertEquals(Arrays.asList("99", "'abc'"), p1.literals);
+
+        // Negative numbers vs. subtraction
+        ParameterizedSQL p2 = AdHocPlanCache.parameterize("SELECT W_ID-1 FROM WAREHOUSE WHERE W_ID > -10");
+        assertEquals("SELECT W_ID-? FROM WAREHOUSE WHERE W_ID > ?", p2.sql);
+        assertEquals(Arrays.asList("1", "-10"), p2.literals);
+
+        // Literals that change the shape of the plan are left alone
+        ParameterizedSQL p3 = AdHocPlanCache.parameterize("SELECT W_ID, W_NAME FROM WAREHOUSE WHERE W_TAX > 0.5 ORDER BY 2, 1 LIMIT 10");
+        assertEquals("SELECT W_ID, W_NAME FROM WAREHOUSE WHERE W_TAX > ? ORDER BY 2, 1 LIMIT 10", p3.sql);
+        assertEquals(Arrays.asList("0.5"), p3.literals);
+
+        // Identifiers with digits and quoted identifiers
+        ParameterizedSQL p4 = AdHocPlanCache.parameterize("SELECT C1 FROM \"t1\" WHERE C2 = 1e3");
+        assertEquals("SELECT C1 FROM \"t1\" WHERE C2 = ?", p4.sql);
+        assertEquals(Arrays.asList("1e3"), p4.literals);
+
+        // Unterminated strings can't be parsed
+        assertNull(AdHocPlanCache.parameterize("SELECT * FROM WAREHOUSE WHERE W_NAME = 'abc"));
+        assertNull(AdHocPlanCache.parameterize("   "));
+    }
+
+    /**
+     * testParameterizeComments
+     */
+    public void testParameterizeComments() throws Exception {
+        // Literals inside of comments must not become parameters
+        ParameterizedSQL p0 = AdHocPlanCache.parameterize("/* panel 3 */ SELECT * FROM T WHERE A = 5");
+        assertNotNull(p0);
+        assertEquals("SELECT * FROM T WHERE A = ?", p0.sql);
+        assertEquals(Arrays.asList("5"), p0.literals);
+
+        ParameterizedSQL p1 = AdHocPlanCache.parameterize("SELECT * FROM T -- 'x' 3\n WHERE A = 5 -- 7");
+        assertNotNull(p1);
+        assertEquals(p0.sql, p1.sql);
+        assertEquals(Arrays.asList("5"), p1.literals);
+
+        // Subtracting a negative number is not a comment
+        ParameterizedSQL p2 = AdHocPlanCache.parameterize("SELECT A - -1 FROM T");
+        assertEquals("SELECT A - ? FROM T", p2.sql);
+        assertEquals(Arrays.asList("-1"), p2.literals);
+
+        // Comments in string literals are just part of the string
+        ParameterizedSQL p3 = AdHocPlanCache.parameterize("SELECT * FROM T WHERE B = '/* 3 */'");
+        assertEquals(Arrays.asList("'/* 3 */'"), p3.literals);
+
+        assertNull(AdHocPlanCache.parameterize("SELECT * FROM T /* 3"));
+    }
+
+    /**
+     * testCountParameters
+     */
+    public void testCountParameters() throws Exception {
+        assertEquals(2, AdHocPlanCache.countParameters(PLAN));
+        assertEquals(2, AdHocPlanCache.countParameters(PLAN, null, PLAN));
+        assertEquals(0, AdHocPlanCache.countParameters("{\"PLAN_NODES\":[]}"));
+        // Missing PARAM_IDX 0
+        assertEquals(-1, AdHocPlanCache.countParameters(PLAN.replace("\"PARAM_IDX\":0", "\"PARAM_IDX\":2")));
+
+        // A plan that doesn't use all of the literals can't be bound
+        AdHocPlanCache.CachedPlan entry = new AdHocPlanCache.CachedPlan(PLAN, null, false);
+        assertEquals(2, entry.numParameters);
+        assertTrue(entry.canBind(Arrays.asList("5", "'abc'")));
+        assertFalse(entry.canBind(Arrays.asList("3", "5", "'abc'")));
+        assertFalse(entry.canBind(Arrays.asList("5")));
+        assertFalse(AdHocPlanCache.UNPARAMETERIZABLE.canBind(Arrays.<String>asList()));
+    }
+
+    /**
+     * testBind
+     */
+    public void testBind() throws Exception {
+        String bound = AdHocPlanCache.bind(PLAN, Arrays.asList("5", "'it''s'"));
+        assertNotNull(bound);
+        assertFalse(bound.contains("VALUE_PARAMETER"));
+        assertFalse(bound.contains("PARAM_IDX"));
+
+        JSONObject json = new JSONObject(bound);
+        JSONArray nodes = json.getJSONArray("PLAN_NODES");
+        JSONObject predicate = nodes.getJSONObject(0).getJSONObject("PREDICATE");
+        JSONObject left = predicate.getJSONObject("LEFT").getJSONObject("RIGHT");
+        assertEquals("VALUE_CONSTANT", left.getString("TYPE"));
+        assertEquals(5, left.getLong("VALUE"));
+        JSONObject right = predicate.getJSONObject("RIGHT").getJSONObject("RIGHT");
+        assertEquals("VALUE_CONSTANT", right.getString("TYPE"));
+        assertEquals("it's", right.getString("VALUE"));
+
+        // Literals that don't match the parameter types can't be used
+        assertNull(AdHocPlanCache.bind(PLAN, Arrays.asList("'abc'", "'abc'")));
+        assertNull(AdHocPlanCache.bind(PLAN, Arrays.asList("1.5", "'abc'")));
+        assertNull(AdHocPlanCache.bind(PLAN, Arrays.asList("5")));
+
+        // Plans without literals don't change
+        assertSame(PLAN, AdHocPlanCache.bind(PLAN, AdHocPlanCache.parameterize("SELECT * FROM WAREHOUSE").literals));
+        assertNull(AdHocPlanCache.bind(null, Arrays.asList("5")));
+    }
+
+    /**
+     * testCastLiteral
+     */
+    public void testCastLiteral() throws Exception {
+        assertEquals(127l, AdHocPlanCache.castLiteral("127", VoltType.TINYINT));
+        assertNull(AdHocPlanCache.castLiteral("128", VoltType.TINYINT));
+        assertNull(AdHocPlanCache.castLiteral("40000", VoltType.SMALLINT));
+        assertEquals(-5l, AdHocPlanCache.castLiteral("-5", VoltType.BIGINT));
+        assertEquals(1.5d, AdHocPlanCache.castLiteral("1.5", VoltType.FLOAT));
+        assertEquals("1000", AdHocPlanCache.castLiteral("1e3", VoltType.DECIMAL));
+        assertNull(AdHocPlanCache.castLiteral("5", VoltType.STRING));
+        assertNull(AdHocPlanCache.castLiteral("'5'", VoltType.INTEGER));
+    }
+
+    /**
+     * testEviction
+     */
+    public void testEviction() throws Exception {
+        AdHocPlanCache cache = new AdHocPlanCache(2);
+        assertTrue(cache.isEnabled());
+        int version = cache.getVersion();
+        cache.put("A", new AdHocPlanCache.CachedPlan("a", null, false), version);
+        cache.put("B", new AdHocPlanCache.CachedPlan("b", null, false), version);
+
+        // Touch A so that B is the least recently used
+        assertNotNull(cache.get("A"));
+        cache.put("C", new AdHocPlanCache.CachedPlan("c", null, false), version);
+        assertEquals(2, cache.size());
+        assertNotNull(cache.peek("A"));
+        assertNull(cache.peek("B"));
+        assertNotNull(cache.peek("C"));
+
+        assertNull(cache.get("B"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // Unparameterizable statements count as misses
+        cache.put("D", AdHocPlanCache.UNPARAMETERIZABLE, version);
+        assertSame(AdHocPlanCache.UNPARAMETERIZABLE, cache.get("D"));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    /**
+     * testInvalidate
+     */
+    public void testInvalidate() throws Exception {
+        AdHocPlanCache cache = new AdHocPlanCache(10);
+        int version = cache.getVersion();
+        cache.put("A", new AdHocPlanCache.CachedPlan("a", null, false), version);
+        assertEquals(1, cache.size());
+
+        cache.invalidate();
+        assertEquals(0, cache.size());
+        assertNull(cache.peek("A"));
+
+        // Plans from before the invalidation are ignored
+        cache.put("A", new AdHocPlanCache.CachedPlan("a", null, false), version);
+        assertNull(cache.peek("A"));
+        cache.put("A", new AdHocPlanCache.CachedPlan("a", null, false), cache.getVersion());
+        assertNotNull(cache.peek("A"));
+
+        // A cache with no space never stores anything
+        AdHocPlanCache disabled = new AdHocPlanCache(0);
+        assertFalse(disabled.isEnabled());
+        disabled.put("A", new AdHocPlanCache.CachedPlan("a", null, false), disabled.getVersion());
+        assertEquals(0, disabled.size());
+    }
+}
@@ -23,9 +23,12 @@
 
 package org.voltdb.jni;
 
+import java.nio.ByteBuffer;
+
 import junit.framework.TestCase;
 
 import org.voltdb.EELibraryLoader;
+import org.voltdb.PrivateVoltTableFactory;
 import org.voltdb.SysProcSelector;
 import org.voltdb.VoltDB;
 import org.voltdb.VoltTable;
@@ -107,6 +110,100 @@ public class TestExecutionEngine extends TestCase {
         assertEquals(200, engine.serializeTable(WAREHOUSE).getRowCount());
         assertEquals(1000, engine.serializeTable(STOCK).getRowCount());
     }
+
+    public void testResultArenaReuseAfterRelease() throws Exception {
+        ExecutionEngineJNI jni = (ExecutionEngineJNI)engine;
+        jni.setResultArenaSize(2);
+
+        ExecutionEngineJNI.ResultBuffer rb0 = jni.getResultBuffer();
+        assertNotNull(rb0);
+        jni.holdResultBuffer(rb0, 1000l);
+        ExecutionEngineJNI.ResultBuffer rb1 = jni.getResultBuffer();
+        assertNotNull(rb1);
+        assertNotSame(rb0, rb1);
+        jni.holdResultBuffer(rb1, 1001l);
+        assertEquals(2, jni.getResultArenaAllocated());
+        assertEquals(2, jni.getResultArenaHeld());
+
+        // Once the first txn is done with its views, we should get its buffer back
+        // instead of allocating a new one
+        jni.releaseResults(1000l);
+        ExecutionEngineJNI.ResultBuffer rb2 = jni.getResultBuffer();
+        assertSame(rb0, rb2);
+        assertEquals(2, jni.getResultArenaAllocated());
+
+        // Releasing the same txn twice shouldn't do anything
+        jni.holdResultBuffer(rb2, 1002l);
+        jni.releaseResults(1000l);
+        assertNull(jni.getResultBuffer());
+    }
+
+    public void testResultArenaExhausted() throws Exception {
+        ExecutionEngineJNI jni = (ExecutionEngineJNI)engine;
+        jni.setResultArenaSize(1);
+
+        // Two txns have views over the same buffer
+        ExecutionEngineJNI.ResultBuffer rb0 = jni.getResultBuffer();
+        assertNotNull(rb0);
+        jni.holdResultBuffer(rb0, 1000l);
+        jni.holdResultBuffer(rb0, 1001l);
+
+        // The arena is full, so the results have to be copied
+        assertNull(jni.getResultBuffer());
+        assertEquals(1, jni.getResultArenaAllocated());
+
+        // The buffer isn't free until both txns have released it
+        jni.releaseResults(1000l);
+        assertNull(jni.getResultBuffer());
+        jni.releaseResults(1001l);
+        assertSame(rb0, jni.getResultBuffer());
+        assertEquals(1, jni.getResultArenaAllocated());
+    }
+
+    public void testResultArenaDisabled() throws Exception {
+        ExecutionEngineJNI jni = (ExecutionEngineJNI)engine;
+        assertNull(jni.getResultBuffer());
+        assertEquals(0, jni.getResultArenaAllocated());
+    }
+
+    public void testNextDependencyFromResultBuffer() throws Exception {
+        VoltTable vt = new VoltTable(
+                new VoltTable.ColumnInfo("W_ID", VoltType.INTEGER),
+                new VoltTable.ColumnInfo("W_NAME", VoltType.STRING)
+        );
+        for (int i = 0; i < 20; ++i) {
+            vt.addRow(i, "str" + i);
+        }
+
+        // Put the table in the middle of a direct buffer, just like the
+        // dependencies that the EE writes into its ResultBuffers
+        int size = vt.getUnderlyingBufferSize();
+        int offset = 128;
+        ByteBuffer src = vt.getTableDataReference();
+        src.limit(size);
+        ByteBuffer arena = ByteBuffer.allocateDirect(offset + size + 128);
+        arena.position(offset);
+        arena.put(src);
+        arena.position(offset);
+        arena.limit(offset + size);
+        VoltTable view = PrivateVoltTableFactory.createVoltTableFromBuffer(arena.slice(), true);
+        assertFalse(view.getTableDataReference().hasArray());
+
+        final int depId = 1234;
+        engine.stashDependency(depId, view);
+        byte serialized[] = engine.nextDependencyAsBytes(depId);
+        assertNotNull(serialized);
+        assertEquals(size, serialized.length);
+
+        VoltTable clone = PrivateVoltTableFactory.createVoltTableFromBuffer(ByteBuffer.wrap(serialized), true);
+        assertEquals(vt.getRowCount(), clone.getRowCount());
+        vt.resetRowPosition();
+        while (vt.advanceRow()) {
+            assertTrue(clone.advanceRow());
+            assertEquals(vt.getLong(0), clone.getLong(0));
+            assertEquals(vt.getString(1), clone.getString(1));
+        } // WHILE
+    }
 //
 //    public void testGetStats() throws Exception {
 //        final Catalog catalog = new Catalog();
@@ -24,13 +24,23 @@
 package org.voltdb.network;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.*;
 
 public class VoltNetworkTest extends TestCase {
@@ -289,4 +299,111 @@ public class VoltNetworkTest extends TestCase {
         vn.shutdown();
         assertEquals(SelectionKey.OP_ACCEPT, vp.readyOps());
     }
+
+    private static class CountingInputHandler extends VoltProtocolHandler {
+        final CountDownLatch latch;
+        final Set<String> threadNames;
+
+        CountingInputHandler(CountDownLatch latch, Set<String> threadNames) {
+            this.latch = latch;
+            this.threadNames = threadNames;
+        }
+        @Override
+        public int getMaxRead() {
+            return Integer.MAX_VALUE;
+        }
+        @Override
+        public void handleMessage(ByteBuffer message, Connection c) {
+            threadNames.add(Thread.currentThread().getName());
+            latch.countDown();
+        }
+        @Override
+        public int getExpectedOutgoingMessageSize() {
+            return 2048;
+        }
+        @Override
+        public Runnable offBackPressure() {
+            return null;
+        }
+        @Override
+        public Runnable onBackPressure() {
+            return null;
+        }
+        @Override
+        public QueueMonitor writestreamMonitor() {
+            return null;
+        }
+    }
+
+    public void testMultipleSelectors() throws Exception {
+        final int numSelectors = 2;
+        final int numConnections = 4;
+        final int numMessages = 10;
+
+        VoltNetwork vn = new VoltNetwork(numSelectors);
+        assertEquals(numSelectors, vn.getSelectorCount());
+        vn.start();
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("localhost", 0));
+        final CountDownLatch latch = new CountDownLatch(numConnections * numMessages);
+        final Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+        List<SocketChannel> clients = new ArrayList<SocketChannel>();
+        try {
+            for (int i = 0; i < numConnections; i++) {
+                SocketChannel client = SocketChannel.open(server.socket().getLocalSocketAddress());
+                clients.add(client);
+                vn.registerChannel(server.accept(), new CountingInputHandler(latch, threadNames));
+            } // FOR
+
+            // The connections should be spread evenly across the selectors
+            Map<Integer, long[]> stats = vn.getSelectorStats();
+            assertEquals(numSelectors, stats.size());
+            for (long s[] : stats.values()) {
+                assertEquals(numConnections / numSelectors, s[VoltNetwork.SELECTOR_STATS_PORTS]);
+            } // FOR
+
+            for (SocketChannel client : clients) {
+                for (int i = 0; i < numMessages; i++) {
+                    ByteBuffer buf = ByteBuffer.allocate(8);
+                    buf.putInt(4);
+                    buf.putInt(i);
+                    buf.flip();
+                    while (buf.hasRemaining()) client.write(buf);
+                } // FOR
+            } // FOR
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+            // Messages should be handled inline on the selector threads
+            for (String name : threadNames) {
+                assertTrue(name, name.startsWith("Volt Network - "));
+            } // FOR
+            // The message counters are bumped right after the handler returns
+            long messagesRead = 0;
+            for (int tries = 0; tries < 100; tries++) {
+                messagesRead = 0;
+                for (long s[] : vn.getSelectorStats().values()) {
+                    messagesRead += s[VoltNetwork.SELECTOR_STATS_MESSAGES_READ];
+                } // FOR
+                if (messagesRead == numConnections * numMessages) break;
+                Thread.sleep(10);
+            } // FOR
+            assertEquals(numConnections * numMessages, messagesRead);
+
+            // The stats source reports one row per selector
+            SelectorStats selectorStats = new SelectorStats("Selectors", vn);
+            Object rows[][] = selectorStats.getStatsRows(false, System.currentTimeMillis());
+            assertEquals(numSelectors, rows.length);
+            int portsIdx = selectorStats.getColumnSchema().size() - 5;
+            for (Object row[] : rows) {
+                assertEquals((long)(numConnections / numSelectors), row[portsIdx]);
+            } // FOR
+        } finally {
+            for (SocketChannel client : clients) {
+                client.close();
+            } // FOR
+            server.close();
+            vn.shutdown();
+        }
+    }
 }
@@ -0,0 +1,123 @@
+package org.voltdb.regressionsuites;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.voltdb.BackendTarget;
+import org.voltdb.VoltTable;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Table;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcCallException;
+
+import edu.brown.benchmark.mapreduce.MapReduceConstants;
+import edu.brown.benchmark.mapreduce.MapReduceProjectBuilder;
+import edu.brown.benchmark.mapreduce.procedures.MockMapReduce;
+import edu.brown.benchmark.mapreduce.procedures.MockMapReduceNoCombiner;
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.hstore.Hstoreservice.Status;
+
+/**
+ * Make sure that a MapReduce job gives back the same answer whether
+ * or not it uses a map-side combiner
+ */
+public class TestMapReduceCombinerSuite extends RegressionSuite {
+    
+    private static final String PREFIX = "mrcombiner";
+    private static final int NUM_TUPLES_PER_PARTITION = 50;
+    private static final long MIN_AGE = MapReduceConstants.MAX_AGE / 4;
+    
+    public TestMapReduceCombinerSuite(String name) {
+        super(name);
+    }
+    
+    @Test
+    public void testCombinerOutput() throws IOException, ProcCallException {
+        Client client = this.getClient();
+        Map<String, Long> expected = this.loadTable_TABLEA(client);
+        assertFalse(expected.isEmpty());
+        
+        ClientResponse cr = client.callProcedure(MockMapReduceNoCombiner.class.getSimpleName(), MIN_AGE);
+        assertEquals(Status.OK, cr.getStatus());
+        Map<String, Long> without = this.getCounts(cr.getResults());
+        
+        cr = client.callProcedure(MockMapReduce.class.getSimpleName(), MIN_AGE);
+        assertEquals(Status.OK, cr.getStatus());
+        Map<String, Long> with = this.getCounts(cr.getResults());
+        
+        assertEquals(expected, without);
+        assertEquals(without, with);
+    }
+    
+    /**
+     * Collect the NAME->COUNTER pairs from the REDUCE output.
+     * Every key should only show up once across all of the partitions
+     */
+    private Map<String, Long> getCounts(VoltTable results[]) {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (VoltTable vt : results) {
+            vt.resetRowPosition();
+            while (vt.advanceRow()) {
+                Long prev = counts.put(vt.getString(0), vt.getLong(1));
+                assertNull(vt.toString(), prev);
+            } // WHILE
+        } // FOR
+        return (counts);
+    }
+    
+    /**
+     * Load random tuples into TABLEA and return the number of tuples 
+     * for each A_NAME that the MapReduce jobs should count
+     */
+    protected Map<String, Long> loadTable_TABLEA(Client client) throws IOException, ProcCallException {
+        int num_partitions = this.getServerConfig().getPartitionCount();
+        int num_tuples = num_partitions * NUM_TUPLES_PER_PARTITION;
+
+        Database catalog_db = CatalogUtil.getDatabase(this.getCatalog());
+        Table catalog_tbl = catalog_db.getTables().get(MapReduceConstants.TABLENAME_TABLEA);
+        assertNotNull(catalog_tbl);
+        
+        Map<String, Long> expected = new HashMap<String, Long>();
+        Random rand = new Random(0);
+        VoltTable vt = CatalogUtil.getVoltTable(catalog_tbl);
+        for (int i = 0; i < num_tuples; i++) {
+            String name = MapReduceConstants.NAME_PREFIX + rand.nextInt(MapReduceConstants.NUM_UNIQUE_NAMES);
+            long age = rand.nextInt(MapReduceConstants.MAX_AGE);
+            vt.addRow((long)i, name, age);
+            if (age >= MIN_AGE) {
+                Long cnt = expected.get(name);
+                expected.put(name, (cnt == null ? 1l : cnt + 1));
+            }
+        } // FOR
+        
+        ClientResponse cr = client.callProcedure("@LoadMultipartitionTable", catalog_tbl.getName(), vt);
+        assertEquals(Status.OK, cr.getStatus());
+        
+        return (expected);
+    }
+    
+    static public junit.framework.Test suite() {
+        VoltServerConfig config = null;
+        MultiConfigSuiteBuilder builder = new MultiConfigSuiteBuilder(TestMapReduceCombinerSuite.class);
+
+        MapReduceProjectBuilder project = new MapReduceProjectBuilder();
+        project.addAllDefaults();
+        project.addProcedures(MockMapReduceNoCombiner.class);
+        
+        boolean success = false;
+        
+        // CLUSTER CONFIG #1
+        // One site with two partitions running in this JVM
+        config = new LocalSingleProcessServer(PREFIX + "-twoPart.jar", 2, BackendTarget.NATIVE_EE_JNI);
+        success = config.compile(project);
+        assert(success);
+        builder.addServerConfig(config);
+        
+        return builder;
+    }
+    
+}
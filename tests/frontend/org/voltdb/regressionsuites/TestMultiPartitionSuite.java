@@ -81,6 +81,28 @@ public class TestMultiPartitionSuite extends RegressionSuite {
         assertTrue(true);
     }
 
+    public void testRepeatedScan() throws IOException {
+        Client client = getClient();
+
+        try {
+            client.callProcedure("InsertNewOrder", 1L, 1L, 1L);
+            client.callProcedure("InsertNewOrder", 2L, 2L, 2L);
+            client.callProcedure("InsertNewOrder", 3L, 3L, 3L);
+            client.callProcedure("InsertNewOrder", 4L, 4L, 5L);
+
+            // Run more txns than there are buffers in the EE's result arena so that
+            // they have to get reused once the earlier txns release their results
+            for (int i = 0; i < 20; i++) {
+                VoltTable[] results = client.callProcedure("MultiSiteSelect").getResults();
+                assertEquals(1, results.length);
+                assertEquals(4, results[0].getRowCount());
+            } // FOR
+        } catch (Exception e) {
+            e.printStackTrace();
+            assertTrue(false);
+        }
+    }
+
     public void testIndexScan() throws IOException {
         Client client = getClient();
 
@@ -225,6 +247,18 @@ public class TestMultiPartitionSuite extends RegressionSuite {
         // add this config to the set of tests to run
 //        builder.addServerConfig(config);
 
+        /////////////////////////////////////////////////////////////
+        // CONFIG #4: 2 Local Site/Partitions with the EE result arena
+        /////////////////////////////////////////////////////////////
+
+        // the intermediate results that the multi-partition txns send to
+        // the base partition are views over the EE's ResultBuffers
+        config = new LocalSingleProcessServer("distregression-arena.jar", 2, BackendTarget.NATIVE_EE_JNI);
+        config.setConfParameter("site.exec_ee_result_arena_size", 2);
+        config.setTestNameSuffix("arena");
+        config.compile(project);
+        builder.addServerConfig(config);
+
         // Cluster
         config = new LocalCluster("distregression-cluster.jar", 2, 2,
                                   1, BackendTarget.NATIVE_EE_JNI);
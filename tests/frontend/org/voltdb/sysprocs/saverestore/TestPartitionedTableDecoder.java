@@ -0,0 +1,170 @@
+package org.voltdb.sysprocs.saverestore;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.voltdb.TheHashinator;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Table;
+import org.voltdb.utils.CatalogUtil;
+import org.voltdb.utils.DBBPool;
+import org.voltdb.utils.DBBPool.BBContainer;
+import org.voltdb.utils.VoltTypeUtil;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.TM1Constants;
+import edu.brown.utils.ProjectType;
+
+public class TestPartitionedTableDecoder extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final int NUM_DECODERS = 4;
+    private static final int NUM_CHUNKS = 50;
+    private static final int ROWS_PER_CHUNK = 100;
+
+    private Table catalog_tbl;
+    private ExecutorService pool;
+    private final ArrayDeque<BBContainer> chunks = new ArrayDeque<BBContainer>();
+
+    /**
+     * Serves up the chunks that we generated in setUp() the same way
+     * that SnapshotRestore serves them up out of the TableSaveFiles
+     */
+    private class MockDecoder extends PartitionedTableDecoder {
+        final AtomicInteger decoded = new AtomicInteger(0);
+        final int fail_chunk;
+
+        MockDecoder(int fail_chunk) {
+            super(catalog_tbl, NUM_PARTITIONS, NUM_DECODERS);
+            this.fail_chunk = fail_chunk;
+        }
+        @Override
+        protected boolean hasMoreChunks() {
+            synchronized (chunks) {
+                return (chunks.isEmpty() == false);
+            } // SYNCH
+        }
+        @Override
+        protected BBContainer getNextChunk() throws IOException {
+            synchronized (chunks) {
+                return (chunks.poll());
+            } // SYNCH
+        }
+        @Override
+        protected VoltTable[] decode(BBContainer c, boolean needsConversion) {
+            if (this.decoded.incrementAndGet() == this.fail_chunk) {
+                throw new RuntimeException("Fake decoder failure");
+            }
+            return super.decode(c, needsConversion);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.catalog_tbl = this.getTable(TM1Constants.TABLENAME_SUBSCRIBER);
+        this.pool = Executors.newFixedThreadPool(NUM_DECODERS);
+
+        Column catalog_cols[] = CatalogUtil.getSortedCatalogItems(catalog_tbl.getColumns(), "index").toArray(new Column[0]);
+        int partition_col = catalog_tbl.getPartitioncolumn().getIndex();
+        long id = 0;
+        for (int i = 0; i < NUM_CHUNKS; i++) {
+            VoltTable vt = CatalogUtil.getVoltTable(catalog_tbl);
+            for (int j = 0; j < ROWS_PER_CHUNK; j++) {
+                Object row[] = new Object[catalog_cols.length];
+                for (int k = 0; k < row.length; k++) {
+                    row[k] = VoltTypeUtil.getRandomValue(VoltType.get((byte)catalog_cols[k].getType()));
+                } // FOR
+                row[partition_col] = id++;
+                vt.addRow(row);
+            } // FOR
+            this.chunks.add(DBBPool.wrapBB(vt.getTableDataReference()));
+        } // FOR
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.pool.shutdownNow();
+        assertTrue(this.pool.awaitTermination(10, TimeUnit.SECONDS));
+        super.tearDown();
+    }
+
+    /**
+     * testRoundTrip
+     */
+    public void testRoundTrip() throws Exception {
+        MockDecoder decoder = new MockDecoder(-1);
+        decoder.start(this.pool);
+
+        int partition_col = catalog_tbl.getPartitioncolumn().getIndex();
+        Set<Long> ids = new HashSet<Long>();
+        VoltTable partitioned_tables[] = null;
+        while ((partitioned_tables = decoder.next()) != null) {
+            assertEquals(NUM_PARTITIONS, partitioned_tables.length);
+            for (int p = 0; p < NUM_PARTITIONS; p++) {
+                VoltTable vt = partitioned_tables[p];
+                assertEquals(catalog_tbl.getColumns().size(), vt.getColumnCount());
+                while (vt.advanceRow()) {
+                    long s_id = vt.getLong(partition_col);
+                    assertEquals(p, TheHashinator.hashToPartition(s_id, NUM_PARTITIONS));
+                    assertTrue(ids.add(s_id));
+                } // WHILE
+            } // FOR
+        } // WHILE
+        assertNull(decoder.getError());
+        assertTrue(decoder.isFinished());
+        assertEquals(NUM_CHUNKS, decoder.decoded.get());
+        assertEquals(NUM_CHUNKS * ROWS_PER_CHUNK, ids.size());
+    }
+
+    /**
+     * testDecoderFailure
+     */
+    public void testDecoderFailure() throws Exception {
+        MockDecoder decoder = new MockDecoder(NUM_CHUNKS / 4);
+        decoder.start(this.pool);
+
+        // We shouldn't get back anything once the failure has been noticed,
+        // but next() still needs to wait for every decoder to finish
+        int batches = 0;
+        while (decoder.next() != null) {
+            batches++;
+        } // WHILE
+        assertTrue(batches < NUM_CHUNKS);
+        assertTrue(decoder.isFinished());
+        assertNotNull(decoder.getError());
+        assertEquals("Fake decoder failure", decoder.getError().getMessage());
+
+        // The decoders should have stopped pulling chunks
+        assertTrue(decoder.decoded.get() < NUM_CHUNKS);
+        assertFalse(Thread.interrupted());
+    }
+
+    /**
+     * testInterrupted
+     */
+    public void testInterrupted() throws Exception {
+        MockDecoder decoder = new MockDecoder(-1);
+        decoder.start(this.pool);
+
+        // Wait until the queue fills up so that the decoders are blocked on it
+        while (decoder.decoded.get() < NUM_DECODERS * 3) {
+            Thread.sleep(10);
+        } // WHILE
+        Thread.currentThread().interrupt();
+        assertNull(decoder.next());
+        assertTrue(Thread.interrupted());
+
+        assertTrue(decoder.isFinished());
+        assertTrue(decoder.getError() instanceof InterruptedException);
+        assertTrue(decoder.decoded.get() < NUM_CHUNKS);
+    }
+}
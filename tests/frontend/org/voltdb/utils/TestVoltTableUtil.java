@@ -1,5 +1,7 @@
 package org.voltdb.utils;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 import org.junit.Test;
@@ -63,6 +65,46 @@ public class TestVoltTableUtil extends TestCase {
         } // FOR
     }
     
+    /**
+     * testMerge
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void testMerge() throws Exception {
+        Pair<Integer, SortDirectionType> sortCol = Pair.of(0, SortDirectionType.ASC);
+        List<VoltTable> runs = new ArrayList<VoltTable>();
+        int num_rows = 0;
+        for (int i = 0; i < 4; i++) {
+            VoltTable vt = new VoltTable(SCHEMA);
+            for (int j = 0, cnt = rand.nextInt(NUM_ROWS); j < cnt; j++) {
+                Object row[] = new Object[SCHEMA.length];
+                for (int k = 0; k < row.length; k++) {
+                    row[k] = VoltTypeUtil.getRandomValue(SCHEMA[k].getType());
+                } // FOR
+                // Include some duplicate keys across the runs
+                if (j % 3 == 0) row[0] = new Long(j);
+                vt.addRow(row);
+            } // FOR
+            runs.add(VoltTableUtil.sort(vt, sortCol));
+            num_rows += vt.getRowCount();
+        } // FOR
+        runs.add(this.table.getRowCount() > 0 ? VoltTableUtil.sort(this.table, sortCol) : this.table);
+        num_rows += this.table.getRowCount();
+        
+        VoltTable merged = VoltTableUtil.merge(runs, sortCol);
+        assertNotNull(merged);
+        assertEquals(num_rows, merged.getRowCount());
+        
+        Comparable last = null;
+        while (merged.advanceRow()) {
+            Comparable cur = (Comparable<?>) merged.get(sortCol.getFirst());
+            if (last != null) {
+                assert (cur.compareTo(last) >= 0) : String.format("%s >= %s", cur, last);
+            }
+            last = cur;
+        } // WHILE
+    }
+    
     /**
      * testDuplicates
      */